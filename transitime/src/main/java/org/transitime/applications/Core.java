@@ -17,7 +17,6 @@
 package org.transitime.applications;
 
 import java.io.PrintWriter;
-import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
@@ -29,8 +28,6 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
-import org.apache.commons.lang3.time.DateUtils;
-import org.hibernate.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.config.ConfigFileReader;
@@ -38,9 +35,10 @@ import org.transitime.configData.AgencyConfig;
 import org.transitime.configData.CoreConfig;
 import org.transitime.core.ServiceUtils;
 import org.transitime.core.TimeoutHandlerModule;
+import org.transitime.core.dataCache.HistoricalAverageCache;
+import org.transitime.core.dataCache.HistoricalCacheWarmUp;
+import org.transitime.core.dataCache.KalmanErrorCache;
 import org.transitime.core.dataCache.PredictionDataCache;
-import org.transitime.core.dataCache.StopArrivalDepartureCache;
-import org.transitime.core.dataCache.TripDataHistoryCache;
 import org.transitime.core.dataCache.VehicleDataCache;
 import org.transitime.db.hibernate.DataDbLogger;
 import org.transitime.db.hibernate.HibernateUtils;
@@ -377,35 +375,6 @@ public class Core {
 		}
 	}
 	
-	private static void fillHistoricalCaches() {
-	  Session session = HibernateUtils.getSession();
-    
-    Date endDate=Calendar.getInstance().getTime();
-    /* populate one day at a time to avoid memory issue */
-    for(int i=0;i<CoreConfig.getDaysPopulateHistoricalCache();i++)
-    {
-      Date startDate=DateUtils.addDays(endDate, -1);
-      
-      logger.debug("Populating TripDataHistoryCache cache for period {} to {}",startDate,endDate);
-      TripDataHistoryCache.getInstance().populateCacheFromDb(session, startDate, endDate);
-      
-      endDate=startDate;
-    }
-          
-    endDate=Calendar.getInstance().getTime();
-    /* populate one day at a time to avoid memory issue */
-    for(int i=0;i<CoreConfig.getDaysPopulateHistoricalCache();i++)
-    {
-      Date startDate=DateUtils.addDays(endDate, -1);
-      
-      logger.debug("Populating StopArrivalDepartureCache cache for period {} to {}",startDate,endDate);
-      StopArrivalDepartureCache.getInstance().populateCacheFromDb(session, startDate, endDate);
-      
-      endDate=startDate;
-    }
-	}
-	
-	
 	/**
 	 * Start the RMI Servers so that clients can obtain data
 	 * on predictions, vehicles locations, etc.
@@ -449,8 +418,16 @@ public class Core {
 			// Initialize the core now
 			createCore();
 			
+			// Load the caches that are persisted to files now, instead of
+			// when first used, so that the first predictions are as good
+			// as the ones before the restart
+			KalmanErrorCache.getInstance();
+			HistoricalAverageCache.getInstance();
+			
+			// Fill the historical caches in the background so that AVL
+			// processing can start before they are completely filled
 			if (CoreConfig.getFillHistoricalCaches())
-			  fillHistoricalCaches();
+			  HistoricalCacheWarmUp.start();
 			
 			// Start any optional modules. 
 			List<String> optionalModuleNames = CoreConfig.getOptionalModules();
@@ -21,6 +21,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.config.ConfigFileReader;
 import org.transitime.configData.AgencyConfig;
+import org.transitime.gtfs.BinarySchedule;
 import org.transitime.gtfs.GtfsData;
 import org.transitime.gtfs.HttpGetGtfsFile;
 import org.transitime.gtfs.TitleFormatter;
@@ -30,6 +31,7 @@ import org.transitime.utils.Time;
 import org.transitime.utils.Zip;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -290,6 +292,21 @@ public class GtfsFileProcessor {
 						trimPathBeforeFirstStopOfTrip, titleFormatter);
 		gtfsData.processData();
 
+		// Write the binary schedule so the core can use it instead of
+		// reading all of the schedule times and paths from the db
+		if (BinarySchedule.isEnabled()) {
+			try {
+				int configRev = gtfsData.getConfigRevision().getConfigRev();
+				BinarySchedule.write(
+						BinarySchedule.getFile(AgencyConfig.getAgencyId(),
+								configRev),
+						configRev, gtfsData.getTrips(), gtfsData.getPaths());
+			} catch (IOException e) {
+				logger.error("Could not write binary schedule. {}",
+						e.getMessage(), e);
+			}
+		}
+
 		// Log possibly useful info
 		titleFormatter.logRegexesThatDidNotMakeDifference();
 
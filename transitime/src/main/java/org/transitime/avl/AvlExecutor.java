@@ -48,6 +48,9 @@ public class AvlExecutor {
 	// The actual executor
 	ThreadPoolExecutor avlClientExecutor = null;
 	
+	// The queue used by the executor. Kept so that can get its statistics.
+	private final AvlQueue avlQueue;
+	
 	// Singleton class
 	private static AvlExecutor singleton;
 	
@@ -59,12 +62,12 @@ public class AvlExecutor {
 	
 	private static IntegerConfigValue avlQueueSize = 
 			new IntegerConfigValue("transitime.avl.queueSize", 2000,
-					"How many items to go into the blocking AVL queue "
-					+ "before need to wait for queue to have space. Should "
-					+ "be approximately 50% more than the number of reports "
-					+ "that will be read during a single AVL polling cycle. "
-					+ "If too big then wasteful. If too small then not all the "
-					+ "data will be rejected by the ThreadPoolExecutor. ");
+					"How many vehicles can have an AVL report waiting in the "
+					+ "AVL queue before need to wait for queue to have "
+					+ "space. Since only the latest report for a vehicle is "
+					+ "kept in the queue this should be somewhat more than "
+					+ "the number of vehicles in the AVL feed. If too small "
+					+ "then data will be rejected by the ThreadPoolExecutor. ");
 
 	private static IntegerConfigValue numAvlThreads = 
 			new IntegerConfigValue("transitime.avl.numThreads", 1,
@@ -112,7 +115,8 @@ public class AvlExecutor {
 		int corePoolSize = 1;
 		int maximumPoolSize = numberThreads;
 		long keepAliveTime = 1; /* 1 hour */
-		BlockingQueue<Runnable> workQueue = new AvlQueue(maxAVLQueueSize);
+		avlQueue = new AvlQueue(maxAVLQueueSize);
+		BlockingQueue<Runnable> workQueue = avlQueue;
 		NamedThreadFactory avlClientThreadFactory =
 				new NamedThreadFactory("avlClient");
 		// Called when queue fills up
@@ -122,7 +126,8 @@ public class AvlExecutor {
 				String message = "Rejected AVL report in AvlExecutor for agencyId=" 
 						+ AgencyConfig.getAgencyId() + ". The work "
 						+ "queue with capacity " + maxAVLQueueSize 
-						+ " must be full. " + ((AvlClient) arg0).getAvlReport();
+						+ " vehicles must be full. " 
+						+ ((AvlClient) arg0).getAvlReport() + " " + avlQueue;
 				// If first one then send out an e-mail message since this can 
 				// be a serious issue indicating that system is locked up. This
 				// actually happened once when couldn't read from db due to a
@@ -156,6 +161,17 @@ public class AvlExecutor {
 		return singleton;
 	}
 	
+	/**
+	 * Returns the queue used by the executor if the executor has been
+	 * started, so that its statistics can be monitored.
+	 * 
+	 * @return the AvlQueue or null if AvlExecutor not being used
+	 */
+	public static AvlQueue getQueueIfStarted() {
+		AvlExecutor executor = singleton;
+		return executor != null ? executor.avlQueue : null;
+	}
+	
 	/**
 	 * Instead of writing AVL report to JMS topic this method directly processes
 	 * it. By doing this one can bypass the need for a JMS server. Uses a thread
@@ -166,9 +182,9 @@ public class AvlExecutor {
 	 * <p>
 	 * Uses a queue so that if system gets behind in processing AVL data then
 	 * AVL data is written to a queue that keeps track of the latest AVL report
-	 * per vehicle. If another AVL report is to be added to the queue then the
-	 * previous one is removed since there is no point processing an old AVL
-	 * report for a vehicle when new data is available.
+	 * per vehicle. If another AVL report is to be added to the queue then it
+	 * replaces the previous one in place since there is no point processing
+	 * an old AVL report for a vehicle when new data is available.
 	 * <p>
 	 * Causes AvlClient.run() to be called on each AvlReport, unless using test
 	 * executor, in which case the AvlClientTester() is called.
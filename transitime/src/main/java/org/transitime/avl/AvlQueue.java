@@ -16,42 +16,108 @@
  */
 package org.transitime.avl;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.db.structs.AvlReport;
+import org.transitime.utils.Time;
 
 /**
  * A queue of AvlClient runnables that can be used with a ThreadPoolExecutor.
- * Implements by subclassing a ArrayBlockingQueue<Runnable> where the Runnable
- * is an AvlClient. Also keeps track of the last AVL report per vehicle. When
- * getting data from queue, if the data is obsolete (a new AVL report has been
- * received for the vehicle) then that element from the queue is thrown out and
- * the next item is retrieved until a non-obsolete one is found.
+ * Keeps at most one pending AVL report per vehicle. If a new report comes in
+ * for a vehicle that already has one in the queue then the queued one is
+ * replaced in place by the new one, since there is no point processing an
+ * old AVL report for a vehicle when newer data is available. Since the
+ * vehicle keeps its place in the queue the vehicles are processed in the
+ * order that they started waiting, so the vehicle that has been waiting the
+ * longest is always processed next and a vehicle that reports frequently
+ * cannot crowd out the others.
  * <p>
- * Extended ArrayBlockingQueue class so that don't have to create a blocking
- * queue from scratch.
+ * This means that the capacity of the queue is in terms of vehicles. When a
+ * feed replays a backlog of reports after an outage the queue doesn't fill
+ * up with stale reports and fresh data is not rejected. Reports older than
+ * the last one received for the vehicle are simply discarded. Vehicles that
+ * haven't reported for a while are forgotten so that the last AVL times
+ * don't grow without bound as vehicles come and go.
  * <p>
- * Note: wanted to extend from ArrayBlockingQueue<AvlClient> but that didn't
- * work for the ThreadPoolExecutor which expects a BlockingQueue<Runnable>. So
- * had to resort to doing ugly casts.
+ * Keeps statistics on how many reports were coalesced, discarded as obsolete,
+ * or rejected because the queue was full, and on how long vehicles waited in
+ * the queue.
+ * <p>
+ * Note: wanted to implement BlockingQueue<AvlClient> but that doesn't work for
+ * the ThreadPoolExecutor which expects a BlockingQueue<Runnable>. So had to
+ * resort to doing ugly casts.
  * 
  * @author SkiBu Smith
  *
  */
-public class AvlQueue extends ArrayBlockingQueue<Runnable> {
-
-	// For keeping track of the last AVL report for each vehicle. Used to
-	// determine if AVL report from queue is obsolete.
-	ConcurrentMap<String, AvlReport> avlDataPerVehicleMap =
-			new ConcurrentHashMap<String, AvlReport>();
-
-	private static final long serialVersionUID = 6587642826604552096L;
+public class AvlQueue extends AbstractQueue<Runnable> 
+		implements BlockingQueue<Runnable> {
 
+	// Max number of vehicles that can have a pending report
+	private final int capacity;
+	
+	// How long, in terms of AVL time, before a vehicle that hasn't reported
+	// is removed from lastAvlTimePerVehicle
+	private static final long STALE_VEHICLE_MSEC = 2 * Time.MS_PER_HOUR;
+	private final long staleVehicleMsec;
+	
+	/**
+	 * The pending report for a vehicle. The report is replaced when a newer
+	 * one comes in but queuedTime stays the same so that it is known how
+	 * long the vehicle has been waiting.
+	 */
+	private static class PendingReport {
+		private AvlClient avlClient;
+		private final long queuedTime;
+		
+		private PendingReport(AvlClient avlClient, long queuedTime) {
+			this.avlClient = avlClient;
+			this.queuedTime = queuedTime;
+		}
+	}
+	
+	// The pending reports keyed by vehicle ID. Ordered by when the vehicle
+	// was first queued. Replacing a value doesn't change the order.
+	private final LinkedHashMap<String, PendingReport> pendingByVehicle =
+			new LinkedHashMap<String, PendingReport>();
+	
+	// Time of the last AVL report received for each vehicle. Used to
+	// determine if a new AVL report is obsolete.
+	private final Map<String, Long> lastAvlTimePerVehicle =
+			new HashMap<String, Long>();
+	
+	// Latest AVL time received for any vehicle, and the AVL time when the
+	// stale vehicles were last removed
+	private long latestAvlTime = 0;
+	private long lastPruneAvlTime = 0;
+	
+	// Guards all access to the above
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	
+	// Statistics
+	private final AtomicLong coalescedCount = new AtomicLong();
+	private final AtomicLong obsoleteCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong dequeuedCount = new AtomicLong();
+	private final AtomicLong totalLatencyMsec = new AtomicLong();
+	private final AtomicLong maxLatencyMsec = new AtomicLong();
+	
 	private static final Logger logger = LoggerFactory
 			.getLogger(AvlQueue.class);
 
@@ -61,160 +127,401 @@ public class AvlQueue extends ArrayBlockingQueue<Runnable> {
 	 * Constructs the queue to have specified size.
 	 * 
 	 * @param queueSize
-	 *            How many AVL elements can be put into the queue before it
+	 *            How many vehicles can have AVL reports in the queue before it
 	 *            blocks.
 	 */
 	public AvlQueue(int queueSize) {
-		super(queueSize);
+		this(queueSize, STALE_VEHICLE_MSEC);
 	}
 
 	/**
-	 * Adds the AVL report to the map of last AVL report for each vehicle
+	 * Constructs the queue with how long before a vehicle that hasn't
+	 * reported is forgotten. Package-private so it can be used for testing.
 	 * 
-	 * @param runnable the AvlClient
+	 * @param queueSize
+	 * @param staleVehicleMsec
 	 */
-	private void addToAvlDataPerVehicleMap(Runnable runnable) {
+	AvlQueue(int queueSize, long staleVehicleMsec) {
+		if (queueSize < 1)
+			throw new IllegalArgumentException("queueSize must be at least 1");
+		this.capacity = queueSize;
+		this.staleVehicleMsec = staleVehicleMsec;
+	}
+
+	private static AvlClient toAvlClient(Object runnable) {
 		if (!(runnable instanceof AvlClient))
 			throw new IllegalArgumentException("Runnable must be AvlClient.");
+		return (AvlClient) runnable;
+	}
+	
+	/**
+	 * Adds the AVL client to the queue, replacing the pending one for the
+	 * vehicle if there is one. Must be called while holding the lock.
+	 * 
+	 * @param avlClient
+	 * @return false if the queue is full and the vehicle doesn't already have
+	 *         a pending report
+	 */
+	private boolean enqueue(AvlClient avlClient) {
+		AvlReport avlReport = avlClient.getAvlReport();
+		String vehicleId = avlReport.getVehicleId();
+		pruneStaleVehiclesIfNeeded(avlReport.getTime());
+		
+		// If report older than latest one for the vehicle then it is obsolete
+		// and doesn't need to be processed. Considered handled though.
+		Long lastAvlTime = lastAvlTimePerVehicle.get(vehicleId);
+		if (lastAvlTime != null && avlReport.getTime() < lastAvlTime) {
+			obsoleteCount.incrementAndGet();
+			logger.debug("AVL report is obsolete (there is a newer one for "
+					+ "the vehicle). Therefore ignoring it. {}", avlReport);
+			return true;
+		}
 		
-		AvlReport avlReport = ((AvlClient) runnable).getAvlReport();
-		avlDataPerVehicleMap.put(avlReport.getVehicleId(), avlReport);
+		// If vehicle already has a pending report then replace it in place
+		PendingReport pending = pendingByVehicle.get(vehicleId);
+		if (pending != null) {
+			logger.debug("Replacing queued AVL report {} with newer one {}", 
+					pending.avlClient.getAvlReport(), avlReport);
+			pending.avlClient = avlClient;
+			lastAvlTimePerVehicle.put(vehicleId, avlReport.getTime());
+			coalescedCount.incrementAndGet();
+			return true;
+		}
+		
+		if (pendingByVehicle.size() >= capacity)
+			return false;
+		
+		pendingByVehicle.put(vehicleId, 
+				new PendingReport(avlClient, System.currentTimeMillis()));
+		lastAvlTimePerVehicle.put(vehicleId, avlReport.getTime());
+		notEmpty.signal();
+		return true;
 	}
-
+	
 	/**
-	 * Returns true if the AVL report is older than the latest one for the
-	 * vehicle and is therefore obsolete and doesn't need to be processed.
+	 * Removes the vehicles that haven't reported in staleVehicleMsec from
+	 * lastAvlTimePerVehicle, unless they have a pending report. AVL time is
+	 * used instead of the system time so that this works the same when
+	 * replaying old data. Only done once every staleVehicleMsec of AVL time
+	 * so that the cost per report is small. Must be called while holding the
+	 * lock.
 	 * 
-	 * @param avlReportFromQueue
-	 *            AvlClient from the queue containing an AvlReport
-	 * @return true of obsolete
+	 * @param avlTime
+	 *            Time of the AVL report being enqueued
 	 */
-	private boolean isObsolete(Runnable runnableFromQueue) {
-		if (!(runnableFromQueue instanceof AvlClient))
-			throw new IllegalArgumentException("Runnable must be AvlClient.");
-
-		AvlReport avlReportFromQueue =
-				((AvlClient) runnableFromQueue).getAvlReport();
+	private void pruneStaleVehiclesIfNeeded(long avlTime) {
+		if (avlTime > latestAvlTime)
+			latestAvlTime = avlTime;
+		if (latestAvlTime < lastPruneAvlTime + staleVehicleMsec)
+			return;
+		lastPruneAvlTime = latestAvlTime;
+		
+		long staleTime = latestAvlTime - staleVehicleMsec;
+		Iterator<Map.Entry<String, Long>> iterator = 
+				lastAvlTimePerVehicle.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, Long> entry = iterator.next();
+			if (entry.getValue() < staleTime
+					&& !pendingByVehicle.containsKey(entry.getKey()))
+				iterator.remove();
+		}
+	}
+	
+	/**
+	 * @return Number of vehicles whose last AVL time is being tracked
+	 */
+	int getNumVehiclesTracked() {
+		lock.lock();
+		try {
+			return lastAvlTimePerVehicle.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Removes the report for the vehicle that has been waiting longest. Must
+	 * be called while holding the lock and queue must not be empty.
+	 * 
+	 * @return the AvlClient
+	 */
+	private AvlClient dequeue() {
+		Iterator<PendingReport> iterator = 
+				pendingByVehicle.values().iterator();
+		PendingReport pending = iterator.next();
+		iterator.remove();
+		notFull.signal();
 		
-		AvlReport lastAvlReportForVehicle =
-				avlDataPerVehicleMap.get(avlReportFromQueue.getVehicleId());
-		boolean obsolete =
-				lastAvlReportForVehicle != null
-						&& avlReportFromQueue.getTime() < lastAvlReportForVehicle
-								.getTime();
-		if (obsolete) {
-			logger.debug("AVL report from queue is obsolete (there is a newer "
-					+ "one for the vehicle). Therefore ignoring this report so "
-					+ "can move on to next valid report for another vehicle. "
-					+ "From queue {}. Last AVL report in map {}. Size of queue "
-					+ "is {}",	
-					avlReportFromQueue, lastAvlReportForVehicle, size());
-		}
-		return obsolete;
-	}
-	
-	/**
-	 * Calls superclass add() method but also updates the AVL data per vehicle
-	 * map. Doesn't seem to be used by ThreadPoolExecutor but still included
+		// Keep track of how long vehicle waited in queue
+		long latencyMsec = System.currentTimeMillis() - pending.queuedTime;
+		dequeuedCount.incrementAndGet();
+		totalLatencyMsec.addAndGet(latencyMsec);
+		long max;
+		while (latencyMsec > (max = maxLatencyMsec.get())
+				&& !maxLatencyMsec.compareAndSet(max, latencyMsec))
+			;
+
+		return pending.avlClient;
+	}
+	
+	/**
+	 * Adds the AVL client to the queue if possible. Used by
+	 * ThreadPoolExecutor. Returns true even if the report was coalesced with
+	 * or discarded in favor of a newer one for the vehicle since it was
+	 * handled.
+	 */
+	@Override
+	public boolean offer(Runnable runnable) {
+		AvlClient avlClient = toAvlClient(runnable);
+		lock.lock();
+		try {
+			boolean successful = enqueue(avlClient);
+			if (!successful)
+				rejectedCount.incrementAndGet();
+			logger.debug("offer() returned {} for {}. size={}", 
+					successful, avlClient.getAvlReport(), 
+					pendingByVehicle.size());
+			return successful;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits for space if needed. Not used by ThreadPoolExecutor but included
 	 * for completeness.
 	 */
 	@Override
-	public boolean add(Runnable runnable) {
-		addToAvlDataPerVehicleMap(runnable);
-		return super.add(runnable);
+	public boolean offer(Runnable runnable, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		AvlClient avlClient = toAvlClient(runnable);
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (!enqueue(avlClient)) {
+				if (nanos <= 0) {
+					rejectedCount.incrementAndGet();
+					return false;
+				}
+				nanos = notFull.awaitNanos(nanos);
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
-	 * Calls superclass put() method but also updates the AVL data per vehicle
-	 * map. Doesn't seem to be used by ThreadPoolExecutor but still included
+	 * Waits for space if needed. Not used by ThreadPoolExecutor but included
 	 * for completeness.
 	 */
 	@Override
 	public void put(Runnable runnable) throws InterruptedException {
-		super.put(runnable);
-		addToAvlDataPerVehicleMap(runnable);
+		AvlClient avlClient = toAvlClient(runnable);
+		lock.lockInterruptibly();
+		try {
+			while (!enqueue(avlClient))
+				notFull.await();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
-	 * Calls superclass offer() method but also updates the AVL data per vehicle
-	 * map. Used by ThreadPoolExecutor.
+	 * Returns the report for the vehicle that has been waiting the longest, or
+	 * null if queue empty.
 	 */
 	@Override
-	public boolean offer(Runnable runnable) {
-		AvlReport avlReport = ((AvlClient)runnable).getAvlReport();
-		logger.debug("offer() remainingCapacity={} {}", 
-				remainingCapacity(), avlReport);
-
-		boolean successful = super.offer(runnable);
-		if (successful)
-			addToAvlDataPerVehicleMap(runnable);
-		
-		logger.debug("offer() returned {} for {}", 
-				successful, avlReport);
-		return successful;
+	public Runnable poll() {
+		lock.lock();
+		try {
+			return pendingByVehicle.isEmpty() ? null : dequeue();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
-	 * Calls superclass offer(timeout, unit) method but also updates the AVL
-	 * data per vehicle map. Doesn't seem to be used by ThreadPoolExecutor but
-	 * still included for completeness.
+	 * Returns the report for the vehicle that has been waiting the longest,
+	 * waiting up to the timeout for one to be available. Used by
+	 * ThreadPoolExecutor.
 	 */
 	@Override
-	public boolean offer(Runnable runnable, long timeout, TimeUnit unit)
+	public Runnable poll(long timeout, TimeUnit unit)
 			throws InterruptedException {
-		boolean successful = super.offer(runnable, timeout, unit);
-		if (successful)
-			addToAvlDataPerVehicleMap(runnable);
-		
-		return successful; 
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (pendingByVehicle.isEmpty()) {
+				if (nanos <= 0)
+					return null;
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			AvlClient avlClient = dequeue();
+			logger.debug("poll(t,u) in AvlQueue returned {}",
+					avlClient.getAvlReport());
+			return avlClient;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
-	 * Calls superclass poll() method until it gets AVL data that is not
-	 * obsolete. Doesn't seem to be used by ThreadPoolExecutor but still
-	 * included for completeness.
+	 * Returns the report for the vehicle that has been waiting the longest,
+	 * waiting for one to be available. Used by ThreadPoolExecutor.
 	 */
 	@Override
-	public Runnable poll() {
-		Runnable runnable;
-		do {
-			runnable = super.poll();
-		} while (isObsolete(runnable));
-		return runnable;
+	public Runnable take() throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (pendingByVehicle.isEmpty())
+				notEmpty.await();
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Runnable peek() {
+		lock.lock();
+		try {
+			return pendingByVehicle.isEmpty() ? null 
+					: pendingByVehicle.values().iterator().next().avlClient;
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
-	 * Calls superclass poll(timeout, unit) method until it gets AVL data that
-	 * is not obsolete. Used by ThreadPoolExecutor.
+	 * @return Number of vehicles with a pending AVL report
 	 */
 	@Override
-	public Runnable poll(long timeout, TimeUnit unit)
-			throws InterruptedException {
-		logger.debug("In poll(t,u) timeout={} units={}", timeout, unit);
+	public int size() {
+		lock.lock();
+		try {
+			return pendingByVehicle.size();
+		} finally {
+			lock.unlock();
+		}
+	}
 
-		Runnable runnable;
-		do {
-			runnable = super.poll(timeout, unit);
-		} while (runnable != null && isObsolete(runnable));
+	@Override
+	public int remainingCapacity() {
+		return capacity - size();
+	}
 
-		if (runnable != null) {
-			logger.debug("poll(t,u) in AvlQueue returned {}",
-					((AvlClient) runnable).getAvlReport());
+	/**
+	 * Removes the specified AvlClient if it is still pending. Used by
+	 * ThreadPoolExecutor when shutting down.
+	 */
+	@Override
+	public boolean remove(Object o) {
+		if (!(o instanceof AvlClient))
+			return false;
+		String vehicleId = ((AvlClient) o).getAvlReport().getVehicleId();
+		lock.lock();
+		try {
+			PendingReport pending = pendingByVehicle.get(vehicleId);
+			if (pending == null || pending.avlClient != o)
+				return false;
+			pendingByVehicle.remove(vehicleId);
+			notFull.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int drainTo(Collection<? super Runnable> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super Runnable> c, int maxElements) {
+		if (c == this)
+			throw new IllegalArgumentException();
+		lock.lock();
+		try {
+			int n = 0;
+			while (n < maxElements && !pendingByVehicle.isEmpty()) {
+				c.add(dequeue());
+				++n;
+			}
+			return n;
+		} finally {
+			lock.unlock();
 		}
-		return runnable;
 	}
 
 	/**
-	 * Calls superclass take() method until it gets AVL data that is not
-	 * obsolete. Doesn't seem to be used by ThreadPoolExecutor but
-	 * still included for completeness.
+	 * Returns an iterator over a snapshot of the pending AvlClients, in the
+	 * order that they will be processed.
 	 */
 	@Override
-	public Runnable take() throws InterruptedException {
-		Runnable runnable;
-		do {
-			runnable = super.take();
-		} while (isObsolete(runnable));
-		return runnable;
+	public Iterator<Runnable> iterator() {
+		lock.lock();
+		try {
+			List<Runnable> snapshot = 
+					new ArrayList<Runnable>(pendingByVehicle.size());
+			for (PendingReport pending : pendingByVehicle.values())
+				snapshot.add(pending.avlClient);
+			return snapshot.iterator();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return Number of AVL reports that replaced a pending one for the same
+	 *         vehicle
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+	
+	/**
+	 * @return Number of AVL reports discarded because a newer one had
+	 *         already been received for the vehicle
+	 */
+	public long getObsoleteCount() {
+		return obsoleteCount.get();
+	}
+	
+	/**
+	 * @return Number of AVL reports not accepted because the queue was full
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+	
+	/**
+	 * @return Average time in msec that a vehicle waited in the queue before
+	 *         its AVL report was processed
+	 */
+	public long getAverageLatencyMsec() {
+		long count = dequeuedCount.get();
+		return count > 0 ? totalLatencyMsec.get() / count : 0;
+	}
+	
+	/**
+	 * @return Longest time in msec that a vehicle waited in the queue
+	 */
+	public long getMaxLatencyMsec() {
+		return maxLatencyMsec.get();
+	}
+	
+	@Override
+	public String toString() {
+		return "AvlQueue [" 
+				+ "size=" + size() 
+				+ ", capacity=" + capacity
+				+ ", coalesced=" + getCoalescedCount()
+				+ ", obsolete=" + getObsoleteCount()
+				+ ", rejected=" + getRejectedCount()
+				+ ", averageLatencyMsec=" + getAverageLatencyMsec()
+				+ ", maxLatencyMsec=" + getMaxLatencyMsec()
+				+ "]";
 	}
 }
@@ -24,6 +24,7 @@ import org.slf4j.LoggerFactory;
 import org.transitime.applications.Core;
 import org.transitime.config.StringConfigValue;
 import org.transitime.core.AvlProcessor;
+import org.transitime.db.archive.DataArchive;
 import org.transitime.db.structs.AvlReport;
 import org.transitime.modules.Module;
 import org.transitime.utils.Time;
@@ -139,6 +140,15 @@ public class PlaybackModule extends Module {
 						getPlaybackVehicleId(),
 						"ORDER BY time");
 		
+		// Older AVL data might have been moved from the db to the archive.
+		// Archived data is older than what is in the db so it goes first.
+		List<AvlReport> archivedReports = DataArchive.getAvlReports(
+				new Date(start), new Date(end), getPlaybackVehicleId());
+		if (!archivedReports.isEmpty()) {
+			archivedReports.addAll(avlReports);
+			avlReports = archivedReports;
+		}
+		
 		logger.info("PlaybackModule read {} AVLReports.", avlReports.size());
 
 		// For next time this method is called
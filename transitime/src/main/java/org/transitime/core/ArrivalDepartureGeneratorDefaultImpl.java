@@ -24,6 +24,7 @@ import org.transitime.applications.Core;
 import org.transitime.config.IntegerConfigValue;
 import org.transitime.configData.AgencyConfig;
 import org.transitime.configData.CoreConfig;
+import org.transitime.core.dataCache.DwellTimeModel;
 import org.transitime.core.dataCache.HistoricalAverageCache;
 import org.transitime.core.dataCache.StopArrivalDepartureCache;
 import org.transitime.core.dataCache.TripDataHistoryCache;
@@ -346,6 +347,22 @@ public class ArrivalDepartureGeneratorDefaultImpl
 	 * @param arrivalDeparture
 	 */
 	protected void storeInDbAndLog(ArrivalDeparture arrivalDeparture) {
+		storeInDbAndLog(arrivalDeparture, true);
+	}
+	
+	/**
+	 * Stores the specified ArrivalDeparture object into the db and log to the
+	 * ArrivalsDeparatures log file that the object was created.
+	 * 
+	 * @param arrivalDeparture
+	 * @param observedAtStop
+	 *            false if the time was estimated from the expected travel and
+	 *            stop times, such as for the stops traversed between AVL
+	 *            reports. Such times just reflect the schedule so they are
+	 *            not used for the dwell time model.
+	 */
+	protected void storeInDbAndLog(ArrivalDeparture arrivalDeparture,
+			boolean observedAtStop) {
 		// If arrival/departure time too far from the AVL time then something 
 		// must be wrong. For this situation don't store the arrival/departure 
 		// into db.
@@ -383,6 +400,11 @@ public class ArrivalDepartureGeneratorDefaultImpl
 		  HistoricalAverageCache.getInstance().putArrivalDeparture(arrivalDeparture);
 		}
 		
+		// The dwell time model is used for predictions, not just for the
+		// historical caches, so it is filled in whenever it is enabled
+		if (observedAtStop)
+			DwellTimeModel.getInstance().putArrivalDeparture(arrivalDeparture);
+		
 		// Generate prediction accuracy info as appropriate
 		PredictionAccuracyModule.handleArrivalDeparture(arrivalDeparture);
 	}
@@ -508,7 +530,7 @@ public class ArrivalDepartureGeneratorDefaultImpl
 			// stop
 			if (!newMatch.isAtStop(tripIndex, stopPathIndex)) {
 				storeInDbAndLog(createDepartureTime(vehicleState, departureTime,
-						block, tripIndex, stopPathIndex));
+						block, tripIndex, stopPathIndex), false);
 			}
 			
 			// Go through remaining intermediate stops to determine 
@@ -520,14 +542,14 @@ public class ArrivalDepartureGeneratorDefaultImpl
 				long arrivalTime = departureTime
 						+ block.getStopPathTravelTime(tripIndex, stopPathIndex);
 				storeInDbAndLog(createArrivalTime(vehicleState, arrivalTime, block,
-						tripIndex, stopPathIndex));
+						tripIndex, stopPathIndex), false);
 
 				// If the vehicle has left this stop then create the departure
 				if (!newMatch.isAtStop(tripIndex, stopPathIndex)) {
 					int stopTime = block.getPathStopTime(tripIndex, stopPathIndex);
 					departureTime = arrivalTime + stopTime;
 					storeInDbAndLog(createDepartureTime(vehicleState, departureTime,
-							block, tripIndex, stopPathIndex));
+							block, tripIndex, stopPathIndex), false);
 				}
 			}
 			
@@ -1066,7 +1088,8 @@ public class ArrivalDepartureGeneratorDefaultImpl
 					newMatch.getBlock(), 
 					indices.getTripIndex(),
 					indices.getStopPathIndex());
-			storeInDbAndLog(arrival);
+			// Times for the intermediate stops are estimated, not observed
+			storeInDbAndLog(arrival, false);
 			
 			// Determine departure time for current stop
 			double stopTime = block.getPathStopTime(indices.getTripIndex(), 
@@ -1084,7 +1107,7 @@ public class ArrivalDepartureGeneratorDefaultImpl
 					newMatch.getBlock(), 
 					indices.getTripIndex(), 
 					indices.getStopPathIndex());
-			storeInDbAndLog(departure);
+			storeInDbAndLog(departure, false);
 			
 			// Determine travel time to next time for next time through 
 			// the while loop
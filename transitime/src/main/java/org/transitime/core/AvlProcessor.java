@@ -34,6 +34,7 @@ import org.transitime.configData.AvlConfig;
 import org.transitime.configData.CoreConfig;
 import org.transitime.core.SpatialMatcher.MatchingType;
 import org.transitime.core.autoAssigner.AutoBlockAssigner;
+import org.transitime.core.autoAssigner.BatchAutoAssigner;
 import org.transitime.core.blockAssigner.BlockAssigner;
 import org.transitime.core.dataCache.PredictionDataCache;
 import org.transitime.core.dataCache.VehicleDataCache;
@@ -48,7 +49,10 @@ import org.transitime.db.structs.Trip;
 import org.transitime.db.structs.VectorWithHeading;
 import org.transitime.db.structs.VehicleEvent;
 import org.transitime.logging.Markers;
-import org.transitime.monitoring.CloudwatchService;
+import org.transitime.logging.ProcessingTrace;
+import org.transitime.logging.TraceEvent;
+import org.transitime.monitoring.metrics.Histogram;
+import org.transitime.monitoring.metrics.MetricsRegistry;
 import org.transitime.utils.Geo;
 import org.transitime.utils.IntervalTimer;
 import org.transitime.utils.StringUtils;
@@ -130,6 +134,14 @@ public class AvlProcessor {
 
 
 	
+	/*************************** Metrics ******************************/
+
+	private static final Histogram processingTimeMetric = MetricsRegistry
+			.getInstance().histogram("PredictionProcessingTimeInMillis");
+
+	private static final Histogram totalLatencyMetric = MetricsRegistry
+			.getInstance().histogram("PredictionTotalLatencyInMillis");
+
 	/************************** Logging *******************************/
 
 	private static final Logger logger = LoggerFactory
@@ -172,6 +184,11 @@ public class AvlProcessor {
 
 		VehicleState vehicleState = VehicleStateManager.getInstance()
 				.getVehicleState(vehicleId);
+		if (vehicleState.isTraced()) {
+			ProcessingTrace trace = ProcessingTrace.getInstance();
+			trace.record(TraceEvent.UNPREDICTABLE, vehicleId,
+					trace.symbol(vehicleEvent), 0, 0, 0);
+		}
 
 		// Create a VehicleEvent to record what happened
 		AvlReport avlReport = vehicleState.getAvlReport();
@@ -433,9 +450,10 @@ public class AvlProcessor {
 		TemporalMatch bestTemporalMatch = TemporalMatcher.getInstance()
 				.getBestTemporalMatch(vehicleState, spatialMatches);
 
-		// Log this as info since matching is a significant milestone
-		logger.info("For vehicleId={} the best match is {}",
+		logger.debug("For vehicleId={} the best match is {}",
 				vehicleState.getVehicleId(), bestTemporalMatch);
+		if (vehicleState.isTraced())
+			traceMatch(vehicleState, bestTemporalMatch, spatialMatches.size());
 
 		// If didn't get a match then remember such in VehicleState
 		if (bestTemporalMatch == null)
@@ -545,6 +563,17 @@ public class AvlProcessor {
 			unassignOtherVehiclesFromBlock(bestMatch.getBlock(), vehicleId);
 		}
 
+		if (vehicleState.isTraced()) {
+			ProcessingTrace trace = ProcessingTrace.getInstance();
+			trace.record(TraceEvent.ASSIGNED, vehicleId,
+					trace.symbol(assignmentId),
+					trace.symbol(bestMatch != null ? bestMatch.getBlock()
+							.getId() : null),
+					trace.symbol(possibleBlockAssignmentMethod != null ?
+							possibleBlockAssignmentMethod.name() : null),
+					bestMatch != null ? 1 : 0);
+		}
+
 		// If got a valid match then keep track of state
 		BlockAssignmentMethod blockAssignmentMethod = null;
 		boolean predictable = false;
@@ -1136,9 +1165,18 @@ public class AvlProcessor {
 		logger.info("Trying to automatically assign vehicleId={}", 
 				vehicleState.getVehicleId());
 		
-		// Try to match vehicle to a block assignment if that feature is enabled
-		AutoBlockAssigner autoAssigner = new AutoBlockAssigner(vehicleState);
-		TemporalMatch bestMatch = autoAssigner.autoAssignVehicleToBlockIfEnabled();
+		// Try to match vehicle to a block assignment if that feature is 
+		// enabled. If configured to assign the whole fleet together then use
+		// the assignment from the BatchAutoAssigner, if there is one yet.
+		TemporalMatch bestMatch;
+		if (BatchAutoAssigner.enabled()) {
+			bestMatch = 
+					BatchAutoAssigner.getInstance().getAssignment(vehicleState);
+		} else {
+			AutoBlockAssigner autoAssigner = 
+					new AutoBlockAssigner(vehicleState);
+			bestMatch = autoAssigner.autoAssignVehicleToBlockIfEnabled();
+		}
 		if (bestMatch != null) {
 			// Successfully matched vehicle to block so make vehicle predictable
 			logger.info("Auto matched vehicleId={} to a block assignment. {}",
@@ -1347,6 +1385,14 @@ public class AvlProcessor {
 		synchronized (vehicleState) {
 			// Keep track of last AvlReport even if vehicle not predictable.
 			vehicleState.setAvlReport(avlReport);
+			if (!recursiveCall && vehicleState.isTraced()) {
+				ProcessingTrace trace = ProcessingTrace.getInstance();
+				trace.record(TraceEvent.AVL_REPORT, vehicleId,
+						avlReport.getTime(),
+						Math.round(avlReport.getLat() * 1e7),
+						Math.round(avlReport.getLon() * 1e7),
+						trace.symbol(avlReport.getAssignmentId()));
+			}
 
 			// If part of consist and shouldn't be generating predictions
 			// and such and shouldn't grab assignment the simply return
@@ -1566,9 +1612,11 @@ public class AvlProcessor {
 			}
 		}
 
-		// The beginning of processing AVL data is an important milestone
-		// in processing data so log it as info.
-		logger.info("===================================================="
+		// The beginning of processing AVL data. Logged at debug level since
+		// logging every report at info level is too expensive when there
+		// are many vehicles. The ProcessingTrace can be used instead to
+		// see how reports for particular vehicles are processed.
+		logger.debug("===================================================="
 				+ "AvlProcessor processing {}", avlReport);
 
 		// Record when the AvlReport was actually processed. This is done here
@@ -1604,8 +1652,48 @@ public class AvlProcessor {
 		// Do the low level work of matching vehicle and then generating results
 		lowLevelProcessAvlReport(avlReport, false);
 		logger.debug("Processing AVL report took {}msec", timer);
-        CloudwatchService.getInstance().saveMetric("PredictionProcessingTimeInMillis", Double.valueOf(timer.elapsedMsec()), 1, CloudwatchService.MetricType.AVERAGE, CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
-        CloudwatchService.getInstance().saveMetric("PredictionTotalLatencyInMillis", Double.valueOf((System.currentTimeMillis() - avlReport.getTime())), 1, CloudwatchService.MetricType.AVERAGE, CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
+		long latencyMsec = System.currentTimeMillis() - avlReport.getTime();
+		processingTimeMetric.record(timer.elapsedMsec());
+		totalLatencyMetric.record(latencyMsec);
+
+		if (ProcessingTrace.getInstance().isEnabled()) {
+			VehicleState vehicleState = VehicleStateManager.getInstance()
+					.getVehicleState(avlReport.getVehicleId());
+			if (vehicleState.isTraced())
+				ProcessingTrace.getInstance().record(TraceEvent.PROCESSED,
+						avlReport.getVehicleId(), timer.elapsedMsec(),
+						latencyMsec, vehicleState.isPredictable() ? 1 : 0, 0);
+		}
+	}
+
+	/**
+	 * Records the result of matching the vehicle in the ProcessingTrace.
+	 * 
+	 * @param vehicleState
+	 * @param bestTemporalMatch
+	 *            The match, or null if no match found
+	 * @param numSpatialMatches
+	 *            How many spatial matches were considered
+	 */
+	private static void traceMatch(VehicleState vehicleState,
+			TemporalMatch bestTemporalMatch, int numSpatialMatches) {
+		ProcessingTrace trace = ProcessingTrace.getInstance();
+		String vehicleId = vehicleState.getVehicleId();
+		if (bestTemporalMatch == null) {
+			trace.record(TraceEvent.NO_MATCH, vehicleId, numSpatialMatches,
+					vehicleState.numberOfBadMatches(), 0, 0);
+			return;
+		}
+
+		TemporalDifference temporalDifference =
+				bestTemporalMatch.getTemporalDifference();
+		trace.record(TraceEvent.MATCH, vehicleId,
+				trace.symbol(bestTemporalMatch.getTrip().getId()),
+				((long) bestTemporalMatch.getStopPathIndex() << 16)
+						| bestTemporalMatch.getSegmentIndex(),
+				Math.round(bestTemporalMatch.getDistanceAlongSegment() * 100.0),
+				temporalDifference != null ? 
+						temporalDifference.getTemporalDifference() : 0);
 	}
 
 }
@@ -0,0 +1,195 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.transitime.db.structs.Block;
+
+/**
+ * An index of the start and end times of a set of blocks, such as the blocks
+ * for a service ID, so that the blocks active at a time of day can be found
+ * without looking at every block. The blocks are sorted by start time and
+ * treated as an implicit balanced interval tree where each node also knows
+ * the latest end time in its subtree. Queries take O(log n + k) for the
+ * usual case where k blocks are returned.
+ * <p>
+ * Times are seconds into the day, as for Block.getStartTime(). The index
+ * only looks at times of day. Determining which service IDs apply, and
+ * adjusting the time for blocks that run past midnight, is up to the caller.
+ * <p>
+ * Blocks are added to the results in the order of BY_START_TIME, so that
+ * the order doesn't depend on the order the blocks were read in.
+ * <p>
+ * Immutable and therefore thread safe.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class BlockIntervalIndex {
+
+	/**
+	 * Orders blocks by start time and then by block ID and service ID so
+	 * that blocks with the same start time are always in the same order.
+	 */
+	public static final Comparator<Block> BY_START_TIME =
+			new Comparator<Block>() {
+				@Override
+				public int compare(Block b1, Block b2) {
+					int result = Integer.compare(b1.getStartTime(),
+							b2.getStartTime());
+					if (result == 0)
+						result = b1.getId().compareTo(b2.getId());
+					if (result == 0)
+						result = b1.getServiceId().compareTo(b2.getServiceId());
+					return result;
+				}
+			};
+
+	private final Block[] blocks;
+	private final int[] startTimes;
+	private final int[] endTimes;
+
+	// For the implicit tree. The node for range [lo, hi) is at the middle
+	// of the range and maxEndTimes[node] is the latest end time in the range.
+	private final int[] maxEndTimes;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param blocksToIndex
+	 */
+	public BlockIntervalIndex(Collection<Block> blocksToIndex) {
+		List<Block> sorted = new ArrayList<Block>(blocksToIndex);
+		Collections.sort(sorted, BY_START_TIME);
+
+		int n = sorted.size();
+		blocks = sorted.toArray(new Block[n]);
+		startTimes = new int[n];
+		endTimes = new int[n];
+		for (int i = 0; i < n; ++i) {
+			startTimes[i] = blocks[i].getStartTime();
+			endTimes[i] = blocks[i].getEndTime();
+		}
+		maxEndTimes = new int[n];
+		buildMaxEndTimes(0, n);
+	}
+
+	/**
+	 * Determines maxEndTimes for the subtree for the range
+	 *
+	 * @return the max end time of the range
+	 */
+	private int buildMaxEndTimes(int lo, int hi) {
+		if (lo >= hi)
+			return Integer.MIN_VALUE;
+		int mid = (lo + hi) >>> 1;
+		int max = Math.max(endTimes[mid], Math.max(
+				buildMaxEndTimes(lo, mid), buildMaxEndTimes(mid + 1, hi)));
+		maxEndTimes[mid] = max;
+		return max;
+	}
+
+	/**
+	 * @return number of blocks in the index
+	 */
+	public int size() {
+		return blocks.length;
+	}
+
+	/**
+	 * @param time
+	 * @return index of first block with start time greater than time
+	 */
+	private int firstStartAfter(int time) {
+		int lo = 0;
+		int hi = startTimes.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (startTimes[mid] <= time)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Adds the blocks with a start time strictly between the two times.
+	 *
+	 * @param afterTime
+	 * @param beforeTime
+	 * @param results
+	 */
+	public void addBlocksStartingBetween(int afterTime, int beforeTime,
+			Collection<Block> results) {
+		for (int i = firstStartAfter(afterTime);
+				i < startTimes.length && startTimes[i] < beforeTime; ++i)
+			results.add(blocks[i]);
+	}
+
+	/**
+	 * Adds the blocks that are active at the time of day, using the same
+	 * criteria as Block.isActive(): the time is after the start time minus
+	 * allowableBeforeTimeSecs and before the end time, or before the start
+	 * time plus allowableAfterStartTimeSecs if that is not negative.
+	 *
+	 * @param secsInDay
+	 * @param allowableBeforeTimeSecs
+	 * @param allowableAfterStartTimeSecs
+	 * @param results
+	 */
+	public void addActiveBlocks(int secsInDay, int allowableBeforeTimeSecs,
+			int allowableAfterStartTimeSecs, Collection<Block> results) {
+		if (allowableAfterStartTimeSecs >= 0) {
+			// Only depends on the start time so a simple range
+			addBlocksStartingBetween(secsInDay - allowableAfterStartTimeSecs,
+					secsInDay + allowableBeforeTimeSecs, results);
+		} else {
+			addOverlapping(0, blocks.length,
+					secsInDay + allowableBeforeTimeSecs, secsInDay, results);
+		}
+	}
+
+	/**
+	 * Searches the subtree for [lo, hi) for blocks with start time before
+	 * startBefore and end time after endAfter.
+	 */
+	private void addOverlapping(int lo, int hi, int startBefore, int endAfter,
+			Collection<Block> results) {
+		if (lo >= hi)
+			return;
+		int mid = (lo + hi) >>> 1;
+		// Nothing in this subtree ends late enough
+		if (maxEndTimes[mid] <= endAfter)
+			return;
+
+		addOverlapping(lo, mid, startBefore, endAfter, results);
+		// Everything to the right starts at or after mid so can stop if mid
+		// starts too late
+		if (startTimes[mid] >= startBefore)
+			return;
+		if (endTimes[mid] > endAfter)
+			results.add(blocks[mid]);
+		addOverlapping(mid + 1, hi, startBefore, endAfter, results);
+	}
+}
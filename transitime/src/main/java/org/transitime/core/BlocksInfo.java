@@ -19,8 +19,10 @@ package org.transitime.core;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Set;
 
@@ -40,6 +42,16 @@ public class BlocksInfo {
 
 	/********************** Member Functions **************************/
 
+	/**
+	 * Block.equals() and hashCode() look at the trips, which would cause
+	 * them to be lazy loaded, so sets of blocks use identity instead.
+	 * 
+	 * @return a new empty set of blocks
+	 */
+	private static Set<Block> newBlockSet() {
+		return Collections.newSetFromMap(new IdentityHashMap<Block, Boolean>());
+	}
+
 	/**
 	 * Looks at all blocks that are for the current service ID and returns list
 	 * of ones that will start within beforeStartTimeSecs.
@@ -63,19 +75,27 @@ public class BlocksInfo {
 		Date now = core.getSystemDate();
 		Collection<String> currentServiceIds = 
 				core.getServiceUtils().getServiceIds(now);
+		int secsInDay = core.getTime().getSecondsIntoDay(now);
 	
-		// For each service ID ...
+		// For each service ID use the index to find the blocks that start
+		// within beforeStartTimeSecs, including when now is before midnight
+		// but the block starts after midnight.
+		DbConfig dbConfig = core.getDbConfig();
+		Set<Block> blocks = newBlockSet();
 		for (String serviceId : currentServiceIds) {
-			DbConfig dbConfig = core.getDbConfig();
-			Collection<Block> blocks = dbConfig.getBlocks(serviceId);
-			
-			// If the block is about to be or currently active then
-			// add it to the list to be returned
-			for (Block block : blocks) {
-				if (block.isBeforeStartTime(now, beforeStartTimeSecs))
-					aboutToStartBlocks.add(block);
-			}
+			BlockIntervalIndex index = dbConfig.getBlockIndex(serviceId);
+			if (index == null)
+				continue;
+			index.addBlocksStartingBetween(secsInDay,
+					secsInDay + beforeStartTimeSecs, blocks);
+			index.addBlocksStartingBetween(secsInDay - Time.SEC_PER_DAY,
+					secsInDay - Time.SEC_PER_DAY + beforeStartTimeSecs, blocks);
 		}
+		aboutToStartBlocks.addAll(blocks);
+		
+		// The set is in arbitrary order and blocks can come from several
+		// indexes so sort them so that the order is deterministic
+		Collections.sort(aboutToStartBlocks, BlockIntervalIndex.BY_START_TIME);
 		
 		// Done!
 		return aboutToStartBlocks;
@@ -151,40 +171,65 @@ public class BlocksInfo {
 			serviceIds.addAll(nextDayServiceIds);
 		}
 		
-		// For each service ID ...
+		// A block is active for the time of day of today if its service is
+		// valid today, for the time of day plus a day if its service was valid
+		// yesterday, and for the time of day minus a day if its service is
+		// valid tomorrow. Same as Block.isActive().
+		List<String> todayServiceIds =
+				core.getServiceUtils().getServiceIdsForDay(now);
+		List<String> yesterdayServiceIds =
+				core.getServiceUtils().getServiceIdsForDay(
+						now - Time.DAY_IN_MSECS);
+		List<String> tomorrowServiceIds =
+				core.getServiceUtils().getServiceIdsForDay(
+						now + Time.DAY_IN_MSECS);
+
+		// A block can be found multiple times, such as when it serves
+		// multiple routes, so use a set
+		DbConfig dbConfig = core.getDbConfig();
+		Set<Block> blocks = newBlockSet();
 		for (String serviceId : serviceIds) {
-			DbConfig dbConfig = core.getDbConfig();
-			Collection<Block> blocks = dbConfig.getBlocks(serviceId);
-			
-			// If the block is about to be or currently active then
-			// add it to the list to be returned
-			for (Block block : blocks) {
-				// If this is a block to ignore then simply continue to the 
-				// next one
-				if (blockIdsToIgnore != null
-						&& blockIdsToIgnore.contains(block.getId()))
-					continue;
-				
-				// Determine if block is for specified route. If routeIds is
-				// null then interested in all routes
-				boolean forSpecifiedRoute = true;
-				if (routeIds != null && !routeIds.isEmpty()) {
-					forSpecifiedRoute = false;
-					for (String routeId : routeIds) {
-						if (block.getRouteIds().contains(routeId)) {
-							forSpecifiedRoute = true;
-							break;
-						}
-					}
+			// Route filtering is done via the indexes for the routes
+			List<BlockIntervalIndex> indexes =
+					new ArrayList<BlockIntervalIndex>();
+			if (routeIds != null && !routeIds.isEmpty()) {
+				for (String routeId : routeIds) {
+					BlockIntervalIndex index =
+							dbConfig.getBlockIndex(serviceId, routeId);
+					if (index != null)
+						indexes.add(index);
 				}
-				
-				// If block currently active and is for specified route then
-				// add it to the list
-				if (block.isActive(now, allowableBeforeTimeSecs,
-						allowableAfterStartTimeSecs) && forSpecifiedRoute)
-					activeBlocks.add(block);
+			} else {
+				BlockIntervalIndex index = dbConfig.getBlockIndex(serviceId);
+				if (index != null)
+					indexes.add(index);
 			}
+			
+			for (BlockIntervalIndex index : indexes) {
+				if (todayServiceIds.contains(serviceId))
+					index.addActiveBlocks(secsInDayForAvlReport,
+							allowableBeforeTimeSecs,
+							allowableAfterStartTimeSecs, blocks);
+				if (yesterdayServiceIds.contains(serviceId))
+					index.addActiveBlocks(
+							secsInDayForAvlReport + Time.DAY_IN_SECS,
+							allowableBeforeTimeSecs,
+							allowableAfterStartTimeSecs, blocks);
+				if (tomorrowServiceIds.contains(serviceId))
+					index.addActiveBlocks(
+							secsInDayForAvlReport - Time.DAY_IN_SECS,
+							allowableBeforeTimeSecs,
+							allowableAfterStartTimeSecs, blocks);
+			}
+		}
+		
+		// If this is a block to ignore then don't include it
+		for (Block block : blocks) {
+			if (blockIdsToIgnore == null
+					|| !blockIdsToIgnore.contains(block.getId()))
+				activeBlocks.add(block);
 		}
+		Collections.sort(activeBlocks, BlockIntervalIndex.BY_START_TIME);
 		
 		// Done!
 		return activeBlocks;
@@ -16,6 +16,7 @@
  */
 package org.transitime.core;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.slf4j.Logger;
@@ -26,6 +27,8 @@ import org.transitime.core.dataCache.PredictionDataCache;
 import org.transitime.db.structs.Prediction;
 import org.transitime.db.structs.Match;
 import org.transitime.ipc.data.IpcPrediction;
+import org.transitime.logging.ProcessingTrace;
+import org.transitime.logging.TraceEvent;
 import org.transitime.utils.Time;
 
 /**
@@ -72,12 +75,25 @@ public class MatchProcessor {
 				vehicleState.getVehicleId());
 
 		// Generate the new predictions for the vehicle
-		List<IpcPrediction> newPredictions = 
+		List<IpcPrediction> generatedPredictions = 
 				PredictionGeneratorFactory.getInstance().generate(vehicleState);
 
+		// Only the predictions that changed enough since the previous AVL
+		// report need to be stored and put into the predictions cache. For
+		// the others the previous prediction is kept.
+		List<IpcPrediction> oldPredictions = vehicleState.getPredictions();
+		List<IpcPrediction> changedPredictions = new ArrayList<IpcPrediction>(
+				generatedPredictions.size());
+		List<IpcPrediction> newPredictions = PredictionChangeFilter.filter(
+				oldPredictions, generatedPredictions, changedPredictions);
+		if (vehicleState.isTraced())
+			ProcessingTrace.getInstance().record(TraceEvent.PREDICTIONS,
+					vehicleState.getVehicleId(), generatedPredictions.size(),
+					changedPredictions.size(), 0, 0);
+
 		// Store the predictions in database if so configured
 		if (CoreConfig.getMaxPredictionsTimeForDbSecs() > 0) {
-			for (IpcPrediction prediction : newPredictions) {
+			for (IpcPrediction prediction : changedPredictions) {
 				// If prediction not too far into the future then ...
 				if (prediction.getPredictionTime() - prediction.getAvlTime() < CoreConfig
 						.getMaxPredictionsTimeForDbSecs() * Time.MS_PER_SEC) {
@@ -90,7 +106,6 @@ public class MatchProcessor {
 
 		// Update the predictions cache to use the new predictions for the
 		// vehicle
-		List<IpcPrediction> oldPredictions = vehicleState.getPredictions();
 		PredictionDataCache.getInstance().updatePredictions(oldPredictions,
 				newPredictions);
 
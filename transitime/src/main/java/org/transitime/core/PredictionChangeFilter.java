@@ -0,0 +1,195 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.ipc.data.IpcPrediction;
+import org.transitime.utils.Time;
+
+/**
+ * Compares the new predictions for a vehicle to the previous ones so that
+ * only the predictions that actually changed need to be propagated to the
+ * prediction cache and the database. A prediction is considered changed if
+ * its time moved by at least transitime.core.predictionChangeThresholdSecs,
+ * if how far into the future it is crossed a
+ * transitime.core.predictionHorizonBucketSecs boundary (such as the minutes
+ * shown to a passenger), or if any of its flags changed. For an unchanged
+ * prediction the previous prediction object is kept and only its AVL and
+ * creation times are refreshed. Since the prediction cache already holds
+ * that object it doesn't need to be updated.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class PredictionChangeFilter {
+
+	/******************** Parameters ************************************/
+
+	private static IntegerConfigValue predictionChangeThresholdSecs =
+			new IntegerConfigValue(
+					"transitime.core.predictionChangeThresholdSecs",
+					0,
+					"A new prediction for a stop only replaces the previous "
+					+ "one, and is only stored to the db, if it differs from "
+					+ "the previous one by at least this many seconds. "
+					+ "Otherwise the previous prediction is kept and just its "
+					+ "AVL time is updated. Set to 0 to always use the new "
+					+ "predictions.");
+
+	private static IntegerConfigValue predictionHorizonBucketSecs =
+			new IntegerConfigValue(
+					"transitime.core.predictionHorizonBucketSecs",
+					60,
+					"When predictionChangeThresholdSecs is set a new "
+					+ "prediction is still used if how far into the future "
+					+ "it is falls into a different bucket of this many "
+					+ "seconds than for the previous prediction. This way the "
+					+ "minutes shown to passengers are kept current.");
+
+	/******************** Logging **************************************/
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(PredictionChangeFilter.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Hidden constructor since only static methods
+	 */
+	private PredictionChangeFilter() {
+	}
+
+	/**
+	 * Determines which of the new predictions differ enough from the old
+	 * ones to be propagated.
+	 *
+	 * @param oldPredictions
+	 *            The predictions previously generated for the vehicle. Can be
+	 *            null.
+	 * @param newPredictions
+	 *            The predictions just generated for the vehicle
+	 * @param changedPredictions
+	 *            Set to the new predictions that actually changed and
+	 *            therefore need to be stored to the db
+	 * @return The predictions to use for the vehicle. Same order as
+	 *         newPredictions but unchanged predictions are the refreshed
+	 *         previous prediction objects.
+	 */
+	public static List<IpcPrediction> filter(
+			List<IpcPrediction> oldPredictions,
+			List<IpcPrediction> newPredictions,
+			List<IpcPrediction> changedPredictions) {
+		long thresholdMsec =
+				predictionChangeThresholdSecs.getValue() * Time.MS_PER_SEC;
+		if (thresholdMsec <= 0 || oldPredictions == null
+				|| oldPredictions.isEmpty()) {
+			changedPredictions.addAll(newPredictions);
+			return newPredictions;
+		}
+		long bucketMsec = Math.max(1,
+				predictionHorizonBucketSecs.getValue() * Time.MS_PER_SEC);
+
+		List<IpcPrediction> results =
+				new ArrayList<IpcPrediction>(newPredictions.size());
+		// The predictions are usually in the same order as last time so start
+		// looking for the old prediction after the previously found one
+		int hint = 0;
+		for (IpcPrediction newPred : newPredictions) {
+			int oldIndex = indexOfSameStop(oldPredictions, newPred, hint);
+			if (oldIndex >= 0) {
+				IpcPrediction oldPred = oldPredictions.get(oldIndex);
+				hint = oldIndex + 1;
+				if (!hasChanged(oldPred, newPred, thresholdMsec, bucketMsec)) {
+					oldPred.refreshFreshness(newPred.getAvlTime(),
+							newPred.getCreationTime());
+					results.add(oldPred);
+					continue;
+				}
+			}
+			results.add(newPred);
+			changedPredictions.add(newPred);
+		}
+
+		logger.debug("For vehicleId={} {} of {} predictions changed",
+				newPredictions.isEmpty() ? null : newPredictions.get(0)
+						.getVehicleId(), changedPredictions.size(),
+				newPredictions.size());
+		return results;
+	}
+
+	/**
+	 * @return index of the old prediction for the same trip, stop and
+	 *         arrival/departure as the new prediction, or -1 if there isn't
+	 *         one
+	 */
+	private static int indexOfSameStop(List<IpcPrediction> oldPredictions,
+			IpcPrediction newPred, int hint) {
+		int size = oldPredictions.size();
+		for (int n = 0; n < size; ++n) {
+			int i = (hint + n) % size;
+			IpcPrediction oldPred = oldPredictions.get(i);
+			if (oldPred.getGtfsStopSeq() == newPred.getGtfsStopSeq()
+					&& oldPred.isArrival() == newPred.isArrival()
+					&& equals(oldPred.getTripId(), newPred.getTripId())
+					&& equals(oldPred.getStopId(), newPred.getStopId()))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true if the new prediction for a stop differs enough from the
+	 *         old one that it needs to replace it
+	 */
+	private static boolean hasChanged(IpcPrediction oldPred,
+			IpcPrediction newPred, long thresholdMsec, long bucketMsec) {
+		if (Math.abs(newPred.getPredictionTime() - oldPred.getPredictionTime())
+				>= thresholdMsec)
+			return true;
+
+		// Check if how far into the future the prediction is crossed a
+		// bucket boundary
+		if ((oldPred.getPredictionTime() - oldPred.getAvlTime()) / bucketMsec
+				!= (newPred.getPredictionTime() - newPred.getAvlTime())
+						/ bucketMsec)
+			return true;
+
+		Integer oldDelay = oldPred.getDelay();
+		Integer newDelay = newPred.getDelay();
+		if (oldDelay == null ? newDelay != null : newDelay == null
+				|| Math.abs(newDelay - oldDelay) * Time.MS_PER_SEC
+						>= thresholdMsec)
+			return true;
+
+		return oldPred.isAffectedByWaitStop() != newPred.isAffectedByWaitStop()
+				|| oldPred.isDelayed() != newPred.isDelayed()
+				|| oldPred.isLateAndSubsequentTripSoMarkAsUncertain() != newPred
+						.isLateAndSubsequentTripSoMarkAsUncertain()
+				|| oldPred.isSchedBasedPred() != newPred.isSchedBasedPred()
+				|| !equals(oldPred.getDriverId(), newPred.getDriverId());
+	}
+
+	private static boolean equals(String s1, String s2) {
+		return s1 == null ? s2 == null : s1.equals(s2);
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.transitime.ipc.data.IpcPrediction;
+import org.transitime.utils.Time;
+
+/**
+ * The values used by PredictionGeneratorDefaultImpl.generate() that are the
+ * same for every stop of an AVL report, such as the schedule adherence of the
+ * vehicle and the prediction horizon. They are determined once per report by
+ * reset() instead of once per stop. There is one context per vehicle, kept by
+ * VehicleState, so that it and its buffers are reused from report to report.
+ * <p>
+ * Not thread safe. Predictions for a vehicle are generated while
+ * synchronized on its VehicleState so that is fine.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class PredictionContext {
+
+	private long avlTime;
+	private long now;
+	private long maxPredictionTime;
+	private boolean schedBasedPreds;
+	private boolean useArrivalPreds;
+	private boolean isDelayed;
+	private boolean lateSoMarkSubsequentTripsAsUncertain;
+	private int currentTripIndex;
+	private Integer scheduleDeviationSecs;
+
+	// Predictions for the first and last stops of trips. There are only a
+	// few of these per report so a simple list is scanned to find duplicates.
+	private final List<IpcPrediction> tripEndPredictions =
+			new ArrayList<IpcPrediction>(4);
+
+	// So the list of predictions can be sized based on the previous report
+	// instead of repeatedly growing
+	private int expectedNumPredictions = 16;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Determines the report invariant values for the new match of the
+	 * vehicle.
+	 *
+	 * @param vehicleState
+	 * @param now
+	 *            System time, for filtering out predictions in the past
+	 * @param maxPredictionsTimeSecs
+	 *            How far into the future predictions are generated for
+	 * @param maxLateCutoffSecs
+	 *            If vehicle later than this then predictions for subsequent
+	 *            trips are marked as uncertain
+	 * @param useArrivalPreds
+	 */
+	void reset(VehicleState vehicleState, long now,
+			int maxPredictionsTimeSecs, int maxLateCutoffSecs,
+			boolean useArrivalPreds) {
+		this.avlTime = vehicleState.getAvlReport().getTime();
+		this.now = now;
+		this.maxPredictionTime =
+				avlTime + maxPredictionsTimeSecs * Time.MS_PER_SEC;
+		this.schedBasedPreds =
+				vehicleState.getAvlReport().isForSchedBasedPreds();
+		this.useArrivalPreds = useArrivalPreds;
+		this.isDelayed = vehicleState.isDelayed();
+		this.currentTripIndex = vehicleState.getMatch().getTripIndex();
+
+		TemporalDifference lateness = vehicleState.getRealTimeSchedAdh();
+		this.lateSoMarkSubsequentTripsAsUncertain = lateness != null
+				&& lateness.isLaterThan(maxLateCutoffSecs);
+
+		// Only depends on the match, not on which stop the prediction is for
+		this.scheduleDeviationSecs = RealTimeSchedAdhProcessor
+				.generateEffectiveScheduleDifference(vehicleState)
+				.getTemporalDifference() / Time.MS_PER_SEC;
+
+		tripEndPredictions.clear();
+	}
+
+	/**
+	 * @return a new list for the predictions, sized for the number generated
+	 *         for the previous report. A new list is needed each time since
+	 *         it is handed off to the prediction caches.
+	 */
+	List<IpcPrediction> newPredictionsList() {
+		return new ArrayList<IpcPrediction>(expectedNumPredictions);
+	}
+
+	/**
+	 * For when a vehicle transitions from one trip to another and the last
+	 * stop of one trip is the first stop of the next. Keeps only one
+	 * prediction for the stop and prediction time, the one for the later
+	 * trip.
+	 *
+	 * @param prediction
+	 * @return true if an existing prediction for the stop was replaced
+	 */
+	boolean addTripEndPrediction(IpcPrediction prediction) {
+		for (int i = 0; i < tripEndPredictions.size(); ++i) {
+			IpcPrediction existing = tripEndPredictions.get(i);
+			if (isSameStopPrediction(existing, prediction)) {
+				if (prediction.getTrip().getStartTime() > existing.getTrip()
+						.getStartTime()) {
+					tripEndPredictions.set(i, prediction);
+					return true;
+				}
+				return false;
+			}
+		}
+		tripEndPredictions.add(prediction);
+		return false;
+	}
+
+	/**
+	 * @return true if the predictions are for the same stop, vehicle and time
+	 */
+	private static boolean isSameStopPrediction(IpcPrediction p1,
+			IpcPrediction p2) {
+		return p1.getPredictionTime() == p2.getPredictionTime()
+				&& equals(p1.getStopId(), p2.getStopId())
+				&& equals(p1.getVehicleId(), p2.getVehicleId())
+				&& equals(p1.getRouteId(), p2.getRouteId())
+				&& equals(p1.getBlockId(), p2.getBlockId());
+	}
+
+	private static boolean equals(String s1, String s2) {
+		return s1 == null ? s2 == null : s1.equals(s2);
+	}
+
+	/**
+	 * Adds the predictions for the first and last stops of trips to the
+	 * results and records the number of predictions for sizing the list for
+	 * the next report.
+	 *
+	 * @param newPredictions
+	 */
+	void finish(List<IpcPrediction> newPredictions) {
+		newPredictions.addAll(tripEndPredictions);
+		tripEndPredictions.clear();
+		expectedNumPredictions = Math.max(16, newPredictions.size());
+	}
+
+	public long getAvlTime() {
+		return avlTime;
+	}
+
+	public long getNow() {
+		return now;
+	}
+
+	/**
+	 * @return epoch time beyond which predictions are not generated
+	 */
+	public long getMaxPredictionTime() {
+		return maxPredictionTime;
+	}
+
+	public boolean isSchedBasedPreds() {
+		return schedBasedPreds;
+	}
+
+	public boolean isUseArrivalPreds() {
+		return useArrivalPreds;
+	}
+
+	public boolean isDelayed() {
+		return isDelayed;
+	}
+
+	public boolean isLateSoMarkSubsequentTripsAsUncertain() {
+		return lateSoMarkSubsequentTripsAsUncertain;
+	}
+
+	/**
+	 * @param tripIndex
+	 * @return true if predictions for the trip should be marked as uncertain
+	 *         because the vehicle is so late
+	 */
+	public boolean isLateSoMarkAsUncertain(int tripIndex) {
+		return lateSoMarkSubsequentTripsAsUncertain
+				&& tripIndex > currentTripIndex;
+	}
+
+	/**
+	 * @return the effective schedule deviation of the vehicle in seconds
+	 */
+	public Integer getScheduleDeviationSecs() {
+		return scheduleDeviationSecs;
+	}
+}
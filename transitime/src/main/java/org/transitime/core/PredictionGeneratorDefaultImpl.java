@@ -17,18 +17,18 @@
 package org.transitime.core;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Calendar;
 import java.util.List;
-import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.applications.Core;
 import org.transitime.config.BooleanConfigValue;
 import org.transitime.config.IntegerConfigValue;
+import org.transitime.core.dataCache.DwellTimeModel;
 import org.transitime.core.dataCache.StopPathPredictionCache;
 import org.transitime.core.predictiongenerator.PredictionComponentElementsGenerator;
+import org.transitime.core.predictiongenerator.StopPathRun;
 import org.transitime.db.structs.AvlReport;
 import org.transitime.db.structs.PredictionForStopPath;
 import org.transitime.db.structs.StopPath;
@@ -103,6 +103,17 @@ public class PredictionGeneratorDefaultImpl implements PredictionGenerator, Pred
 					+ "time will be used. If false then the schedule time plus "
 					+ "the wait stop time will be used.");
 	
+	private static IntegerConfigValue stopPathRunSize =
+			new IntegerConfigValue("transitime.core.stopPathRunSize",
+					30,
+					"When generating predictions the travel and stop times "
+					+ "are estimated for a run of stop paths at once so that "
+					+ "data shared by the stop paths only needs to be looked "
+					+ "up once. This specifies the maximum number of stop "
+					+ "paths in a run. The run is also limited to the stop "
+					+ "paths expected, based on the schedule, to be within "
+					+ "transitime.core.maxPredictionsTimeSecs.");
+	
 	protected static BooleanConfigValue storeTravelTimeStopPathPredictions = new BooleanConfigValue("transitime.core.storeTravelTimeStopPathPredictions", 
              false,
              "This is set to true to record all travelTime  predictions for individual stopPaths generated. Useful for comparing performance of differant algorithms. (MAPE comparison). Not for normal use as will generate massive amounts of data.");
@@ -147,6 +158,26 @@ public class PredictionGeneratorDefaultImpl implements PredictionGenerator, Pred
 			Indices indices, long predictionTime, boolean useArrivalTimes,
 			boolean affectedByWaitStop, boolean isDelayed,
 			boolean lateSoMarkAsUncertain, Integer scheduleDeviation) {
+		return generatePredictionForStop(avlReport, indices, predictionTime,
+				useArrivalTimes, affectedByWaitStop, isDelayed,
+				lateSoMarkAsUncertain, scheduleDeviation,
+				(int) getStopTimeForPath(indices, avlReport, predictionTime));
+	}
+
+	/**
+	 * Same as generatePredictionForStop() above but for when the expected
+	 * stop time for the stop has already been determined, such as by
+	 * estimateTimesForPaths().
+	 * 
+	 * @param expectedStopTimeMsec
+	 *            How long the vehicle is expected to be stopped at the stop
+	 * @return The generated Prediction
+	 */
+	protected IpcPrediction generatePredictionForStop(AvlReport avlReport,
+			Indices indices, long predictionTime, boolean useArrivalTimes,
+			boolean affectedByWaitStop, boolean isDelayed,
+			boolean lateSoMarkAsUncertain, Integer scheduleDeviation,
+			int expectedStopTimeMsec) {
 	  logger.debug("vehicleId {} calculated delay of {}", avlReport.getVehicleId(), scheduleDeviation);
 		// Determine additional parameters for the prediction to be generated
 		logger.debug("Calling default transitime prediction algorithm.");
@@ -154,8 +185,6 @@ public class PredictionGeneratorDefaultImpl implements PredictionGenerator, Pred
 		String stopId = path.getStopId();
 		int gtfsStopSeq = path.getGtfsStopSeq();
 		Trip trip = indices.getTrip();
-		int expectedStopTimeMsec = 
-				(int) getStopTimeForPath(indices, avlReport);
 			
 		// If should generate arrival time...
 		if ((indices.atEndOfTrip() || useArrivalTimes) && !indices.isWaitStop()) {	
@@ -306,11 +335,18 @@ public class PredictionGeneratorDefaultImpl implements PredictionGenerator, Pred
 	 */
 	@Override
 	public List<IpcPrediction> generate(VehicleState vehicleState) {	
-		// For layovers always use arrival time for end of trip and
-		// departure time for anything else. But for non-layover stops
-		// can use either arrival or departure times, depending on what
+		// Determine the values that are the same for every stop of this
+		// report just once. For layovers always use arrival time for end of
+		// trip and departure time for anything else. But for non-layover
+		// stops can use either arrival or departure times, depending on what
 		// the agency wants. Therefore make this configurable.
-		boolean useArrivalPreds = useArrivalPredictionsForNormalStops.getValue();
+		PredictionContext context = vehicleState.getPredictionContext();
+		context.reset(vehicleState, Core.getInstance().getSystemTime(),
+				maxPredictionsTimeSecs.getValue(),
+				maxLateCutoffPredsForNextTripsSecs.getValue(),
+				useArrivalPredictionsForNormalStops.getValue());
+		boolean schedBasedPreds = context.isSchedBasedPreds();
+		long maxPredictionTime = context.getMaxPredictionTime();
 		
 		// If prediction is based on scheduled departure time for a layover
 		// then the predictions are likely not as accurate. Therefore this
@@ -318,7 +354,7 @@ public class PredictionGeneratorDefaultImpl implements PredictionGenerator, Pred
 		boolean affectedByWaitStop = false;
 		
 		// For storing the new predictions
-		List<IpcPrediction> newPredictions = new ArrayList<IpcPrediction>();
+		List<IpcPrediction> newPredictions = context.newPredictionsList();
 
 		// Get the new match for the vehicle that predictions are to be based on
 		TemporalMatch match = vehicleState.getMatch();
@@ -326,38 +362,31 @@ public class PredictionGeneratorDefaultImpl implements PredictionGenerator, Pred
 		
 		// Get info from the AVL report.
 		AvlReport avlReport = vehicleState.getAvlReport();
-		long avlTime = avlReport.getTime();
-		boolean schedBasedPreds = avlReport.isForSchedBasedPreds();
 		
 		// Get time to end of first path and thereby determine prediction for 
 		// first stop.
 		TravelTimes travelTimes = TravelTimes.getInstance();
-		long predictionTime = avlTime + 
+		long predictionTime = context.getAvlTime() + 
 				travelTimes.expectedTravelTimeFromMatchToEndOfStopPath(match);
 		
+		// Stop time for the stop path the vehicle is currently on. For the
+		// subsequent stop paths the travel and stop times are estimated for
+		// a run of stop paths at a time.
+		int stopTimeMsec =
+				(int) getStopTimeForPath(indices, avlReport, predictionTime);
+		StopPathRun run = null;
+		int runPosition = 0;
+		
 		// Determine if vehicle is so late that predictions for subsequent 
 		// trips should be marked as uncertain given that another vehicle
 		// might substitute in for that block.
-		TemporalDifference lateness = vehicleState.getRealTimeSchedAdh();
-		boolean lateSoMarkSubsequentTripsAsUncertain = lateness != null ? 
-						lateness.isLaterThan(maxLateCutoffPredsForNextTripsSecs
-								.getValue()) : false;
-		if (lateSoMarkSubsequentTripsAsUncertain)
+		if (context.isLateSoMarkSubsequentTripsAsUncertain())
 			logger.info("Vehicle late so marking predictions for subsequent "
 					+ "trips as being uncertain. {}", vehicleState);
-		int currentTripIndex = indices.getTripIndex();
-		
-		// For filtering out predictions that are before now, which can
-		// happen for schedule based predictions
-		long now = Core.getInstance().getSystemTime();
-		
-		Map<Integer, IpcPrediction> filteredPredictions = new HashMap<Integer, IpcPrediction>();
 		
 		// Continue through block until end of block or limit on how far
 		// into the future should generate predictions reached.
-		while (schedBasedPreds
-				|| predictionTime < 
-					avlTime + maxPredictionsTimeSecs.getValue() * Time.MS_PER_SEC) {
+		while (schedBasedPreds || predictionTime < maxPredictionTime) {
 			// Keep track of whether prediction is affected by layover 
 			// scheduled departure time since those predictions might not
 			// be a accurate. Once a layover encountered then all subsequent
@@ -366,17 +395,14 @@ public class PredictionGeneratorDefaultImpl implements PredictionGenerator, Pred
 				affectedByWaitStop = true;
 			
 			boolean lateSoMarkAsUncertain =
-					lateSoMarkSubsequentTripsAsUncertain
-							&& indices.getTripIndex() > currentTripIndex;
-			
+					context.isLateSoMarkAsUncertain(indices.getTripIndex());
 			
-			Integer delay = RealTimeSchedAdhProcessor.generateEffectiveScheduleDifference(vehicleState).getTemporalDifference()/1000;
-							
 			// Determine the new prediction
 			IpcPrediction predictionForStop = generatePredictionForStop(avlReport,
 					indices, predictionTime,
-					useArrivalPreds, affectedByWaitStop, 
-					vehicleState.isDelayed(), lateSoMarkAsUncertain, delay);
+					context.isUseArrivalPreds(), affectedByWaitStop, 
+					context.isDelayed(), lateSoMarkAsUncertain,
+					context.getScheduleDeviationSecs(), stopTimeMsec);
 			logger.debug("For vehicleId={} generated prediction {}",
 					vehicleState.getVehicleId(), predictionForStop);
 			
@@ -385,8 +411,7 @@ public class PredictionGeneratorDefaultImpl implements PredictionGenerator, Pred
 			// stop is added to the arrival time) then don't add the prediction
 			// and break out of the loop.
 			if (!schedBasedPreds
-					&& predictionForStop.getPredictionTime() > avlTime
-							+ maxPredictionsTimeSecs.getValue() * Time.MS_PER_SEC)
+					&& predictionForStop.getPredictionTime() > maxPredictionTime)
 				break;
 
 			// If no schedule assignment then don't want to generate predictions
@@ -402,24 +427,15 @@ public class PredictionGeneratorDefaultImpl implements PredictionGenerator, Pred
 			// prediction if it is in the past since those are not needed.
 			// Can get predictions in the past for schedule based predictions.
 			if (!lastStopOfNonSchedBasedTrip
-					&& predictionForStop.getPredictionTime() > now) {
+					&& predictionForStop.getPredictionTime() > context.getNow()) {
 
 					if(indices.atEndOfTrip() || indices.atBeginningOfTrip()){
 						// Deals with case where a vehicle transitions from one trip to another and the lastStop then becomes the firstSTop
-						// This occassionally leads to duplicate predictions. This works around the problem by creating a hash of predictions
-						// that have the same Prediction information but different trips
-						int predictionKey = lastStopPredictionHash(predictionForStop);
-						if(filteredPredictions.containsKey(predictionKey) && 
-								filteredPredictions.get(predictionKey) != null){
-							if(predictionForStop.getTrip().getStartTime() > filteredPredictions.get(predictionKey).getTrip().getStartTime()){
-								logger.debug("Found multiple predictions for Prediction with routeId={}, stopId={}, and vehicleId={} ", 
-										predictionForStop.getRouteId(), predictionForStop.getStopId(), predictionForStop.getVehicleId());
-								filteredPredictions.put(predictionKey, predictionForStop);
-							}	
+						// This occassionally leads to duplicate predictions. Only the prediction for the later trip is kept.
+						if (context.addTripEndPrediction(predictionForStop)) {
+							logger.debug("Found multiple predictions for Prediction with routeId={}, stopId={}, and vehicleId={} ", 
+									predictionForStop.getRouteId(), predictionForStop.getStopId(), predictionForStop.getVehicleId());
 						}
-						else{
-							filteredPredictions.put(predictionKey, predictionForStop);
-						}	
 					}
 					else{
 						newPredictions.add(predictionForStop);
@@ -450,19 +466,124 @@ public class PredictionGeneratorDefaultImpl implements PredictionGenerator, Pred
 				break;
 			}
 			
+			// Get the times for the next path from the current run of stop
+			// paths. If reached the end of the run, or the stop paths
+			// diverged from the run, which can happen for no schedule blocks
+			// since the next trip depends on the time, then estimate a new
+			// run starting at the next path.
+			++runPosition;
+			if (run == null || runPosition >= run.size()
+					|| !run.isForStopPath(runPosition, indices)) {
+				run = estimateStopPathRun(indices, predictionTime,
+						maxPredictionTime, schedBasedPreds, avlReport);
+				runPosition = 0;
+			}
+			
 			// Add in travel time for the next path to get to predicted 
 			// arrival time of this stop
-			predictionTime += getTravelTimeForPath(indices, avlReport);
+			predictionTime += run.getTravelTime(runPosition);
+			stopTimeMsec = (int) run.getStopTime(runPosition);
 		}
 		
-		for(IpcPrediction prediction : filteredPredictions.values()){
-			newPredictions.add(prediction);
-		}
+		context.finish(newPredictions);
 		
 		// Return the results
 		return newPredictions;
 	}
 	
+	/**
+	 * Creates a run of the stop paths starting at startIndices and estimates
+	 * the travel and stop times for all of them at once. The run contains
+	 * the stop paths that, based on the schedule, are expected to be within
+	 * the prediction horizon, limited to transitime.core.stopPathRunSize
+	 * stop paths. Stop paths that estimateTimesForPaths() doesn't estimate
+	 * are handled by getTravelTimeForPath() and getStopTimeForPath().
+	 * 
+	 * @param startIndices
+	 *            The first stop path of the run. Not modified.
+	 * @param predictionTime
+	 *            Predicted time vehicle gets to the start of the run
+	 * @param maxPredictionTime
+	 *            Prediction horizon
+	 * @param schedBasedPreds
+	 *            If true then there is no prediction horizon
+	 * @param avlReport
+	 * @return the run with the times estimated for all of the stop paths
+	 */
+	protected StopPathRun estimateStopPathRun(Indices startIndices,
+			long predictionTime, long maxPredictionTime,
+			boolean schedBasedPreds, AvlReport avlReport) {
+		StopPathRun run =
+				new StopPathRun(Math.max(1, stopPathRunSize.getValue()));
+		Indices runIndices = startIndices.clone();
+		long time = predictionTime;
+		while (run.add(runIndices, time + runIndices.getTravelTimeForPath())) {
+			time += runIndices.getTravelTimeForPath()
+					+ runIndices.getStopTimeForPath();
+			if (!schedBasedPreds && time >= maxPredictionTime)
+				break;
+			runIndices = runIndices.clone().incrementStopPath(time);
+			if (runIndices.pastEndOfBlock(time))
+				break;
+		}
+		
+		estimateTimesForPaths(run, avlReport);
+		
+		if (!run.allEstimated()) {
+			for (int i = 0; i < run.size(); ++i) {
+				if (!run.isEstimated(i)) {
+					Indices indices = run.getIndices(i);
+					run.setTimes(i, getTravelTimeForPath(indices, avlReport),
+							getStopTimeForPath(indices, avlReport,
+									run.getArrivalTime(i)));
+				}
+			}
+		}
+		
+		return run;
+	}
+	
+	/**
+	 * Estimates the stop paths one at a time using hasDataForPath(),
+	 * getTravelTimeForPath() and getStopTimeForPath(). Subclasses can
+	 * override this to look up data shared by the stop paths of the run
+	 * just once.
+	 */
+	@Override
+	public void estimateTimesForPaths(StopPathRun run, AvlReport avlReport) {
+		for (int i = 0; i < run.size(); ++i) {
+			Indices indices = run.getIndices(i);
+			if (!run.isEstimated(i) && hasDataForPath(indices, avlReport)) {
+				run.setTimes(i, getTravelTimeForPath(indices, avlReport),
+						getStopTimeForPath(indices, avlReport,
+								run.getArrivalTime(i)));
+			}
+		}
+	}
+	
+	/**
+	 * If configured to store the travel time predictions for the stop paths
+	 * then stores it in the db and in the StopPathPredictionCache.
+	 * 
+	 * @param indices
+	 * @param travelTimeMsec
+	 * @param algorithm
+	 *            Which algorithm generated the travel time
+	 */
+	protected static void storeTravelTimePrediction(Indices indices,
+			double travelTimeMsec, String algorithm) {
+		if (storeTravelTimeStopPathPredictions.getValue()) {
+			PredictionForStopPath predictionForStopPath =
+					new PredictionForStopPath(
+							Calendar.getInstance().getTime(), travelTimeMsec,
+							indices.getTrip().getId(),
+							indices.getStopPathIndex(), algorithm);
+			Core.getInstance().getDbLogger().add(predictionForStopPath);
+			StopPathPredictionCache.getInstance().putPrediction(
+					predictionForStopPath);
+		}
+	}
+	
 	public long getTravelTimeForPath(Indices indices, AvlReport avlReport)
 	{
 		logger.debug("Using transiTime default algorithm for travel time prediction : " + indices + " Value: "+indices.getTravelTimeForPath());
@@ -475,31 +596,32 @@ public class PredictionGeneratorDefaultImpl implements PredictionGenerator, Pred
 		return indices.getTravelTimeForPath();
 	}
 
+	/**
+	 * Returns the stop time from the DwellTimeModel if it is enabled and has
+	 * enough history for the stop at the time the vehicle is expected to
+	 * arrive there. Otherwise
+	 * returns the stop time from the travel times. Wait stops and the end of
+	 * the trip always use the travel times since the vehicle isn't dwelling
+	 * for passengers there.
+	 */
 	@Override
-	public long getStopTimeForPath(Indices indices, AvlReport avlReport) {
+	public long getStopTimeForPath(Indices indices, AvlReport avlReport,
+			long arrivalTime) {
+		if (DwellTimeModel.isEnabled() && !indices.isWaitStop()
+				&& !indices.atEndOfTrip()) {
+			long dwellTime = DwellTimeModel.getInstance().getDwellTime(
+					indices.getStopPath().getStopId(), arrivalTime);
+			if (dwellTime >= 0) {
+				logger.debug("Using dwell time model for stop time prediction : "+indices + " Value: "+dwellTime);
+				return dwellTime;
+			}
+		}
 		long prediction=TravelTimes.getInstance().expectedStopTimeForStopPath(indices);
 		logger.debug("Using transiTime default algorithm for stop time prediction : "+indices + " Value: "+prediction);
 		return prediction;		
 	}
 		
 	
-	private int lastStopPredictionHash(IpcPrediction prediction){
-		final int prime = 31;
-		int result = 1;
-		
-		result = prime * result
-				+ ((prediction.getBlockId() == null) ? 0 : prediction.getBlockId().hashCode());
-		result = prime * result
-				+ ((prediction.getVehicleId() == null) ? 0 : prediction.getVehicleId().hashCode());
-		result = prime * result
-				+ ((prediction.getStopId() == null) ? 0 : prediction.getStopId().hashCode());
-		result = prime * result
-				+ ((prediction.getRouteId() == null) ? 0 : prediction.getRouteId().hashCode());
-		result = prime * result + Long.valueOf(prediction.getPredictionTime()).hashCode();
-		
-		return result;
-	}
-
 	@Override
 	public boolean hasDataForPath(Indices indices, AvlReport avlReport) {
 		return true;
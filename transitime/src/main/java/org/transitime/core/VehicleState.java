@@ -36,6 +36,7 @@ import org.transitime.db.structs.StopPath;
 import org.transitime.db.structs.Trip;
 import org.transitime.db.structs.VectorWithHeading;
 import org.transitime.ipc.data.IpcPrediction;
+import org.transitime.logging.ProcessingTrace;
 import org.transitime.utils.StringUtils;
 import org.transitime.utils.Time;
 
@@ -86,6 +87,10 @@ public class VehicleState {
 	// For keeping track if vehicle delayed
 	private boolean isDelayed = false;
 	
+	// Reused each time predictions are generated for the vehicle
+	private final PredictionContext predictionContext =
+			new PredictionContext();
+	
 	private static final Logger logger = 
 			LoggerFactory.getLogger(VehicleState.class);
 
@@ -669,6 +674,18 @@ public class VehicleState {
 	public boolean isPredictable() {
 		return predictable;
 	}
+
+	/**
+	 * Returns true if the processing of this vehicle should be recorded in
+	 * the ProcessingTrace. Checks if tracing is enabled first so that the
+	 * route is only determined when something is being traced.
+	 * 
+	 * @return true if vehicle is to be traced
+	 */
+	public boolean isTraced() {
+		ProcessingTrace trace = ProcessingTrace.getInstance();
+		return trace.isEnabled() && trace.isTraced(vehicleId, getRouteId());
+	}
 	
 	/**
 	 * Returns true if not a real vehicle but instead was created to produce
@@ -945,4 +962,12 @@ public class VehicleState {
 	public boolean isDelayed() {
 		return isDelayed;
 	}
+	
+	/**
+	 * @return the context reused for generating the predictions for the
+	 *         vehicle each time a new AVL report is processed
+	 */
+	public PredictionContext getPredictionContext() {
+		return predictionContext;
+	}
 }
@@ -70,9 +70,16 @@ public class AutoBlockAssigner {
 	/*********************** members *****************************/
 	
 	// The vehicle state is repeatedly used so it is a member so it doesn't
-	// have to be passed around to various methods.
+	// have to be passed around to various methods. Null when created by the
+	// BatchAutoAssigner from a snapshot of the AVL reports.
 	private VehicleState vehicleState;
 	
+	// The current AVL report and the previous one that is at least
+	// minDistanceFromCurrentReport away. Determined once since they are
+	// used for every block that is examined.
+	private final AvlReport avlReport;
+	private final AvlReport previousAvlReport;
+	
 	// Contains the results of spatial matching the avl report to the 
 	// specified trip pattern. Keyed on trip pattern ID. Note: since the spatial 
 	// matches are cached and reused the block member will not be correct
@@ -154,13 +161,50 @@ public class AutoBlockAssigner {
 	 */
 	public AutoBlockAssigner(VehicleState vehicleState) {
 		this.vehicleState = vehicleState;
+		this.avlReport = vehicleState.getAvlReport();
+		this.previousAvlReport = vehicleState
+				.getPreviousAvlReport(minDistanceFromCurrentReport.getValue());
+	}
+	
+	/**
+	 * Constructor for when matching a snapshot of the AVL reports for a
+	 * vehicle, such as by the BatchAutoAssigner which does the matching in a
+	 * separate thread from the one processing the AVL reports.
+	 * 
+	 * @param avlReport
+	 *            The current AVL report for the vehicle
+	 * @param previousAvlReport
+	 *            The previous AVL report that is at least
+	 *            minDistanceFromCurrentReport away, or null if there isn't one
+	 */
+	AutoBlockAssigner(AvlReport avlReport, AvlReport previousAvlReport) {
+		this.vehicleState = null;
+		this.avlReport = avlReport;
+		this.previousAvlReport = previousAvlReport;
 	}
 	
 	/**
-	 * @return the current AVL report from vehicleState member
+	 * Creates an AutoBlockAssigner from a consistent snapshot of the AVL
+	 * reports of the vehicle. Synchronizes on the vehicle state since the AVL
+	 * reports could be concurrently updated by the thread processing AVL
+	 * data.
+	 * 
+	 * @param vehicleState
+	 * @return the AutoBlockAssigner for the vehicle
 	 */
-	private AvlReport getAvlReport() {
-		return vehicleState.getAvlReport();
+	static AutoBlockAssigner createFromSnapshot(VehicleState vehicleState) {
+		synchronized (vehicleState) {
+			return new AutoBlockAssigner(vehicleState.getAvlReport(),
+					vehicleState.getPreviousAvlReport(
+							minDistanceFromCurrentReport.getValue()));
+		}
+	}
+	
+	/**
+	 * @return the current AVL report
+	 */
+	AvlReport getAvlReport() {
+		return avlReport;
 	}
 
 	/**
@@ -169,11 +213,10 @@ public class AutoBlockAssigner {
 	 * trip.
 	 * 
 	 * @return the previous AVL report, at least min distance away from current
-	 *         AVL report, from vehicleState member
+	 *         AVL report, or null if there isn't one
 	 */
-	private AvlReport getPreviousAvlReport() {
-		double minDistance = minDistanceFromCurrentReport.getValue();
-		return vehicleState.getPreviousAvlReport(minDistance);
+	AvlReport getPreviousAvlReport() {
+		return previousAvlReport;
 	}
 	
 	/**
@@ -188,7 +231,7 @@ public class AutoBlockAssigner {
 	 * @return True if block is available to be assigned (doesn't have a regular
 	 *         vehicle assigned to it.
 	 */
-	private boolean isBlockUnassigned(String blockId) {
+	static boolean isBlockUnassigned(String blockId) {
 		Collection<String> vehicleIdsForBlock = 
 				VehicleDataCache.getInstance().getVehiclesByBlockId(blockId);
 		// If no vehicles associated with the block then it is definitely
@@ -219,7 +262,7 @@ public class AutoBlockAssigner {
 	 * @return List of blocks that are available for assignment. Can be empty
 	 *         but not null
 	 */
-	private List<Block> unassignedActiveBlocks() {
+	static List<Block> unassignedActiveBlocks() {
 		List<Block> currentlyUnassignedBlocks = new ArrayList<Block>();
 		List<Block> activeBlocks = BlocksInfo.getCurrentlyActiveBlocks();
 		for (Block block : activeBlocks) {
@@ -626,6 +669,21 @@ public class AutoBlockAssigner {
 		return null;
 	}
 	
+	/**
+	 * Determines the best match of the vehicle to the specified block,
+	 * depending on whether the block is schedule based or not. Requires that
+	 * there is a previous AVL report.
+	 * 
+	 * @param block
+	 *            The block to try to match to
+	 * @return Best TemporalMatch to the block assignment, or null if no
+	 *         adequate match
+	 */
+	TemporalMatch bestMatch(Block block) {
+		return block.isNoSchedule() ? 
+				bestNoScheduleMatch(block) : bestScheduleMatch(block);
+	}
+	
 	/**
 	 * Goes through all the currently active blocks and tries to match the AVL
 	 * report to them. Returns list of valid temporal matches. Ignores layover
@@ -638,8 +696,32 @@ public class AutoBlockAssigner {
 	 *         valid matches.
 	 */
 	private List<TemporalMatch> determineTemporalMatches() {
+		// Determine which blocks to examine. If agency configured such that
+		// blocks are to be exclusive then only look at the ones currently
+		// not used. But if not to be exclusive, such as for no schedule based
+		// routes, then look at all active blocks.
+		List<Block> blocksToExamine = CoreConfig.exclusiveBlockAssignments() ? 
+				unassignedActiveBlocks() : BlocksInfo.getCurrentlyActiveBlocks();
+		
+		return determineTemporalMatches(blocksToExamine);
+	}
+	
+	/**
+	 * Tries to match the AVL report to each of the specified blocks. Returns
+	 * list of valid temporal matches. Same as determineTemporalMatches() but
+	 * for when the caller has already determined the blocks to examine, such
+	 * as the BatchAutoAssigner which determines the unassigned blocks just
+	 * once for all of the vehicles.
+	 * 
+	 * @param blocksToExamine
+	 *            The blocks to try to match to
+	 * @return A non-null list of TemporalMatches. Will be empty if there are no
+	 *         valid matches.
+	 */
+	List<TemporalMatch> determineTemporalMatches(
+			List<Block> blocksToExamine) {
 		// Convenience variable for logging
-		String vehicleId = vehicleState.getVehicleId();
+		String vehicleId = getAvlReport().getVehicleId();
 		
 		// The list of matches to return
 		List<TemporalMatch> validMatches = new ArrayList<TemporalMatch>();
@@ -663,13 +745,6 @@ public class AutoBlockAssigner {
 		// So can see how long the search takes
 		IntervalTimer timer = new IntervalTimer();		
 
-		// Determine which blocks to examine. If agency configured such that
-		// blocks are to be exclusive then only look at the ones currently
-		// not used. But if not to be exclusive, such as for no schedule based
-		// routes, then look at all active blocks.
-		List<Block> blocksToExamine = CoreConfig.exclusiveBlockAssignments() ? 
-				unassignedActiveBlocks() : BlocksInfo.getCurrentlyActiveBlocks();
-		
 		if (blocksToExamine.isEmpty()) {
 			logger.info("No currently active blocks to assign vehicleId={} to.",
 					vehicleId);
@@ -695,9 +770,7 @@ public class AutoBlockAssigner {
 
 			// Determine best match for the block depending on whether the 
 			// block is schedule based or not
-			TemporalMatch bestMatch = block.isNoSchedule() ? 
-					bestNoScheduleMatch(block) :
-					bestScheduleMatch(block);					
+			TemporalMatch bestMatch = bestMatch(block);
 			if (bestMatch != null)
 				validMatches.add(bestMatch);
 			
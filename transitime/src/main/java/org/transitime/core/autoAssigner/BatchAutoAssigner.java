@@ -0,0 +1,641 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.core.autoAssigner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.BooleanConfigValue;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.configData.CoreConfig;
+import org.transitime.core.BlocksInfo;
+import org.transitime.core.TemporalMatch;
+import org.transitime.core.VehicleState;
+import org.transitime.db.structs.Block;
+import org.transitime.db.structs.Extent;
+import org.transitime.db.structs.Location;
+import org.transitime.db.structs.TripPattern;
+import org.transitime.utils.IntervalTimer;
+import org.transitime.utils.Time;
+import org.transitime.utils.threading.NamedThreadFactory;
+
+/**
+ * Automatically assigns vehicles to blocks for the whole fleet at once
+ * instead of separately for each vehicle for each of its AVL reports.
+ * <p>
+ * Vehicles that need an assignment are registered when their AVL reports are
+ * processed. Periodically, in a separate thread, the unassigned active blocks
+ * are determined just once and every registered vehicle is matched in
+ * parallel against the blocks that are near it. Then the assignment is solved
+ * jointly for all of the vehicles so that two vehicles are not assigned to
+ * the same block. A vehicle that is the only one that matches a block gets
+ * the block, and once a block is taken it is no longer a candidate for other
+ * vehicles, which can make their matches unambiguous. As with the per vehicle
+ * AutoBlockAssigner a vehicle that still matches multiple blocks is not
+ * assigned.
+ * <p>
+ * The resulting assignments are not applied by the thread doing the solving.
+ * Instead, so that the vehicle state is only modified when processing AVL
+ * reports, the assignment is used when the next AVL report for the vehicle is
+ * processed, after confirming that the new AVL report still matches the
+ * block.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class BatchAutoAssigner {
+
+	// Vehicles that need an assignment. Keyed on vehicleId
+	private final ConcurrentHashMap<String, VehicleState> waitingVehicles =
+			new ConcurrentHashMap<String, VehicleState>();
+
+	// The blocks the vehicles were assigned to by the last cycle but that
+	// have not yet been used. Keyed on vehicleId
+	private final ConcurrentHashMap<String, Block> solvedAssignments =
+			new ConcurrentHashMap<String, Block>();
+
+	// So that only one cycle is run at a time
+	private final AtomicBoolean cycleInProcess = new AtomicBoolean(false);
+
+	// GPS time of the AVL report that triggered the last cycle. Uses GPS
+	// time instead of system time so that works in playback mode as well.
+	private volatile long lastCycleTime = 0;
+
+	// Runs the cycles so that the thread processing AVL reports isn't held up
+	private final ExecutorService cycleExecutor = Executors
+			.newSingleThreadExecutor(new NamedThreadFactory("batchAutoAssigner"));
+
+	// For matching the vehicles in parallel
+	private final ForkJoinPool forkJoinPool =
+			new ForkJoinPool(numThreads.getValue());
+
+	/****************************** Config params **********************/
+
+	private static BooleanConfigValue batchAssignerEnabled =
+			new BooleanConfigValue(
+					"transitime.autoBlockAssigner.batchAssignerEnabled",
+					false,
+					"When auto assigning is enabled, set to true to "
+					+ "periodically assign all of the unassigned vehicles "
+					+ "together instead of separately for each vehicle. "
+					+ "Much more efficient for large fleets and prevents "
+					+ "multiple vehicles from being assigned to the same "
+					+ "block.");
+
+	private static IntegerConfigValue cycleIntervalSecs =
+			new IntegerConfigValue(
+					"transitime.autoBlockAssigner.batchCycleIntervalSecs",
+					30,
+					"How frequently in seconds the batch auto assigner tries "
+					+ "to assign all of the unassigned vehicles.");
+
+	private static IntegerConfigValue numThreads =
+			new IntegerConfigValue(
+					"transitime.autoBlockAssigner.batchThreads",
+					Runtime.getRuntime().availableProcessors(),
+					"Number of threads the batch auto assigner uses for "
+					+ "matching the unassigned vehicles in parallel.");
+
+	private static IntegerConfigValue maxAvlReportAgeSecs =
+			new IntegerConfigValue(
+					"transitime.autoBlockAssigner.batchMaxAvlReportAgeSecs",
+					120,
+					"Vehicles whose last AVL report is older than this are "
+					+ "no longer considered by the batch auto assigner.");
+
+	// For splitting up the matching of the vehicles into tasks
+	private static final int VEHICLES_PER_TASK = 4;
+
+	/*********************** Logging **********************************/
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(BatchAutoAssigner.class);
+
+	// Declared after the config params since the constructor uses them
+	private static BatchAutoAssigner singleton = new BatchAutoAssigner();
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor private since singleton class
+	 */
+	private BatchAutoAssigner() {
+	}
+
+	/**
+	 * @return the singleton BatchAutoAssigner
+	 */
+	public static BatchAutoAssigner getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * Returns true if the auto assigner is enabled and it is configured to
+	 * assign the vehicles together instead of separately.
+	 *
+	 * @return true if enabled
+	 */
+	public static boolean enabled() {
+		return AutoBlockAssigner.enabled() && batchAssignerEnabled.getValue();
+	}
+
+	/**
+	 * For when a vehicle needs an assignment. If the last cycle assigned the
+	 * vehicle to a block then returns the match of the current AVL report to
+	 * that block. Otherwise registers the vehicle so that it will be
+	 * considered by the next cycle and starts the next cycle if it is time
+	 * to. Intended to be called by the thread processing AVL reports while
+	 * synchronized on the vehicle state.
+	 *
+	 * @param vehicleState
+	 * @return The match to the block the vehicle was assigned to, or null if
+	 *         the vehicle has not been assigned
+	 */
+	public TemporalMatch getAssignment(VehicleState vehicleState) {
+		String vehicleId = vehicleState.getVehicleId();
+
+		Block block = solvedAssignments.remove(vehicleId);
+		if (block != null) {
+			TemporalMatch match = confirmAssignment(vehicleState, block);
+			if (match != null)
+				return match;
+		}
+
+		// Not yet assigned so have the next cycle consider the vehicle
+		waitingVehicles.put(vehicleId, vehicleState);
+		startCycleIfTime(vehicleState.getAvlReport().getTime());
+		return null;
+	}
+
+	/**
+	 * Makes sure that the vehicle can still be assigned to the block that
+	 * was determined by the last cycle. The block could have been taken by
+	 * another vehicle since then and the new AVL report needs to match as
+	 * well.
+	 *
+	 * @param vehicleState
+	 * @param block
+	 * @return The match of the current AVL report to the block, or null if
+	 *         the vehicle can no longer be assigned to it
+	 */
+	private TemporalMatch confirmAssignment(VehicleState vehicleState,
+			Block block) {
+		String vehicleId = vehicleState.getVehicleId();
+
+		if (CoreConfig.exclusiveBlockAssignments()
+				&& !AutoBlockAssigner.isBlockUnassigned(block.getId())) {
+			logger.info("Batch auto assigner assigned vehicleId={} to "
+					+ "blockId={} but block has since been assigned to "
+					+ "another vehicle.", vehicleId, block.getId());
+			return null;
+		}
+
+		AutoBlockAssigner autoAssigner = new AutoBlockAssigner(vehicleState);
+		if (autoAssigner.getPreviousAvlReport() == null)
+			return null;
+		TemporalMatch match = autoAssigner.bestMatch(block);
+		if (match == null) {
+			logger.info("Batch auto assigner assigned vehicleId={} to "
+					+ "blockId={} but the latest AVL report no longer "
+					+ "matches the block.", vehicleId, block.getId());
+		}
+		return match;
+	}
+
+	/**
+	 * Starts a cycle in the background if enough time has elapsed since the
+	 * last one and one isn't already running.
+	 *
+	 * @param avlTime
+	 *            GPS time of the AVL report being processed
+	 */
+	private void startCycleIfTime(final long avlTime) {
+		if (Math.abs(avlTime - lastCycleTime)
+				< cycleIntervalSecs.getValue() * Time.MS_PER_SEC)
+			return;
+		if (!cycleInProcess.compareAndSet(false, true))
+			return;
+
+		lastCycleTime = avlTime;
+		cycleExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					runCycle(avlTime);
+				} catch (Exception e) {
+					logger.error("Exception in batch auto assigner. {}",
+							e.getMessage(), e);
+				} finally {
+					cycleInProcess.set(false);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Matches all the waiting vehicles to the available blocks and then
+	 * solves the assignment.
+	 *
+	 * @param cycleTime
+	 *            GPS time of the AVL report that triggered the cycle
+	 */
+	private void runCycle(long cycleTime) {
+		IntervalTimer timer = new IntervalTimer();
+
+		// Determine the vehicles to match
+		List<AutoBlockAssigner> assigners = getVehiclesToMatch(cycleTime);
+		if (assigners.isEmpty())
+			return;
+
+		// Determine which blocks are available just once for all vehicles.
+		// If blocks are to be exclusive then only look at the ones currently
+		// not used. But if not to be exclusive, such as for no schedule based
+		// routes, then look at all active blocks.
+		boolean exclusive = CoreConfig.exclusiveBlockAssignments();
+		List<Block> blocks = exclusive ?
+				AutoBlockAssigner.unassignedActiveBlocks() :
+				BlocksInfo.getCurrentlyActiveBlocks();
+		if (blocks.isEmpty()) {
+			logger.info("Batch auto assigner found no available blocks for "
+					+ "the {} unassigned vehicles.", assigners.size());
+			return;
+		}
+		BlockExtentIndex<Block> blockIndex = BlockExtentIndex.forBlocks(blocks);
+
+		// Match the vehicles in parallel
+		List<List<TemporalMatch>> matches = new ArrayList<List<TemporalMatch>>(
+				Collections.<List<TemporalMatch>> nCopies(assigners.size(), null));
+		forkJoinPool.invoke(new MatchTask(assigners, blockIndex, matches, 0,
+				assigners.size()));
+
+		// Solve the assignment for all the vehicles together
+		List<String> vehicleIds = new ArrayList<String>(assigners.size());
+		for (AutoBlockAssigner assigner : assigners)
+			vehicleIds.add(assigner.getAvlReport().getVehicleId());
+		Map<String, TemporalMatch> assignments =
+				TEMPORAL_MATCH_SOLVER.solve(vehicleIds, matches, exclusive);
+		for (Map.Entry<String, TemporalMatch> entry : assignments.entrySet()) {
+			String vehicleId = entry.getKey();
+			solvedAssignments.put(vehicleId, entry.getValue().getBlock());
+			waitingVehicles.remove(vehicleId);
+		}
+
+		logger.info("Batch auto assigner matched {} unassigned vehicles to "
+				+ "{} available blocks and assigned {} vehicles. Took {} msec.",
+				assigners.size(), blocks.size(), assignments.size(),
+				timer.elapsedMsec());
+	}
+
+	/**
+	 * Determines which of the waiting vehicles should be matched. Vehicles
+	 * that are no longer unassigned or haven't reported recently are removed.
+	 *
+	 * @param cycleTime
+	 * @return AutoBlockAssigner for each vehicle to match
+	 */
+	private List<AutoBlockAssigner> getVehiclesToMatch(long cycleTime) {
+		List<AutoBlockAssigner> assigners = new ArrayList<AutoBlockAssigner>();
+		long maxAgeMsec = maxAvlReportAgeSecs.getValue() * Time.MS_PER_SEC;
+
+		Iterator<VehicleState> iter = waitingVehicles.values().iterator();
+		while (iter.hasNext()) {
+			VehicleState vehicleState = iter.next();
+			if (vehicleState.isPredictable()
+					|| vehicleState.isForSchedBasedPreds()) {
+				iter.remove();
+				continue;
+			}
+
+			AutoBlockAssigner assigner =
+					AutoBlockAssigner.createFromSnapshot(vehicleState);
+			if (assigner.getAvlReport() == null
+					|| cycleTime - assigner.getAvlReport().getTime() > maxAgeMsec) {
+				iter.remove();
+				continue;
+			}
+
+			// Need a previous AVL report far enough away so that don't try
+			// to match vehicles that are not moving. Keep waiting for one.
+			if (assigner.getPreviousAvlReport() == null)
+				continue;
+
+			assigners.add(assigner);
+		}
+
+		return assigners;
+	}
+
+	/**
+	 * For solving the assignment of the vehicles to the TemporalMatches that
+	 * were found for them.
+	 */
+	private static final AssignmentSolver<TemporalMatch> TEMPORAL_MATCH_SOLVER =
+			new AssignmentSolver<TemporalMatch>() {
+				@Override
+				String getBlockId(TemporalMatch match) {
+					return match.getBlock().getId();
+				}
+
+				@Override
+				boolean betterThan(TemporalMatch match1, TemporalMatch match2) {
+					return match1.getTemporalDifference().betterThan(
+							match2.getTemporalDifference());
+				}
+			};
+
+	/**
+	 * Solves the assignment of the vehicles to the blocks that they matched.
+	 * When blocks are exclusive then repeatedly assigns the vehicles that
+	 * have only a single candidate block that has not yet been taken. If
+	 * multiple vehicles have only the same block then the one that best
+	 * matches temporally gets it. Assigning blocks removes them as
+	 * candidates for the remaining vehicles so the process is repeated until
+	 * no more vehicles can be assigned.
+	 * <p>
+	 * Generic in the type of match so that the solving can be tested without
+	 * needing full blocks and matches.
+	 *
+	 * @param <M>
+	 *            The type of match
+	 */
+	static abstract class AssignmentSolver<M> {
+		/**
+		 * @return ID of the block that the match is for
+		 */
+		abstract String getBlockId(M match);
+
+		/**
+		 * @return true if match1 is a better temporal match than match2
+		 */
+		abstract boolean betterThan(M match1, M match2);
+
+		/**
+		 * @param vehicleIds
+		 *            The vehicles being assigned
+		 * @param matches
+		 *            The valid matches for each of the vehicles. The lists
+		 *            are modified.
+		 * @param exclusive
+		 *            Whether a block can only be assigned to a single vehicle
+		 * @return The match for each assigned vehicle, keyed on vehicleId
+		 */
+		Map<String, M> solve(List<String> vehicleIds, List<List<M>> matches,
+				boolean exclusive) {
+			Map<String, M> assignments = new HashMap<String, M>();
+
+			// Blocks that are taken. Keyed on blockId
+			Set<String> takenBlockIds = new HashSet<String>();
+
+			// The vehicles that are still to be assigned, in the order that
+			// they were matched
+			List<Integer> remaining = new ArrayList<Integer>();
+			for (int i = 0; i < vehicleIds.size(); ++i) {
+				if (!matches.get(i).isEmpty())
+					remaining.add(i);
+			}
+
+			boolean assignedVehicle = true;
+			while (assignedVehicle && !remaining.isEmpty()) {
+				assignedVehicle = false;
+
+				// For each block the best vehicle that has it as its only
+				// remaining candidate. Keyed on blockId
+				Map<String, M> bestMatchForBlock = new HashMap<String, M>();
+				Map<String, Integer> bestVehicleForBlock =
+						new HashMap<String, Integer>();
+
+				Iterator<Integer> iter = remaining.iterator();
+				while (iter.hasNext()) {
+					int i = iter.next();
+
+					// Determine the candidates that have not yet been taken
+					List<M> candidates = new ArrayList<M>();
+					for (M match : matches.get(i)) {
+						if (!takenBlockIds.contains(getBlockId(match)))
+							candidates.add(match);
+					}
+					matches.set(i, candidates);
+
+					if (candidates.isEmpty()) {
+						iter.remove();
+					} else if (candidates.size() == 1) {
+						M match = candidates.get(0);
+						String blockId = getBlockId(match);
+
+						if (!exclusive) {
+							// Blocks can be shared so simply assign the vehicle
+							assignments.put(vehicleIds.get(i), match);
+							iter.remove();
+							continue;
+						}
+
+						M bestMatch = bestMatchForBlock.get(blockId);
+						if (bestMatch == null || betterThan(match, bestMatch)) {
+							bestMatchForBlock.put(blockId, match);
+							bestVehicleForBlock.put(blockId, i);
+						}
+					}
+				}
+
+				// Assign the vehicles that won their block
+				for (Map.Entry<String, Integer> entry :
+						bestVehicleForBlock.entrySet()) {
+					String blockId = entry.getKey();
+					int i = entry.getValue();
+					assignments.put(vehicleIds.get(i),
+							bestMatchForBlock.get(blockId));
+					takenBlockIds.add(blockId);
+					remaining.remove(Integer.valueOf(i));
+					assignedVehicle = true;
+				}
+			}
+
+			// The remaining vehicles still match multiple blocks so the
+			// situation is ambiguous and they can't be assigned
+			for (int i : remaining) {
+				logger.info("Batch auto assigner found multiple matches ({}) "
+						+ "for vehicleId={}. Therefore could not auto assign "
+						+ "vehicle. {}", matches.get(i).size(), vehicleIds.get(i),
+						matches.get(i));
+			}
+
+			return assignments;
+		}
+	}
+
+	/**
+	 * For matching a range of the vehicles in parallel using fork-join.
+	 */
+	private static class MatchTask extends RecursiveAction {
+		private final List<AutoBlockAssigner> assigners;
+		private final BlockExtentIndex<Block> blockIndex;
+		private final List<List<TemporalMatch>> matches;
+		private final int start;
+		private final int end;
+
+		private static final long serialVersionUID = -2383742367391745193L;
+
+		private MatchTask(List<AutoBlockAssigner> assigners,
+				BlockExtentIndex<Block> blockIndex,
+				List<List<TemporalMatch>> matches,
+				int start, int end) {
+			this.assigners = assigners;
+			this.blockIndex = blockIndex;
+			this.matches = matches;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= VEHICLES_PER_TASK) {
+				for (int i = start; i < end; ++i) {
+					AutoBlockAssigner assigner = assigners.get(i);
+					List<Block> nearbyBlocks = blockIndex.getNear(
+							assigner.getAvlReport().getLocation(),
+							CoreConfig.getMaxDistanceFromSegmentForAutoAssigning());
+					try {
+						matches.set(i,
+								assigner.determineTemporalMatches(nearbyBlocks));
+					} catch (Exception e) {
+						logger.error("Exception when batch auto assigning "
+								+ "vehicleId={}. {}",
+								assigner.getAvlReport().getVehicleId(),
+								e.getMessage(), e);
+						matches.set(i, Collections.<TemporalMatch> emptyList());
+					}
+				}
+			} else {
+				int middle = (start + end) >>> 1;
+				invokeAll(
+						new MatchTask(assigners, blockIndex, matches, start,
+								middle),
+						new MatchTask(assigners, blockIndex, matches, middle,
+								end));
+			}
+		}
+	}
+
+	/**
+	 * So that a vehicle is only matched to the blocks whose trip patterns are
+	 * near it. The extents of the blocks are sorted by minimum latitude so
+	 * that a binary search can skip the ones that are too far north.
+	 * <p>
+	 * Generic in the type of item so that it can be tested without needing
+	 * full blocks, and so that the API can use it to find the agencies near
+	 * a location.
+	 *
+	 * @param <T>
+	 *            The type of item, such as a Block
+	 */
+	public static class BlockExtentIndex<T> {
+		private final List<T> items;
+		private final Extent[] extents;
+		private final double[] minLats;
+
+		/**
+		 * Creates the index for the blocks using the extents of their trip
+		 * patterns.
+		 *
+		 * @param blocks
+		 * @return the index
+		 */
+		static BlockExtentIndex<Block> forBlocks(List<Block> blocks) {
+			Extent[] extents = new Extent[blocks.size()];
+			for (int i = 0; i < blocks.size(); ++i) {
+				Extent extent = new Extent();
+				for (TripPattern tripPattern : blocks.get(i).getTripPatterns())
+					extent.add(tripPattern.getExtent());
+				extents[i] = extent;
+			}
+			return new BlockExtentIndex<Block>(blocks, extents);
+		}
+
+		/**
+		 * @param itemList
+		 *            The items to index
+		 * @param unsortedExtents
+		 *            The extent of each of the items
+		 */
+		public BlockExtentIndex(List<T> itemList,
+				final Extent[] unsortedExtents) {
+			// Sort indices instead of the items themselves since
+			// Block.hashCode() is expensive.
+			Integer[] order = new Integer[itemList.size()];
+			for (int i = 0; i < order.length; ++i)
+				order[i] = i;
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer i1, Integer i2) {
+					return Double.compare(unsortedExtents[i1].getMinLat(),
+							unsortedExtents[i2].getMinLat());
+				}
+			});
+
+			items = new ArrayList<T>(order.length);
+			extents = new Extent[order.length];
+			minLats = new double[order.length];
+			for (int i = 0; i < order.length; ++i) {
+				items.add(itemList.get(order[i]));
+				extents[i] = unsortedExtents[order[i]];
+				minLats[i] = extents[i].getMinLat();
+			}
+		}
+
+		/**
+		 * @param loc
+		 * @param distance
+		 *            In meters
+		 * @return the items whose extent is within the distance of the
+		 *         location
+		 */
+		public List<T> getNear(Location loc, double distance) {
+			// Only items with a minLat no greater than this can be near
+			double maxMinLat =
+					loc.getLat() + distance / Extent.METERS_PER_DEGREE;
+			int end = Arrays.binarySearch(minLats, maxMinLat);
+			if (end < 0)
+				end = -end - 1;
+			while (end < minLats.length && minLats[end] <= maxMinLat)
+				++end;
+
+			List<T> nearbyItems = new ArrayList<T>();
+			for (int i = 0; i < end; ++i) {
+				if (extents[i].isWithinDistance(loc, distance))
+					nearbyItems.add(items.get(i));
+			}
+			return nearbyItems;
+		}
+	}
+}
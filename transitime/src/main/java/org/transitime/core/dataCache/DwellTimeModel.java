@@ -0,0 +1,340 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.dataCache;
+
+import java.util.Calendar;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.applications.Core;
+import org.transitime.config.BooleanConfigValue;
+import org.transitime.config.DoubleConfigValue;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.db.structs.ArrivalDeparture;
+import org.transitime.db.structs.StopPath;
+import org.transitime.db.structs.Trip;
+import org.transitime.utils.P2Quantile;
+import org.transitime.utils.Time;
+
+/**
+ * Estimates how long vehicles dwell at a stop from the actual arrivals and
+ * departures. A streaming quantile of the dwell time is kept for each stop,
+ * time of day bucket, and day type (weekday, Saturday, Sunday) so that busy
+ * stops get a dwell time that reflects when the vehicle will be there instead
+ * of the single stop time from the travel times.
+ * <p>
+ * Each departure is paired with the arrival of the same vehicle at the same
+ * stop of the same trip, so adding a dwell time takes constant time and does
+ * not need to search the trip history or read the database. For each stop
+ * the estimators for all of its time of day buckets and day types are held
+ * in primitive arrays indexed by slot, with the array for a slot only being
+ * allocated once there is a dwell time for it.
+ * <p>
+ * Wait stops and layovers are not included since the vehicle is waiting for
+ * the schedule there instead of for passengers.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class DwellTimeModel {
+
+	private static BooleanConfigValue enabled =
+			new BooleanConfigValue("transitime.prediction.dwellTime.enabled",
+					false,
+					"Whether dwell times at stops should be estimated from the "
+					+ "actual arrivals/departures by stop and time of day, "
+					+ "and used instead of the stop times from the travel "
+					+ "times when generating predictions.");
+
+	private static DoubleConfigValue quantile =
+			new DoubleConfigValue("transitime.prediction.dwellTime.quantile",
+					0.5,
+					"Which quantile of the historical dwell times at a stop "
+					+ "is used as the expected dwell time. 0.5 is the "
+					+ "median.");
+
+	private static IntegerConfigValue minSamples =
+			new IntegerConfigValue("transitime.prediction.dwellTime.minSamples",
+					10,
+					"Minimum number of historical dwell times for a stop, "
+					+ "time of day, and day type before the dwell time model "
+					+ "is used for it instead of the stop time from the "
+					+ "travel times.");
+
+	private static IntegerConfigValue timeBucketMins =
+			new IntegerConfigValue("transitime.prediction.dwellTime.timeBucketMins",
+					60,
+					"Size in minutes of the time of day buckets that dwell "
+					+ "times are kept for.");
+
+	private static IntegerConfigValue maxDwellTimeSecs =
+			new IntegerConfigValue("transitime.prediction.dwellTime.maxDwellTimeSecs",
+					600,
+					"Dwell times longer than this are not included in the "
+					+ "model since the vehicle was likely out of service "
+					+ "instead of loading passengers.");
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(DwellTimeModel.class);
+
+	// Day types
+	private static final int WEEKDAY = 0;
+	private static final int SATURDAY = 1;
+	private static final int SUNDAY = 2;
+	private static final int NUM_DAY_TYPES = 3;
+
+	// Read just once so that the slots of the stops are always consistent
+	private final int bucketSecs;
+	private final int numBuckets;
+	private final double dwellQuantile;
+
+	// Keyed on stop ID
+	private final ConcurrentHashMap<String, StopDwellTimes> dwellTimesByStop =
+			new ConcurrentHashMap<String, StopDwellTimes>();
+
+	// Keyed on vehicle ID. The last arrival of each vehicle, so that it can
+	// be paired with the departure.
+	private final ConcurrentHashMap<String, ArrivalDeparture> lastArrivals =
+			new ConcurrentHashMap<String, ArrivalDeparture>();
+
+	// For determining time of day and day of week in the agency timezone.
+	// Obtained from Core when first needed.
+	private volatile Time time;
+
+	// Created after the config values since the constructor uses them
+	private static final DwellTimeModel singleton = new DwellTimeModel();
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor private since singleton class
+	 */
+	private DwellTimeModel() {
+		this(null);
+	}
+
+	/**
+	 * For testing, so that the time zone can be specified instead of being
+	 * obtained from Core.
+	 *
+	 * @param time
+	 *            For determining time of day and day of week. If null then
+	 *            obtained from Core when first needed.
+	 */
+	DwellTimeModel(Time time) {
+		bucketSecs = Math.max(1, timeBucketMins.getValue()) * Time.SEC_PER_MIN;
+		numBuckets = (Time.SEC_PER_DAY + bucketSecs - 1) / bucketSecs;
+		dwellQuantile = quantile.getValue();
+		this.time = time;
+	}
+
+	/**
+	 * @return the singleton DwellTimeModel
+	 */
+	public static DwellTimeModel getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * @return true if the dwell time model is to be filled in and used
+	 */
+	public static boolean isEnabled() {
+		return enabled.getValue();
+	}
+
+	/**
+	 * Updates the model with an arrival/departure as it is generated. Does
+	 * nothing if the model is not enabled.
+	 *
+	 * @param arrivalDeparture
+	 */
+	public void putArrivalDeparture(ArrivalDeparture arrivalDeparture) {
+		if (isEnabled())
+			putArrivalDeparture(arrivalDeparture, lastArrivals);
+	}
+
+	/**
+	 * Updates the model with an arrival/departure. An arrival is remembered
+	 * until the departure of the vehicle, and for a departure the dwell time
+	 * since the corresponding arrival is added to the model. Therefore the
+	 * arrivals/departures of a vehicle need to be put in time order.
+	 *
+	 * @param arrivalDeparture
+	 * @param arrivals
+	 *            The last arrival of each vehicle, keyed on vehicle ID. Allows
+	 *            separate sets of arrivals/departures, such as those read from
+	 *            the db, to be put in without interfering with each other.
+	 */
+	public void putArrivalDeparture(ArrivalDeparture arrivalDeparture,
+			Map<String, ArrivalDeparture> arrivals) {
+		if (arrivalDeparture.isArrival()) {
+			arrivals.put(arrivalDeparture.getVehicleId(), arrivalDeparture);
+			return;
+		}
+
+		// It is a departure so see if there is a corresponding arrival
+		ArrivalDeparture arrival =
+				arrivals.remove(arrivalDeparture.getVehicleId());
+		if (arrival == null
+				|| arrival.getStopPathIndex() != arrivalDeparture.getStopPathIndex()
+				|| !arrival.getTripId().equals(arrivalDeparture.getTripId()))
+			return;
+
+		long dwellTimeMsec = arrivalDeparture.getTime() - arrival.getTime();
+		if (dwellTimeMsec < 0
+				|| dwellTimeMsec > maxDwellTimeSecs.getValue() * Time.MS_PER_SEC)
+			return;
+
+		// Vehicle is waiting for the schedule at wait stops and layovers
+		StopPath stopPath = getStopPath(arrivalDeparture);
+		if (stopPath == null || stopPath.isWaitStop() || stopPath.isLayoverStop())
+			return;
+
+		add(arrivalDeparture.getStopId(), arrival.getTime(), dwellTimeMsec);
+	}
+
+	/**
+	 * @param arrivalDeparture
+	 * @return the stop path of the arrival/departure, or null if it could not
+	 *         be found
+	 */
+	StopPath getStopPath(ArrivalDeparture arrivalDeparture) {
+		Trip trip = Core.getInstance().getDbConfig()
+				.getTrip(arrivalDeparture.getTripId());
+		if (trip == null)
+			return null;
+		return trip.getStopPath(arrivalDeparture.getStopPathIndex());
+	}
+
+	/**
+	 * Adds a dwell time to the estimator for the stop and the time of the
+	 * arrival.
+	 *
+	 * @param stopId
+	 * @param arrivalTime
+	 *            Epoch time of the arrival, for determining the slot
+	 * @param dwellTimeMsec
+	 */
+	public void add(String stopId, long arrivalTime, long dwellTimeMsec) {
+		StopDwellTimes stopDwellTimes = dwellTimesByStop.get(stopId);
+		if (stopDwellTimes == null) {
+			StopDwellTimes newStopDwellTimes =
+					new StopDwellTimes(NUM_DAY_TYPES * numBuckets);
+			stopDwellTimes =
+					dwellTimesByStop.putIfAbsent(stopId, newStopDwellTimes);
+			if (stopDwellTimes == null)
+				stopDwellTimes = newStopDwellTimes;
+		}
+		stopDwellTimes.add(getSlot(arrivalTime), dwellQuantile, dwellTimeMsec);
+	}
+
+	/**
+	 * Returns the expected dwell time at the stop for the specified time.
+	 *
+	 * @param stopId
+	 * @param epochTime
+	 *            When the vehicle is expected to be at the stop
+	 * @return the dwell time in msec, or -1 if there is not enough history for
+	 *         the stop, time of day, and day type
+	 */
+	public long getDwellTime(String stopId, long epochTime) {
+		StopDwellTimes stopDwellTimes = dwellTimesByStop.get(stopId);
+		if (stopDwellTimes == null)
+			return -1;
+
+		double dwellTime = stopDwellTimes.getQuantile(getSlot(epochTime),
+				dwellQuantile, minSamples.getValue());
+		if (Double.isNaN(dwellTime))
+			return -1;
+
+		logger.debug("Dwell time model for stopId={} at {} is {} msec",
+				stopId, Time.dateTimeStrMsec(epochTime), dwellTime);
+		return Math.round(dwellTime);
+	}
+
+	/**
+	 * @return number of stops that have dwell times
+	 */
+	public int getNumStops() {
+		return dwellTimesByStop.size();
+	}
+
+	/**
+	 * Determines the slot of the estimator for the time of day bucket and day
+	 * type of the epoch time.
+	 *
+	 * @param epochTime
+	 * @return the slot
+	 */
+	private int getSlot(long epochTime) {
+		Time agencyTime = time;
+		if (agencyTime == null) {
+			agencyTime = Core.getInstance().getTime();
+			time = agencyTime;
+		}
+
+		int bucket = Math.min(agencyTime.getSecondsIntoDay(epochTime) / bucketSecs,
+				numBuckets - 1);
+		int dayType;
+		switch (agencyTime.getDayOfWeek(epochTime)) {
+		case Calendar.SATURDAY:
+			dayType = SATURDAY;
+			break;
+		case Calendar.SUNDAY:
+			dayType = SUNDAY;
+			break;
+		default:
+			dayType = WEEKDAY;
+		}
+		return dayType * numBuckets + bucket;
+	}
+
+	/**
+	 * The dwell time estimators for all of the slots of a stop. Synchronized
+	 * since arrivals/departures are generated by multiple AVL processing
+	 * threads and read while generating predictions.
+	 */
+	private static class StopDwellTimes {
+		// The P2Quantile state for each slot, null until the first dwell time
+		// for the slot
+		private final double[][] estimators;
+
+		private StopDwellTimes(int numSlots) {
+			estimators = new double[numSlots][];
+		}
+
+		private synchronized void add(int slot, double quantile,
+				double dwellTimeMsec) {
+			double[] state = estimators[slot];
+			if (state == null) {
+				state = new double[P2Quantile.STATE_SIZE];
+				estimators[slot] = state;
+			}
+			P2Quantile.add(state, 0, quantile, dwellTimeMsec);
+		}
+
+		private synchronized double getQuantile(int slot, double quantile,
+				int minSamples) {
+			double[] state = estimators[slot];
+			if (state == null || P2Quantile.getCount(state, 0) < minSamples)
+				return Double.NaN;
+			return P2Quantile.getQuantile(state, 0, quantile);
+		}
+	}
+}
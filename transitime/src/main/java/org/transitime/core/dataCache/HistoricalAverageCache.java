@@ -1,5 +1,6 @@
 package org.transitime.core.dataCache;
 
+import java.io.IOException;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
@@ -22,11 +23,20 @@ import org.transitime.gtfs.DbConfig;
  */
 public class HistoricalAverageCache {
 	final private static String cacheName = "HistoricalAverageCache";
-	private static HistoricalAverageCache singleton = new HistoricalAverageCache();
 	private static final Logger logger = LoggerFactory
 			.getLogger(HistoricalAverageCache.class);
 
+	// Kinds of values in the persistent store
+	private static final byte TRAVEL_TIME = 1;
+	private static final byte STOP_TIME = 2;
+
 	private Cache cache = null;
+	
+	// So that the averages survive a restart. Null if not persisting.
+	private StopPathValueStore store = null;
+	
+	// Created after the logger since the constructor uses it
+	private static HistoricalAverageCache singleton = new HistoricalAverageCache();
 	/**
 	 * Gets the singleton instance of this class.
 	 * 
@@ -42,7 +52,28 @@ public class HistoricalAverageCache {
 		if (cm.getCache(cacheName) == null) {
 			cm.addCache(cacheName);
 		}
-		cache = cm.getCache(cacheName);											
+		cache = cm.getCache(cacheName);
+		
+		store = StopPathValueStore.open(cacheName, new StopPathValueStore.Handler() {
+			@Override
+			public void load(String tripId, int stopPathIndex, byte kind, int count, double value) {
+				HistoricalAverage average = new HistoricalAverage();
+				average.setCount(count);
+				average.setAverage(value);
+				cache.put(new Element(new StopPathCacheKey(tripId, stopPathIndex, kind == TRAVEL_TIME), average));
+			}
+
+			@Override
+			public void writeSnapshot(StopPathValueStore store) throws IOException {
+				for (StopPathCacheKey key : getKeys()) {
+					HistoricalAverage average = getAverage(key);
+					if (average != null)
+						store.writeSnapshotValue(key.getTripId(), key.getStopPathIndex(),
+								key.isTravelTime() ? TRAVEL_TIME : STOP_TIME,
+								average.getCount(), average.getAverage());
+				}
+			}
+		});
 	}
 	public List<StopPathCacheKey> getKeys()
 	{
@@ -94,6 +125,11 @@ public class HistoricalAverageCache {
 		Element averageElement = new Element(key, average);
 		
 		cache.put(averageElement);
+		
+		if (store != null)
+			store.append(key.getTripId(), key.getStopPathIndex(),
+					key.isTravelTime() ? TRAVEL_TIME : STOP_TIME,
+					average.getCount(), average.getAverage());
 			
 		logCacheSize(logger);
 		// logCache(logger);
@@ -0,0 +1,233 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.dataCache;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.StatelessSession;
+import org.hibernate.Criteria;
+import org.hibernate.Transaction;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.configData.AgencyConfig;
+import org.transitime.configData.CoreConfig;
+import org.transitime.configData.DbSetupConfig;
+import org.transitime.db.hibernate.HibernateUtils;
+import org.transitime.db.structs.ArrivalDeparture;
+import org.transitime.monitoring.metrics.Counter;
+import org.transitime.monitoring.metrics.MetricsRegistry;
+import org.transitime.utils.Time;
+import org.transitime.utils.threading.NamedThreadFactory;
+
+/**
+ * Fills the TripDataHistoryCache, the StopArrivalDepartureCache, and if
+ * enabled the DwellTimeModel with the arrivals/departures from the database for the last
+ * transitime.cache.daysPopulateHistoricalCache days. Done in a background
+ * thread so that AVL processing can start right away, using whatever history
+ * has been loaded so far.
+ * <p>
+ * Each day is read as a separate partition by a pool of threads, most recent
+ * day first since that history is the most useful. The rows for a day are
+ * streamed through a scrollable result set of a StatelessSession so that only
+ * a fetch size worth of rows is in memory at a time, instead of reading the
+ * whole day into a list held by the session. Each row is put into all of the
+ * caches so the database is only read once. When the DwellTimeModel is
+ * enabled the rows are read in time order so that the departures can be
+ * paired with the arrivals.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class HistoricalCacheWarmUp {
+
+	private static IntegerConfigValue numThreads =
+			new IntegerConfigValue("transitime.cache.warmUpThreads",
+					2,
+					"Number of days of arrivals/departures that are read "
+					+ "from the database in parallel when filling the "
+					+ "historical caches at startup.");
+
+	private static IntegerConfigValue fetchSize =
+			new IntegerConfigValue("transitime.cache.warmUpFetchSize",
+					1000,
+					"JDBC fetch size used when streaming arrivals/departures "
+					+ "from the database to fill the historical caches. For "
+					+ "MySQL rows are always streamed one at a time.");
+
+	private static final Counter rowsMetric = MetricsRegistry.getInstance()
+			.counter("HistoricalCacheWarmUpRows");
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(HistoricalCacheWarmUp.class);
+
+	private static volatile boolean complete = false;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Starts filling the caches in a background thread and returns
+	 * immediately.
+	 */
+	public static void start() {
+		new NamedThreadFactory("cacheWarmUp", true).newThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					warmUp();
+				} catch (Exception e) {
+					logger.error("Exception filling historical caches. {}",
+							e.getMessage(), e);
+				}
+			}
+		}).start();
+	}
+
+	/**
+	 * @return true once all the days have been loaded into the caches
+	 */
+	public static boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Reads in the days in parallel and waits for them to complete.
+	 */
+	private static void warmUp() throws InterruptedException {
+		int numDays = CoreConfig.getDaysPopulateHistoricalCache();
+		logger.info("Filling historical caches with {} days of "
+				+ "arrivals/departures using {} threads.",
+				numDays, numThreads.getValue());
+		long startTime = System.currentTimeMillis();
+		final AtomicLong totalRows = new AtomicLong();
+
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.max(1, numThreads.getValue()),
+				new NamedThreadFactory("cacheWarmUpDay", true));
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		long endTime = System.currentTimeMillis();
+		for (int i = 0; i < numDays; ++i) {
+			final Date endDate = new Date(endTime - i * Time.MS_PER_DAY);
+			final Date startDate = new Date(endDate.getTime() - Time.MS_PER_DAY);
+			futures.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					long dayStartTime = System.currentTimeMillis();
+					int rows = loadPartition(startDate, endDate);
+					logger.info("Filled historical caches with {} "
+							+ "arrivals/departures for {} to {} in {} msec. "
+							+ "{} loaded so far.",
+							rows, startDate, endDate,
+							System.currentTimeMillis() - dayStartTime,
+							totalRows.addAndGet(rows));
+					return rows;
+				}
+			}));
+		}
+		executor.shutdown();
+
+		for (Future<Integer> future : futures) {
+			try {
+				future.get();
+			} catch (Exception e) {
+				// Other days can still be used so just log the problem
+				logger.error("Exception filling historical caches for a "
+						+ "day. {}", e.getMessage(), e);
+			}
+		}
+		complete = true;
+		logger.info("Done filling historical caches with {} "
+				+ "arrivals/departures in {} msec.",
+				totalRows.get(), System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * Streams the arrivals/departures for the time range from the database
+	 * into the TripDataHistoryCache, the StopArrivalDepartureCache, and the
+	 * DwellTimeModel.
+	 *
+	 * @param startDate
+	 *            Inclusive
+	 * @param endDate
+	 *            Exclusive, so that partitions don't overlap
+	 * @return number of arrivals/departures read
+	 */
+	private static int loadPartition(Date startDate, Date endDate) {
+		// MySQL only streams results if the fetch size is MIN_VALUE
+		int rowsToFetch = "mysql".equals(DbSetupConfig.getDbType()) ?
+				Integer.MIN_VALUE : fetchSize.getValue();
+
+		boolean fillDwellTimes = DwellTimeModel.isEnabled();
+		// The last arrival of each vehicle for the partition, for the
+		// DwellTimeModel. Separate from the one for the live
+		// arrivals/departures since partitions are read in parallel.
+		Map<String, ArrivalDeparture> arrivals =
+				new HashMap<String, ArrivalDeparture>();
+
+		StatelessSession session = HibernateUtils.getSessionFactory(
+				AgencyConfig.getAgencyId(), true).openStatelessSession();
+		int rows = 0;
+		try {
+			// Need a transaction so that postgres uses a cursor instead of
+			// reading in all the rows
+			Transaction tx = session.beginTransaction();
+			Criteria criteria = session
+					.createCriteria(ArrivalDeparture.class)
+					.add(Restrictions.ge("time", startDate))
+					.add(Restrictions.lt("time", endDate))
+					.setFetchSize(rowsToFetch);
+			if (fillDwellTimes)
+				criteria.addOrder(Order.asc("time"));
+			ScrollableResults results =
+					criteria.scroll(ScrollMode.FORWARD_ONLY);
+			try {
+				while (results.next()) {
+					ArrivalDeparture arrivalDeparture =
+							(ArrivalDeparture) results.get(0);
+					TripDataHistoryCache.getInstance()
+							.putArrivalDeparture(arrivalDeparture);
+					StopArrivalDepartureCache.getInstance()
+							.putArrivalDeparture(arrivalDeparture);
+					if (fillDwellTimes)
+						DwellTimeModel.getInstance().putArrivalDeparture(
+								arrivalDeparture, arrivals);
+					++rows;
+					rowsMetric.increment();
+				}
+			} finally {
+				results.close();
+			}
+			tx.commit();
+		} finally {
+			session.close();
+		}
+		return rows;
+	}
+}
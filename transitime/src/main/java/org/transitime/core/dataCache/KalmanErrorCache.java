@@ -1,105 +1,208 @@
 package org.transitime.core.dataCache;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-
-import net.sf.ehcache.Cache;
-import net.sf.ehcache.CacheManager;
-import net.sf.ehcache.Element;
-import net.sf.ehcache.config.CacheConfiguration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.core.Indices;
 /**
  * @author Sean Og Crudden
- * 
+ *
+ * The Kalman filter error for each stop path of each trip. The errors for a
+ * trip are stored as the raw bits of doubles in an AtomicLongArray indexed by
+ * stop path index so that they can be read and written by the prediction
+ * threads without locking and without boxing each value into a Double.
  */
 public class KalmanErrorCache {
-	final private static String cacheName = "KalmanErrorCache";
-	private static KalmanErrorCache singleton = new KalmanErrorCache();
 	private static final Logger logger = LoggerFactory
 			.getLogger(KalmanErrorCache.class);
 
-	private Cache cache = null;
+	// For marking stop paths that don't have an error value yet
+	private static final long NO_VALUE = Double.doubleToRawLongBits(Double.NaN);
+
+	// Keyed on trip ID
+	private final ConcurrentHashMap<String, TripErrors> errorsByTrip =
+			new ConcurrentHashMap<String, TripErrors>();
+
+	// So that the errors survive a restart. Null if not persisting.
+	private final StopPathValueStore store;
+
+	// Created after NO_VALUE and the logger since the constructor uses them
+	private static KalmanErrorCache singleton = new KalmanErrorCache();
+
 	/**
 	 * Gets the singleton instance of this class.
-	 * 
+	 *
 	 * @return
 	 */
 	public static KalmanErrorCache getInstance() {
 		return singleton;
 	}
-	
+
 	private KalmanErrorCache() {
-		CacheManager cm = CacheManager.getInstance();
-		
-		if (cm.getCache(cacheName) == null) {
-			cm.addCache(cacheName);
-		}
-		cache = cm.getCache(cacheName);
-		
-		CacheConfiguration config = cache.getCacheConfiguration();
-		
-		config.setEternal(true);
-		
-		config.setMaxEntriesLocalHeap(1000000);
-		
-		config.setMaxEntriesLocalDisk(1000000);								
+		store = StopPathValueStore.open("KalmanErrorCache",
+				new StopPathValueStore.Handler() {
+					@Override
+					public void load(String tripId, int stopPathIndex,
+							byte kind, int count, double value) {
+						// The count is the number of stop paths of the trip
+						// so that the array is sized once instead of growing
+						// as each record is replayed. Older files have 0.
+						setErrorValue(tripId, stopPathIndex,
+								Math.max(count, stopPathIndex + 1), value);
+					}
+
+					@Override
+					public void writeSnapshot(StopPathValueStore store)
+							throws IOException {
+						for (Map.Entry<String, TripErrors> entry : errorsByTrip.entrySet()) {
+							AtomicLongArray values = entry.getValue().values;
+							for (int i = 0; i < values.length(); ++i) {
+								long bits = values.get(i);
+								if (bits != NO_VALUE)
+									store.writeSnapshotValue(entry.getKey(), i,
+											(byte) 0, values.length(),
+											Double.longBitsToDouble(bits));
+							}
+						}
+					}
+				});
 	}
 	public void logCache(Logger logger)
 	{
 		logger.debug("Cache content log.");
-		@SuppressWarnings("unchecked")
-		List<KalmanErrorCacheKey> keys = cache.getKeys();
-		
-		for(KalmanErrorCacheKey key : keys)
+		for(KalmanErrorCacheKey key : getKeys())
 		{
-			Element result=cache.get(key);
-			if(result!=null)
-			{
-				logger.debug("Key: "+key.toString());
-								
-				Double value=(Double) result.getObjectValue();
-												
-				logger.debug("Error value: "+value);
-			}
-		}		
+			logger.debug("Key: "+key.toString());
+			logger.debug("Error value: "+getErrorValue(key));
+		}
+	}
+
+	public Double getErrorValue(Indices indices) {
+		return getErrorValue(new KalmanErrorCacheKey(indices));
+	}
+	public Double getErrorValue(KalmanErrorCacheKey key) {
+		double value = getErrorValue(key.getTripId(), key.getStopPathIndex(), Double.NaN);
+		return Double.isNaN(value) ? null : value;
+	}
+	/**
+	 * Gets the error value without creating any objects.
+	 *
+	 * @param tripId
+	 * @param stopPathIndex
+	 * @param defaultValue
+	 *            Returned if there is no error value for the stop path
+	 * @return the error value, or defaultValue if there isn't one
+	 */
+	public double getErrorValue(String tripId, int stopPathIndex, double defaultValue) {
+		TripErrors tripErrors = errorsByTrip.get(tripId);
+		if (tripErrors == null)
+			return defaultValue;
+		double value = tripErrors.get(stopPathIndex);
+		return Double.isNaN(value) ? defaultValue : value;
+	}
+	public void putErrorValue(Indices indices,  Double value) {
+		putErrorValue(indices, value.doubleValue());
+	}
+	/**
+	 * Stores the error value without creating any objects, other than the
+	 * array for the trip the first time an error is stored for it.
+	 *
+	 * @param indices
+	 * @param value
+	 */
+	public void putErrorValue(Indices indices, double value) {
+		putErrorValue(indices.getTrip().getId(), indices.getStopPathIndex(),
+				indices.getTrip().getNumberStopPaths(), value);
 	}
-	
-	@SuppressWarnings("unchecked")
-	synchronized public Double getErrorValue(Indices indices) {		
-		
-		KalmanErrorCacheKey key=new KalmanErrorCacheKey(indices);
-		
-		Element result = cache.get(key);
-		
-		if(result==null)
-			return null;
-		else
-			return (Double)result.getObjectValue();		
+	/**
+	 * @param tripId
+	 * @param stopPathIndex
+	 * @param numStopPaths
+	 *            Number of stop paths for the trip, for sizing the array for
+	 *            the trip
+	 * @param value
+	 */
+	public void putErrorValue(String tripId, int stopPathIndex, int numStopPaths, double value) {
+		setErrorValue(tripId, stopPathIndex, numStopPaths, value);
+		if (store != null)
+			store.append(tripId, stopPathIndex, (byte) 0, numStopPaths, value);
 	}
-	@SuppressWarnings("unchecked")
-	synchronized public Double getErrorValue(KalmanErrorCacheKey key) {		
-						
-		Element result = cache.get(key);
-		
-		if(result==null)
-			return null;
-		else
-			return (Double)result.getObjectValue();		
+	private void setErrorValue(String tripId, int stopPathIndex, int numStopPaths, double value) {
+		TripErrors tripErrors = errorsByTrip.get(tripId);
+		if (tripErrors == null) {
+			TripErrors newTripErrors = new TripErrors(numStopPaths);
+			tripErrors = errorsByTrip.putIfAbsent(tripId, newTripErrors);
+			if (tripErrors == null)
+				tripErrors = newTripErrors;
+		}
+		tripErrors.set(stopPathIndex, value);
 	}
-	@SuppressWarnings("unchecked")
-	synchronized public void putErrorValue(Indices indices,  Double value) {
-		
-		KalmanErrorCacheKey key=new KalmanErrorCacheKey(indices);
-		Element errorElement = new Element(key, value);
-		
-		cache.put(errorElement);
-	}				
 	public List<KalmanErrorCacheKey> getKeys()
 	{
-		@SuppressWarnings("unchecked")
-		List<KalmanErrorCacheKey> keys = cache.getKeys();
+		List<KalmanErrorCacheKey> keys = new ArrayList<KalmanErrorCacheKey>();
+		for (Map.Entry<String, TripErrors> entry : errorsByTrip.entrySet()) {
+			AtomicLongArray values = entry.getValue().values;
+			for (int i = 0; i < values.length(); ++i) {
+				if (values.get(i) != NO_VALUE)
+					keys.add(new KalmanErrorCacheKey(entry.getKey(), i));
+			}
+		}
 		return keys;
 	}
+
+	/**
+	 * The error values for the stop paths of a trip. The array is only
+	 * replaced, with a larger copy, in the unusual case of a stop path index
+	 * beyond its end such as after a configuration change.
+	 */
+	private static class TripErrors {
+		private volatile AtomicLongArray values;
+
+		private TripErrors(int numStopPaths) {
+			values = newValues(Math.max(numStopPaths, 1));
+		}
+
+		private static AtomicLongArray newValues(int length) {
+			AtomicLongArray values = new AtomicLongArray(length);
+			for (int i = 0; i < length; ++i)
+				values.set(i, NO_VALUE);
+			return values;
+		}
+
+		private double get(int stopPathIndex) {
+			AtomicLongArray current = values;
+			if (stopPathIndex < 0 || stopPathIndex >= current.length())
+				return Double.NaN;
+			return Double.longBitsToDouble(current.get(stopPathIndex));
+		}
+
+		private void set(int stopPathIndex, double value) {
+			if (stopPathIndex < 0)
+				return;
+			AtomicLongArray current = values;
+			if (stopPathIndex >= current.length())
+				current = grow(stopPathIndex + 1);
+			current.set(stopPathIndex, Double.doubleToRawLongBits(value));
+		}
+
+		private synchronized AtomicLongArray grow(int length) {
+			AtomicLongArray current = values;
+			if (length <= current.length())
+				return current;
+
+			logger.debug("Growing Kalman error array from {} to {} stop paths",
+					current.length(), length);
+			AtomicLongArray larger = newValues(length);
+			for (int i = 0; i < current.length(); ++i)
+				larger.set(i, current.get(i));
+			values = larger;
+			return larger;
+		}
+	}
 }
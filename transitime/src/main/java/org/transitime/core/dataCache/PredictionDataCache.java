@@ -492,45 +492,86 @@ public class PredictionDataCache {
 		// can deal with them all at once. Those are put into
 		// newPredsForVehicleByRouteStopDestMap.
 		Map<MapKey, List<IpcPrediction>> newPredsForVehicleByRouteStopDestMap =
-				new HashMap<MapKey, List<IpcPrediction>>();
-		
-		for (IpcPrediction newPrediction : newPredictionsForVehicle) {
-			MapKey key = new MapKey(newPrediction.getRouteShortName(),
-							newPrediction.getStopId(), 
-							newPrediction.getTrip().getHeadsign());
-			List<IpcPrediction> predsForRouteStopDestList = 
-					newPredsForVehicleByRouteStopDestMap.get(key);
-			if (predsForRouteStopDestList == null) {
-				predsForRouteStopDestList = new ArrayList<IpcPrediction>();
-				newPredsForVehicleByRouteStopDestMap
-						.put(key, predsForRouteStopDestList);
-			}
-			predsForRouteStopDestList.add(newPrediction);
-		}
+				groupByRouteStopDest(newPredictionsForVehicle);
+		Map<MapKey, List<IpcPrediction>> oldPredsForVehicleByRouteStopDestMap =
+				groupByRouteStopDest(oldPredictionsForVehicle);
 		
 		// Go through the new predictions grouped by route/stop/destination and
 		// process them.
-		for (List<IpcPrediction> newPredsForVehicleForRouteStopDest : 
-				newPredsForVehicleByRouteStopDestMap.values()) {
+		for (Map.Entry<MapKey, List<IpcPrediction>> entry : 
+				newPredsForVehicleByRouteStopDestMap.entrySet()) {
+			// If the predictions for the route/stop/dest are the very same
+			// objects as before, which happens when PredictionChangeFilter
+			// determined that they didn't change enough, then the cache
+			// already has them and doesn't need to be updated.
+			List<IpcPrediction> newPredsForVehicleForRouteStopDest =
+					entry.getValue();
+			if (isSamePredictionObjects(
+					oldPredsForVehicleByRouteStopDestMap.get(entry.getKey()),
+					newPredsForVehicleForRouteStopDest))
+				continue;
+			
 			updatePredictionsForVehicle(newPredsForVehicleForRouteStopDest);
 		}
 		
 		// Remove old predictions that are not in newPredictionsForVehicle 
-		if (oldPredictionsForVehicle != null) {
-			for (IpcPrediction oldPrediction : oldPredictionsForVehicle) {
-				// If there is no new prediction for the old prediction 
-				// route/stop...
-				MapKey key = new MapKey(oldPrediction.getRouteShortName(),
-						oldPrediction.getStopId(), 
-						oldPrediction.getTrip().getHeadsign());
-				if (newPredsForVehicleByRouteStopDestMap.get(key) == null) {
-					// Remove the old prediction
+		for (Map.Entry<MapKey, List<IpcPrediction>> entry : 
+				oldPredsForVehicleByRouteStopDestMap.entrySet()) {
+			// If there is no new prediction for the old prediction 
+			// route/stop...
+			if (newPredsForVehicleByRouteStopDestMap.get(entry.getKey()) == null) {
+				// Remove the old predictions
+				for (IpcPrediction oldPrediction : entry.getValue())
 					removePrediction(oldPrediction);
-				}
 			}
 		}
 	}
 	
+	/**
+	 * Groups the predictions for a vehicle by route/stop/destination.
+	 * 
+	 * @param predictionsForVehicle
+	 *            Can be null
+	 * @return map of the predictions, keyed by route/stop/destination. Not
+	 *         null.
+	 */
+	private static Map<MapKey, List<IpcPrediction>> groupByRouteStopDest(
+			List<IpcPrediction> predictionsForVehicle) {
+		Map<MapKey, List<IpcPrediction>> predsByRouteStopDestMap =
+				new HashMap<MapKey, List<IpcPrediction>>();
+		if (predictionsForVehicle == null)
+			return predsByRouteStopDestMap;
+		
+		for (IpcPrediction prediction : predictionsForVehicle) {
+			MapKey key = new MapKey(prediction.getRouteShortName(),
+							prediction.getStopId(), 
+							prediction.getTrip().getHeadsign());
+			List<IpcPrediction> predsForRouteStopDestList = 
+					predsByRouteStopDestMap.get(key);
+			if (predsForRouteStopDestList == null) {
+				predsForRouteStopDestList = new ArrayList<IpcPrediction>(1);
+				predsByRouteStopDestMap.put(key, predsForRouteStopDestList);
+			}
+			predsForRouteStopDestList.add(prediction);
+		}
+		return predsByRouteStopDestMap;
+	}
+	
+	/**
+	 * @return true if both lists contain the very same prediction objects in
+	 *         the same order
+	 */
+	private static boolean isSamePredictionObjects(
+			List<IpcPrediction> oldPreds, List<IpcPrediction> newPreds) {
+		if (oldPreds == null || oldPreds.size() != newPreds.size())
+			return false;
+		for (int i = 0; i < oldPreds.size(); ++i) {
+			if (oldPreds.get(i) != newPreds.get(i))
+				return false;
+		}
+		return true;
+	}
+	
 	/**
 	 * To be called when vehicle is being made unpredictable. Removes the 
 	 * predictions.
@@ -0,0 +1,317 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.dataCache;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.db.structs.ArrivalDeparture;
+import org.transitime.utils.Time;
+
+/**
+ * An index of the arrival and departure times for each stop path of each
+ * trip for the last N days, so that the travel and dwell times for previous
+ * days can be looked up without scanning the trip history lists of the
+ * TripDataHistoryCache. The index is updated incrementally as each
+ * ArrivalDeparture is put into the TripDataHistoryCache.
+ * <p>
+ * For each trip the times are stored in primitive arrays that are used as a
+ * ring buffer of days. The slot for a day is the day number modulo N, so
+ * looking up the times for a particular day is O(1) and the slot for an old
+ * day is simply reused when a new day begins. Looking up times doesn't
+ * allocate any objects.
+ * <p>
+ * The arrays for a day are only allocated once the trip has data for that
+ * day, so trips that don't run every day take less memory. The most memory
+ * used is 8 bytes per stop path per day for each trip, so 21 days for 10,000
+ * trips of 50 stop paths each is about 84MB.
+ * <p>
+ * The day of an arrival or departure is the service day of its trip, so
+ * that the times for a trip that runs past midnight are all kept under the
+ * same day. If there are several arrivals or departures for the same stop
+ * path of a trip on a day then the first one is used.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class StopPathHistoryIndex {
+
+	private static IntegerConfigValue numDays = new IntegerConfigValue(
+			"transitime.tripdatacache.historyIndexDays",
+			21,
+			"Number of days of arrival and departure times kept for each "
+			+ "stop path of each trip by the StopPathHistoryIndex. Should "
+			+ "be at least transitime.prediction.data.kalman.maxdaystoseach. "
+			+ "Uses up to 8 bytes per stop path per day for each trip.");
+
+	// Keyed on tripId
+	private final ConcurrentHashMap<String, TripHistory> tripHistories =
+			new ConcurrentHashMap<String, TripHistory>();
+
+	private final int daysInIndex;
+
+	private static final TimeZone timeZone = TimeZone.getDefault();
+
+	private static final StopPathHistoryIndex singleton =
+			new StopPathHistoryIndex();
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor private since singleton class
+	 */
+	private StopPathHistoryIndex() {
+		this(numDays.getValue());
+	}
+
+	/**
+	 * Creates an index that keeps the specified number of days. Package
+	 * private so it can be used for testing.
+	 *
+	 * @param daysInIndex
+	 */
+	StopPathHistoryIndex(int daysInIndex) {
+		this.daysInIndex = Math.max(1, daysInIndex);
+	}
+
+	/**
+	 * @return the singleton StopPathHistoryIndex
+	 */
+	public static StopPathHistoryIndex getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * Returns the day number, the number of days since the epoch, in the
+	 * default time zone. Doesn't create any objects.
+	 *
+	 * @param epochTime
+	 * @return the day number
+	 */
+	public static int dayNumber(long epochTime) {
+		// Times are always after 1970 so don't need to worry about
+		// division rounding negative values towards zero
+		long localTime = epochTime + timeZone.getOffset(epochTime);
+		return (int) (localTime / Time.MS_PER_DAY);
+	}
+
+	/**
+	 * Returns the day number of the service day of a trip. This is the day
+	 * whose start is nearest to when the trip was scheduled to start, given
+	 * the time of one of its arrivals or departures. This way events after
+	 * midnight for a trip that started the evening before, and events just
+	 * before the scheduled start time of a trip that starts right after
+	 * midnight, are keyed on the right day. Only works for trips that take
+	 * less than 12 hours.
+	 *
+	 * @param epochTime
+	 *            Time of an arrival or departure of the trip
+	 * @param tripStartTimeSecs
+	 *            Scheduled start time of the trip in seconds into the
+	 *            service day. Can be greater than a day.
+	 * @return the day number of the service day
+	 */
+	public static int serviceDayNumber(long epochTime,
+			int tripStartTimeSecs) {
+		return dayNumber(epochTime
+				- (long) tripStartTimeSecs * Time.MS_PER_SEC
+				+ Time.MS_PER_DAY / 2);
+	}
+
+	/**
+	 * Adds the arrival or departure to the index.
+	 *
+	 * @param arrivalDeparture
+	 * @param numStopPaths
+	 *            Number of stop paths for the trip of the arrivalDeparture
+	 * @param tripStartTimeSecs
+	 *            Scheduled start time of the trip in seconds into the
+	 *            service day, for determining the service day. If null then
+	 *            the day of the event time is used.
+	 */
+	public void putArrivalDeparture(ArrivalDeparture arrivalDeparture,
+			int numStopPaths, Integer tripStartTimeSecs) {
+		String tripId = arrivalDeparture.getTripId();
+		TripHistory tripHistory = tripHistories.get(tripId);
+		if (tripHistory == null || tripHistory.numStopPaths != numStopPaths) {
+			// New trip, or number of stop paths changed because of new
+			// configuration, so start a new history for the trip
+			TripHistory newHistory =
+					new TripHistory(daysInIndex, numStopPaths);
+			if (tripHistory == null) {
+				tripHistory = tripHistories.putIfAbsent(tripId, newHistory);
+				if (tripHistory == null)
+					tripHistory = newHistory;
+			} else {
+				tripHistories.put(tripId, newHistory);
+				tripHistory = newHistory;
+			}
+		}
+
+		// Time into the service day, which is more than a day for events
+		// after midnight of a trip that started the day before
+		long time = arrivalDeparture.getTime();
+		int day = tripStartTimeSecs != null ?
+				serviceDayNumber(time, tripStartTimeSecs) : dayNumber(time);
+		int msecIntoDay = (int) (time + timeZone.getOffset(time)
+				- day * Time.MS_PER_DAY);
+		tripHistory.put(day, msecIntoDay,
+				arrivalDeparture.getStopPathIndex(),
+				arrivalDeparture.isArrival());
+	}
+
+	/**
+	 * Gets the travel times for the stop path for the days before startDay,
+	 * most recent first. The travel time for a stop path is the time between
+	 * the departure from the previous stop path and the arrival at the stop
+	 * path.
+	 *
+	 * @param tripId
+	 * @param stopPathIndex
+	 * @param startDay
+	 *            Day number, from dayNumber(), of the day to look back from.
+	 *            Times for this day are not included.
+	 * @param numDaysLookBack
+	 *            How many days before startDay to look at
+	 * @param times
+	 *            Filled in with the travel times in msec. The length of the
+	 *            array is the maximum number of times returned.
+	 * @return the number of times filled in
+	 */
+	public int getTravelTimes(String tripId, int stopPathIndex, int startDay,
+			int numDaysLookBack, int[] times) {
+		TripHistory tripHistory = tripHistories.get(tripId);
+		if (tripHistory == null)
+			return 0;
+		return tripHistory.getDurations(stopPathIndex, true, startDay,
+				numDaysLookBack, times);
+	}
+
+	/**
+	 * Gets the dwell times for the stop path for the days before startDay,
+	 * most recent first. The dwell time is the time between the arrival at
+	 * and the departure from the stop at the end of the stop path.
+	 *
+	 * @param tripId
+	 * @param stopPathIndex
+	 * @param startDay
+	 *            Day number, from dayNumber(), of the day to look back from.
+	 *            Times for this day are not included.
+	 * @param numDaysLookBack
+	 *            How many days before startDay to look at
+	 * @param times
+	 *            Filled in with the dwell times in msec. The length of the
+	 *            array is the maximum number of times returned.
+	 * @return the number of times filled in
+	 */
+	public int getDwellTimes(String tripId, int stopPathIndex, int startDay,
+			int numDaysLookBack, int[] times) {
+		TripHistory tripHistory = tripHistories.get(tripId);
+		if (tripHistory == null)
+			return 0;
+		return tripHistory.getDurations(stopPathIndex, false, startDay,
+				numDaysLookBack, times);
+	}
+
+	/**
+	 * The arrival and departure times for a trip. The times are stored as
+	 * msec into the day + 1 so that 0 means there is no time.
+	 */
+	private static class TripHistory {
+		private final int numStopPaths;
+
+		// The day number stored in each slot of the ring buffer
+		private final int[] slotDays;
+
+		// Indexed by slot and then stopPathIndex. The arrays for a slot
+		// are only allocated once there is data for it.
+		private final int[][] arrivals;
+		private final int[][] departures;
+
+		private TripHistory(int numDays, int numStopPaths) {
+			this.numStopPaths = numStopPaths;
+			this.slotDays = new int[numDays];
+			Arrays.fill(slotDays, Integer.MIN_VALUE);
+			this.arrivals = new int[numDays][];
+			this.departures = new int[numDays][];
+		}
+
+		private int slot(int day) {
+			// Day can be negative when looking back from a start day
+			// near the epoch, such as in tests
+			int slot = day % slotDays.length;
+			return slot >= 0 ? slot : slot + slotDays.length;
+		}
+
+		private synchronized void put(int day, int msecIntoDay,
+				int stopPathIndex, boolean isArrival) {
+			if (stopPathIndex < 0 || stopPathIndex >= numStopPaths)
+				return;
+
+			int slot = slot(day);
+			if (slotDays[slot] != day) {
+				// Don't let old data, such as when filling the cache from
+				// the db in arbitrary order, replace newer data
+				if (slotDays[slot] > day)
+					return;
+
+				// New day for the slot so clear out the old day, or
+				// allocate the arrays if the slot hasn't been used yet
+				slotDays[slot] = day;
+				if (arrivals[slot] == null) {
+					arrivals[slot] = new int[numStopPaths];
+					departures[slot] = new int[numStopPaths];
+				} else {
+					Arrays.fill(arrivals[slot], 0);
+					Arrays.fill(departures[slot], 0);
+				}
+			}
+
+			int[] times = isArrival ? arrivals[slot] : departures[slot];
+			if (times[stopPathIndex] == 0)
+				times[stopPathIndex] = msecIntoDay + 1;
+		}
+
+		private synchronized int getDurations(int stopPathIndex,
+				boolean travelTimes, int startDay, int numDaysLookBack,
+				int[] durations) {
+			if (stopPathIndex < 0 || stopPathIndex >= numStopPaths
+					|| (travelTimes && stopPathIndex == 0))
+				return 0;
+
+			int daysToSearch = Math.min(numDaysLookBack, slotDays.length);
+			int count = 0;
+			for (int i = 1; i <= daysToSearch && count < durations.length;
+					++i) {
+				int day = startDay - i;
+				int slot = slot(day);
+				if (slotDays[slot] != day)
+					continue;
+
+				int end = travelTimes ? arrivals[slot][stopPathIndex]
+						: departures[slot][stopPathIndex];
+				int start = travelTimes ? departures[slot][stopPathIndex - 1]
+						: arrivals[slot][stopPathIndex];
+				if (start != 0 && end != 0)
+					durations[count++] = Math.abs(end - start);
+			}
+			return count;
+		}
+	}
+}
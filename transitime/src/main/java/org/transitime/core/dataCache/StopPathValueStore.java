@@ -0,0 +1,475 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.dataCache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.BooleanConfigValue;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.config.StringConfigValue;
+import org.transitime.configData.AgencyConfig;
+import org.transitime.monitoring.metrics.Counter;
+import org.transitime.monitoring.metrics.MetricsRegistry;
+import org.transitime.utils.threading.NamedThreadFactory;
+
+/**
+ * An append-only file store of values for stop paths of trips, for making
+ * in-memory caches such as the KalmanErrorCache and HistoricalAverageCache
+ * survive a restart. Each update to the cache is queued and then written
+ * behind by a separate thread so that the prediction threads never wait on
+ * disk I/O. At startup the file is replayed to fill the cache back in.
+ * <p>
+ * Queued updates are coalesced per stop path and kind so that only the
+ * latest value of each is written. This way an update can only be dropped,
+ * because too many are waiting, when there isn't an older update for the
+ * same value waiting that could then be written after a newer value.
+ * <p>
+ * Since each update is appended the file grows. It is compacted by having
+ * the cache write a snapshot of its current values to a new file that then
+ * replaces the log. This is done at startup and whenever the number of
+ * records in the log gets to be transitime.cache.persist.compactionRatio
+ * times the number of values in the last snapshot.
+ * <p>
+ * Each record has a length and a CRC so that a record that was only
+ * partially written, because the process was killed, is detected when the
+ * file is replayed. Replaying stops at such a record and the following
+ * compaction removes it.
+ * <p>
+ * Persisting is off by default. When enabled the directory must be
+ * configured, and should be one that isn't cleared on reboot.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class StopPathValueStore {
+
+	private static BooleanConfigValue persist =
+			new BooleanConfigValue("transitime.cache.persist",
+					false,
+					"Whether the Kalman error and historical average caches "
+					+ "are written to files so that they don't need to be "
+					+ "rebuilt when the core is restarted. Requires "
+					+ "transitime.cache.persist.directory to be set.");
+
+	private static StringConfigValue directory =
+			new StringConfigValue("transitime.cache.persist.directory",
+					null,
+					"Directory where the persistent cache files are "
+					+ "written. Should be a data directory that isn't "
+					+ "cleared on reboot, so not one under /tmp.");
+
+	private static IntegerConfigValue queueSize =
+			new IntegerConfigValue("transitime.cache.persist.queueSize",
+					100000,
+					"Number of stop path values with updates that can be "
+					+ "waiting to be written before updates are dropped.");
+
+	private static IntegerConfigValue flushIntervalMsec =
+			new IntegerConfigValue("transitime.cache.persist.flushIntervalMsec",
+					1000,
+					"How often the persistent cache writer writes the "
+					+ "waiting updates and flushes the file.");
+
+	private static IntegerConfigValue compactionRatio =
+			new IntegerConfigValue("transitime.cache.persist.compactionRatio",
+					4,
+					"A persistent cache file is compacted once it contains "
+					+ "this many times as many records as there are values "
+					+ "in the cache.");
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(StopPathValueStore.class);
+
+	/**
+	 * Implemented by the cache that is being persisted.
+	 */
+	public interface Handler {
+		/**
+		 * Called for each record of the file when the store is opened. Should
+		 * put the value into the cache without appending it to the store.
+		 */
+		void load(String tripId, int stopPathIndex, byte kind, int count,
+				double value);
+
+		/**
+		 * Called when compacting. Should call writeSnapshotValue() for each
+		 * value currently in the cache.
+		 */
+		void writeSnapshot(StopPathValueStore store) throws IOException;
+	}
+
+	private final String name;
+	private final Handler handler;
+	private final File file;
+	private final Counter droppedMetric;
+
+	// The latest update for each value that hasn't been written yet
+	private final ConcurrentMap<UpdateKey, Update> pending =
+			new ConcurrentHashMap<UpdateKey, Update>();
+
+	// Only accessed while synchronized
+	private DataOutputStream out;
+	private DataOutputStream snapshotOut;
+	private long recordsInLog = 0;
+	private long valuesInSnapshot = 0;
+	private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(64);
+	private final DataOutputStream recordOut = new DataOutputStream(recordBytes);
+	private final CRC32 crc = new CRC32();
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Opens the store for a cache. The existing values are loaded into the
+	 * cache via the handler before this method returns, and then the writer
+	 * thread is started.
+	 *
+	 * @param name
+	 *            Name of the cache. Used for the file name.
+	 * @param handler
+	 * @return the store, or null if persisting caches is disabled or the
+	 *         store could not be opened
+	 */
+	public static StopPathValueStore open(String name, Handler handler) {
+		if (!persist.getValue())
+			return null;
+
+		String dir = directory.getValue();
+		if (dir == null || dir.isEmpty()) {
+			logger.error("{} is true but {} is not set so cache {} will not "
+					+ "be persisted.", persist.getID(), directory.getID(), name);
+			return null;
+		}
+
+		try {
+			new File(dir).mkdirs();
+			File file = new File(dir, name + "_" + AgencyConfig.getAgencyId()
+					+ ".log");
+			StopPathValueStore store =
+					new StopPathValueStore(name, file, handler);
+			store.load();
+			store.compact();
+			store.start();
+			return store;
+		} catch (IOException e) {
+			logger.error("Could not open persistent store for cache {}. "
+					+ "Cache will not be persisted. {}",
+					name, e.getMessage(), e);
+			return null;
+		}
+	}
+
+	/**
+	 * Creates the store without loading the file or starting the writer
+	 * thread. Package-private so it can be used for testing.
+	 */
+	StopPathValueStore(String name, File file, Handler handler) {
+		this.name = name;
+		this.handler = handler;
+		this.file = file;
+		this.droppedMetric = MetricsRegistry.getInstance().counter(
+				name + "PersistDropped");
+	}
+
+	/**
+	 * Queues the value to be written to the store. Doesn't block. Replaces an
+	 * update for the same value that hasn't been written yet. If too many
+	 * values are waiting the update is dropped, which just means that an
+	 * older value would be used if the core were restarted before the value
+	 * is updated again.
+	 *
+	 * @param tripId
+	 * @param stopPathIndex
+	 * @param kind
+	 *            For distinguishing different types of values for the same
+	 *            stop path
+	 * @param count
+	 * @param value
+	 */
+	public void append(String tripId, int stopPathIndex, byte kind, int count,
+			double value) {
+		UpdateKey key = new UpdateKey(tripId, stopPathIndex, kind);
+		if (pending.size() >= queueSize.getValue()
+				&& !pending.containsKey(key)) {
+			droppedMetric.increment();
+			return;
+		}
+		pending.put(key, new Update(count, value));
+	}
+
+	/**
+	 * Writes a value to the snapshot. To be called only by
+	 * Handler.writeSnapshot().
+	 */
+	public synchronized void writeSnapshotValue(String tripId,
+			int stopPathIndex, byte kind, int count, double value)
+			throws IOException {
+		writeRecord(snapshotOut, tripId, stopPathIndex, kind, count, value);
+		++valuesInSnapshot;
+	}
+
+	/**
+	 * Replays the file, passing each record to the handler.
+	 */
+	void load() throws IOException {
+		if (!file.exists())
+			return;
+
+		long startTime = System.currentTimeMillis();
+		int numRecords = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			byte[] bytes = new byte[64];
+			while (true) {
+				int length = in.readInt();
+				if (length <= 0 || length > 64 * 1024) {
+					logger.warn("Invalid record length {} in {}. Ignoring "
+							+ "rest of file.", length, file);
+					break;
+				}
+				if (length > bytes.length)
+					bytes = new byte[length];
+				in.readFully(bytes, 0, length);
+				long recordCrc = in.readLong();
+				crc.reset();
+				crc.update(bytes, 0, length);
+				if (crc.getValue() != recordCrc) {
+					logger.warn("Bad CRC for record in {}. Ignoring rest of "
+							+ "file.", file);
+					break;
+				}
+
+				DataInputStream record = new DataInputStream(
+						new ByteArrayInputStream(bytes, 0, length));
+				handler.load(record.readUTF(), record.readInt(),
+						record.readByte(), record.readInt(),
+						record.readDouble());
+				++numRecords;
+			}
+		} catch (EOFException e) {
+			// Reached end of file, possibly in the middle of a record that
+			// was only partially written
+		} finally {
+			in.close();
+		}
+		logger.info("Loaded {} records for cache {} from {} in {} msec.",
+				numRecords, name, file,
+				System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * Replaces the log with a snapshot of the current values of the cache.
+	 */
+	synchronized void compact() throws IOException {
+		closeLog();
+
+		File snapshotFile = new File(file.getPath() + ".tmp");
+		FileOutputStream snapshotStream = new FileOutputStream(snapshotFile);
+		snapshotOut = new DataOutputStream(new BufferedOutputStream(
+				snapshotStream));
+		valuesInSnapshot = 0;
+		try {
+			handler.writeSnapshot(this);
+			snapshotOut.flush();
+			snapshotStream.getFD().sync();
+		} finally {
+			snapshotOut.close();
+			snapshotOut = null;
+		}
+		Files.move(snapshotFile.toPath(), file.toPath(),
+				StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+
+		recordsInLog = valuesInSnapshot;
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file, true)));
+		logger.info("Compacted {} to {} values.", file, valuesInSnapshot);
+	}
+
+	/**
+	 * Starts the writer thread and makes sure queued updates are written
+	 * when the process is shut down.
+	 */
+	private void start() {
+		new NamedThreadFactory(name + "Persist", true).newThread(new Writer())
+				.start();
+
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				try {
+					writePending();
+					closeLog();
+				} catch (IOException e) {
+					logger.error("Exception writing {} on shutdown. {}", file,
+							e.getMessage(), e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Writes all the waiting updates to the log and flushes it. An update
+	 * that replaces one being written here is left for the next call.
+	 *
+	 * @return number of updates written
+	 */
+	synchronized int writePending() throws IOException {
+		if (out == null)
+			return 0;
+
+		int numWritten = 0;
+		for (UpdateKey key : pending.keySet()) {
+			Update update = pending.remove(key);
+			if (update != null) {
+				writeRecord(out, key.tripId, key.stopPathIndex, key.kind,
+						update.count, update.value);
+				++numWritten;
+			}
+		}
+		recordsInLog += numWritten;
+		out.flush();
+		return numWritten;
+	}
+
+	/**
+	 * Writes a record consisting of the length, the data, and the CRC of the
+	 * data.
+	 */
+	private void writeRecord(DataOutputStream stream, String tripId,
+			int stopPathIndex, byte kind, int count, double value)
+			throws IOException {
+		recordBytes.reset();
+		recordOut.writeUTF(tripId);
+		recordOut.writeInt(stopPathIndex);
+		recordOut.writeByte(kind);
+		recordOut.writeInt(count);
+		recordOut.writeDouble(value);
+		recordOut.flush();
+
+		crc.reset();
+		byte[] bytes = recordBytes.toByteArray();
+		crc.update(bytes, 0, bytes.length);
+		stream.writeInt(bytes.length);
+		stream.write(bytes);
+		stream.writeLong(crc.getValue());
+	}
+
+	synchronized void closeLog() throws IOException {
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+	}
+
+	/**
+	 * Periodically writes the waiting updates to the log and compacts the
+	 * log when it has gotten too large.
+	 */
+	private class Writer implements Runnable {
+		@Override
+		public void run() {
+			logger.info("Persisting cache {} to {}", name, file);
+			while (true) {
+				try {
+					Thread.sleep(flushIntervalMsec.getValue());
+					synchronized (StopPathValueStore.this) {
+						writePending();
+						if (recordsInLog > Math.max(valuesInSnapshot, 1000)
+								* compactionRatio.getValue())
+							compact();
+					}
+				} catch (Exception e) {
+					logger.error("Exception writing persistent cache {}. {}",
+							file, e.getMessage(), e);
+					// So that don't loop quickly if file can't be written
+					try {
+						Thread.sleep(10 * 1000);
+						synchronized (StopPathValueStore.this) {
+							if (out == null)
+								compact();
+						}
+					} catch (Exception e2) {
+						logger.error("Could not reopen {}. {}", file,
+								e2.getMessage());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Identifies a value of the cache so that updates to it can be coalesced
+	 */
+	private static class UpdateKey {
+		private final String tripId;
+		private final int stopPathIndex;
+		private final byte kind;
+
+		private UpdateKey(String tripId, int stopPathIndex, byte kind) {
+			this.tripId = tripId;
+			this.stopPathIndex = stopPathIndex;
+			this.kind = kind;
+		}
+
+		@Override
+		public int hashCode() {
+			return (tripId.hashCode() * 31 + stopPathIndex) * 31 + kind;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof UpdateKey))
+				return false;
+			UpdateKey other = (UpdateKey) obj;
+			return stopPathIndex == other.stopPathIndex
+					&& kind == other.kind && tripId.equals(other.tripId);
+		}
+	}
+
+	/**
+	 * A queued update
+	 */
+	private static class Update {
+		private final int count;
+		private final double value;
+
+		private Update(int count, double value) {
+			this.count = count;
+			this.value = value;
+		}
+	}
+}
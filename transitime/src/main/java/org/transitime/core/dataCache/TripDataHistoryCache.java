@@ -151,16 +151,20 @@ public class TripDataHistoryCache{
 			days_back=3;		
 		TripKey tripKey=null;
 		
+		DbConfig dbConfig = Core.getInstance().getDbConfig();
+		
+		Trip trip=dbConfig.getTrip(arrivalDeparture.getTripId());
+		
+		/* keep the index used for looking up previous days times up to date */
+		StopPathHistoryIndex.getInstance().putArrivalDeparture(arrivalDeparture,
+				trip.getNumberStopPaths(), trip.getStartTime());
+		
 		for(int i=0;i < days_back;i++)
 		{
 			Date nearestDay = DateUtils.truncate(new Date(arrivalDeparture.getTime()), Calendar.DAY_OF_MONTH);
 									
 			nearestDay=DateUtils.addDays(nearestDay, i*-1);
 			
-			DbConfig dbConfig = Core.getInstance().getDbConfig();
-			
-			Trip trip=dbConfig.getTrip(arrivalDeparture.getTripId());
-			
 			tripKey = new TripKey(arrivalDeparture.getTripId(),
 					nearestDay,
 					trip.getStartTime());
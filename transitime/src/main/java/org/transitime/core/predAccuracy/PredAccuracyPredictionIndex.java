@@ -0,0 +1,236 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.core.predAccuracy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.transitime.utils.MapKey;
+
+/**
+ * Holds the predictions that are being tracked for prediction accuracy
+ * analysis. The predictions are indexed two ways:
+ * <ul>
+ * <li>by vehicle/direction/stop so that when an arrival/departure is generated
+ * only the few predictions for that vehicle and stop need to be looked at</li>
+ * <li>by time bucket of the predicted time so that stale predictions can be
+ * removed by only looking at the expired buckets instead of scanning all of
+ * the predictions in memory</li>
+ * </ul>
+ * A prediction is in the tracked set until it is removed via remove() or
+ * removeStale(). Since a prediction can only be removed once it can only be
+ * matched to a single arrival/departure or be declared stale, but not both.
+ * <p>
+ * Thread safe. Predictions are added by the prediction accuracy module thread
+ * while arrivals/departures are handled by the AVL processing threads.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class PredAccuracyPredictionIndex {
+
+	// Predictions keyed on vehicle/direction/stop. The lists are small and
+	// are synchronized on when being accessed.
+	private final ConcurrentHashMap<PredictionKey, List<PredAccuracyPrediction>> predsByKey =
+			new ConcurrentHashMap<PredictionKey, List<PredAccuracyPrediction>>();
+
+	// Predictions keyed on bucket of the predicted time. Only used for
+	// determining which predictions have become stale.
+	private final ConcurrentSkipListMap<Long, Queue<PredAccuracyPrediction>> predsByTimeBucket =
+			new ConcurrentSkipListMap<Long, Queue<PredAccuracyPrediction>>();
+
+	private final long bucketMsec;
+
+	/********************** Internal Classes **************************/
+
+	/**
+	 * Key for map of predictions
+	 */
+	private static class PredictionKey extends MapKey {
+		private PredictionKey(String vehicleId, String directionId,
+				String stopId) {
+			super(vehicleId, directionId, stopId);
+		}
+
+		@Override
+		public String toString() {
+			return "PredictionKey [" + "vehicleId=" + o1 + ", directionId="
+					+ o2 + ", stopId=" + o3 + "]";
+		}
+	}
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param bucketMsec
+	 *            Size of the time buckets used for expiring stale
+	 *            predictions. The resolution of removeStale() is one bucket.
+	 */
+	public PredAccuracyPredictionIndex(long bucketMsec) {
+		this.bucketMsec = bucketMsec;
+	}
+
+	/**
+	 * Adds the prediction to the index.
+	 *
+	 * @param pred
+	 */
+	public void add(PredAccuracyPrediction pred) {
+		PredictionKey key = new PredictionKey(pred.getVehicleId(),
+				pred.getDirectionId(), pred.getStopId());
+
+		// Add to the vehicle/direction/stop list. If the list was removed
+		// from the map by another thread, because it became empty, between
+		// getting it and locking it then try again so that the prediction
+		// doesn't get added to an orphaned list.
+		while (true) {
+			List<PredAccuracyPrediction> predsList = predsByKey.get(key);
+			if (predsList == null) {
+				predsByKey.putIfAbsent(key,
+						new ArrayList<PredAccuracyPrediction>(1));
+				predsList = predsByKey.get(key);
+			}
+			synchronized (predsList) {
+				if (predsByKey.get(key) == predsList) {
+					predsList.add(pred);
+					break;
+				}
+			}
+		}
+
+		// Add to the time bucket. Same concern as above, need to make sure
+		// that the bucket wasn't expired by another thread.
+		Long bucket = pred.getPredictedTime().getTime() / bucketMsec;
+		while (true) {
+			Queue<PredAccuracyPrediction> bucketQueue =
+					predsByTimeBucket.get(bucket);
+			if (bucketQueue == null) {
+				predsByTimeBucket.putIfAbsent(bucket,
+						new ConcurrentLinkedQueue<PredAccuracyPrediction>());
+				bucketQueue = predsByTimeBucket.get(bucket);
+				if (bucketQueue == null)
+					continue;
+			}
+			bucketQueue.add(pred);
+			if (predsByTimeBucket.get(bucket) == bucketQueue)
+				break;
+		}
+	}
+
+	/**
+	 * Returns a copy of the predictions currently tracked for the
+	 * vehicle/direction/stop. Since it is a copy a prediction could be
+	 * removed by another thread. Therefore when a prediction is to be
+	 * consumed remove() must be called and the prediction should only be
+	 * used if remove() returns true.
+	 *
+	 * @param vehicleId
+	 * @param directionId
+	 * @param stopId
+	 * @return the predictions, or an empty list if there are none
+	 */
+	public List<PredAccuracyPrediction> getPredictions(String vehicleId,
+			String directionId, String stopId) {
+		List<PredAccuracyPrediction> predsList = predsByKey
+				.get(new PredictionKey(vehicleId, directionId, stopId));
+		if (predsList == null)
+			return Collections.emptyList();
+		synchronized (predsList) {
+			return new ArrayList<PredAccuracyPrediction>(predsList);
+		}
+	}
+
+	/**
+	 * Removes the prediction from the vehicle/direction/stop index. The
+	 * prediction is left in its time bucket but will be ignored when the
+	 * bucket expires.
+	 *
+	 * @param pred
+	 * @return true if the prediction was being tracked and this call removed
+	 *         it, false if it was already removed
+	 */
+	public boolean remove(PredAccuracyPrediction pred) {
+		PredictionKey key = new PredictionKey(pred.getVehicleId(),
+				pred.getDirectionId(), pred.getStopId());
+		List<PredAccuracyPrediction> predsList = predsByKey.get(key);
+		if (predsList == null)
+			return false;
+		synchronized (predsList) {
+			// Remove by identity since predictions don't override equals()
+			for (int i = 0; i < predsList.size(); ++i) {
+				if (predsList.get(i) == pred) {
+					predsList.remove(i);
+					if (predsList.isEmpty())
+						predsByKey.remove(key, predsList);
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Removes the predictions that have a predicted time before the cutoff
+	 * time. Only the expired time buckets are looked at so this is cheap
+	 * even when many predictions are being tracked.
+	 *
+	 * @param cutoffTime
+	 *            Epoch time. Predictions in buckets that end before this time
+	 *            are removed.
+	 * @return the predictions that were still being tracked, meaning that
+	 *         they were never matched to an arrival/departure
+	 */
+	public List<PredAccuracyPrediction> removeStale(long cutoffTime) {
+		List<PredAccuracyPrediction> stalePreds =
+				new ArrayList<PredAccuracyPrediction>();
+
+		ConcurrentNavigableMap<Long, Queue<PredAccuracyPrediction>> expiredBuckets =
+				predsByTimeBucket.headMap(cutoffTime / bucketMsec);
+		Map.Entry<Long, Queue<PredAccuracyPrediction>> entry;
+		while ((entry = expiredBuckets.pollFirstEntry()) != null) {
+			for (PredAccuracyPrediction pred : entry.getValue()) {
+				// Only stale if it hadn't already been matched
+				if (remove(pred))
+					stalePreds.add(pred);
+			}
+		}
+
+		return stalePreds;
+	}
+
+	/**
+	 * @return number of vehicle/direction/stop entries currently tracked
+	 */
+	public int numKeys() {
+		return predsByKey.size();
+	}
+
+	/**
+	 * @return number of time buckets currently tracked
+	 */
+	public int numTimeBuckets() {
+		return predsByTimeBucket.size();
+	}
+}
@@ -0,0 +1,286 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.core.predAccuracy;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.transitime.applications.Core;
+import org.transitime.db.structs.PredictionAccuracyAggregate;
+import org.transitime.utils.BucketedHistogram;
+import org.transitime.utils.Time;
+
+/**
+ * Accumulates prediction accuracy errors in memory, per aggregation period,
+ * route, direction, stop, prediction length bucket, source and algorithm.
+ * Each combination has a streaming histogram so memory use is fixed per
+ * combination no matter how many predictions are processed. When a period
+ * has completed the accumulated data is converted to
+ * PredictionAccuracyAggregate objects that can be stored in the db.
+ * <p>
+ * Thread safe. Matches are recorded by the AVL processing threads while the
+ * completed periods are removed by the prediction accuracy module thread.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class PredAccuracyStatistics {
+
+	private final int periodMinutes;
+	private final int predLengthBucketSecs;
+
+	private final ConcurrentHashMap<StatisticsKey, Accumulator> accumulators =
+			new ConcurrentHashMap<StatisticsKey, Accumulator>();
+
+	/********************** Internal Classes **************************/
+
+	/**
+	 * The data accumulated for a key
+	 */
+	private static class Accumulator {
+		private final BucketedHistogram histogram =
+				new BucketedHistogram(
+					PredictionAccuracyAggregate.ERROR_BOUNDARIES_SECS);
+		private final AtomicInteger numMissed = new AtomicInteger();
+	}
+
+	/**
+	 * Key for the accumulators. Too many members to use a MapKey.
+	 */
+	private static class StatisticsKey {
+		private final long periodStart;
+		private final String routeId;
+		private final String directionId;
+		private final String stopId;
+		private final int predLengthBucketSecs;
+		private final String source;
+		private final String algorithm;
+		private final Boolean affectedByWaitStop;
+		private final int cachedHashCode;
+
+		private StatisticsKey(long periodStart, PredAccuracyPrediction pred,
+				int predLengthBucketSecs) {
+			this.periodStart = periodStart;
+			this.routeId = pred.getRouteId();
+			this.directionId = pred.getDirectionId();
+			this.stopId = pred.getStopId();
+			this.predLengthBucketSecs = predLengthBucketSecs;
+			this.source = pred.getSource();
+			this.algorithm = pred.getAlgorithm();
+			this.affectedByWaitStop = pred.isAffectedByWaitStop();
+			this.cachedHashCode = createHashCode();
+		}
+
+		private int createHashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + (int) (periodStart ^ (periodStart >>> 32));
+			result = prime * result + ((routeId == null) ? 0 : routeId.hashCode());
+			result = prime * result
+					+ ((directionId == null) ? 0 : directionId.hashCode());
+			result = prime * result + ((stopId == null) ? 0 : stopId.hashCode());
+			result = prime * result + predLengthBucketSecs;
+			result = prime * result + ((source == null) ? 0 : source.hashCode());
+			result = prime * result
+					+ ((algorithm == null) ? 0 : algorithm.hashCode());
+			result = prime * result + ((affectedByWaitStop == null) ? 0
+					: affectedByWaitStop.hashCode());
+			return result;
+		}
+
+		@Override
+		public int hashCode() {
+			return cachedHashCode;
+		}
+
+		private static boolean equal(Object o1, Object o2) {
+			return o1 == null ? o2 == null : o1.equals(o2);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			StatisticsKey other = (StatisticsKey) obj;
+			return periodStart == other.periodStart
+					&& predLengthBucketSecs == other.predLengthBucketSecs
+					&& equal(routeId, other.routeId)
+					&& equal(directionId, other.directionId)
+					&& equal(stopId, other.stopId)
+					&& equal(source, other.source)
+					&& equal(algorithm, other.algorithm)
+					&& equal(affectedByWaitStop, other.affectedByWaitStop);
+		}
+
+		@Override
+		public String toString() {
+			return "StatisticsKey ["
+					+ "periodStart=" + new Date(periodStart)
+					+ ", routeId=" + routeId
+					+ ", directionId=" + directionId
+					+ ", stopId=" + stopId
+					+ ", predLengthBucketSecs=" + predLengthBucketSecs
+					+ ", source=" + source
+					+ ", algorithm=" + algorithm
+					+ ", affectedByWaitStop=" + affectedByWaitStop
+					+ "]";
+		}
+	}
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param periodMinutes
+	 *            Length of the aggregation period, such as 60 for hourly
+	 * @param predLengthBucketSecs
+	 *            Size of the prediction length buckets
+	 */
+	public PredAccuracyStatistics(int periodMinutes, int predLengthBucketSecs) {
+		this.periodMinutes = periodMinutes;
+		this.predLengthBucketSecs = predLengthBucketSecs;
+	}
+
+	/**
+	 * Determines the beginning of the prediction length bucket. Each bucket is
+	 * centered around its nominal value, such as 45 seconds to 75 seconds for
+	 * the 1 minute bucket, which is how the prediction accuracy charts in the
+	 * webapp bucket the data.
+	 *
+	 * @param pred
+	 * @return prediction length bucket, in seconds
+	 */
+	private int predLengthBucket(PredAccuracyPrediction pred) {
+		long predLengthSecs = (pred.getPredictedTime().getTime()
+				- pred.getPredictionReadTime().getTime()) / Time.MS_PER_SEC;
+		if (predLengthSecs < 0)
+			predLengthSecs = 0;
+		return (int) ((predLengthSecs + predLengthBucketSecs / 2)
+				/ predLengthBucketSecs) * predLengthBucketSecs;
+	}
+
+	/**
+	 * @param time
+	 * @return the beginning of the aggregation period that the time is in.
+	 *         Aligned to the agency time zone so that the periods fall within
+	 *         the hours that the RollupModule rolls up, even for time zones
+	 *         offset from UTC by a fraction of an hour.
+	 */
+	private long periodStart(long time) {
+		long periodMsec = periodMinutes * Time.MS_PER_MIN;
+		if (!Core.isCoreApplication())
+			return (time / periodMsec) * periodMsec;
+		
+		int msecsIntoDay =
+				Core.getInstance().getTime().getMsecsIntoDay(new Date(time));
+		return time - msecsIntoDay % periodMsec;
+	}
+
+	/**
+	 * Returns the accumulator for the key, creating it if needed.
+	 *
+	 * @param key
+	 * @return
+	 */
+	private Accumulator getAccumulator(StatisticsKey key) {
+		Accumulator accumulator = accumulators.get(key);
+		if (accumulator == null) {
+			accumulators.putIfAbsent(key, new Accumulator());
+			accumulator = accumulators.get(key);
+		}
+		return accumulator;
+	}
+
+	/**
+	 * Records that the prediction was matched to an arrival/departure.
+	 *
+	 * @param pred
+	 * @param arrivalDepartureTime
+	 */
+	public void recordMatch(PredAccuracyPrediction pred,
+			long arrivalDepartureTime) {
+		StatisticsKey key = new StatisticsKey(
+				periodStart(arrivalDepartureTime), pred, predLengthBucket(pred));
+		long errorSecs = (arrivalDepartureTime
+				- pred.getPredictedTime().getTime()) / Time.MS_PER_SEC;
+		getAccumulator(key).histogram.add(errorSecs);
+	}
+
+	/**
+	 * Records that the prediction was never matched to an arrival/departure.
+	 *
+	 * @param pred
+	 */
+	public void recordMissed(PredAccuracyPrediction pred) {
+		StatisticsKey key = new StatisticsKey(
+				periodStart(pred.getPredictedTime().getTime()), pred,
+				predLengthBucket(pred));
+		getAccumulator(key).numMissed.incrementAndGet();
+	}
+
+	/**
+	 * Removes the data for the periods that ended before the specified time
+	 * and returns it as PredictionAccuracyAggregate objects so that it can be
+	 * stored in the db.
+	 *
+	 * @param time
+	 *            Periods that ended before this time are removed. Should be
+	 *            far enough in the past such that no more predictions will be
+	 *            recorded for the period.
+	 * @return the aggregates for the completed periods
+	 */
+	public List<PredictionAccuracyAggregate> removeCompletedPeriods(long time) {
+		List<PredictionAccuracyAggregate> aggregates =
+				new ArrayList<PredictionAccuracyAggregate>();
+		long periodMsec = periodMinutes * Time.MS_PER_MIN;
+
+		Iterator<Map.Entry<StatisticsKey, Accumulator>> iter =
+				accumulators.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<StatisticsKey, Accumulator> entry = iter.next();
+			StatisticsKey key = entry.getKey();
+			if (key.periodStart + periodMsec > time)
+				continue;
+
+			iter.remove();
+			Accumulator accumulator = entry.getValue();
+			aggregates.add(new PredictionAccuracyAggregate(
+					new Date(key.periodStart), periodMinutes, key.routeId,
+					key.directionId, key.stopId, key.predLengthBucketSecs,
+					key.source, key.algorithm, key.affectedByWaitStop,
+					accumulator.histogram, accumulator.numMissed.get()));
+		}
+
+		return aggregates;
+	}
+
+	/**
+	 * @return number of combinations currently being accumulated
+	 */
+	public int size() {
+		return accumulators.size();
+	}
+}
@@ -22,32 +22,40 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.applications.Core;
+import org.transitime.config.BooleanConfigValue;
 import org.transitime.config.IntegerConfigValue;
 import org.transitime.core.dataCache.PredictionDataCache;
 import org.transitime.db.structs.ArrivalDeparture;
 import org.transitime.db.structs.PredictionAccuracy;
+import org.transitime.db.structs.PredictionAccuracyAggregate;
 import org.transitime.db.structs.Route;
 import org.transitime.db.structs.TripPattern;
 import org.transitime.ipc.data.IpcPrediction;
 import org.transitime.ipc.data.IpcPredictionsForRouteStopDest;
 import org.transitime.modules.Module;
 import org.transitime.utils.IntervalTimer;
-import org.transitime.utils.MapKey;
 import org.transitime.utils.Time;
 
 /**
  * Reads internal predictions every transitime.predAccuracy.pollingRateMsec and
  * stores the predictions into memory. Then when arrivals/departures occur the
  * prediction accuracy can be determined and stored.
+ * <p>
+ * The predictions in memory are indexed by vehicle/direction/stop and by time
+ * bucket so that neither matching an arrival/departure nor clearing out stale
+ * predictions requires scanning all of the predictions. The accuracy results
+ * are accumulated into streaming histograms per route/direction/stop/
+ * prediction length bucket/source/algorithm and written to the db as
+ * PredictionAccuracyAggregate rows once per aggregation period. Writing a
+ * PredictionAccuracy row for every single match can be disabled via
+ * transitime.predAccuracy.storeIndividualRecords.
  *
  *
  * @author SkiBu Smith
@@ -55,14 +63,16 @@ import org.transitime.utils.Time;
  */
 public class PredictionAccuracyModule extends Module {
 
-	// The map that contains all of the predictions to be used for prediction 
-	// accuracy analysis. Each value is a list of predictions because can have
-	// more than a single prediction stored in memory for a vehicle/stop.
-	// Declared static because want to be able to access it from another
-	// class by using the static method handleArrivalDeparture().
-	private static ConcurrentHashMap<PredictionKey, List<PredAccuracyPrediction>> predictionMap =
-			new ConcurrentHashMap<PredictionAccuracyModule.PredictionKey, List<PredAccuracyPrediction>>();
-	
+	// Size of the time buckets used for expiring stale predictions
+	private static final long STALE_BUCKET_MSEC = Time.MS_PER_MIN;
+
+	// Contains all of the predictions to be used for prediction accuracy
+	// analysis. Can have more than a single prediction stored in memory for a
+	// vehicle/stop. Declared static because want to be able to access it from
+	// another class by using the static method handleArrivalDeparture().
+	private static final PredAccuracyPredictionIndex predictionIndex =
+			new PredAccuracyPredictionIndex(STALE_BUCKET_MSEC);
+
 	private static final Logger logger = LoggerFactory
 			.getLogger(PredictionAccuracyModule.class);
 
@@ -131,6 +141,49 @@ public class PredictionAccuracyModule extends Module {
 		return maxEarlynessComparedToPredictionMsec.getValue();
 	}
 
+	private static final BooleanConfigValue storeIndividualRecords = 
+			new BooleanConfigValue("transitime.predAccuracy.storeIndividualRecords", 
+					true,
+					"Whether a PredictionAccuracy row should be stored in the "
+					+ "db for every prediction that is matched to an "
+					+ "arrival/departure. The PredictionAccuracyAggregate rows "
+					+ "are always stored. Setting this to false greatly "
+					+ "reduces the size of the db but reports that read the "
+					+ "individual PredictionAccuracy rows will then not have "
+					+ "data.");
+	
+	private static boolean shouldStoreIndividualRecords() {
+		return storeIndividualRecords.getValue();
+	}
+
+	private static final IntegerConfigValue aggregationPeriodMinutes = 
+			new IntegerConfigValue("transitime.predAccuracy.aggregationPeriodMinutes", 
+					60,
+					"Length of the period that prediction accuracy results "
+					+ "are aggregated over before being written to the db as "
+					+ "PredictionAccuracyAggregate rows.");
+	
+	private static int getAggregationPeriodMinutes() {
+		return aggregationPeriodMinutes.getValue();
+	}
+
+	private static final IntegerConfigValue predLengthBucketSecs = 
+			new IntegerConfigValue("transitime.predAccuracy.predLengthBucketSecs", 
+					30,
+					"Size in seconds of the prediction length buckets used "
+					+ "when aggregating prediction accuracy results.");
+	
+	private static int getPredLengthBucketSecs() {
+		return predLengthBucketSecs.getValue();
+	}
+
+	// Accumulates the accuracy results so that only aggregates need to be
+	// stored in the db. Static for same reason as predictionIndex. Declared
+	// after the config params since it uses them.
+	private static final PredAccuracyStatistics statistics =
+			new PredAccuracyStatistics(getAggregationPeriodMinutes(),
+					getPredLengthBucketSecs());
+
 	/********************** Internal Classes **************************/
 	
 	/**
@@ -150,21 +203,6 @@ public class PredictionAccuracyModule extends Module {
 		}
 	}
 	
-	/**
-	 * Key for map of predictions
-	 */
-	protected static class PredictionKey extends MapKey {
-		private PredictionKey(String vehicleId, String directionId, String stopId) {
-			super(vehicleId, directionId, stopId);
-		}
-
-		@Override
-		public String toString() {
-			return "PredictionKey [" + "vehicleId=" + o1 + ", directionId=" + o2
-					+ ", stopId=" + o3 + "]";
-		}
-	}
-
 	/********************** Member Functions **************************/
 
 	/**
@@ -204,6 +242,9 @@ public class PredictionAccuracyModule extends Module {
 				// arrival/departure don't stick around taking up memory.
 				clearStalePredictions();
 				
+				// Write out the aggregated results for completed periods
+				storeCompletedAggregates();
+				
 			} catch (Exception e) {
 				logger.error("Error accessing predictions feed {}", e, e);
 				logger.debug("execption details {}", e, e);
@@ -294,17 +335,9 @@ public class PredictionAccuracyModule extends Module {
 			return;
 		}
 		
-		PredictionKey key = new PredictionKey(pred.getVehicleId(), 
-				pred.getDirectionId(), pred.getStopId());
-		List<PredAccuracyPrediction> predsList = predictionMap.get(key);
-		if (predsList == null) {
-			predictionMap.putIfAbsent(key,
-					new ArrayList<PredAccuracyPrediction>(1));
-			predsList = predictionMap.get(key);
-		}
 		logger.debug("Adding prediction to memory for prediction accuracy "
 				+ "analysis. {}", pred);
-		predsList.add(pred);
+		predictionIndex.add(pred);
 	}
 	
 	/**
@@ -313,43 +346,51 @@ public class PredictionAccuracyModule extends Module {
 	 * needed because sometimes a vehicle will never arrive at a stop and so
 	 * will not be removed from memory. In order to prevent memory use from
 	 * building up need to clear out the old predictions.
-	 * 
-	 * Synchronized as multiple subclasses exist.
+	 * <p>
+	 * Only the time buckets that have expired are looked at so this is cheap
+	 * even when many predictions are in memory. Not synchronized since the
+	 * prediction index is thread safe.
 	 */
-	private synchronized void clearStalePredictions() {
-		int numPredictionsInMemory = 0;
-		int numPredictionsRemoved = 0;
-		
-		// Go through all predictions in memory...
-		Collection<List<PredAccuracyPrediction>> allPreds = 
-				predictionMap.values();
-		for (List<PredAccuracyPrediction> predsForVehicleStop : allPreds) {
-			Iterator<PredAccuracyPrediction> iter = predsForVehicleStop.iterator();
-			while (iter.hasNext()) {
-				PredAccuracyPrediction pred = iter.next();
-				if (pred.getPredictedTime().getTime() < 
-						System.currentTimeMillis() - 
-						getMaxPredStalenessMinutes()*Time.MS_PER_MIN) {
-					// Prediction was too old so remove it from memory
-					++numPredictionsRemoved;
-					logger.info("Removing prediction accuracy prediction "
-							+ "from memory because it is too old. {}", pred);
-					iter.remove();
-					
-					// Store prediction accuracy info so can note that 
-					// a bad prediction was made
-					storePredictionAccuracyInfo(pred, null);
-				} else {
-					++numPredictionsInMemory;		
-					logger.debug("Prediction currently held in memory. {}"+pred.toString());
-				}
-			}
+	private void clearStalePredictions() {
+		List<PredAccuracyPrediction> stalePreds = 
+				predictionIndex.removeStale(System.currentTimeMillis() 
+						- getMaxPredStalenessMinutes()*Time.MS_PER_MIN);
+		for (PredAccuracyPrediction pred : stalePreds) {
+			logger.debug("Removing prediction accuracy prediction "
+					+ "from memory because it is too old. {}", pred);
+			
+			// Store prediction accuracy info so can note that 
+			// a bad prediction was made
+			storePredictionAccuracyInfo(pred, null);
 		}
 		
+		logger.debug("Removed {} stale predictions. Predictions now in memory "
+				+ "for {} vehicle/direction/stops.",
+				stalePreds.size(), predictionIndex.numKeys());
+	}
+	
+	/**
+	 * Stores in the db the aggregated prediction accuracy results for the
+	 * aggregation periods that have completed. A period is only considered
+	 * complete once predictions made during it can no longer be matched or
+	 * become stale so that all of the results for the period are included.
+	 */
+	private void storeCompletedAggregates() {
+		long cutoffTime = System.currentTimeMillis()
+				- getMaxPredStalenessMinutes() * Time.MS_PER_MIN
+				- getTimeBetweenPollingPredictionsMsec();
+		List<PredictionAccuracyAggregate> aggregates = 
+				statistics.removeCompletedPeriods(cutoffTime);
+		for (PredictionAccuracyAggregate aggregate : aggregates) {
+			logger.debug("Storing prediction accuracy aggregate to db. {}", 
+					aggregate);
+			Core.getInstance().getDbLogger().add(aggregate);
+		}
 		
-		
-		logger.debug("There are now {} predictions in memory after removing {}.",
-				numPredictionsInMemory, numPredictionsRemoved);
+		if (!aggregates.isEmpty())
+			logger.info("Stored {} prediction accuracy aggregates. {} still "
+					+ "being accumulated.", 
+					aggregates.size(), statistics.size());
 	}
 	
 	/**
@@ -366,7 +407,7 @@ public class PredictionAccuracyModule extends Module {
 	 *            same time can easily see from data in db which internal and
 	 *            external predictions are associated with each other.
 	 */
-	protected synchronized void getAndProcessData(List<RouteAndStops> routesAndStops,
+	protected void getAndProcessData(List<RouteAndStops> routesAndStops,
 			Date predictionsReadTime) {
 		logger.debug("Calling PredictionReaderModule.getAndProcessData() "
 				+ "to process internal prediction.");
@@ -412,30 +453,6 @@ public class PredictionAccuracyModule extends Module {
 			}
 		}
 	}
-	private static void printPredictionsMap(ConcurrentHashMap<PredictionKey, List<PredAccuracyPrediction>>  predictionMap, ArrivalDeparture arrivalDeparture)
-	{
-		
-		logger.debug("Looking for match : " + arrivalDeparture.toString() );
-		for (PredictionKey key: predictionMap.keySet())
-		{			                      
-            List<PredAccuracyPrediction> value = predictionMap.get(key);
-            for(PredAccuracyPrediction pred:value)
-            {
-            	boolean keyprinted=false;
-            	if(pred.getVehicleId().equals(arrivalDeparture.getVehicleId()))
-            	{
-            		if(!keyprinted)
-            		{            			
-            			logger.debug(key.toString());
-            			keyprinted=true;
-            		}            			
-                    logger.debug(pred.toString());
-            	}
-            }
-            
-                        
-		} 
-	}
 	/**
 	 * Looks for corresponding prediction in memory. If found then prediction
 	 * accuracy information for that prediction is stored in the database.
@@ -448,11 +465,11 @@ public class PredictionAccuracyModule extends Module {
 	public static void handleArrivalDeparture(
 			ArrivalDeparture arrivalDeparture) {
 		// Get the List of predictions for the vehicle/direction/stop 
-		PredictionKey key = new PredictionKey(arrivalDeparture.getVehicleId(), 
+		List<PredAccuracyPrediction> predsList = predictionIndex.getPredictions(
+				arrivalDeparture.getVehicleId(), 
 				arrivalDeparture.getDirectionId(), arrivalDeparture.getStopId());
-		List<PredAccuracyPrediction> predsList = predictionMap.get(key);
 		
-		if (predsList == null || predsList.isEmpty())
+		if (predsList.isEmpty())
 		{
 			logger.debug("No matching predictions for {}", arrivalDeparture);
 			return;			
@@ -461,10 +478,7 @@ public class PredictionAccuracyModule extends Module {
 		// Go through list of predictions for vehicle, direction, stop and handle
 		// the ones that match fully including being appropriate arrival or
 		// departure.
-		Iterator<PredAccuracyPrediction> predIterator = predsList.iterator();
-		while (predIterator.hasNext()) {
-			PredAccuracyPrediction pred = predIterator.next();
-			
+		for (PredAccuracyPrediction pred : predsList) {
 			// If not correct arrival/departure type continue to next prediction
 			if (pred.isArrival() != arrivalDeparture.isArrival())
 				continue;
@@ -491,18 +505,21 @@ public class PredictionAccuracyModule extends Module {
 					|| latenessComparedToPrediction < -getMaxEarlynessComparedToPredictionMsec())
 				continue;
 			
-			// There is a match so store the prediction accuracy info into the 
-			// database
-			storePredictionAccuracyInfo(pred, arrivalDeparture);
+			// There is a match so remove the prediction that was matched. If 
+			// it was already removed by another thread then it has already
+			// been handled.
+			if (!predictionIndex.remove(pred))
+				continue;
 			
-			// Remove the prediction that was matched
-			predIterator.remove();
+			// Store the prediction accuracy info
+			storePredictionAccuracyInfo(pred, arrivalDeparture);
 		}
 	}
 
 	/**
-	 * Combine the arrival/departure with the corresponding prediction and
-	 * creates PredictionAccuracy object and stores it in database.
+	 * Records the result in the aggregated statistics. If configured to do
+	 * so also combines the arrival/departure with the corresponding prediction
+	 * and creates PredictionAccuracy object and stores it in database.
 	 * 
 	 * @param pred
 	 * @param arrivalDeparture
@@ -512,6 +529,15 @@ public class PredictionAccuracyModule extends Module {
 	 */
 	private static void storePredictionAccuracyInfo(
 			PredAccuracyPrediction pred, ArrivalDeparture arrivalDeparture) {
+		// Always accumulate the aggregated statistics
+		if (arrivalDeparture != null)
+			statistics.recordMatch(pred, arrivalDeparture.getTime());
+		else
+			statistics.recordMissed(pred);
+		
+		if (!shouldStoreIndividualRecords())
+			return;
+		
 		// If no corresponding arrival/departure found for prediction
 		// then use null for arrival/departure time to indicate such.
 		Date arrivalDepartureTime = arrivalDeparture!=null ? 
@@ -58,13 +58,29 @@ public class CascadingPredictionGenerator extends PredictionGeneratorDefaultImpl
 	}	
 
 	@Override
-	public long getStopTimeForPath(Indices indices, AvlReport avlReport) {
+	public long getStopTimeForPath(Indices indices, AvlReport avlReport, long arrivalTime) {
 		for (PredictionComponentElementsGenerator generator : generators) {
 			if (generator.hasDataForPath(indices, avlReport)) {
-				return generator.getStopTimeForPath(indices, avlReport);
+				return generator.getStopTimeForPath(indices, avlReport, arrivalTime);
 			}
 		}
-		return defaultGenerator.getStopTimeForPath(indices, avlReport);
+		return defaultGenerator.getStopTimeForPath(indices, avlReport, arrivalTime);
+	}
+	
+	/**
+	 * Has each generator, in order, estimate the stop paths of the run that
+	 * the previous generators didn't have data for. The default generator
+	 * then handles any remaining stop paths.
+	 */
+	@Override
+	public void estimateTimesForPaths(StopPathRun run, AvlReport avlReport) {
+		for (PredictionComponentElementsGenerator generator : generators) {
+			if (run.allEstimated())
+				return;
+			generator.estimateTimesForPaths(run, avlReport);
+		}
+		if (!run.allEstimated())
+			defaultGenerator.estimateTimesForPaths(run, avlReport);
 	}
 	
 	private static PredictionComponentElementsGenerator getInstance(String name) {
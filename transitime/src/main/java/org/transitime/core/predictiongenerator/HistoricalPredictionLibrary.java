@@ -22,17 +22,16 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.commons.beanutils.BeanComparator;
 import org.apache.commons.lang3.time.DateUtils;
 import org.transitime.applications.Core;
 import org.transitime.config.BooleanConfigValue;
-import org.transitime.config.IntegerConfigValue;
 import org.transitime.core.Indices;
 import org.transitime.core.VehicleState;
 import org.transitime.core.dataCache.StopArrivalDepartureCache;
 import org.transitime.core.dataCache.StopArrivalDepartureCacheKey;
+import org.transitime.core.dataCache.StopPathHistoryIndex;
 import org.transitime.core.dataCache.TripDataHistoryCache;
 import org.transitime.core.dataCache.TripKey;
 import org.transitime.db.structs.ArrivalDeparture;
@@ -45,10 +44,6 @@ import org.transitime.ipc.data.IpcPrediction;
  */
 public class HistoricalPredictionLibrary {
 
-	private static final IntegerConfigValue closestVehicleStopsAhead = new IntegerConfigValue(
-			"transitime.prediction.closestvehiclestopsahead", new Integer(2),
-			"Num stops ahead a vehicle must be to be considers in the closest vehicle calculation");
-	
 	public static long getLastVehicleTravelTime(VehicleState currentVehicleState, Indices indices) {
 
 		StopArrivalDepartureCacheKey nextStopKey = new StopArrivalDepartureCacheKey(
@@ -164,30 +159,6 @@ public class HistoricalPredictionLibrary {
 		return null;
 	}
 
-	private static VehicleState getClosestVehicle(List<VehicleState> vehiclesOnRoute, Indices indices,
-			VehicleState currentVehicleState) {
-
-		Map<String, List<String>> stopsByDirection = currentVehicleState.getTrip().getRoute()
-				.getOrderedStopsByDirection();
-
-		List<String> routeStops = stopsByDirection.get(currentVehicleState.getTrip().getDirectionId());
-
-		Integer closest = 100;
-
-		VehicleState result = null;
-
-		for (VehicleState vehicle : vehiclesOnRoute) {
-
-			Integer numAfter = numAfter(routeStops, vehicle.getMatch().getStopPath().getStopId(),
-					currentVehicleState.getMatch().getStopPath().getStopId());
-			if (numAfter != null && numAfter > closestVehicleStopsAhead.getValue() && numAfter < closest) {
-				closest = numAfter;
-				result = vehicle;
-			}
-		}
-		return result;
-	}
-
 	private static boolean isAfter(List<String> stops, String stop1, String stop2) {
 		if (stops != null && stop1 != null && stop2 != null) {
 			if (stops.contains(stop1) && stops.contains(stop2)) {
@@ -200,16 +171,19 @@ public class HistoricalPredictionLibrary {
 		return false;
 	}
 
-	private static Integer numAfter(List<String> stops, String stop1, String stop2) {
-		if (stops != null && stop1 != null && stop2 != null)
-			if (stops.contains(stop1) && stops.contains(stop2))
-				return stops.indexOf(stop1) - stops.indexOf(stop2);
-
-		return null;
-	}
-
 	public static List<Integer> lastDaysTimes(TripDataHistoryCache cache, String tripId, int stopPathIndex, Date startDate,
 			Integer startTime, int num_days_look_back, int num_days) {
+		return lastDaysTimes(new PreviousDaysTripHistory(cache, tripId, startDate, startTime), stopPathIndex,
+				num_days_look_back, num_days);
+	}
+
+	/**
+	 * Same as lastDaysTimes() above but the trip history is looked up via a
+	 * PreviousDaysTripHistory so that when called for several stop paths of
+	 * the same trip the history for each day is only looked up once.
+	 */
+	public static List<Integer> lastDaysTimes(PreviousDaysTripHistory history, int stopPathIndex,
+			int num_days_look_back, int num_days) {
 
 		List<Integer> times = new ArrayList<Integer>();
 		List<ArrivalDeparture> results = null;
@@ -222,11 +196,7 @@ public class HistoricalPredictionLibrary {
 
 		for (int i = 0; i < num_days_look_back && num_found < num_days; i++) {
 
-			Date nearestDay = DateUtils.truncate(DateUtils.addDays(startDate, (i + 1) * -1), Calendar.DAY_OF_MONTH);
-
-			TripKey tripKey = new TripKey(tripId, nearestDay, startTime);
-
-			results = cache.getTripHistory(tripKey);
+			results = history.getDay(i);
 
 			if (results != null) {
 
@@ -243,6 +213,70 @@ public class HistoricalPredictionLibrary {
 		}
 		return times;		
 	}
+
+	/**
+	 * Same as lastDaysTimes() above but the travel times are read from the
+	 * StopPathHistoryIndex instead of searching the trip history lists of the
+	 * TripDataHistoryCache, and are written into the times array so that no
+	 * objects are created.
+	 * 
+	 * @param tripId
+	 * @param stopPathIndex
+	 * @param startDate
+	 *            Times for the days before this date are returned
+	 * @param num_days_look_back
+	 * @param times
+	 *            Filled in with the travel times, most recent day first. Its
+	 *            length is the maximum number of times returned.
+	 * @return number of times filled in
+	 */
+	public static int lastDaysTimes(String tripId, int stopPathIndex, Date startDate,
+			int num_days_look_back, int[] times) {
+		return StopPathHistoryIndex.getInstance().getTravelTimes(tripId, stopPathIndex,
+				StopPathHistoryIndex.dayNumber(startDate.getTime()), num_days_look_back, times);
+	}
+
+	/**
+	 * The trip history of a trip for the days before the start date. The
+	 * history for a day is only looked up from the TripDataHistoryCache when
+	 * first needed and is then kept so that it can be used for all the stop
+	 * paths of the trip.
+	 */
+	public static class PreviousDaysTripHistory {
+		private final TripDataHistoryCache cache;
+		private final String tripId;
+		private final Date startDate;
+		private final Integer startTime;
+		
+		// Element i is the history for i+1 days before the start date. Can
+		// contain nulls for days without any history.
+		private final List<List<ArrivalDeparture>> days = new ArrayList<List<ArrivalDeparture>>();
+		
+		public PreviousDaysTripHistory(TripDataHistoryCache cache, String tripId, Date startDate, Integer startTime) {
+			this.cache = cache;
+			this.tripId = tripId;
+			this.startDate = startDate;
+			this.startTime = startTime;
+		}
+		
+		/**
+		 * @param i
+		 *            0 for the day before the start date, 1 for two days
+		 *            before, etc
+		 * @return the history for the trip for that day, or null if none
+		 */
+		public List<ArrivalDeparture> getDay(int i) {
+			while (days.size() <= i) {
+				Date nearestDay = DateUtils.truncate(DateUtils.addDays(startDate, (days.size() + 1) * -1), Calendar.DAY_OF_MONTH);
+
+				TripKey tripKey = new TripKey(tripId, nearestDay, startTime);
+
+				days.add(cache.getTripHistory(tripKey));
+			}
+			return days.get(i);
+		}
+	}
+
 	private static ArrivalDeparture getArrival(int stopPathIndex, List<ArrivalDeparture> results)
 	{
 		for(ArrivalDeparture result:results)
@@ -8,7 +8,21 @@ public interface PredictionComponentElementsGenerator {
 	/* this generates a prediction for travel time between stops */
 	long getTravelTimeForPath(Indices indices, AvlReport avlReport);
 	
-	long getStopTimeForPath(Indices indices, AvlReport avlReport);
+	/*
+	 * The arrivalTime is the epoch time the vehicle is expected to arrive at
+	 * the stop, for stop times that depend on the time of day.
+	 */
+	long getStopTimeForPath(Indices indices, AvlReport avlReport, long arrivalTime);
 	
 	boolean hasDataForPath(Indices indices, AvlReport avlReport);
+	
+	/*
+	 * Sets the travel and stop times for all the stop paths of the run that
+	 * have not already been estimated and that this generator has data for.
+	 * Lets a generator look up data shared by the stop paths just once
+	 * instead of for each stop path. Stop paths this generator doesn't have
+	 * data for are left unestimated so that another generator can handle
+	 * them.
+	 */
+	void estimateTimesForPaths(StopPathRun run, AvlReport avlReport);
 }
\ No newline at end of file
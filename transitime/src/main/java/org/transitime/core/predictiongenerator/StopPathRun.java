@@ -0,0 +1,154 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.core.predictiongenerator;
+
+import org.transitime.core.Indices;
+
+/**
+ * A run of consecutive stop paths of a block for which the travel and stop
+ * times are to be estimated together, by a single call to
+ * PredictionComponentElementsGenerator.estimateTimesForPaths(). Estimating
+ * a whole run at once lets a generator look up data that is shared by the
+ * stop paths, such as the trip history for previous days, just once instead
+ * of for every stop path.
+ * <p>
+ * A stop path is "estimated" once its times have been set. Generators only
+ * set the times for stop paths that have not yet been estimated so that
+ * generators can be cascaded, with a later generator only handling the stop
+ * paths that the earlier ones didn't have data for.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class StopPathRun {
+
+	private final Indices[] indices;
+	private final long[] arrivalTimes;
+	private final long[] travelTimes;
+	private final long[] stopTimes;
+	private final boolean[] estimated;
+	private int size = 0;
+	private int numEstimated = 0;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param maxSize
+	 *            Maximum number of stop paths in the run
+	 */
+	public StopPathRun(int maxSize) {
+		indices = new Indices[maxSize];
+		arrivalTimes = new long[maxSize];
+		travelTimes = new long[maxSize];
+		stopTimes = new long[maxSize];
+		estimated = new boolean[maxSize];
+	}
+
+	/**
+	 * Adds a stop path to the end of the run.
+	 *
+	 * @param stopPathIndices
+	 *            Indices of the stop path. Should not be modified afterwards
+	 *            since it is stored, not copied.
+	 * @param arrivalTime
+	 *            Epoch time the vehicle is expected to arrive at the stop at
+	 *            the end of the stop path, based on the travel times. For
+	 *            estimates that depend on the time of day, such as the dwell
+	 *            time.
+	 * @return false if the run is already full
+	 */
+	public boolean add(Indices stopPathIndices, long arrivalTime) {
+		if (size == indices.length)
+			return false;
+		indices[size] = stopPathIndices;
+		arrivalTimes[size] = arrivalTime;
+		++size;
+		return true;
+	}
+
+	/**
+	 * Sets the estimated travel time and stop time for a stop path.
+	 *
+	 * @param i
+	 *            Which stop path of the run
+	 * @param travelTimeMsec
+	 * @param stopTimeMsec
+	 */
+	public void setTimes(int i, long travelTimeMsec, long stopTimeMsec) {
+		travelTimes[i] = travelTimeMsec;
+		stopTimes[i] = stopTimeMsec;
+		if (!estimated[i]) {
+			estimated[i] = true;
+			++numEstimated;
+		}
+	}
+
+	/**
+	 * @return number of stop paths in the run
+	 */
+	public int size() {
+		return size;
+	}
+
+	public Indices getIndices(int i) {
+		return indices[i];
+	}
+
+	/**
+	 * @param i
+	 * @return the expected arrival time at the stop of stop path i of the run
+	 */
+	public long getArrivalTime(int i) {
+		return arrivalTimes[i];
+	}
+
+	public boolean isEstimated(int i) {
+		return estimated[i];
+	}
+
+	/**
+	 * @return true if times have been set for all the stop paths of the run
+	 */
+	public boolean allEstimated() {
+		return numEstimated == size;
+	}
+
+	public long getTravelTime(int i) {
+		return travelTimes[i];
+	}
+
+	public long getStopTime(int i) {
+		return stopTimes[i];
+	}
+
+	/**
+	 * Returns true if stop path i of the run is the same stop path as the one
+	 * the indices parameter points to. The block is compared by identity
+	 * since it is the same object for the stop paths of a run and
+	 * Block.equals() is expensive.
+	 *
+	 * @param i
+	 * @param other
+	 * @return true if the same stop path
+	 */
+	public boolean isForStopPath(int i, Indices other) {
+		Indices runIndices = indices[i];
+		return runIndices.getBlock() == other.getBlock()
+				&& runIndices.getTripIndex() == other.getTripIndex()
+				&& runIndices.getStopPathIndex() == other.getStopPathIndex();
+	}
+}
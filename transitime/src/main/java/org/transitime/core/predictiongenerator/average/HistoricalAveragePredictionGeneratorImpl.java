@@ -14,6 +14,7 @@ import org.transitime.core.dataCache.HistoricalAverageCache;
 import org.transitime.core.dataCache.StopPathCacheKey;
 import org.transitime.core.dataCache.StopPathPredictionCache;
 import org.transitime.core.predictiongenerator.PredictionComponentElementsGenerator;
+import org.transitime.core.predictiongenerator.StopPathRun;
 import org.transitime.db.structs.AvlReport;
 import org.transitime.db.structs.PredictionForStopPath;
 
@@ -74,7 +75,7 @@ public class HistoricalAveragePredictionGeneratorImpl extends
 	}	
 
 	@Override
-	public long getStopTimeForPath(Indices indices, AvlReport avlReport) {
+	public long getStopTimeForPath(Indices indices, AvlReport avlReport, long arrivalTime) {
 		
 		StopPathCacheKey historicalAverageCacheKey=new StopPathCacheKey(indices.getTrip().getId(), indices.getStopPathIndex(),false);
 		
@@ -83,11 +84,42 @@ public class HistoricalAveragePredictionGeneratorImpl extends
 		if(average!=null && average.getCount()>=minDays.getValue())
 		{
 			logger.debug("Using historical average alogrithm for dwell time prediction : "+average.toString() + " instead of "+alternative+" prediction: "
-					+ super.getStopTimeForPath(indices, avlReport) +" for : " + indices.toString());
+					+ super.getStopTimeForPath(indices, avlReport, arrivalTime) +" for : " + indices.toString());
 			return (long)average.getAverage();
 		}
 					
-		return super.getStopTimeForPath(indices, avlReport);
+		return super.getStopTimeForPath(indices, avlReport, arrivalTime);
+	}
+	
+	/**
+	 * Estimates the stop paths of the run that have a historical average
+	 * travel time. Unlike calling hasDataForPath(), getTravelTimeForPath()
+	 * and getStopTimeForPath() for each stop path, the travel time average
+	 * is only looked up once per stop path.
+	 */
+	@Override
+	public void estimateTimesForPaths(StopPathRun run, AvlReport avlReport) {
+		HistoricalAverageCache cache = HistoricalAverageCache.getInstance();
+		for (int i = 0; i < run.size(); ++i) {
+			if (run.isEstimated(i))
+				continue;
+			Indices indices = run.getIndices(i);
+			String tripId = indices.getTrip().getId();
+			
+			HistoricalAverage travelAverage = cache.getAverage(
+					new StopPathCacheKey(tripId, indices.getStopPathIndex()));
+			if (travelAverage == null || travelAverage.getCount() < minDays.getValue())
+				continue;
+			
+			HistoricalAverage dwellAverage = cache.getAverage(
+					new StopPathCacheKey(tripId, indices.getStopPathIndex(), false));
+			long stopTime = dwellAverage != null && dwellAverage.getCount() >= minDays.getValue() ? 
+					(long) dwellAverage.getAverage()
+					: super.getStopTimeForPath(indices, avlReport, run.getArrivalTime(i));
+			
+			storeTravelTimePrediction(indices, travelAverage.getAverage(), "HISTORICAL AVERAGE");
+			run.setTimes(i, (long) travelAverage.getAverage(), stopTime);
+		}
 	}
 	
 	@Override
@@ -0,0 +1,69 @@
+package org.transitime.core.predictiongenerator.kalman;
+
+/**
+ * The Kalman filter computation done on primitive arrays so that predictions
+ * for many stop paths can be made in one pass without creating any objects.
+ * Does the same calculation as KalmanPrediction.predict(), which now just
+ * converts its TripSegments and then calls this class.
+ *
+ * @author Sean Og Crudden
+ *
+ */
+public class KalmanFilter {
+
+	/**
+	 * Runs the Kalman filter for each of the stop paths.
+	 *
+	 * @param numPaths
+	 *            Number of stop paths to do the prediction for
+	 * @param historicalDurations
+	 *            The historical durations for the previous days. The durations
+	 *            for stop path i start at i*daysPerPath.
+	 * @param daysPerPath
+	 *            Stride of the historicalDurations array
+	 * @param numDays
+	 *            For each stop path how many historical durations there are.
+	 *            Must be at least 1.
+	 * @param lastVehicleDurations
+	 *            For each stop path the duration for the last vehicle
+	 * @param lastPredictionErrors
+	 *            For each stop path the filter error from the last prediction
+	 * @param predictions
+	 *            Filled in with the predicted duration for each stop path
+	 * @param filterErrors
+	 *            Filled in with the resulting filter error for each stop path,
+	 *            to be used for the next prediction
+	 */
+	public static void predict(int numPaths, int[] historicalDurations,
+			int daysPerPath, int[] numDays, double[] lastVehicleDurations,
+			double[] lastPredictionErrors, double[] predictions,
+			double[] filterErrors) {
+		for (int i = 0; i < numPaths; ++i) {
+			int offset = i * daysPerPath;
+			int n = numDays[i];
+
+			// Average is of the whole msec like it always was
+			long total = 0;
+			for (int d = offset; d < offset + n; ++d)
+				total += historicalDurations[d];
+			double average = (double) (total / n);
+
+			double varianceTotal = 0;
+			for (int d = offset; d < offset + n; ++d) {
+				double diff = historicalDurations[d] - average;
+				varianceTotal += diff * diff;
+			}
+			double variance = varianceTotal / n;
+
+			double lastPredictionError = lastPredictionErrors[i];
+			double gain = (lastPredictionError + variance)
+					/ (lastPredictionError + (2 * variance));
+			double loopGain = 1 - gain;
+
+			/* TODO This may be better use the historical average rather than just the vehicle on previous day. This would damping issues with last days value being dramtically different. */
+			predictions[i] = (loopGain * lastVehicleDurations[i])
+					+ (gain * historicalDurations[offset + n - 1]);
+			filterErrors[i] = variance * gain;
+		}
+	}
+}
@@ -17,74 +17,23 @@ public class KalmanPrediction
 	 */
 	public KalmanPredictionResult predict(TripSegment last_vehicle_segment,TripSegment historical_segments[], double last_prediction_error) throws Exception
 	{
-		KalmanPredictionResult result=null; 								
-						
-		double average=historicalAverage(historical_segments);
-		
-		double variance = historicalVariance(historical_segments, average);
-						
-		double gain=gain(average, variance, last_prediction_error );	
-		
-		double loop_gain=1-gain;
-		
-		result=new KalmanPredictionResult(prediction(gain, loop_gain, historical_segments, last_vehicle_segment),filterError( variance, gain));
-						
-		return result;				
-	}
-	private double historicalAverage(TripSegment historical_segments[]) throws Exception	
-	{
-		if(historical_segments.length>0)
-		{
-			long total=0;
-			for(int i=0;i<historical_segments.length;i++)
-			{
-				long duration=historical_segments[i].getDestination().getTime()-historical_segments[i].getOrigin().getTime();
-				total=total+duration;
-			}
-			return (double) (total/historical_segments.length);
-		}else
-		{
+		if(historical_segments.length==0)
 			throw new Exception("Cannot average nothing");
-		}				
-	}
-	private double historicalVariance(TripSegment historical_segments[], double average)		
-	{			
-		double total=0;
-		
+
+		int historical_durations[]=new int[historical_segments.length];
 		for(int i=0;i<historical_segments.length;i++)
 		{
-			long duration=historical_segments[i].getDestination().getTime()-historical_segments[i].getOrigin().getTime();
-			
-			double diff=duration-average;
-			
-			double long_diff_squared=diff*diff;
-			
-			total=total+long_diff_squared;
-		}		
-		return total/historical_segments.length;		
-	}
-	private double filterError(double variance, double loop_gain)
-	{
-		return variance*loop_gain;
-	}
-	
-	private double gain(double average, double variance, double last_prediction_error )		
-	{
-		double gain=(last_prediction_error+variance)/(last_prediction_error+(2*variance));
-		return gain;				
+			historical_durations[i]=(int)(historical_segments[i].getDestination().getTime()-historical_segments[i].getOrigin().getTime());
+		}
+		double last_vehicle_duration=last_vehicle_segment.getDestination().getTime()-last_vehicle_segment.getOrigin().getTime();
+
+		double prediction[]=new double[1];
+		double filter_error[]=new double[1];
+		KalmanFilter.predict(1, historical_durations, historical_durations.length, new int[] {historical_durations.length},
+				new double[] {last_vehicle_duration}, new double[] {last_prediction_error}, prediction, filter_error);
+
+		return new KalmanPredictionResult(prediction[0], filter_error[0]);
 	}
-	
-	private double prediction(double gain, double loop_gain, TripSegment historical_segments[],  TripSegment last_vechicle_segment)	
-	{
-		/* TODO This may be better use the historical average rather than just the vehicle on previous day. This would damping issues with last days value being dramtically different. */
-		long historical_duration=historical_segments[historical_segments.length-1].getDestination().getTime()-historical_segments[historical_segments.length-1].getOrigin().getTime();
-		
-		long last_vehicle_duration=last_vechicle_segment.getDestination().getTime()-last_vechicle_segment.getOrigin().getTime();
-				
-		double prediction=(loop_gain*last_vehicle_duration)+(gain*historical_duration);
-		
-		return prediction;	
-	}	
 	public static void main(String [ ] args)
 	{
 		KalmanPrediction kalmanPrediction=new KalmanPrediction();
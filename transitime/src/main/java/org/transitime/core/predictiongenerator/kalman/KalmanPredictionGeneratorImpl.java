@@ -2,12 +2,10 @@ package org.transitime.core.predictiongenerator.kalman;
 
 import java.util.Calendar;
 import java.util.Date;
-import java.util.List;
 
 import org.apache.commons.lang3.time.DateUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.transitime.applications.Core;
 import org.transitime.config.DoubleConfigValue;
 import org.transitime.config.IntegerConfigValue;
 import org.transitime.core.Indices;
@@ -15,13 +13,11 @@ import org.transitime.core.PredictionGeneratorDefaultImpl;
 import org.transitime.core.VehicleState;
 import org.transitime.core.dataCache.KalmanErrorCache;
 import org.transitime.core.dataCache.KalmanErrorCacheKey;
-import org.transitime.core.dataCache.StopPathPredictionCache;
-import org.transitime.core.dataCache.TripDataHistoryCache;
 import org.transitime.core.dataCache.VehicleStateManager;
 import org.transitime.core.predictiongenerator.HistoricalPredictionLibrary;
 import org.transitime.core.predictiongenerator.PredictionComponentElementsGenerator;
+import org.transitime.core.predictiongenerator.StopPathRun;
 import org.transitime.db.structs.AvlReport;
-import org.transitime.db.structs.PredictionForStopPath;
 
 /**
  * @author Sean Og Crudden This is a prediction generator that uses a Kalman
@@ -65,10 +61,6 @@ public class KalmanPredictionGeneratorImpl extends PredictionGeneratorDefaultImp
 
 		logger.debug("Calling Kalman prediction algorithm for : "+indices.toString());
 		
-		TripDataHistoryCache tripCache = TripDataHistoryCache.getInstance();
-
-		KalmanErrorCache kalmanErrorCache = KalmanErrorCache.getInstance();
-		
 		VehicleStateManager vehicleStateManager = VehicleStateManager.getInstance();
 
 		VehicleState currentVehicleState = vehicleStateManager.getVehicleState(avlReport.getVehicleId());		
@@ -87,110 +79,209 @@ public class KalmanPredictionGeneratorImpl extends PredictionGeneratorDefaultImp
 									
 			Date nearestDay = DateUtils.truncate(Calendar.getInstance().getTime(), Calendar.DAY_OF_MONTH);
 
-			List<Integer> lastDaysTimes = HistoricalPredictionLibrary.lastDaysTimes(tripCache, currentVehicleState.getTrip().getId(),
-					indices.getStopPathIndex(), nearestDay, currentVehicleState.getTrip().getStartTime(),
-					maxKalmanDaysToSearch.getValue(), minKalmanDays.getValue());
-												
-			if(lastDaysTimes!=null)
-			{												
-				logger.debug("Kalman has " +lastDaysTimes.size()+ " historical values for : " +indices.toString());
-			}
 			/*
 			 * if we have enough data start using Kalman filter otherwise revert
 			 * to extended class for prediction. 
 			 */	
-			if (lastDaysTimes != null && lastDaysTimes.size() >= minKalmanDays.getValue().intValue()) {
-
-				logger.debug("Generating Kalman prediction for : "+indices.toString());
-				
-				try {
-
-					KalmanPrediction kalmanPrediction = new KalmanPrediction();
-
-					KalmanPredictionResult kalmanPredictionResult;
-
-					Vehicle vehicle = new Vehicle(avlReport.getVehicleId());
-
-					VehicleStopDetail originDetail = new VehicleStopDetail(null, 0, vehicle);
-					TripSegment[] historical_segments_k = new TripSegment[lastDaysTimes.size()];
-					for (int i = 0; i < lastDaysTimes.size() && i < maxKalmanDays.getValue(); i++) {
-						VehicleStopDetail destinationDetail = new VehicleStopDetail(null, lastDaysTimes.get(i),
-								vehicle);
-						historical_segments_k[i] = new TripSegment(originDetail, destinationDetail);
-					}
-
-					VehicleStopDetail destinationDetail_0_k_1 = new VehicleStopDetail(null, time, vehicle);
-
-					TripSegment ts_day_0_k_1 = new TripSegment(originDetail, destinationDetail_0_k_1);
-
-					TripSegment last_vehicle_segment = ts_day_0_k_1;
-								
-					Indices previousVehicleIndices = HistoricalPredictionLibrary.getLastVehicleIndices(currentVehicleState, indices);
-					
-					Double last_prediction_error = lastVehiclePredictionError(kalmanErrorCache, previousVehicleIndices);
-					
-					for(int i=0;i<historical_segments_k.length;i++)
-					{
-						logger.debug("Using historical value: " + historical_segments_k[i].getDuration() + " for : "+new KalmanErrorCacheKey(indices).toString());	
-					}
-					
-					logger.debug("Using error value: " + last_prediction_error + " from: "+new KalmanErrorCacheKey(previousVehicleIndices).toString());
-					
-					//TODO this should also display the detail of which vehicle it choose as the last one.
-					logger.debug("Using last vehicle value: " + time + " for : "+ indices.toString());
-					
-					kalmanPredictionResult = kalmanPrediction.predict(last_vehicle_segment, historical_segments_k,
-							last_prediction_error);
-
-					long predictionTime = (long) kalmanPredictionResult.getResult();
-
-					logger.debug("Setting Kalman error value: " + kalmanPredictionResult.getFilterError() + " for : "+ new KalmanErrorCacheKey(indices).toString());
-					
-					kalmanErrorCache.putErrorValue(indices, kalmanPredictionResult.getFilterError());
-
-					logger.debug("Using Kalman prediction: " + predictionTime + " instead of "+alternative+" prediction: "
-							+ super.getTravelTimeForPath(indices, avlReport) +" for : " + indices.toString());
-					
-					if(storeTravelTimeStopPathPredictions.getValue())
-					{
-						PredictionForStopPath predictionForStopPath=new PredictionForStopPath(Calendar.getInstance().getTime(), new Double(new Long(predictionTime).intValue()), indices.getTrip().getId(), indices.getStopPathIndex(), "KALMAN");					
-						Core.getInstance().getDbLogger().add(predictionForStopPath);
-						StopPathPredictionCache.getInstance().putPrediction(predictionForStopPath);
-					}													
-					return predictionTime;
-					
-				} catch (Exception e) {
-					logger.error(e.getMessage(), e);
-				}
+			KalmanBatch batch = new KalmanBatch(1);
+			if (batch.add(0, indices, currentVehicleState, time, nearestDay)) {
+				batch.predict();
+				return batch.storeResult(0, avlReport);
 			}
 		}	
 		return super.getTravelTimeForPath(indices, avlReport);
 	}
 
-	private Double lastVehiclePredictionError(KalmanErrorCache cache, Indices indices) {		
-		Double result = cache.getErrorValue(indices);
-		if(result!=null)
+	/**
+	 * Estimates the stop paths of the run that have enough data for a Kalman
+	 * prediction. The data for all of those stop paths is gathered into
+	 * primitive arrays and then the Kalman filter is run for all of them at
+	 * once, so no objects need to be created for each stop path. Also, unlike
+	 * calling hasDataForPath() and then getTravelTimeForPath(), the last
+	 * vehicle travel time and the historical times are only determined once
+	 * for each stop path.
+	 */
+	@Override
+	public void estimateTimesForPaths(StopPathRun run, AvlReport avlReport) {
+		VehicleState currentVehicleState = VehicleStateManager.getInstance()
+				.getVehicleState(avlReport.getVehicleId());
+		Date nearestDay = DateUtils.truncate(Calendar.getInstance().getTime(), Calendar.DAY_OF_MONTH);
+		KalmanBatch batch = new KalmanBatch(run.size());
+		
+		for (int i = 0; i < run.size(); ++i) {
+			if (run.isEstimated(i))
+				continue;
+			Indices indices = run.getIndices(i);
+			
+			/*
+			 * The first vehicle of the day should use schedule or historic
+			 * data to make prediction. Cannot use Kalman as yesterdays
+			 * vehicle will have little to say about todays.
+			 */
+			long time = HistoricalPredictionLibrary.getLastVehicleTravelTime(currentVehicleState, indices);
+			if (time <= -1)
+				continue;
+			
+			batch.add(i, indices, currentVehicleState, time, nearestDay);
+		}
+		if (batch.size == 0)
+			return;
+		
+		batch.predict();
+		for (int k = 0; k < batch.size; ++k) {
+			Indices indices = batch.indices[k];
+			long predictionTime = batch.storeResult(k, avlReport);
+			run.setTimes(batch.runIndices[k], predictionTime,
+					getStopTimeForPath(indices, avlReport, run.getArrivalTime(batch.runIndices[k])));
+		}
+	}
+	
+	/**
+	 * The inputs and results of the Kalman filter for a batch of stop paths,
+	 * held in primitive arrays so that KalmanFilter can process the whole
+	 * batch in one pass.
+	 */
+	private class KalmanBatch {
+		private final int daysPerPath = minKalmanDays.getValue();
+		private final int maxDays = Math.min(daysPerPath, maxKalmanDays.getValue());
+		private final int[] lastDaysTimes = new int[daysPerPath];
+		
+		private final Indices[] indices;
+		private final int[] runIndices;
+		private final int[] historicalDurations;
+		private final int[] numDays;
+		private final double[] lastVehicleDurations;
+		private final double[] lastPredictionErrors;
+		private final double[] predictions;
+		private final double[] filterErrors;
+		private int size = 0;
+		
+		private KalmanBatch(int maxPaths) {
+			indices = new Indices[maxPaths];
+			runIndices = new int[maxPaths];
+			historicalDurations = new int[maxPaths * daysPerPath];
+			numDays = new int[maxPaths];
+			lastVehicleDurations = new double[maxPaths];
+			lastPredictionErrors = new double[maxPaths];
+			predictions = new double[maxPaths];
+			filterErrors = new double[maxPaths];
+		}
+		
+		/**
+		 * Adds the stop path to the batch if there are enough historical
+		 * travel times for it.
+		 * 
+		 * @param runIndex
+		 *            Which stop path of the StopPathRun, so the result can be
+		 *            matched up with it
+		 * @param stopPathIndices
+		 * @param currentVehicleState
+		 * @param time
+		 *            Travel time of the last vehicle for the stop path
+		 * @param nearestDay
+		 *            Start of the current day
+		 * @return true if added
+		 */
+		private boolean add(int runIndex, Indices stopPathIndices,
+				VehicleState currentVehicleState, long time, Date nearestDay) {
+			int numLastDaysTimes = HistoricalPredictionLibrary.lastDaysTimes(currentVehicleState.getTrip().getId(),
+					stopPathIndices.getStopPathIndex(), nearestDay, maxKalmanDaysToSearch.getValue(), lastDaysTimes);
+			logger.debug("Kalman has " +numLastDaysTimes+ " historical values for : " +stopPathIndices.toString());
+			if (numLastDaysTimes == 0 || numLastDaysTimes < minKalmanDays.getValue().intValue())
+				return false;
+			
+			int n = Math.min(numLastDaysTimes, maxDays);
+			System.arraycopy(lastDaysTimes, 0, historicalDurations, size * daysPerPath, n);
+			
+			Indices previousVehicleIndices = HistoricalPredictionLibrary.getLastVehicleIndices(currentVehicleState, stopPathIndices);
+			
+			if (logger.isDebugEnabled()) {
+				for (int i = 0; i < n; i++)
+				{
+					logger.debug("Using historical value: " + lastDaysTimes[i] + " for : "+new KalmanErrorCacheKey(stopPathIndices).toString());	
+				}
+				
+				//TODO this should also display the detail of which vehicle it choose as the last one.
+				logger.debug("Using last vehicle value: " + time + " for : "+ stopPathIndices.toString());
+			}
+			
+			indices[size] = stopPathIndices;
+			runIndices[size] = runIndex;
+			numDays[size] = n;
+			lastVehicleDurations[size] = time;
+			lastPredictionErrors[size] = lastVehiclePredictionError(previousVehicleIndices);
+			++size;
+			return true;
+		}
+		
+		/**
+		 * Runs the Kalman filter for all the stop paths of the batch
+		 */
+		private void predict() {
+			KalmanFilter.predict(size, historicalDurations, daysPerPath, numDays,
+					lastVehicleDurations, lastPredictionErrors, predictions, filterErrors);
+		}
+		
+		/**
+		 * Stores the filter error for stop path k of the batch in the
+		 * KalmanErrorCache so it can be used for the next vehicle and returns
+		 * the predicted travel time.
+		 * 
+		 * @param k
+		 * @param avlReport
+		 * @return the travel time
+		 */
+		private long storeResult(int k, AvlReport avlReport) {
+			Indices stopPathIndices = indices[k];
+			long predictionTime = (long) predictions[k];
+
+			KalmanErrorCache.getInstance().putErrorValue(stopPathIndices, filterErrors[k]);
+
+			// Determining the alternative prediction just for the log
+			// message is expensive so only do so if it is needed. It is
+			// also needed when storing the stop path predictions so that
+			// the algorithms can be compared.
+			if (logger.isDebugEnabled() || storeTravelTimeStopPathPredictions.getValue()) {
+				logger.debug("Setting Kalman error value: " + filterErrors[k] + " for : "+ new KalmanErrorCacheKey(stopPathIndices).toString());
+
+				logger.debug("Using Kalman prediction: " + predictionTime + " instead of "+alternative+" prediction: "
+						+ KalmanPredictionGeneratorImpl.super.getTravelTimeForPath(stopPathIndices, avlReport) +" for : " + stopPathIndices.toString());
+			}
+			
+			storeTravelTimePrediction(stopPathIndices, predictionTime, "KALMAN");
+			return predictionTime;
+		}
+	}
+
+	private double lastVehiclePredictionError(Indices indices) {
+		if (indices == null) {
+			logger.debug("Kalman Error value set to default: "+initialErrorValue.getValue() +" since no last vehicle indices.");
+			return initialErrorValue.getValue();
+		}
+		
+		double result = KalmanErrorCache.getInstance().getErrorValue(indices.getTrip().getId(),
+				indices.getStopPathIndex(), Double.NaN);
+		if (!Double.isNaN(result))
 		{
-			logger.debug("Kalman Error value : "+result +" for key: "+new KalmanErrorCacheKey(indices).toString());
+			logger.debug("Kalman Error value : {} for key: {}", result, indices);
 		}
 		else
 		{
-			logger.debug("Kalman Error value set to default: "+initialErrorValue.getValue() +" for key: "+new KalmanErrorCacheKey(indices).toString());
+			logger.debug("Kalman Error value set to default: {} for key: {}", initialErrorValue.getValue(), indices);
 			return initialErrorValue.getValue();
 		}
 		return result;
 	}
 
 	@Override
-	public long getStopTimeForPath(Indices indices, AvlReport avlReport) {
+	public long getStopTimeForPath(Indices indices, AvlReport avlReport, long arrivalTime) {
 		// TODO Auto-generated method stub
-		return super.getStopTimeForPath(indices, avlReport);
+		return super.getStopTimeForPath(indices, avlReport, arrivalTime);
 	}
 	
 	@Override
 	public boolean hasDataForPath(Indices indices, AvlReport avlReport) {
 
-		TripDataHistoryCache tripCache = TripDataHistoryCache.getInstance();		
 		VehicleStateManager vehicleStateManager = VehicleStateManager.getInstance();
 		VehicleState currentVehicleState = vehicleStateManager.getVehicleState(avlReport.getVehicleId());		
 	
@@ -202,11 +293,11 @@ public class KalmanPredictionGeneratorImpl extends PredictionGeneratorDefaultImp
 		 */
 		if (time > -1) {
 			Date nearestDay = DateUtils.truncate(Calendar.getInstance().getTime(), Calendar.DAY_OF_MONTH);
-			List<Integer> lastDaysTimes = HistoricalPredictionLibrary.lastDaysTimes(tripCache, currentVehicleState.getTrip().getId(),
-					indices.getStopPathIndex(), nearestDay, currentVehicleState.getTrip().getStartTime(),
-					maxKalmanDaysToSearch.getValue(), minKalmanDays.getValue());
+			int[] lastDaysTimes = new int[minKalmanDays.getValue()];
+			int numLastDaysTimes = HistoricalPredictionLibrary.lastDaysTimes(currentVehicleState.getTrip().getId(),
+					indices.getStopPathIndex(), nearestDay, maxKalmanDaysToSearch.getValue(), lastDaysTimes);
 			
-			return (lastDaysTimes != null && lastDaysTimes.size() >= minKalmanDays.getValue().intValue());
+			return numLastDaysTimes >= minKalmanDays.getValue().intValue();
 		}
 		
 		return false;
@@ -1,8 +1,6 @@
 package org.transitime.core.predictiongenerator.lastvehicle;
 
-import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,13 +12,12 @@ import org.transitime.core.VehicleState;
 import org.transitime.core.dataCache.TripDataHistoryCache;
 import org.transitime.core.dataCache.StopPathCacheKey;
 import org.transitime.core.dataCache.StopPathPredictionCache;
-import org.transitime.core.dataCache.VehicleDataCache;
 import org.transitime.core.dataCache.VehicleStateManager;
 import org.transitime.core.predictiongenerator.HistoricalPredictionLibrary;
 import org.transitime.core.predictiongenerator.PredictionComponentElementsGenerator;
+import org.transitime.core.predictiongenerator.StopPathRun;
 import org.transitime.db.structs.AvlReport;
 import org.transitime.db.structs.PredictionForStopPath;
-import org.transitime.ipc.data.IpcVehicleComplete;
 
 /**
  * @author Sean Og Crudden
@@ -47,24 +44,12 @@ public class LastVehiclePredictionGeneratorImpl extends
 
 		logger.debug("Calling last vehicle algorithm : "+indices.toString());
 		
-		VehicleDataCache vehicleCache = VehicleDataCache.getInstance();
-		
-		List<VehicleState> vehiclesOnRoute = new ArrayList<VehicleState>();
-
 		VehicleStateManager vehicleStateManager = VehicleStateManager
 				.getInstance();
 
 		VehicleState currentVehicleState = vehicleStateManager
 				.getVehicleState(avlReport.getVehicleId());
 
-		if (vehicleCache != null) {
-			for (IpcVehicleComplete vehicle : vehicleCache
-					.getVehiclesForRoute(currentVehicleState.getRouteId())) {
-				VehicleState vehicleOnRouteState = vehicleStateManager
-						.getVehicleState(vehicle.getId());
-				vehiclesOnRoute.add(vehicleOnRouteState);
-			}
-		}
 				
 		long time = 0;
 		if((time = HistoricalPredictionLibrary.getLastVehicleTravelTime(currentVehicleState, indices))>0)
@@ -89,10 +74,34 @@ public class LastVehiclePredictionGeneratorImpl extends
 	}
 	
 	@Override
-	public long getStopTimeForPath(Indices indices, AvlReport avlReport) {
+	public long getStopTimeForPath(Indices indices, AvlReport avlReport, long arrivalTime) {
 		// Looking at last vehicle value would be a bad idea for dwell time, so no implementation here.
 		
-		return super.getStopTimeForPath(indices, avlReport);
+		return super.getStopTimeForPath(indices, avlReport, arrivalTime);
+	}
+	
+	/**
+	 * Estimates the stop paths of the run for which there is last vehicle
+	 * data. Unlike calling hasDataForPath() and then getTravelTimeForPath()
+	 * for each stop path, the last vehicle travel time is only determined
+	 * once per stop path and the vehicle state is only looked up once.
+	 */
+	@Override
+	public void estimateTimesForPaths(StopPathRun run, AvlReport avlReport) {
+		VehicleState currentVehicleState = VehicleStateManager.getInstance()
+				.getVehicleState(avlReport.getVehicleId());
+		for (int i = 0; i < run.size(); ++i) {
+			if (run.isEstimated(i))
+				continue;
+			Indices indices = run.getIndices(i);
+			
+			long time = HistoricalPredictionLibrary.getLastVehicleTravelTime(currentVehicleState, indices);
+			if (time <= 0)
+				continue;
+			
+			storeTravelTimePrediction(indices, new Long(time).intValue(), "LAST VEHICLE");
+			run.setTimes(i, time, getStopTimeForPath(indices, avlReport, run.getArrivalTime(i)));
+		}
 	}
 	
 	@Override
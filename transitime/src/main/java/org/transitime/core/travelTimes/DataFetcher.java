@@ -29,6 +29,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.config.BooleanConfigValue;
 import org.transitime.config.IntegerConfigValue;
+import org.transitime.db.archive.DataArchive;
 import org.transitime.db.structs.ActiveRevisions;
 import org.transitime.db.structs.Agency;
 import org.transitime.db.structs.ArrivalDeparture;
@@ -248,6 +249,14 @@ public class DataFetcher {
 		Map<DbDataMapKey, List<ArrivalDeparture>> resultsMap = 
 				new HashMap<DbDataMapKey, List<ArrivalDeparture>>();
 		
+		// Older data might have been moved from the db to the archive.
+		// Archived data is older than what is in the db so adding it first
+		// keeps the lists in time order.
+		for (ArrivalDeparture arrDep : 
+				DataArchive.getArrivalsDepartures(beginTime, endTime)) {
+			addArrivalDepartureToMap(resultsMap, arrDep);
+		}
+		
 		// For keeping track of which rows should be returned by the batch.
 		int firstResult = 0;
 		// Batch size of 50k found to be significantly faster than 10k,
@@ -353,6 +362,12 @@ public class DataFetcher {
 		Map<DbDataMapKey, List<Match>> resultsMap = 
 				new HashMap<DbDataMapKey, List<Match>>();
 		
+		// Older matches might have been moved from the db to the archive
+		for (Match match : DataArchive.getMatches(beginTime, endTime)) {
+			if (!match.isAtStop())
+				addMatchToMap(resultsMap, match);
+		}
+		
 		// For keeping track of which rows should be returned by the batch.
 		int firstResult = 0;
 		// Batch size of 50k found to be significantly faster than 10k,
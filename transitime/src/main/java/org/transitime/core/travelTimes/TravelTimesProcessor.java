@@ -37,7 +37,7 @@ import org.transitime.db.structs.ArrivalDeparture;
 import org.transitime.db.structs.Match;
 import org.transitime.db.structs.StopPath;
 import org.transitime.db.structs.Trip;
-import org.transitime.monitoring.CloudwatchService;
+import org.transitime.monitoring.metrics.MetricsRegistry;
 import org.transitime.statistics.Statistics;
 import org.transitime.utils.Geo;
 import org.transitime.utils.IntervalTimer;
@@ -159,8 +159,6 @@ public class TravelTimesProcessor {
 	private static final Logger logger = 
 			LoggerFactory.getLogger(TravelTimesProcessor.class);
 
-	private CloudwatchService cloudwatchService;
-
   private boolean isEmpty = true;
 	
   public boolean isEmpty() {
@@ -168,7 +166,6 @@ public class TravelTimesProcessor {
   }
   
 	public TravelTimesProcessor() {
-    cloudwatchService = CloudwatchService.getInstance();
 	}
 	
 	/********************** Member Functions **************************/
@@ -1054,22 +1051,22 @@ public class TravelTimesProcessor {
 	
 	 public Long updateMetrics(Session session, int travelTimesRev) {
 	   Long count = Trip.countTravelTimesForTrips(session, travelTimesRev);
-	   cloudwatchService.saveMetric("PredictionLatestTravelTimeRev", travelTimesRev*1.0, 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
-	   if (count != null) {
-	     cloudwatchService.saveMetric("PredictionTravelTimesForTripsCount", count*1.0, 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
-	   } else {
-	     cloudwatchService.saveMetric("PredictionTravelTimesForTripsCount", -1.0, 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
-	   }
+	   MetricsRegistry metrics = MetricsRegistry.getInstance();
+	   metrics.gauge("PredictionLatestTravelTimeRev").set(travelTimesRev);
+	   metrics.gauge("PredictionTravelTimesForTripsCount").set(
+	       count != null ? count : -1.0);
+	   metrics.exportNow();
 	   return count;
 	  }
 
 
-	// cloudwatch reporting/monitoring
+	// metrics reporting/monitoring
   private void reportStatus(int setSize, int matched, int unmatched, int invalid) {
-    cloudwatchService.saveMetric("TravelTimeTotal", setSize * 1.0 , 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
-    cloudwatchService.saveMetric("TravelTimeMatched", matched * 1.0 , 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
-    cloudwatchService.saveMetric("TravelTimeUnmatched", unmatched * 1.0 , 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
-    cloudwatchService.saveMetric("TravelTimeInvalid", invalid * 1.0 , 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
+    MetricsRegistry metrics = MetricsRegistry.getInstance();
+    metrics.gauge("TravelTimeTotal").set(setSize);
+    metrics.gauge("TravelTimeMatched").set(matched);
+    metrics.gauge("TravelTimeUnmatched").set(unmatched);
+    metrics.gauge("TravelTimeInvalid").set(invalid);
 
   }
 
@@ -20,7 +20,9 @@ import org.transitime.config.IntegerConfigValue;
 import org.transitime.config.StringConfigValue;
 import org.transitime.core.AvlProcessor;
 import org.transitime.modules.Module;
-import org.transitime.monitoring.CloudwatchService;
+import org.transitime.monitoring.metrics.Gauge;
+import org.transitime.monitoring.metrics.Histogram;
+import org.transitime.monitoring.metrics.MetricsRegistry;
 import org.transitime.utils.threading.BoundedExecutor;
 import org.transitime.utils.threading.NamedThreadFactory;
 
@@ -51,7 +53,16 @@ public class AvlSqsClientModule extends Module {
   private ArrayBlockingQueue<Message> _deserializeQueue;
   private ArrayBlockingQueue<Message> _acknowledgeQueue;
   private ArrayBlockingQueue<Message> _archiveQueue;
-  private CloudwatchService monitoring;
+  private static final MetricsRegistry metrics = MetricsRegistry.getInstance();
+  private static final Histogram totalLatencyMetric = metrics.histogram("PredictionTotalQueueLatencyInMillis");
+  private static final Histogram sqsLatencyMetric = metrics.histogram("PredictionSQSQueueLatencyInMillis");
+  private static final Histogram avlLatencyMetric = metrics.histogram("PredictionAvlQueueLatencyInMillis");
+  private static final Histogram forwarderProcessingLatencyMetric = metrics.histogram("PredictionForwarderProcessingLatencyInMillis");
+  private static final Histogram forwarderSendLatencyMetric = metrics.histogram("PredictionForwarderSendLatencyInMillis");
+  private static final Gauge receiveQueueSizeMetric = metrics.gauge("PredictionReceiveQueueSize");
+  private static final Gauge deserializeQueueSizeMetric = metrics.gauge("PredictionDeserializeQueueSize");
+  private static final Gauge ackQueueSizeMetric = metrics.gauge("PredictionAckQueueSize");
+  private static final Gauge archiveQueueSizeMetric = metrics.gauge("PredictionArchiveQueueSize");
   
   private final static int MAX_THREADS = 100;
 
@@ -114,7 +125,6 @@ public class AvlSqsClientModule extends Module {
   
     public AvlSqsClientModule(String agencyId) throws Exception {
       super(agencyId);
-      monitoring = CloudwatchService.getInstance();
       logger.info("loading AWS SQS credentials from environment");
       _sqsCredentials = new BasicAWSCredentials(sqsKey.getValue(), sqsSecret.getValue());
       connect();
@@ -330,19 +340,19 @@ public class AvlSqsClientModule extends Module {
                 recordCount++;
                 if (avlReport != null) {
                   if (avlReport.getTotalLatency() != null) {
-                    monitoring.saveMetric("PredictionTotalQueueLatencyInMillis", new Double(avlReport.getTotalLatency()), 1, CloudwatchService.MetricType.AVERAGE, CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
+                    totalLatencyMetric.record(avlReport.getTotalLatency());
                   }
                   if (avlReport.getSqsLatency() != null) {
-                    monitoring.saveMetric("PredictionSQSQueueLatencyInMillis", new Double(avlReport.getSqsLatency()), 1, CloudwatchService.MetricType.AVERAGE, CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
+                    sqsLatencyMetric.record(avlReport.getSqsLatency());
                   }
                   if (avlReport.getAvlLatency() != null) {
-                    monitoring.saveMetric("PredictionAvlQueueLatencyInMillis", new Double(avlReport.getAvlLatency()), 1, CloudwatchService.MetricType.AVERAGE, CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
+                    avlLatencyMetric.record(avlReport.getAvlLatency());
                   }
                   if (avlReport.getForwarderProcessingLatency() != null) {
-                    monitoring.saveMetric("PredictionForwarderProcessingLatencyInMillis", new Double(avlReport.getForwarderProcessingLatency()), 1, CloudwatchService.MetricType.AVERAGE, CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
+                    forwarderProcessingLatencyMetric.record(avlReport.getForwarderProcessingLatency());
                   }
                   if (avlReport.getForwarderSendLatency() != null) {
-                    monitoring.saveMetric("PredictionForwarderSendLatencyInMillis", new Double(avlReport.getForwarderSendLatency()), 1, CloudwatchService.MetricType.AVERAGE, CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
+                    forwarderSendLatencyMetric.record(avlReport.getForwarderSendLatency());
                   }
                 }
                   
@@ -444,10 +454,10 @@ public class AvlSqsClientModule extends Module {
                 _acknowledgeQueue.size(),
                 _archiveQueue.size());
             // lastAvlReportTime is already reported as LatestAvlReportAgeInSeconds
-            monitoring.saveMetric("PredictionReceiveQueueSize", new Double(_receiveQueue.size()), 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
-            monitoring.saveMetric("PredictionDeserializeQueueSize", new Double(_deserializeQueue.size()), 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
-            monitoring.saveMetric("PredictionAckQueueSize", new Double(_acknowledgeQueue.size()), 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
-            monitoring.saveMetric("PredictionArchiveQueueSize", new Double(_archiveQueue.size()), 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
+            receiveQueueSizeMetric.set(_receiveQueue.size());
+            deserializeQueueSizeMetric.set(_deserializeQueue.size());
+            ackQueueSizeMetric.set(_acknowledgeQueue.size());
+            archiveQueueSizeMetric.set(_archiveQueue.size());
             Thread.sleep(STATUS_FREQUENCY_SECONDS * 1000);
           } catch (Exception any) {
             logger.error("exception with status: ", any);
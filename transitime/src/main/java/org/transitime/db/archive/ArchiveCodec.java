@@ -0,0 +1,517 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.db.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.Embeddable;
+import javax.persistence.Transient;
+
+import org.hibernate.classic.Lifecycle;
+
+/**
+ * Converts database objects, such as AvlReports, to and from columns for the
+ * columnar archive files. The columns are determined via reflection from the
+ * persisted fields of the class, the same fields that Hibernate stores, so
+ * that a codec doesn't need to be written and maintained for each class.
+ * Embedded objects such as Location are flattened into a column per member.
+ * The concrete class of each object is stored in a column as well so that
+ * subclasses, such as Arrival and Departure, are recreated properly.
+ * <p>
+ * Each column of a block is encoded separately:
+ * <ul>
+ * <li>longs and Dates as zigzag varint deltas from the previous value, which
+ * makes times very compact</li>
+ * <li>ints, shorts and enums (by ordinal) as zigzag varints</li>
+ * <li>Strings via a dictionary per block since ids such as vehicleId and
+ * routeId repeat heavily</li>
+ * <li>floats, doubles and booleans as is</li>
+ * </ul>
+ * Nullable columns are preceded by a bitmap of which values are null.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class ArchiveCodec<T> {
+
+	// Name of the column that contains the concrete class of each object
+	private static final String CLASS_COLUMN = "_class";
+
+	public enum ColumnType {
+		LONG, INT, FLOAT, DOUBLE, BOOLEAN, STRING
+	}
+
+	private final Class<T> baseClass;
+	private final Field timeField;
+
+	// Columns keyed by name, in the order they are written
+	private final Map<String, Column> columns =
+			new LinkedHashMap<String, Column>();
+
+	// So don't have to look up constructors each time an object is created
+	private final Map<String, Constructor<?>> constructors =
+			new HashMap<String, Constructor<?>>();
+
+	/********************** Internal Classes **************************/
+
+	/**
+	 * A column of the archive. Path is the chain of fields from the object
+	 * to the value, which is longer than one for embedded objects.
+	 */
+	private static class Column {
+		private final String name;
+		private final ColumnType type;
+		private final Field[] path;
+		private final boolean nullable;
+		private final Class<?> valueClass;
+
+		private Column(String name, ColumnType type, Field[] path,
+				Class<?> valueClass) {
+			this.name = name;
+			this.type = type;
+			this.path = path;
+			this.valueClass = valueClass;
+			this.nullable = path.length > 0 && !valueClass.isPrimitive();
+		}
+	}
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param baseClass
+	 *            The class, such as ArrivalDeparture, whose persisted fields
+	 *            make up the columns
+	 * @param timeFieldName
+	 *            Name of the Date field that the archive is ordered and
+	 *            indexed by
+	 */
+	public ArchiveCodec(Class<T> baseClass, String timeFieldName) {
+		this.baseClass = baseClass;
+		columns.put(CLASS_COLUMN, new Column(CLASS_COLUMN, ColumnType.STRING,
+				new Field[0], String.class));
+		addColumns(baseClass, "", new Field[0]);
+
+		Column timeColumn = columns.get(timeFieldName);
+		if (timeColumn == null || timeColumn.valueClass != Date.class)
+			throw new IllegalArgumentException("Class "
+					+ baseClass.getName() + " does not have a Date field "
+					+ timeFieldName);
+		this.timeField = timeColumn.path[0];
+	}
+
+	/**
+	 * Adds the columns for the persisted fields of the class and its
+	 * superclasses.
+	 *
+	 * @param clazz
+	 * @param prefix
+	 *            For embedded objects the name of the embedding field
+	 *            followed by "."
+	 * @param parentPath
+	 */
+	private void addColumns(Class<?> clazz, String prefix, Field[] parentPath) {
+		// Superclass fields first
+		if (clazz.getSuperclass() != null
+				&& clazz.getSuperclass() != Object.class)
+			addColumns(clazz.getSuperclass(), prefix, parentPath);
+
+		for (Field field : clazz.getDeclaredFields()) {
+			int modifiers = field.getModifiers();
+			if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)
+					|| field.isAnnotationPresent(Transient.class))
+				continue;
+			field.setAccessible(true);
+
+			Field[] path = new Field[parentPath.length + 1];
+			System.arraycopy(parentPath, 0, path, 0, parentPath.length);
+			path[parentPath.length] = field;
+			String name = prefix + field.getName();
+
+			Class<?> type = field.getType();
+			if (type.isAnnotationPresent(Embeddable.class)) {
+				addColumns(type, name + ".", path);
+				continue;
+			}
+
+			ColumnType columnType = columnType(type);
+			if (columnType == null)
+				throw new IllegalArgumentException("Field " + name
+						+ " of type " + type.getName() + " in class "
+						+ clazz.getName() + " cannot be archived");
+			columns.put(name, new Column(name, columnType, path, type));
+		}
+	}
+
+	/**
+	 * @param type
+	 * @return the column type to use for the Java type, or null if not
+	 *         supported
+	 */
+	private static ColumnType columnType(Class<?> type) {
+		if (type == long.class || type == Long.class || type == Date.class)
+			return ColumnType.LONG;
+		if (type == int.class || type == Integer.class || type == short.class
+				|| type == Short.class || type.isEnum())
+			return ColumnType.INT;
+		if (type == float.class || type == Float.class)
+			return ColumnType.FLOAT;
+		if (type == double.class || type == Double.class)
+			return ColumnType.DOUBLE;
+		if (type == boolean.class || type == Boolean.class)
+			return ColumnType.BOOLEAN;
+		if (type == String.class)
+			return ColumnType.STRING;
+		return null;
+	}
+
+	public Class<T> getBaseClass() {
+		return baseClass;
+	}
+
+	/**
+	 * @return names of the columns, in the order they are written
+	 */
+	public List<String> getColumnNames() {
+		return new ArrayList<String>(columns.keySet());
+	}
+
+	/**
+	 * @param name
+	 * @return type of the named column
+	 */
+	public ColumnType getColumnType(String name) {
+		return columns.get(name).type;
+	}
+
+	/**
+	 * @param record
+	 * @return the epoch time of the record that the archive is indexed by
+	 */
+	public long getTime(T record) {
+		try {
+			return ((Date) timeField.get(record)).getTime();
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Gets the value for the column from the record
+	 */
+	private static Object getValue(Column column, Object record)
+			throws IllegalAccessException {
+		if (column.path.length == 0)
+			return record.getClass().getName();
+
+		Object value = record;
+		for (Field field : column.path) {
+			value = field.get(value);
+			if (value == null)
+				return null;
+		}
+		if (value instanceof Date)
+			return ((Date) value).getTime();
+		if (value instanceof Enum)
+			return ((Enum<?>) value).ordinal();
+		if (value instanceof Short)
+			return ((Short) value).intValue();
+		return value;
+	}
+
+	/**
+	 * Sets the value for the column in the record, creating embedded objects
+	 * as needed.
+	 */
+	private void setValue(Column column, Object record, Object value)
+			throws ReflectiveOperationException {
+		Object target = record;
+		for (int i = 0; i < column.path.length - 1; ++i) {
+			Field field = column.path[i];
+			Object embedded = field.get(target);
+			if (embedded == null) {
+				embedded = newInstance(field.getType().getName());
+				field.set(target, embedded);
+			}
+			target = embedded;
+		}
+
+		if (value == null) {
+			// Primitives keep their default value
+			if (column.valueClass.isPrimitive())
+				return;
+		} else if (column.valueClass == Date.class) {
+			value = new Date((Long) value);
+		} else if (column.valueClass.isEnum()) {
+			value = column.valueClass.getEnumConstants()[(Integer) value];
+		} else if (column.valueClass == short.class
+				|| column.valueClass == Short.class) {
+			value = ((Integer) value).shortValue();
+		}
+		column.path[column.path.length - 1].set(target, value);
+	}
+
+	/**
+	 * Creates an object using the no-arg constructor that Hibernate also
+	 * uses, even if it is private.
+	 */
+	private Object newInstance(String className)
+			throws ReflectiveOperationException {
+		Constructor<?> constructor;
+		synchronized (constructors) {
+			constructor = constructors.get(className);
+			if (constructor == null) {
+				constructor = Class.forName(className).getDeclaredConstructor();
+				constructor.setAccessible(true);
+				constructors.put(className, constructor);
+			}
+		}
+		return constructor.newInstance();
+	}
+
+	/********************** Encoding **************************/
+
+	private static void writeVarLong(DataOutputStream out, long value)
+			throws IOException {
+		// Zigzag encode so that small negative values are small too
+		long v = (value << 1) ^ (value >> 63);
+		while ((v & ~0x7FL) != 0) {
+			out.writeByte((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.writeByte((int) v);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long v = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.readUnsignedByte();
+			v |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	/**
+	 * Encodes the values of a column for a block of records.
+	 *
+	 * @param name
+	 *            Name of the column
+	 * @param records
+	 * @return the encoded, but not yet compressed, column
+	 * @throws IOException
+	 */
+	public byte[] encodeColumn(String name, List<T> records)
+			throws IOException {
+		Column column = columns.get(name);
+		int numRows = records.size();
+		Object[] values = new Object[numRows];
+		try {
+			for (int i = 0; i < numRows; ++i)
+				values[i] = getValue(column, records.get(i));
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		// The null bitmap
+		if (column.nullable) {
+			byte[] nulls = new byte[(numRows + 7) / 8];
+			for (int i = 0; i < numRows; ++i)
+				if (values[i] == null)
+					nulls[i / 8] |= 1 << (i % 8);
+			out.write(nulls);
+		}
+
+		switch (column.type) {
+		case LONG:
+			long previous = 0;
+			for (Object value : values) {
+				if (value == null)
+					continue;
+				long l = (Long) value;
+				writeVarLong(out, l - previous);
+				previous = l;
+			}
+			break;
+		case INT:
+			for (Object value : values)
+				if (value != null)
+					writeVarLong(out, (Integer) value);
+			break;
+		case FLOAT:
+			for (Object value : values)
+				if (value != null)
+					out.writeFloat((Float) value);
+			break;
+		case DOUBLE:
+			for (Object value : values)
+				if (value != null)
+					out.writeDouble((Double) value);
+			break;
+		case BOOLEAN:
+			for (Object value : values)
+				if (value != null)
+					out.writeBoolean((Boolean) value);
+			break;
+		case STRING:
+			Map<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+			for (Object value : values)
+				if (value != null && !dictionary.containsKey(value))
+					dictionary.put((String) value, dictionary.size());
+			writeVarLong(out, dictionary.size());
+			for (String s : dictionary.keySet())
+				out.writeUTF(s);
+			for (Object value : values)
+				if (value != null)
+					writeVarLong(out, dictionary.get(value));
+			break;
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes a column that was encoded by encodeColumn().
+	 *
+	 * @param type
+	 *            Type of the column as recorded in the archive file
+	 * @param nullable
+	 * @param in
+	 * @param numRows
+	 * @return the values of the column
+	 * @throws IOException
+	 */
+	static Object[] decodeColumn(ColumnType type, boolean nullable,
+			DataInputStream in, int numRows) throws IOException {
+		boolean[] isNull = new boolean[numRows];
+		if (nullable) {
+			byte[] nulls = new byte[(numRows + 7) / 8];
+			in.readFully(nulls);
+			for (int i = 0; i < numRows; ++i)
+				isNull[i] = (nulls[i / 8] & (1 << (i % 8))) != 0;
+		}
+
+		Object[] values = new Object[numRows];
+		switch (type) {
+		case LONG:
+			long previous = 0;
+			for (int i = 0; i < numRows; ++i) {
+				if (isNull[i])
+					continue;
+				previous += readVarLong(in);
+				values[i] = previous;
+			}
+			break;
+		case INT:
+			for (int i = 0; i < numRows; ++i)
+				if (!isNull[i])
+					values[i] = (int) readVarLong(in);
+			break;
+		case FLOAT:
+			for (int i = 0; i < numRows; ++i)
+				if (!isNull[i])
+					values[i] = in.readFloat();
+			break;
+		case DOUBLE:
+			for (int i = 0; i < numRows; ++i)
+				if (!isNull[i])
+					values[i] = in.readDouble();
+			break;
+		case BOOLEAN:
+			for (int i = 0; i < numRows; ++i)
+				if (!isNull[i])
+					values[i] = in.readBoolean();
+			break;
+		case STRING:
+			int dictionarySize = (int) readVarLong(in);
+			String[] dictionary = new String[dictionarySize];
+			for (int i = 0; i < dictionarySize; ++i)
+				dictionary[i] = in.readUTF().intern();
+			for (int i = 0; i < numRows; ++i)
+				if (!isNull[i])
+					values[i] = dictionary[(int) readVarLong(in)];
+			break;
+		}
+		return values;
+	}
+
+	/**
+	 * @param name
+	 * @return true if the named column has a null bitmap
+	 */
+	public boolean isNullable(String name) {
+		return columns.get(name).nullable;
+	}
+
+	/**
+	 * Creates the records from decoded columns. Columns that are not part of
+	 * the class anymore are ignored and fields that didn't exist when the
+	 * archive was written keep their default values, so that archives
+	 * remain readable as the classes evolve.
+	 *
+	 * @param columnValues
+	 *            Decoded values keyed by column name
+	 * @param numRows
+	 * @return the records
+	 */
+	public List<T> createRecords(Map<String, Object[]> columnValues,
+			int numRows) {
+		Object[] classNames = columnValues.get(CLASS_COLUMN);
+		if (classNames == null)
+			return Collections.emptyList();
+
+		List<T> records = new ArrayList<T>(numRows);
+		try {
+			for (int i = 0; i < numRows; ++i) {
+				Object record = newInstance((String) classNames[i]);
+				for (Map.Entry<String, Object[]> entry : columnValues.entrySet()) {
+					Column column = columns.get(entry.getKey());
+					if (column == null || column.path.length == 0)
+						continue;
+					setValue(column, record, entry.getValue()[i]);
+				}
+				// Same callback that Hibernate does, such as for interning
+				// strings
+				if (record instanceof Lifecycle)
+					((Lifecycle) record).onLoad(null, null);
+				records.add(baseClass.cast(record));
+			}
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Could not create "
+					+ baseClass.getName() + " from archive", e);
+		}
+		return records;
+	}
+}
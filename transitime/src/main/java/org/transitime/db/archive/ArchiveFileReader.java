@@ -0,0 +1,287 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.db.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.transitime.db.archive.ArchiveCodec.ColumnType;
+
+/**
+ * Reads a columnar archive file written by ArchiveFileWriter. The file is
+ * memory mapped so only the pages for the index and for the blocks that
+ * overlap the requested time range are actually read from disk, and the OS
+ * page cache is shared between readers. Reads are thread safe.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class ArchiveFileReader<T> {
+
+	private final File file;
+	private final ArchiveCodec<T> codec;
+	private final MappedByteBuffer buffer;
+
+	// Columns as written in the file, which might differ from the current
+	// columns of the codec if the class has changed
+	private final String[] columnNames;
+	private final ColumnType[] columnTypes;
+	private final boolean[] columnNullable;
+
+	// Block index
+	private final long[] blockMinTimes;
+	private final long[] blockMaxTimes;
+	private final int[] blockOffsets;
+	private final int[] blockNumRows;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Maps the file and reads the header and block index.
+	 *
+	 * @param file
+	 * @param codec
+	 * @throws IOException
+	 *             If file could not be read or is not a valid archive
+	 */
+	public ArchiveFileReader(File file, ArchiveCodec<T> codec)
+			throws IOException {
+		this.file = file;
+		this.codec = codec;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Archive file " + file
+						+ " is too large to map");
+			// The mapping stays valid after the file is closed
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		} finally {
+			raf.close();
+		}
+
+		int length = buffer.capacity();
+		if (length < 16 || buffer.getInt(0) != ArchiveFileWriter.MAGIC
+				|| buffer.getInt(length - 4) != ArchiveFileWriter.MAGIC)
+			throw new IOException("File " + file + " is not a valid archive");
+
+		// Header
+		DataInputStream header = new DataInputStream(new ByteBufferInputStream(
+				slice(0, (int) buffer.getLong(length - 12))));
+		header.readInt();
+		short version = header.readShort();
+		if (version != ArchiveFileWriter.VERSION)
+			throw new IOException("Archive " + file + " has unsupported "
+					+ "version " + version);
+		String className = header.readUTF();
+		if (!className.equals(codec.getBaseClass().getName()))
+			throw new IOException("Archive " + file + " is for " + className
+					+ " instead of " + codec.getBaseClass().getName());
+		int numColumns = header.readInt();
+		columnNames = new String[numColumns];
+		columnTypes = new ColumnType[numColumns];
+		columnNullable = new boolean[numColumns];
+		for (int i = 0; i < numColumns; ++i) {
+			columnNames[i] = header.readUTF();
+			columnTypes[i] = ColumnType.values()[header.readByte()];
+			columnNullable[i] = header.readBoolean();
+		}
+
+		// Index
+		int indexOffset = (int) buffer.getLong(length - 12);
+		int numBlocks = buffer.getInt(indexOffset);
+		blockMinTimes = new long[numBlocks];
+		blockMaxTimes = new long[numBlocks];
+		blockOffsets = new int[numBlocks];
+		blockNumRows = new int[numBlocks];
+		int position = indexOffset + 4;
+		for (int i = 0; i < numBlocks; ++i) {
+			blockMinTimes[i] = buffer.getLong(position);
+			blockMaxTimes[i] = buffer.getLong(position + 8);
+			blockOffsets[i] = (int) buffer.getLong(position + 16);
+			blockNumRows[i] = buffer.getInt(position + 24);
+			position += 28;
+		}
+	}
+
+	/**
+	 * @return a view of part of the mapped file, independent of the position
+	 *         of other views so that reads are thread safe
+	 */
+	private ByteBuffer slice(int offset, int length) {
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset);
+		view.limit(offset + length);
+		return view.slice();
+	}
+
+	/**
+	 * @return the time of the earliest record, or Long.MAX_VALUE if empty
+	 */
+	public long getMinTime() {
+		return blockMinTimes.length > 0 ? blockMinTimes[0] : Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return the time of the latest record, or Long.MIN_VALUE if empty
+	 */
+	public long getMaxTime() {
+		return blockMaxTimes.length > 0 ?
+				blockMaxTimes[blockMaxTimes.length - 1] : Long.MIN_VALUE;
+	}
+
+	/**
+	 * @return the total number of records in the file
+	 */
+	public int getNumRows() {
+		int numRows = 0;
+		for (int n : blockNumRows)
+			numRows += n;
+		return numRows;
+	}
+
+	/**
+	 * Reads the records whose time is within the range. Only the blocks that
+	 * overlap the range are decompressed.
+	 *
+	 * @param beginTime
+	 *            Inclusive
+	 * @param endTime
+	 *            Exclusive
+	 * @return the records, in time order
+	 * @throws IOException
+	 */
+	public List<T> read(long beginTime, long endTime) throws IOException {
+		List<T> results = new ArrayList<T>();
+		for (int i = 0; i < blockOffsets.length; ++i) {
+			if (blockMaxTimes[i] < beginTime || blockMinTimes[i] >= endTime)
+				continue;
+			for (T record : readBlock(i)) {
+				long time = codec.getTime(record);
+				if (time >= beginTime && time < endTime)
+					results.add(record);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Decompresses and decodes all the columns of a block
+	 *
+	 * @param blockIndex
+	 * @return the records of the block
+	 * @throws IOException
+	 */
+	private List<T> readBlock(int blockIndex) throws IOException {
+		int numRows = blockNumRows[blockIndex];
+		int position = blockOffsets[blockIndex] + 4;
+		Map<String, Object[]> columnValues =
+				new LinkedHashMap<String, Object[]>();
+		Inflater inflater = new Inflater();
+		try {
+			for (int c = 0; c < columnNames.length; ++c) {
+				int rawLength = buffer.getInt(position);
+				int compressedLength = buffer.getInt(position + 4);
+				position += 8;
+				if (rawLength < 0 || compressedLength < 0
+						|| compressedLength > buffer.capacity() - position)
+					throw new IOException("Corrupt block " + blockIndex
+							+ " in archive " + file + ". Column "
+							+ columnNames[c] + " has invalid lengths.");
+
+				// Inflater needs an array so copy the compressed bytes out of
+				// the mapped buffer
+				byte[] compressed = new byte[compressedLength];
+				slice(position, compressedLength).get(compressed);
+				position += compressedLength;
+
+				byte[] raw = new byte[rawLength];
+				inflater.reset();
+				inflater.setInput(compressed);
+				int n = 0;
+				while (n < rawLength && !inflater.finished()) {
+					int inflated = inflater.inflate(raw, n, rawLength - n);
+					// If no progress can be made then the compressed data
+					// is truncated or not what was written
+					if (inflated == 0 && (inflater.needsInput()
+							|| inflater.needsDictionary()))
+						throw new IOException("Corrupt block " + blockIndex
+								+ " in archive " + file + ". Column "
+								+ columnNames[c] + " is truncated.");
+					n += inflated;
+				}
+				if (n != rawLength)
+					throw new IOException("Corrupt block " + blockIndex
+							+ " in archive " + file + ". Column "
+							+ columnNames[c] + " has " + n + " bytes "
+							+ "instead of " + rawLength + ".");
+
+				columnValues.put(columnNames[c], ArchiveCodec.decodeColumn(
+						columnTypes[c], columnNullable[c],
+						new DataInputStream(new ByteArrayInputStream(raw)),
+						numRows));
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupt block " + blockIndex
+					+ " in archive " + file, e);
+		} finally {
+			inflater.end();
+		}
+		return codec.createRecords(columnValues, numRows);
+	}
+
+	/**
+	 * For reading the header via a DataInputStream
+	 */
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		private ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (!buffer.hasRemaining())
+				return -1;
+			int n = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, n);
+			return n;
+		}
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.db.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes records to a columnar archive file. Records are buffered into
+ * blocks and each column of a block is encoded and compressed separately.
+ * After the blocks comes an index with the time range of each block so that
+ * a reader only needs to decompress the blocks for the requested time.
+ * <p>
+ * The file is written to a temporary file and only renamed to the final name
+ * when closed so that a partially written file is never read.
+ * <p>
+ * File layout, all numbers big endian:
+ *
+ * <pre>
+ * int magic, short version, UTF class name
+ * int numColumns, then for each column UTF name, byte type, boolean nullable
+ * blocks, each: int numRows, then for each column
+ *     int rawLength, int compressedLength, compressed bytes
+ * index: int numBlocks, then for each block
+ *     long minTime, long maxTime, long offset, int numRows
+ * long indexOffset, int magic
+ * </pre>
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class ArchiveFileWriter<T> implements Closeable {
+
+	static final int MAGIC = 0x54434F4C; // "TCOL"
+	static final short VERSION = 1;
+
+	private final File file;
+	private final File tempFile;
+	private final ArchiveCodec<T> codec;
+	private final int rowsPerBlock;
+	private final DataOutputStream out;
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+	private final List<T> block;
+	private final List<long[]> index = new ArrayList<long[]>();
+	private long offset = 0;
+	private int numRows = 0;
+	private long lastTime = Long.MIN_VALUE;
+	private boolean closed = false;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Creates the writer and writes the file header.
+	 *
+	 * @param file
+	 *            The final name of the file
+	 * @param codec
+	 * @param rowsPerBlock
+	 * @throws IOException
+	 */
+	public ArchiveFileWriter(File file, ArchiveCodec<T> codec, int rowsPerBlock)
+			throws IOException {
+		this.file = file;
+		this.tempFile = new File(file.getPath() + ".tmp");
+		this.codec = codec;
+		this.rowsPerBlock = rowsPerBlock;
+		this.block = new ArrayList<T>(rowsPerBlock);
+
+		File dir = file.getParentFile();
+		if (dir != null && !dir.exists() && !dir.mkdirs())
+			throw new IOException("Could not create directory " + dir);
+		this.out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tempFile), 1 << 16));
+
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeUTF(codec.getBaseClass().getName());
+		List<String> columnNames = codec.getColumnNames();
+		out.writeInt(columnNames.size());
+		for (String name : columnNames) {
+			out.writeUTF(name);
+			out.writeByte(codec.getColumnType(name).ordinal());
+			out.writeBoolean(codec.isNullable(name));
+		}
+		offset = out.size();
+	}
+
+	/**
+	 * Adds a record to the archive. Records must be added in time order.
+	 *
+	 * @param record
+	 * @throws IOException
+	 */
+	public void add(T record) throws IOException {
+		long time = codec.getTime(record);
+		if (time < lastTime)
+			throw new IllegalArgumentException("Records must be added to "
+					+ "archive " + file + " in time order");
+		lastTime = time;
+
+		block.add(record);
+		++numRows;
+		if (block.size() >= rowsPerBlock)
+			writeBlock();
+	}
+
+	/**
+	 * @return number of records added so far
+	 */
+	public int getNumRows() {
+		return numRows;
+	}
+
+	/**
+	 * Encodes, compresses and writes the buffered records as a block
+	 *
+	 * @throws IOException
+	 */
+	private void writeBlock() throws IOException {
+		if (block.isEmpty())
+			return;
+
+		long blockOffset = offset;
+		out.writeInt(block.size());
+		offset += 4;
+
+		byte[] buffer = new byte[1 << 16];
+		for (String name : codec.getColumnNames()) {
+			byte[] raw = codec.encodeColumn(name, block);
+			deflater.reset();
+			deflater.setInput(raw);
+			deflater.finish();
+			ByteArrayOutputStream compressed =
+					new ByteArrayOutputStream(raw.length / 2 + 16);
+			while (!deflater.finished()) {
+				int n = deflater.deflate(buffer);
+				compressed.write(buffer, 0, n);
+			}
+			out.writeInt(raw.length);
+			out.writeInt(compressed.size());
+			compressed.writeTo(out);
+			offset += 8 + compressed.size();
+		}
+
+		// Records are in time order so first and last give the range
+		index.add(new long[] { codec.getTime(block.get(0)),
+				codec.getTime(block.get(block.size() - 1)), blockOffset,
+				block.size() });
+		block.clear();
+	}
+
+	/**
+	 * Writes the remaining records and the index and then renames the file to
+	 * its final name.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			writeBlock();
+
+			long indexOffset = offset;
+			out.writeInt(index.size());
+			for (long[] entry : index) {
+				out.writeLong(entry[0]);
+				out.writeLong(entry[1]);
+				out.writeLong(entry[2]);
+				out.writeInt((int) entry[3]);
+			}
+			out.writeLong(indexOffset);
+			out.writeInt(MAGIC);
+			out.close();
+		} catch (IOException e) {
+			abort();
+			throw e;
+		} finally {
+			deflater.end();
+		}
+
+		if (file.exists() && !file.delete())
+			throw new IOException("Could not replace archive file " + file);
+		if (!tempFile.renameTo(file))
+			throw new IOException("Could not rename " + tempFile + " to "
+					+ file);
+	}
+
+	/**
+	 * Discards the file being written, such as when reading the data from the
+	 * database failed.
+	 */
+	public void abort() {
+		closed = true;
+		try {
+			out.close();
+		} catch (IOException e) {
+			// Already failing so ignore
+		}
+		deflater.end();
+		tempFile.delete();
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.db.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.config.StringConfigValue;
+import org.transitime.db.structs.ArrivalDeparture;
+import org.transitime.db.structs.AvlReport;
+import org.transitime.db.structs.Match;
+import org.transitime.utils.Time;
+
+/**
+ * Access to the local disk archive of old AvlReports, ArrivalDepartures and
+ * Matches that have been moved out of the database by ArchiveOldDataModule.
+ * There is one file per table per day, at
+ * directory/table/yyyy/MM/yyyyMMdd.tcol . Readers are cached so that
+ * repeatedly reading small time ranges, as playback does, doesn't remap the
+ * file each time.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class DataArchive {
+
+	public static final String AVL_REPORTS = "AvlReports";
+	public static final String ARRIVALS_DEPARTURES = "ArrivalsDepartures";
+	public static final String MATCHES = "Matches";
+
+	public static final ArchiveCodec<AvlReport> AVL_REPORT_CODEC =
+			new ArchiveCodec<AvlReport>(AvlReport.class, "time");
+	public static final ArchiveCodec<ArrivalDeparture> ARRIVAL_DEPARTURE_CODEC =
+			new ArchiveCodec<ArrivalDeparture>(ArrivalDeparture.class, "time");
+	public static final ArchiveCodec<Match> MATCH_CODEC =
+			new ArchiveCodec<Match>(Match.class, "avlTime");
+
+	private static final String FILE_SUFFIX = ".tcol";
+
+	// Recently used readers keyed by file path
+	private static final int MAX_CACHED_READERS = 16;
+	private static final Map<String, ArchiveFileReader<?>> readerCache =
+			new LinkedHashMap<String, ArchiveFileReader<?>>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<String, ArchiveFileReader<?>> eldest) {
+					return size() > MAX_CACHED_READERS;
+				}
+			};
+
+	/******************** Parameters ************************************/
+
+	private static StringConfigValue directory =
+			new StringConfigValue("transitime.archive.directory",
+					null,
+					"Directory where old AvlReports, ArrivalDepartures and "
+					+ "Matches are archived to by ArchiveOldDataModule. If not "
+					+ "set then data is not archived and archives are not "
+					+ "read.");
+
+	private static IntegerConfigValue rowsPerBlock =
+			new IntegerConfigValue("transitime.archive.rowsPerBlock",
+					10000,
+					"Number of rows in each compressed block of an archive "
+					+ "file. Smaller blocks mean less needs to be decompressed "
+					+ "to read a short time range but compress less well.");
+
+	/******************** Logging **************************************/
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(DataArchive.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @return true if an archive directory is configured
+	 */
+	public static boolean isEnabled() {
+		return directory.getValue() != null
+				&& !directory.getValue().isEmpty();
+	}
+
+	/**
+	 * @return the configured number of rows per block
+	 */
+	public static int getRowsPerBlock() {
+		return rowsPerBlock.getValue();
+	}
+
+	/**
+	 * @param table
+	 *            Such as AVL_REPORTS
+	 * @param day
+	 *            Any time during the day
+	 * @return the archive file for the table for the day, which might not
+	 *         exist
+	 */
+	public static File getFile(String table, Date day) {
+		String path = new SimpleDateFormat("yyyy" + File.separator + "MM"
+				+ File.separator + "yyyyMMdd").format(day);
+		return new File(directory.getValue() + File.separator + table
+				+ File.separator + path + FILE_SUFFIX);
+	}
+
+	/**
+	 * @param table
+	 * @param day
+	 * @return true if the data for the table for the day has been archived
+	 */
+	public static boolean isArchived(String table, Date day) {
+		return isEnabled() && getFile(table, day).exists();
+	}
+
+	/**
+	 * Drops a cached reader, such as when a file is being replaced
+	 *
+	 * @param file
+	 */
+	public static void evict(File file) {
+		synchronized (readerCache) {
+			readerCache.remove(file.getPath());
+		}
+	}
+
+	/**
+	 * @return the cached reader for the file, or a newly opened one
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> ArchiveFileReader<T> getReader(File file,
+			ArchiveCodec<T> codec) throws IOException {
+		synchronized (readerCache) {
+			ArchiveFileReader<T> reader =
+					(ArchiveFileReader<T>) readerCache.get(file.getPath());
+			if (reader == null) {
+				reader = new ArchiveFileReader<T>(file, codec);
+				readerCache.put(file.getPath(), reader);
+			}
+			return reader;
+		}
+	}
+
+	/**
+	 * Reads the archived records for the time range from the daily files
+	 * that cover the range.
+	 *
+	 * @param table
+	 * @param codec
+	 * @param beginTime
+	 *            Inclusive
+	 * @param endTime
+	 *            Exclusive
+	 * @return the records in time order. Empty if not archived.
+	 */
+	private static <T> List<T> read(String table, ArchiveCodec<T> codec,
+			Date beginTime, Date endTime) {
+		List<T> results = new ArrayList<T>();
+		if (!isEnabled())
+			return results;
+
+		Calendar day = Calendar.getInstance();
+		day.setTimeInMillis(Time.getStartOfDay(beginTime));
+		while (day.getTimeInMillis() < endTime.getTime()) {
+			File file = getFile(table, day.getTime());
+			if (file.exists()) {
+				try {
+					results.addAll(getReader(file, codec).read(
+							beginTime.getTime(), endTime.getTime()));
+				} catch (IOException e) {
+					logger.error("Could not read archive file {}. {}", file,
+							e.getMessage(), e);
+				}
+			}
+			day.add(Calendar.DAY_OF_MONTH, 1);
+		}
+		return results;
+	}
+
+	/**
+	 * @param beginTime
+	 * @param endTime
+	 * @param vehicleId
+	 *            If not null then only returns reports for the vehicle
+	 * @return archived AVL reports for the time range, in time order
+	 */
+	public static List<AvlReport> getAvlReports(Date beginTime, Date endTime,
+			String vehicleId) {
+		List<AvlReport> reports =
+				read(AVL_REPORTS, AVL_REPORT_CODEC, beginTime, endTime);
+		if (vehicleId == null)
+			return reports;
+
+		List<AvlReport> vehicleReports = new ArrayList<AvlReport>();
+		for (AvlReport report : reports)
+			if (vehicleId.equals(report.getVehicleId()))
+				vehicleReports.add(report);
+		return vehicleReports;
+	}
+
+	/**
+	 * @param beginTime
+	 * @param endTime
+	 * @return archived arrivals/departures for the time range, in time order
+	 */
+	public static List<ArrivalDeparture> getArrivalsDepartures(Date beginTime,
+			Date endTime) {
+		return read(ARRIVALS_DEPARTURES, ARRIVAL_DEPARTURE_CODEC, beginTime,
+				endTime);
+	}
+
+	/**
+	 * @param beginTime
+	 * @param endTime
+	 * @return archived matches for the time range, in time order
+	 */
+	public static List<Match> getMatches(Date beginTime, Date endTime) {
+		return read(MATCHES, MATCH_CODEC, beginTime, endTime);
+	}
+}
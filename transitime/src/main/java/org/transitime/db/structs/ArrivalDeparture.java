@@ -631,7 +631,7 @@ public class ArrivalDeparture implements Lifecycle, Serializable  {
 						
 		criteria.add(Restrictions.eq( "tripId",tripId ));
 		criteria.add(Restrictions.gt("time", beginTime));
-		criteria.add(Restrictions.lt("time",endTime)).list();
+		criteria.add(Restrictions.lt("time",endTime));
 		
 		if(serviceId!=null)
 			criteria.add(Restrictions.eq( "serviceId",serviceId ));
@@ -664,7 +664,7 @@ public class ArrivalDeparture implements Lifecycle, Serializable  {
 		}
 		
 		criteria.add(Restrictions.gt("time", beginTime));
-		criteria.add(Restrictions.lt("time",endTime)).list();
+		criteria.add(Restrictions.lt("time",endTime));
 		
 				
 		
@@ -53,7 +53,7 @@ public class Extent implements Serializable {
 	// San Francisco. For Mexico City at latitude 19 degrees the difference
 	// is a bit less than 0.3%, so pretty small for when doing quick 
 	// calculations.
-	private static final double METERS_PER_DEGREE = 110996.45;
+	public static final double METERS_PER_DEGREE = 110996.45;
 	
 	private static final long serialVersionUID = 6173873318480438032L;
 
@@ -0,0 +1,533 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.db.structs;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.annotations.DynamicUpdate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.applications.Core;
+import org.transitime.db.hibernate.HibernateUtils;
+import org.transitime.utils.BucketedHistogram;
+import org.transitime.utils.IntervalTimer;
+import org.transitime.utils.Time;
+
+/**
+ * A database object for persisting aggregated prediction accuracy
+ * information. Instead of storing a row for every single prediction that was
+ * compared to an arrival/departure, which can quickly lead to tens of millions
+ * of rows, the prediction accuracy module accumulates the errors in memory and
+ * writes one row per route/direction/stop/prediction length bucket/source/
+ * algorithm for each aggregation period.
+ * <p>
+ * The error histogram is stored in sparse form so that rows can later be
+ * merged, such as when combining hourly rows into daily rows or when a report
+ * combines multiple stops.
+ *
+ * @author SkiBu Smith
+ *
+ */
+@Entity @DynamicUpdate
+@Table(name="PredictionAccuracyAggregates",
+       indexes = { @Index(name="PredAccuracyAggregatesTimeIndex",
+                   columnList="periodStart, periodMinutes" ) } )
+public class PredictionAccuracyAggregate implements Serializable {
+
+	// Boundaries, in seconds, for the error histograms. 5 second resolution
+	// for errors up to a minute, 15 seconds up to 5 minutes, and 1 minute
+	// up to 30 minutes. Shared by all histograms so that they can be merged.
+	public static final long[] ERROR_BOUNDARIES_SECS =
+			BucketedHistogram.createSymmetricBoundaries(
+					new int[] {5, 15, 60},
+					new int[] {60, 5 * Time.SEC_PER_MIN, 30 * Time.SEC_PER_MIN});
+
+	// Need an ID but using regular columns doesn't really make
+	// sense. So use an auto generated one. Not final since
+	// autogenerated and therefore not set in constructor.
+	@Id
+	@GeneratedValue(strategy=GenerationType.AUTO)
+	private long id;
+
+	// Beginning of the period that the aggregated data is for
+	@Column
+	@Temporal(TemporalType.TIMESTAMP)
+	private final Date periodStart;
+
+	// Length of the period, such as 60 for hourly data and 1440 for daily
+	@Column
+	private final int periodMinutes;
+
+	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
+	private final String routeId;
+
+	// routeShortName is included because for some agencies the route_id
+	// changes when there are schedule updates
+	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
+	private final String routeShortName;
+
+	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
+	private final String directionId;
+
+	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
+	private final String stopId;
+
+	// Beginning of the prediction length bucket, in seconds
+	@Column
+	private final int predLengthBucketSecs;
+
+	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
+	private final String predictionSource;
+
+	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
+	private final String predictionAlgorithm;
+
+	@Column
+	private final Boolean affectedByWaitStop;
+
+	// Number of predictions that were matched to an arrival/departure
+	@Column
+	private final int numPredictions;
+
+	// Number of predictions that were never matched to an arrival/departure
+	@Column
+	private final int numMissed;
+
+	// For the errors positive means vehicle arrived at stop later than
+	// predicted and negative means vehicle arrived earlier.
+	@Column
+	private final long sumErrorSecs;
+
+	@Column
+	private final long sumSquaredErrorSecs;
+
+	@Column
+	private final int minErrorSecs;
+
+	@Column
+	private final int maxErrorSecs;
+
+	@Column
+	private final float p10ErrorSecs;
+
+	@Column
+	private final float p50ErrorSecs;
+
+	@Column
+	private final float p90ErrorSecs;
+
+	// The sparse histogram of errors. See BucketedHistogram.toSparseString().
+	// Long enough for any histogram with ERROR_BOUNDARIES_SECS and an int
+	// count, which is about 1300 chars.
+	static final int MAX_HISTOGRAM_LENGTH = 2000;
+	@Column(length=MAX_HISTOGRAM_LENGTH)
+	private final String errorHistogram;
+
+	private static final long serialVersionUID = 3514870384651837459L;
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(PredictionAccuracyAggregate.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Creates object to be stored in db.
+	 *
+	 * @param periodStart
+	 * @param periodMinutes
+	 * @param routeId
+	 * @param directionId
+	 * @param stopId
+	 * @param predLengthBucketSecs
+	 * @param predictionSource
+	 * @param predictionAlgorithm
+	 * @param affectedByWaitStop
+	 * @param histogram
+	 *            The errors, in seconds, of the matched predictions
+	 * @param numMissed
+	 *            How many predictions were never matched
+	 */
+	public PredictionAccuracyAggregate(Date periodStart, int periodMinutes,
+			String routeId, String directionId, String stopId,
+			int predLengthBucketSecs, String predictionSource,
+			String predictionAlgorithm, Boolean affectedByWaitStop,
+			BucketedHistogram histogram, int numMissed) {
+		super();
+		this.periodStart = periodStart;
+		this.periodMinutes = periodMinutes;
+		this.routeId = routeId;
+
+		Route route = Core.isCoreApplication() ?
+				Core.getInstance().getDbConfig().getRouteById(routeId) : null;
+		this.routeShortName = route != null ? route.getShortName() : null;
+		this.directionId = directionId;
+		this.stopId = stopId;
+		this.predLengthBucketSecs = predLengthBucketSecs;
+		this.predictionSource = predictionSource;
+		this.predictionAlgorithm = predictionAlgorithm;
+		this.affectedByWaitStop = affectedByWaitStop;
+		this.numPredictions = (int) histogram.getCount();
+		this.numMissed = numMissed;
+		this.sumErrorSecs = histogram.getSum();
+		this.sumSquaredErrorSecs = histogram.getSumOfSquares();
+		this.minErrorSecs = (int) histogram.getMin();
+		this.maxErrorSecs = (int) histogram.getMax();
+		// MySQL can't handle NaN so use 0 when there is no data
+		this.p10ErrorSecs = quantile(histogram, 0.1);
+		this.p50ErrorSecs = quantile(histogram, 0.5);
+		this.p90ErrorSecs = quantile(histogram, 0.9);
+		String sparse = histogram.toSparseString();
+		if (sparse.length() > MAX_HISTOGRAM_LENGTH) {
+			logger.warn("Error histogram for routeId={} stopId={} "
+					+ "periodStart={} is {} chars so is being truncated to "
+					+ "{} chars. Histogram={}", routeId, stopId, periodStart,
+					sparse.length(), MAX_HISTOGRAM_LENGTH, sparse);
+			sparse = sparse.substring(0,
+					sparse.lastIndexOf(',', MAX_HISTOGRAM_LENGTH));
+		}
+		this.errorHistogram = sparse;
+	}
+
+	private static float quantile(BucketedHistogram histogram, double q) {
+		double value = histogram.getQuantile(q);
+		return Double.isNaN(value) ? 0.0f : (float) value;
+	}
+
+	/**
+	 * Hibernate requires a no-arg constructor for reading objects
+	 * from database.
+	 */
+	protected PredictionAccuracyAggregate() {
+		super();
+		this.periodStart = null;
+		this.periodMinutes = 0;
+		this.routeId = null;
+		this.routeShortName = null;
+		this.directionId = null;
+		this.stopId = null;
+		this.predLengthBucketSecs = 0;
+		this.predictionSource = null;
+		this.predictionAlgorithm = null;
+		this.affectedByWaitStop = null;
+		this.numPredictions = 0;
+		this.numMissed = 0;
+		this.sumErrorSecs = 0;
+		this.sumSquaredErrorSecs = 0;
+		this.minErrorSecs = 0;
+		this.maxErrorSecs = 0;
+		this.p10ErrorSecs = 0.0f;
+		this.p50ErrorSecs = 0.0f;
+		this.p90ErrorSecs = 0.0f;
+		this.errorHistogram = null;
+	}
+
+	/**
+	 * Reads in the aggregates from the database that have a period start
+	 * between the beginTime and endTime.
+	 *
+	 * @param agencyId
+	 *            Which project getting data for
+	 * @param beginTime
+	 *            Specifies time range for query
+	 * @param endTime
+	 *            Specifies time range for query
+	 * @param periodMinutes
+	 *            Which aggregation period to read, such as 60 for hourly
+	 * @param sqlClause
+	 *            Optional. Can specify an SQL clause to winnow down the data,
+	 *            such as "AND routeId='71'".
+	 * @return the aggregates, or null if there was a problem
+	 */
+	public static List<PredictionAccuracyAggregate> getAggregates(
+			String agencyId, Date beginTime, Date endTime, int periodMinutes,
+			String sqlClause) {
+		String periodClause = "AND periodMinutes = " + periodMinutes;
+		return getAggregates(agencyId, beginTime, endTime,
+				sqlClause != null ? periodClause + " " + sqlClause : periodClause);
+	}
+
+	/**
+	 * Reads in the aggregates from the database that have a period start
+	 * between the beginTime and endTime, for any aggregation period.
+	 *
+	 * @param agencyId
+	 *            Which project getting data for
+	 * @param beginTime
+	 *            Specifies time range for query
+	 * @param endTime
+	 *            Specifies time range for query
+	 * @param sqlClause
+	 *            Optional. Can specify an SQL clause to winnow down the data,
+	 *            such as "AND stopId IS NOT NULL".
+	 * @return the aggregates, or null if there was a problem
+	 */
+	public static List<PredictionAccuracyAggregate> getAggregates(
+			String agencyId, Date beginTime, Date endTime, String sqlClause) {
+		IntervalTimer timer = new IntervalTimer();
+
+		Session session = HibernateUtils.getSession(agencyId);
+
+		// Table name is case sensitive and needs to be the class name
+		// instead of the name of the db table.
+		String hql = "FROM PredictionAccuracyAggregate " +
+				"    WHERE periodStart >= :beginDate " +
+				"      AND periodStart < :endDate ";
+		if (sqlClause != null)
+			hql += " " + sqlClause;
+		Query query = session.createQuery(hql);
+
+		query.setTimestamp("beginDate", beginTime);
+		query.setTimestamp("endDate", endTime);
+
+		try {
+			@SuppressWarnings("unchecked")
+			List<PredictionAccuracyAggregate> aggregates = query.list();
+			logger.debug("Getting PredictionAccuracyAggregates from database "
+					+ "took {} msec", timer.elapsedMsec());
+			return aggregates;
+		} catch (HibernateException e) {
+			logger.error(e.getMessage(), e);
+			return null;
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Adds the errors of this aggregate into the specified histogram. The
+	 * histogram needs to have been created with the same boundaries that
+	 * were used when the aggregate was created.
+	 *
+	 * @param histogram
+	 */
+	public void addTo(BucketedHistogram histogram) {
+		histogram.addSparse(errorHistogram, sumErrorSecs, sumSquaredErrorSecs,
+				minErrorSecs, maxErrorSecs);
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + (int) (id ^ (id >>> 32));
+		result = prime * result
+				+ ((periodStart == null) ? 0 : periodStart.hashCode());
+		result = prime * result + periodMinutes;
+		result = prime * result + ((routeId == null) ? 0 : routeId.hashCode());
+		result = prime * result
+				+ ((directionId == null) ? 0 : directionId.hashCode());
+		result = prime * result + ((stopId == null) ? 0 : stopId.hashCode());
+		result = prime * result + predLengthBucketSecs;
+		result = prime * result + ((predictionSource == null) ? 0
+				: predictionSource.hashCode());
+		result = prime * result + numPredictions;
+		result = prime * result + numMissed;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		PredictionAccuracyAggregate other = (PredictionAccuracyAggregate) obj;
+		if (id != other.id)
+			return false;
+		if (periodStart == null) {
+			if (other.periodStart != null)
+				return false;
+		} else if (!periodStart.equals(other.periodStart))
+			return false;
+		if (periodMinutes != other.periodMinutes)
+			return false;
+		if (routeId == null) {
+			if (other.routeId != null)
+				return false;
+		} else if (!routeId.equals(other.routeId))
+			return false;
+		if (directionId == null) {
+			if (other.directionId != null)
+				return false;
+		} else if (!directionId.equals(other.directionId))
+			return false;
+		if (stopId == null) {
+			if (other.stopId != null)
+				return false;
+		} else if (!stopId.equals(other.stopId))
+			return false;
+		if (predLengthBucketSecs != other.predLengthBucketSecs)
+			return false;
+		if (predictionSource == null) {
+			if (other.predictionSource != null)
+				return false;
+		} else if (!predictionSource.equals(other.predictionSource))
+			return false;
+		if (predictionAlgorithm == null) {
+			if (other.predictionAlgorithm != null)
+				return false;
+		} else if (!predictionAlgorithm.equals(other.predictionAlgorithm))
+			return false;
+		if (affectedByWaitStop == null) {
+			if (other.affectedByWaitStop != null)
+				return false;
+		} else if (!affectedByWaitStop.equals(other.affectedByWaitStop))
+			return false;
+		if (numPredictions != other.numPredictions)
+			return false;
+		if (numMissed != other.numMissed)
+			return false;
+		if (sumErrorSecs != other.sumErrorSecs)
+			return false;
+		if (sumSquaredErrorSecs != other.sumSquaredErrorSecs)
+			return false;
+		if (errorHistogram == null) {
+			if (other.errorHistogram != null)
+				return false;
+		} else if (!errorHistogram.equals(other.errorHistogram))
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "PredictionAccuracyAggregate ["
+				+ "periodStart=" + periodStart
+				+ ", periodMinutes=" + periodMinutes
+				+ ", routeId=" + routeId
+				+ ", routeShortName=" + routeShortName
+				+ ", directionId=" + directionId
+				+ ", stopId=" + stopId
+				+ ", predLengthBucketSecs=" + predLengthBucketSecs
+				+ ", predictionSource=" + predictionSource
+				+ ", predictionAlgorithm=" + predictionAlgorithm
+				+ ", affectedByWaitStop=" + affectedByWaitStop
+				+ ", numPredictions=" + numPredictions
+				+ ", numMissed=" + numMissed
+				+ ", sumErrorSecs=" + sumErrorSecs
+				+ ", minErrorSecs=" + minErrorSecs
+				+ ", maxErrorSecs=" + maxErrorSecs
+				+ ", p10ErrorSecs=" + p10ErrorSecs
+				+ ", p50ErrorSecs=" + p50ErrorSecs
+				+ ", p90ErrorSecs=" + p90ErrorSecs
+				+ "]";
+	}
+
+	public Date getPeriodStart() {
+		return periodStart;
+	}
+
+	public int getPeriodMinutes() {
+		return periodMinutes;
+	}
+
+	public String getRouteId() {
+		return routeId;
+	}
+
+	public String getRouteShortName() {
+		return routeShortName;
+	}
+
+	public String getDirectionId() {
+		return directionId;
+	}
+
+	public String getStopId() {
+		return stopId;
+	}
+
+	public int getPredLengthBucketSecs() {
+		return predLengthBucketSecs;
+	}
+
+	public String getPredictionSource() {
+		return predictionSource;
+	}
+
+	public String getPredictionAlgorithm() {
+		return predictionAlgorithm;
+	}
+
+	/**
+	 * True if the predictions were based on scheduled departure time, false
+	 * if not. Null if feed of predictions doesn't provide that information.
+	 *
+	 * @return
+	 */
+	public Boolean isAffectedByWaitStop() {
+		return affectedByWaitStop;
+	}
+
+	public int getNumPredictions() {
+		return numPredictions;
+	}
+
+	public int getNumMissed() {
+		return numMissed;
+	}
+
+	public long getSumErrorSecs() {
+		return sumErrorSecs;
+	}
+
+	public long getSumSquaredErrorSecs() {
+		return sumSquaredErrorSecs;
+	}
+
+	public int getMinErrorSecs() {
+		return minErrorSecs;
+	}
+
+	public int getMaxErrorSecs() {
+		return maxErrorSecs;
+	}
+
+	public float getP10ErrorSecs() {
+		return p10ErrorSecs;
+	}
+
+	public float getP50ErrorSecs() {
+		return p50ErrorSecs;
+	}
+
+	public float getP90ErrorSecs() {
+		return p90ErrorSecs;
+	}
+
+	public String getErrorHistogram() {
+		return errorHistogram;
+	}
+}
@@ -0,0 +1,436 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.db.structs;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.annotations.DynamicUpdate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.applications.Core;
+import org.transitime.db.hibernate.HibernateUtils;
+import org.transitime.utils.BucketedHistogram;
+import org.transitime.utils.IntervalTimer;
+import org.transitime.utils.Time;
+
+/**
+ * A database object for persisting schedule adherence rolled up by route and
+ * direction for an hour or a day. Created from the ArrivalsDepartures table
+ * by the RollupModule so that reports covering long time ranges don't need
+ * to read every single arrival/departure.
+ * <p>
+ * The deviation histogram is stored in sparse form so that hourly rows can be
+ * merged into daily rows and so that reports can combine multiple routes.
+ *
+ * @author SkiBu Smith
+ *
+ */
+@Entity @DynamicUpdate
+@Table(name="ScheduleAdherenceRollups",
+       indexes = { @Index(name="SchedAdhRollupsTimeIndex",
+                   columnList="periodStart, periodMinutes" ) } )
+public class ScheduleAdherenceRollup implements Serializable {
+
+	// Boundaries, in seconds, for the deviation histograms. Same resolution
+	// as for prediction accuracy near 0 but covering up to an hour since
+	// vehicles can be much further off schedule than off of their
+	// predictions. Every multiple of 30 secs is a boundary so that the
+	// schedule adherence by time report, which uses 30 sec buckets, can be
+	// created from the rollups.
+	public static final long[] DEVIATION_BOUNDARIES_SECS =
+			BucketedHistogram.createSymmetricBoundaries(
+					new int[] {5, 15, 30},
+					new int[] {60, 5 * Time.SEC_PER_MIN, 60 * Time.SEC_PER_MIN});
+
+	// Need an ID but using regular columns doesn't really make
+	// sense. So use an auto generated one. Not final since
+	// autogenerated and therefore not set in constructor.
+	@Id
+	@GeneratedValue(strategy=GenerationType.AUTO)
+	private long id;
+
+	// Beginning of the period that the rolled up data is for
+	@Column
+	@Temporal(TemporalType.TIMESTAMP)
+	private final Date periodStart;
+
+	// Length of the period, such as 60 for hourly data and 1440 for daily
+	@Column
+	private final int periodMinutes;
+
+	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
+	private final String routeId;
+
+	// routeShortName is included because for some agencies the route_id
+	// changes when there are schedule updates
+	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
+	private final String routeShortName;
+
+	@Column(length=HibernateUtils.DEFAULT_ID_SIZE)
+	private final String directionId;
+
+	// Whether the data is for arrivals or for departures
+	@Column
+	private final boolean isArrival;
+
+	// Number of arrivals/departures that had a schedule time
+	@Column
+	private final int numStops;
+
+	// Number of arrivals/departures that were more early or more late than
+	// the allowable amount configured when the rollup was created
+	@Column
+	private final int numEarly;
+
+	@Column
+	private final int numLate;
+
+	// For the deviations positive means vehicle was later than the schedule
+	// time and negative means vehicle was early.
+	@Column
+	private final long sumDeviationSecs;
+
+	@Column
+	private final long sumSquaredDeviationSecs;
+
+	@Column
+	private final int minDeviationSecs;
+
+	@Column
+	private final int maxDeviationSecs;
+
+	// The sparse histogram of deviations. See
+	// BucketedHistogram.toSparseString(). Long enough for any histogram with
+	// DEVIATION_BOUNDARIES_SECS and an int count, which is about 3500 chars,
+	// while still fitting into an Oracle varchar2.
+	static final int MAX_HISTOGRAM_LENGTH = 4000;
+	@Column(length=MAX_HISTOGRAM_LENGTH)
+	private final String deviationHistogram;
+
+	private static final long serialVersionUID = -2389436125081316623L;
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(ScheduleAdherenceRollup.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Creates object to be stored in db.
+	 *
+	 * @param periodStart
+	 * @param periodMinutes
+	 * @param routeId
+	 * @param directionId
+	 * @param isArrival
+	 * @param histogram
+	 *            The deviations from the schedule, in seconds
+	 * @param numEarly
+	 * @param numLate
+	 */
+	public ScheduleAdherenceRollup(Date periodStart, int periodMinutes,
+			String routeId, String directionId, boolean isArrival,
+			BucketedHistogram histogram, int numEarly, int numLate) {
+		super();
+		this.periodStart = periodStart;
+		this.periodMinutes = periodMinutes;
+		this.routeId = routeId;
+
+		Route route = Core.isCoreApplication() ?
+				Core.getInstance().getDbConfig().getRouteById(routeId) : null;
+		this.routeShortName = route != null ? route.getShortName() : null;
+		this.directionId = directionId;
+		this.isArrival = isArrival;
+		this.numStops = (int) histogram.getCount();
+		this.numEarly = numEarly;
+		this.numLate = numLate;
+		this.sumDeviationSecs = histogram.getSum();
+		this.sumSquaredDeviationSecs = histogram.getSumOfSquares();
+		this.minDeviationSecs = (int) histogram.getMin();
+		this.maxDeviationSecs = (int) histogram.getMax();
+		String sparse = histogram.toSparseString();
+		if (sparse.length() > MAX_HISTOGRAM_LENGTH) {
+			logger.warn("Deviation histogram for routeId={} directionId={} "
+					+ "periodStart={} is {} chars so is being truncated to "
+					+ "{} chars. Histogram={}", routeId, directionId,
+					periodStart, sparse.length(), MAX_HISTOGRAM_LENGTH, sparse);
+			sparse = sparse.substring(0,
+					sparse.lastIndexOf(',', MAX_HISTOGRAM_LENGTH));
+		}
+		this.deviationHistogram = sparse;
+	}
+
+	/**
+	 * Hibernate requires a no-arg constructor for reading objects
+	 * from database.
+	 */
+	protected ScheduleAdherenceRollup() {
+		super();
+		this.periodStart = null;
+		this.periodMinutes = 0;
+		this.routeId = null;
+		this.routeShortName = null;
+		this.directionId = null;
+		this.isArrival = false;
+		this.numStops = 0;
+		this.numEarly = 0;
+		this.numLate = 0;
+		this.sumDeviationSecs = 0;
+		this.sumSquaredDeviationSecs = 0;
+		this.minDeviationSecs = 0;
+		this.maxDeviationSecs = 0;
+		this.deviationHistogram = null;
+	}
+
+	/**
+	 * Reads in the rollups from the database that have a period start
+	 * between the beginTime and endTime.
+	 *
+	 * @param agencyId
+	 *            Which project getting data for
+	 * @param beginTime
+	 *            Specifies time range for query
+	 * @param endTime
+	 *            Specifies time range for query
+	 * @param periodMinutes
+	 *            Which rollup period to read, such as 60 for hourly
+	 * @param sqlClause
+	 *            Optional. Can specify an SQL clause to winnow down the data,
+	 *            such as "AND routeId='71'".
+	 * @return the rollups, or null if there was a problem
+	 */
+	public static List<ScheduleAdherenceRollup> getRollups(String agencyId,
+			Date beginTime, Date endTime, int periodMinutes, String sqlClause) {
+		IntervalTimer timer = new IntervalTimer();
+
+		Session session = HibernateUtils.getSession(agencyId);
+
+		// Table name is case sensitive and needs to be the class name
+		// instead of the name of the db table.
+		String hql = "FROM ScheduleAdherenceRollup " +
+				"    WHERE periodStart >= :beginDate " +
+				"      AND periodStart < :endDate " +
+				"      AND periodMinutes = :periodMinutes";
+		if (sqlClause != null)
+			hql += " " + sqlClause;
+		Query query = session.createQuery(hql);
+
+		query.setTimestamp("beginDate", beginTime);
+		query.setTimestamp("endDate", endTime);
+		query.setInteger("periodMinutes", periodMinutes);
+
+		try {
+			@SuppressWarnings("unchecked")
+			List<ScheduleAdherenceRollup> rollups = query.list();
+			logger.debug("Getting ScheduleAdherenceRollups from database "
+					+ "took {} msec", timer.elapsedMsec());
+			return rollups;
+		} catch (HibernateException e) {
+			logger.error(e.getMessage(), e);
+			return null;
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Returns the start of the last period that there are rollups for. Since
+	 * rollups are created in time order the rollups cover everything up to
+	 * the end of that period.
+	 *
+	 * @param agencyId
+	 * @param periodMinutes
+	 *            Which rollup period, such as 60 for hourly
+	 * @return the start of the last period, or null if there are no rollups
+	 *         for the period length
+	 */
+	public static Date getLastPeriodStart(String agencyId, int periodMinutes) {
+		Session session = HibernateUtils.getSession(agencyId);
+		try {
+			return (Date) session
+					.createQuery("SELECT MAX(periodStart) "
+							+ "FROM ScheduleAdherenceRollup "
+							+ "WHERE periodMinutes = :periodMinutes")
+					.setInteger("periodMinutes", periodMinutes)
+					.uniqueResult();
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Adds the deviations of this rollup into the specified histogram. The
+	 * histogram needs to have been created with DEVIATION_BOUNDARIES_SECS.
+	 *
+	 * @param histogram
+	 */
+	public void addTo(BucketedHistogram histogram) {
+		histogram.addSparse(deviationHistogram, sumDeviationSecs,
+				sumSquaredDeviationSecs, minDeviationSecs, maxDeviationSecs);
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + (int) (id ^ (id >>> 32));
+		result = prime * result
+				+ ((periodStart == null) ? 0 : periodStart.hashCode());
+		result = prime * result + periodMinutes;
+		result = prime * result + ((routeId == null) ? 0 : routeId.hashCode());
+		result = prime * result
+				+ ((directionId == null) ? 0 : directionId.hashCode());
+		result = prime * result + (isArrival ? 1231 : 1237);
+		result = prime * result + numStops;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ScheduleAdherenceRollup other = (ScheduleAdherenceRollup) obj;
+		if (id != other.id)
+			return false;
+		if (periodStart == null) {
+			if (other.periodStart != null)
+				return false;
+		} else if (!periodStart.equals(other.periodStart))
+			return false;
+		if (periodMinutes != other.periodMinutes)
+			return false;
+		if (routeId == null) {
+			if (other.routeId != null)
+				return false;
+		} else if (!routeId.equals(other.routeId))
+			return false;
+		if (directionId == null) {
+			if (other.directionId != null)
+				return false;
+		} else if (!directionId.equals(other.directionId))
+			return false;
+		if (isArrival != other.isArrival)
+			return false;
+		if (numStops != other.numStops)
+			return false;
+		if (numEarly != other.numEarly)
+			return false;
+		if (numLate != other.numLate)
+			return false;
+		if (sumDeviationSecs != other.sumDeviationSecs)
+			return false;
+		if (deviationHistogram == null) {
+			if (other.deviationHistogram != null)
+				return false;
+		} else if (!deviationHistogram.equals(other.deviationHistogram))
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "ScheduleAdherenceRollup ["
+				+ "periodStart=" + periodStart
+				+ ", periodMinutes=" + periodMinutes
+				+ ", routeId=" + routeId
+				+ ", routeShortName=" + routeShortName
+				+ ", directionId=" + directionId
+				+ ", isArrival=" + isArrival
+				+ ", numStops=" + numStops
+				+ ", numEarly=" + numEarly
+				+ ", numLate=" + numLate
+				+ ", sumDeviationSecs=" + sumDeviationSecs
+				+ ", minDeviationSecs=" + minDeviationSecs
+				+ ", maxDeviationSecs=" + maxDeviationSecs
+				+ "]";
+	}
+
+	public Date getPeriodStart() {
+		return periodStart;
+	}
+
+	public int getPeriodMinutes() {
+		return periodMinutes;
+	}
+
+	public String getRouteId() {
+		return routeId;
+	}
+
+	public String getRouteShortName() {
+		return routeShortName;
+	}
+
+	public String getDirectionId() {
+		return directionId;
+	}
+
+	public boolean isArrival() {
+		return isArrival;
+	}
+
+	public int getNumStops() {
+		return numStops;
+	}
+
+	public int getNumEarly() {
+		return numEarly;
+	}
+
+	public int getNumLate() {
+		return numLate;
+	}
+
+	public long getSumDeviationSecs() {
+		return sumDeviationSecs;
+	}
+
+	public long getSumSquaredDeviationSecs() {
+		return sumSquaredDeviationSecs;
+	}
+
+	public int getMinDeviationSecs() {
+		return minDeviationSecs;
+	}
+
+	public int getMaxDeviationSecs() {
+		return maxDeviationSecs;
+	}
+
+	public String getDeviationHistogram() {
+		return deviationHistogram;
+	}
+}
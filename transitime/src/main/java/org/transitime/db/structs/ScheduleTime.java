@@ -94,6 +94,42 @@ public class ScheduleTime implements Serializable {
 				(departureTime != null? "d=" + Time.timeOfDayStr(departureTime) : "") +
 				"]";
 	}
-	
+
+	/**
+	 * Needed so that identical schedule times can be shared, such as by the
+	 * BinarySchedule.
+	 */
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result
+				+ ((arrivalTime == null) ? 0 : arrivalTime.hashCode());
+		result = prime * result
+				+ ((departureTime == null) ? 0 : departureTime.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ScheduleTime other = (ScheduleTime) obj;
+		if (arrivalTime == null) {
+			if (other.arrivalTime != null)
+				return false;
+		} else if (!arrivalTime.equals(other.arrivalTime))
+			return false;
+		if (departureTime == null) {
+			if (other.departureTime != null)
+				return false;
+		} else if (!departureTime.equals(other.departureTime))
+			return false;
+		return true;
+	}
 	
 }
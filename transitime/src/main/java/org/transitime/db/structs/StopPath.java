@@ -40,6 +40,7 @@ import org.slf4j.LoggerFactory;
 import org.transitime.applications.Core;
 import org.transitime.configData.CoreConfig;
 import org.transitime.db.hibernate.HibernateUtils;
+import org.transitime.gtfs.BinarySchedule;
 import org.transitime.utils.Geo;
 
 
@@ -123,9 +124,16 @@ public class StopPath implements Serializable, Lifecycle {
 	// So can have easy access to vectors representing the segments so
 	// can easily determine heading. Declared transient because this
 	// info is generated by other members after the object has been 
-	// loaded from the database.
+	// loaded from the database. When the BinarySchedule is used they are
+	// only created when first needed.
 	@Transient
-	private List<VectorWithHeading> vectors = null;
+	private volatile List<VectorWithHeading> vectors = null;
+	
+	// The locations from the BinarySchedule, if it is being used, so that
+	// the locations are never read from the db. Set when the stop path is
+	// loaded.
+	@Transient
+	private List<Location> mappedLocations = null;
 	
 	// Because Hibernate requires objects with composite IDs to be Serializable
 	private static final long serialVersionUID = 8170734640228933095L;
@@ -211,6 +219,27 @@ public class StopPath implements Serializable, Lifecycle {
 		return query.list();
 	}
 
+	/**
+	 * Returns List of StopPath objects for the specified database revision,
+	 * with their locations read in by the same query. Used for creating the
+	 * BinarySchedule.
+	 * 
+	 * @param session
+	 * @param configRev
+	 * @return
+	 * @throws HibernateException
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<StopPath> getPathsWithLocations(Session session,
+			int configRev) throws HibernateException {
+		String hql = "SELECT DISTINCT p FROM StopPath p " +
+				"   left join fetch p.locations " +
+				"    WHERE p.configRev = :configRev";
+		Query query = session.createQuery(hql);
+		query.setInteger("configRev", configRev);
+		return query.list();
+	}
+
 	/**
 	 * For consistently naming the path Id. It is based on the current
 	 * stop ID and the previous stop Id. If previousStopId is null
@@ -235,15 +264,15 @@ public class StopPath implements Serializable, Lifecycle {
 	 */
 	public double length() {
 		// Make sure locations were set before trying to access them
-		if (locations == null) {
+		if (locations() == null) {
 			logger.error("For stopPathId={} trying to access locations when " +
 					"they have not been set.", stopPathId);
 			return Double.NaN;
 		}
 		
 		double totalLength = 0.0;
-		for (int i=0; i<locations.size()-1; ++i) {
-			totalLength += (new Vector(locations.get(i), locations.get(i+1))).length();
+		for (int i=0; i<locations().size()-1; ++i) {
+			totalLength += (new Vector(locations().get(i), locations().get(i+1))).length();
 		}
 		return totalLength;
 	}
@@ -261,7 +290,7 @@ public class StopPath implements Serializable, Lifecycle {
 				+ ", lastStopInTrip=" + lastStopInTrip
 				+ ", routeId=" + routeId 
 				+ ", tripPatternId=" + tripPatternId
-				+ ", locations=" + locations 
+				+ ", locations=" + locations() 
 				+ ", pathLength=" + Geo.distanceFormat(pathLength)
 				+ ", layoverStop=" + layoverStop 
 				+ ", waitStop=" + waitStop 
@@ -280,7 +309,7 @@ public class StopPath implements Serializable, Lifecycle {
 		result = prime * result + configRev;
 		result = prime * result + (layoverStop ? 1231 : 1237);
 		result = prime * result
-				+ ((locations == null) ? 0 : locations.hashCode());
+				+ ((locations() == null) ? 0 : locations().hashCode());
 		result = prime * result + ((stopPathId == null) ? 0 : stopPathId.hashCode());
 		long temp;
 		temp = Double.doubleToLongBits(pathLength);
@@ -292,7 +321,6 @@ public class StopPath implements Serializable, Lifecycle {
 		result = prime * result + ((stopId == null) ? 0 : stopId.hashCode());
 		result = prime * result
 				+ ((tripPatternId == null) ? 0 : tripPatternId.hashCode());
-		result = prime * result + ((vectors == null) ? 0 : vectors.hashCode());
 		result = prime * result + (waitStop ? 1231 : 1237);
 		return result;
 	}
@@ -329,10 +357,10 @@ public class StopPath implements Serializable, Lifecycle {
 			return false;
 		if (layoverStop != other.layoverStop)
 			return false;
-		if (locations == null) {
-			if (other.locations != null)
+		if (locations() == null) {
+			if (other.locations() != null)
 				return false;
-		} else if (!locations.equals(other.locations))
+		} else if (!locations().equals(other.locations()))
 			return false;
 		if (stopPathId == null) {
 			if (other.stopPathId != null)
@@ -368,11 +396,6 @@ public class StopPath implements Serializable, Lifecycle {
 				return false;
 		} else if (!tripPatternId.equals(other.tripPatternId))
 			return false;
-		if (vectors == null) {
-			if (other.vectors != null)
-				return false;
-		} else if (!vectors.equals(other.vectors))
-			return false;
 		if (waitStop != other.waitStop)
 			return false;
 		return true;
@@ -509,7 +532,7 @@ public class StopPath implements Serializable, Lifecycle {
 	public Location getStopLocation() {
 		// Simply return the last location of the path, since it
 		// corresponds to the stop associated with the path.
-		return locations.get(locations.size()-1);
+		return getEndOfPathLocation();
 	}
 	
 	/**
@@ -521,18 +544,26 @@ public class StopPath implements Serializable, Lifecycle {
 		this.tripPatternId = tripPatternId;
 	}
 	
+	/**
+	 * @return the locations from the binary schedule if it is being used,
+	 *         otherwise the ones from the db
+	 */
+	private List<Location> locations() {
+		return mappedLocations != null ? mappedLocations : locations;
+	}
+	
 	/**
 	 * @return List of Locations of the segments that make up the path
 	 */
 	public List<Location> getLocations() {
-		return locations;
+		return locations();
 	}
 	
 	/**
 	 * @return Number of segments in path.
 	 */
 	public int getNumberSegments() {
-		return locations.size()-1;
+		return locations().size()-1;
 	}
 	
 	/**
@@ -543,7 +574,12 @@ public class StopPath implements Serializable, Lifecycle {
 	 * @return
 	 */
 	public Location getEndOfPathLocation() {
-		return locations.get(locations.size()-1);
+		// For the binary schedule use the location already held by the 
+		// vectors instead of creating a new one each time
+		if (mappedLocations != null && mappedLocations.size() > 1)
+			return getSegmentVectors().get(mappedLocations.size()-2).getL2();
+		
+		return locations().get(locations().size()-1);
 	}
 	
 	/**
@@ -557,7 +593,12 @@ public class StopPath implements Serializable, Lifecycle {
 	 * @return List of VectorWithHeadings of the segments that make up the path
 	 */
 	public List<VectorWithHeading> getSegmentVectors() {
-		return vectors;
+		List<VectorWithHeading> segmentVectors = vectors;
+		if (segmentVectors == null && locations() != null) {
+			segmentVectors = createVectors();
+			vectors = segmentVectors;
+		}
+		return segmentVectors;
 	}
 	
 	/**
@@ -580,7 +621,7 @@ public class StopPath implements Serializable, Lifecycle {
 	 * @return Location for the specified index along the StopPath
 	 */
 	public Location getLocation(int index) {
-		return locations.get(index);
+		return locations().get(index);
 	}
 
 	/**
@@ -661,14 +702,33 @@ public class StopPath implements Serializable, Lifecycle {
 	 * path segments to determine matches.
 	 */
 	@Override
-	public void onLoad(Session arg0, Serializable arg1) {
-		vectors = new ArrayList<VectorWithHeading>(locations.size()-1);
-		for (int segmentIndex=0; segmentIndex<locations.size()-1; ++segmentIndex) {
+	public void onLoad(Session session, Serializable arg1) {
+		// If there is a binary schedule for the agency and config rev then
+		// the locations come from it and the vectors are created when first
+		// needed. Otherwise create the vectors from the db locations now.
+		BinarySchedule binarySchedule = BinarySchedule.get(session, configRev);
+		if (binarySchedule != null)
+			mappedLocations = 
+					binarySchedule.getLocations(tripPatternId, stopPathId);
+		
+		if (mappedLocations == null)
+			vectors = createVectors();
+	}
+	
+	/**
+	 * @return the vectors for the segments of the path
+	 */
+	private List<VectorWithHeading> createVectors() {
+		List<Location> locs = locations();
+		List<VectorWithHeading> segmentVectors = 
+				new ArrayList<VectorWithHeading>(Math.max(locs.size()-1, 0));
+		for (int segmentIndex=0; segmentIndex<locs.size()-1; ++segmentIndex) {
 			VectorWithHeading v = 
-					new VectorWithHeading(nullSafeLocation(locations.get(segmentIndex)), 
-					              		  nullSafeLocation(locations.get(segmentIndex+1)));
-			vectors.add(v);
+					new VectorWithHeading(nullSafeLocation(locs.get(segmentIndex)), 
+					              		  nullSafeLocation(locs.get(segmentIndex+1)));
+			segmentVectors.add(v);
 		}
+		return segmentVectors;
 	}
 
 	private Location nullSafeLocation(Location location) {
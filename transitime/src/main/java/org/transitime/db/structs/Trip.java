@@ -47,6 +47,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.applications.Core;
 import org.transitime.db.hibernate.HibernateUtils;
+import org.transitime.gtfs.BinarySchedule;
 import org.transitime.gtfs.DbConfig;
 import org.transitime.gtfs.TitleFormatter;
 import org.transitime.gtfs.gtfsStructs.GtfsTrip;
@@ -163,6 +164,14 @@ public class Trip implements Lifecycle, Serializable {
 	@Transient
 	private Route route;
 	
+	// The BinarySchedule and the index of the trip in it, if it is being
+	// used, so that the schedule times are never read from the db. Set when
+	// the trip is loaded.
+	@Transient
+	private BinarySchedule binarySchedule = null;
+	@Transient
+	private int binaryScheduleIndex = -1;
+	
 	// Note: though trip_short_name and wheelchair_accessible are available
 	// as part of the GTFS spec and in a GtfsTrip object, they are not
 	// included here because currently don't understand how best to use them
@@ -485,6 +494,28 @@ public class Trip implements Lifecycle, Serializable {
 		return tripsMap;
 	}
 
+	/**
+	 * Returns all of the Trip objects for the specified configRev, with their
+	 * schedule times read in by the same query. Frequency based trips share a
+	 * trip ID so unlike getTrips() a list is returned. Used for creating the
+	 * BinarySchedule.
+	 * 
+	 * @param session
+	 * @param configRev
+	 * @return
+	 * @throws HibernateException
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Trip> getTripsWithScheduleTimes(Session session,
+			int configRev) throws HibernateException {
+		String hql = "SELECT DISTINCT t FROM Trip t " +
+				"   left join fetch t.scheduledTimesList " +
+				"    WHERE t.configRev = :configRev";
+		Query query = session.createQuery(hql);
+		query.setInteger("configRev", configRev);
+		return query.list();
+	}
+
 	/**
 	 * Returns specified Trip object for the specified configRev and tripId.
 	 * 
@@ -498,7 +529,6 @@ public class Trip implements Lifecycle, Serializable {
 			throws HibernateException {
 		// Setup the query
 		String hql = "FROM Trip t " +
-                "   left join fetch t.scheduledTimesList " +
                 "   left join fetch t.travelTimes " +
 				"    WHERE t.configRev = :configRev" +
 				"      AND tripId = :tripId";
@@ -527,7 +557,6 @@ public class Trip implements Lifecycle, Serializable {
 			String tripShortName) throws HibernateException {
 		// Setup the query
 		String hql = "FROM Trip t " +
-                "   left join fetch t.scheduledTimesList " +
                 "   left join fetch t.travelTimes " +
 				"    WHERE t.configRev = :configRev" +
 				"      AND t.tripShortName = :tripShortName";
@@ -614,7 +643,7 @@ public class Trip implements Lifecycle, Serializable {
 				+ ", serviceId=" + serviceId
 				+ ", blockId=" + blockId
 				+ ", shapeId=" + shapeId
-				+ ", scheduledTimesList=" + scheduledTimesList
+				+ ", scheduledTimesList=" + getScheduleTimes()
 				+ ", travelTimes=" + travelTimes
 				+ "]";
 	}
@@ -669,11 +698,6 @@ public class Trip implements Lifecycle, Serializable {
 						* result
 						+ ((routeShortName == null) ? 0 : routeShortName
 								.hashCode());
-		result =
-				prime
-						* result
-						+ ((scheduledTimesList == null) ? 0
-								: scheduledTimesList.hashCode());
 		result =
 				prime * result
 						+ ((serviceId == null) ? 0 : serviceId.hashCode());
@@ -749,10 +773,7 @@ public class Trip implements Lifecycle, Serializable {
 				return false;
 		} else if (!routeShortName.equals(other.routeShortName))
 			return false;
-		if (scheduledTimesList == null) {
-			if (other.scheduledTimesList != null)
-				return false;
-		} else if (!scheduledTimesList.equals(other.scheduledTimesList))
+		if (!getScheduleTimes().equals(other.getScheduleTimes()))
 			return false;
 		if (serviceId == null) {
 			if (other.serviceId != null)
@@ -1019,6 +1040,10 @@ public class Trip implements Lifecycle, Serializable {
 	 * @return
 	 */
 	public ScheduleTime getScheduleTime(int stopPathIndex) {
+		if (binarySchedule != null)
+			return binarySchedule.getScheduleTime(binaryScheduleIndex,
+					stopPathIndex);
+		
 	  if (scheduledTimesList instanceof PersistentList) {
 	    // TODO this is an anti-pattern
 	    // instead find a way to manage sessions more consistently 
@@ -1037,6 +1062,9 @@ public class Trip implements Lifecycle, Serializable {
 	 * @return list of schedule times for the trip
 	 */
 	public List<ScheduleTime> getScheduleTimes() {
+		if (binarySchedule != null)
+			return binarySchedule.getScheduleTimes(binaryScheduleIndex);
+		
 		return scheduledTimesList;
 	}
 	
@@ -1139,6 +1167,15 @@ public class Trip implements Lifecycle, Serializable {
 			blockId = blockId.intern();
 		if (shapeId != null)
 			shapeId = shapeId.intern();
+		
+		// Use the binary schedule for the schedule times if there is one
+		// for the agency and config rev and it contains the trip
+		BinarySchedule schedule = BinarySchedule.get(s, configRev);
+		if (schedule != null) {
+			binaryScheduleIndex = schedule.getTripIndex(tripId, startTime);
+			if (binaryScheduleIndex >= 0)
+				binarySchedule = schedule;
+		}
 	}
 	
 	/**
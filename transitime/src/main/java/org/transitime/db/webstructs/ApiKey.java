@@ -64,6 +64,11 @@ public class ApiKey implements Serializable {
 	@Column(length=1000)
 	private final String description;
 
+	// Max rate of API requests allowed for the key. If null then the
+	// default transitime.usage.maxRequestsPerSecPerKey is used.
+	@Column
+	private final Integer maxRequestsPerSec;
+
 	// Because Hibernate requires objects with composite IDs to be Serializable
 	private static final long serialVersionUID = 903194461306815545L;
 
@@ -84,6 +89,7 @@ public class ApiKey implements Serializable {
 		this.email = email;
 		this.phone = phone;
 		this.description = description;
+		this.maxRequestsPerSec = null;
 	}
 
 	/**
@@ -97,6 +103,7 @@ public class ApiKey implements Serializable {
 		this.email = null;
 		this.phone = null;
 		this.description = null;
+		this.maxRequestsPerSec = null;
 	}
 
 	/**
@@ -163,6 +170,7 @@ public class ApiKey implements Serializable {
 				+ ", email=" + email
 				+ ", phone=" + phone 
 				+ ", description=" + description 
+				+ ", maxRequestsPerSec=" + maxRequestsPerSec
 				+ "]";
 	}
 
@@ -189,4 +197,12 @@ public class ApiKey implements Serializable {
 	public String getDescription() {
 		return description;
 	}
+
+	/**
+	 * @return max requests per second allowed for the key, or null if the
+	 *         default limit should be used
+	 */
+	public Integer getMaxRequestsPerSec() {
+		return maxRequestsPerSec;
+	}
 }
@@ -17,9 +17,9 @@
 
 package org.transitime.db.webstructs;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
@@ -41,8 +41,9 @@ import org.transitime.utils.Time;
 public class ApiKeyManager {
 
 	// Cache of the ApiKeys loaded from database.
-	// Map is keyed on the API key.
-	private final Map<String, ApiKey> apiKeyCache;
+	// Map is keyed on the API key. Concurrent and replaced as a whole when
+	// the keys are reread so that lookups don't need to lock.
+	private volatile Map<String, ApiKey> apiKeyCache;
 
 	// Name of the database containing the keys
 	private final String dbName;
@@ -72,7 +73,7 @@ public class ApiKeyManager {
 
 		// Create the cache. Cache will actually be populated when first
 		// checking if key is valid. This way don't do a db read at startup.
-		apiKeyCache = new HashMap<String, ApiKey>();
+		apiKeyCache = new ConcurrentHashMap<String, ApiKey>();
 	}
 
 	/**
@@ -91,15 +92,31 @@ public class ApiKeyManager {
 	 * seconds since more frequent access could allow an app with a bad key to
 	 * cause the db to be queried to often putting an unneeded burden on the db.
 	 * <p>
-	 * Synchronized because can have simultaneous access and using a cache.
+	 * Only rereading the keys is synchronized so that checking a key that is
+	 * already in the cache doesn't lock.
 	 * 
 	 * @param key
 	 *            The key to investigate
 	 * @return True if key is valid
 	 */
-	public synchronized boolean isKeyValid(String key) {
+	public boolean isKeyValid(String key) {
+		// If key is already in cache return true
+		if (apiKeyCache.get(key) != null)
+			return true;
+
+		return rereadAndCheckKey(key);
+	}
+
+	/**
+	 * Rereads the keys from the db, if not done too recently, and returns
+	 * whether the key is valid.
+	 * 
+	 * @param key
+	 * @return True if key is valid
+	 */
+	private synchronized boolean rereadAndCheckKey(String key) {
 		try {
-			// If key is already in cache return true
+			// Another thread might have just reread the keys
 			if (apiKeyCache.get(key) != null)
 				return true;
 
@@ -112,19 +129,34 @@ public class ApiKeyManager {
 				return false;
 			lastTimeKeysReadIntoCache = System.currentTimeMillis();
 
-			// Key wasn't in cache so update the cache in case it was added
-			apiKeyCache.clear();
+			// Key wasn't in cache so update the cache in case it was added.
+			// Build a new map so that readers never see a partial cache.
+			Map<String, ApiKey> newCache =
+					new ConcurrentHashMap<String, ApiKey>();
 			for (ApiKey apiKey : getApiKeys()) {
-				apiKeyCache.put(apiKey.getKey(), apiKey);
+				newCache.put(apiKey.getKey(), apiKey);
 			}
+			apiKeyCache = newCache;
 
-			return apiKeyCache.get(key) != null;
+			return newCache.get(key) != null;
 		} catch (Exception e) {
 			logger.error("Problem checking key \"{}\" to see if valid.", key, e);
 			return false;
 		}
 	}
 
+	/**
+	 * Returns the ApiKey for the key if it is already in the cache. Does not
+	 * read from the db so is suitable for the usage checks that happen for
+	 * every API request.
+	 * 
+	 * @param key
+	 * @return the cached ApiKey, or null if not in the cache
+	 */
+	public ApiKey getCachedApiKey(String key) {
+		return apiKeyCache.get(key);
+	}
+
 	/**
 	 * Gets the API keys from the database. Gets the session for db access. The
 	 * session is specified by parameters in CoreConfig including
@@ -0,0 +1,557 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.gtfs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.StringConfigValue;
+import org.transitime.db.structs.Location;
+import org.transitime.db.structs.ScheduleTime;
+import org.transitime.db.structs.StopPath;
+import org.transitime.db.structs.Trip;
+
+/**
+ * A compact, immutable, memory mapped file containing the bulkiest part of
+ * the GTFS derived configuration: the schedule times of every trip and the
+ * locations of every stop path. Without it these are read from the db a
+ * trip and a stop path at a time and are held as millions of small
+ * ScheduleTime and Location objects. With it they are int and float arrays
+ * in a memory mapped file that can be shared via the OS page cache.
+ * <p>
+ * The file is written by GtfsFileProcessor when the GTFS data is processed.
+ * When DbConfig reads in the configuration it opens the file for the agency
+ * and config rev, creating it from the db first if it doesn't exist yet,
+ * and registers it for the Hibernate SessionFactory of the agency. Trips and
+ * StopPaths loaded by that SessionFactory then only use the binary schedule
+ * for their schedule times and locations and never load their element
+ * collections. Since the schedule is scoped by SessionFactory and config
+ * rev, several agencies can be run in the same JVM.
+ * <p>
+ * Schedule times are interned: each distinct arrival/departure pair is
+ * stored once and held as a single immutable ScheduleTime, and the times of
+ * each trip are indexes into that table. This way getting a schedule time
+ * doesn't allocate anything.
+ * <p>
+ * File layout, all numbers big endian:
+ *
+ * <pre>
+ * int magic, int version, int configRev
+ * int numStrings, then for each: short length, UTF-8 bytes
+ * int numScheduleTimes, then for each distinct schedule time: int arrival
+ *     and int departure secs into day
+ * int numTrips, then for each: int tripId string index, int startTime,
+ *     int times offset, int numTimes
+ * int numPaths, then for each: int tripPatternId string index,
+ *     int stopPathId string index, int coordinates offset,
+ *     int numLocations, double originLat, double originLon
+ * int numTimeValues, then the schedule time index for each stop of each
+ *     trip, or -1 if there is no schedule time for the stop
+ * int numCoordinateValues, then lat and lon offsets from the path origin
+ *     per location
+ * </pre>
+ *
+ * Locations are stored as float offsets from the first location of the path,
+ * which keeps them accurate to well under a millimeter.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class BinarySchedule {
+
+	private static final int MAGIC = 0x54534348; // "TSCH"
+	private static final int VERSION = 3;
+
+	// Marker for a null arrival or departure time and for a stop without a
+	// ScheduleTime
+	private static final int NULL_TIME = Integer.MIN_VALUE;
+	private static final int NO_SCHEDULE_TIME = -1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final int configRev;
+	private final ScheduleTime[] scheduleTimes;
+	// Keyed on tripId. Frequency based trips share a tripId so there can be
+	// multiple indexes for a tripId, distinguished by the trip start time.
+	private final Map<String, int[]> tripIndexes;
+	private final int[] tripStartTimes;
+	private final int[] tripTimesOffsets;
+	private final int[] tripNumTimes;
+	private final Map<String, Map<String, Integer>> pathIndexesByTripPattern;
+	private final int[] pathCoordinatesOffsets;
+	private final int[] pathNumLocations;
+	private final double[] pathOriginLats;
+	private final double[] pathOriginLons;
+	private final IntBuffer times;
+	private final FloatBuffer coordinates;
+
+	// The schedules being used, keyed on the SessionFactory of the agency.
+	// Trip and StopPath objects are created by Hibernate so they get to the
+	// schedule through the Session that loads them.
+	private static final ConcurrentHashMap<SessionFactory, BinarySchedule> 
+			schedulesBySessionFactory =
+					new ConcurrentHashMap<SessionFactory, BinarySchedule>();
+
+	/******************** Parameters ************************************/
+
+	private static StringConfigValue directory =
+			new StringConfigValue("transitime.gtfs.binaryScheduleDirectory",
+					null,
+					"Directory where the binary schedule file is written when "
+					+ "GTFS data is processed and read from when the core "
+					+ "starts. Using it greatly reduces memory use and start "
+					+ "up time for large agencies. If the file for the "
+					+ "config rev doesn't exist when the core starts then it "
+					+ "is created from the db. If not set then the schedule "
+					+ "times and paths are read from the db.");
+
+	/******************** Logging **************************************/
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(BinarySchedule.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @return true if a directory for the binary schedule is configured
+	 */
+	public static boolean isEnabled() {
+		return directory.getValue() != null
+				&& !directory.getValue().isEmpty();
+	}
+
+	/**
+	 * @param agencyId
+	 * @param configRev
+	 * @return the binary schedule file for the agency and config rev
+	 */
+	public static File getFile(String agencyId, int configRev) {
+		return new File(directory.getValue(), "schedule_" + agencyId + "_"
+				+ configRev + ".bin");
+	}
+
+	/**
+	 * Makes the schedule the one used by the Trip and StopPath objects loaded
+	 * by the SessionFactory.
+	 *
+	 * @param sessionFactory
+	 *            The SessionFactory for the agency
+	 * @param schedule
+	 *            The schedule, or null to use the db data
+	 */
+	public static void register(SessionFactory sessionFactory,
+			BinarySchedule schedule) {
+		if (schedule != null)
+			schedulesBySessionFactory.put(sessionFactory, schedule);
+		else
+			schedulesBySessionFactory.remove(sessionFactory);
+	}
+
+	/**
+	 * Returns the schedule to be used by a Trip or StopPath being loaded by
+	 * the session.
+	 *
+	 * @param session
+	 *            The session loading the object
+	 * @param configRev
+	 *            Config rev of the object
+	 * @return the schedule, or null if the db data is to be used
+	 */
+	public static BinarySchedule get(Session session, int configRev) {
+		if (session == null || schedulesBySessionFactory.isEmpty())
+			return null;
+		BinarySchedule schedule =
+				schedulesBySessionFactory.get(session.getSessionFactory());
+		return schedule != null && schedule.configRev == configRev ? 
+				schedule : null;
+	}
+
+	/**
+	 * Writes the schedule times and stop path locations for the config rev to
+	 * the binary schedule file. The file is written to a temporary file first
+	 * and then renamed so that a core never sees a partial file.
+	 *
+	 * @param file
+	 * @param configRev
+	 * @param trips
+	 * @param stopPaths
+	 * @throws IOException
+	 */
+	public static void write(File file, int configRev,
+			Collection<Trip> trips, Collection<StopPath> stopPaths)
+			throws IOException {
+		File dir = file.getParentFile();
+		if (dir != null && !dir.exists() && !dir.mkdirs())
+			throw new IOException("Could not create directory " + dir);
+		File tempFile = new File(file.getPath() + ".tmp");
+
+		// The string table, with each id only stored once
+		Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		for (Trip trip : trips)
+			stringIndex(strings, trip.getId());
+		for (StopPath path : stopPaths) {
+			stringIndex(strings, path.getTripPatternId());
+			stringIndex(strings, path.getId());
+		}
+
+		// The distinct schedule times, with each only stored once
+		Map<ScheduleTime, Integer> distinctTimes =
+				new LinkedHashMap<ScheduleTime, Integer>();
+		for (Trip trip : trips) {
+			for (ScheduleTime scheduleTime : trip.getScheduleTimes()) {
+				if (scheduleTime != null 
+						&& !distinctTimes.containsKey(scheduleTime))
+					distinctTimes.put(scheduleTime, distinctTimes.size());
+			}
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(tempFile), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(configRev);
+
+			out.writeInt(strings.size());
+			for (String s : strings.keySet()) {
+				byte[] bytes = s.getBytes(UTF8);
+				out.writeShort(bytes.length);
+				out.write(bytes);
+			}
+
+			out.writeInt(distinctTimes.size());
+			for (ScheduleTime scheduleTime : distinctTimes.keySet()) {
+				out.writeInt(scheduleTime.getArrivalTime() == null ?
+						NULL_TIME : scheduleTime.getArrivalTime());
+				out.writeInt(scheduleTime.getDepartureTime() == null ?
+						NULL_TIME : scheduleTime.getDepartureTime());
+			}
+
+			int timesOffset = 0;
+			out.writeInt(trips.size());
+			for (Trip trip : trips) {
+				int numTimes = trip.getScheduleTimes().size();
+				out.writeInt(strings.get(trip.getId()));
+				out.writeInt(trip.getStartTime() == null ?
+						NULL_TIME : trip.getStartTime());
+				out.writeInt(timesOffset);
+				out.writeInt(numTimes);
+				timesOffset += numTimes;
+			}
+
+			int coordinatesOffset = 0;
+			out.writeInt(stopPaths.size());
+			for (StopPath path : stopPaths) {
+				List<Location> locations = path.getLocations();
+				out.writeInt(strings.get(path.getTripPatternId()));
+				out.writeInt(strings.get(path.getId()));
+				out.writeInt(coordinatesOffset);
+				out.writeInt(locations.size());
+				Location origin = locations.isEmpty() ? null : locations.get(0);
+				out.writeDouble(origin == null ? 0.0 : origin.getLat());
+				out.writeDouble(origin == null ? 0.0 : origin.getLon());
+				coordinatesOffset += 2 * locations.size();
+			}
+
+			out.writeInt(timesOffset);
+			for (Trip trip : trips) {
+				for (ScheduleTime scheduleTime : trip.getScheduleTimes()) {
+					out.writeInt(scheduleTime == null ? 
+							NO_SCHEDULE_TIME : distinctTimes.get(scheduleTime));
+				}
+			}
+
+			out.writeInt(coordinatesOffset);
+			for (StopPath path : stopPaths) {
+				List<Location> locations = path.getLocations();
+				if (locations.isEmpty())
+					continue;
+				Location origin = locations.get(0);
+				for (Location location : locations) {
+					out.writeFloat((float) (location.getLat() - origin.getLat()));
+					out.writeFloat((float) (location.getLon() - origin.getLon()));
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		if (file.exists() && !file.delete())
+			throw new IOException("Could not replace " + file);
+		if (!tempFile.renameTo(file))
+			throw new IOException("Could not rename " + tempFile + " to "
+					+ file);
+		logger.info("Wrote binary schedule {} with {} trips, {} distinct "
+				+ "schedule times, and {} stop paths", file, trips.size(), 
+				distinctTimes.size(), stopPaths.size());
+	}
+
+	private static int stringIndex(Map<String, Integer> strings, String s) {
+		Integer index = strings.get(s);
+		if (index == null) {
+			index = strings.size();
+			strings.put(s, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Opens the binary schedule file.
+	 *
+	 * @param file
+	 * @param configRev
+	 *            The config rev the file must be for
+	 * @return the schedule
+	 * @throws IOException
+	 *             If the file can't be read, is not a binary schedule, or is
+	 *             for a different config rev
+	 */
+	public static BinarySchedule open(File file, int configRev)
+			throws IOException {
+		return new BinarySchedule(file, configRev);
+	}
+
+	/**
+	 * Memory maps the file and reads in the id tables
+	 *
+	 * @param file
+	 * @param configRev
+	 * @throws IOException
+	 */
+	private BinarySchedule(File file, int configRev) throws IOException {
+		MappedByteBuffer buffer;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+		} finally {
+			raf.close();
+		}
+
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+			throw new IOException("File " + file
+					+ " is not a valid binary schedule");
+		this.configRev = buffer.getInt();
+		if (this.configRev != configRev)
+			throw new IOException("File " + file + " is for configRev "
+					+ this.configRev + " instead of " + configRev);
+
+		// Ids are interned since they are used as map keys elsewhere
+		String[] strings = new String[buffer.getInt()];
+		for (int i = 0; i < strings.length; ++i) {
+			byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+			buffer.get(bytes);
+			strings[i] = new String(bytes, UTF8).intern();
+		}
+
+		// Only the distinct schedule times are created as objects
+		scheduleTimes = new ScheduleTime[buffer.getInt()];
+		for (int i = 0; i < scheduleTimes.length; ++i) {
+			int arrival = buffer.getInt();
+			int departure = buffer.getInt();
+			scheduleTimes[i] = new ScheduleTime(
+					arrival == NULL_TIME ? null : arrival,
+					departure == NULL_TIME ? null : departure);
+		}
+
+		int numTrips = buffer.getInt();
+		tripIndexes = new HashMap<String, int[]>(numTrips * 2);
+		tripStartTimes = new int[numTrips];
+		tripTimesOffsets = new int[numTrips];
+		tripNumTimes = new int[numTrips];
+		for (int i = 0; i < numTrips; ++i) {
+			String tripId = strings[buffer.getInt()];
+			int[] indexes = tripIndexes.get(tripId);
+			if (indexes == null) {
+				indexes = new int[] {i};
+			} else {
+				indexes = Arrays.copyOf(indexes, indexes.length + 1);
+				indexes[indexes.length - 1] = i;
+			}
+			tripIndexes.put(tripId, indexes);
+			tripStartTimes[i] = buffer.getInt();
+			tripTimesOffsets[i] = buffer.getInt();
+			tripNumTimes[i] = buffer.getInt();
+		}
+
+		int numPaths = buffer.getInt();
+		pathIndexesByTripPattern = new HashMap<String, Map<String, Integer>>();
+		pathCoordinatesOffsets = new int[numPaths];
+		pathNumLocations = new int[numPaths];
+		pathOriginLats = new double[numPaths];
+		pathOriginLons = new double[numPaths];
+		for (int i = 0; i < numPaths; ++i) {
+			String tripPatternId = strings[buffer.getInt()];
+			String stopPathId = strings[buffer.getInt()];
+			Map<String, Integer> pathIndexes =
+					pathIndexesByTripPattern.get(tripPatternId);
+			if (pathIndexes == null) {
+				pathIndexes = new HashMap<String, Integer>();
+				pathIndexesByTripPattern.put(tripPatternId, pathIndexes);
+			}
+			pathIndexes.put(stopPathId, i);
+			pathCoordinatesOffsets[i] = buffer.getInt();
+			pathNumLocations[i] = buffer.getInt();
+			pathOriginLats[i] = buffer.getDouble();
+			pathOriginLons[i] = buffer.getDouble();
+		}
+
+		// The bulk of the data stays in the mapped file
+		int numTimeValues = buffer.getInt();
+		times = buffer.slice().asIntBuffer();
+		times.limit(numTimeValues);
+		buffer.position(buffer.position() + 4 * numTimeValues);
+		int numCoordinateValues = buffer.getInt();
+		coordinates = buffer.slice().asFloatBuffer();
+		coordinates.limit(numCoordinateValues);
+
+		logger.info("Opened binary schedule {} with {} trips, {} distinct "
+				+ "schedule times, and {} stop paths", file, numTrips, 
+				scheduleTimes.length, numPaths);
+	}
+
+	public int getConfigRev() {
+		return configRev;
+	}
+
+	/**
+	 * @param tripId
+	 * @param startTime
+	 *            Start time of the trip, which together with the tripId
+	 *            identifies a trip since frequency based trips share a tripId
+	 * @return index of the trip for getScheduleTime(), or -1 if the trip is
+	 *         not in the schedule
+	 */
+	public int getTripIndex(String tripId, Integer startTime) {
+		int[] indexes = tripIndexes.get(tripId);
+		if (indexes == null)
+			return -1;
+		int time = startTime == null ? NULL_TIME : startTime;
+		for (int index : indexes) {
+			if (tripStartTimes[index] == time)
+				return index;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param tripIndex
+	 * @return number of schedule times for the trip
+	 */
+	public int getNumScheduleTimes(int tripIndex) {
+		return tripNumTimes[tripIndex];
+	}
+
+	/**
+	 * Returns the schedule time. Doesn't allocate since the distinct
+	 * schedule times are shared.
+	 * 
+	 * @param tripIndex
+	 *            As returned by getTripIndex()
+	 * @param stopPathIndex
+	 * @return the schedule time, or null if there is none for the stop
+	 */
+	public ScheduleTime getScheduleTime(int tripIndex, int stopPathIndex) {
+		if (stopPathIndex < 0 || stopPathIndex >= tripNumTimes[tripIndex])
+			throw new IndexOutOfBoundsException("stopPathIndex="
+					+ stopPathIndex);
+		int index = times.get(tripTimesOffsets[tripIndex] + stopPathIndex);
+		return index == NO_SCHEDULE_TIME ? null : scheduleTimes[index];
+	}
+
+	/**
+	 * @param tripIndex
+	 * @return read only list of the schedule times for the trip, backed by
+	 *         the mapped file
+	 */
+	public List<ScheduleTime> getScheduleTimes(final int tripIndex) {
+		return new AbstractList<ScheduleTime>() {
+			@Override
+			public ScheduleTime get(int index) {
+				return getScheduleTime(tripIndex, index);
+			}
+
+			@Override
+			public int size() {
+				return tripNumTimes[tripIndex];
+			}
+		};
+	}
+
+	/**
+	 * Returns the locations of the stop path as a read only list backed by
+	 * the mapped file. The Location objects are created as they are accessed
+	 * so callers that use them repeatedly, such as the segment vectors of a
+	 * StopPath, should hold on to them.
+	 * 
+	 * @param tripPatternId
+	 * @param stopPathId
+	 * @return the locations of the stop path, or null if the stop path is not
+	 *         in the schedule
+	 */
+	public List<Location> getLocations(String tripPatternId,
+			String stopPathId) {
+		Map<String, Integer> pathIndexes =
+				pathIndexesByTripPattern.get(tripPatternId);
+		if (pathIndexes == null)
+			return null;
+		Integer pathIndex = pathIndexes.get(stopPathId);
+		if (pathIndex == null)
+			return null;
+
+		final int index = pathIndex;
+		return new AbstractList<Location>() {
+			@Override
+			public Location get(int i) {
+				if (i < 0 || i >= pathNumLocations[index])
+					throw new IndexOutOfBoundsException("index=" + i);
+				int offset = pathCoordinatesOffsets[index] + 2 * i;
+				return new Location(
+						pathOriginLats[index] + coordinates.get(offset),
+						pathOriginLons[index] + coordinates.get(offset + 1));
+			}
+
+			@Override
+			public int size() {
+				return pathNumLocations[index];
+			}
+		};
+	}
+}
@@ -16,6 +16,8 @@
  */
 package org.transitime.gtfs;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -33,6 +35,7 @@ import org.slf4j.LoggerFactory;
 import org.transitime.applications.Core;
 import org.transitime.config.BooleanConfigValue;
 import org.transitime.config.StringConfigValue;
+import org.transitime.core.BlockIntervalIndex;
 import org.transitime.core.ServiceUtils;
 import org.transitime.db.hibernate.HibernateUtils;
 import org.transitime.db.structs.ActiveRevisions;
@@ -85,6 +88,12 @@ public class DbConfig {
 	// So can access blocks by service ID and route ID easily
 	private Map<RouteServiceMapKey, List<Block>> blocksByRouteMap = null;
 
+	// For quickly determining which blocks are active. Keyed on service ID,
+	// and on service ID plus route ID.
+	private Map<String, BlockIntervalIndex> blockIndexesByServiceMap = null;
+	private Map<RouteServiceMapKey, BlockIntervalIndex> blockIndexesByRouteMap =
+			null;
+
 	// Ordered list of routes
 	private List<Route> routes;
 	// Keyed on routeId
@@ -309,6 +318,51 @@ public class DbConfig {
 		return blocksByRouteMap;
 	}
 
+	/**
+	 * Creates the BlockIntervalIndexes used for determining active blocks
+	 * from blocksByServiceMap and blocksByRouteMap.
+	 */
+	private void createBlockIndexes() {
+		blockIndexesByServiceMap = new HashMap<String, BlockIntervalIndex>();
+		for (Map.Entry<String, Map<String, Block>> entry : 
+				blocksByServiceMap.entrySet()) {
+			blockIndexesByServiceMap.put(entry.getKey(),
+					new BlockIntervalIndex(entry.getValue().values()));
+		}
+
+		blockIndexesByRouteMap =
+				new HashMap<RouteServiceMapKey, BlockIntervalIndex>();
+		for (Map.Entry<RouteServiceMapKey, List<Block>> entry : 
+				blocksByRouteMap.entrySet()) {
+			blockIndexesByRouteMap.put(entry.getKey(),
+					new BlockIntervalIndex(entry.getValue()));
+		}
+	}
+
+	/**
+	 * Returns the index of the start and end times of the blocks for the
+	 * service ID.
+	 * 
+	 * @param serviceId
+	 * @return the index, or null if no blocks for the service ID
+	 */
+	public BlockIntervalIndex getBlockIndex(String serviceId) {
+		return blockIndexesByServiceMap.get(serviceId);
+	}
+
+	/**
+	 * Returns the index of the start and end times of the blocks for the
+	 * service ID that serve the route.
+	 * 
+	 * @param serviceId
+	 * @param routeId
+	 * @return the index, or null if no blocks for the service ID and route
+	 */
+	public BlockIntervalIndex getBlockIndex(String serviceId, String routeId) {
+		return blockIndexesByRouteMap.get(
+				new RouteServiceMapKey(serviceId, routeId));
+	}
+
 	/**
 	 * Returns List of Blocks associated with the serviceId and routeId.
 	 * 
@@ -658,6 +712,53 @@ public class DbConfig {
 		return routesMap;
 	}
 
+	/**
+	 * Opens the binary schedule for the agency and config rev if binary
+	 * schedules are enabled. If the file doesn't exist yet, such as for a
+	 * config rev processed before binary schedules were enabled, it is first
+	 * created from the db so that only the first start up needs to read all
+	 * of the schedule times and paths from the db.
+	 * 
+	 * @param configRev
+	 * @return the binary schedule, or null if not enabled or it could not be
+	 *         created or read
+	 */
+	private BinarySchedule openBinarySchedule(int configRev) {
+		if (!BinarySchedule.isEnabled())
+			return null;
+		
+		File file = BinarySchedule.getFile(agencyId, configRev);
+		if (!file.exists()) {
+			logger.info("Binary schedule file {} does not exist so creating "
+					+ "it from the db.", file);
+			IntervalTimer timer = new IntervalTimer();
+			Session session = HibernateUtils.getSession(agencyId);
+			try {
+				BinarySchedule.write(file, configRev, 
+						Trip.getTripsWithScheduleTimes(session, configRev),
+						StopPath.getPathsWithLocations(session, configRev));
+				logger.info("Creating binary schedule took {} msec", 
+						timer.elapsedMsec());
+			} catch (IOException | HibernateException e) {
+				logger.error("Could not create binary schedule {} so reading "
+						+ "schedule times and paths from db instead. {}", file,
+						e.getMessage(), e);
+				return null;
+			} finally {
+				session.close();
+			}
+		}
+		
+		try {
+			return BinarySchedule.open(file, configRev);
+		} catch (IOException e) {
+			logger.error("Could not read binary schedule {} so reading "
+					+ "schedule times and paths from db instead. {}", file,
+					e.getMessage(), e);
+			return null;
+		}
+	}
+
 	/**
 	 * Reads the individual data structures from the database.
 	 * 
@@ -672,6 +773,12 @@ public class DbConfig {
 		// and so that can read in TripPatterns later using the same session.
 		globalSession = HibernateUtils.getSession(agencyId);
 
+		// If there is a binary schedule then the Trips and StopPaths use it
+		// for their schedule times and locations instead of lazily reading
+		// them from the db. Needs to be registered before the blocks are read.
+		BinarySchedule.register(globalSession.getSessionFactory(),
+				openBinarySchedule(configRev));
+
 		// // NOTE. Thought that it might speed things up if would read in
 		// // trips, trip patterns, and stopPaths all at once so that can use a
 		// single
@@ -703,6 +810,7 @@ public class DbConfig {
 		blocks = Block.getBlocks(globalSession, configRev);
 		blocksByServiceMap = putBlocksIntoMap(blocks);
 		blocksByRouteMap = putBlocksIntoMapByRoute(blocks);
+		createBlockIndexes();
 		logger.debug("Reading blocks took {} msec", timer.elapsedMsec());
 
 		timer = new IntervalTimer();
@@ -90,7 +90,7 @@ import org.transitime.gtfs.readers.GtfsStopsSupplementReader;
 import org.transitime.gtfs.readers.GtfsTransfersReader;
 import org.transitime.gtfs.readers.GtfsTripsReader;
 import org.transitime.gtfs.readers.GtfsTripsSupplementReader;
-import org.transitime.monitoring.CloudwatchService;
+import org.transitime.monitoring.metrics.MetricsRegistry;
 import org.transitime.utils.Geo;
 import org.transitime.utils.IntervalTimer;
 import org.transitime.utils.MapKey;
@@ -113,9 +113,6 @@ public class GtfsData {
 	// The session used throughout the class
 	private final Session session;
 	
-	// log metrics
-	private CloudwatchService cloudwatchService;
-	
 	// Various params set by constructor
 	private final ActiveRevisions revs;
 	private final String notes;
@@ -316,7 +313,6 @@ public class GtfsData {
 				HibernateUtils.getSessionFactory(getAgencyId());
 		session = sessionFactory.openSession();
 		
-		cloudwatchService = CloudwatchService.getInstance();
 		// Deal with the ActiveRevisions. First, store the original travel times
 		// rev since need it to read in old travel time data. 		
 		ActiveRevisions originalRevs = ActiveRevisions.get(session); 
@@ -2761,16 +2757,16 @@ public class GtfsData {
     SessionFactory sessionFactory =  
         HibernateUtils.getSessionFactory(getAgencyId());
     Session statsSession = sessionFactory.openSession();
-    cloudwatchService.saveMetric("PredictionLatestConfigRev", configRev*1.0, 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
-    cloudwatchService.saveMetric("PredictionLatestTravelTimesRev", travelTimesRev*1.0, 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
+    MetricsRegistry metrics = MetricsRegistry.getInstance();
+    metrics.gauge("PredictionLatestConfigRev").set(configRev);
+    metrics.gauge("PredictionLatestTravelTimesRev").set(travelTimesRev);
     Long count = Trip.countTravelTimesForTrips(statsSession, travelTimesRev);
-    if (count != null) {
-      cloudwatchService.saveMetric("PredictionTravelTimesForTripsCount", count*1.0, 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
-    } else {
-      cloudwatchService.saveMetric("PredictionTravelTimesForTripsCount", -1.0, 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
-    }
-    cloudwatchService.saveMetric("PredictionTravelTimesForTripsExpectedCount", expectedTravelTimesCount*1.0, 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
-    cloudwatchService.saveMetric("PredictionTravelTimesForTripsOriginalCount", originalTravelTimesCount*1.0, 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
+    metrics.gauge("PredictionTravelTimesForTripsCount").set(count != null ? count : -1.0);
+    metrics.gauge("PredictionTravelTimesForTripsExpectedCount").set(expectedTravelTimesCount);
+    metrics.gauge("PredictionTravelTimesForTripsOriginalCount").set(originalTravelTimesCount);
+    // Export right away since the GTFS processor could exit before the
+    // next export interval
+    metrics.exportNow();
 
     logger.info("Found {} TravelTimesForTrips for {}:{} with expected={}, orginal={}", 
         count, configRev, travelTimesRev, expectedTravelTimesCount, originalTravelTimesCount);
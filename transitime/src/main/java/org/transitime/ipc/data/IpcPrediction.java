@@ -66,10 +66,12 @@ public class IpcPrediction implements Serializable {
 	// True if prediction for last stop of trip
 	private final boolean atEndOfTrip;
 	private final boolean schedBasedPred;
-	// The time of the fix so can tell how stale prediction is
-	private final long avlTime;
+	// The time of the fix so can tell how stale prediction is. Not final
+	// since refreshed when a new AVL report doesn't change the prediction
+	// enough for it to be replaced. See refreshFreshness().
+	private volatile long avlTime;
 	// The time the AVL data was processed and the prediction was created.
-	private final long creationTime;
+	private volatile long creationTime;
 	private final long tripStartEpochTime;
 	private final boolean affectedByWaitStop;
 	private final String driverId;
@@ -467,6 +469,22 @@ public class IpcPrediction implements Serializable {
 		return creationTime;
 	}
 
+	/**
+	 * For when a new AVL report for the vehicle results in a prediction that
+	 * is essentially the same as this one. Instead of replacing this
+	 * prediction everywhere it is used only the times that indicate how
+	 * fresh it is are updated. The prediction itself is not changed.
+	 * 
+	 * @param avlTime
+	 *            Time of the new AVL report
+	 * @param creationTime
+	 *            Time the new AVL report was processed
+	 */
+	public void refreshFreshness(long avlTime, long creationTime) {
+		this.avlTime = avlTime;
+		this.creationTime = creationTime;
+	}
+
 	public long getTripStartEpochTime() {
 		return tripStartEpochTime;
 	}
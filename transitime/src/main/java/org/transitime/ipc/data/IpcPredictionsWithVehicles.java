@@ -0,0 +1,86 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.ipc.data;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Predictions for a stop along with the vehicles that the predictions are
+ * for. For clients such as SIRI StopMonitoring that need vehicle info for
+ * each prediction so that they can get everything with a single RMI call
+ * instead of a call for predictions and then another for the vehicles.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class IpcPredictionsWithVehicles implements Serializable {
+
+	private final List<IpcPredictionsForRouteStopDest> predictions;
+
+	// Keyed by vehicle ID. Only contains each vehicle once even if it has
+	// multiple predictions for the stop.
+	private final HashMap<String, IpcVehicleComplete> vehiclesById;
+
+	private static final long serialVersionUID = 4915390186843410317L;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param predictions
+	 *            The predictions for the stop
+	 * @param vehiclesById
+	 *            The vehicles for the predictions, keyed by vehicle ID
+	 */
+	public IpcPredictionsWithVehicles(
+			List<IpcPredictionsForRouteStopDest> predictions,
+			HashMap<String, IpcVehicleComplete> vehiclesById) {
+		this.predictions = predictions;
+		this.vehiclesById = vehiclesById;
+	}
+
+	@Override
+	public String toString() {
+		return "IpcPredictionsWithVehicles ["
+				+ "predictions=" + predictions
+				+ ", vehicles=" + vehiclesById.values()
+				+ "]";
+	}
+
+	public List<IpcPredictionsForRouteStopDest> getPredictions() {
+		return predictions;
+	}
+
+	/**
+	 * @return The vehicles for the predictions, keyed by vehicle ID
+	 */
+	public Map<String, IpcVehicleComplete> getVehiclesById() {
+		return vehiclesById;
+	}
+
+	/**
+	 * @param vehicleId
+	 * @return The vehicle for the prediction, or null if the vehicle is no
+	 *         longer available
+	 */
+	public IpcVehicleComplete getVehicle(String vehicleId) {
+		return vehiclesById.get(vehicleId);
+	}
+}
@@ -48,4 +48,20 @@ public interface CommandsInterface extends Remote {
 	 * @throws RemoteException
 	 */
 	public String pushAvl(Collection<IpcAvl> avlData) throws RemoteException;
+
+	/**
+	 * Fully records how the AVL reports for the vehicle are processed in the
+	 * processing trace for the specified amount of time. Useful for
+	 * diagnosing problems with a vehicle without having to log everything
+	 * for all vehicles.
+	 * 
+	 * @param vehicleId
+	 * @param durationSecs
+	 *            How long to trace the vehicle. If 0 then tracing of the
+	 *            vehicle is stopped.
+	 * @return If error then contains error message string, otherwise null
+	 * @throws RemoteException
+	 */
+	public String traceVehicle(String vehicleId, int durationSecs)
+			throws RemoteException;
 }
@@ -226,4 +226,15 @@ public interface ConfigInterface extends Remote {
 
 	public List<String> getServiceIdsForDay(Long currentTimeMillis) throws RemoteException;
 
+	/**
+	 * Returns the configuration revision currently being used by the core.
+	 * Changes when new GTFS configuration data is processed and the core
+	 * restarted, so clients can use it to know when cached configuration
+	 * data needs to be reread.
+	 * 
+	 * @return the config rev
+	 * @throws RemoteException
+	 */
+	public int getConfigRev() throws RemoteException;
+
 }
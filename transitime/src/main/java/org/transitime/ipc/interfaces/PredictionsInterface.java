@@ -23,6 +23,7 @@ import java.util.List;
 
 import org.transitime.db.structs.Location;
 import org.transitime.ipc.data.IpcPredictionsForRouteStopDest;
+import org.transitime.ipc.data.IpcPredictionsWithVehicles;
 
 /**
  * Defines the RMI interface used for obtaining predictions. 
@@ -79,6 +80,26 @@ public interface PredictionsInterface extends Remote {
 			String routeShortName, String stopId, int predictionsPerStop) 
 				throws RemoteException;
 	
+	/**
+	 * Returns list of current predictions for the specified route/stop along
+	 * with the vehicles that the predictions are for. Intended for clients
+	 * like SIRI StopMonitoring that need both so that they don't need to make
+	 * a separate RMI call to get the vehicles.
+	 * 
+	 * @param routeIdOrShortName
+	 *            Can be either the GTFS route_id or the route_short_name. If
+	 *            null then predictions for all routes for the stop returned.
+	 * @param stopId
+	 * @param predictionsPerStop
+	 *            Max number of predictions to return for route/stop
+	 * @return The predictions, one IpcPredictionsForRouteStopDest per
+	 *         destination, plus the vehicles for the predictions
+	 * @throws RemoteException
+	 */
+	public IpcPredictionsWithVehicles getWithVehicles(
+			String routeIdOrShortName, String stopId, int predictionsPerStop)
+				throws RemoteException;
+	
 	/**
 	 * For each route/stop specified returns a list of predictions for that
 	 * stop. Since expensive RMI calls are being done this method is much more
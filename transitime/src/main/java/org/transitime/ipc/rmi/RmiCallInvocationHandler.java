@@ -19,10 +19,28 @@ package org.transitime.ipc.rmi;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
 import java.rmi.ConnectException;
+import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -30,6 +48,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.config.IntegerConfigValue;
 import org.transitime.utils.IntervalTimer;
+import org.transitime.utils.threading.NamedThreadFactory;
 
 /**
  * This code is called on the client side when RMI object is accessed.
@@ -47,8 +66,14 @@ import org.transitime.utils.IntervalTimer;
 public class RmiCallInvocationHandler implements InvocationHandler {
 
 	// The object that does the work. For the RMI package this will
-	// be the RMI stub that communicates with the server.
-	private Object delegate;
+	// be the RMI stub that communicates with the server. Volatile since
+	// it is replaced when the stub is refreshed.
+	private volatile Object delegate;
+
+	// So that when multiple calls fail at once the stub is only looked up
+	// in the registry once
+	private long lastStubRefreshTime = 0;
+	private static final long MIN_STUB_REFRESH_INTERVAL_MSEC = 1000;
 
 	// For being able to recreate RMI stub objects when there are 
 	// errors. Also for logging since can't otherwise get classname 
@@ -72,10 +97,53 @@ public class RmiCallInvocationHandler implements InvocationHandler {
 			new ConcurrentHashMap<String, Counts>();
 	
 	private static IntegerConfigValue maxConcurrentCallsPerProjectConfig = new IntegerConfigValue(
-	    "transitime.usage.maxRmiCalls", 100000,
-	    "Maximum number of concurrent RMI calls to allow");
+	    "transitime.usage.maxRmiCalls", 100,
+	    "Maximum number of concurrent RMI calls to allow per agency. Calls "
+	    + "that have passed their deadline count until they actually "
+	    + "finish so that one slow agency cannot use up all the threads.");
 	private static int maxConcurrentCallsPerProject = maxConcurrentCallsPerProjectConfig.getValue().intValue();
 	
+	private static IntegerConfigValue callDeadlineMsec = new IntegerConfigValue(
+			"transitime.rmi.callDeadlineMsec", 8000,
+			"How long a caller waits for an RMI call, including a retry, "
+			+ "before giving up with a RemoteException.");
+	
+	private static IntegerConfigValue minHedgeDelayMsec = new IntegerConfigValue(
+			"transitime.rmi.minHedgeDelayMsec", 250,
+			"For read only RMI calls, if the call takes longer than the 95th "
+			+ "percentile for the method, but at least this many msec, then "
+			+ "a second hedged call is made and whichever returns first is "
+			+ "used. Set to -1 to disable hedging.");
+	
+	// Don't hedge until there is enough history to know what a slow call is
+	private static final long MIN_SAMPLES_FOR_HEDGING = 100;
+	
+	private static IntegerConfigValue healthCheckSecs = new IntegerConfigValue(
+			"transitime.rmi.healthCheckSecs", 15,
+			"How frequently the RMI stubs for agencies whose circuit breaker "
+			+ "is open are looked up again in the background.");
+	
+	private static IntegerConfigValue maxCallThreads = new IntegerConfigValue(
+			"transitime.rmi.maxCallThreads", 500,
+			"Maximum number of threads for RMI calls, for all agencies "
+			+ "together. If all are in use then calls fail right away "
+			+ "instead of creating more threads.");
+	
+	// For running the RMI calls so that the caller can give up at the 
+	// deadline. Threads are only created as needed. The number for an
+	// agency is limited by maxRmiCalls since a call holds its slot until
+	// its thread returns, and the total is limited by maxCallThreads.
+	private static final ExecutorService callExecutor = 
+			new ThreadPoolExecutor(0, maxCallThreads.getValue(), 
+					60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+					new DaemonThreadFactory("rmiCall"));
+	
+	// All the handlers, for the background health check
+	private static final List<RmiCallInvocationHandler> handlers =
+			new CopyOnWriteArrayList<RmiCallInvocationHandler>();
+	
+	private static ScheduledExecutorService healthCheckExecutor = null;
+	
 	// Logging
 	private static final Logger logger = 
 			LoggerFactory.getLogger(RmiCallInvocationHandler.class);
@@ -91,6 +159,9 @@ public class RmiCallInvocationHandler implements InvocationHandler {
 	public RmiCallInvocationHandler(Object delegate, RmiStubInfo info) {
 		this.delegate = delegate;
 		this.info = info;
+		
+		handlers.add(this);
+		startHealthCheck();
 	}
 
 	/**
@@ -161,7 +232,7 @@ public class RmiCallInvocationHandler implements InvocationHandler {
 		return counter;
 	}
 	
-	private static class ConcurrentAccessException extends Throwable {
+	private static class ConcurrentAccessException extends Exception {
 		// Needed because exceptions are Serializable
 		private static final long serialVersionUID = 2130715701627365891L;
 
@@ -170,6 +241,41 @@ public class RmiCallInvocationHandler implements InvocationHandler {
 		}
 	}
 	
+	/**
+	 * A single attempt at an RMI call, run by the callExecutor so that the
+	 * calling thread can give up when the deadline is reached. When done,
+	 * whether it completed, failed, or was cancelled, the call is put onto
+	 * the completion queue of the invocation it is part of. The slot in the
+	 * agency's concurrent call limit is only freed once the thread running
+	 * the call returns, since a cancelled call can still be blocked on the
+	 * agency server.
+	 */
+	private class RmiCall extends FutureTask<Object> {
+		private final Counts accessCounter;
+		private final BlockingQueue<RmiCall> completionQueue;
+		
+		RmiCall(Callable<Object> callable, Counts accessCounter,
+				BlockingQueue<RmiCall> completionQueue) {
+			super(callable);
+			this.accessCounter = accessCounter;
+			this.completionQueue = completionQueue;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				super.run();
+			} finally {
+				accessCounter.current.decrementAndGet();
+			}
+		}
+		
+		@Override
+		protected void done() {
+			completionQueue.add(this);
+		}
+	}
+	
 	/**
 	 * The invoke() method does all the work. It calls the remote method
 	 * but it also logs debug info such as how long the call took. Also
@@ -183,14 +289,17 @@ public class RmiCallInvocationHandler implements InvocationHandler {
 	 * exception will be thrown. This prevents a client such as a web
 	 * server from opening up too many connections when the project gets
 	 * bogged down.
+	 * <p>
+	 * The remote call is done in a separate thread so that the caller only
+	 * waits until the deadline, even if the call itself hangs until the RMI
+	 * socket timeout. For read only methods, if the call is taking longer
+	 * than is typical for the method, a second hedged call is made and
+	 * whichever result comes back first is used. If the agency's circuit
+	 * breaker is open the call fails immediately.
 	 */
 	@Override
 	public Object invoke(Object proxy, Method method, Object[] args)
 			throws Throwable {
-		// For keeping track of which try we are on so can retry
-		// if get a RemoteException.
-		int tryNumber = 0;
-		
 		// When dispatching method invocations delegate object 3 methods from 
 		// java.lang.Object need special handling: toString(), hashCode() and 
 		// equals(Object). Since they are related to the proxy object identity, 
@@ -212,96 +321,244 @@ public class RmiCallInvocationHandler implements InvocationHandler {
 			}
 		}
 		
-		// Keep looping until get valid result or exception is thrown.
-		// If get RemoteException will retry once in case rebind to
-		// server object helps or if there was an unusual and short
-		// lived networking problem.
-		while (true) {
-			// Update how many tries used to invoke method call
-			++tryNumber;
-			
+		RmiCallStats stats = RmiCallStats.get(info.getAgencyId(),
+				info.getClassName(), method.getName());
+		RmiCircuitBreaker circuitBreaker =
+				RmiCircuitBreaker.get(info.getAgencyId());
+
+		// If the agency server has been failing then don't tie up a thread
+		// waiting for it. Fail right away.
+		if (!circuitBreaker.allowCall()) {
+			stats.recordRejected();
+			throw new RemoteException("Circuit breaker for agency "
+					+ info.getAgencyId() + " is open due to "
+					+ circuitBreaker.getConsecutiveFailures()
+					+ " consecutive failures so not calling remote method "
+					+ info.getClassName() + "." + method.getName() + "().");
+		}
+		
+		// Checking debug so only call methods to generate logging if
+		// actually necessary
+		boolean debug = logger.isDebugEnabled();
+		if (debug) {
+			logger.debug("About to call remote method {}.{}() for "
+					+ "project {}.", info.getClassName(),
+					method.getName(), info.getAgencyId());
+		}
+
+		IntervalTimer timer = new IntervalTimer();
+		long deadlineTime = System.currentTimeMillis() 
+				+ callDeadlineMsec.getValue();
+		
+		// Only hedge read only methods, and only once there is enough
+		// history to know what a slow call is
+		long hedgeDelayMsec = isReadOnly(method) ? 
+				getHedgeDelayMsec(stats) : -1;
+		long hedgeTime = hedgeDelayMsec >= 0 ? 
+				System.currentTimeMillis() + hedgeDelayMsec : Long.MAX_VALUE;
+
+		BlockingQueue<RmiCall> completionQueue = 
+				new LinkedBlockingQueue<RmiCall>();
+		List<RmiCall> outstandingCalls = new ArrayList<RmiCall>(2);
+		boolean retried = false;
+		// So that the trial call of a half open circuit breaker is released
+		// however the call ends, such as when the caller is interrupted
+		boolean outcomeRecorded = false;
+		try {
 			try {
-				// Not a java.lang.Object method that needs to be handled specially so
-				// handle it normally. But instrument it with a timer and logging
-				// and also handle RemoteExceptions.
-				IntervalTimer t = new IntervalTimer();
-				// Checking debug so only call methods to generate logging if
-				// actually necessary
-				boolean debug = logger.isDebugEnabled();
-				if (debug) {
-					logger.debug("About to call remote method {}.{}() for "
-							+ "project {}.", info.getClassName(),
-							method.getName(), info.getAgencyId());
-				}
+				outstandingCalls.add(
+						startCall(method, args, completionQueue));
+			} catch (ConcurrentAccessException e) {
+				// Throw a RemoteException since that is what these methods
+				// are supposed to throw. Not a communication failure so
+				// circuit breaker not affected. The trial call, if there
+				// was one, is released in the finally block.
+				stats.recordRejected();
+				throw new RemoteException(e.getMessage());
+			}
+			
+			// Keep looping until get valid result or exception is thrown.
+			while (true) {
+				long now = System.currentTimeMillis();
+				long waitUntil = Math.min(deadlineTime, hedgeTime);
+				RmiCall completedCall = completionQueue.poll(
+						Math.max(0, waitUntil - now), TimeUnit.MILLISECONDS);
 				
-				// Do the actual invocation of the method!
-				Object result = invokeIfNotTooMuchConcurrentAccess(method, args);
-							
-				// If debug, log how long remote method took
-				if (debug) {
-					logger.debug("Remote method {}.{}() for project {} took "
-							+ "{} msec.", 
-							info.getClassName(), method.getName(), 
-							info.getAgencyId(),	t.elapsedMsec());
+				if (completedCall == null) {
+					if (System.currentTimeMillis() >= deadlineTime) {
+						// Deadline reached without getting a result
+						stats.recordTimeout(timer.elapsedMsec());
+						circuitBreaker.recordFailure();
+						outcomeRecorded = true;
+						String message = "Remote method "
+								+ info.getClassName() + "." + method.getName() 
+								+ "() for agency " + info.getAgencyId() 
+								+ " did not complete within deadline of "
+								+ callDeadlineMsec.getValue() + " msec.";
+						logger.error(message);
+						throw new RemoteException(message);
+					}
+					
+					// Hedge time reached so make a second call. Only hedge
+					// once. If no capacity for the hedged call then simply
+					// continue waiting for the first one.
+					hedgeTime = Long.MAX_VALUE;
+					try {
+						outstandingCalls.add(
+								startCall(method, args, completionQueue));
+						stats.recordHedge();
+						if (debug) {
+							logger.debug("Remote method {}.{}() for project "
+									+ "{} taking more than {} msec so made "
+									+ "hedged call.", info.getClassName(),
+									method.getName(), info.getAgencyId(), 
+									hedgeDelayMsec);
+						}
+					} catch (ConcurrentAccessException e) {
+						// No capacity so just keep waiting
+					}
+					continue;
 				}
 				
-				// Finally done so return results of method call
-				return result;
-			} catch (RemoteException e) {
-				// Getting a remote exception could mean the server object
-				// needs to be rebound. Perhaps the server was restarted or
-				// moved. For this situation want to create new RMI stub
-				// and try again, if not too many tries.
-				// Note that this can in turn throw RemoteException or NotBoundException
-				boolean updateHostName = true;
-				delegate = ClientFactory.getRmiStub(info, updateHostName);
-	
-				// If this is already the second try give up. Trying yet again
-				// right away is most likely not going to help with a networking
-				// problem or the server not running.
-				if (tryNumber >= 2) {
+				outstandingCalls.remove(completedCall);
+				try {
+					// Finally done so return results of method call
+					Object result = completedCall.get();
+					stats.recordSuccess(timer.elapsedMsec());
+					circuitBreaker.recordSuccess();
+					outcomeRecorded = true;
+					
+					// If debug, log how long remote method took
+					if (debug) {
+						logger.debug("Remote method {}.{}() for project {} "
+								+ "took {} msec.", 
+								info.getClassName(), method.getName(), 
+								info.getAgencyId(),	timer.elapsedMsec());
+					}
+					return result;
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (!(cause instanceof RemoteException)) {
+						// Exception thrown by the server object itself. The
+						// communication worked so pass the exception to the
+						// caller.
+						stats.recordSuccess(timer.elapsedMsec());
+						circuitBreaker.recordSuccess();
+						outcomeRecorded = true;
+						throw cause;
+					}
+					
+					// Communication problem. If a hedged call is still
+					// outstanding then wait for it.
+					if (!outstandingCalls.isEmpty())
+						continue;
+					
+					// Getting a remote exception could mean the server
+					// object needs to be rebound. Perhaps the server was
+					// restarted or moved. For this situation want to get a
+					// new RMI stub and try again, but only once since trying
+					// yet again right away is most likely not going to help
+					// with a networking problem or the server not running.
+					if (!retried && System.currentTimeMillis() < deadlineTime) {
+						retried = true;
+						hedgeTime = Long.MAX_VALUE;
+						refreshStub();
+						try {
+							outstandingCalls.add(
+									startCall(method, args, completionQueue));
+							continue;
+						} catch (ConcurrentAccessException e2) {
+							// Can't retry so fall through to failing
+						}
+					}
+					
+					stats.recordError(timer.elapsedMsec());
+					circuitBreaker.recordFailure();
+					outcomeRecorded = true;
 					String message = "Remote method "
 						+ info.getClassName() + "."
 						+ method.getName() + "() for agency " 
 						+ info.getAgencyId() + " encountered exception. "
-						+ e.getMessage() + ". "	+ e.getCause().getMessage()
-						+ ". Gave up after second attempt. Does security allow "
+						+ cause.getMessage() + ". "
+						+ (cause.getCause() != null ? 
+								cause.getCause().getMessage() + ". " : "")
+						+ "Gave up after second attempt. Does security allow "
 						+ "access to the secondary RMI port? "
 						+ "Is the Java system property java.rmi.server.hostname "
 						+ "set to the proper host name? "
 						+ "Is the Java system "
 						+ "property transitime.rmi.timeoutSec timeout time of "
 						+ ClientFactory.getTimeoutSec()	+ " seconds adequate?";
-					
 					logger.error(message);
 					throw new RemoteException(message);
 				}
-			} catch (ConcurrentAccessException e) {
-				// Encountered a ConcurrentAccessException which means the RMI
-				// call could not be done. Throw a RemoteException since that is
-				// what these methods are supposed to throw. Need to handle 
-				// differently from RemoteException because for 
-				// ConcurrentAccessException don't want to rebind and such since
-				// that is not the problem.
-				throw new RemoteException(e.getMessage());
 			}
-		}	
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RemoteException("Interrupted while calling remote "
+					+ "method " + info.getClassName() + "." 
+					+ method.getName() + "() for agency " 
+					+ info.getAgencyId());
+		} finally {
+			// Don't need any calls that are still outstanding, such as the
+			// slower of hedged calls
+			for (RmiCall call : outstandingCalls)
+				call.cancel(true);
+			
+			// If the call didn't end with a success or failure then the
+			// circuit breaker wasn't told, so free up the trial call
+			if (!outcomeRecorded)
+				circuitBreaker.callNotMade();
+		}
+	}
+	
+	/**
+	 * Read only methods can safely be called twice, which is needed for
+	 * hedging. The remote interfaces use "get" as the prefix for such methods.
+	 * 
+	 * @param method
+	 * @return true if method can be hedged
+	 */
+	private static boolean isReadOnly(Method method) {
+		return method.getName().startsWith("get");
+	}
+	
+	/**
+	 * Determines how long to wait before making a hedged call. Uses the 95th
+	 * percentile latency for the method so that only the slowest calls are
+	 * hedged.
+	 * 
+	 * @param stats
+	 * @return msec to wait before hedging, or -1 if should not hedge
+	 */
+	private static long getHedgeDelayMsec(RmiCallStats stats) {
+		int minDelayMsec = minHedgeDelayMsec.getValue();
+		if (minDelayMsec < 0 
+				|| stats.getSampleCount() < MIN_SAMPLES_FOR_HEDGING)
+			return -1;
+		
+		long p95Msec = stats.getPercentileMsec(95.0);
+		if (p95Msec == Long.MAX_VALUE)
+			return -1;
+		return Math.max(minDelayMsec, p95Msec);
 	}
 	
 	/**
 	 * Checks to see how many RMI calls are currently active for the project. If
-	 * not too many then the RMI call is invoked. But if too many then
-	 * ConcurrentAccessException is thrown.
+	 * not too many then the RMI call is started in a separate thread. But if
+	 * too many then ConcurrentAccessException is thrown.
 	 * 
 	 * @param method
 	 * @param args
-	 * @return the Object result of the RMI call
-	 * @throws Throwable
-	 *             the RMI method can throw just about anything. And this method
-	 *             might also throw ConcurrentAccessException
+	 * @param completionQueue
+	 *            where the call is put when it is done
+	 * @return the started call
+	 * @throws ConcurrentAccessException
+	 *             if too many calls already in process for the project
 	 */
-	private Object invokeIfNotTooMuchConcurrentAccess(Method method, Object[] args) 
-			throws Throwable {
+	private RmiCall startCall(final Method method, final Object[] args,
+			BlockingQueue<RmiCall> completionQueue) 
+					throws ConcurrentAccessException {
 		// If don't have too many simultaneous calls happening for the 
 		// project server then execute the RMI call. But if too many
 		// calls simply log the error and throw exception. This is an 
@@ -310,9 +567,15 @@ public class RmiCallInvocationHandler implements InvocationHandler {
 		// collecting, denial of service attack, etc) don't want to
 		// burden the project even more with additional calls. 
 		// Therefore when behind want to return as quickly as possible.
+		// Calls that have passed their deadline still count until they
+		// actually finish, so a slow agency can only tie up a limited
+		// number of threads.
 		Counts accessCounter = getAccessCounter(info.getAgencyId());
 		accessCounter.total.incrementAndGet();
-		if (accessCounter.current.get() >= getMaxConcurrentCallsPerProject()) {
+		if (accessCounter.current.incrementAndGet() 
+				> getMaxConcurrentCallsPerProject()) {
+			accessCounter.current.decrementAndGet();
+			
 			// Currently too many RMI calls is progress so log error
 			// and throw exception
 			String message = "Reached MAX_CURRENT_CALLS_PER_PROJECT="
@@ -323,18 +586,109 @@ public class RmiCallInvocationHandler implements InvocationHandler {
 					+ info.getAgencyId() + " so throwing exception.";
 			logger.error(message);
 			throw new ConcurrentAccessException(message);
-		} else {
-			try {
-				// Keep track that another RMI call is being initiated
-				accessCounter.current.incrementAndGet();
-				
-				// Actually make the RMI call
-				Object result = lowLevelInvoke(method, args);
-				return result;
-			} finally {
-				// Make sure that access counter decrement no matter what
-				accessCounter.current.decrementAndGet();
+		}
+		
+		// The access counter is decremented when the call's thread returns
+		Callable<Object> callable = new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return lowLevelInvoke(method, args);
+			}
+		};
+		RmiCall call = 
+				new RmiCall(callable, accessCounter, completionQueue);
+		try {
+			callExecutor.execute(call);
+		} catch (RejectedExecutionException e) {
+			accessCounter.current.decrementAndGet();
+			String message = "Reached transitime.rmi.maxCallThreads="
+					+ maxCallThreads.getValue() + " of RMI call threads "
+					+ "when calling remote method " + info.getClassName() 
+					+ "." + method.getName() + "() for project "
+					+ info.getAgencyId() + " so throwing exception.";
+			logger.error(message);
+			throw new ConcurrentAccessException(message);
+		}
+		return call;
+	}
+	
+	/**
+	 * Gets a new RMI stub from the registry in case the server was restarted
+	 * or moved. If another thread just did so then that stub is used instead
+	 * of looking it up yet again.
+	 * 
+	 * @return true if the stub could be obtained
+	 */
+	private synchronized boolean refreshStub() {
+		long now = System.currentTimeMillis();
+		if (now - lastStubRefreshTime < MIN_STUB_REFRESH_INTERVAL_MSEC)
+			return true;
+		lastStubRefreshTime = now;
+		
+		try {
+			boolean updateHostName = true;
+			delegate = ClientFactory.getRmiStub(info, updateHostName);
+			return true;
+		} catch (RemoteException | NotBoundException e) {
+			logger.error("Could not get RMI stub for {} for agency {}. {}",
+					info.getClassName(), info.getAgencyId(), e.getMessage());
+			return false;
+		}
+	}
+	
+	/**
+	 * Run periodically in the background. For agencies whose circuit breaker
+	 * is open gets a new RMI stub. If that works then the server is up again
+	 * and a trial call is allowed right away, and the stub is already
+	 * available so the calling thread doesn't need to get it.
+	 */
+	private static void checkHealth() {
+		for (RmiCallInvocationHandler handler : handlers) {
+			RmiCircuitBreaker circuitBreaker = 
+					RmiCircuitBreaker.get(handler.info.getAgencyId());
+			if (circuitBreaker.isOpen() && handler.refreshStub())
+				circuitBreaker.serverReachable();
+		}
+	}
+	
+	/**
+	 * Starts the background health check if not already running
+	 */
+	private static synchronized void startHealthCheck() {
+		if (healthCheckExecutor != null)
+			return;
+		
+		healthCheckExecutor = Executors.newSingleThreadScheduledExecutor(
+				new DaemonThreadFactory("rmiHealthCheck"));
+		int periodSecs = healthCheckSecs.getValue();
+		healthCheckExecutor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					checkHealth();
+				} catch (Exception e) {
+					logger.error("Exception in RMI health check", e);
+				}
 			}
+		}, periodSecs, periodSecs, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * So that the threads used for RMI calls don't prevent a client process
+	 * from exiting.
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final NamedThreadFactory namedThreadFactory;
+		
+		DaemonThreadFactory(String poolName) {
+			namedThreadFactory = new NamedThreadFactory(poolName);
+		}
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = namedThreadFactory.newThread(runnable);
+			thread.setDaemon(true);
+			return thread;
 		}
 	}
 	
@@ -345,11 +699,11 @@ public class RmiCallInvocationHandler implements InvocationHandler {
 	 * @param method
 	 * @param args
 	 * @return the Object result of the RMI call
-	 * @throws Throwable
+	 * @throws Exception
 	 *             the RMI method can throw just about anything
 	 */
 	private Object lowLevelInvoke(Method method, Object[] args) 
-			throws Throwable {
+			throws Exception {
 		// Actually invoke the method on the RMI object
 		try {
 			// Invoke it
@@ -391,7 +745,11 @@ public class RmiCallInvocationHandler implements InvocationHandler {
 						+ "encountered exception {}.",
 						info.getClassName(), method.getName(), 
 						info.getAgencyId(), causeException);
-				throw causeException;
+				if (causeException instanceof Exception)
+					throw (Exception) causeException;
+				if (causeException instanceof Error)
+					throw (Error) causeException;
+				throw new UndeclaredThrowableException(causeException);
 			}
 		}		
 	}
@@ -0,0 +1,236 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.ipc.rmi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Client side statistics for a remote method of an agency: how many calls,
+ * how many failed, timed out, were hedged or were rejected, plus a latency
+ * histogram. The histogram uses fixed buckets so that recording a call is
+ * just a couple of atomic increments.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class RmiCallStats {
+
+	private final String agencyId;
+	private final String methodName;
+
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong hedges = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	// Upper limits of the latency buckets in msec. There is an additional
+	// last bucket for anything longer.
+	private static final long[] BUCKET_LIMITS_MSEC = { 1, 2, 5, 10, 20, 50,
+			100, 200, 500, 1000, 2000, 5000, 10000 };
+	private final AtomicLongArray latencyBuckets =
+			new AtomicLongArray(BUCKET_LIMITS_MSEC.length + 1);
+
+	// Keyed by agencyId and method name
+	private static final ConcurrentHashMap<String, RmiCallStats> statsMap =
+			new ConcurrentHashMap<String, RmiCallStats>();
+
+	/********************** Member Functions **************************/
+
+	private RmiCallStats(String agencyId, String methodName) {
+		this.agencyId = agencyId;
+		this.methodName = methodName;
+	}
+
+	/**
+	 * Returns the stats for the specified remote method, creating them if
+	 * needed.
+	 *
+	 * @param agencyId
+	 * @param className
+	 *            Simple name of the remote interface
+	 * @param methodName
+	 * @return the stats for the method
+	 */
+	public static RmiCallStats get(String agencyId, String className,
+			String methodName) {
+		String fullMethodName = className + "." + methodName;
+		String key = agencyId + "|" + fullMethodName;
+		RmiCallStats stats = statsMap.get(key);
+		if (stats == null) {
+			stats = new RmiCallStats(agencyId, fullMethodName);
+			RmiCallStats existing = statsMap.putIfAbsent(key, stats);
+			if (existing != null)
+				stats = existing;
+		}
+		return stats;
+	}
+
+	/**
+	 * @param agencyId
+	 * @return stats for all the methods that have been called for the agency
+	 */
+	public static List<RmiCallStats> getForAgency(String agencyId) {
+		List<RmiCallStats> results = new ArrayList<RmiCallStats>();
+		for (RmiCallStats stats : statsMap.values()) {
+			if (stats.agencyId.equals(agencyId))
+				results.add(stats);
+		}
+		return results;
+	}
+
+	private void recordLatency(long latencyMsec) {
+		int bucket = 0;
+		while (bucket < BUCKET_LIMITS_MSEC.length
+				&& latencyMsec > BUCKET_LIMITS_MSEC[bucket])
+			++bucket;
+		latencyBuckets.incrementAndGet(bucket);
+	}
+
+	/**
+	 * Records a call that returned a result or an exception from the server
+	 * object itself.
+	 */
+	void recordSuccess(long latencyMsec) {
+		calls.incrementAndGet();
+		recordLatency(latencyMsec);
+	}
+
+	/**
+	 * Records a call that failed due to a communication problem
+	 */
+	void recordError(long latencyMsec) {
+		calls.incrementAndGet();
+		errors.incrementAndGet();
+		recordLatency(latencyMsec);
+	}
+
+	/**
+	 * Records a call that didn't complete before its deadline
+	 */
+	void recordTimeout(long latencyMsec) {
+		calls.incrementAndGet();
+		timeouts.incrementAndGet();
+		recordLatency(latencyMsec);
+	}
+
+	/**
+	 * Records that a second, hedged, call was made because the first one was
+	 * slow.
+	 */
+	void recordHedge() {
+		hedges.incrementAndGet();
+	}
+
+	/**
+	 * Records a call that was not made because the circuit breaker was open
+	 * or too many calls were already in process.
+	 */
+	void recordRejected() {
+		rejected.incrementAndGet();
+	}
+
+	/**
+	 * Returns the upper limit of the latency bucket containing the specified
+	 * percentile. Since buckets are used this is an approximation.
+	 *
+	 * @param percentile
+	 *            Between 0.0 and 100.0
+	 * @return latency in msec, Long.MAX_VALUE if longer than the largest
+	 *         bucket, or -1 if no calls yet
+	 */
+	public long getPercentileMsec(double percentile) {
+		long total = 0;
+		long[] counts = new long[latencyBuckets.length()];
+		for (int i = 0; i < counts.length; ++i) {
+			counts[i] = latencyBuckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0)
+			return -1;
+
+		long countNeeded = (long) Math.ceil(total * percentile / 100.0);
+		long cumulative = 0;
+		for (int i = 0; i < BUCKET_LIMITS_MSEC.length; ++i) {
+			cumulative += counts[i];
+			if (cumulative >= countNeeded)
+				return BUCKET_LIMITS_MSEC[i];
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return Total number of calls whose latency has been recorded
+	 */
+	public long getSampleCount() {
+		long total = 0;
+		for (int i = 0; i < latencyBuckets.length(); ++i)
+			total += latencyBuckets.get(i);
+		return total;
+	}
+
+	public String getAgencyId() {
+		return agencyId;
+	}
+
+	/**
+	 * @return the class and method name, e.g. "ConfigInterface.getRoutes"
+	 */
+	public String getMethodName() {
+		return methodName;
+	}
+
+	public long getCalls() {
+		return calls.get();
+	}
+
+	public long getErrors() {
+		return errors.get();
+	}
+
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	public long getHedges() {
+		return hedges.get();
+	}
+
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	@Override
+	public String toString() {
+		return "RmiCallStats ["
+				+ "agencyId=" + agencyId
+				+ ", methodName=" + methodName
+				+ ", calls=" + calls
+				+ ", errors=" + errors
+				+ ", timeouts=" + timeouts
+				+ ", hedges=" + hedges
+				+ ", rejected=" + rejected
+				+ ", p50Msec=" + getPercentileMsec(50.0)
+				+ ", p99Msec=" + getPercentileMsec(99.0)
+				+ "]";
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.ipc.rmi;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.IntegerConfigValue;
+
+/**
+ * Circuit breaker for the RMI calls to an agency server. After several
+ * consecutive communication failures the circuit is opened and calls fail
+ * immediately instead of each tying up a thread until the RMI timeout. Once
+ * the open period has passed, or a background health check finds the server
+ * again, a single trial call is let through. If it succeeds the circuit is
+ * closed again.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class RmiCircuitBreaker {
+
+	private final String agencyId;
+
+	private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+	// When the open circuit should allow a trial call. 0 means the circuit
+	// is closed.
+	private volatile long openUntilTime = 0;
+
+	// So that only a single trial call is made when half open
+	private final AtomicBoolean trialCallInProcess = new AtomicBoolean(false);
+
+	// Keyed on agencyId
+	private static final ConcurrentHashMap<String, RmiCircuitBreaker> circuitBreakers =
+			new ConcurrentHashMap<String, RmiCircuitBreaker>();
+
+	private static IntegerConfigValue failuresToOpen = new IntegerConfigValue(
+			"transitime.rmi.circuitBreakerFailures", 5,
+			"Number of consecutive RMI communication failures for an agency "
+					+ "before its circuit breaker opens and further calls "
+					+ "fail immediately. Set to 0 to disable.");
+
+	private static IntegerConfigValue openMsec = new IntegerConfigValue(
+			"transitime.rmi.circuitBreakerOpenMsec", 10000,
+			"How long the circuit breaker for an agency stays open before a "
+					+ "trial RMI call is allowed.");
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(RmiCircuitBreaker.class);
+
+	/********************** Member Functions **************************/
+
+	private RmiCircuitBreaker(String agencyId) {
+		this.agencyId = agencyId;
+	}
+
+	/**
+	 * @param agencyId
+	 * @return the circuit breaker for the agency, created if needed
+	 */
+	public static RmiCircuitBreaker get(String agencyId) {
+		RmiCircuitBreaker circuitBreaker = circuitBreakers.get(agencyId);
+		if (circuitBreaker == null) {
+			circuitBreaker = new RmiCircuitBreaker(agencyId);
+			RmiCircuitBreaker existing =
+					circuitBreakers.putIfAbsent(agencyId, circuitBreaker);
+			if (existing != null)
+				circuitBreaker = existing;
+		}
+		return circuitBreaker;
+	}
+
+	/**
+	 * @return true if a call can be made. If the circuit is half open only
+	 *         returns true for the single trial call.
+	 */
+	boolean allowCall() {
+		long openUntil = openUntilTime;
+		if (openUntil == 0)
+			return true;
+		if (System.currentTimeMillis() < openUntil)
+			return false;
+		return trialCallInProcess.compareAndSet(false, true);
+	}
+
+	/**
+	 * For when allowCall() returned true but the call was then not made, such
+	 * as due to too many calls in process, or was abandoned without a result,
+	 * such as when the caller was interrupted. Frees up the trial call.
+	 */
+	void callNotMade() {
+		trialCallInProcess.set(false);
+	}
+
+	/**
+	 * Call was able to communicate with the server so close the circuit
+	 */
+	void recordSuccess() {
+		consecutiveFailures.set(0);
+		if (openUntilTime != 0) {
+			openUntilTime = 0;
+			logger.info("RMI circuit breaker for agencyId={} closed since "
+					+ "call succeeded.", agencyId);
+		}
+		trialCallInProcess.set(false);
+	}
+
+	/**
+	 * Call could not communicate with the server. Opens the circuit if there
+	 * have been too many consecutive failures.
+	 */
+	void recordFailure() {
+		int failures = consecutiveFailures.incrementAndGet();
+		int threshold = failuresToOpen.getValue();
+		if (threshold > 0 && failures >= threshold) {
+			if (openUntilTime == 0) {
+				logger.error("RMI circuit breaker for agencyId={} opened "
+						+ "after {} consecutive failures. Calls will fail "
+						+ "immediately for {} msec.",
+						agencyId, failures, openMsec.getValue());
+			}
+			openUntilTime = System.currentTimeMillis() + openMsec.getValue();
+		}
+		trialCallInProcess.set(false);
+	}
+
+	/**
+	 * For when a health check finds that the server is reachable again. Makes
+	 * the circuit half open so that the next call is a trial call instead of
+	 * waiting for the rest of the open period.
+	 */
+	void serverReachable() {
+		if (openUntilTime != 0) {
+			openUntilTime = System.currentTimeMillis();
+			logger.info("RMI server for agencyId={} reachable again so "
+					+ "allowing a trial call.", agencyId);
+		}
+	}
+
+	/**
+	 * @return true if circuit is open or half open
+	 */
+	public boolean isOpen() {
+		return openUntilTime != 0;
+	}
+
+	/**
+	 * @return "closed", "open", or "halfOpen"
+	 */
+	public String getState() {
+		long openUntil = openUntilTime;
+		if (openUntil == 0)
+			return "closed";
+		return System.currentTimeMillis() < openUntil ? "open" : "halfOpen";
+	}
+
+	public int getConsecutiveFailures() {
+		return consecutiveFailures.get();
+	}
+}
@@ -69,7 +69,11 @@
  the number of current calls to a project are limited so that the
  server cannot be overwhelmed. This prevents problems due to denial of
  service attack or the project doing stop the world garbage collecting
- and therefore being unavailable for a while.
+ and therefore being unavailable for a while. Each call is given a deadline,
+ slow read only calls are hedged with a second call, and a per agency
+ circuit breaker (RmiCircuitBreaker) makes calls fail fast when an agency
+ server is down. Latency and error statistics per remote method are kept
+ in RmiCallStats.
  <p>
  To create a RMI object do the following:
  <ul>
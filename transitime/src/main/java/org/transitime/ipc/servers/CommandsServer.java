@@ -10,6 +10,7 @@ import org.transitime.db.structs.AvlReport;
 import org.transitime.ipc.data.IpcAvl;
 import org.transitime.ipc.interfaces.CommandsInterface;
 import org.transitime.ipc.rmi.AbstractServer;
+import org.transitime.logging.ProcessingTrace;
 
 public class CommandsServer extends AbstractServer 
 	implements CommandsInterface {
@@ -96,4 +97,26 @@ public class CommandsServer extends AbstractServer
 		return null;
 	}
 
+	/**
+	 * Called on server side via RMI to trace the processing of a vehicle
+	 * 
+	 * @param vehicleId
+	 * @param durationSecs
+	 *            How long to trace the vehicle, or 0 to stop tracing it
+	 * @return Null if OK, otherwise an error message
+	 */
+	@Override
+	public String traceVehicle(String vehicleId, int durationSecs)
+			throws RemoteException {
+		if (vehicleId == null || vehicleId.isEmpty())
+			return "No vehicleId specified";
+		if (durationSecs < 0)
+			return "Duration cannot be negative";
+
+		ProcessingTrace.getInstance().traceVehicle(vehicleId, durationSecs);
+		
+		// Return that was successful
+		return null;
+	}
+
 }
@@ -439,4 +439,12 @@ public class ConfigServer extends AbstractServer implements ConfigInterface {
 	public List<String> getServiceIdsForDay(Long day) {
 		return Core.getInstance().getServiceUtils().getServiceIdsForDay(day);
 	}
+
+	/* (non-Javadoc)
+	 * @see org.transitime.ipc.interfaces.ConfigInterface#getConfigRev()
+	 */
+	@Override
+	public int getConfigRev() throws RemoteException {
+		return Core.getInstance().getDbConfig().getConfigRev();
+	}
 }
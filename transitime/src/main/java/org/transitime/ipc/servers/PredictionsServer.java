@@ -20,16 +20,21 @@ import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.applications.Core;
 import org.transitime.core.dataCache.PredictionDataCache;
+import org.transitime.core.dataCache.VehicleDataCache;
 import org.transitime.db.structs.Location;
 import org.transitime.gtfs.StopsByLoc;
 import org.transitime.gtfs.StopsByLoc.StopInfo;
+import org.transitime.ipc.data.IpcPrediction;
 import org.transitime.ipc.data.IpcPredictionsForRouteStopDest;
+import org.transitime.ipc.data.IpcPredictionsWithVehicles;
+import org.transitime.ipc.data.IpcVehicleComplete;
 import org.transitime.ipc.interfaces.PredictionsInterface;
 import org.transitime.ipc.rmi.AbstractServer;
 import org.transitime.utils.IntervalTimer;
@@ -107,6 +112,37 @@ public class PredictionsServer
 				stopId, predictionsPerStop);
 	}
 
+	/* (non-Javadoc)
+	 * @see org.transitime.ipc.interfaces.PredictionsInterface#getWithVehicles(java.lang.String, java.lang.String, int)
+	 */
+	@Override
+	public IpcPredictionsWithVehicles getWithVehicles(
+			String routeIdOrShortName, String stopId, int predictionsPerStop)
+			throws RemoteException {
+		List<IpcPredictionsForRouteStopDest> preds =
+				predictionDataCache.getPredictions(routeIdOrShortName, null,
+						stopId, predictionsPerStop);
+
+		// Join in the vehicles while still in the core so that the client
+		// doesn't need another RMI call. Each vehicle only included once.
+		VehicleDataCache vehicleDataCache = VehicleDataCache.getInstance();
+		HashMap<String, IpcVehicleComplete> vehiclesById =
+				new HashMap<String, IpcVehicleComplete>();
+		for (IpcPredictionsForRouteStopDest predsForDest : preds) {
+			for (IpcPrediction pred : predsForDest.getPredictionsForRouteStop()) {
+				String vehicleId = pred.getVehicleId();
+				if (!vehiclesById.containsKey(vehicleId)) {
+					IpcVehicleComplete vehicle =
+							vehicleDataCache.getVehicle(vehicleId);
+					if (vehicle != null)
+						vehiclesById.put(vehicleId, vehicle);
+				}
+			}
+		}
+
+		return new IpcPredictionsWithVehicles(preds, vehiclesById);
+	}
+
 	/* (non-Javadoc)
 	 * @see org.transitime.ipc.interfaces.PredictionsInterface#get(java.util.List, int)
 	 */
@@ -0,0 +1,476 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.logging;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.DoubleConfigValue;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.config.StringConfigValue;
+import org.transitime.config.StringListConfigValue;
+import org.transitime.configData.AgencyConfig;
+import org.transitime.monitoring.metrics.Counter;
+import org.transitime.monitoring.metrics.MetricsRegistry;
+import org.transitime.utils.Time;
+import org.transitime.utils.threading.NamedThreadFactory;
+
+/**
+ * A structured trace of how each AVL report is processed. Instead of logging
+ * large strings at INFO level for every report, compact binary events are
+ * recorded into a lock-free TraceBuffer and a background thread writes them
+ * to a file. Only the vehicles that are being traced are recorded:
+ * <ul>
+ * <li>a configurable fraction of vehicles and of routes, chosen by hashing
+ * the ID so the same ones are always traced,</li>
+ * <li>explicitly configured vehicle and route IDs,</li>
+ * <li>vehicles for which full tracing was requested on demand for a limited
+ * time, such as via the CommandsInterface.traceVehicle() RMI command.</li>
+ * </ul>
+ * If nothing is being traced, including once all on demand traces have
+ * expired, then isEnabled() is just a read of a volatile boolean so the cost
+ * of tracing is negligible.
+ * <p>
+ * Strings such as trip IDs are stored in the events as symbols, indices into
+ * a symbol table that is written to the trace file when a symbol is first
+ * used. The files can be converted to text using ProcessingTraceReader.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class ProcessingTrace {
+
+	private static DoubleConfigValue vehicleSampleFraction =
+			new DoubleConfigValue("transitime.trace.vehicleSampleFraction",
+					0.0,
+					"Fraction of vehicles, 0.0 - 1.0, whose AVL report "
+					+ "processing is recorded in the processing trace. The "
+					+ "vehicles are selected by hashing the vehicle ID so "
+					+ "the same vehicles are always traced.");
+
+	private static DoubleConfigValue routeSampleFraction =
+			new DoubleConfigValue("transitime.trace.routeSampleFraction",
+					0.0,
+					"Fraction of routes, 0.0 - 1.0, for which the AVL report "
+					+ "processing of the vehicles on the route is recorded "
+					+ "in the processing trace.");
+
+	private static StringListConfigValue vehicleIds =
+			new StringListConfigValue("transitime.trace.vehicleIds", null,
+					"IDs of vehicles that should always be traced. Separate "
+					+ "multiple IDs with \";\".");
+
+	private static StringListConfigValue routeIds =
+			new StringListConfigValue("transitime.trace.routeIds", null,
+					"IDs of routes whose vehicles should always be traced. "
+					+ "Separate multiple IDs with \";\".");
+
+	private static StringConfigValue directory =
+			new StringConfigValue("transitime.trace.directory",
+					null,
+					"Directory where the processing trace files are "
+					+ "written. A new file is started each day. If not set "
+					+ "then the trace directory within the core log "
+					+ "directory, ${transitime.logging.dir}/<agencyId>/core/"
+					+ "trace, is used.");
+
+	private static IntegerConfigValue bufferSize =
+			new IntegerConfigValue("transitime.trace.bufferSize",
+					64 * 1024,
+					"Number of events the processing trace buffer can hold "
+					+ "before events are dropped. Rounded up to a power "
+					+ "of 2.");
+
+	private static IntegerConfigValue flushIntervalMsec =
+			new IntegerConfigValue("transitime.trace.flushIntervalMsec",
+					500,
+					"How long the processing trace writer waits before "
+					+ "checking for new events when the buffer is empty.");
+
+	// Record types in the trace file
+	static final byte SYMBOL_RECORD = 'S';
+	static final byte EVENT_RECORD = 'E';
+
+	// Whether tracing is configured, in which case it is always enabled
+	private final boolean configured;
+
+	// True while anything is to be traced. The buffer and writer are created
+	// the first time it is set.
+	private volatile boolean enabled = false;
+
+	private final Set<String> tracedVehicleIds = new HashSet<String>();
+	private final Set<String> tracedRouteIds = new HashSet<String>();
+
+	// For on demand tracing. Keyed on vehicle ID, value is the epoch time
+	// that the tracing expires.
+	private final ConcurrentHashMap<String, Long> onDemandVehicles =
+			new ConcurrentHashMap<String, Long>();
+
+	// Symbol table. Only added to while synchronized.
+	private final ConcurrentHashMap<String, Integer> symbols =
+			new ConcurrentHashMap<String, Integer>();
+	private final List<String> symbolNames = new CopyOnWriteArrayList<String>();
+
+	private volatile TraceBuffer buffer;
+
+	private static final Counter droppedMetric = MetricsRegistry
+			.getInstance().counter("ProcessingTraceEventsDropped");
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(ProcessingTrace.class);
+
+	// Created after the configs, metric and logger since the constructor
+	// uses them
+	private static final ProcessingTrace singleton = new ProcessingTrace();
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor private since singleton class. Starts the tracing if it
+	 * is configured.
+	 */
+	private ProcessingTrace() {
+		if (vehicleIds.getValue() != null)
+			tracedVehicleIds.addAll(vehicleIds.getValue());
+		if (routeIds.getValue() != null)
+			tracedRouteIds.addAll(routeIds.getValue());
+
+		configured = vehicleSampleFraction.getValue() > 0.0
+				|| routeSampleFraction.getValue() > 0.0
+				|| !tracedVehicleIds.isEmpty() || !tracedRouteIds.isEmpty();
+		if (configured)
+			enable();
+	}
+
+	/**
+	 * @return the singleton ProcessingTrace
+	 */
+	public static ProcessingTrace getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * Quick check so that callers can avoid determining the route and such
+	 * when nothing is being traced.
+	 *
+	 * @return true if any vehicles could be traced
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Determines whether processing for the vehicle should be traced.
+	 *
+	 * @param vehicleId
+	 * @param routeId
+	 *            Route vehicle is currently on. Can be null.
+	 * @return true if events for the vehicle should be recorded
+	 */
+	public boolean isTraced(String vehicleId, String routeId) {
+		if (!enabled)
+			return false;
+
+		if (sampled(vehicleId, vehicleSampleFraction.getValue())
+				|| tracedVehicleIds.contains(vehicleId))
+			return true;
+
+		if (routeId != null
+				&& (sampled(routeId, routeSampleFraction.getValue())
+						|| tracedRouteIds.contains(routeId)))
+			return true;
+
+		if (onDemandVehicles.isEmpty())
+			return false;
+		Long expireTime = onDemandVehicles.get(vehicleId);
+		if (expireTime == null)
+			return false;
+		if (System.currentTimeMillis() < expireTime)
+			return true;
+		if (onDemandVehicles.remove(vehicleId, expireTime)) {
+			logger.info("On demand processing trace for vehicleId={} expired",
+					vehicleId);
+			disableIfUnused();
+		}
+		return false;
+	}
+
+	/**
+	 * Deterministically selects the specified fraction of IDs by hashing
+	 * them.
+	 *
+	 * @param id
+	 * @param fraction
+	 * @return true if the ID is part of the sample
+	 */
+	private static boolean sampled(String id, double fraction) {
+		if (fraction <= 0.0)
+			return false;
+		if (fraction >= 1.0)
+			return true;
+
+		// Mix the bits of the hash code since similar IDs such as "1234"
+		// and "1235" have similar hash codes
+		int hash = id.hashCode() * 0x9E3779B9;
+		hash ^= hash >>> 16;
+		return (hash & 0xFFFFFF) < fraction * 0x1000000;
+	}
+
+	/**
+	 * Fully traces the processing of the vehicle for the specified amount of
+	 * time.
+	 *
+	 * @param vehicleId
+	 * @param durationSecs
+	 *            How long to trace the vehicle. If 0 or less then stops
+	 *            tracing the vehicle.
+	 */
+	public void traceVehicle(String vehicleId, int durationSecs) {
+		if (durationSecs <= 0) {
+			onDemandVehicles.remove(vehicleId);
+			logger.info("Stopped on demand processing trace for vehicleId={}",
+					vehicleId);
+			disableIfUnused();
+			return;
+		}
+
+		onDemandVehicles.put(vehicleId, System.currentTimeMillis()
+				+ durationSecs * Time.MS_PER_SEC);
+		enable();
+		logger.info("Started on demand processing trace for vehicleId={} "
+				+ "for {} secs", vehicleId, durationSecs);
+	}
+
+	/**
+	 * Enables tracing. Creates the buffer and starts the writer thread if
+	 * haven't done so already.
+	 */
+	private synchronized void enable() {
+		if (buffer == null) {
+			buffer = new TraceBuffer(bufferSize.getValue());
+			Thread writerThread = new NamedThreadFactory("processingTrace",
+					true).newThread(new Writer(buffer));
+			writerThread.start();
+		}
+		enabled = true;
+	}
+
+	/**
+	 * Disables tracing if it isn't configured and there are no longer any
+	 * on demand traces, so that isTraced() doesn't need to look up every
+	 * vehicle. The buffer and writer are kept for the next on demand trace.
+	 * Synchronized with enable() so that a trace requested at the same time
+	 * is not lost.
+	 */
+	private synchronized void disableIfUnused() {
+		if (!configured && enabled && onDemandVehicles.isEmpty()) {
+			enabled = false;
+			logger.info("No more vehicles to trace so disabled processing "
+					+ "trace");
+		}
+	}
+
+	/**
+	 * Removes the on demand traces that have expired. Needed since a vehicle
+	 * that stops reporting never gets to isTraced() to have its trace
+	 * expire.
+	 */
+	private void removeExpiredOnDemandVehicles() {
+		if (onDemandVehicles.isEmpty())
+			return;
+
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, Long> entry : onDemandVehicles.entrySet()) {
+			if (now >= entry.getValue() && onDemandVehicles.remove(
+					entry.getKey(), entry.getValue()))
+				logger.info("On demand processing trace for vehicleId={} "
+						+ "expired", entry.getKey());
+		}
+		disableIfUnused();
+	}
+
+	/**
+	 * @return the directory where the trace files are written
+	 */
+	private static String getDirectory() {
+		String dir = directory.getValue();
+		if (dir != null)
+			return dir;
+		return System.getProperty("transitime.logging.dir", "/Logs") + "/"
+				+ AgencyConfig.getAgencyId() + "/core/trace";
+	}
+
+	/**
+	 * Returns the symbol for the string, adding it to the symbol table if
+	 * needed.
+	 *
+	 * @param str
+	 * @return the symbol, or -1 if str is null
+	 */
+	public int symbol(String str) {
+		if (str == null)
+			return -1;
+
+		Integer symbol = symbols.get(str);
+		if (symbol != null)
+			return symbol;
+
+		synchronized (symbolNames) {
+			symbol = symbols.get(str);
+			if (symbol == null) {
+				symbol = symbolNames.size();
+				symbolNames.add(str);
+				symbols.put(str, symbol);
+			}
+			return symbol;
+		}
+	}
+
+	/**
+	 * Records an event. Should only be called if isTraced() returned true for
+	 * the vehicle. Never blocks. If the buffer is full the event is dropped.
+	 *
+	 * @param event
+	 * @param vehicleId
+	 * @param arg0
+	 * @param arg1
+	 * @param arg2
+	 * @param arg3
+	 */
+	public void record(TraceEvent event, String vehicleId, long arg0,
+			long arg1, long arg2, long arg3) {
+		TraceBuffer theBuffer = buffer;
+		if (theBuffer == null)
+			return;
+
+		long header = ((long) event.ordinal() << 32)
+				| (symbol(vehicleId) & 0xFFFFFFFFL);
+		if (!theBuffer.offer(System.currentTimeMillis(), header, arg0, arg1,
+				arg2, arg3))
+			droppedMetric.increment();
+	}
+
+	/**
+	 * Takes the events from the buffer and writes them to the trace file
+	 * along with any new symbols. Starts a new file each day.
+	 */
+	private class Writer implements Runnable {
+		private final TraceBuffer buffer;
+		private final long[] event = new long[TraceBuffer.SLOT_SIZE];
+		private final SimpleDateFormat fileDateFormat =
+				new SimpleDateFormat("yyyyMMdd");
+
+		private DataOutputStream out;
+		private String currentFileDate;
+		private int symbolsWritten;
+
+		private Writer(TraceBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public void run() {
+			logger.info("Writing processing trace to directory {}",
+					getDirectory());
+			while (true) {
+				try {
+					int count = 0;
+					while (buffer.poll(event)) {
+						write(event);
+						++count;
+					}
+					if (count > 0) {
+						out.flush();
+					} else {
+						removeExpiredOnDemandVehicles();
+						LockSupport.parkNanos(TimeUnit.MILLISECONDS
+								.toNanos(flushIntervalMsec.getValue()));
+					}
+				} catch (Exception e) {
+					logger.error("Exception writing processing trace. {}",
+							e.getMessage(), e);
+					closeFile();
+					// So that don't loop quickly if file can't be written
+					LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(10));
+				}
+			}
+		}
+
+		/**
+		 * Writes the event, plus any new symbols, to the current file.
+		 */
+		private void write(long[] event) throws IOException {
+			String fileDate = fileDateFormat.format(new Date(event[0]));
+			if (out == null || !fileDate.equals(currentFileDate))
+				openFile(fileDate);
+
+			// Write symbols added since last event. Includes the ones used
+			// by this event since they were added before it was recorded.
+			int numSymbols = symbolNames.size();
+			for (; symbolsWritten < numSymbols; ++symbolsWritten) {
+				out.writeByte(SYMBOL_RECORD);
+				out.writeInt(symbolsWritten);
+				out.writeUTF(symbolNames.get(symbolsWritten));
+			}
+
+			out.writeByte(EVENT_RECORD);
+			for (long value : event)
+				out.writeLong(value);
+		}
+
+		private void openFile(String fileDate) throws IOException {
+			closeFile();
+			File dir = new File(getDirectory());
+			dir.mkdirs();
+			File file = new File(dir, "trace_" + fileDate + ".bin");
+			out = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(file, true)));
+			currentFileDate = fileDate;
+
+			// Each file needs its own copy of the symbol table
+			symbolsWritten = 0;
+			logger.info("Opened processing trace file {}", file);
+		}
+
+		private void closeFile() {
+			if (out == null)
+				return;
+			try {
+				out.close();
+			} catch (IOException e) {
+				logger.error("Exception closing processing trace file. {}",
+						e.getMessage());
+			}
+			out = null;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.logging;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.transitime.utils.Time;
+
+/**
+ * Converts a binary processing trace file written by ProcessingTrace into
+ * text, one line per event. Usage:
+ * <p>
+ * <code>ProcessingTraceReader traceFile [vehicleId]</code>
+ * <p>
+ * If a vehicleId is specified then only the events for that vehicle are
+ * output.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class ProcessingTraceReader {
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Reads the trace file and writes the events to stdout.
+	 *
+	 * @param args
+	 *            The trace file name and optionally a vehicle ID
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: ProcessingTraceReader traceFile "
+					+ "[vehicleId]");
+			System.exit(-1);
+		}
+		String vehicleIdFilter = args.length > 1 ? args[1] : null;
+
+		Map<Integer, String> symbols = new HashMap<Integer, String>();
+		TraceEvent[] eventTypes = TraceEvent.values();
+		long[] event = new long[TraceBuffer.SLOT_SIZE];
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(args[0])));
+		try {
+			while (true) {
+				byte recordType = in.readByte();
+				if (recordType == ProcessingTrace.SYMBOL_RECORD) {
+					// A symbol can be redefined if a file is appended to
+					// after a restart so the latest definition is used
+					int symbol = in.readInt();
+					symbols.put(symbol, in.readUTF());
+					continue;
+				}
+				if (recordType != ProcessingTrace.EVENT_RECORD)
+					throw new IOException("Invalid record type " + recordType);
+
+				for (int i = 0; i < event.length; ++i)
+					event[i] = in.readLong();
+
+				String vehicleId = symbols.get((int) event[1]);
+				if (vehicleIdFilter != null
+						&& !vehicleIdFilter.equals(vehicleId))
+					continue;
+
+				TraceEvent eventType = eventTypes[(int) (event[1] >>> 32)];
+				StringBuilder sb = new StringBuilder();
+				sb.append(Time.dateTimeStrMsec(event[0]))
+						.append(" vehicleId=").append(vehicleId).append(' ')
+						.append(eventType);
+				for (int i = 0; i < 4; ++i) {
+					String argName = eventType.getArgName(i);
+					if (argName.isEmpty())
+						continue;
+					long value = event[i + 2];
+					sb.append(' ').append(argName).append('=');
+					if (eventType.isSymbol(i))
+						sb.append(value >= 0 ? symbols.get((int) value) : null);
+					else
+						sb.append(value);
+				}
+				System.out.println(sb);
+			}
+		} catch (EOFException e) {
+			// Read the whole file
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free ring buffer of trace events for many producer threads and a
+ * single consumer thread. All the memory is allocated up front as a long[] so
+ * that recording an event doesn't create any garbage. A producer claims a
+ * slot by incrementing the tail with a compare-and-set, fills in the slot,
+ * and then publishes it by setting the sequence for the slot. If the buffer
+ * is full the event is dropped and counted instead of blocking the producer,
+ * since the AVL processing threads must never wait on tracing.
+ *
+ * @author SkiBu Smith
+ *
+ */
+class TraceBuffer {
+
+	// Number of longs per event: time, header, and 4 arguments
+	static final int SLOT_SIZE = 6;
+
+	private final int mask;
+	private final long[] slots;
+
+	// For each slot the sequence number + 1 of the event that was published
+	// to it. Lets the consumer know that the producer finished writing it.
+	private final AtomicLongArray published;
+
+	// Next sequence number to be claimed by a producer
+	private final AtomicLong tail = new AtomicLong(0);
+
+	// Next sequence number to be read by the consumer. Only written by the
+	// consumer but read by producers to determine if buffer is full.
+	private volatile long head = 0;
+
+	private final AtomicLong dropped = new AtomicLong(0);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param minCapacity
+	 *            Minimum number of events buffer can hold. Rounded up to a
+	 *            power of 2.
+	 */
+	TraceBuffer(int minCapacity) {
+		int capacity = Integer.highestOneBit(Math.max(minCapacity, 2) - 1) << 1;
+		this.mask = capacity - 1;
+		this.slots = new long[capacity * SLOT_SIZE];
+		this.published = new AtomicLongArray(capacity);
+	}
+
+	/**
+	 * Adds an event to the buffer. Called by the producer threads.
+	 *
+	 * @return true if added, false if the buffer was full and the event was
+	 *         dropped
+	 */
+	boolean offer(long time, long header, long arg0, long arg1, long arg2,
+			long arg3) {
+		long sequence;
+		do {
+			sequence = tail.get();
+			if (sequence - head > mask) {
+				dropped.incrementAndGet();
+				return false;
+			}
+		} while (!tail.compareAndSet(sequence, sequence + 1));
+
+		int index = (int) sequence & mask;
+		int offset = index * SLOT_SIZE;
+		slots[offset] = time;
+		slots[offset + 1] = header;
+		slots[offset + 2] = arg0;
+		slots[offset + 3] = arg1;
+		slots[offset + 4] = arg2;
+		slots[offset + 5] = arg3;
+
+		// Publish. The ordered write makes sure the slot contents are
+		// visible to the consumer before the sequence is.
+		published.lazySet(index, sequence + 1);
+		return true;
+	}
+
+	/**
+	 * Copies the next published event into the dest array. Called only by the
+	 * consumer thread.
+	 *
+	 * @param dest
+	 *            Array of at least SLOT_SIZE longs
+	 * @return true if an event was read, false if there are no more published
+	 *         events
+	 */
+	boolean poll(long[] dest) {
+		long sequence = head;
+		int index = (int) sequence & mask;
+		if (published.get(index) != sequence + 1)
+			return false;
+
+		System.arraycopy(slots, index * SLOT_SIZE, dest, 0, SLOT_SIZE);
+
+		// Free the slot for the producers
+		head = sequence + 1;
+		return true;
+	}
+
+	/**
+	 * @return number of events dropped because buffer was full
+	 */
+	long getDropped() {
+		return dropped.get();
+	}
+}
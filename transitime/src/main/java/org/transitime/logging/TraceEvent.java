@@ -0,0 +1,79 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.logging;
+
+/**
+ * The types of events recorded by the ProcessingTrace. Each event has four
+ * long arguments. The names of the arguments are listed here so that
+ * ProcessingTraceReader can output the events in a readable form. Arguments
+ * whose name ends with "Sym" are symbols, meaning they are the index of a
+ * string in the symbol table of the trace file.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public enum TraceEvent {
+	// Start of processing an AVL report. Lat/lon are in 1e-7 degrees.
+	AVL_REPORT("gpsTime", "latE7", "lonE7", "assignmentSym"),
+
+	// Best temporal match for the AVL report. The stopPath and segment
+	// indices are packed together as (stopPathIndex << 16) | segmentIndex
+	MATCH("tripSym", "stopPathAndSegment", "distAlongSegmentCm",
+			"temporalDiffMsec"),
+
+	// No temporal match was found for the AVL report
+	NO_MATCH("spatialMatches", "badMatchesInARow", "", ""),
+
+	// Vehicle was matched to a new assignment
+	ASSIGNED("assignmentSym", "blockSym", "assignmentMethodSym",
+			"predictable"),
+
+	// Vehicle was made unpredictable
+	UNPREDICTABLE("vehicleEventSym", "", "", ""),
+
+	// Predictions were generated
+	PREDICTIONS("generated", "changed", "", ""),
+
+	// Processing of the AVL report finished
+	PROCESSED("elapsedMsec", "latencyMsec", "predictable", "");
+
+	private final String[] argNames;
+
+	/********************** Member Functions **************************/
+
+	private TraceEvent(String... argNames) {
+		this.argNames = argNames;
+	}
+
+	/**
+	 * @param i
+	 *            which argument, 0 - 3
+	 * @return name of the argument, or empty string if argument not used
+	 */
+	public String getArgName(int i) {
+		return argNames[i];
+	}
+
+	/**
+	 * @param i
+	 *            which argument, 0 - 3
+	 * @return true if argument is an index into the symbol table
+	 */
+	public boolean isSymbol(int i) {
+		return argNames[i].endsWith("Sym");
+	}
+}
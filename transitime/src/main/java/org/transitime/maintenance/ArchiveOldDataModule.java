@@ -0,0 +1,325 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.maintenance;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.applications.Core;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.config.StringConfigValue;
+import org.transitime.configData.AgencyConfig;
+import org.transitime.db.archive.ArchiveCodec;
+import org.transitime.db.archive.ArchiveFileWriter;
+import org.transitime.db.archive.DataArchive;
+import org.transitime.db.hibernate.HibernateUtils;
+import org.transitime.db.structs.ArrivalDeparture;
+import org.transitime.db.structs.AvlReport;
+import org.transitime.db.structs.Match;
+import org.transitime.logging.Markers;
+import org.transitime.modules.Module;
+import org.transitime.utils.IntervalTimer;
+import org.transitime.utils.Time;
+
+/**
+ * A module that moves old AvlReports, ArrivalDepartures and Matches out of
+ * the database into compressed columnar files on local disk, one file per
+ * table per day. The rows are streamed out an hour at a time so memory use
+ * stays bounded, and they are deleted from the database only once the file
+ * for the day has been completely written. The archived data can still be
+ * read, via memory mapped files, through DataArchive, which is what playback
+ * and travel time processing do.
+ * <p>
+ * The reports use the rollups created by RollupModule, which are created
+ * long before the data is archived. If time partitions are also being
+ * maintained then transitime.partition.retentionDays should be longer than
+ * transitime.archive.daysTillArchived so that partitions are only dropped
+ * once their data has been archived.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class ArchiveOldDataModule extends Module {
+
+	/******************** Parameters ************************************/
+
+	private static IntegerConfigValue daysTillArchived =
+			new IntegerConfigValue("transitime.archive.daysTillArchived",
+					90,
+					"Data older than this many days is moved from the db to "
+					+ "the archive directory.");
+
+	private static StringConfigValue timeToRun =
+			new StringConfigValue("transitime.archive.timeToRun",
+					"03:00:00", // 3 am
+					"Specified time of day that old data should be archived. "
+					+ "Should usually be run in middle of night when load is "
+					+ "less. Time is in the format HH:MM:SS");
+
+	/******************** Logging **************************************/
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(ArchiveOldDataModule.class);
+
+	/********************** Internal Classes **************************/
+
+	/**
+	 * What is needed to archive a table
+	 */
+	private static class ArchivedTable<T> {
+		private final String table;
+		private final String entity;
+		private final String timeProperty;
+		private final ArchiveCodec<T> codec;
+
+		private ArchivedTable(String table, String entity, String timeProperty,
+				ArchiveCodec<T> codec) {
+			this.table = table;
+			this.entity = entity;
+			this.timeProperty = timeProperty;
+			this.codec = codec;
+		}
+	}
+
+	private static final ArchivedTable<?>[] ARCHIVED_TABLES = {
+		new ArchivedTable<AvlReport>(DataArchive.AVL_REPORTS, "AvlReport",
+				"time", DataArchive.AVL_REPORT_CODEC),
+		new ArchivedTable<ArrivalDeparture>(DataArchive.ARRIVALS_DEPARTURES,
+				"ArrivalDeparture", "time",
+				DataArchive.ARRIVAL_DEPARTURE_CODEC),
+		new ArchivedTable<Match>(DataArchive.MATCHES, "Match", "avlTime",
+				DataArchive.MATCH_CODEC) };
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param agencyId
+	 */
+	public ArchiveOldDataModule(String agencyId) {
+		super(agencyId);
+	}
+
+	/**
+	 * @return the start of the day that follows the specified one
+	 */
+	private static Date nextDay(Date day) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(day);
+		calendar.add(Calendar.DAY_OF_MONTH, 1);
+		return calendar.getTime();
+	}
+
+	/**
+	 * @return the time of the oldest row in the table, or null if empty
+	 */
+	private Date getOldestTime(ArchivedTable<?> archivedTable) {
+		Session session = HibernateUtils.getSession(getAgencyId());
+		try {
+			Query query = session.createQuery("SELECT MIN("
+					+ archivedTable.timeProperty + ") FROM "
+					+ archivedTable.entity);
+			return (Date) query.uniqueResult();
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Writes all of the rows for the day to the archive file for the day,
+	 * reading them from the db an hour at a time.
+	 *
+	 * @return number of rows archived
+	 * @throws IOException
+	 */
+	private <T> int writeDay(ArchivedTable<T> archivedTable, Date day,
+			Date endOfDay) throws IOException {
+		File file = DataArchive.getFile(archivedTable.table, day);
+		ArchiveFileWriter<T> writer = new ArchiveFileWriter<T>(file,
+				archivedTable.codec, DataArchive.getRowsPerBlock());
+		try {
+			String hql = "FROM " + archivedTable.entity
+					+ " WHERE " + archivedTable.timeProperty + " >= :begin"
+					+ "   AND " + archivedTable.timeProperty + " < :end"
+					+ " ORDER BY " + archivedTable.timeProperty;
+			for (long begin = day.getTime(); begin < endOfDay.getTime();
+					begin += Time.MS_PER_HOUR) {
+				long end = Math.min(begin + Time.MS_PER_HOUR,
+						endOfDay.getTime());
+				Session session = HibernateUtils.getSession(getAgencyId());
+				try {
+					Query query = session.createQuery(hql);
+					query.setTimestamp("begin", new Date(begin));
+					query.setTimestamp("end", new Date(end));
+					@SuppressWarnings("unchecked")
+					List<T> rows = query.list();
+					for (T row : rows)
+						writer.add(row);
+				} finally {
+					session.close();
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			writer.abort();
+			throw e;
+		}
+		writer.close();
+		DataArchive.evict(file);
+		return writer.getNumRows();
+	}
+
+	/**
+	 * Deletes the rows for the day from the db, an hour at a time so that
+	 * each transaction stays reasonably small.
+	 *
+	 * @return number of rows deleted
+	 */
+	private int deleteDay(ArchivedTable<?> archivedTable, Date day,
+			Date endOfDay) {
+		int numDeleted = 0;
+		String hql = "DELETE " + archivedTable.entity
+				+ " WHERE " + archivedTable.timeProperty + " >= :begin"
+				+ "   AND " + archivedTable.timeProperty + " < :end";
+		for (long begin = day.getTime(); begin < endOfDay.getTime();
+				begin += Time.MS_PER_HOUR) {
+			long end = Math.min(begin + Time.MS_PER_HOUR, endOfDay.getTime());
+			Session session = HibernateUtils.getSession(getAgencyId());
+			Transaction tx = session.beginTransaction();
+			try {
+				Query query = session.createQuery(hql);
+				query.setTimestamp("begin", new Date(begin));
+				query.setTimestamp("end", new Date(end));
+				numDeleted += query.executeUpdate();
+				tx.commit();
+			} catch (HibernateException e) {
+				tx.rollback();
+				throw e;
+			} finally {
+				session.close();
+			}
+		}
+		return numDeleted;
+	}
+
+	/**
+	 * Archives and then deletes the data for the table for each day older
+	 * than the cutoff.
+	 *
+	 * @param archivedTable
+	 * @param cutoff
+	 *            Start of the first day that is not archived
+	 * @throws IOException
+	 */
+	private <T> void archiveTable(ArchivedTable<T> archivedTable, Date cutoff)
+			throws IOException {
+		Date oldest = getOldestTime(archivedTable);
+		if (oldest == null)
+			return;
+
+		for (Date day = new Date(Time.getStartOfDay(oldest));
+				day.before(cutoff); day = nextDay(day)) {
+			Date endOfDay = nextDay(day);
+			IntervalTimer timer = new IntervalTimer();
+
+			// If there is already a file then a previous run was interrupted
+			// after writing it but before all of the rows were deleted. The
+			// file is complete since it is only renamed once fully written.
+			int numArchived = 0;
+			if (DataArchive.isArchived(archivedTable.table, day)) {
+				logger.warn("Archive for table {} for {} already exists so "
+						+ "only deleting the rows from the db.",
+						archivedTable.table, day);
+			} else {
+				numArchived = writeDay(archivedTable, day, endOfDay);
+			}
+			int numDeleted = deleteDay(archivedTable, day, endOfDay);
+			logger.info("Archived {} rows and deleted {} rows of table {} "
+					+ "for {}. Took {} msec.", numArchived, numDeleted,
+					archivedTable.table, day, timer.elapsedMsec());
+		}
+	}
+
+	/**
+	 * Archives the old data for all of the tables. A problem with one table
+	 * doesn't prevent the others from being archived.
+	 */
+	private void archiveOldData() {
+		if (!DataArchive.isEnabled()) {
+			logger.error("transitime.archive.directory is not set so cannot "
+					+ "archive old data.");
+			return;
+		}
+
+		Date cutoff = new Date(Time.getStartOfDay(new Date(Core.getInstance()
+				.getSystemDate().getTime()
+				- daysTillArchived.getValue() * Time.MS_PER_DAY)));
+		logger.info("Archiving data from before {}", cutoff);
+
+		for (ArchivedTable<?> archivedTable : ARCHIVED_TABLES) {
+			try {
+				archiveTable(archivedTable, cutoff);
+			} catch (Exception e) {
+				logger.error(Markers.email(), "Error archiving table {} for "
+						+ "agencyId={}. {}", archivedTable.table,
+						AgencyConfig.getAgencyId(), e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * Sleeps until the time of day specified by timeToRun
+	 */
+	private void sleepTillAppropriateTime() {
+		int secondsIntoDay = Time.parseTimeOfDay(timeToRun.getValue());
+
+		int nowSecsIntoDay =
+				Core.getInstance().getTime().getMsecsIntoDay(new Date())
+				/ Time.MS_PER_SEC;
+		int secsToSleep = secondsIntoDay - nowSecsIntoDay;
+		if (nowSecsIntoDay > secondsIntoDay)
+			secsToSleep += 1 * Time.SEC_PER_DAY;
+		Time.sleep(secsToSleep * Time.MS_PER_SEC);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		logger.info("Started module {} for agencyId={}",
+				getClass().getName(), getAgencyId());
+
+		while (true) {
+			try {
+				sleepTillAppropriateTime();
+				archiveOldData();
+			} catch (Exception e) {
+				logger.error("Error in ArchiveOldDataModule for agencyId={}",
+						AgencyConfig.getAgencyId(), e);
+			}
+		}
+	}
+}
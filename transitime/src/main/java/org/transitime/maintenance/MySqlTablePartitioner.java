@@ -0,0 +1,131 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.maintenance;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Partitioning for MySQL. Uses RANGE partitioning on TO_DAYS() of the time
+ * column, which MySQL can prune on, plus a "pmax" partition that catches
+ * anything beyond the last managed partition. New partitions are split off
+ * of the empty pmax partition so adding one doesn't need to move any data.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class MySqlTablePartitioner extends TablePartitioner {
+
+	private static final String MAX_PARTITION = "pmax";
+
+	/********************** Member Functions **************************/
+
+	public MySqlTablePartitioner(Connection connection) {
+		super(connection);
+	}
+
+	@Override
+	public boolean isPartitioned(String table) throws SQLException {
+		return !getAllPartitionNames(table).isEmpty();
+	}
+
+	/**
+	 * @param table
+	 * @return all the partitions of the table, including pmax
+	 * @throws SQLException
+	 */
+	private List<String> getAllPartitionNames(String table)
+			throws SQLException {
+		return queryStrings("SELECT PARTITION_NAME "
+				+ "FROM information_schema.PARTITIONS "
+				+ "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? "
+				+ "  AND PARTITION_NAME IS NOT NULL "
+				+ "ORDER BY PARTITION_ORDINAL_POSITION", table);
+	}
+
+	@Override
+	public void convertToPartitioned(String table, String column,
+			Date existingDataStart, Date firstBoundary) throws SQLException {
+		// MySQL requires the partitioning column to be part of the primary
+		// key. For tables with a generated id, such as Predictions, the
+		// time column therefore needs to be added to the key.
+		List<String> keyColumns = queryStrings("SELECT COLUMN_NAME "
+				+ "FROM information_schema.KEY_COLUMN_USAGE "
+				+ "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? "
+				+ "  AND CONSTRAINT_NAME = 'PRIMARY' "
+				+ "ORDER BY ORDINAL_POSITION", table);
+		boolean columnInKey = false;
+		for (String keyColumn : keyColumns)
+			if (keyColumn.equalsIgnoreCase(column))
+				columnInKey = true;
+		if (!columnInKey) {
+			List<String> newKeyColumns = new ArrayList<String>(keyColumns);
+			newKeyColumns.add(column);
+			String keyList = newKeyColumns.toString();
+			execute("ALTER TABLE " + table + " DROP PRIMARY KEY, "
+					+ "ADD PRIMARY KEY ("
+					+ keyList.substring(1, keyList.length() - 1) + ")");
+		}
+
+		execute("ALTER TABLE " + table
+				+ " PARTITION BY RANGE (TO_DAYS(" + column + ")) ("
+				+ "PARTITION " + partitionName(existingDataStart)
+				+ " VALUES LESS THAN (TO_DAYS(" + timeLiteral(firstBoundary)
+				+ ")), "
+				+ "PARTITION " + MAX_PARTITION
+				+ " VALUES LESS THAN MAXVALUE)");
+	}
+
+	@Override
+	public List<String> getPartitionNames(String table) throws SQLException {
+		List<String> names = new ArrayList<String>();
+		for (String name : getAllPartitionNames(table))
+			if (partitionStart(name) != null)
+				names.add(name);
+		return names;
+	}
+
+	@Override
+	public void addPartition(String table, String column, Date start,
+			Date end) throws SQLException {
+		execute("ALTER TABLE " + table
+				+ " REORGANIZE PARTITION " + MAX_PARTITION + " INTO ("
+				+ "PARTITION " + partitionName(start)
+				+ " VALUES LESS THAN (TO_DAYS(" + timeLiteral(end) + ")), "
+				+ "PARTITION " + MAX_PARTITION
+				+ " VALUES LESS THAN MAXVALUE)");
+	}
+
+	@Override
+	public void removePartition(String table, String partitionName,
+			boolean archive) throws SQLException {
+		if (archive) {
+			// Swap the partition with an empty standalone table so the data
+			// is kept but is no longer part of the partitioned table
+			String archiveTable = table + "_" + partitionName;
+			execute("CREATE TABLE " + archiveTable + " LIKE " + table);
+			execute("ALTER TABLE " + archiveTable + " REMOVE PARTITIONING");
+			execute("ALTER TABLE " + table + " EXCHANGE PARTITION "
+					+ partitionName + " WITH TABLE " + archiveTable);
+		}
+		execute("ALTER TABLE " + table + " DROP PARTITION " + partitionName);
+	}
+}
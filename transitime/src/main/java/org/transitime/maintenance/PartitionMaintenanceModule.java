@@ -0,0 +1,333 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.maintenance;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.applications.Core;
+import org.transitime.config.BooleanConfigValue;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.config.StringConfigValue;
+import org.transitime.config.StringListConfigValue;
+import org.transitime.configData.AgencyConfig;
+import org.transitime.configData.DbSetupConfig;
+import org.transitime.db.GenericQuery;
+import org.transitime.logging.Markers;
+import org.transitime.modules.Module;
+import org.transitime.utils.Time;
+
+/**
+ * A module that maintains daily or monthly time partitions for the high
+ * volume tables such as AvlReports and ArrivalsDepartures. Once a day it
+ * makes sure that partitions exist for the upcoming periods and, if a
+ * retention time is configured, drops or archives the partitions that have
+ * expired. Dropping a partition is far cheaper than deleting the rows and
+ * since all of the queries on these tables are by time the database only
+ * needs to read the partitions for the requested time range.
+ * <p>
+ * Supported for MySQL and for PostgreSQL 11 or later. Tables that are not
+ * yet partitioned are only converted if transitime.partition.convertTables
+ * is set since converting can take a while for a large table.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class PartitionMaintenanceModule extends Module {
+
+	// The tables that can be partitioned and the time column for each. The
+	// column is the one that the queries for the table are bounded by. The
+	// column becomes part of the primary key so it cannot be null. For
+	// PredictionAccuracy the arrivalDepartureTime is null for predictions
+	// that were never matched to an arrival, so the predictedTime, which is
+	// close to it, is used instead.
+	private static final Map<String, String> TIME_COLUMNS =
+			new HashMap<String, String>();
+	static {
+		TIME_COLUMNS.put("AvlReports", "time");
+		TIME_COLUMNS.put("ArrivalsDepartures", "time");
+		TIME_COLUMNS.put("Matches", "avlTime");
+		TIME_COLUMNS.put("Predictions", "creationTime");
+		TIME_COLUMNS.put("PredictionAccuracy", "predictedTime");
+		TIME_COLUMNS.put("VehicleEvents", "time");
+		TIME_COLUMNS.put("VehicleStates", "avlTime");
+	}
+
+	/******************** Parameters ************************************/
+
+	private static StringListConfigValue tables =
+			new StringListConfigValue("transitime.partition.tables",
+					Arrays.asList("AvlReports", "ArrivalsDepartures",
+							"Matches", "Predictions", "PredictionAccuracy",
+							"VehicleEvents", "VehicleStates"),
+					"Which of the high volume tables should be time "
+					+ "partitioned.");
+
+	private static StringConfigValue period =
+			new StringConfigValue("transitime.partition.period",
+					"monthly",
+					"Size of each partition. Can be \"daily\" or "
+					+ "\"monthly\". Should not be changed once tables have "
+					+ "been partitioned.");
+
+	private static IntegerConfigValue periodsAhead =
+			new IntegerConfigValue("transitime.partition.periodsAhead",
+					2,
+					"How many partitions beyond the current one should "
+					+ "exist so that data can always be written to a "
+					+ "partition.");
+
+	private static IntegerConfigValue retentionDays =
+			new IntegerConfigValue("transitime.partition.retentionDays",
+					0,
+					"Partitions containing only data older than this many "
+					+ "days are dropped, or archived if "
+					+ "transitime.partition.archiveExpired is set. 0 means "
+					+ "data is kept forever.");
+
+	private static BooleanConfigValue archiveExpired =
+			new BooleanConfigValue("transitime.partition.archiveExpired",
+					false,
+					"If true then expired partitions are moved to standalone "
+					+ "tables, named the table name followed by the "
+					+ "partition name, instead of being dropped.");
+
+	private static BooleanConfigValue convertTables =
+			new BooleanConfigValue("transitime.partition.convertTables",
+					false,
+					"If true then tables that are not yet partitioned are "
+					+ "converted. The existing data becomes the first "
+					+ "partition. Converting can lock a large table for a "
+					+ "while so should only be done during a maintenance "
+					+ "window.");
+
+	private static StringConfigValue timeToRun =
+			new StringConfigValue("transitime.partition.timeToRun",
+					"02:00:00", // 2 am
+					"Specified time of day that partitions should be "
+					+ "maintained. Should usually be run in middle of night "
+					+ "when load is less. Time is in the format HH:MM:SS");
+
+	/******************** Logging **************************************/
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(PartitionMaintenanceModule.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param agencyId
+	 */
+	public PartitionMaintenanceModule(String agencyId) {
+		super(agencyId);
+	}
+
+	/**
+	 * @param time
+	 * @return the start of the period that the time is in
+	 */
+	private static Date periodStart(Date time) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(new Date(Time.getStartOfDay(time)));
+		if (!"daily".equals(period.getValue()))
+			calendar.set(Calendar.DAY_OF_MONTH, 1);
+		return calendar.getTime();
+	}
+
+	/**
+	 * @param periodStart
+	 * @param numPeriods
+	 *            Can be negative to go back in time
+	 * @return the start of the period numPeriods after the specified one
+	 */
+	private static Date addPeriods(Date periodStart, int numPeriods) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(periodStart);
+		if ("daily".equals(period.getValue()))
+			calendar.add(Calendar.DAY_OF_MONTH, numPeriods);
+		else
+			calendar.add(Calendar.MONTH, numPeriods);
+		return calendar.getTime();
+	}
+
+	/**
+	 * Makes sure the table is partitioned, that the partitions for the
+	 * upcoming periods exist, and removes expired partitions.
+	 *
+	 * @param partitioner
+	 * @param table
+	 * @param column
+	 * @param now
+	 * @throws SQLException
+	 */
+	private void maintainTable(TablePartitioner partitioner, String table,
+			String column, Date now) throws SQLException {
+		Date currentPeriodStart = periodStart(now);
+
+		if (!partitioner.isPartitioned(table)) {
+			if (!convertTables.getValue()) {
+				logger.warn("Table {} is not partitioned and "
+						+ "transitime.partition.convertTables is not set so "
+						+ "not maintaining partitions for it.", table);
+				return;
+			}
+			logger.info("Converting table {} to be partitioned on {}",
+					table, column);
+			partitioner.convertToPartitioned(table, column,
+					addPeriods(currentPeriodStart, -1), currentPeriodStart);
+		}
+
+		// Create the partitions for the current period and the upcoming ones
+		// after the last existing partition
+		List<String> names = partitioner.getPartitionNames(table);
+		Date nextStart = names.isEmpty() ? currentPeriodStart : addPeriods(
+				TablePartitioner.partitionStart(names.get(names.size() - 1)), 1);
+		if (nextStart.before(currentPeriodStart))
+			nextStart = currentPeriodStart;
+		Date lastStart = addPeriods(currentPeriodStart, periodsAhead.getValue());
+		while (!nextStart.after(lastStart)) {
+			Date end = addPeriods(nextStart, 1);
+			partitioner.addPartition(table, column, nextStart, end);
+			nextStart = end;
+		}
+
+		// Remove expired partitions. A partition ends where the next one
+		// starts. The last partition is never removed.
+		if (retentionDays.getValue() <= 0)
+			return;
+		Date cutoff = new Date(now.getTime()
+				- retentionDays.getValue() * Time.MS_PER_DAY);
+		names = partitioner.getPartitionNames(table);
+		for (int i = 0; i < names.size() - 1; ++i) {
+			Date end = TablePartitioner.partitionStart(names.get(i + 1));
+			if (end.after(cutoff))
+				break;
+			logger.info("{} partition {} of table {} since data is older "
+					+ "than {} days", archiveExpired.getValue() ? "Archiving"
+					: "Dropping", names.get(i), table, retentionDays.getValue());
+			partitioner.removePartition(table, names.get(i),
+					archiveExpired.getValue());
+		}
+	}
+
+	/**
+	 * Maintains the partitions for all of the configured tables. A problem
+	 * with one table doesn't prevent the others from being maintained.
+	 */
+	private void maintainPartitions() {
+		Connection connection = null;
+		try {
+			connection = GenericQuery.getConnection(DbSetupConfig.getDbType(),
+					DbSetupConfig.getDbHost(), DbSetupConfig.getDbName(),
+					DbSetupConfig.getDbUserName(),
+					DbSetupConfig.getDbPassword());
+			TablePartitioner partitioner = TablePartitioner.create(
+					DbSetupConfig.getDbType(), connection);
+			if (partitioner == null) {
+				logger.error("Partitioning not supported for db type {}",
+						DbSetupConfig.getDbType());
+				return;
+			}
+
+			Date now = Core.getInstance().getSystemDate();
+			for (String table : tables.getValue()) {
+				String column = getTimeColumn(table);
+				if (column == null) {
+					logger.error("Table {} in transitime.partition.tables "
+							+ "cannot be partitioned. Valid tables are {}",
+							table, TIME_COLUMNS.keySet());
+					continue;
+				}
+				try {
+					maintainTable(partitioner, table, column, now);
+				} catch (SQLException e) {
+					logger.error(Markers.email(), "Error maintaining "
+							+ "partitions for table {} for agencyId={}. {}",
+							table, AgencyConfig.getAgencyId(),
+							e.getMessage(), e);
+				}
+			}
+		} catch (SQLException e) {
+			logger.error("Could not connect to db to maintain partitions. {}",
+					e.getMessage(), e);
+		} finally {
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (SQLException e) {
+					logger.error("Error closing connection", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param table
+	 * @return the column that the table is partitioned on, or null if the
+	 *         table cannot be partitioned
+	 */
+	static String getTimeColumn(String table) {
+		return TIME_COLUMNS.get(table);
+	}
+
+	/**
+	 * Sleeps until the time of day specified by timeToRun
+	 */
+	private void sleepTillAppropriateTime() {
+		int secondsIntoDay = Time.parseTimeOfDay(timeToRun.getValue());
+
+		int nowSecsIntoDay =
+				Core.getInstance().getTime().getMsecsIntoDay(new Date())
+				/ Time.MS_PER_SEC;
+		int secsToSleep = secondsIntoDay - nowSecsIntoDay;
+		if (nowSecsIntoDay > secondsIntoDay)
+			secsToSleep += 1 * Time.SEC_PER_DAY;
+		Time.sleep(secsToSleep * Time.MS_PER_SEC);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		logger.info("Started module {} for agencyId={}",
+				getClass().getName(), getAgencyId());
+
+		// Make sure the partitions exist right away in case the system was
+		// down when the next period started
+		maintainPartitions();
+
+		while (true) {
+			try {
+				sleepTillAppropriateTime();
+				maintainPartitions();
+			} catch (Exception e) {
+				logger.error("Error in PartitionMaintenanceModule for "
+						+ "agencyId={}", AgencyConfig.getAgencyId(), e);
+			}
+		}
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.maintenance;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Partitioning for PostgreSQL using declarative range partitioning, which
+ * requires PostgreSQL 11 or later. Each partition is a table named the
+ * partitioned table name followed by "_" and the partition name. A default
+ * partition catches anything beyond the last managed partition.
+ * <p>
+ * Since PostgreSQL can't partition an existing table in place, conversion
+ * renames the existing table, creates a new partitioned table with the same
+ * columns and attaches the existing table as the first partition. The primary
+ * key and the indexes of the existing table are recreated on the partitioned
+ * table so that every partition gets them. Like with MySQL the time column
+ * is added to the primary key if it is not already part of it, since
+ * PostgreSQL requires unique indexes of a partitioned table to include the
+ * partition column.
+ * <p>
+ * The unit tests only check the generated SQL. To check it against a
+ * PostgreSQL server run PartitionMaintenanceModule with
+ * transitime.partition.convertTables set against a copy of the database
+ * and then compare "\d+ avlreports" in psql with the original table: the
+ * primary key and all of the indexes should be listed for the partitioned
+ * table and each of its partitions.
+ * <p>
+ * Table names are lower cased since that is how PostgreSQL stores the
+ * unquoted names that Hibernate uses.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class PostgresTablePartitioner extends TablePartitioner {
+
+	private static final String DEFAULT_PARTITION = "pdefault";
+
+	// For returning an index as a single string from queryStrings()
+	private static final String INDEX_SEPARATOR = "|";
+
+	/********************** Member Functions **************************/
+
+	public PostgresTablePartitioner(Connection connection) {
+		super(connection);
+	}
+
+	@Override
+	public boolean isPartitioned(String table) throws SQLException {
+		return !queryStrings("SELECT c.relname FROM pg_class c "
+				+ "JOIN pg_namespace n ON n.oid = c.relnamespace "
+				+ "WHERE c.relname = ? AND c.relkind = 'p' "
+				+ "  AND n.nspname = current_schema()",
+				table.toLowerCase()).isEmpty();
+	}
+
+	@Override
+	public void convertToPartitioned(String table, String column,
+			Date existingDataStart, Date firstBoundary) throws SQLException {
+		String tableName = table.toLowerCase();
+		String existingTable = tableName + "_" + partitionName(existingDataStart);
+
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+		try {
+			execute("ALTER TABLE " + tableName + " RENAME TO " + existingTable);
+			// Can't use INCLUDING ALL since the primary key might not
+			// include the partition column, so the key and indexes are
+			// recreated separately
+			execute("CREATE TABLE " + tableName + " (LIKE " + existingTable
+					+ " INCLUDING DEFAULTS INCLUDING CONSTRAINTS) "
+					+ "PARTITION BY RANGE (" + column + ")");
+			copyIndexes(existingTable, tableName, column);
+			// Attaching needs to verify the existing rows are within the
+			// range, which means a single scan of the existing table
+			execute("ALTER TABLE " + tableName + " ATTACH PARTITION "
+					+ existingTable + " FOR VALUES FROM (MINVALUE) TO ("
+					+ timeLiteral(firstBoundary) + ")");
+			execute("CREATE TABLE " + tableName + "_" + DEFAULT_PARTITION
+					+ " PARTITION OF " + tableName + " DEFAULT");
+			connection.commit();
+		} catch (SQLException e) {
+			connection.rollback();
+			throw e;
+		} finally {
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+
+	@Override
+	public List<String> getPartitionNames(String table) throws SQLException {
+		String tableName = table.toLowerCase();
+		List<String> names = new ArrayList<String>();
+		for (String childTable : queryStrings("SELECT c.relname "
+				+ "FROM pg_inherits i "
+				+ "JOIN pg_class c ON c.oid = i.inhrelid "
+				+ "JOIN pg_class p ON p.oid = i.inhparent "
+				+ "WHERE p.relname = ?", tableName)) {
+			String name = childTable.substring(childTable.lastIndexOf('_') + 1);
+			if (childTable.startsWith(tableName + "_")
+					&& partitionStart(name) != null)
+				names.add(name);
+		}
+		// Names are dates so sorting them puts them in time order
+		Collections.sort(names);
+		return names;
+	}
+
+	@Override
+	public void addPartition(String table, String column, Date start,
+			Date end) throws SQLException {
+		String tableName = table.toLowerCase();
+		String partitionTable = tableName + "_" + partitionName(start);
+		execute("CREATE TABLE " + partitionTable + " PARTITION OF "
+				+ tableName + " FOR VALUES FROM (" + timeLiteral(start)
+				+ ") TO (" + timeLiteral(end) + ")");
+		// The partition gets the indexes of the partitioned table. But
+		// queries are by time so make sure there is a time index.
+		if (!hasIndexOn(partitionTable, column))
+			execute("CREATE INDEX " + partitionTable + "_"
+					+ column.toLowerCase() + "_idx ON " + partitionTable
+					+ " (" + column + ")");
+	}
+
+	/**
+	 * Returns the primary key and indexes of a table that are on columns,
+	 * each as name|isUnique|isPrimary|column1,column2...
+	 *
+	 * @param table
+	 * @return the indexes
+	 * @throws SQLException
+	 */
+	private List<String> getIndexes(String table) throws SQLException {
+		return queryStrings("SELECT i.relname || '|' || ix.indisunique "
+				+ "    || '|' || ix.indisprimary || '|' "
+				+ "    || (SELECT string_agg(a.attname, ',' ORDER BY k.n) "
+				+ "        FROM unnest(ix.indkey::int2[]) "
+				+ "          WITH ORDINALITY k(attnum, n) "
+				+ "        JOIN pg_attribute a ON a.attrelid = ix.indrelid "
+				+ "          AND a.attnum = k.attnum) "
+				+ "FROM pg_index ix "
+				+ "JOIN pg_class t ON t.oid = ix.indrelid "
+				+ "JOIN pg_class i ON i.oid = ix.indexrelid "
+				+ "JOIN pg_namespace n ON n.oid = t.relnamespace "
+				+ "WHERE t.relname = ? AND n.nspname = current_schema() "
+				+ "  AND ix.indexprs IS NULL "
+				+ "ORDER BY i.relname", table);
+	}
+
+	/**
+	 * @param table
+	 * @param column
+	 * @return true if the table has an index that starts with the column
+	 * @throws SQLException
+	 */
+	private boolean hasIndexOn(String table, String column)
+			throws SQLException {
+		for (String index : getIndexes(table)) {
+			String[] columns = index.split("\\" + INDEX_SEPARATOR)[3].split(",");
+			if (columns[0].equalsIgnoreCase(column))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Creates the primary key and indexes of the existing table on the
+	 * partitioned table. The partition column is added to the primary key and
+	 * to unique indexes since PostgreSQL requires it. If none of the indexes
+	 * starts with the partition column then a time index is added since
+	 * queries are by time.
+	 *
+	 * @param existingTable
+	 * @param partitionedTable
+	 * @param column
+	 *            The partition column
+	 * @throws SQLException
+	 */
+	private void copyIndexes(String existingTable, String partitionedTable,
+			String column) throws SQLException {
+		boolean hasTimeIndex = false;
+		for (String index : getIndexes(existingTable)) {
+			String[] fields = index.split("\\" + INDEX_SEPARATOR);
+			String name = fields[0];
+			boolean unique = Boolean.parseBoolean(fields[1]);
+			boolean primary = Boolean.parseBoolean(fields[2]);
+			List<String> columns =
+					new ArrayList<String>(Arrays.asList(fields[3].split(",")));
+			hasTimeIndex |= columns.get(0).equalsIgnoreCase(column);
+
+			boolean columnInIndex = false;
+			for (String indexColumn : columns)
+				if (indexColumn.equalsIgnoreCase(column))
+					columnInIndex = true;
+			if ((primary || unique) && !columnInIndex)
+				columns.add(column.toLowerCase());
+
+			StringBuilder columnList = new StringBuilder();
+			for (String indexColumn : columns) {
+				if (columnList.length() > 0)
+					columnList.append(", ");
+				columnList.append('"').append(indexColumn).append('"');
+			}
+
+			if (primary)
+				execute("ALTER TABLE " + partitionedTable
+						+ " ADD PRIMARY KEY (" + columnList + ")");
+			else
+				execute("CREATE " + (unique ? "UNIQUE " : "") + "INDEX "
+						+ partitionedTable + "_" + name + " ON "
+						+ partitionedTable + " (" + columnList + ")");
+		}
+
+		if (!hasTimeIndex)
+			execute("CREATE INDEX " + partitionedTable + "_"
+					+ column.toLowerCase() + "_idx ON " + partitionedTable
+					+ " (" + column + ")");
+	}
+
+	@Override
+	public void removePartition(String table, String partitionName,
+			boolean archive) throws SQLException {
+		String tableName = table.toLowerCase();
+		String partitionTable = tableName + "_" + partitionName;
+		execute("ALTER TABLE " + tableName + " DETACH PARTITION "
+				+ partitionTable);
+		// If archiving then the detached table is simply kept
+		if (!archive)
+			execute("DROP TABLE " + partitionTable);
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.maintenance;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Database specific operations for managing time range partitions of a
+ * table. Each managed partition covers one period, such as a day or a month,
+ * and is named "p" followed by the start date of the period in yyyyMMdd
+ * format. The end of a partition is the start of the next one.
+ * <p>
+ * A table is converted to being partitioned by making all of the existing
+ * data the first partition, ending at the specified boundary. This way
+ * conversion doesn't have to move any data and the existing data is simply
+ * dropped, or archived, once it has all expired.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public abstract class TablePartitioner {
+
+	protected final Connection connection;
+
+	private static final Logger logger =
+			LoggerFactory.getLogger(TablePartitioner.class);
+
+	/********************** Member Functions **************************/
+
+	protected TablePartitioner(Connection connection) {
+		this.connection = connection;
+	}
+
+	/**
+	 * Creates the partitioner for the specified type of database.
+	 *
+	 * @param dbType
+	 *            "mysql" or "postgresql"
+	 * @param connection
+	 * @return the partitioner, or null if partitioning is not supported for
+	 *         the database type
+	 */
+	public static TablePartitioner create(String dbType,
+			Connection connection) {
+		if ("mysql".equals(dbType))
+			return new MySqlTablePartitioner(connection);
+		if ("postgresql".equals(dbType))
+			return new PostgresTablePartitioner(connection);
+		return null;
+	}
+
+	/**
+	 * @param periodStart
+	 * @return name of partition that starts at the specified time
+	 */
+	public static String partitionName(Date periodStart) {
+		return "p" + new SimpleDateFormat("yyyyMMdd").format(periodStart);
+	}
+
+	/**
+	 * @param partitionName
+	 * @return the start of the partition, or null if the name is not for a
+	 *         managed partition
+	 */
+	public static Date partitionStart(String partitionName) {
+		if (partitionName == null || !partitionName.matches("p\\d{8}"))
+			return null;
+		try {
+			return new SimpleDateFormat("yyyyMMdd")
+					.parse(partitionName.substring(1));
+		} catch (ParseException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param time
+	 * @return the time as a SQL literal, such as '2016-07-01 00:00:00'
+	 */
+	protected static String timeLiteral(Date time) {
+		return "'" + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(time)
+				+ "'";
+	}
+
+	/**
+	 * Executes a DDL statement.
+	 *
+	 * @param sql
+	 * @throws SQLException
+	 */
+	protected void execute(String sql) throws SQLException {
+		logger.info("Executing partition SQL: {}", sql);
+		Statement statement = connection.createStatement();
+		try {
+			statement.execute(sql);
+		} finally {
+			statement.close();
+		}
+	}
+
+	/**
+	 * Runs a query and returns the first column of each row as a string.
+	 *
+	 * @param sql
+	 * @param params
+	 *            String parameters for the query
+	 * @return list of values, empty if no rows
+	 * @throws SQLException
+	 */
+	protected List<String> queryStrings(String sql, String... params)
+			throws SQLException {
+		List<String> results = new ArrayList<String>();
+		PreparedStatement statement = connection.prepareStatement(sql);
+		try {
+			for (int i = 0; i < params.length; ++i)
+				statement.setString(i + 1, params[i]);
+			ResultSet rs = statement.executeQuery();
+			while (rs.next())
+				results.add(rs.getString(1));
+		} finally {
+			statement.close();
+		}
+		return results;
+	}
+
+	/**
+	 * @param table
+	 * @return true if the table is already partitioned
+	 * @throws SQLException
+	 */
+	public abstract boolean isPartitioned(String table) throws SQLException;
+
+	/**
+	 * Converts an unpartitioned table into a partitioned one. All existing
+	 * rows end up in a single partition ending at firstBoundary.
+	 *
+	 * @param table
+	 * @param column
+	 *            The time column to partition on
+	 * @param existingDataStart
+	 *            Start of period used for naming the partition that holds the
+	 *            existing data
+	 * @param firstBoundary
+	 *            End of the partition that holds the existing data
+	 * @throws SQLException
+	 */
+	public abstract void convertToPartitioned(String table, String column,
+			Date existingDataStart, Date firstBoundary) throws SQLException;
+
+	/**
+	 * @param table
+	 * @return names of the managed partitions of the table, in time order.
+	 *         Does not include catch-all partitions.
+	 * @throws SQLException
+	 */
+	public abstract List<String> getPartitionNames(String table)
+			throws SQLException;
+
+	/**
+	 * Adds a partition after the last existing one.
+	 *
+	 * @param table
+	 * @param column
+	 * @param start
+	 * @param end
+	 * @throws SQLException
+	 */
+	public abstract void addPartition(String table, String column, Date start,
+			Date end) throws SQLException;
+
+	/**
+	 * Removes a partition from the table. This is far cheaper than deleting
+	 * the rows.
+	 *
+	 * @param table
+	 * @param partitionName
+	 * @param archive
+	 *            If true the data is moved to a standalone table, named the
+	 *            table name followed by "_" and the partition name, instead of
+	 *            being dropped
+	 * @throws SQLException
+	 */
+	public abstract void removePartition(String table, String partitionName,
+			boolean archive) throws SQLException;
+}
@@ -22,6 +22,8 @@ import org.slf4j.LoggerFactory;
 import org.transitime.applications.Core;
 import org.transitime.core.BlocksInfo;
 import org.transitime.db.structs.Block;
+import org.transitime.monitoring.metrics.Gauge;
+import org.transitime.monitoring.metrics.MetricsRegistry;
 import org.transitime.utils.EmailSender;
 
 import java.util.Date;
@@ -29,7 +31,7 @@ import java.util.List;
 
 /**
  * For monitoring active blocks.  Unlike the other monitors,
- * this one never triggers an alarm, it simply posts metrics to cloudwatch
+ * this one never triggers an alarm, it simply updates metrics
  */
 public class ActiveBlocksMonitor extends MonitorBase {
 
@@ -37,14 +39,14 @@ public class ActiveBlocksMonitor extends MonitorBase {
 
     private Date lastUpdate = new Date();
 
-    private CloudwatchService cloudwatchService;
+    private static final Gauge activeBlockFractionMetric = MetricsRegistry
+            .getInstance().gauge("PercentageActiveBlockCount", true);
 
     private static final Logger logger = LoggerFactory
             .getLogger(ActiveBlocksMonitor.class);
 
-	public ActiveBlocksMonitor(CloudwatchService cloudwatchService, EmailSender emailSender, String agencyId) {
+	public ActiveBlocksMonitor(EmailSender emailSender, String agencyId) {
 		super(emailSender, agencyId);
-        this.cloudwatchService = cloudwatchService;
 	}
 
 	/* (non-Javadoc)
@@ -62,8 +64,7 @@ public class ActiveBlocksMonitor extends MonitorBase {
             if(activeBlockCount > 0){
                 activeBlockCountPercentage = activeBlockCount / totalBlockCount;
             }
-            cloudwatchService.saveMetric("PercentageActiveBlockCount", activeBlockCountPercentage , 1,
-                    CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, true);
+            activeBlockFractionMetric.set(activeBlockCountPercentage);
             lastUpdate = new Date();
         }
         return false;
@@ -35,8 +35,6 @@ import java.util.Map;
  */
 public class AgencyMonitor {
 
-    private final CloudwatchService cloudwatchService;
-
 	// So can send out notification email if monitor triggered
 	private final EmailSender emailSender;
 	
@@ -65,14 +63,13 @@ public class AgencyMonitor {
 	 */
 	private AgencyMonitor(String agencyId) {
 		emailSender = new EmailSender();
-        cloudwatchService = CloudwatchService.getInstance();
 
 		// Create all the monitors and add them to the monitors list
 		monitors = new ArrayList<MonitorBase>();
-		monitors.add(new AvlFeedMonitor(cloudwatchService, emailSender, agencyId));
-		monitors.add(new PredictabilityMonitor(cloudwatchService, emailSender, agencyId));
-        monitors.add(new DatabaseQueueMonitor(cloudwatchService, emailSender, agencyId));
-        monitors.add(new ActiveBlocksMonitor(cloudwatchService, emailSender, agencyId));
+		monitors.add(new AvlFeedMonitor(emailSender, agencyId));
+		monitors.add(new PredictabilityMonitor(emailSender, agencyId));
+        monitors.add(new DatabaseQueueMonitor(emailSender, agencyId));
+        monitors.add(new ActiveBlocksMonitor(emailSender, agencyId));
         if(enableSystemMonitoring != null && enableSystemMonitoring.equalsIgnoreCase("true")){
             monitors.add(new SystemMemoryMonitor(emailSender, agencyId));
             monitors.add(new SystemCpuMonitor(emailSender, agencyId));
@@ -19,11 +19,16 @@ package org.transitime.monitoring;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.transitime.avl.AvlExecutor;
+import org.transitime.avl.AvlQueue;
 import org.transitime.config.IntegerConfigValue;
 import org.transitime.config.StringConfigValue;
 import org.transitime.core.AvlProcessor;
 import org.transitime.core.BlocksInfo;
 import org.transitime.db.structs.Block;
+import org.transitime.monitoring.metrics.Gauge;
+import org.transitime.monitoring.metrics.Histogram;
+import org.transitime.monitoring.metrics.MetricsRegistry;
 import org.transitime.utils.EmailSender;
 import org.transitime.utils.Time;
 
@@ -40,7 +45,16 @@ import java.util.List;
  */
 public class AvlFeedMonitor extends MonitorBase {
 
-    private CloudwatchService cloudwatchService;
+	private static final Histogram avlReportAgeMetric = MetricsRegistry
+			.getInstance().histogram("PredictionLatestAvlReportAgeInSeconds");
+	private static final Gauge avlQueueSizeMetric = MetricsRegistry
+			.getInstance().gauge("PredictionAvlQueueSize");
+	private static final Gauge avlQueueCoalescedMetric = MetricsRegistry
+			.getInstance().gauge("PredictionAvlQueueCoalesced");
+	private static final Gauge avlQueueRejectedMetric = MetricsRegistry
+			.getInstance().gauge("PredictionAvlQueueRejected");
+	private static final Gauge avlQueueLatencyMetric = MetricsRegistry
+			.getInstance().gauge("PredictionAvlQueueAverageLatencyInMillis");
 
 	private static IntegerConfigValue allowableNoAvlSecs =
 			new IntegerConfigValue(
@@ -68,9 +82,8 @@ public class AvlFeedMonitor extends MonitorBase {
 	 * @param emailSender
 	 * @param agencyId
 	 */
-	public AvlFeedMonitor(CloudwatchService cloudwatchService, EmailSender emailSender, String agencyId) {
+	public AvlFeedMonitor(EmailSender emailSender, String agencyId) {
 		super(emailSender, agencyId);
-        this.cloudwatchService = cloudwatchService;
 	}
 	
 	/**
@@ -86,8 +99,18 @@ public class AvlFeedMonitor extends MonitorBase {
 		// Determine age of AVL report
 		long lastAvlReportTime = AvlProcessor.getInstance().lastAvlReportTime();
 		long ageOfAvlReport = System.currentTimeMillis() - lastAvlReportTime;
-		Double ageOfAvlReportInSecs = new Double(ageOfAvlReport / Time.MS_PER_SEC );
-        cloudwatchService.saveMetric("PredictionLatestAvlReportAgeInSeconds", ageOfAvlReportInSecs, 1, CloudwatchService.MetricType.AVERAGE, CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
+		avlReportAgeMetric.record(ageOfAvlReport / Time.MS_PER_SEC);
+
+		// If AVL reports are queued by the AvlExecutor then also report
+		// on how the queue is doing
+		AvlQueue avlQueue = AvlExecutor.getQueueIfStarted();
+		if (avlQueue != null) {
+			avlQueueSizeMetric.set(avlQueue.size());
+			avlQueueCoalescedMetric.set(avlQueue.getCoalescedCount());
+			avlQueueRejectedMetric.set(avlQueue.getRejectedCount());
+			avlQueueLatencyMetric.set(avlQueue.getAverageLatencyMsec());
+			logger.debug("AVL queue status {}", avlQueue);
+		}
 
 		logger.debug("When monitoring AVL feed last AVL report={}",
 				AvlProcessor.getInstance().getLastAvlReport());
@@ -20,6 +20,8 @@ package org.transitime.monitoring;
 import org.transitime.applications.Core;
 import org.transitime.config.DoubleConfigValue;
 import org.transitime.db.hibernate.DataDbLogger;
+import org.transitime.monitoring.metrics.Histogram;
+import org.transitime.monitoring.metrics.MetricsRegistry;
 import org.transitime.utils.EmailSender;
 import org.transitime.utils.StringUtils;
 
@@ -32,7 +34,8 @@ import org.transitime.utils.StringUtils;
  */
 public class DatabaseQueueMonitor extends MonitorBase {
 
-    private CloudwatchService cloudwatchService;
+	private static final Histogram queueLevelMetric = MetricsRegistry
+			.getInstance().histogram("PredictionDatabaseQueuePercentageLevel");
 
 	DoubleConfigValue maxQueueFraction = new DoubleConfigValue(
 			"transitime.monitoring.maxQueueFraction", 
@@ -58,9 +61,8 @@ public class DatabaseQueueMonitor extends MonitorBase {
 	 * @param emailSender
 	 * @param agencyId
 	 */
-	public DatabaseQueueMonitor(CloudwatchService cloudwatchService, EmailSender emailSender, String agencyId) {
+	public DatabaseQueueMonitor(EmailSender emailSender, String agencyId) {
 		super(emailSender, agencyId);
-        this.cloudwatchService = cloudwatchService;
 	}
 
 	/* (non-Javadoc)
@@ -82,7 +84,7 @@ public class DatabaseQueueMonitor extends MonitorBase {
 				+ ".",
 				dbLogger.queueLevel());
 
-        cloudwatchService.saveMetric("PredictionDatabaseQueuePercentageLevel", dbLogger.queueLevel(), 1, CloudwatchService.MetricType.AVERAGE, CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
+		queueLevelMetric.record(dbLogger.queueLevel());
 		
 		// Determine the threshold for triggering. If already triggered
 		// then lower the threshold by maxQueueFractionGap in order
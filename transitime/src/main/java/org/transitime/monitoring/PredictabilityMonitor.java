@@ -26,6 +26,9 @@ import org.transitime.config.IntegerConfigValue;
 import org.transitime.core.BlocksInfo;
 import org.transitime.core.dataCache.VehicleDataCache;
 import org.transitime.db.structs.Block;
+import org.transitime.monitoring.metrics.Gauge;
+import org.transitime.monitoring.metrics.Histogram;
+import org.transitime.monitoring.metrics.MetricsRegistry;
 import org.transitime.utils.EmailSender;
 import org.transitime.utils.StringUtils;
 
@@ -42,7 +45,16 @@ import java.util.List;
  */
 public class PredictabilityMonitor extends MonitorBase {
 
-    private CloudwatchService cloudwatchService;
+	private static final Histogram noActiveBlocksPredictableMetric =
+			MetricsRegistry.getInstance().histogram(
+					"PredictionPredictablePercentageOfBlocks");
+	private static final Gauge activeBlockCountMetric =
+			MetricsRegistry.getInstance().gauge("PredictionActiveBlockCount");
+	private static final Gauge totalBlockCountMetric =
+			MetricsRegistry.getInstance().gauge("PredictionTotalBlockCount");
+	private static final Histogram predictableFractionMetric =
+			MetricsRegistry.getInstance().histogram(
+					"PredictablePercentageOfBlocks");
 
 	private static DoubleConfigValue minPredictableBlocks =
 			new DoubleConfigValue(
@@ -78,9 +90,8 @@ public class PredictabilityMonitor extends MonitorBase {
 	 * @param emailSender
 	 * @param agencyId
 	 */
-	public PredictabilityMonitor(CloudwatchService cloudwatchService, EmailSender emailSender, String agencyId) {
+	public PredictabilityMonitor(EmailSender emailSender, String agencyId) {
 		super(emailSender, agencyId);
-        this.cloudwatchService = cloudwatchService;
 	}
 
 	/**
@@ -101,7 +112,7 @@ public class PredictabilityMonitor extends MonitorBase {
 		if (activeBlocks.size() == 0) {
 			setMessage("No currently active blocks so predictability "
 					+ "considered to be OK.");
-            cloudwatchService.saveMetric("PredictionPredictablePercentageOfBlocks", 1d, 1, CloudwatchService.MetricType.AVERAGE, CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
+			noActiveBlocksPredictableMetric.record(1.0);
 			return 1.0;
 		}
 
@@ -121,10 +132,10 @@ public class PredictabilityMonitor extends MonitorBase {
 		// Determine fraction of active blocks that have a predictable vehicle 
 		double fraction = ((double) Math.max(predictableVehicleCount,
 		minimumPredictableVehicles.getValue())) / activeBlocks.size();
-		cloudwatchService.saveMetric("PredictionActiveBlockCount", (double)Math.max(predictableVehicleCount,
-		    minimumPredictableVehicles.getValue()), 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
-		cloudwatchService.saveMetric("PredictionTotalBlockCount", (double)activeBlocks.size() , 1, CloudwatchService.MetricType.SCALAR, CloudwatchService.ReportingIntervalTimeUnit.IMMEDIATE, false);
-    cloudwatchService.saveMetric("PredictablePercentageOfBlocks", fraction, 1, CloudwatchService.MetricType.AVERAGE, CloudwatchService.ReportingIntervalTimeUnit.MINUTE, false);
+		activeBlockCountMetric.set(Math.max(predictableVehicleCount,
+				minimumPredictableVehicles.getValue()));
+		totalBlockCountMetric.set(activeBlocks.size());
+		predictableFractionMetric.record(fraction);
 
 		// Provide simple message explaining the situation
 		String message = "Predictable blocks fraction=" 
@@ -0,0 +1,96 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.monitoring.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.transitime.monitoring.CloudwatchService;
+
+/**
+ * Publishes the metrics to AWS CloudWatch each export interval using the
+ * CloudwatchService. For histograms the average of the values recorded
+ * during the interval is published, for counters the increase during the
+ * interval, and for gauges the latest value if it was set during the
+ * interval. Does nothing if CloudWatch is not configured.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class CloudwatchExporter implements MetricsExporter {
+
+	private CloudwatchService cloudwatchService;
+
+	// The counts and sums as of the previous export so that can determine
+	// the values for the interval. Keyed on metric name. Only accessed by
+	// the export thread.
+	private final Map<String, Long> previousCounts = new HashMap<String, Long>();
+	private final Map<String, Double> previousSums =
+			new HashMap<String, Double>();
+
+	/********************** Member Functions **************************/
+
+	@Override
+	public void start(MetricsRegistry registry) {
+		cloudwatchService = CloudwatchService.getInstance();
+	}
+
+	@Override
+	public void export(MetricsRegistry registry) {
+		if (!cloudwatchService.isEnabled())
+			return;
+
+		for (Metric metric : registry.getMetrics()) {
+			String name = metric.getName();
+			Long previousCount = previousCounts.get(name);
+			long prevCount = previousCount != null ? previousCount : 0;
+
+			switch (metric.getType()) {
+			case COUNTER:
+				long count = ((Counter) metric).getCount();
+				previousCounts.put(name, count);
+				cloudwatchService.publishMetric(name,
+						(double) (count - prevCount), false);
+				break;
+			case GAUGE:
+				Gauge gauge = (Gauge) metric;
+				long updateCount = gauge.getUpdateCount();
+				previousCounts.put(name, updateCount);
+				if (updateCount != prevCount)
+					cloudwatchService.publishMetric(name, gauge.getValue(),
+							metric.isPercent());
+				break;
+			case HISTOGRAM:
+				Histogram histogram = (Histogram) metric;
+				// Read sum before count so that a value recorded in between
+				// can only make the average a bit low for one interval
+				double sum = histogram.getSum();
+				long valuesCount = histogram.getCount();
+				Double previousSum = previousSums.get(name);
+				double prevSum = previousSum != null ? previousSum : 0.0;
+				previousCounts.put(name, valuesCount);
+				previousSums.put(name, sum);
+				if (valuesCount > prevCount)
+					cloudwatchService.publishMetric(name,
+							(sum - prevSum) / (valuesCount - prevCount),
+							metric.isPercent());
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.monitoring.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count that only increases, such as the number of AVL reports processed.
+ * Exporters that report per interval report the increase since the previous
+ * export.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class Counter extends Metric {
+
+	private final AtomicLong count = new AtomicLong();
+
+	/********************** Member Functions **************************/
+
+	Counter(String name) {
+		super(name, false);
+	}
+
+	@Override
+	public Type getType() {
+		return Type.COUNTER;
+	}
+
+	public void increment() {
+		count.incrementAndGet();
+	}
+
+	public void add(long amount) {
+		count.addAndGet(amount);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	@Override
+	public String toString() {
+		return "Counter [name=" + getName() + ", count=" + count + "]";
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.monitoring.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.StringConfigValue;
+import org.transitime.utils.Time;
+
+/**
+ * Appends the current value of every metric to a CSV file each export
+ * interval. Histograms are written with their count, mean, min, max and
+ * percentiles since the application started.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class CsvExporter implements MetricsExporter {
+
+	private File file;
+
+	private static StringConfigValue fileName = new StringConfigValue(
+			"transitime.metrics.csvFile", "/tmp/transitime/metrics.csv",
+			"Name of the file that the CSV metrics exporter appends to.");
+
+	private static final String HEADER =
+			"time,name,type,value,count,mean,min,max,p50,p95,p99\n";
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(CsvExporter.class);
+
+	/********************** Member Functions **************************/
+
+	@Override
+	public void start(MetricsRegistry registry) throws IOException {
+		file = new File(fileName.getValue());
+		if (file.getParentFile() != null)
+			file.getParentFile().mkdirs();
+		if (!file.exists()) {
+			Writer writer = new FileWriter(file);
+			try {
+				writer.write(HEADER);
+			} finally {
+				writer.close();
+			}
+		}
+	}
+
+	@Override
+	public void export(MetricsRegistry registry) {
+		String time = Time.dateTimeStr(System.currentTimeMillis());
+		StringBuilder sb = new StringBuilder();
+		for (Metric metric : registry.getMetrics()) {
+			sb.append(time).append(',').append(metric.getName()).append(',')
+					.append(metric.getType()).append(',');
+			switch (metric.getType()) {
+			case COUNTER:
+				sb.append(((Counter) metric).getCount()).append(",,,,,,,");
+				break;
+			case GAUGE:
+				sb.append(((Gauge) metric).getValue()).append(",,,,,,,");
+				break;
+			case HISTOGRAM:
+				Histogram histogram = (Histogram) metric;
+				sb.append(',').append(histogram.getCount())
+						.append(',').append(histogram.getMean())
+						.append(',').append(histogram.getMin())
+						.append(',').append(histogram.getMax())
+						.append(',').append(histogram.getPercentile(50.0))
+						.append(',').append(histogram.getPercentile(95.0))
+						.append(',').append(histogram.getPercentile(99.0));
+				break;
+			}
+			sb.append('\n');
+		}
+
+		try {
+			Writer writer = new FileWriter(file, true);
+			try {
+				writer.write(sb.toString());
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			logger.error("Could not write metrics to file {}. {}",
+					file, e.getMessage());
+		}
+	}
+}
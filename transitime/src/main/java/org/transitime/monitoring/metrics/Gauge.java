@@ -0,0 +1,73 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.monitoring.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A value that is set to the latest measurement, such as a queue size. Only
+ * the latest value is kept.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class Gauge extends Metric {
+
+	// The double value stored as its long bits so that it can be atomic
+	private final AtomicLong valueBits =
+			new AtomicLong(Double.doubleToRawLongBits(Double.NaN));
+
+	// So that exporters can tell whether the value has been set since they
+	// last exported it
+	private final AtomicLong updateCount = new AtomicLong();
+
+	/********************** Member Functions **************************/
+
+	Gauge(String name, boolean percent) {
+		super(name, percent);
+	}
+
+	@Override
+	public Type getType() {
+		return Type.GAUGE;
+	}
+
+	public void set(double value) {
+		valueBits.set(Double.doubleToRawLongBits(value));
+		updateCount.incrementAndGet();
+	}
+
+	/**
+	 * @return the latest value, or NaN if it has never been set
+	 */
+	public double getValue() {
+		return Double.longBitsToDouble(valueBits.get());
+	}
+
+	/**
+	 * @return number of times the value has been set
+	 */
+	public long getUpdateCount() {
+		return updateCount.get();
+	}
+
+	@Override
+	public String toString() {
+		return "Gauge [name=" + getName() + ", value=" + getValue() + "]";
+	}
+}
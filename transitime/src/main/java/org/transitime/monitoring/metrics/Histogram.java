@@ -0,0 +1,222 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.monitoring.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the distribution of a measurement, such as the time to process an
+ * AVL report, using a fixed amount of memory. Each value goes into an
+ * exponential bucket with four buckets per power of two so percentiles are
+ * accurate to within about 20%. Also keeps the exact count, sum, min and max.
+ * Recording a value is a few atomic operations and doesn't allocate any
+ * memory, unlike keeping every value until it is published.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class Histogram extends Metric {
+
+	// Buckets cover 2^MIN_EXPONENT (about 1e-6) to 2^MAX_EXPONENT (about
+	// 1e12). Smaller values, including zero and negative ones, go into the
+	// first bucket and larger ones into the last.
+	private static final int MIN_EXPONENT = -20;
+	private static final int MAX_EXPONENT = 40;
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int NUM_BUCKETS =
+			(MAX_EXPONENT - MIN_EXPONENT) * SUB_BUCKETS + 2;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+
+	// The double values stored as their long bits so that they can be atomic
+	private final AtomicLong sumBits =
+			new AtomicLong(Double.doubleToRawLongBits(0.0));
+	private final AtomicLong minBits = new AtomicLong(
+			Double.doubleToRawLongBits(Double.POSITIVE_INFINITY));
+	private final AtomicLong maxBits = new AtomicLong(
+			Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY));
+
+	/********************** Member Functions **************************/
+
+	Histogram(String name) {
+		super(name, false);
+	}
+
+	@Override
+	public Type getType() {
+		return Type.HISTOGRAM;
+	}
+
+	/**
+	 * Records a value. NaN values are ignored.
+	 *
+	 * @param value
+	 */
+	public void record(double value) {
+		if (Double.isNaN(value))
+			return;
+
+		buckets.incrementAndGet(bucketIndex(value));
+		count.incrementAndGet();
+
+		// Add to the sum
+		long oldBits;
+		do {
+			oldBits = sumBits.get();
+		} while (!sumBits.compareAndSet(oldBits, Double.doubleToRawLongBits(
+				Double.longBitsToDouble(oldBits) + value)));
+
+		// Update the min and the max. Usually no change is needed so the
+		// compare and set is rarely done.
+		while (true) {
+			oldBits = minBits.get();
+			if (value >= Double.longBitsToDouble(oldBits)
+					|| minBits.compareAndSet(oldBits,
+							Double.doubleToRawLongBits(value)))
+				break;
+		}
+		while (true) {
+			oldBits = maxBits.get();
+			if (value <= Double.longBitsToDouble(oldBits)
+					|| maxBits.compareAndSet(oldBits,
+							Double.doubleToRawLongBits(value)))
+				break;
+		}
+	}
+
+	/**
+	 * Determines the bucket from the exponent and the top bits of the
+	 * mantissa of the value so that no logarithm is needed.
+	 *
+	 * @param value
+	 * @return index of the bucket for the value
+	 */
+	private static int bucketIndex(double value) {
+		if (value <= 0.0)
+			return 0;
+		int exponent = Math.getExponent(value);
+		if (exponent < MIN_EXPONENT)
+			return 0;
+		if (exponent >= MAX_EXPONENT)
+			return NUM_BUCKETS - 1;
+		long mantissa = Double.doubleToRawLongBits(value) & 0x000fffffffffffffL;
+		int subBucket = (int) (mantissa >>> (52 - SUB_BUCKET_BITS));
+		return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @param index
+	 * @return the largest value that goes into the bucket
+	 */
+	private static double bucketUpperLimit(int index) {
+		if (index == 0)
+			return Math.scalb(1.0, MIN_EXPONENT);
+		if (index == NUM_BUCKETS - 1)
+			return Double.POSITIVE_INFINITY;
+		int exponent = MIN_EXPONENT + (index - 1) / SUB_BUCKETS;
+		int subBucket = (index - 1) % SUB_BUCKETS;
+		return Math.scalb(1.0 + (subBucket + 1) / (double) SUB_BUCKETS,
+				exponent);
+	}
+
+	/**
+	 * Returns approximate value at the specified percentile. Uses the upper
+	 * limit of the bucket containing the percentile, limited to the actual
+	 * min and max.
+	 *
+	 * @param percentile
+	 *            Between 0.0 and 100.0
+	 * @return the value, or NaN if no values recorded yet
+	 */
+	public double getPercentile(double percentile) {
+		long total = 0;
+		long[] counts = new long[NUM_BUCKETS];
+		for (int i = 0; i < NUM_BUCKETS; ++i) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0)
+			return Double.NaN;
+
+		long countNeeded = Math.max(1,
+				(long) Math.ceil(total * percentile / 100.0));
+		long cumulative = 0;
+		int index = 0;
+		for (; index < NUM_BUCKETS - 1; ++index) {
+			cumulative += counts[index];
+			if (cumulative >= countNeeded)
+				break;
+		}
+		double value = bucketUpperLimit(index);
+		return Math.max(getMin(), Math.min(getMax(), value));
+	}
+
+	/**
+	 * @return number of values recorded
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return sum of the values recorded
+	 */
+	public double getSum() {
+		return Double.longBitsToDouble(sumBits.get());
+	}
+
+	/**
+	 * @return the mean of all the values recorded, or NaN if none
+	 */
+	public double getMean() {
+		long n = getCount();
+		return n == 0 ? Double.NaN : getSum() / n;
+	}
+
+	/**
+	 * @return smallest value recorded, or NaN if none
+	 */
+	public double getMin() {
+		double min = Double.longBitsToDouble(minBits.get());
+		return Double.isInfinite(min) ? Double.NaN : min;
+	}
+
+	/**
+	 * @return largest value recorded, or NaN if none
+	 */
+	public double getMax() {
+		double max = Double.longBitsToDouble(maxBits.get());
+		return Double.isInfinite(max) ? Double.NaN : max;
+	}
+
+	@Override
+	public String toString() {
+		return "Histogram ["
+				+ "name=" + getName()
+				+ ", count=" + getCount()
+				+ ", mean=" + getMean()
+				+ ", min=" + getMin()
+				+ ", max=" + getMax()
+				+ ", p50=" + getPercentile(50.0)
+				+ ", p99=" + getPercentile(99.0)
+				+ "]";
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.monitoring.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+
+/**
+ * Makes the metrics available as the attributes of the MBean
+ * org.transitime:type=Metrics so that they can be viewed with tools such as
+ * JConsole. Histograms are made available as several attributes, such as
+ * name.mean and name.p99. The values are read from the metrics when the
+ * attributes are read so this exporter doesn't push anything.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class JmxExporter implements MetricsExporter, DynamicMBean {
+
+	private MetricsRegistry registry;
+
+	/********************** Member Functions **************************/
+
+	@Override
+	public void start(MetricsRegistry registry) throws Exception {
+		this.registry = registry;
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+				new ObjectName("org.transitime:type=Metrics"));
+	}
+
+	/**
+	 * Attributes are read on demand so nothing to do here
+	 */
+	@Override
+	public void export(MetricsRegistry registry) {
+	}
+
+	/**
+	 * @return the current values of all the attributes, keyed by attribute
+	 *         name
+	 */
+	private Map<String, Double> getValues() {
+		Map<String, Double> values = new LinkedHashMap<String, Double>();
+		for (Metric metric : registry.getMetrics()) {
+			String name = metric.getName();
+			switch (metric.getType()) {
+			case COUNTER:
+				values.put(name, (double) ((Counter) metric).getCount());
+				break;
+			case GAUGE:
+				values.put(name, ((Gauge) metric).getValue());
+				break;
+			case HISTOGRAM:
+				Histogram histogram = (Histogram) metric;
+				values.put(name + ".count", (double) histogram.getCount());
+				values.put(name + ".mean", histogram.getMean());
+				values.put(name + ".min", histogram.getMin());
+				values.put(name + ".max", histogram.getMax());
+				values.put(name + ".p50", histogram.getPercentile(50.0));
+				values.put(name + ".p95", histogram.getPercentile(95.0));
+				values.put(name + ".p99", histogram.getPercentile(99.0));
+				break;
+			}
+		}
+		return values;
+	}
+
+	@Override
+	public Object getAttribute(String attribute)
+			throws AttributeNotFoundException {
+		Double value = getValues().get(attribute);
+		if (value == null)
+			throw new AttributeNotFoundException(attribute);
+		return value;
+	}
+
+	@Override
+	public void setAttribute(Attribute attribute) {
+		throw new UnsupportedOperationException("Metrics are read only");
+	}
+
+	@Override
+	public AttributeList getAttributes(String[] attributes) {
+		Map<String, Double> values = getValues();
+		AttributeList list = new AttributeList();
+		for (String attribute : attributes) {
+			Double value = values.get(attribute);
+			if (value != null)
+				list.add(new Attribute(attribute, value));
+		}
+		return list;
+	}
+
+	@Override
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	@Override
+	public Object invoke(String actionName, Object[] params,
+			String[] signature) {
+		throw new UnsupportedOperationException("No operations");
+	}
+
+	@Override
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributeInfos =
+				new ArrayList<MBeanAttributeInfo>();
+		for (String name : getValues().keySet()) {
+			attributeInfos.add(new MBeanAttributeInfo(name,
+					Double.class.getName(), name, true, false, false));
+		}
+		return new MBeanInfo(getClass().getName(), "Transitime metrics",
+				attributeInfos.toArray(
+						new MBeanAttributeInfo[attributeInfos.size()]),
+				null, new MBeanOperationInfo[0], null);
+	}
+}
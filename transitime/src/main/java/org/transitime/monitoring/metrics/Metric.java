@@ -0,0 +1,61 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.monitoring.metrics;
+
+/**
+ * Base class for the metrics kept by the MetricsRegistry. Metrics are created
+ * once, typically stored in a static member, and then updated without any
+ * locking or allocation so that they can be used in the main AVL processing
+ * path.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public abstract class Metric {
+
+	public enum Type {
+		COUNTER, GAUGE, HISTOGRAM
+	}
+
+	private final String name;
+
+	// If true then values are fractions between 0.0 and 1.0 and exporters
+	// that support it should report them as percentages
+	private final boolean percent;
+
+	/********************** Member Functions **************************/
+
+	protected Metric(String name, boolean percent) {
+		this.name = name;
+		this.percent = percent;
+	}
+
+	public abstract Type getType();
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return true if the values are fractions that should be reported as
+	 *         percentages
+	 */
+	public boolean isPercent() {
+		return percent;
+	}
+}
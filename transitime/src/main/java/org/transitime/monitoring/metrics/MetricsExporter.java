@@ -0,0 +1,48 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.monitoring.metrics;
+
+/**
+ * For making the metrics in the MetricsRegistry available to a monitoring
+ * system. Exporters are specified by the transitime.metrics.exporters
+ * parameter. An exporter can either push the metrics each time export() is
+ * called or have the monitoring system pull them, in which case export()
+ * does nothing. Custom exporters need a no-arg constructor.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public interface MetricsExporter {
+
+	/**
+	 * Called once when the exporter is created so that it can do things like
+	 * start a server for the metrics to be read from.
+	 *
+	 * @param registry
+	 * @throws Exception
+	 */
+	void start(MetricsRegistry registry) throws Exception;
+
+	/**
+	 * Called every transitime.metrics.exportIntervalSecs. Exporters that push
+	 * metrics should do so here.
+	 *
+	 * @param registry
+	 */
+	void export(MetricsRegistry registry);
+}
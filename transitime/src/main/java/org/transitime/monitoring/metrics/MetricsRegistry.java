@@ -0,0 +1,246 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.monitoring.metrics;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.config.StringListConfigValue;
+import org.transitime.utils.threading.NamedThreadFactory;
+
+/**
+ * Registry of the metrics for the application. Metrics are created or looked
+ * up by name once, typically when a class is loaded, and then updated
+ * directly so that there is no locking or map lookup when a value is
+ * recorded. The registered exporters make the metrics available to
+ * monitoring systems such as Prometheus, JMX, a CSV file or AWS CloudWatch.
+ * <p>
+ * The exporters are started when the first metric is created so that
+ * applications that don't use metrics don't start any threads.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class MetricsRegistry {
+
+	// Keyed on metric name
+	private final ConcurrentHashMap<String, Metric> metrics =
+			new ConcurrentHashMap<String, Metric>();
+
+	// Added to only when the exporters are started, before the export timer
+	// is started
+	private final List<MetricsExporter> exporters =
+			new CopyOnWriteArrayList<MetricsExporter>();
+
+	private final AtomicBoolean exportersStarted = new AtomicBoolean(false);
+
+	private static final MetricsRegistry singleton = new MetricsRegistry();
+
+	private static StringListConfigValue exporterNames =
+			new StringListConfigValue("transitime.metrics.exporters",
+					Arrays.asList("jmx", "cloudwatch"),
+					"Where to export metrics to. Can be \"prometheus\", "
+					+ "\"jmx\", \"csv\", \"cloudwatch\" or the full class "
+					+ "name of a MetricsExporter. Separate multiple "
+					+ "exporters with \";\".");
+
+	private static IntegerConfigValue exportIntervalSecs =
+			new IntegerConfigValue("transitime.metrics.exportIntervalSecs",
+					60,
+					"How frequently exporters that push metrics, such as "
+					+ "to CloudWatch or a CSV file, export them.");
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(MetricsRegistry.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor private since singleton class
+	 */
+	private MetricsRegistry() {
+	}
+
+	/**
+	 * @return the singleton MetricsRegistry
+	 */
+	public static MetricsRegistry getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * Returns the counter with the specified name, creating it if needed.
+	 *
+	 * @param name
+	 * @return the counter
+	 */
+	public Counter counter(String name) {
+		Metric metric = metrics.get(name);
+		if (metric == null)
+			metric = register(new Counter(name));
+		return (Counter) metric;
+	}
+
+	/**
+	 * Returns the gauge with the specified name, creating it if needed.
+	 *
+	 * @param name
+	 * @return the gauge
+	 */
+	public Gauge gauge(String name) {
+		return gauge(name, false);
+	}
+
+	/**
+	 * Returns the gauge with the specified name, creating it if needed.
+	 *
+	 * @param name
+	 * @param percent
+	 *            True if the values are fractions between 0.0 and 1.0 that
+	 *            should be reported as percentages
+	 * @return the gauge
+	 */
+	public Gauge gauge(String name, boolean percent) {
+		Metric metric = metrics.get(name);
+		if (metric == null)
+			metric = register(new Gauge(name, percent));
+		return (Gauge) metric;
+	}
+
+	/**
+	 * Returns the histogram with the specified name, creating it if needed.
+	 *
+	 * @param name
+	 * @return the histogram
+	 */
+	public Histogram histogram(String name) {
+		Metric metric = metrics.get(name);
+		if (metric == null)
+			metric = register(new Histogram(name));
+		return (Histogram) metric;
+	}
+
+	/**
+	 * Adds the new metric unless another thread already added one with the
+	 * same name.
+	 *
+	 * @param newMetric
+	 * @return the registered metric
+	 */
+	private Metric register(Metric newMetric) {
+		Metric existing = metrics.putIfAbsent(newMetric.getName(), newMetric);
+		if (exportersStarted.compareAndSet(false, true))
+			startExporters();
+		return existing != null ? existing : newMetric;
+	}
+
+	/**
+	 * @return all of the metrics, ordered by name
+	 */
+	public Collection<Metric> getMetrics() {
+		return new TreeMap<String, Metric>(metrics).values();
+	}
+
+	/**
+	 * Creates the configured exporters and starts the timer for the ones
+	 * that push metrics.
+	 */
+	private void startExporters() {
+		for (String name : exporterNames.getValue()) {
+			name = name.trim();
+			if (name.isEmpty())
+				continue;
+			try {
+				MetricsExporter exporter = createExporter(name);
+				exporter.start(this);
+				exporters.add(exporter);
+				logger.info("Started metrics exporter {}", name);
+			} catch (Exception e) {
+				logger.error("Could not start metrics exporter {}. {}", name,
+						e.getMessage(), e);
+			}
+		}
+
+		if (exporters.isEmpty())
+			return;
+
+		ScheduledExecutorService executor = Executors
+				.newSingleThreadScheduledExecutor(new NamedThreadFactory(
+						"metricsExporter", true));
+		executor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				exportNow();
+			}
+		}, exportIntervalSecs.getValue(), exportIntervalSecs.getValue(),
+				TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Has all the exporters export the metrics right away instead of waiting
+	 * for the next export interval. Useful for applications such as the GTFS
+	 * processor that might exit before the next export interval. The export
+	 * threads are daemon threads so they don't keep such applications from
+	 * exiting.
+	 */
+	public synchronized void exportNow() {
+		for (MetricsExporter exporter : exporters) {
+			try {
+				exporter.export(this);
+			} catch (Exception e) {
+				logger.error("Exception exporting metrics with {}. {}",
+						exporter.getClass().getSimpleName(), e.getMessage(), e);
+			}
+		}
+	}
+
+	/**
+	 * @param name
+	 *            Short name of a standard exporter or class name of a custom
+	 *            one
+	 * @return the new exporter
+	 * @throws Exception
+	 */
+	private static MetricsExporter createExporter(String name)
+			throws Exception {
+		switch (name.toLowerCase()) {
+		case "prometheus":
+			return new PrometheusExporter();
+		case "jmx":
+			return new JmxExporter();
+		case "csv":
+			return new CsvExporter();
+		case "cloudwatch":
+			return new CloudwatchExporter();
+		default:
+			return (MetricsExporter) Class.forName(name)
+					.getDeclaredConstructor().newInstance();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.monitoring.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.utils.threading.NamedThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the metrics at http://host:port/metrics in the Prometheus text
+ * format so that Prometheus can scrape them. Counters and gauges are output
+ * as is. Histograms are output as summaries with the 50th, 95th and 99th
+ * percentiles plus the sum and count.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class PrometheusExporter implements MetricsExporter {
+
+	private static IntegerConfigValue port = new IntegerConfigValue(
+			"transitime.metrics.prometheusPort", 9464,
+			"Port that the Prometheus metrics exporter serves /metrics on.");
+
+	private static final double[] QUANTILES = { 0.5, 0.95, 0.99 };
+
+	/********************** Member Functions **************************/
+
+	@Override
+	public void start(final MetricsRegistry registry) throws IOException {
+		HttpServer server =
+				HttpServer.create(new InetSocketAddress(port.getValue()), 0);
+		server.createContext("/metrics", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] body = format(registry).getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type",
+						"text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				try {
+					out.write(body);
+				} finally {
+					out.close();
+				}
+			}
+		});
+		server.setExecutor(Executors.newSingleThreadExecutor(
+				new NamedThreadFactory("prometheusExporter", true)));
+		server.start();
+	}
+
+	/**
+	 * Metrics are pulled by Prometheus so nothing to do here
+	 */
+	@Override
+	public void export(MetricsRegistry registry) {
+	}
+
+	/**
+	 * @param registry
+	 * @return all the metrics in the Prometheus text format
+	 */
+	static String format(MetricsRegistry registry) {
+		StringBuilder sb = new StringBuilder();
+		for (Metric metric : registry.getMetrics()) {
+			String name = sanitize(metric.getName());
+			switch (metric.getType()) {
+			case COUNTER:
+				sb.append("# TYPE ").append(name).append(" counter\n");
+				sb.append(name).append(' ')
+						.append(((Counter) metric).getCount()).append('\n');
+				break;
+			case GAUGE:
+				sb.append("# TYPE ").append(name).append(" gauge\n");
+				sb.append(name).append(' ')
+						.append(formatValue(((Gauge) metric).getValue()))
+						.append('\n');
+				break;
+			case HISTOGRAM:
+				Histogram histogram = (Histogram) metric;
+				sb.append("# TYPE ").append(name).append(" summary\n");
+				for (double quantile : QUANTILES) {
+					sb.append(name).append("{quantile=\"").append(quantile)
+							.append("\"} ")
+							.append(formatValue(histogram
+									.getPercentile(quantile * 100.0)))
+							.append('\n');
+				}
+				sb.append(name).append("_sum ")
+						.append(formatValue(histogram.getSum())).append('\n');
+				sb.append(name).append("_count ")
+						.append(histogram.getCount()).append('\n');
+				break;
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Prometheus metric names can only contain letters, digits, underscores
+	 * and colons.
+	 */
+	private static String sanitize(String name) {
+		return name.replaceAll("[^a-zA-Z0-9_:]", "_");
+	}
+
+	private static String formatValue(double value) {
+		if (Double.isNaN(value))
+			return "NaN";
+		if (Double.isInfinite(value))
+			return value > 0 ? "+Inf" : "-Inf";
+		return Double.toString(value);
+	}
+}
@@ -0,0 +1,475 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.statistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.transitime.applications.Core;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.db.hibernate.HibernateUtils;
+import org.transitime.db.structs.Agency;
+import org.transitime.db.structs.ArrivalDeparture;
+import org.transitime.db.structs.PredictionAccuracyAggregate;
+import org.transitime.db.structs.ScheduleAdherenceRollup;
+import org.transitime.modules.Module;
+import org.transitime.utils.BucketedHistogram;
+import org.transitime.utils.IntervalTimer;
+import org.transitime.utils.Time;
+
+/**
+ * Incrementally materializes the hourly and daily rollups that the webapp
+ * reports read instead of the raw tables. For each hour that has completed
+ * (plus a configurable lag so that late data has been written):
+ * <ul>
+ * <li>the arrivals/departures for the hour are rolled up into
+ * ScheduleAdherenceRollup rows per route, direction and arrival/departure</li>
+ * <li>the stop level PredictionAccuracyAggregate rows written by the
+ * prediction accuracy module are merged into route level rows, which have a
+ * null stopId and directionId. These also provide the route performance
+ * report data.</li>
+ * </ul>
+ * When the last hour of a day has been rolled up the hourly rows for the day
+ * are merged into daily rows.
+ * <p>
+ * Rolling up an hour first deletes any existing rollup rows for it so that a
+ * period can safely be redone, such as after a restart.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class RollupModule extends Module {
+
+	private static final int HOURLY = 60;
+	private static final int DAILY = 24 * 60;
+
+	// For reading arrivals/departures a batch at a time so that don't use
+	// too much memory for large agencies
+	private static final int BATCH_SIZE = 50000;
+
+	/********************** Config Params **************************/
+
+	private static final IntegerConfigValue pollingRateMsec =
+			new IntegerConfigValue("transitime.rollup.pollingRateMsec",
+					5 * Time.MS_PER_MIN,
+					"How frequently to check whether there are completed "
+					+ "hours that need to be rolled up.");
+
+	private static final IntegerConfigValue lagMinutes =
+			new IntegerConfigValue("transitime.rollup.lagMinutes",
+					45,
+					"How many minutes after an hour has ended before it is "
+					+ "rolled up. Needs to be long enough so that the "
+					+ "prediction accuracy module has written its aggregates "
+					+ "for the hour and late arrivals/departures are in the "
+					+ "db.");
+
+	private static final IntegerConfigValue backfillDays =
+			new IntegerConfigValue("transitime.rollup.backfillDays",
+					2,
+					"When no rollups exist yet how many days into the past "
+					+ "to start rolling up data.");
+
+	private static final IntegerConfigValue allowableEarlySecs =
+			new IntegerConfigValue("transitime.rollup.allowableEarlySecs",
+					1 * Time.SEC_PER_MIN,
+					"How early a vehicle can be compared to the schedule and "
+					+ "still be counted as on time in the schedule adherence "
+					+ "rollups.");
+
+	private static final IntegerConfigValue allowableLateSecs =
+			new IntegerConfigValue("transitime.rollup.allowableLateSecs",
+					5 * Time.SEC_PER_MIN,
+					"How late a vehicle can be compared to the schedule and "
+					+ "still be counted as on time in the schedule adherence "
+					+ "rollups.");
+
+	/********************** Internal Classes **************************/
+
+	/**
+	 * The schedule adherence data accumulated for a route/direction/
+	 * arrival-or-departure
+	 */
+	private static class SchedAdhAccumulator {
+		private final BucketedHistogram histogram = new BucketedHistogram(
+				ScheduleAdherenceRollup.DEVIATION_BOUNDARIES_SECS);
+		private int numEarly;
+		private int numLate;
+	}
+
+	/**
+	 * The prediction accuracy data accumulated for a route level key
+	 */
+	private static class PredAccuracyAccumulator {
+		private final BucketedHistogram histogram = new BucketedHistogram(
+				PredictionAccuracyAggregate.ERROR_BOUNDARIES_SECS);
+		private int numMissed;
+	}
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param agencyId
+	 */
+	public RollupModule(String agencyId) {
+		super(agencyId);
+	}
+
+	/**
+	 * @param time
+	 * @return start of the hour that the time is in, for the agency time
+	 *         zone. Not simply a multiple of an hour since the epoch since
+	 *         some time zones are offset from UTC by a fraction of an hour.
+	 */
+	private static long getStartOfHour(long time) {
+		int msecsIntoDay =
+				Core.getInstance().getTime().getMsecsIntoDay(new Date(time));
+		return time - msecsIntoDay % Time.MS_PER_HOUR;
+	}
+
+	/**
+	 * @param time
+	 * @return start of the day that the time is in, for the agency time zone
+	 */
+	private static long getStartOfDay(long time) {
+		Agency agency = Core.getInstance().getDbConfig().getFirstAgency();
+		return agency != null ?
+				Time.getStartOfDay(new Date(time), agency.getTimeZone())
+				: Time.getStartOfDay(new Date(time));
+	}
+
+	/**
+	 * Determines the beginning of the first hour that still needs to be
+	 * rolled up. That is the hour after the last hourly schedule adherence
+	 * rollup in the db, or if there are none then the configured number of
+	 * days into the past.
+	 *
+	 * @return epoch time of the first hour to roll up
+	 */
+	private long getFirstHourToRollup() {
+		Date lastPeriodStart = ScheduleAdherenceRollup.getLastPeriodStart(
+				getAgencyId(), HOURLY);
+		if (lastPeriodStart != null)
+			return getStartOfHour(lastPeriodStart.getTime()
+					+ Time.MS_PER_HOUR);
+
+		long start = System.currentTimeMillis()
+				- backfillDays.getValue() * Time.MS_PER_DAY;
+		return getStartOfHour(start);
+	}
+
+	/**
+	 * Rolls up the arrivals/departures for the period into schedule adherence
+	 * rollups per route, direction, and arrival-or-departure.
+	 *
+	 * @param periodStart
+	 * @return the rollups for the hour
+	 */
+	private List<ScheduleAdherenceRollup> rollupSchedAdhForHour(
+			long periodStart) {
+		Map<List<Object>, SchedAdhAccumulator> accumulators =
+				new HashMap<List<Object>, SchedAdhAccumulator>();
+
+		// Time range is inclusive on both ends so end just before next hour
+		Date beginTime = new Date(periodStart);
+		Date endTime = new Date(periodStart + Time.MS_PER_HOUR - 1);
+		int firstResult = 0;
+		while (true) {
+			// Order by all the columns of the primary key since time alone
+			// is not unique. Otherwise the db could return the rows with
+			// the same time in a different order for each batch, so some
+			// would be read twice and others not at all.
+			List<ArrivalDeparture> arrDeps =
+					ArrivalDeparture.getArrivalsDeparturesFromDb(getAgencyId(),
+							beginTime, endTime,
+							"AND scheduledTime IS NOT NULL ORDER BY time, "
+							+ "vehicleId, tripId, stopId, gtfsStopSeq, "
+							+ "isArrival",
+							firstResult, BATCH_SIZE, null);
+			if (arrDeps == null)
+				throw new HibernateException("Could not read "
+						+ "arrivals/departures for " + beginTime);
+
+			for (ArrivalDeparture arrDep : arrDeps) {
+				List<Object> key = Arrays.<Object> asList(arrDep.getRouteId(),
+						arrDep.getDirectionId(), arrDep.isArrival());
+				SchedAdhAccumulator accumulator = accumulators.get(key);
+				if (accumulator == null) {
+					accumulator = new SchedAdhAccumulator();
+					accumulators.put(key, accumulator);
+				}
+				long deviationSecs = (arrDep.getTime()
+						- arrDep.getScheduledTime()) / Time.MS_PER_SEC;
+				accumulator.histogram.add(deviationSecs);
+				if (deviationSecs < -allowableEarlySecs.getValue())
+					++accumulator.numEarly;
+				else if (deviationSecs > allowableLateSecs.getValue())
+					++accumulator.numLate;
+			}
+
+			if (arrDeps.size() < BATCH_SIZE)
+				break;
+			firstResult += BATCH_SIZE;
+		}
+
+		List<ScheduleAdherenceRollup> rollups =
+				new ArrayList<ScheduleAdherenceRollup>(accumulators.size());
+		for (Map.Entry<List<Object>, SchedAdhAccumulator> entry :
+				accumulators.entrySet()) {
+			List<Object> key = entry.getKey();
+			SchedAdhAccumulator accumulator = entry.getValue();
+			rollups.add(new ScheduleAdherenceRollup(beginTime, HOURLY,
+					(String) key.get(0), (String) key.get(1),
+					(Boolean) key.get(2), accumulator.histogram,
+					accumulator.numEarly, accumulator.numLate));
+		}
+		return rollups;
+	}
+
+	/**
+	 * Merges the hourly schedule adherence rollups for a day into daily
+	 * rollups.
+	 *
+	 * @param dayStart
+	 * @param dayEnd
+	 * @return the daily rollups
+	 */
+	private List<ScheduleAdherenceRollup> rollupSchedAdhForDay(long dayStart,
+			long dayEnd) {
+		List<ScheduleAdherenceRollup> hourlyRollups =
+				ScheduleAdherenceRollup.getRollups(getAgencyId(),
+						new Date(dayStart), new Date(dayEnd), HOURLY, null);
+		if (hourlyRollups == null)
+			throw new HibernateException("Could not read hourly schedule "
+					+ "adherence rollups for " + new Date(dayStart));
+
+		Map<List<Object>, SchedAdhAccumulator> accumulators =
+				new HashMap<List<Object>, SchedAdhAccumulator>();
+		for (ScheduleAdherenceRollup hourly : hourlyRollups) {
+			List<Object> key = Arrays.<Object> asList(hourly.getRouteId(),
+					hourly.getDirectionId(), hourly.isArrival());
+			SchedAdhAccumulator accumulator = accumulators.get(key);
+			if (accumulator == null) {
+				accumulator = new SchedAdhAccumulator();
+				accumulators.put(key, accumulator);
+			}
+			hourly.addTo(accumulator.histogram);
+			accumulator.numEarly += hourly.getNumEarly();
+			accumulator.numLate += hourly.getNumLate();
+		}
+
+		List<ScheduleAdherenceRollup> rollups =
+				new ArrayList<ScheduleAdherenceRollup>(accumulators.size());
+		for (Map.Entry<List<Object>, SchedAdhAccumulator> entry :
+				accumulators.entrySet()) {
+			List<Object> key = entry.getKey();
+			SchedAdhAccumulator accumulator = entry.getValue();
+			rollups.add(new ScheduleAdherenceRollup(new Date(dayStart), DAILY,
+					(String) key.get(0), (String) key.get(1),
+					(Boolean) key.get(2), accumulator.histogram,
+					accumulator.numEarly, accumulator.numLate));
+		}
+		return rollups;
+	}
+
+	/**
+	 * Merges prediction accuracy aggregates into route level aggregates for
+	 * the specified period. The direction and stop are dropped from the key
+	 * while the prediction length bucket, source, algorithm and whether
+	 * affected by wait stop are kept since the reports filter on them.
+	 *
+	 * @param aggregates
+	 *            The finer grained aggregates to merge
+	 * @param periodStart
+	 * @param periodMinutes
+	 * @return the route level aggregates
+	 */
+	private static List<PredictionAccuracyAggregate> mergeToRouteLevel(
+			List<PredictionAccuracyAggregate> aggregates, long periodStart,
+			int periodMinutes) {
+		Map<List<Object>, PredAccuracyAccumulator> accumulators =
+				new HashMap<List<Object>, PredAccuracyAccumulator>();
+		for (PredictionAccuracyAggregate aggregate : aggregates) {
+			List<Object> key = Arrays.<Object> asList(aggregate.getRouteId(),
+					aggregate.getPredLengthBucketSecs(),
+					aggregate.getPredictionSource(),
+					aggregate.getPredictionAlgorithm(),
+					aggregate.isAffectedByWaitStop());
+			PredAccuracyAccumulator accumulator = accumulators.get(key);
+			if (accumulator == null) {
+				accumulator = new PredAccuracyAccumulator();
+				accumulators.put(key, accumulator);
+			}
+			aggregate.addTo(accumulator.histogram);
+			accumulator.numMissed += aggregate.getNumMissed();
+		}
+
+		List<PredictionAccuracyAggregate> routeAggregates =
+				new ArrayList<PredictionAccuracyAggregate>(accumulators.size());
+		for (Map.Entry<List<Object>, PredAccuracyAccumulator> entry :
+				accumulators.entrySet()) {
+			List<Object> key = entry.getKey();
+			PredAccuracyAccumulator accumulator = entry.getValue();
+			routeAggregates.add(new PredictionAccuracyAggregate(
+					new Date(periodStart), periodMinutes, (String) key.get(0),
+					null, // directionId
+					null, // stopId
+					(Integer) key.get(1), (String) key.get(2),
+					(String) key.get(3), (Boolean) key.get(4),
+					accumulator.histogram, accumulator.numMissed));
+		}
+		return routeAggregates;
+	}
+
+	/**
+	 * Reads in the aggregates for the time range and merges them into route
+	 * level aggregates for the specified period.
+	 *
+	 * @param beginTime
+	 * @param endTime
+	 * @param sqlClause
+	 *            For selecting which aggregates to merge
+	 * @param periodMinutes
+	 * @return the route level aggregates
+	 */
+	private List<PredictionAccuracyAggregate> rollupPredAccuracy(
+			long beginTime, long endTime, String sqlClause, int periodMinutes) {
+		List<PredictionAccuracyAggregate> aggregates =
+				PredictionAccuracyAggregate.getAggregates(getAgencyId(),
+						new Date(beginTime), new Date(endTime), sqlClause);
+		if (aggregates == null)
+			throw new HibernateException("Could not read prediction accuracy "
+					+ "aggregates for " + new Date(beginTime));
+		return mergeToRouteLevel(aggregates, beginTime, periodMinutes);
+	}
+
+	/**
+	 * Replaces the rollups for the period with the new ones in a single
+	 * transaction so that a report never sees a partial period.
+	 *
+	 * @param periodStart
+	 * @param periodMinutes
+	 * @param rollups
+	 */
+	private void storeRollups(long periodStart, int periodMinutes,
+			List<?> rollups) {
+		Session session = HibernateUtils.getSession(getAgencyId());
+		Transaction tx = session.beginTransaction();
+		try {
+			session.createQuery("DELETE FROM ScheduleAdherenceRollup "
+					+ "WHERE periodStart = :periodStart "
+					+ "AND periodMinutes = :periodMinutes")
+					.setTimestamp("periodStart", new Date(periodStart))
+					.setInteger("periodMinutes", periodMinutes)
+					.executeUpdate();
+			session.createQuery("DELETE FROM PredictionAccuracyAggregate "
+					+ "WHERE periodStart = :periodStart "
+					+ "AND periodMinutes = :periodMinutes "
+					+ "AND stopId IS NULL")
+					.setTimestamp("periodStart", new Date(periodStart))
+					.setInteger("periodMinutes", periodMinutes)
+					.executeUpdate();
+			for (Object rollup : rollups)
+				session.save(rollup);
+			tx.commit();
+		} catch (HibernateException e) {
+			tx.rollback();
+			throw e;
+		} finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Creates and stores the rollups for the hour, and if the hour is the
+	 * last one of the day the daily rollups as well.
+	 *
+	 * @param hourStart
+	 */
+	private void rollupHour(long hourStart) {
+		IntervalTimer timer = new IntervalTimer();
+		long hourEnd = hourStart + Time.MS_PER_HOUR;
+
+		List<Object> rollups = new ArrayList<Object>();
+		rollups.addAll(rollupSchedAdhForHour(hourStart));
+		// Use the stop level aggregates, which can have a period shorter
+		// than an hour
+		rollups.addAll(rollupPredAccuracy(hourStart, hourEnd,
+				"AND stopId IS NOT NULL AND periodMinutes <= " + HOURLY,
+				HOURLY));
+		storeRollups(hourStart, HOURLY, rollups);
+		logger.info("Stored {} hourly rollups for {}. Took {} msec.",
+				rollups.size(), new Date(hourStart), timer.elapsedMsec());
+
+		// If this hour completes a day then create the daily rollups
+		long dayStart = getStartOfDay(hourStart);
+		long nextDayStart = getStartOfDay(hourEnd);
+		if (nextDayStart == hourEnd) {
+			timer.resetTimer();
+			List<Object> dailyRollups = new ArrayList<Object>();
+			dailyRollups.addAll(rollupSchedAdhForDay(dayStart, hourEnd));
+			dailyRollups.addAll(rollupPredAccuracy(dayStart, hourEnd,
+					"AND stopId IS NULL AND periodMinutes = " + HOURLY,
+					DAILY));
+			storeRollups(dayStart, DAILY, dailyRollups);
+			logger.info("Stored {} daily rollups for {}. Took {} msec.",
+					dailyRollups.size(), new Date(dayStart),
+					timer.elapsedMsec());
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		logger.info("Started module {} for agencyId={}",
+				getClass().getName(), getAgencyId());
+
+		Long nextHour = null;
+		while (true) {
+			IntervalTimer timer = new IntervalTimer();
+			try {
+				if (nextHour == null)
+					nextHour = getFirstHourToRollup();
+
+				// Roll up all the hours that have completed, including the lag
+				long cutoff = System.currentTimeMillis()
+						- lagMinutes.getValue() * Time.MS_PER_MIN;
+				while (nextHour + Time.MS_PER_HOUR <= cutoff) {
+					rollupHour(nextHour);
+					nextHour += Time.MS_PER_HOUR;
+				}
+			} catch (Exception e) {
+				logger.error("Exception in RollupModule for agencyId={}. {}",
+						getAgencyId(), e.getMessage(), e);
+			}
+
+			long sleepTime = pollingRateMsec.getValue() - timer.elapsedMsec();
+			if (sleepTime > 0)
+				Time.sleep(sleepTime);
+		}
+	}
+}
@@ -0,0 +1,465 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A streaming histogram that uses a fixed amount of memory no matter how many
+ * values are added. Values are counted into buckets defined by an ascending
+ * array of bucket boundaries. Besides the bucket counts the count, sum, sum of
+ * squares, min and max are tracked so that mean and standard deviation are
+ * exact while quantiles are interpolated within a bucket.
+ * <p>
+ * Adding a value does not allocate and does not lock. All counters are atomic
+ * so that multiple threads can add values concurrently. Reading while values
+ * are being added gives a result that is consistent enough for statistics but
+ * is not an atomic snapshot.
+ * <p>
+ * Histograms with the same boundaries can be merged, which is what allows
+ * hourly aggregates to be rolled up into daily ones. The bucket counts can be
+ * converted to a compact sparse string so that they can be stored in a db
+ * column.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class BucketedHistogram {
+
+	// Upper (exclusive) bounds of the buckets. A value v goes into the first
+	// bucket i where v < boundaries[i]. Values >= the last boundary go into
+	// an extra overflow bucket, so there are boundaries.length+1 buckets.
+	private final long[] boundaries;
+
+	private final AtomicLongArray bucketCounts;
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong sumOfSquares = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Creates an empty histogram.
+	 *
+	 * @param boundaries
+	 *            Ascending upper bounds of the buckets. The array is not copied
+	 *            so it should not be modified after being passed in. Sharing
+	 *            the same array between histograms is encouraged since that
+	 *            way the histograms can be merged.
+	 */
+	public BucketedHistogram(long[] boundaries) {
+		this.boundaries = boundaries;
+		this.bucketCounts = new AtomicLongArray(boundaries.length + 1);
+	}
+
+	/**
+	 * Creates boundaries that are symmetric around 0 where the bucket width
+	 * grows with the distance from 0. Useful for errors where small values
+	 * need fine resolution but large values don't. For example widths {5, 15,
+	 * 60} with limits {60, 300, 1800} gives 5 unit buckets up to 60, then 15
+	 * unit buckets up to 300, then 60 unit buckets up to 1800, and the same
+	 * for negative values.
+	 *
+	 * @param widths
+	 *            Bucket width for each range
+	 * @param limits
+	 *            Ascending upper limit of each range. Should be multiples of
+	 *            the widths.
+	 * @return the boundaries array
+	 */
+	public static long[] createSymmetricBoundaries(int[] widths, int[] limits) {
+		long[] positive = createBoundaries(widths, limits);
+
+		// Negative boundaries are the mirror of the positive ones, with a
+		// single 0 boundary in between so that get buckets such as [-5, 0)
+		// and [0, 5).
+		long[] result = new long[2 * positive.length + 1];
+		for (int i = 0; i < positive.length; ++i)
+			result[positive.length - 1 - i] = -positive[i];
+		result[positive.length] = 0;
+		System.arraycopy(positive, 0, result, positive.length + 1,
+				positive.length);
+
+		return result;
+	}
+
+	/**
+	 * Creates ascending boundaries starting at 0 where the bucket width grows
+	 * with the value. See createSymmetricBoundaries().
+	 *
+	 * @param widths
+	 *            Bucket width for each range
+	 * @param limits
+	 *            Ascending upper limit of each range
+	 * @return the boundaries array, starting with the first bucket width
+	 */
+	public static long[] createBoundaries(int[] widths, int[] limits) {
+		int numBoundaries = 0;
+		long previousLimit = 0;
+		for (int i = 0; i < widths.length; ++i) {
+			numBoundaries += (limits[i] - previousLimit) / widths[i];
+			previousLimit = limits[i];
+		}
+
+		long[] result = new long[numBoundaries];
+		int index = 0;
+		long value = 0;
+		for (int i = 0; i < widths.length; ++i) {
+			while (value + widths[i] <= limits[i] && index < numBoundaries) {
+				value += widths[i];
+				result[index++] = value;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the index of the bucket that the value belongs in. Uses a
+	 * binary search so is O(log(buckets)).
+	 *
+	 * @param value
+	 * @return the bucket index
+	 */
+	private int bucketIndex(long value) {
+		int low = 0;
+		int high = boundaries.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (value < boundaries[mid])
+				high = mid;
+			else
+				low = mid + 1;
+		}
+		return low;
+	}
+
+	/**
+	 * Adds a value to the histogram. Lock free and does not allocate.
+	 *
+	 * @param value
+	 */
+	public void add(long value) {
+		bucketCounts.incrementAndGet(bucketIndex(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		sumOfSquares.addAndGet(value * value);
+
+		long currentMin;
+		while (value < (currentMin = min.get())) {
+			if (min.compareAndSet(currentMin, value))
+				break;
+		}
+		long currentMax;
+		while (value > (currentMax = max.get())) {
+			if (max.compareAndSet(currentMax, value))
+				break;
+		}
+	}
+
+	/**
+	 * Adds all the values of the other histogram into this one. The other
+	 * histogram must have been created with the same boundaries.
+	 *
+	 * @param other
+	 * @throws IllegalArgumentException
+	 *             if the boundaries don't match
+	 */
+	public void merge(BucketedHistogram other) {
+		if (other.boundaries != boundaries
+				&& !Arrays.equals(other.boundaries, boundaries))
+			throw new IllegalArgumentException("Cannot merge histograms "
+					+ "that have different boundaries");
+
+		for (int i = 0; i < bucketCounts.length(); ++i) {
+			long c = other.bucketCounts.get(i);
+			if (c != 0)
+				bucketCounts.addAndGet(i, c);
+		}
+		count.addAndGet(other.count.get());
+		sum.addAndGet(other.sum.get());
+		sumOfSquares.addAndGet(other.sumOfSquares.get());
+
+		long otherMin = other.min.get();
+		long currentMin;
+		while (otherMin < (currentMin = min.get())) {
+			if (min.compareAndSet(currentMin, otherMin))
+				break;
+		}
+		long otherMax = other.max.get();
+		long currentMax;
+		while (otherMax > (currentMax = max.get())) {
+			if (max.compareAndSet(currentMax, otherMax))
+				break;
+		}
+	}
+
+	/**
+	 * Adds counts that were previously stored via toSparseString(). Since the
+	 * sparse string only contains the bucket counts the sum, sum of squares,
+	 * min and max also need to be passed in. The min and max are ignored if
+	 * the sparse string has no counts since then they are just the 0 that
+	 * getMin() and getMax() return for an empty histogram.
+	 *
+	 * @param sparse
+	 *            String of the form "bucketIdx:count,bucketIdx:count"
+	 * @param sumValue
+	 * @param sumOfSquaresValue
+	 * @param minValue
+	 * @param maxValue
+	 */
+	public void addSparse(String sparse, long sumValue,
+			long sumOfSquaresValue, long minValue, long maxValue) {
+		long total = 0;
+		if (sparse != null && !sparse.isEmpty()) {
+			for (String element : sparse.split(",")) {
+				int colon = element.indexOf(':');
+				if (colon <= 0)
+					continue;
+				int idx = Integer.parseInt(element.substring(0, colon));
+				long c = Long.parseLong(element.substring(colon + 1));
+				if (idx >= 0 && idx < bucketCounts.length()) {
+					bucketCounts.addAndGet(idx, c);
+					total += c;
+				}
+			}
+			count.addAndGet(total);
+		}
+		sum.addAndGet(sumValue);
+		sumOfSquares.addAndGet(sumOfSquaresValue);
+		if (total == 0)
+			return;
+
+		long currentMin;
+		while (minValue < (currentMin = min.get())) {
+			if (min.compareAndSet(currentMin, minValue))
+				break;
+		}
+		long currentMax;
+		while (maxValue > (currentMax = max.get())) {
+			if (max.compareAndSet(currentMax, maxValue))
+				break;
+		}
+	}
+
+	/**
+	 * Returns the non-zero bucket counts as a compact string of the form
+	 * "bucketIdx:count,bucketIdx:count". Intended for storing the histogram
+	 * in a db column so that it can later be merged with others.
+	 *
+	 * @return the sparse string. Empty string if no values.
+	 */
+	public String toSparseString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < bucketCounts.length(); ++i) {
+			long c = bucketCounts.get(i);
+			if (c == 0)
+				continue;
+			if (sb.length() > 0)
+				sb.append(',');
+			sb.append(i).append(':').append(c);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns an upper bound on the length of toSparseString() when the total
+	 * count is at most maxCount, for sizing the db column that it is stored
+	 * in. The counts take the most digits when the total is spread evenly
+	 * across all of the buckets, so that is what the bound is based on.
+	 *
+	 * @param maxCount
+	 *            The largest total count that needs to fit
+	 * @return the maximum length of the sparse string
+	 */
+	public int getMaxSparseStringLength(long maxCount) {
+		int numBuckets = bucketCounts.length();
+		// Bucket indices plus the ':' and ',' separators
+		int length = -1;
+		for (int i = 0; i < numBuckets; ++i)
+			length += Integer.toString(i).length() + 2;
+		double digitsPerCount =
+				Math.log10(Math.max(1.0, (double) maxCount / numBuckets)) + 1;
+		return length + (int) Math.ceil(numBuckets * digitsPerCount);
+	}
+
+	/**
+	 * Returns the approximate value for the specified quantile. Linearly
+	 * interpolates within the bucket that contains the quantile. The result
+	 * is clamped to the actual min and max.
+	 *
+	 * @param q
+	 *            The quantile, between 0.0 and 1.0. 0.5 is the median.
+	 * @return the approximate value, or Double.NaN if no values
+	 */
+	public double getQuantile(double q) {
+		long total = count.get();
+		if (total == 0)
+			return Double.NaN;
+
+		double target = q * total;
+		long cumulative = 0;
+		for (int i = 0; i < bucketCounts.length(); ++i) {
+			long c = bucketCounts.get(i);
+			if (c == 0)
+				continue;
+			if (cumulative + c >= target) {
+				double lower = i == 0 ? min.get() : boundaries[i - 1];
+				double upper = i == boundaries.length ?
+						max.get() : boundaries[i];
+				double fraction = (target - cumulative) / c;
+				double value = lower + fraction * (upper - lower);
+				return Math.max(min.get(), Math.min(max.get(), value));
+			}
+			cumulative += c;
+		}
+		return max.get();
+	}
+
+	/**
+	 * Returns how many values are less than the specified limit. Exact if the
+	 * limit is a bucket boundary, otherwise interpolated within the bucket.
+	 *
+	 * @param limit
+	 * @return approximate number of values below the limit
+	 */
+	public double getCountBelow(long limit) {
+		double result = 0;
+		for (int i = 0; i < bucketCounts.length(); ++i) {
+			long c = bucketCounts.get(i);
+			double lower = i == 0 ? min.get() : boundaries[i - 1];
+			double upper = i == boundaries.length ? max.get() + 1 : boundaries[i];
+			if (upper <= limit) {
+				result += c;
+			} else {
+				if (c != 0 && limit > lower)
+					result += c * (limit - lower) / (upper - lower);
+				break;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Resets all counts so that the histogram can be reused.
+	 */
+	public void reset() {
+		for (int i = 0; i < bucketCounts.length(); ++i)
+			bucketCounts.set(i, 0);
+		count.set(0);
+		sum.set(0);
+		sumOfSquares.set(0);
+		min.set(Long.MAX_VALUE);
+		max.set(Long.MIN_VALUE);
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getSum() {
+		return sum.get();
+	}
+
+	public long getSumOfSquares() {
+		return sumOfSquares.get();
+	}
+
+	/**
+	 * @return the minimum value added, or 0 if no values
+	 */
+	public long getMin() {
+		return count.get() == 0 ? 0 : min.get();
+	}
+
+	/**
+	 * @return the maximum value added, or 0 if no values
+	 */
+	public long getMax() {
+		return count.get() == 0 ? 0 : max.get();
+	}
+
+	/**
+	 * @return the mean, or Double.NaN if no values
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? Double.NaN : (double) sum.get() / n;
+	}
+
+	/**
+	 * @return the population standard deviation, or Double.NaN if no values
+	 */
+	public double getStandardDeviation() {
+		long n = count.get();
+		if (n == 0)
+			return Double.NaN;
+		double mean = (double) sum.get() / n;
+		double variance = (double) sumOfSquares.get() / n - mean * mean;
+		return variance > 0.0 ? Math.sqrt(variance) : 0.0;
+	}
+
+	/**
+	 * @return the sample standard deviation, using n-1 as the divisor, or
+	 *         Double.NaN if fewer than two values
+	 */
+	public double getSampleStandardDeviation() {
+		long n = count.get();
+		if (n < 2)
+			return Double.NaN;
+		double populationStdDev = getStandardDeviation();
+		return populationStdDev * Math.sqrt((double) n / (n - 1));
+	}
+
+	public long[] getBoundaries() {
+		return boundaries;
+	}
+
+	/**
+	 * @return number of buckets, which is one more than the number of
+	 *         boundaries because of the overflow bucket
+	 */
+	public int getNumBuckets() {
+		return bucketCounts.length();
+	}
+
+	/**
+	 * Returns the count for a bucket. Bucket i holds the values v where
+	 * boundaries[i-1] <= v < boundaries[i].
+	 *
+	 * @param bucketIndex
+	 * @return the count for the bucket
+	 */
+	public long getBucketCount(int bucketIndex) {
+		return bucketCounts.get(bucketIndex);
+	}
+
+	@Override
+	public String toString() {
+		return "BucketedHistogram ["
+				+ "count=" + getCount()
+				+ ", mean=" + StringUtils.twoDigitFormat(getMean())
+				+ ", min=" + getMin()
+				+ ", max=" + getMax()
+				+ ", p50=" + StringUtils.twoDigitFormat(getQuantile(0.5))
+				+ ", p90=" + StringUtils.twoDigitFormat(getQuantile(0.9))
+				+ "]";
+	}
+}
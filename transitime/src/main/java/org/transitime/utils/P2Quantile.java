@@ -0,0 +1,182 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.utils;
+
+import java.util.Arrays;
+
+/**
+ * Streaming estimate of a single quantile using the P-square algorithm of
+ * Jain and Chlamtac. Only five markers are kept no matter how many values are
+ * added, and adding a value takes constant time.
+ * <p>
+ * So that many estimators can be kept in a compact way, without an object
+ * for each one, the state is held in a slice of STATE_SIZE doubles of an
+ * array supplied by the caller. The methods are static and take the array
+ * and the offset of the slice. The slice must initially be all zeros. Not
+ * threadsafe, so the caller needs to synchronize.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class P2Quantile {
+
+	// Layout of the state: the count, the 5 marker heights, and then the
+	// 5 marker positions (1-based)
+	private static final int COUNT = 0;
+	private static final int HEIGHTS = 1;
+	private static final int POSITIONS = 6;
+
+	public static final int STATE_SIZE = 11;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor private since only static methods
+	 */
+	private P2Quantile() {
+	}
+
+	/**
+	 * Adds a value to the estimator.
+	 *
+	 * @param state
+	 *            Array holding the state of the estimator
+	 * @param offset
+	 *            Where in the array the state starts
+	 * @param quantile
+	 *            The quantile being estimated, between 0.0 and 1.0. Must be the
+	 *            same for every call for the estimator.
+	 * @param value
+	 */
+	public static void add(double[] state, int offset, double quantile,
+			double value) {
+		int count = (int) state[offset + COUNT];
+		int h = offset + HEIGHTS;
+		int n = offset + POSITIONS;
+
+		// Until there are 5 values just keep them, sorted
+		if (count < 5) {
+			state[h + count] = value;
+			state[offset + COUNT] = ++count;
+			Arrays.sort(state, h, h + count);
+			if (count == 5) {
+				for (int i = 0; i < 5; ++i)
+					state[n + i] = i + 1;
+			}
+			return;
+		}
+
+		// Determine which cell the value falls in, adjusting the extreme
+		// markers if it is a new min or max
+		int k;
+		if (value < state[h]) {
+			state[h] = value;
+			k = 0;
+		} else if (value >= state[h + 4]) {
+			state[h + 4] = value;
+			k = 3;
+		} else {
+			k = 0;
+			while (k < 3 && value >= state[h + k + 1])
+				++k;
+		}
+
+		// Markers above the cell move up one position
+		for (int i = k + 1; i < 5; ++i)
+			++state[n + i];
+		state[offset + COUNT] = ++count;
+
+		// Adjust the middle markers if they are off from their desired
+		// positions by more than one
+		for (int i = 1; i <= 3; ++i) {
+			double desired = 1 + (count - 1) * markerFraction(i, quantile);
+			double d = desired - state[n + i];
+			if ((d >= 1 && state[n + i + 1] - state[n + i] > 1)
+					|| (d <= -1 && state[n + i - 1] - state[n + i] < -1)) {
+				int s = d > 0 ? 1 : -1;
+				double parabolic = parabolic(state, h, n, i, s);
+				if (state[h + i - 1] < parabolic && parabolic < state[h + i + 1])
+					state[h + i] = parabolic;
+				else
+					state[h + i] = state[h + i] + s
+							* (state[h + i + s] - state[h + i])
+							/ (state[n + i + s] - state[n + i]);
+				state[n + i] += s;
+			}
+		}
+	}
+
+	/**
+	 * @param state
+	 * @param offset
+	 * @return how many values have been added
+	 */
+	public static int getCount(double[] state, int offset) {
+		return (int) state[offset + COUNT];
+	}
+
+	/**
+	 * Returns the current estimate of the quantile. While there are fewer than
+	 * 5 values it is the value nearest to the quantile of those values.
+	 *
+	 * @param state
+	 * @param offset
+	 * @param quantile
+	 *            The quantile being estimated
+	 * @return the estimate, or NaN if no values have been added
+	 */
+	public static double getQuantile(double[] state, int offset,
+			double quantile) {
+		int count = (int) state[offset + COUNT];
+		if (count == 0)
+			return Double.NaN;
+		if (count < 5)
+			return state[offset + HEIGHTS
+					+ (int) Math.round(quantile * (count - 1))];
+		return state[offset + HEIGHTS + 2];
+	}
+
+	/**
+	 * @return the fraction of the values that are desired to be below marker i
+	 */
+	private static double markerFraction(int i, double quantile) {
+		switch (i) {
+		case 1:
+			return quantile / 2;
+		case 2:
+			return quantile;
+		default:
+			return (1 + quantile) / 2;
+		}
+	}
+
+	/**
+	 * The piecewise-parabolic prediction of the new height of marker i when
+	 * it is moved by s positions.
+	 */
+	private static double parabolic(double[] state, int h, int n, int i, int s) {
+		double qPrev = state[h + i - 1];
+		double q = state[h + i];
+		double qNext = state[h + i + 1];
+		double nPrev = state[n + i - 1];
+		double pos = state[n + i];
+		double nNext = state[n + i + 1];
+		return q + s / (nNext - nPrev)
+				* ((pos - nPrev + s) * (qNext - q) / (nNext - pos)
+						+ (nNext - pos - s) * (q - qPrev) / (pos - nPrev));
+	}
+}
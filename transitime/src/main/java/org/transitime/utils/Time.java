@@ -204,6 +204,20 @@ public class Time {
 		return calendar.get(Calendar.DAY_OF_YEAR);
 	}
 	
+	/**
+	 * Returns the day of the week, such as Calendar.SUNDAY, for the epoch time
+	 * in the timezone of this Time object.
+	 * 
+	 * @param epochTime
+	 * @return day of the week
+	 */
+	public int getDayOfWeek(long epochTime) {
+		synchronized (calendar) {
+			calendar.setTimeInMillis(epochTime);
+			return calendar.get(Calendar.DAY_OF_WEEK);
+		}
+	}
+	
 	/**
 	 * Converts the epoch time into number of msec into the day.
 	 * 
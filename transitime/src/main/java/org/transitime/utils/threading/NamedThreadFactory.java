@@ -28,12 +28,27 @@ import java.util.concurrent.ThreadFactory;
  */
 public class NamedThreadFactory implements ThreadFactory {
 	private final String poolName;
+	private final boolean daemon;
 	
 	public NamedThreadFactory(String poolName) {
+		this(poolName, false);
+	}
+	
+	/**
+	 * @param poolName
+	 * @param daemon
+	 *            True if the threads should be daemon threads so that they
+	 *            don't prevent the application from exiting
+	 */
+	public NamedThreadFactory(String poolName, boolean daemon) {
 		this.poolName = poolName;
+		this.daemon = daemon;
 	}
 	
 	public Thread newThread(Runnable runnable) {
-		return new NamedThread(runnable, poolName);
+		Thread thread = new NamedThread(runnable, poolName);
+		if (daemon)
+			thread.setDaemon(true);
+		return thread;
 	}
 }
@@ -57,6 +57,7 @@
         licensePlate varchar(10),
         lat double precision,
         lon double precision,
+        occupancyStatus integer,
         passengerCount integer,
         passengerFullness float,
         source varchar(10),
@@ -138,9 +139,9 @@
         originId varchar(60) not null,
         fareId varchar(60) not null,
         destinationId varchar(60) not null,
+        containsId varchar(60) not null,
         configRev integer not null,
-        containsId varchar(60),
-        primary key (routeId, originId, fareId, destinationId, configRev)
+        primary key (routeId, originId, fareId, destinationId, containsId, configRev)
     );
 
     create table Frequencies (
@@ -204,12 +205,38 @@
         primary key (id)
     );
 
+    create table PredictionAccuracyAggregates (
+        id bigint not null auto_increment,
+        affectedByWaitStop bit,
+        directionId varchar(60),
+        errorHistogram longtext,
+        maxErrorSecs integer,
+        minErrorSecs integer,
+        numMissed integer,
+        numPredictions integer,
+        p10ErrorSecs float,
+        p50ErrorSecs float,
+        p90ErrorSecs float,
+        periodMinutes integer,
+        periodStart datetime(3),
+        predLengthBucketSecs integer,
+        predictionAlgorithm varchar(60),
+        predictionSource varchar(60),
+        routeId varchar(60),
+        routeShortName varchar(60),
+        stopId varchar(60),
+        sumErrorSecs bigint,
+        sumSquaredErrorSecs bigint,
+        primary key (id)
+    );
+
     create table Predictions (
         id bigint not null auto_increment,
         affectedByWaitStop bit,
         avlTime datetime(3),
         configRev integer,
         creationTime datetime(3),
+        gtfsStopSeq integer,
         isArrival bit,
         predictionTime datetime(3),
         routeId varchar(60),
@@ -240,6 +267,25 @@
         primary key (id, configRev)
     );
 
+    create table ScheduleAdherenceRollups (
+        id bigint not null auto_increment,
+        deviationHistogram longtext,
+        directionId varchar(60),
+        isArrival bit,
+        maxDeviationSecs integer,
+        minDeviationSecs integer,
+        numEarly integer,
+        numLate integer,
+        numStops integer,
+        periodMinutes integer,
+        periodStart datetime(3),
+        routeId varchar(60),
+        routeShortName varchar(60),
+        sumDeviationSecs bigint,
+        sumSquaredDeviationSecs bigint,
+        primary key (id)
+    );
+
     create table StopPathPredictions (
         id bigint not null auto_increment,
         algorithm varchar(255),
@@ -250,6 +296,16 @@
         primary key (id)
     );
 
+    create table StopPath_locations (
+        StopPath_tripPatternId varchar(120) not null,
+        StopPath_stopPathId varchar(120) not null,
+        StopPath_configRev integer not null,
+        lat double precision,
+        lon double precision,
+        locations_ORDER integer not null,
+        primary key (StopPath_tripPatternId, StopPath_stopPathId, StopPath_configRev, locations_ORDER)
+    );
+
     create table StopPaths (
         tripPatternId varchar(120) not null,
         stopPathId varchar(120) not null,
@@ -258,7 +314,6 @@
         gtfsStopSeq integer,
         lastStopInTrip bit,
         layoverStop bit,
-        locations blob,
         pathLength double precision,
         routeId varchar(60),
         scheduleAdherenceStop bit,
@@ -298,7 +353,7 @@
         stopPathId varchar(120),
         stopTimeMsec integer,
         travelTimeSegmentLength float,
-        travelTimesMsec blob,
+        travelTimesMsec mediumblob,
         travelTimesRev integer,
         primary key (id)
     );
@@ -344,6 +399,16 @@
         primary key (id, configRev)
     );
 
+    create table Trip_scheduledTimesList (
+        Trip_tripId varchar(60) not null,
+        Trip_startTime integer not null,
+        Trip_configRev integer not null,
+        arrivalTime integer,
+        departureTime integer,
+        scheduledTimesList_ORDER integer not null,
+        primary key (Trip_tripId, Trip_startTime, Trip_configRev, scheduledTimesList_ORDER)
+    );
+
     create table Trips (
         tripId varchar(60) not null,
         startTime integer not null,
@@ -356,7 +421,6 @@
         noSchedule bit,
         routeId varchar(60),
         routeShortName varchar(60),
-        scheduledTimesList blob,
         serviceId varchar(60),
         shapeId varchar(60),
         tripShortName varchar(60),
@@ -430,9 +494,13 @@
 
     create index PredictionAccuracyTimeIndex on PredictionAccuracy (arrivalDepartureTime);
 
+    create index PredAccuracyAggregatesTimeIndex on PredictionAccuracyAggregates (periodStart, periodMinutes);
+
     create index PredictionTimeIndex on Predictions (creationTime);
 
-    create index StopPathPredictionTimeIndex on StopPathPredictions (creationTime);
+    create index SchedAdhRollupsTimeIndex on ScheduleAdherenceRollups (periodStart, periodMinutes);
+
+    create index StopPathPredictionTimeIndex on StopPathPredictions (tripId, stopPathIndex);
 
     create index TravelTimesRevIndex on TravelTimesForTrips (travelTimesRev);
 
@@ -453,6 +521,11 @@
         foreign key (Blocks_serviceId, Blocks_configRev, Blocks_blockId) 
         references Blocks (serviceId, configRev, blockId);
 
+    alter table StopPath_locations 
+        add constraint FK_sdjt3vtd3w0cl07p0doob6khi 
+        foreign key (StopPath_tripPatternId, StopPath_stopPathId, StopPath_configRev) 
+        references StopPaths (tripPatternId, stopPathId, configRev);
+
     alter table TravelTimesForTrip_to_TravelTimesForPath_joinTable 
         add constraint FK_hh5uepurijcqj0pyc6e3h5mqw 
         foreign key (travelTimesForStopPaths_id) 
@@ -473,6 +546,11 @@
         foreign key (TripPatterns_id, TripPatterns_configRev) 
         references TripPatterns (id, configRev);
 
+    alter table Trip_scheduledTimesList 
+        add constraint FK_n5et0p70cwe1dwo4m6lq0k4h0 
+        foreign key (Trip_tripId, Trip_startTime, Trip_configRev) 
+        references Trips (tripId, startTime, configRev);
+
     alter table Trips 
         add constraint FK_p1er53449kkfsca6mbnxkdyst 
         foreign key (travelTimes_id) 
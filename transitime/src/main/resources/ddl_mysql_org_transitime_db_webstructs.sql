@@ -5,6 +5,7 @@
         applicationUrl varchar(80),
         description longtext,
         email varchar(80),
+        maxRequestsPerSec integer,
         phone varchar(80),
         primary key (applicationName)
     );
@@ -57,6 +57,7 @@
         licensePlate varchar2(10 char),
         lat double precision,
         lon double precision,
+        occupancyStatus number(10,0),
         passengerCount number(10,0),
         passengerFullness float,
         source varchar2(10 char),
@@ -138,9 +139,9 @@
         originId varchar2(60 char) not null,
         fareId varchar2(60 char) not null,
         destinationId varchar2(60 char) not null,
+        containsId varchar2(60 char) not null,
         configRev number(10,0) not null,
-        containsId varchar2(60 char),
-        primary key (routeId, originId, fareId, destinationId, configRev)
+        primary key (routeId, originId, fareId, destinationId, containsId, configRev)
     );
 
     create table Frequencies (
@@ -204,12 +205,38 @@
         primary key (id)
     );
 
+    create table PredictionAccuracyAggregates (
+        id number(19,0) not null,
+        affectedByWaitStop number(1,0),
+        directionId varchar2(60 char),
+        errorHistogram varchar2(2000 char),
+        maxErrorSecs number(10,0),
+        minErrorSecs number(10,0),
+        numMissed number(10,0),
+        numPredictions number(10,0),
+        p10ErrorSecs float,
+        p50ErrorSecs float,
+        p90ErrorSecs float,
+        periodMinutes number(10,0),
+        periodStart timestamp,
+        predLengthBucketSecs number(10,0),
+        predictionAlgorithm varchar2(60 char),
+        predictionSource varchar2(60 char),
+        routeId varchar2(60 char),
+        routeShortName varchar2(60 char),
+        stopId varchar2(60 char),
+        sumErrorSecs number(19,0),
+        sumSquaredErrorSecs number(19,0),
+        primary key (id)
+    );
+
     create table Predictions (
         id number(19,0) not null,
         affectedByWaitStop number(1,0),
         avlTime timestamp,
         configRev number(10,0),
         creationTime timestamp,
+        gtfsStopSeq number(10,0),
         isArrival number(1,0),
         predictionTime timestamp,
         routeId varchar2(60 char),
@@ -240,6 +267,25 @@
         primary key (id, configRev)
     );
 
+    create table ScheduleAdherenceRollups (
+        id number(19,0) not null,
+        deviationHistogram varchar2(4000 char),
+        directionId varchar2(60 char),
+        isArrival number(1,0),
+        maxDeviationSecs number(10,0),
+        minDeviationSecs number(10,0),
+        numEarly number(10,0),
+        numLate number(10,0),
+        numStops number(10,0),
+        periodMinutes number(10,0),
+        periodStart timestamp,
+        routeId varchar2(60 char),
+        routeShortName varchar2(60 char),
+        sumDeviationSecs number(19,0),
+        sumSquaredDeviationSecs number(19,0),
+        primary key (id)
+    );
+
     create table StopPathPredictions (
         id number(19,0) not null,
         algorithm varchar2(255 char),
@@ -250,6 +296,16 @@
         primary key (id)
     );
 
+    create table StopPath_locations (
+        StopPath_tripPatternId varchar2(120 char) not null,
+        StopPath_stopPathId varchar2(120 char) not null,
+        StopPath_configRev number(10,0) not null,
+        lat double precision,
+        lon double precision,
+        locations_ORDER number(10,0) not null,
+        primary key (StopPath_tripPatternId, StopPath_stopPathId, StopPath_configRev, locations_ORDER)
+    );
+
     create table StopPaths (
         tripPatternId varchar2(120 char) not null,
         stopPathId varchar2(120 char) not null,
@@ -258,7 +314,6 @@
         gtfsStopSeq number(10,0),
         lastStopInTrip number(1,0),
         layoverStop number(1,0),
-        locations raw(1000),
         pathLength double precision,
         routeId varchar2(60 char),
         scheduleAdherenceStop number(1,0),
@@ -344,6 +399,16 @@
         primary key (id, configRev)
     );
 
+    create table Trip_scheduledTimesList (
+        Trip_tripId varchar2(60 char) not null,
+        Trip_startTime number(10,0) not null,
+        Trip_configRev number(10,0) not null,
+        arrivalTime number(10,0),
+        departureTime number(10,0),
+        scheduledTimesList_ORDER number(10,0) not null,
+        primary key (Trip_tripId, Trip_startTime, Trip_configRev, scheduledTimesList_ORDER)
+    );
+
     create table Trips (
         tripId varchar2(60 char) not null,
         startTime number(10,0) not null,
@@ -356,7 +421,6 @@
         noSchedule number(1,0),
         routeId varchar2(60 char),
         routeShortName varchar2(60 char),
-        scheduledTimesList long raw,
         serviceId varchar2(60 char),
         shapeId varchar2(60 char),
         tripShortName varchar2(60 char),
@@ -430,9 +494,13 @@
 
     create index PredictionAccuracyTimeIndex on PredictionAccuracy (arrivalDepartureTime);
 
+    create index PredAccuracyAggregatesTimeIndex on PredictionAccuracyAggregates (periodStart, periodMinutes);
+
     create index PredictionTimeIndex on Predictions (creationTime);
 
-    create index StopPathPredictionTimeIndex on StopPathPredictions (creationTime);
+    create index SchedAdhRollupsTimeIndex on ScheduleAdherenceRollups (periodStart, periodMinutes);
+
+    create index StopPathPredictionTimeIndex on StopPathPredictions (tripId, stopPathIndex);
 
     create index TravelTimesRevIndex on TravelTimesForTrips (travelTimesRev);
 
@@ -453,6 +521,11 @@
         foreign key (Blocks_serviceId, Blocks_configRev, Blocks_blockId) 
         references Blocks;
 
+    alter table StopPath_locations 
+        add constraint FK_sdjt3vtd3w0cl07p0doob6khi 
+        foreign key (StopPath_tripPatternId, StopPath_stopPathId, StopPath_configRev) 
+        references StopPaths;
+
     alter table TravelTimesForTrip_to_TravelTimesForPath_joinTable 
         add constraint FK_hh5uepurijcqj0pyc6e3h5mqw 
         foreign key (travelTimesForStopPaths_id) 
@@ -473,6 +546,11 @@
         foreign key (TripPatterns_id, TripPatterns_configRev) 
         references TripPatterns;
 
+    alter table Trip_scheduledTimesList 
+        add constraint FK_n5et0p70cwe1dwo4m6lq0k4h0 
+        foreign key (Trip_tripId, Trip_startTime, Trip_configRev) 
+        references Trips;
+
     alter table Trips 
         add constraint FK_p1er53449kkfsca6mbnxkdyst 
         foreign key (travelTimes_id) 
@@ -57,6 +57,7 @@
         licensePlate varchar(10),
         lat float8,
         lon float8,
+        occupancyStatus int4,
         passengerCount int4,
         passengerFullness float4,
         source varchar(10),
@@ -138,9 +139,9 @@
         originId varchar(60) not null,
         fareId varchar(60) not null,
         destinationId varchar(60) not null,
+        containsId varchar(60) not null,
         configRev int4 not null,
-        containsId varchar(60),
-        primary key (routeId, originId, fareId, destinationId, configRev)
+        primary key (routeId, originId, fareId, destinationId, containsId, configRev)
     );
 
     create table Frequencies (
@@ -204,12 +205,38 @@
         primary key (id)
     );
 
+    create table PredictionAccuracyAggregates (
+        id int8 not null,
+        affectedByWaitStop boolean,
+        directionId varchar(60),
+        errorHistogram varchar(2000),
+        maxErrorSecs int4,
+        minErrorSecs int4,
+        numMissed int4,
+        numPredictions int4,
+        p10ErrorSecs float4,
+        p50ErrorSecs float4,
+        p90ErrorSecs float4,
+        periodMinutes int4,
+        periodStart timestamp,
+        predLengthBucketSecs int4,
+        predictionAlgorithm varchar(60),
+        predictionSource varchar(60),
+        routeId varchar(60),
+        routeShortName varchar(60),
+        stopId varchar(60),
+        sumErrorSecs int8,
+        sumSquaredErrorSecs int8,
+        primary key (id)
+    );
+
     create table Predictions (
         id int8 not null,
         affectedByWaitStop boolean,
         avlTime timestamp,
         configRev int4,
         creationTime timestamp,
+        gtfsStopSeq int4,
         isArrival boolean,
         predictionTime timestamp,
         routeId varchar(60),
@@ -240,6 +267,25 @@
         primary key (id, configRev)
     );
 
+    create table ScheduleAdherenceRollups (
+        id int8 not null,
+        deviationHistogram varchar(4000),
+        directionId varchar(60),
+        isArrival boolean,
+        maxDeviationSecs int4,
+        minDeviationSecs int4,
+        numEarly int4,
+        numLate int4,
+        numStops int4,
+        periodMinutes int4,
+        periodStart timestamp,
+        routeId varchar(60),
+        routeShortName varchar(60),
+        sumDeviationSecs int8,
+        sumSquaredDeviationSecs int8,
+        primary key (id)
+    );
+
     create table StopPathPredictions (
         id int8 not null,
         algorithm varchar(255),
@@ -250,6 +296,16 @@
         primary key (id)
     );
 
+    create table StopPath_locations (
+        StopPath_tripPatternId varchar(120) not null,
+        StopPath_stopPathId varchar(120) not null,
+        StopPath_configRev int4 not null,
+        lat float8,
+        lon float8,
+        locations_ORDER int4 not null,
+        primary key (StopPath_tripPatternId, StopPath_stopPathId, StopPath_configRev, locations_ORDER)
+    );
+
     create table StopPaths (
         tripPatternId varchar(120) not null,
         stopPathId varchar(120) not null,
@@ -258,7 +314,6 @@
         gtfsStopSeq int4,
         lastStopInTrip boolean,
         layoverStop boolean,
-        locations bytea,
         pathLength float8,
         routeId varchar(60),
         scheduleAdherenceStop boolean,
@@ -344,6 +399,16 @@
         primary key (id, configRev)
     );
 
+    create table Trip_scheduledTimesList (
+        Trip_tripId varchar(60) not null,
+        Trip_startTime int4 not null,
+        Trip_configRev int4 not null,
+        arrivalTime int4,
+        departureTime int4,
+        scheduledTimesList_ORDER int4 not null,
+        primary key (Trip_tripId, Trip_startTime, Trip_configRev, scheduledTimesList_ORDER)
+    );
+
     create table Trips (
         tripId varchar(60) not null,
         startTime int4 not null,
@@ -356,7 +421,6 @@
         noSchedule boolean,
         routeId varchar(60),
         routeShortName varchar(60),
-        scheduledTimesList bytea,
         serviceId varchar(60),
         shapeId varchar(60),
         tripShortName varchar(60),
@@ -430,9 +494,13 @@
 
     create index PredictionAccuracyTimeIndex on PredictionAccuracy (arrivalDepartureTime);
 
+    create index PredAccuracyAggregatesTimeIndex on PredictionAccuracyAggregates (periodStart, periodMinutes);
+
     create index PredictionTimeIndex on Predictions (creationTime);
 
-    create index StopPathPredictionTimeIndex on StopPathPredictions (creationTime);
+    create index SchedAdhRollupsTimeIndex on ScheduleAdherenceRollups (periodStart, periodMinutes);
+
+    create index StopPathPredictionTimeIndex on StopPathPredictions (tripId, stopPathIndex);
 
     create index TravelTimesRevIndex on TravelTimesForTrips (travelTimesRev);
 
@@ -453,6 +521,11 @@
         foreign key (Blocks_serviceId, Blocks_configRev, Blocks_blockId) 
         references Blocks;
 
+    alter table StopPath_locations 
+        add constraint FK_sdjt3vtd3w0cl07p0doob6khi 
+        foreign key (StopPath_tripPatternId, StopPath_stopPathId, StopPath_configRev) 
+        references StopPaths;
+
     alter table TravelTimesForTrip_to_TravelTimesForPath_joinTable 
         add constraint FK_hh5uepurijcqj0pyc6e3h5mqw 
         foreign key (travelTimesForStopPaths_id) 
@@ -473,6 +546,11 @@
         foreign key (TripPatterns_id, TripPatterns_configRev) 
         references TripPatterns;
 
+    alter table Trip_scheduledTimesList 
+        add constraint FK_n5et0p70cwe1dwo4m6lq0k4h0 
+        foreign key (Trip_tripId, Trip_startTime, Trip_configRev) 
+        references Trips;
+
     alter table Trips 
         add constraint FK_p1er53449kkfsca6mbnxkdyst 
         foreign key (travelTimes_id) 
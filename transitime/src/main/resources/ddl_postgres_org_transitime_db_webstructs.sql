@@ -5,6 +5,7 @@
         applicationUrl varchar(80),
         description varchar(1000),
         email varchar(80),
+        maxRequestsPerSec int4,
         phone varchar(80),
         primary key (applicationName)
     );
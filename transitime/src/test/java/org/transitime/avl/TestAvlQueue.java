@@ -0,0 +1,71 @@
+package org.transitime.avl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+import org.transitime.db.structs.AvlReport;
+import org.transitime.utils.Time;
+
+/**
+ * Tests for coalescing AVL reports per vehicle in the AvlQueue and for
+ * forgetting vehicles that have stopped reporting.
+ */
+public class TestAvlQueue {
+
+	private static final long START_TIME = 1467800000000L;
+
+	private static AvlClient avl(String vehicleId, long time) {
+		return new AvlClient(new AvlReport(vehicleId, time, 37.77, -122.42,
+				"test"));
+	}
+
+	@Test
+	public void testCoalescedAndObsoleteReports() {
+		AvlQueue queue = new AvlQueue(10);
+		AvlClient v1First = avl("v1", START_TIME);
+		AvlClient v2 = avl("v2", START_TIME + 1000);
+		AvlClient v1Second = avl("v1", START_TIME + 2000);
+		assertTrue(queue.offer(v1First));
+		assertTrue(queue.offer(v2));
+		assertTrue(queue.offer(v1Second));
+		// Older than the latest report for v1 so discarded
+		assertTrue(queue.offer(avl("v1", START_TIME + 1000)));
+
+		assertEquals(2, queue.size());
+		assertEquals(1, queue.getCoalescedCount());
+		assertEquals(1, queue.getObsoleteCount());
+
+		// v1 keeps its place in the queue but with the newest report
+		assertSame(v1Second, queue.poll());
+		assertSame(v2, queue.poll());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void testStaleVehiclesForgotten() {
+		AvlQueue queue = new AvlQueue(10, Time.MS_PER_HOUR);
+		for (int i = 0; i < 5; ++i)
+			queue.offer(avl("old" + i, START_TIME));
+		queue.drainTo(new ArrayList<Runnable>());
+		// Still waiting to be processed so must not be forgotten
+		queue.offer(avl("pending", START_TIME));
+		assertEquals(6, queue.getNumVehiclesTracked());
+
+		// Less than the stale time later so nothing removed
+		queue.offer(avl("new1", START_TIME + 30 * Time.MS_PER_MIN));
+		assertEquals(7, queue.getNumVehiclesTracked());
+
+		// More than the stale time later so the vehicles that haven't
+		// reported and don't have a pending report are removed
+		queue.offer(avl("new2", START_TIME + 61 * Time.MS_PER_MIN));
+		assertEquals(3, queue.getNumVehiclesTracked());
+		assertEquals(3, queue.size());
+
+		// A forgotten vehicle that reports again is handled like a new one
+		assertTrue(queue.offer(avl("old0", START_TIME + 62 * Time.MS_PER_MIN)));
+		assertEquals(4, queue.getNumVehiclesTracked());
+		assertEquals(4, queue.size());
+	}
+}
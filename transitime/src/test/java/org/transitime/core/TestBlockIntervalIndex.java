@@ -0,0 +1,157 @@
+package org.transitime.core;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.transitime.db.structs.Block;
+import org.transitime.db.structs.Trip;
+import org.transitime.utils.Time;
+
+/**
+ * Tests for finding the blocks that are starting or active at a time of day
+ * with the BlockIntervalIndex, and for the order they are returned in.
+ */
+public class TestBlockIntervalIndex {
+
+	private static Block block(String blockId, int startTime, int endTime) {
+		return new Block(1, blockId, "weekday", startTime, endTime,
+				new ArrayList<Trip>());
+	}
+
+	private static List<String> ids(List<Block> blocks) {
+		List<String> ids = new ArrayList<String>();
+		for (Block block : blocks)
+			ids.add(block.getId());
+		return ids;
+	}
+
+	private static List<String> startingBetween(BlockIntervalIndex index,
+			int afterTime, int beforeTime) {
+		List<Block> results = new ArrayList<Block>();
+		index.addBlocksStartingBetween(afterTime, beforeTime, results);
+		return ids(results);
+	}
+
+	private static List<String> active(BlockIntervalIndex index,
+			int secsInDay, int allowableBeforeTimeSecs,
+			int allowableAfterStartTimeSecs) {
+		List<Block> results = new ArrayList<Block>();
+		index.addActiveBlocks(secsInDay, allowableBeforeTimeSecs,
+				allowableAfterStartTimeSecs, results);
+		return ids(results);
+	}
+
+	@Test
+	public void testBlocksStartingBetween() {
+		BlockIntervalIndex index = new BlockIntervalIndex(Arrays.asList(
+				block("c", 3600, 7200), block("a", 1800, 9000),
+				block("b", 3600, 5000), block("d", 7200, 10000)));
+		assertEquals(4, index.size());
+
+		// Bounds are exclusive
+		assertEquals(Arrays.asList("b", "c"),
+				startingBetween(index, 1800, 7200));
+		assertEquals(Arrays.asList("a", "b", "c", "d"),
+				startingBetween(index, 0, 86400));
+		assertTrue(startingBetween(index, 7200, 86400).isEmpty());
+	}
+
+	@Test
+	public void testActiveBlocks() {
+		BlockIntervalIndex index = new BlockIntervalIndex(Arrays.asList(
+				block("early", 6 * Time.SEC_PER_HOUR, 10 * Time.SEC_PER_HOUR),
+				block("allDay", 5 * Time.SEC_PER_HOUR, 23 * Time.SEC_PER_HOUR),
+				block("late", 12 * Time.SEC_PER_HOUR, 26 * Time.SEC_PER_HOUR)));
+
+		// Active up to the end time
+		assertEquals(Arrays.asList("allDay", "early"),
+				active(index, 9 * Time.SEC_PER_HOUR, 0, -1));
+		// Allowed to be a bit before the start time
+		assertEquals(Arrays.asList("allDay", "early", "late"),
+				active(index, 9 * Time.SEC_PER_HOUR, 4 * Time.SEC_PER_HOUR,
+						-1));
+		// After midnight, such as for a block from the previous day
+		assertEquals(Arrays.asList("late"),
+				active(index, 25 * Time.SEC_PER_HOUR, 0, -1));
+
+		// Only active for an hour after the start time
+		assertEquals(Arrays.asList("early"),
+				active(index, 6 * Time.SEC_PER_HOUR + 1800, 0,
+						Time.SEC_PER_HOUR));
+	}
+
+	@Test
+	public void testActiveBlocksMatchesLinearSearch() {
+		Random random = new Random(7);
+		List<Block> blocks = new ArrayList<Block>();
+		for (int i = 0; i < 300; ++i) {
+			int start = random.nextInt(24 * Time.SEC_PER_HOUR);
+			blocks.add(block("b" + i, start,
+					start + random.nextInt(12 * Time.SEC_PER_HOUR)));
+		}
+		BlockIntervalIndex index = new BlockIntervalIndex(blocks);
+
+		for (int test = 0; test < 200; ++test) {
+			int secsInDay = random.nextInt(30 * Time.SEC_PER_HOUR);
+			int before = random.nextInt(Time.SEC_PER_HOUR);
+			int afterStart = random.nextBoolean() ? -1
+					: random.nextInt(2 * Time.SEC_PER_HOUR);
+
+			// Same criteria as Block.isActive()
+			List<Block> expected = new ArrayList<Block>();
+			for (Block block : blocks) {
+				boolean startedEnough =
+						secsInDay > block.getStartTime() - before;
+				boolean notDone = afterStart >= 0 ?
+						secsInDay < block.getStartTime() + afterStart
+						: secsInDay < block.getEndTime();
+				if (startedEnough && notDone)
+					expected.add(block);
+			}
+			Collections.sort(expected, BlockIntervalIndex.BY_START_TIME);
+
+			assertEquals(ids(expected),
+					active(index, secsInDay, before, afterStart));
+		}
+	}
+
+	@Test
+	public void testOrderIndependentOfInput() {
+		List<Block> blocks = new ArrayList<Block>();
+		for (int i = 0; i < 20; ++i)
+			blocks.add(block("b" + (char) ('a' + i), 3600 * (i % 3),
+					3600 * (i % 3) + 7200));
+
+		List<Block> shuffled = new ArrayList<Block>(blocks);
+		Collections.shuffle(shuffled, new Random(3));
+		Collections.reverse(blocks);
+
+		BlockIntervalIndex index1 = new BlockIntervalIndex(blocks);
+		BlockIntervalIndex index2 = new BlockIntervalIndex(shuffled);
+		assertEquals(active(index1, 3700, 0, -1), active(index2, 3700, 0, -1));
+		assertEquals(startingBetween(index1, -1, 86400),
+				startingBetween(index2, -1, 86400));
+
+		// Same start time ordered by block ID
+		List<String> ids = startingBetween(index1, -1, 1);
+		List<String> sortedIds = new ArrayList<String>(ids);
+		Collections.sort(sortedIds);
+		assertEquals(7, ids.size());
+		assertEquals(sortedIds, ids);
+	}
+
+	@Test
+	public void testEmptyIndex() {
+		BlockIntervalIndex index =
+				new BlockIntervalIndex(new ArrayList<Block>());
+		assertEquals(0, index.size());
+		assertTrue(startingBetween(index, 0, 86400).isEmpty());
+		assertTrue(active(index, 3600, 600, -1).isEmpty());
+	}
+}
@@ -0,0 +1,153 @@
+package org.transitime.core.autoAssigner;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.transitime.core.autoAssigner.BatchAutoAssigner.AssignmentSolver;
+import org.transitime.core.autoAssigner.BatchAutoAssigner.BlockExtentIndex;
+import org.transitime.db.structs.Extent;
+import org.transitime.db.structs.Location;
+
+/**
+ * Tests for solving the assignment of the whole fleet and for the index of
+ * the block extents used by the batch auto assigner.
+ */
+public class TestBatchAutoAssigner {
+
+	/**
+	 * A match of a vehicle to a block with how far off it is from the
+	 * schedule. Smaller is better.
+	 */
+	private static class Match {
+		private final String blockId;
+		private final int secsOff;
+
+		private Match(String blockId, int secsOff) {
+			this.blockId = blockId;
+			this.secsOff = secsOff;
+		}
+
+		@Override
+		public String toString() {
+			return blockId + ":" + secsOff;
+		}
+	}
+
+	private static final AssignmentSolver<Match> SOLVER =
+			new AssignmentSolver<Match>() {
+				@Override
+				String getBlockId(Match match) {
+					return match.blockId;
+				}
+
+				@Override
+				boolean betterThan(Match match1, Match match2) {
+					return Math.abs(match1.secsOff) < Math.abs(match2.secsOff);
+				}
+			};
+
+	@SafeVarargs
+	private static List<List<Match>> matches(List<Match>... matches) {
+		List<List<Match>> result = new ArrayList<List<Match>>();
+		for (List<Match> vehicleMatches : matches)
+			result.add(new ArrayList<Match>(vehicleMatches));
+		return result;
+	}
+
+	@Test
+	public void testContestedBlockGoesToBestTemporalMatch() {
+		Match v1 = new Match("A", 300);
+		Match v2 = new Match("A", -60);
+		Match v3 = new Match("A", 120);
+		Map<String, Match> assignments = SOLVER.solve(
+				Arrays.asList("v1", "v2", "v3"),
+				matches(Arrays.asList(v1), Arrays.asList(v2),
+						Arrays.asList(v3)), true);
+
+		assertEquals(1, assignments.size());
+		assertSame(v2, assignments.get("v2"));
+	}
+
+	@Test
+	public void testTakenBlockResolvesAmbiguity() {
+		// v2 matches both blocks but v1 can only be block A, so once v1 is
+		// assigned v2 gets block B
+		Match v1A = new Match("A", 0);
+		Match v2A = new Match("A", 30);
+		Match v2B = new Match("B", 60);
+		Map<String, Match> assignments = SOLVER.solve(
+				Arrays.asList("v1", "v2"),
+				matches(Arrays.asList(v1A), Arrays.asList(v2A, v2B)), true);
+
+		assertEquals(2, assignments.size());
+		assertSame(v1A, assignments.get("v1"));
+		assertSame(v2B, assignments.get("v2"));
+	}
+
+	@Test
+	public void testAmbiguousVehicleNotAssigned() {
+		Map<String, Match> assignments = SOLVER.solve(
+				Arrays.asList("v1", "v2"),
+				matches(Arrays.asList(new Match("A", 0), new Match("B", 0)),
+						new ArrayList<Match>()), true);
+
+		assertTrue(assignments.isEmpty());
+	}
+
+	@Test
+	public void testNonExclusiveBlocksShared() {
+		Match v1 = new Match("A", 300);
+		Match v2 = new Match("A", 0);
+		Map<String, Match> assignments = SOLVER.solve(
+				Arrays.asList("v1", "v2"),
+				matches(Arrays.asList(v1), Arrays.asList(v2)), false);
+
+		assertEquals(2, assignments.size());
+		assertSame(v1, assignments.get("v1"));
+		assertSame(v2, assignments.get("v2"));
+	}
+
+	private static Extent extent(double lat1, double lon1, double lat2,
+			double lon2) {
+		Extent extent = new Extent();
+		extent.add(new Location(lat1, lon1));
+		extent.add(new Location(lat2, lon2));
+		return extent;
+	}
+
+	@Test
+	public void testBlockExtentIndex() {
+		// Blocks deliberately not in latitude order
+		List<String> blocks = Arrays.asList("north", "south", "middle", "east");
+		Extent[] extents = new Extent[] {
+				extent(38.00, -122.00, 38.10, -121.90),
+				extent(37.00, -122.00, 37.10, -121.90),
+				extent(37.50, -122.00, 37.60, -121.90),
+				extent(37.50, -120.00, 37.60, -119.90) };
+		BlockExtentIndex<String> index =
+				new BlockExtentIndex<String>(blocks, extents);
+
+		// Inside the middle block
+		assertEquals(Arrays.asList("middle"),
+				index.getNear(new Location(37.55, -121.95), 100.0));
+
+		// Just south of the north block, within the distance
+		assertEquals(Arrays.asList("north"),
+				index.getNear(new Location(37.995, -121.95), 1000.0));
+
+		// Between blocks and too far from all of them
+		assertTrue(index.getNear(new Location(37.80, -121.95), 1000.0)
+				.isEmpty());
+
+		// Large distance includes all blocks at that longitude
+		List<String> near =
+				index.getNear(new Location(37.55, -121.95), 100000.0);
+		assertEquals(3, near.size());
+		assertTrue(near.containsAll(Arrays.asList("north", "south", "middle")));
+	}
+}
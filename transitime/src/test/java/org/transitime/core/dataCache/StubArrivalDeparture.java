@@ -0,0 +1,32 @@
+package org.transitime.core.dataCache;
+
+import java.util.Date;
+
+import org.transitime.db.structs.ArrivalDeparture;
+
+/**
+ * An arrival/departure with just the vehicle, trip, stop, stop path and time
+ * that the caches use, so that tests don't need a block and trip.
+ */
+class StubArrivalDeparture extends ArrivalDeparture {
+	private final String tripId;
+	private final String stopId;
+
+	StubArrivalDeparture(String vehicleId, String tripId, int stopPathIndex,
+			String stopId, long time, boolean isArrival) {
+		super(1, vehicleId, new Date(time), new Date(time), null, 0,
+				stopPathIndex, isArrival);
+		this.tripId = tripId;
+		this.stopId = stopId;
+	}
+
+	@Override
+	public String getTripId() {
+		return tripId;
+	}
+
+	@Override
+	public String getStopId() {
+		return stopId;
+	}
+}
@@ -0,0 +1,155 @@
+package org.transitime.core.dataCache;
+
+import static org.junit.Assert.*;
+
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.transitime.db.structs.ArrivalDeparture;
+import org.transitime.db.structs.StopPath;
+import org.transitime.utils.Time;
+
+/**
+ * Tests for pairing arrivals with departures and for the slots of the dwell
+ * time model. Uses the default config: at least 10 dwell times per slot,
+ * hourly time of day buckets, the median, and dwell times of at most 10
+ * minutes.
+ */
+public class TestDwellTimeModel {
+
+	private static final String TIME_ZONE = "America/Los_Angeles";
+
+	private static final String WAIT_STOP = "waitStop";
+	private static final String LAYOVER_STOP = "layoverStop";
+
+	private DwellTimeModel model;
+	private Map<String, ArrivalDeparture> arrivals;
+
+	@Before
+	public void setUp() {
+		model = new DwellTimeModel(new Time(TIME_ZONE)) {
+			@Override
+			StopPath getStopPath(ArrivalDeparture arrivalDeparture) {
+				String stopId = arrivalDeparture.getStopId();
+				return new StopPath(1, stopId + "_path", stopId, 1, false,
+						"r1", stopId.equals(LAYOVER_STOP),
+						stopId.equals(WAIT_STOP), false, null);
+			}
+		};
+		arrivals = new HashMap<String, ArrivalDeparture>();
+	}
+
+	/**
+	 * @return epoch time in the agency time zone
+	 */
+	private static long time(int year, int month, int day, int hour,
+			int minute) {
+		Calendar calendar =
+				Calendar.getInstance(TimeZone.getTimeZone(TIME_ZONE));
+		calendar.clear();
+		calendar.set(year, month - 1, day, hour, minute);
+		return calendar.getTimeInMillis();
+	}
+
+	private void arrival(String vehicleId, String tripId, int stopPathIndex,
+			String stopId, long time) {
+		model.putArrivalDeparture(new StubArrivalDeparture(vehicleId, tripId,
+				stopPathIndex, stopId, time, true), arrivals);
+	}
+
+	private void departure(String vehicleId, String tripId,
+			int stopPathIndex, String stopId, long time) {
+		model.putArrivalDeparture(new StubArrivalDeparture(vehicleId, tripId,
+				stopPathIndex, stopId, time, false), arrivals);
+	}
+
+	/**
+	 * Puts in numDwells arrival/departure pairs with the dwell time, a minute
+	 * apart starting at the specified time.
+	 */
+	private void dwells(String stopId, long start, long dwellMsec,
+			int numDwells) {
+		for (int i = 0; i < numDwells; ++i) {
+			long arrivalTime = start + i * Time.MS_PER_MIN;
+			arrival("v1", "t1", 3, stopId, arrivalTime);
+			departure("v1", "t1", 3, stopId, arrivalTime + dwellMsec);
+		}
+	}
+
+	@Test
+	public void testPairing() {
+		// Wednesday
+		long start = time(2016, 7, 6, 8, 0);
+		dwells("s1", start, 30 * Time.MS_PER_SEC, 9);
+		assertEquals(-1, model.getDwellTime("s1", start));
+
+		dwells("s1", start, 30 * Time.MS_PER_SEC, 1);
+		assertEquals(30 * Time.MS_PER_SEC, model.getDwellTime("s1", start));
+		assertEquals(-1, model.getDwellTime("s2", start));
+		assertTrue(arrivals.isEmpty());
+	}
+
+	@Test
+	public void testMismatchedDepartures() {
+		long start = time(2016, 7, 6, 8, 0);
+		for (int i = 0; i < 10; ++i) {
+			long arrivalTime = start + i * Time.MS_PER_MIN;
+			// Departure for a different trip
+			arrival("v1", "t1", 3, "s1", arrivalTime);
+			departure("v1", "t2", 3, "s1", arrivalTime + 20000);
+			// Departure for a different stop path
+			arrival("v1", "t1", 3, "s1", arrivalTime);
+			departure("v1", "t1", 4, "s1", arrivalTime + 20000);
+			// Departure without an arrival
+			departure("v1", "t1", 3, "s1", arrivalTime + 20000);
+			// Arrival of a different vehicle
+			arrival("v2", "t1", 3, "s1", arrivalTime);
+			departure("v1", "t1", 3, "s1", arrivalTime + 20000);
+		}
+		assertEquals(0, model.getNumStops());
+	}
+
+	@Test
+	public void testWaitAndLayoverStopsIgnored() {
+		long start = time(2016, 7, 6, 8, 0);
+		dwells(WAIT_STOP, start, 30 * Time.MS_PER_SEC, 10);
+		dwells(LAYOVER_STOP, start, 30 * Time.MS_PER_SEC, 10);
+		assertEquals(0, model.getNumStops());
+	}
+
+	@Test
+	public void testMaxDwellTime() {
+		long start = time(2016, 7, 6, 8, 0);
+		dwells("s1", start, 601 * Time.MS_PER_SEC, 10);
+		assertEquals(-1, model.getDwellTime("s1", start));
+
+		dwells("s1", start, 600 * Time.MS_PER_SEC, 10);
+		assertEquals(600 * Time.MS_PER_SEC, model.getDwellTime("s1", start));
+	}
+
+	@Test
+	public void testDayTypeAndTimeOfDaySlots() {
+		long wednesday8am = time(2016, 7, 6, 8, 0);
+		long saturday8am = time(2016, 7, 9, 8, 0);
+		long sunday8am = time(2016, 7, 10, 8, 0);
+		dwells("s1", wednesday8am, 20 * Time.MS_PER_SEC, 10);
+		dwells("s1", saturday8am, 40 * Time.MS_PER_SEC, 10);
+		dwells("s1", sunday8am, 60 * Time.MS_PER_SEC, 10);
+
+		// All weekdays share a slot
+		long friday830am = time(2016, 7, 8, 8, 30);
+		assertEquals(20 * Time.MS_PER_SEC,
+				model.getDwellTime("s1", friday830am));
+		assertEquals(40 * Time.MS_PER_SEC,
+				model.getDwellTime("s1", saturday8am + 59 * Time.MS_PER_MIN));
+		assertEquals(60 * Time.MS_PER_SEC, model.getDwellTime("s1", sunday8am));
+
+		// Different hour of the same day
+		assertEquals(-1, model.getDwellTime("s1", time(2016, 7, 6, 9, 0)));
+		assertEquals(-1, model.getDwellTime("s1", time(2016, 7, 6, 7, 59)));
+	}
+}
@@ -0,0 +1,229 @@
+package org.transitime.core.dataCache;
+
+import static org.junit.Assert.*;
+
+import java.util.Calendar;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.transitime.utils.Time;
+
+/**
+ * Tests for looking up the travel and dwell times of previous days from the
+ * ring buffer of days of the StopPathHistoryIndex, including for trips that
+ * run past midnight.
+ */
+public class TestStopPathHistoryIndex {
+
+	private static final int NUM_STOP_PATHS = 3;
+
+	private static final int TRIP_START_SECS = 8 * Time.SEC_PER_HOUR;
+
+	private StopPathHistoryIndex index;
+
+	// Day number of the first day that is used
+	private int firstDay;
+
+	@Before
+	public void setUp() {
+		index = new StopPathHistoryIndex(5);
+		firstDay = StopPathHistoryIndex.dayNumber(time(0, 0));
+	}
+
+	/**
+	 * @return epoch time for the seconds into the day, for the day that is
+	 *         the specified number of days after the first day, in the
+	 *         default time zone
+	 */
+	private static long time(int days, int secsIntoDay) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(2016, Calendar.JULY, 6);
+		calendar.add(Calendar.DAY_OF_YEAR, days);
+		calendar.add(Calendar.SECOND, secsIntoDay);
+		return calendar.getTimeInMillis();
+	}
+
+	private void put(String tripId, int stopPathIndex, long time,
+			boolean isArrival, int tripStartSecs) {
+		index.putArrivalDeparture(new StubArrivalDeparture("v1", tripId,
+				stopPathIndex, "s" + stopPathIndex, time, isArrival),
+				NUM_STOP_PATHS, tripStartSecs);
+	}
+
+	private void put(String tripId, int stopPathIndex, long time,
+			boolean isArrival) {
+		put(tripId, stopPathIndex, time, isArrival, TRIP_START_SECS);
+	}
+
+	/**
+	 * Puts in the trip leaving the first stop at departureSecs into the day,
+	 * taking travelSecs to get to the second stop and then dwelling there
+	 * for dwellSecs.
+	 */
+	private void trip(String tripId, int days, int departureSecs,
+			int travelSecs, int dwellSecs) {
+		put(tripId, 0, time(days, departureSecs), false, departureSecs);
+		put(tripId, 1, time(days, departureSecs + travelSecs), true,
+				departureSecs);
+		put(tripId, 1, time(days, departureSecs + travelSecs + dwellSecs),
+				false, departureSecs);
+	}
+
+	/**
+	 * Puts in the trip leaving the first stop at 8am
+	 */
+	private void trip(String tripId, int days, int travelSecs,
+			int dwellSecs) {
+		trip(tripId, days, TRIP_START_SECS, travelSecs, dwellSecs);
+	}
+
+	private int[] travelTimes(String tripId, int startDays, int lookBack) {
+		int[] times = new int[10];
+		int count = index.getTravelTimes(tripId, 1, firstDay + startDays,
+				lookBack, times);
+		int[] result = new int[count];
+		System.arraycopy(times, 0, result, 0, count);
+		return result;
+	}
+
+	@Test
+	public void testTravelAndDwellTimes() {
+		trip("t1", 0, 100, 10);
+		trip("t1", 1, 200, 20);
+		trip("t1", 2, 300, 30);
+
+		// Most recent day first and not including the start day
+		assertArrayEquals(new int[] { 200000, 100000 },
+				travelTimes("t1", 2, 5));
+
+		int[] times = new int[10];
+		assertEquals(3, index.getDwellTimes("t1", 1, firstDay + 3, 5, times));
+		assertEquals(30000, times[0]);
+		assertEquals(20000, times[1]);
+		assertEquals(10000, times[2]);
+
+		// No travel time for the first stop path, and nothing for other trips
+		assertEquals(0, index.getTravelTimes("t1", 0, firstDay + 3, 5, times));
+		assertEquals(0, index.getTravelTimes("t2", 1, firstDay + 3, 5, times));
+
+		// Only as many times as fit in the array
+		assertEquals(1, index.getTravelTimes("t1", 1, firstDay + 3, 5,
+				new int[1]));
+	}
+
+	@Test
+	public void testFirstEventOfDayUsed() {
+		trip("t1", 0, 100, 10);
+		// Second arrival on the same day is ignored
+		put("t1", 1, time(0, 8 * Time.SEC_PER_HOUR + 500), true);
+		assertArrayEquals(new int[] { 100000 }, travelTimes("t1", 1, 5));
+	}
+
+	@Test
+	public void testMissingDaysSkipped() {
+		// No data for day 1 and only a departure for day 3, so those days
+		// are skipped like HistoricalPredictionLibrary.lastDaysTimes() does
+		trip("t1", 0, 100, 10);
+		trip("t1", 2, 300, 30);
+		put("t1", 0, time(3, 8 * Time.SEC_PER_HOUR), false);
+
+		assertArrayEquals(new int[] { 300000, 100000 },
+				travelTimes("t1", 4, 5));
+
+		// Look back only covers days 3 and 2
+		assertArrayEquals(new int[] { 300000 }, travelTimes("t1", 4, 2));
+
+		// Nothing found when looking back only over missing days
+		assertArrayEquals(new int[0], travelTimes("t1", 2, 1));
+	}
+
+	@Test
+	public void testWraparound() {
+		// Index keeps 5 days so day 5 reuses the slot of day 0
+		for (int days = 0; days <= 6; ++days)
+			trip("t1", days, 100 + days, 10);
+
+		assertArrayEquals(new int[] { 106000, 105000, 104000, 103000,
+				102000 }, travelTimes("t1", 7, 10));
+
+		// Days 0 and 1 have been replaced so looking back from day 2 finds
+		// nothing, and the look back is limited to the days in the index
+		assertArrayEquals(new int[0], travelTimes("t1", 2, 5));
+		assertArrayEquals(new int[] { 106000, 105000, 104000, 103000,
+				102000 }, travelTimes("t1", 7, 7));
+
+		// Old data, such as when filling the cache from the db, doesn't
+		// replace a newer day in the same slot
+		trip("t1", 1, 500, 10);
+		assertArrayEquals(new int[0], travelTimes("t1", 2, 5));
+		assertArrayEquals(new int[] { 106000 }, travelTimes("t1", 7, 1));
+	}
+
+	@Test
+	public void testDayKeying() {
+		// Times just after midnight and just before the next midnight are
+		// the same day in the default time zone
+		assertEquals(firstDay, StopPathHistoryIndex.dayNumber(time(0, 1)));
+		assertEquals(firstDay, StopPathHistoryIndex.dayNumber(
+				time(0, Time.SEC_PER_DAY - 1)));
+		assertEquals(firstDay + 1,
+				StopPathHistoryIndex.dayNumber(time(1, 0)));
+
+		// A trip late in the evening is keyed on its own day
+		int lateDeparture = Time.SEC_PER_DAY - 10 * Time.SEC_PER_MIN;
+		put("t1", 0, time(0, lateDeparture), false, lateDeparture);
+		put("t1", 1, time(0, lateDeparture + 120), true, lateDeparture);
+		assertArrayEquals(new int[] { 120000 }, travelTimes("t1", 1, 1));
+		assertArrayEquals(new int[0], travelTimes("t1", 0, 1));
+	}
+
+	@Test
+	public void testServiceDayNumber() {
+		// Events after midnight of a trip that started the evening before
+		int lateStart = 23 * Time.SEC_PER_HOUR + 50 * Time.SEC_PER_MIN;
+		assertEquals(firstDay, StopPathHistoryIndex.serviceDayNumber(
+				time(1, 20 * Time.SEC_PER_MIN), lateStart));
+
+		// Trip with a start time past midnight, as GTFS allows, that
+		// departs a bit early
+		int afterMidnightStart = Time.SEC_PER_DAY + 10 * Time.SEC_PER_MIN;
+		assertEquals(firstDay, StopPathHistoryIndex.serviceDayNumber(
+				time(1, 8 * Time.SEC_PER_MIN), afterMidnightStart));
+
+		// Trip starting just after midnight that departs a bit early
+		assertEquals(firstDay + 1, StopPathHistoryIndex.serviceDayNumber(
+				time(0, Time.SEC_PER_DAY - 2 * Time.SEC_PER_MIN),
+				5 * Time.SEC_PER_MIN));
+	}
+
+	@Test
+	public void testTripAcrossMidnight() {
+		// Leaves the first stop at 23:50 and gets to the second one 15
+		// minutes later, after midnight, for each of the first two days
+		int lateStart = 23 * Time.SEC_PER_HOUR + 50 * Time.SEC_PER_MIN;
+		trip("t1", 0, lateStart, 15 * Time.SEC_PER_MIN, 60);
+		trip("t1", 1, lateStart, 16 * Time.SEC_PER_MIN, 90);
+
+		// Both days are found with the whole travel and dwell times
+		assertArrayEquals(new int[] { 960000, 900000 },
+				travelTimes("t1", 2, 5));
+		int[] times = new int[10];
+		assertEquals(2, index.getDwellTimes("t1", 1, firstDay + 2, 5, times));
+		assertEquals(90000, times[0]);
+		assertEquals(60000, times[1]);
+
+		// The first trip is keyed on the day it started
+		assertArrayEquals(new int[] { 900000 }, travelTimes("t1", 1, 1));
+	}
+
+	@Test
+	public void testNumStopPathsChanged() {
+		trip("t1", 0, 100, 10);
+		// New configuration with a different number of stop paths starts a
+		// new history for the trip
+		index.putArrivalDeparture(new StubArrivalDeparture("v1", "t1", 0,
+				"s0", time(1, 0), false), NUM_STOP_PATHS + 1, TRIP_START_SECS);
+		assertArrayEquals(new int[0], travelTimes("t1", 1, 5));
+	}
+}
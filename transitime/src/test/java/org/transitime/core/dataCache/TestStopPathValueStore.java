@@ -0,0 +1,198 @@
+package org.transitime.core.dataCache;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for replaying, coalescing and compacting the persistent store of
+ * stop path values.
+ */
+public class TestStopPathValueStore {
+
+	private File file;
+
+	/**
+	 * A cache that just keeps the values keyed on trip, stop path index and
+	 * kind, and counts the records replayed.
+	 */
+	private static class TestCache implements StopPathValueStore.Handler {
+		private final Map<String, Double> values =
+				new LinkedHashMap<String, Double>();
+		private int numLoaded = 0;
+
+		private static String key(String tripId, int stopPathIndex,
+				byte kind) {
+			return tripId + "|" + stopPathIndex + "|" + kind;
+		}
+
+		@Override
+		public void load(String tripId, int stopPathIndex, byte kind,
+				int count, double value) {
+			values.put(key(tripId, stopPathIndex, kind), value);
+			++numLoaded;
+		}
+
+		@Override
+		public void writeSnapshot(StopPathValueStore store)
+				throws IOException {
+			for (Map.Entry<String, Double> entry : values.entrySet()) {
+				String[] parts = entry.getKey().split("\\|");
+				store.writeSnapshotValue(parts[0], Integer.parseInt(parts[1]),
+						Byte.parseByte(parts[2]), 1, entry.getValue());
+			}
+		}
+
+		private void put(StopPathValueStore store, String tripId,
+				int stopPathIndex, byte kind, double value) {
+			values.put(key(tripId, stopPathIndex, kind), value);
+			store.append(tripId, stopPathIndex, kind, 1, value);
+		}
+
+		private Double get(String tripId, int stopPathIndex, byte kind) {
+			return values.get(key(tripId, stopPathIndex, kind));
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("stopPathValues", ".log");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+		new File(file.getPath() + ".tmp").delete();
+	}
+
+	/**
+	 * Opens the store the way StopPathValueStore.open() does, without
+	 * starting the writer thread.
+	 */
+	private StopPathValueStore open(TestCache cache) throws IOException {
+		StopPathValueStore store = new StopPathValueStore("test", file, cache);
+		store.load();
+		store.compact();
+		return store;
+	}
+
+	@Test
+	public void testReplay() throws IOException {
+		TestCache cache = new TestCache();
+		StopPathValueStore store = open(cache);
+		cache.put(store, "t1", 0, (byte) 1, 10.0);
+		cache.put(store, "t1", 0, (byte) 2, 20.0);
+		cache.put(store, "t2", 5, (byte) 1, 30.0);
+		assertEquals(3, store.writePending());
+		cache.put(store, "t1", 0, (byte) 1, 11.0);
+		assertEquals(1, store.writePending());
+		store.closeLog();
+
+		TestCache reloaded = new TestCache();
+		open(reloaded).closeLog();
+		assertEquals(4, reloaded.numLoaded);
+		assertEquals(cache.values, reloaded.values);
+		assertEquals(11.0, reloaded.get("t1", 0, (byte) 1), 0.0);
+	}
+
+	@Test
+	public void testUpdatesCoalesced() throws IOException {
+		TestCache cache = new TestCache();
+		StopPathValueStore store = open(cache);
+		for (int i = 0; i < 10; ++i)
+			cache.put(store, "t1", 3, (byte) 1, i);
+		cache.put(store, "t1", 4, (byte) 1, 100.0);
+		assertEquals(2, store.writePending());
+		assertEquals(0, store.writePending());
+		store.closeLog();
+
+		TestCache reloaded = new TestCache();
+		open(reloaded).closeLog();
+		assertEquals(9.0, reloaded.get("t1", 3, (byte) 1), 0.0);
+		assertEquals(100.0, reloaded.get("t1", 4, (byte) 1), 0.0);
+	}
+
+	@Test
+	public void testTornFinalRecordIgnored() throws IOException {
+		TestCache cache = new TestCache();
+		StopPathValueStore store = open(cache);
+		cache.put(store, "t1", 0, (byte) 1, 10.0);
+		store.writePending();
+		long lengthAfterFirst = file.length();
+		cache.put(store, "t1", 1, (byte) 1, 20.0);
+		store.writePending();
+		store.closeLog();
+
+		// Only part of the second record made it to disk
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(file.length() - 3);
+		raf.close();
+
+		TestCache reloaded = new TestCache();
+		open(reloaded).closeLog();
+		assertEquals(1, reloaded.numLoaded);
+		assertEquals(10.0, reloaded.get("t1", 0, (byte) 1), 0.0);
+		assertNull(reloaded.get("t1", 1, (byte) 1));
+
+		// Compacting on open removed the partial record
+		assertEquals(lengthAfterFirst, file.length());
+	}
+
+	@Test
+	public void testBadCrcRejected() throws IOException {
+		TestCache cache = new TestCache();
+		StopPathValueStore store = open(cache);
+		cache.put(store, "t1", 0, (byte) 1, 10.0);
+		store.writePending();
+		cache.put(store, "t1", 1, (byte) 1, 20.0);
+		store.writePending();
+		store.closeLog();
+
+		// Corrupt the value of the second record, which is just before its
+		// 8 byte CRC
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(file.length() - 9);
+		raf.write(raf.read() ^ 0xFF);
+		raf.close();
+
+		TestCache reloaded = new TestCache();
+		open(reloaded).closeLog();
+		assertEquals(1, reloaded.numLoaded);
+		assertNull(reloaded.get("t1", 1, (byte) 1));
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		TestCache cache = new TestCache();
+		StopPathValueStore store = open(cache);
+		for (int i = 0; i < 20; ++i) {
+			cache.put(store, "t1", 0, (byte) 1, i);
+			cache.put(store, "t1", 1, (byte) 1, -i);
+			store.writePending();
+		}
+		long uncompactedLength = file.length();
+		store.compact();
+		assertTrue(file.length() < uncompactedLength);
+
+		// Updates after compacting are appended to the snapshot
+		cache.put(store, "t2", 0, (byte) 1, 5.0);
+		store.writePending();
+		store.closeLog();
+
+		TestCache reloaded = new TestCache();
+		open(reloaded).closeLog();
+		assertEquals(3, reloaded.numLoaded);
+		assertEquals(cache.values, reloaded.values);
+		assertEquals(19.0, reloaded.get("t1", 0, (byte) 1), 0.0);
+		assertEquals(-19.0, reloaded.get("t1", 1, (byte) 1), 0.0);
+	}
+}
@@ -0,0 +1,139 @@
+package org.transitime.core.predictiongenerator.kalman;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests that the Kalman filter on primitive arrays gives the same gain,
+ * prediction and filter error as the previous object based implementation
+ * of KalmanPrediction.predict(), which is reproduced here as the reference.
+ */
+public class TestKalmanFilter {
+
+	private static final double DELTA = 1e-9;
+
+	/**
+	 * The gain, prediction and filter error as calculated by the previous
+	 * implementation of KalmanPrediction.
+	 */
+	private static class Reference {
+		private final double variance;
+		private final double gain;
+		private final double prediction;
+		private final double filterError;
+
+		private Reference(long[] historicalDurations,
+				long lastVehicleDuration, double lastPredictionError) {
+			long total = 0;
+			for (long duration : historicalDurations)
+				total = total + duration;
+			double average = (double) (total / historicalDurations.length);
+
+			double varianceTotal = 0;
+			for (long duration : historicalDurations) {
+				double diff = duration - average;
+				varianceTotal = varianceTotal + diff * diff;
+			}
+			variance = varianceTotal / historicalDurations.length;
+
+			gain = (lastPredictionError + variance)
+					/ (lastPredictionError + (2 * variance));
+			double loopGain = 1 - gain;
+			prediction = (loopGain * lastVehicleDuration) + (gain
+					* historicalDurations[historicalDurations.length - 1]);
+			filterError = variance * gain;
+		}
+	}
+
+	private static TripSegment segment(long duration) {
+		Vehicle vehicle = new Vehicle("v1");
+		return new TripSegment(new VehicleStopDetail(null, 1000, vehicle),
+				new VehicleStopDetail(null, 1000 + duration, vehicle));
+	}
+
+	@Test
+	public void testKnownValues() throws Exception {
+		// Same values as KalmanPrediction.main()
+		KalmanPredictionResult result = new KalmanPrediction().predict(
+				segment(300), new TripSegment[] { segment(380), segment(420),
+						segment(400) }, 72.40);
+		assertTrue(result.getResult() > 355 && result.getResult() < 356);
+		assertTrue(result.getFilterError() > 149
+				&& result.getFilterError() < 150);
+
+		Reference reference = new Reference(new long[] { 380, 420, 400 }, 300,
+				72.40);
+		assertEquals(reference.prediction, result.getResult(), DELTA);
+		assertEquals(reference.filterError, result.getFilterError(), DELTA);
+	}
+
+	@Test
+	public void testMatchesPreviousImplementation() throws Exception {
+		Random random = new Random(42);
+		for (int test = 0; test < 1000; ++test) {
+			int numDays = 1 + random.nextInt(5);
+			long[] historical = new long[numDays];
+			TripSegment[] segments = new TripSegment[numDays];
+			for (int d = 0; d < numDays; ++d) {
+				historical[d] = 10000 + random.nextInt(600000);
+				segments[d] = segment(historical[d]);
+			}
+			long lastVehicle = 10000 + random.nextInt(600000);
+			double lastPredictionError = random.nextDouble() * 1.0e9;
+
+			Reference reference =
+					new Reference(historical, lastVehicle, lastPredictionError);
+			KalmanPredictionResult result = new KalmanPrediction().predict(
+					segment(lastVehicle), segments, lastPredictionError);
+			assertEquals(reference.prediction, result.getResult(), DELTA);
+			assertEquals(reference.filterError, result.getFilterError(),
+					DELTA * Math.max(1, reference.filterError));
+		}
+	}
+
+	@Test
+	public void testBatchOfPaths() {
+		// Three stop paths with different numbers of days, using a stride
+		// larger than the number of days like KalmanPredictionGeneratorImpl
+		int daysPerPath = 4;
+		long[][] historical = new long[][] {
+				{ 60000, 65000, 62000 },
+				{ 120000 },
+				{ 30000, 45000, 40000, 35000 } };
+		double[] lastVehicle = new double[] { 61000, 110000, 50000 };
+		double[] lastPredictionErrors = new double[] { 1000000, 5, 0 };
+
+		int[] durations = new int[historical.length * daysPerPath];
+		int[] numDays = new int[historical.length];
+		for (int i = 0; i < historical.length; ++i) {
+			numDays[i] = historical[i].length;
+			for (int d = 0; d < historical[i].length; ++d)
+				durations[i * daysPerPath + d] = (int) historical[i][d];
+		}
+		double[] predictions = new double[historical.length];
+		double[] filterErrors = new double[historical.length];
+		KalmanFilter.predict(historical.length, durations, daysPerPath,
+				numDays, lastVehicle, lastPredictionErrors, predictions,
+				filterErrors);
+
+		for (int i = 0; i < historical.length; ++i) {
+			Reference reference = new Reference(historical[i],
+					(long) lastVehicle[i], lastPredictionErrors[i]);
+			assertEquals(reference.prediction, predictions[i], DELTA);
+			assertEquals(reference.filterError, filterErrors[i], DELTA);
+
+			// The filter error is the variance times the gain
+			if (reference.variance != 0)
+				assertEquals(reference.gain,
+						filterErrors[i] / reference.variance, DELTA);
+		}
+
+		// A single day has no variance so the gain is 1 and the prediction
+		// is that day's duration
+		assertEquals(120000, predictions[1], DELTA);
+		assertEquals(0, filterErrors[1], DELTA);
+	}
+}
@@ -0,0 +1,183 @@
+package org.transitime.db.archive;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests writing and reading back columnar archive files.
+ */
+public class TestArchiveFile {
+
+	enum Kind { FIRST, SECOND }
+
+	// Not a real db class but has the same kinds of fields
+	static class Record {
+		private String vehicleId;
+		private Date time;
+		private Integer optionalCount;
+		private float speed;
+		private double lat;
+		private boolean atStop;
+		private Kind kind;
+		private transient String notArchived;
+
+		@SuppressWarnings("unused")
+		private Record() {
+		}
+
+		Record(String vehicleId, long time, Integer optionalCount, int i) {
+			this.vehicleId = vehicleId;
+			this.time = new Date(time);
+			this.optionalCount = optionalCount;
+			this.speed = i * 0.5f;
+			this.lat = 37.0 + i / 1000.0;
+			this.atStop = i % 3 == 0;
+			this.kind = i % 2 == 0 ? Kind.FIRST : Kind.SECOND;
+			this.notArchived = "x";
+		}
+	}
+
+	static class SubRecord extends Record {
+		private SubRecord() {
+		}
+
+		SubRecord(String vehicleId, long time, int i) {
+			super(vehicleId, time, null, i);
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		ArchiveCodec<Record> codec = new ArchiveCodec<Record>(Record.class,
+				"time");
+		File file = File.createTempFile("archive", ".tcol");
+		try {
+			long start = 1400000000000L;
+			List<Record> records = new ArrayList<Record>();
+			for (int i = 0; i < 1000; ++i) {
+				records.add(i % 4 == 0 ? new SubRecord("v" + (i % 7),
+						start + i * 1000L, i) : new Record("v" + (i % 7),
+						start + i * 1000L, i % 5 == 0 ? null : i, i));
+			}
+
+			ArchiveFileWriter<Record> writer =
+					new ArchiveFileWriter<Record>(file, codec, 64);
+			for (Record record : records)
+				writer.add(record);
+			writer.close();
+
+			ArchiveFileReader<Record> reader =
+					new ArchiveFileReader<Record>(file, codec);
+			assertEquals(1000, reader.getNumRows());
+			assertEquals(start, reader.getMinTime());
+			assertEquals(start + 999000L, reader.getMaxTime());
+
+			// Everything
+			List<Record> all = reader.read(start, start + 1000000L);
+			assertEquals(1000, all.size());
+			for (int i = 0; i < 1000; ++i) {
+				Record expected = records.get(i);
+				Record actual = all.get(i);
+				assertEquals(expected.getClass(), actual.getClass());
+				assertEquals(expected.vehicleId, actual.vehicleId);
+				assertEquals(expected.time, actual.time);
+				assertEquals(expected.optionalCount, actual.optionalCount);
+				assertEquals(expected.speed, actual.speed, 0.0);
+				assertEquals(expected.lat, actual.lat, 0.0);
+				assertEquals(expected.atStop, actual.atStop);
+				assertEquals(expected.kind, actual.kind);
+				assertNull(actual.notArchived);
+			}
+
+			// A range in the middle, end exclusive
+			List<Record> some = reader.read(start + 100000L, start + 200000L);
+			assertEquals(100, some.size());
+			assertEquals(start + 100000L, some.get(0).time.getTime());
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Writes an archive with a single block and then changes the lengths
+	 * stored for the first column of the block, so that the compressed data
+	 * is truncated or is shorter than expected once decompressed.
+	 */
+	private static void checkCorruptBlockRejected(boolean truncated)
+			throws Exception {
+		ArchiveCodec<Record> codec = new ArchiveCodec<Record>(Record.class,
+				"time");
+		File file = File.createTempFile("archive", ".tcol");
+		try {
+			ArchiveFileWriter<Record> writer =
+					new ArchiveFileWriter<Record>(file, codec, 64);
+			for (int i = 0; i < 10; ++i)
+				writer.add(new Record("v" + i, 1000L * i, i, i));
+			writer.close();
+
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.seek(raf.length() - 12);
+				long indexOffset = raf.readLong();
+				raf.seek(indexOffset + 4 + 16);
+				long blockOffset = raf.readLong();
+				raf.seek(blockOffset + 4);
+				int rawLength = raf.readInt();
+				int compressedLength = raf.readInt();
+				raf.seek(blockOffset + 4);
+				raf.writeInt(truncated ? rawLength : rawLength + 10);
+				raf.writeInt(truncated ? compressedLength / 2
+						: compressedLength);
+			} finally {
+				raf.close();
+			}
+
+			try {
+				new ArchiveFileReader<Record>(file, codec).read(0L, 100000L);
+				fail("Corrupt block should not be read");
+			} catch (IOException e) {
+				assertTrue(e.getMessage(),
+						e.getMessage().startsWith("Corrupt block 0"));
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testTruncatedBlock() throws Exception {
+		checkCorruptBlockRejected(true);
+	}
+
+	@Test(timeout = 10000)
+	public void testShortBlock() throws Exception {
+		checkCorruptBlockRejected(false);
+	}
+
+	@Test
+	public void testOutOfOrder() throws Exception {
+		ArchiveCodec<Record> codec = new ArchiveCodec<Record>(Record.class,
+				"time");
+		File file = File.createTempFile("archive", ".tcol");
+		ArchiveFileWriter<Record> writer =
+				new ArchiveFileWriter<Record>(file, codec, 64);
+		try {
+			writer.add(new Record("v", 2000L, null, 1));
+			writer.add(new Record("v", 1000L, null, 2));
+			fail("Records out of time order should not be accepted");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		} finally {
+			writer.abort();
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package org.transitime.db.structs;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.transitime.utils.BucketedHistogram;
+
+/**
+ * Tests that the db columns for the sparse histograms of the rollups are
+ * long enough so that the histograms are never truncated.
+ */
+public class TestHistogramColumns {
+
+	@Test
+	public void testPredictionAccuracyAggregate() {
+		BucketedHistogram histogram = new BucketedHistogram(
+				PredictionAccuracyAggregate.ERROR_BOUNDARIES_SECS);
+		assertTrue(histogram.getMaxSparseStringLength(Integer.MAX_VALUE)
+				<= PredictionAccuracyAggregate.MAX_HISTOGRAM_LENGTH);
+	}
+
+	@Test
+	public void testScheduleAdherenceRollup() {
+		BucketedHistogram histogram = new BucketedHistogram(
+				ScheduleAdherenceRollup.DEVIATION_BOUNDARIES_SECS);
+		assertTrue(histogram.getMaxSparseStringLength(Integer.MAX_VALUE)
+				<= ScheduleAdherenceRollup.MAX_HISTOGRAM_LENGTH);
+	}
+}
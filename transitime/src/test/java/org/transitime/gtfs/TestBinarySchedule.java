@@ -0,0 +1,133 @@
+package org.transitime.gtfs;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.transitime.db.structs.Location;
+import org.transitime.db.structs.ScheduleTime;
+import org.transitime.db.structs.StopPath;
+import org.transitime.db.structs.Trip;
+import org.transitime.gtfs.gtfsStructs.GtfsTrip;
+
+/**
+ * Tests for writing and reading the memory mapped binary schedule.
+ */
+public class TestBinarySchedule {
+
+	private static final int CONFIG_REV = 7;
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("schedule", ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private static Trip trip(String tripId, ScheduleTime... times) {
+		GtfsTrip gtfsTrip = new GtfsTrip("r1", "weekday", tripId, "Downtown",
+				null, "0", "b1", "s1");
+		Trip trip = new Trip(CONFIG_REV, gtfsTrip, null, "1", "Downtown",
+				new TitleFormatter(null, false));
+		trip.addScheduleTimes(Arrays.asList(times));
+		return trip;
+	}
+
+	private static StopPath path(String tripPatternId, String stopPathId,
+			Location... locations) {
+		StopPath path = new StopPath(CONFIG_REV, stopPathId, "stop1", 1,
+				false, "r1", false, false, false, null);
+		path.setTripPatternId(tripPatternId);
+		path.setLocations(new ArrayList<Location>(Arrays.asList(locations)));
+		return path;
+	}
+
+	@Test
+	public void testScheduleTimes() throws IOException {
+		Trip trip1 = trip("t1", new ScheduleTime(null, 3600),
+				new ScheduleTime(3700, 3720), new ScheduleTime(3800, null));
+		Trip trip2 = trip("t2", new ScheduleTime(null, 3600),
+				new ScheduleTime(3900, 3900));
+		BinarySchedule.write(file, CONFIG_REV, Arrays.asList(trip1, trip2),
+				new ArrayList<StopPath>());
+		BinarySchedule schedule = BinarySchedule.open(file, CONFIG_REV);
+
+		int index1 = schedule.getTripIndex("t1", 3600);
+		int index2 = schedule.getTripIndex("t2", 3600);
+		assertTrue(index1 >= 0 && index2 >= 0 && index1 != index2);
+		assertEquals(-1, schedule.getTripIndex("t3", 3600));
+
+		assertEquals(trip1.getScheduleTimes(),
+				schedule.getScheduleTimes(index1));
+		assertEquals(trip2.getScheduleTimes(),
+				schedule.getScheduleTimes(index2));
+
+		// Identical schedule times are shared instead of being created for
+		// each access
+		assertSame(schedule.getScheduleTime(index1, 0),
+				schedule.getScheduleTime(index2, 0));
+		assertSame(schedule.getScheduleTime(index1, 1),
+				schedule.getScheduleTime(index1, 1));
+		assertNull(schedule.getScheduleTime(index1, 2).getDepartureTime());
+	}
+
+	@Test
+	public void testFrequencyTripsShareTripId() throws IOException {
+		Trip trip = trip("t1", new ScheduleTime(null, 0),
+				new ScheduleTime(600, 600));
+		Trip firstRun = new Trip(trip, 6 * 3600);
+		Trip secondRun = new Trip(trip, 7 * 3600);
+		BinarySchedule.write(file, CONFIG_REV,
+				Arrays.asList(firstRun, secondRun), new ArrayList<StopPath>());
+		BinarySchedule schedule = BinarySchedule.open(file, CONFIG_REV);
+
+		int firstIndex = schedule.getTripIndex("t1", 6 * 3600);
+		int secondIndex = schedule.getTripIndex("t1", 7 * 3600);
+		assertTrue(firstIndex >= 0 && secondIndex >= 0);
+		assertEquals(firstRun.getScheduleTimes(),
+				schedule.getScheduleTimes(firstIndex));
+		assertEquals(secondRun.getScheduleTimes(),
+				schedule.getScheduleTimes(secondIndex));
+		assertEquals(-1, schedule.getTripIndex("t1", 8 * 3600));
+	}
+
+	@Test
+	public void testLocations() throws IOException {
+		StopPath path = path("tp1", "a_to_b", new Location(37.7749, -122.4194),
+				new Location(37.7755, -122.4180),
+				new Location(37.7760, -122.4170));
+		BinarySchedule.write(file, CONFIG_REV, new ArrayList<Trip>(),
+				Arrays.asList(path));
+		BinarySchedule schedule = BinarySchedule.open(file, CONFIG_REV);
+
+		List<Location> locations = schedule.getLocations("tp1", "a_to_b");
+		assertEquals(3, locations.size());
+		for (int i = 0; i < locations.size(); ++i) {
+			assertEquals(path.getLocation(i).getLat(),
+					locations.get(i).getLat(), 1e-6);
+			assertEquals(path.getLocation(i).getLon(),
+					locations.get(i).getLon(), 1e-6);
+		}
+		assertNull(schedule.getLocations("tp1", "b_to_c"));
+		assertNull(schedule.getLocations("tp2", "a_to_b"));
+	}
+
+	@Test(expected = IOException.class)
+	public void testWrongConfigRev() throws IOException {
+		BinarySchedule.write(file, CONFIG_REV, new ArrayList<Trip>(),
+				new ArrayList<StopPath>());
+		BinarySchedule.open(file, CONFIG_REV + 1);
+	}
+}
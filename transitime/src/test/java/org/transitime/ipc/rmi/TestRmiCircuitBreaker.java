@@ -0,0 +1,109 @@
+package org.transitime.ipc.rmi;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Tests for the trial call of a half open RmiCircuitBreaker, including when
+ * the RMI call making the trial is interrupted.
+ */
+public class TestRmiCircuitBreaker {
+
+	public interface TestServer extends Remote {
+		String getValue() throws RemoteException;
+	}
+
+	/**
+	 * A server whose calls block until interrupted
+	 */
+	private static class BlockingServer implements TestServer {
+		private final CountDownLatch called = new CountDownLatch(1);
+
+		@Override
+		public String getValue() throws RemoteException {
+			called.countDown();
+			try {
+				Thread.sleep(Long.MAX_VALUE);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return "value";
+		}
+	}
+
+	/**
+	 * @return circuit breaker that has just become half open
+	 */
+	private static RmiCircuitBreaker halfOpen(String agencyId) {
+		RmiCircuitBreaker circuitBreaker = RmiCircuitBreaker.get(agencyId);
+		for (int i = 0; i < 5; ++i)
+			circuitBreaker.recordFailure();
+		assertFalse(circuitBreaker.allowCall());
+		circuitBreaker.serverReachable();
+		assertEquals("halfOpen", circuitBreaker.getState());
+		return circuitBreaker;
+	}
+
+	@Test
+	public void testSingleTrialCall() {
+		RmiCircuitBreaker circuitBreaker = halfOpen("singleTrial");
+		assertTrue(circuitBreaker.allowCall());
+		assertFalse(circuitBreaker.allowCall());
+
+		// Trial call not made so another one is allowed
+		circuitBreaker.callNotMade();
+		assertTrue(circuitBreaker.allowCall());
+
+		// Trial call succeeded so circuit closed
+		circuitBreaker.recordSuccess();
+		assertEquals("closed", circuitBreaker.getState());
+		assertTrue(circuitBreaker.allowCall());
+		assertTrue(circuitBreaker.allowCall());
+	}
+
+	@Test
+	public void testInterruptedTrialCallReleased() throws Exception {
+		String agencyId = "interruptedTrial";
+		RmiCircuitBreaker circuitBreaker = halfOpen(agencyId);
+
+		BlockingServer server = new BlockingServer();
+		final TestServer proxy = (TestServer) Proxy.newProxyInstance(
+				TestServer.class.getClassLoader(),
+				new Class<?>[] { TestServer.class },
+				new RmiCallInvocationHandler(server,
+						new RmiStubInfo(agencyId, "TestServer")));
+
+		final AtomicReference<Exception> exception =
+				new AtomicReference<Exception>();
+		Thread caller = new Thread() {
+			@Override
+			public void run() {
+				try {
+					proxy.getValue();
+				} catch (Exception e) {
+					exception.set(e);
+				}
+			}
+		};
+		caller.start();
+
+		// Interrupt the caller while the trial call is in process, like
+		// when a fan out to the agencies cancels the calls that are too slow
+		assertTrue(server.called.await(5, TimeUnit.SECONDS));
+		assertFalse(circuitBreaker.allowCall());
+		caller.interrupt();
+		caller.join(5000);
+
+		assertTrue(exception.get() instanceof RemoteException);
+		assertEquals("halfOpen", circuitBreaker.getState());
+		assertTrue(circuitBreaker.allowCall());
+	}
+}
@@ -0,0 +1,38 @@
+package org.transitime.logging;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests that on demand processing traces enable tracing only while there
+ * are vehicles being traced. Uses the default config, where nothing else is
+ * traced.
+ */
+public class TestProcessingTrace {
+
+	@Test
+	public void testOnDemandTraceDisabledWhenDone() throws Exception {
+		ProcessingTrace trace = ProcessingTrace.getInstance();
+		assertFalse(trace.isEnabled());
+
+		// Stopped explicitly
+		trace.traceVehicle("v1", 60);
+		trace.traceVehicle("v2", 60);
+		assertTrue(trace.isEnabled());
+		assertTrue(trace.isTraced("v1", null));
+		assertFalse(trace.isTraced("v3", null));
+		trace.traceVehicle("v1", 0);
+		assertTrue(trace.isEnabled());
+		trace.traceVehicle("v2", 0);
+		assertFalse(trace.isEnabled());
+		assertFalse(trace.isTraced("v2", null));
+
+		// Expired
+		trace.traceVehicle("v1", 1);
+		assertTrue(trace.isTraced("v1", null));
+		Thread.sleep(1100);
+		assertFalse(trace.isTraced("v1", null));
+		assertFalse(trace.isEnabled());
+	}
+}
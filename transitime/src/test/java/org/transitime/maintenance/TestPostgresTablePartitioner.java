@@ -0,0 +1,196 @@
+package org.transitime.maintenance;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests that converting a table to a partitioned one keeps its primary key
+ * and indexes. Uses a fake JDBC connection that records the SQL executed and
+ * returns the indexes of the tables from a map.
+ */
+public class TestPostgresTablePartitioner {
+
+	private final List<String> executed = new ArrayList<String>();
+
+	// The indexes returned by the index query for each table
+	private final Map<String, List<String>> indexes =
+			new HashMap<String, List<String>>();
+
+	private Connection connection() {
+		return (Connection) proxy(Connection.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (name.equals("createStatement"))
+					return proxy(Statement.class, new InvocationHandler() {
+						@Override
+						public Object invoke(Object p, Method m, Object[] a) {
+							if (m.getName().equals("execute"))
+								executed.add((String) a[0]);
+							return m.getReturnType() == boolean.class ?
+									false : null;
+						}
+					});
+				if (name.equals("prepareStatement"))
+					return preparedStatement();
+				return method.getReturnType() == boolean.class ? true : null;
+			}
+		});
+	}
+
+	private PreparedStatement preparedStatement() {
+		final List<String> params = new ArrayList<String>();
+		return (PreparedStatement) proxy(PreparedStatement.class,
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						if (method.getName().equals("setString"))
+							params.add((String) args[1]);
+						if (method.getName().equals("executeQuery")) {
+							List<String> rows = indexes.get(params.get(0));
+							return resultSet(rows != null ? rows
+									: new ArrayList<String>());
+						}
+						return null;
+					}
+				});
+	}
+
+	private static ResultSet resultSet(final List<String> rows) {
+		return (ResultSet) proxy(ResultSet.class, new InvocationHandler() {
+			private int row = -1;
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("next"))
+					return ++row < rows.size();
+				if (method.getName().equals("getString"))
+					return rows.get(row);
+				return null;
+			}
+		});
+	}
+
+	private static Object proxy(Class<?> c, InvocationHandler handler) {
+		return Proxy.newProxyInstance(c.getClassLoader(), new Class<?>[] {c},
+				handler);
+	}
+
+	private static Date date(int year, int month, int day) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(year, month - 1, day);
+		return calendar.getTime();
+	}
+
+	@Test
+	public void testConvertKeepsPrimaryKeyAndIndexes() throws Exception {
+		// Primary key without the time column, and an entity index
+		indexes.put("predictions_p20160701", Arrays.asList(
+				"predictions_pkey|true|true|id",
+				"predictiontimeindex|false|false|creationtime"));
+		new PostgresTablePartitioner(connection()).convertToPartitioned(
+				"Predictions", "creationTime", date(2016, 7, 1),
+				date(2016, 8, 1));
+
+		assertTrue(executed.contains("CREATE TABLE predictions (LIKE "
+				+ "predictions_p20160701 INCLUDING DEFAULTS INCLUDING "
+				+ "CONSTRAINTS) PARTITION BY RANGE (creationTime)"));
+		assertTrue(executed.contains("ALTER TABLE predictions ADD PRIMARY "
+				+ "KEY (\"id\", \"creationtime\")"));
+		assertTrue(executed.contains("CREATE INDEX "
+				+ "predictions_predictiontimeindex ON predictions "
+				+ "(\"creationtime\")"));
+
+		// Indexes are created before attaching so the existing table's
+		// indexes get attached to them
+		int attach = -1;
+		for (int i = 0; i < executed.size(); ++i)
+			if (executed.get(i).contains("ATTACH PARTITION"))
+				attach = i;
+		assertTrue(attach > executed.indexOf("CREATE INDEX "
+				+ "predictions_predictiontimeindex ON predictions "
+				+ "(\"creationtime\")"));
+
+		// Already has a time index so no extra one
+		for (String sql : executed)
+			assertFalse(sql, sql.contains("_creationtime_idx"));
+	}
+
+	@Test
+	public void testConvertAddsTimeIndex() throws Exception {
+		indexes.put("avlreports_p20160701", Arrays.asList(
+				"avlreports_pkey|true|true|vehicleid,time"));
+		new PostgresTablePartitioner(connection()).convertToPartitioned(
+				"AvlReports", "time", date(2016, 7, 1), date(2016, 8, 1));
+
+		assertTrue(executed.contains("ALTER TABLE avlreports ADD PRIMARY "
+				+ "KEY (\"vehicleid\", \"time\")"));
+		assertTrue(executed.contains("CREATE INDEX avlreports_time_idx ON "
+				+ "avlreports (time)"));
+	}
+
+	@Test
+	public void testPredictionAccuracyTimeColumnNotNull() throws Exception {
+		// Missed predictions have a null arrivalDepartureTime so that column
+		// can't be part of the primary key
+		String column =
+				PartitionMaintenanceModule.getTimeColumn("PredictionAccuracy");
+		assertEquals("predictedTime", column);
+
+		indexes.put("predictionaccuracy_p20160701", Arrays.asList(
+				"predictionaccuracy_pkey|true|true|id",
+				"predictionaccuracytimeindex|false|false|"
+						+ "arrivaldeparturetime"));
+		new PostgresTablePartitioner(connection()).convertToPartitioned(
+				"PredictionAccuracy", column, date(2016, 7, 1),
+				date(2016, 8, 1));
+
+		assertTrue(executed.contains("ALTER TABLE predictionaccuracy ADD "
+				+ "PRIMARY KEY (\"id\", \"predictedtime\")"));
+		assertTrue(executed.contains("CREATE INDEX "
+				+ "predictionaccuracy_predictedtime_idx ON "
+				+ "predictionaccuracy (predictedTime)"));
+		for (String sql : executed)
+			assertFalse(sql, sql.contains("PRIMARY KEY")
+					&& sql.contains("arrivaldeparturetime"));
+	}
+
+	@Test
+	public void testAddPartitionUsesInheritedIndexes() throws Exception {
+		// The partition got the time index from the partitioned table
+		indexes.put("avlreports_p20160801", Arrays.asList(
+				"avlreports_p20160801_time_idx|false|false|time"));
+		new PostgresTablePartitioner(connection()).addPartition("AvlReports",
+				"time", date(2016, 8, 1), date(2016, 9, 1));
+		assertEquals(1, executed.size());
+
+		// Table converted before the indexes were copied
+		executed.clear();
+		new PostgresTablePartitioner(connection()).addPartition("AvlReports",
+				"time", date(2016, 9, 1), date(2016, 10, 1));
+		assertEquals(Arrays.asList(
+				"CREATE TABLE avlreports_p20160901 PARTITION OF avlreports "
+						+ "FOR VALUES FROM ('2016-09-01 00:00:00') TO "
+						+ "('2016-10-01 00:00:00')",
+				"CREATE INDEX avlreports_p20160901_time_idx ON "
+						+ "avlreports_p20160901 (time)"), executed);
+	}
+}
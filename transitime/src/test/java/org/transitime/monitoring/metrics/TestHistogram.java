@@ -0,0 +1,68 @@
+package org.transitime.monitoring.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for the lock-free histogram used for metrics.
+ */
+public class TestHistogram {
+
+	@Test
+	public void testStatistics() {
+		Histogram histogram = new Histogram("test");
+		assertTrue(Double.isNaN(histogram.getPercentile(50.0)));
+		assertTrue(Double.isNaN(histogram.getMean()));
+
+		for (int i = 1; i <= 1000; ++i)
+			histogram.record(i);
+
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500500.0, histogram.getSum(), 0.0001);
+		assertEquals(500.5, histogram.getMean(), 0.0001);
+		assertEquals(1.0, histogram.getMin(), 0.0);
+		assertEquals(1000.0, histogram.getMax(), 0.0);
+
+		// Buckets are a quarter of a power of two wide so within 25%
+		assertEquals(500.0, histogram.getPercentile(50.0), 125.0);
+		assertEquals(990.0, histogram.getPercentile(99.0), 10.0);
+		assertEquals(1000.0, histogram.getPercentile(100.0), 0.0);
+	}
+
+	@Test
+	public void testSmallAndNegativeValues() {
+		Histogram histogram = new Histogram("test");
+		histogram.record(-5.0);
+		histogram.record(0.0);
+		histogram.record(0.25);
+		histogram.record(Double.NaN);
+
+		assertEquals(3, histogram.getCount());
+		assertEquals(-5.0, histogram.getMin(), 0.0);
+		assertEquals(0.25, histogram.getMax(), 0.0);
+		assertEquals(-4.75, histogram.getSum(), 0.0001);
+		assertEquals(0.25, histogram.getPercentile(100.0), 0.0);
+	}
+
+	@Test
+	public void testConcurrentRecording() throws InterruptedException {
+		final Histogram histogram = new Histogram("test");
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 10000; ++i)
+						histogram.record(2.0);
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+
+		assertEquals(40000, histogram.getCount());
+		assertEquals(80000.0, histogram.getSum(), 0.0001);
+	}
+}
@@ -0,0 +1,102 @@
+package org.transitime.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for the streaming histogram used for aggregating statistics.
+ */
+public class TestBucketedHistogram {
+
+	private static final long[] BOUNDARIES =
+			BucketedHistogram.createSymmetricBoundaries(
+					new int[] {5, 15, 60}, new int[] {60, 300, 1800});
+
+	@Test
+	public void testBoundaries() {
+		// 12 + 16 + 25 buckets on each side plus the 0 boundary
+		assertEquals(107, BOUNDARIES.length);
+		assertEquals(-1800, BOUNDARIES[0]);
+		assertEquals(0, BOUNDARIES[53]);
+		assertEquals(5, BOUNDARIES[54]);
+		assertEquals(1800, BOUNDARIES[106]);
+	}
+
+	@Test
+	public void testStatistics() {
+		BucketedHistogram histogram = new BucketedHistogram(BOUNDARIES);
+		assertTrue(Double.isNaN(histogram.getQuantile(0.5)));
+
+		for (int i = -100; i <= 100; ++i)
+			histogram.add(i);
+
+		assertEquals(201, histogram.getCount());
+		assertEquals(0.0, histogram.getMean(), 0.0001);
+		assertEquals(-100, histogram.getMin());
+		assertEquals(100, histogram.getMax());
+		assertEquals(0.0, histogram.getQuantile(0.5), 5.0);
+		assertEquals(80.0, histogram.getQuantile(0.9), 15.0);
+		assertEquals(100.0, histogram.getCountBelow(0), 0.0001);
+	}
+
+	@Test
+	public void testSparseRoundTrip() {
+		BucketedHistogram histogram = new BucketedHistogram(BOUNDARIES);
+		histogram.add(-2000);
+		histogram.add(3);
+		histogram.add(3);
+		histogram.add(2500);
+
+		BucketedHistogram copy = new BucketedHistogram(BOUNDARIES);
+		copy.addSparse(histogram.toSparseString(), histogram.getSum(),
+				histogram.getSumOfSquares(), histogram.getMin(),
+				histogram.getMax());
+		assertEquals(histogram.toSparseString(), copy.toSparseString());
+		assertEquals(4, copy.getCount());
+		assertEquals(-2000, copy.getMin());
+		assertEquals(2500, copy.getMax());
+
+		copy.merge(histogram);
+		assertEquals(8, copy.getCount());
+		assertEquals(2 * histogram.getSum(), copy.getSum());
+	}
+
+	@Test
+	public void testEmptySparseIgnoresMinMax() {
+		BucketedHistogram histogram = new BucketedHistogram(BOUNDARIES);
+		histogram.add(30);
+		histogram.add(90);
+
+		// Such as for a rollup row with only missed predictions, which has
+		// the min and max of an empty histogram
+		BucketedHistogram empty = new BucketedHistogram(BOUNDARIES);
+		histogram.addSparse(empty.toSparseString(), empty.getSum(),
+				empty.getSumOfSquares(), empty.getMin(), empty.getMax());
+		assertEquals(2, histogram.getCount());
+		assertEquals(30, histogram.getMin());
+		assertEquals(90, histogram.getMax());
+	}
+
+	@Test
+	public void testMaxSparseStringLength() {
+		BucketedHistogram histogram = new BucketedHistogram(BOUNDARIES);
+		int numBuckets = histogram.getNumBuckets();
+
+		// Total count spread evenly over the buckets is the longest
+		long count = Integer.MAX_VALUE / numBuckets;
+		StringBuilder sparse = new StringBuilder();
+		for (int i = 0; i < numBuckets; ++i)
+			sparse.append(i == 0 ? "" : ",").append(i).append(':').append(count);
+		histogram.addSparse(sparse.toString(), 0, 0, -1800, 1800);
+
+		int maxLength = histogram.getMaxSparseStringLength(Integer.MAX_VALUE);
+		assertTrue(histogram.toSparseString().length() <= maxLength);
+		// The bound is not much larger than needed
+		assertTrue(maxLength < histogram.toSparseString().length() + numBuckets);
+
+		// Few values take a single digit per count
+		assertEquals("0:1".length(), new BucketedHistogram(new long[] {})
+				.getMaxSparseStringLength(1));
+	}
+}
@@ -0,0 +1,55 @@
+package org.transitime.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the streaming quantile estimator used for dwell times.
+ */
+public class TestP2Quantile {
+
+	@Test
+	public void testFewValues() {
+		double[] state = new double[P2Quantile.STATE_SIZE];
+		assertTrue(Double.isNaN(P2Quantile.getQuantile(state, 0, 0.5)));
+
+		P2Quantile.add(state, 0, 0.5, 30);
+		P2Quantile.add(state, 0, 0.5, 10);
+		P2Quantile.add(state, 0, 0.5, 20);
+		assertEquals(3, P2Quantile.getCount(state, 0));
+		assertEquals(20.0, P2Quantile.getQuantile(state, 0, 0.5), 0.0);
+	}
+
+	@Test
+	public void testUniformValues() {
+		// Two estimators in the same array to check the offset handling
+		double[] state = new double[2 * P2Quantile.STATE_SIZE];
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; ++i) {
+			double value = random.nextDouble() * 100.0;
+			P2Quantile.add(state, 0, 0.5, value);
+			P2Quantile.add(state, P2Quantile.STATE_SIZE, 0.9, value);
+		}
+
+		assertEquals(10000, P2Quantile.getCount(state, 0));
+		assertEquals(50.0, P2Quantile.getQuantile(state, 0, 0.5), 2.0);
+		assertEquals(90.0,
+				P2Quantile.getQuantile(state, P2Quantile.STATE_SIZE, 0.9), 2.0);
+	}
+
+	@Test
+	public void testSkewedValues() {
+		// Dwell times are skewed, mostly short with a long tail
+		double[] state = new double[P2Quantile.STATE_SIZE];
+		Random random = new Random(7);
+		for (int i = 0; i < 10000; ++i)
+			P2Quantile.add(state, 0, 0.5, -20.0 * Math.log(random.nextDouble()));
+
+		// Median of exponential with mean 20 is 20*ln(2)
+		assertEquals(20.0 * Math.log(2.0),
+				P2Quantile.getQuantile(state, 0, 0.5), 1.0);
+	}
+}
@@ -0,0 +1,457 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.api.data;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+import org.transitime.api.utils.JsonStreamWriter;
+import org.transitime.db.structs.Agency;
+import org.transitime.db.structs.Extent;
+import org.transitime.db.structs.Location;
+import org.transitime.ipc.data.IpcBlock;
+import org.transitime.ipc.data.IpcDirection;
+import org.transitime.ipc.data.IpcRoute;
+import org.transitime.ipc.data.IpcRouteSummary;
+import org.transitime.ipc.data.IpcSchedTime;
+import org.transitime.ipc.data.IpcSchedTimes;
+import org.transitime.ipc.data.IpcSchedTrip;
+import org.transitime.ipc.data.IpcSchedule;
+import org.transitime.ipc.data.IpcShape;
+import org.transitime.ipc.data.IpcStop;
+import org.transitime.ipc.data.IpcStopPath;
+import org.transitime.ipc.data.IpcTrip;
+import org.transitime.ipc.data.IpcTripPattern;
+import org.transitime.utils.ChinaGpsOffset;
+import org.transitime.utils.MathUtils;
+import org.transitime.utils.Time;
+
+/**
+ * Writes the JSON for the large configuration responses directly from the
+ * IPC objects, without creating the Api* objects first. The JSON has the same
+ * names and values as the corresponding Api* classes, such as
+ * ApiRoutesDetails and ApiBlocks, produce via MOXy, so the two can be used
+ * interchangeably. When one of those classes is changed the corresponding
+ * method here needs to be changed as well.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class ApiJsonStreams {
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Hidden constructor since only static methods
+	 */
+	private ApiJsonStreams() {
+	}
+
+	/**
+	 * Same as ApiTransientLocation
+	 */
+	private static void writeLocation(JsonStreamWriter json, double lat,
+			double lon) throws IOException {
+		ChinaGpsOffset.LatLon latLon = ChinaGpsOffset.transform(lat, lon);
+		json.value("lat", MathUtils.round(latLon.getLat(), 5))
+				.value("lon", MathUtils.round(latLon.getLon(), 5));
+	}
+
+	/**
+	 * Writes array of ApiLocation
+	 */
+	private static void writeLocations(JsonStreamWriter json, String name,
+			List<Location> locs) throws IOException {
+		json.beginArray(name);
+		for (Location loc : locs) {
+			json.beginObject();
+			writeLocation(json, loc.getLat(), loc.getLon());
+			json.endObject();
+		}
+		json.endArray();
+	}
+
+	/**
+	 * Same as ApiExtent
+	 */
+	private static void writeExtent(JsonStreamWriter json, Extent extent)
+			throws IOException {
+		json.beginObject("extent")
+				.value("minLat", MathUtils.round(extent.getMinLat(), 5))
+				.value("minLon", MathUtils.round(extent.getMinLon(), 5))
+				.value("maxLat", MathUtils.round(extent.getMaxLat(), 5))
+				.value("maxLon", MathUtils.round(extent.getMaxLon(), 5))
+				.endObject();
+	}
+
+	/**
+	 * Same as ApiStop
+	 */
+	private static void writeStop(JsonStreamWriter json, IpcStop stop)
+			throws IOException {
+		json.beginObject().value("id", stop.getId());
+		writeLocation(json, stop.getLoc().getLat(), stop.getLoc().getLon());
+		json.value("name", stop.getName())
+				.value("code", stop.getCode())
+				.value("minor", stop.isUiStop() ? null : Boolean.TRUE)
+				.endObject();
+	}
+
+	/**
+	 * Same as ApiDirection
+	 */
+	private static void writeDirection(JsonStreamWriter json,
+			IpcDirection direction) throws IOException {
+		json.beginObject()
+				.value("id", direction.getDirectionId())
+				.value("title", direction.getDirectionTitle())
+				.beginArray("stop");
+		for (IpcStop stop : direction.getStops())
+			writeStop(json, stop);
+		json.endArray().endObject();
+	}
+
+	/**
+	 * Same as ApiShape
+	 */
+	private static void writeShape(JsonStreamWriter json, IpcShape shape)
+			throws IOException {
+		json.beginObject()
+				.value("tripPattern", shape.getTripPatternId())
+				.value("headsign", shape.getHeadsign())
+				.value("minor", shape.isUiShape() ? null : Boolean.TRUE);
+		writeLocations(json, "loc", shape.getLocations());
+		json.endObject();
+	}
+
+	/**
+	 * Same as ApiRouteDetails
+	 */
+	private static void writeRouteDetails(JsonStreamWriter json,
+			IpcRoute route) throws IOException {
+		json.beginObject()
+				.value("id", route.getId())
+				.value("name", route.getName())
+				.value("shortName", route.getShortName())
+				.value("longName", route.getLongName())
+				.value("color", route.getColor())
+				.value("textColor", route.getTextColor())
+				.value("type", route.getType());
+
+		json.beginArray("direction");
+		for (IpcDirection direction : route.getStops().getDirections())
+			writeDirection(json, direction);
+		json.endArray();
+
+		json.beginArray("shape");
+		for (IpcShape shape : route.getShapes())
+			writeShape(json, shape);
+		json.endArray();
+
+		writeExtent(json, route.getExtent());
+
+		Location vehicleLoc = route.getLocationOfNextPredictedVehicle();
+		if (vehicleLoc != null) {
+			json.beginObject("locationOfNextPredictedVehicle");
+			writeLocation(json, vehicleLoc.getLat(), vehicleLoc.getLon());
+			json.endObject();
+		}
+		json.endObject();
+	}
+
+	/**
+	 * Writes same JSON as ApiRoutesDetails
+	 *
+	 * @param json
+	 * @param routes
+	 * @param agency
+	 * @throws IOException
+	 */
+	public static void writeRoutesDetails(JsonStreamWriter json,
+			Collection<IpcRoute> routes, Agency agency) throws IOException {
+		json.beginObject()
+				.value("agency", agency.getName())
+				.beginArray("routes");
+		for (IpcRoute route : routes)
+			writeRouteDetails(json, route);
+		json.endArray().endObject();
+	}
+
+	/**
+	 * Same as ApiStopPath
+	 */
+	private static void writeStopPath(JsonStreamWriter json,
+			IpcStopPath stopPath) throws IOException {
+		json.beginObject()
+				.value("configRev", stopPath.getConfigRev())
+				.value("stopPathId", stopPath.getStopPathId())
+				.value("stopId", stopPath.getStopId())
+				.value("stopName", stopPath.getStopName())
+				.value("gtfsStopSeq", stopPath.getGtfsStopSeq())
+				.value("layoverStop", stopPath.isLayoverStop() ? Boolean.TRUE : null)
+				.value("waitStop", stopPath.isWaitStop() ? Boolean.TRUE : null)
+				.value("scheduleAdherenceStop",
+						stopPath.isScheduleAdherenceStop() ? Boolean.TRUE : null)
+				.value("breakTime", stopPath.getBreakTime() != 0 ?
+						Integer.valueOf(stopPath.getBreakTime()) : null)
+				.value("pathLength",
+						MathUtils.round(stopPath.getPathLength(), 1));
+		writeLocations(json, "locations", stopPath.getLocations());
+		json.endObject();
+	}
+
+	/**
+	 * Same as ApiTripPattern
+	 */
+	private static void writeTripPattern(JsonStreamWriter json,
+			IpcTripPattern tripPattern, boolean includeStopPaths)
+			throws IOException {
+		json.value("configRev", tripPattern.getConfigRev())
+				.value("id", tripPattern.getId())
+				.value("headsign", tripPattern.getHeadsign())
+				.value("directionId", tripPattern.getDirectionId())
+				.value("routeId", tripPattern.getRouteId())
+				.value("routeShortName", tripPattern.getRouteShortName())
+				.value("shapeId", tripPattern.getShapeId());
+		writeExtent(json, tripPattern.getExtent());
+		if (includeStopPaths) {
+			json.beginArray("stopPaths");
+			for (IpcStopPath stopPath : tripPattern.getStopPaths())
+				writeStopPath(json, stopPath);
+			json.endArray();
+		}
+	}
+
+	/**
+	 * Writes same JSON as ApiTripPatterns
+	 *
+	 * @param json
+	 * @param tripPatterns
+	 * @throws IOException
+	 */
+	public static void writeTripPatterns(JsonStreamWriter json,
+			Collection<IpcTripPattern> tripPatterns) throws IOException {
+		json.beginObject().beginArray("tripPatterns");
+		for (IpcTripPattern tripPattern : tripPatterns) {
+			json.beginObject();
+			writeTripPattern(json, tripPattern, true);
+			json.endObject();
+		}
+		json.endArray().endObject();
+	}
+
+	/**
+	 * Same as ApiTrip with includeStopPaths false, as used by ApiBlock
+	 */
+	private static void writeTrip(JsonStreamWriter json, IpcTrip trip)
+			throws IOException {
+		json.beginObject()
+				.value("configRev", trip.getConfigRev())
+				.value("id", trip.getId())
+				.value("shortName", trip.getShortName())
+				.value("startTime", Time.timeOfDayStr(trip.getStartTime()))
+				.value("endTime", Time.timeOfDayStr(trip.getEndTime()))
+				.value("directionId", trip.getDirectionId())
+				.value("routeId", trip.getRouteId())
+				.value("routeShortName", trip.getRouteShortName())
+				.value("serviceId", trip.getServiceId())
+				.value("headsign", trip.getHeadsign())
+				.value("blockId", trip.getBlockId())
+				.value("shapeId", trip.getShapeId())
+				.value("noSchedule", trip.isNoSchedule() ? Boolean.TRUE : null);
+
+		json.beginObject("tripPattern");
+		writeTripPattern(json, trip.getTripPattern(), false);
+		json.endObject();
+
+		json.beginArray("schedule");
+		for (IpcSchedTimes schedTimes : trip.getScheduleTimes()) {
+			Integer arrival = schedTimes.getArrivalTime();
+			Integer departure = schedTimes.getDepartureTime();
+			json.beginObject()
+					.value("arrivalTime", arrival == null ? null
+							: Time.timeOfDayStr(arrival))
+					.value("departureTime", departure == null ? null
+							: Time.timeOfDayStr(departure))
+					.value("stopId", schedTimes.getStopId())
+					.value("stopName", schedTimes.getStopName())
+					.endObject();
+		}
+		json.endArray().endObject();
+	}
+
+	/**
+	 * Writes same JSON as ApiBlocks
+	 *
+	 * @param json
+	 * @param blocks
+	 * @throws IOException
+	 */
+	public static void writeBlocks(JsonStreamWriter json,
+			Collection<IpcBlock> blocks) throws IOException {
+		json.beginObject().beginArray("block");
+		for (IpcBlock block : blocks) {
+			json.beginObject()
+					.value("configRev", block.getConfigRev())
+					.value("id", block.getId())
+					.value("serviceId", block.getServiceId())
+					.value("startTime", Time.timeOfDayStr(block.getStartTime()))
+					.value("endTime", Time.timeOfDayStr(block.getEndTime()));
+
+			json.beginArray("trips");
+			for (IpcTrip trip : block.getTrips())
+				writeTrip(json, trip);
+			json.endArray();
+
+			json.beginArray("routes");
+			for (IpcRouteSummary route : block.getRouteSummaries()) {
+				json.beginObject()
+						.value("id", route.getId())
+						.value("name", route.getName())
+						.value("shortName", route.getShortName())
+						.value("longName", route.getLongName())
+						.value("type", route.getType())
+						.endObject();
+			}
+			json.endArray().endObject();
+		}
+		json.endArray().endObject();
+	}
+
+	/**
+	 * Same as ApiScheduleTime
+	 */
+	private static void writeScheduleTime(JsonStreamWriter json, Integer time)
+			throws IOException {
+		json.beginObject()
+				.value("timeStr", time == null ? null
+						: Time.timeOfDayShortStr(time))
+				.value("timeSecs", time)
+				.endObject();
+	}
+
+	/**
+	 * Writes the attributes common to the schedules for both layouts
+	 */
+	private static void writeScheduleHeader(JsonStreamWriter json,
+			IpcSchedule schedule) throws IOException {
+		json.beginObject()
+				.value("serviceId", schedule.getServiceId())
+				.value("serviceName", schedule.getServiceName())
+				.value("directionId", schedule.getDirectionId())
+				.value("routeId", schedule.getRouteId())
+				.value("routeName", schedule.getRouteName());
+	}
+
+	/**
+	 * Same as ApiScheduleTrip, and the attributes of ApiScheduleTimesForTrip
+	 */
+	private static void writeScheduleTripAttributes(JsonStreamWriter json,
+			IpcSchedTrip schedTrip) throws IOException {
+		json.value("tripShortName", schedTrip.getTripShortName())
+				.value("tripId", schedTrip.getTripId())
+				.value("tripHeadsign", schedTrip.getTripHeadsign())
+				.value("blockId", schedTrip.getBlockId());
+	}
+
+	/**
+	 * Writes same JSON as ApiSchedulesVertStops
+	 *
+	 * @param json
+	 * @param schedules
+	 * @throws IOException
+	 */
+	public static void writeSchedulesVertStops(JsonStreamWriter json,
+			List<IpcSchedule> schedules) throws IOException {
+		json.beginObject()
+				.value("routeId", schedules.get(0).getRouteId())
+				.value("routeName", schedules.get(0).getRouteName())
+				.beginArray("schedule");
+		for (IpcSchedule schedule : schedules) {
+			writeScheduleHeader(json, schedule);
+			List<IpcSchedTrip> schedTrips = schedule.getIpcSchedTrips();
+
+			json.beginArray("trip");
+			for (IpcSchedTrip schedTrip : schedTrips) {
+				json.beginObject();
+				writeScheduleTripAttributes(json, schedTrip);
+				json.endObject();
+			}
+			json.endArray();
+
+			// Times for each stop of the trips, going down the columns
+			json.beginArray("timesForStop");
+			List<IpcSchedTime> firstTripTimes = schedTrips.get(0).getSchedTimes();
+			for (int stopIndex = 0; stopIndex < firstTripTimes.size();
+					++stopIndex) {
+				IpcSchedTime firstTripTime = firstTripTimes.get(stopIndex);
+				json.beginObject()
+						.value("stopId", firstTripTime.getStopId())
+						.value("stopName", firstTripTime.getStopName())
+						.beginArray("time");
+				for (IpcSchedTrip schedTrip : schedTrips)
+					writeScheduleTime(json, schedTrip.getSchedTimes()
+							.get(stopIndex).getTimeOfDay());
+				json.endArray().endObject();
+			}
+			json.endArray().endObject();
+		}
+		json.endArray().endObject();
+	}
+
+	/**
+	 * Writes same JSON as ApiSchedulesHorizStops
+	 *
+	 * @param json
+	 * @param schedules
+	 * @throws IOException
+	 */
+	public static void writeSchedulesHorizStops(JsonStreamWriter json,
+			List<IpcSchedule> schedules) throws IOException {
+		json.beginObject()
+				.value("routeId", schedules.get(0).getRouteId())
+				.value("routeName", schedules.get(0).getRouteName())
+				.beginArray("schedule");
+		for (IpcSchedule schedule : schedules) {
+			writeScheduleHeader(json, schedule);
+			List<IpcSchedTrip> schedTrips = schedule.getIpcSchedTrips();
+
+			json.beginArray("stop");
+			for (IpcSchedTime schedTime : schedTrips.get(0).getSchedTimes()) {
+				json.beginObject()
+						.value("stopId", schedTime.getStopId())
+						.value("stopName", schedTime.getStopName())
+						.endObject();
+			}
+			json.endArray();
+
+			json.beginArray("timesForTrip");
+			for (IpcSchedTrip schedTrip : schedTrips) {
+				json.beginObject();
+				writeScheduleTripAttributes(json, schedTrip);
+				json.beginArray("time");
+				for (IpcSchedTime schedTime : schedTrip.getSchedTimes())
+					writeScheduleTime(json, schedTime.getTimeOfDay());
+				json.endArray().endObject();
+			}
+			json.endArray().endObject();
+		}
+		json.endArray().endObject();
+	}
+}
@@ -37,6 +37,11 @@ public class ApiNearbyPredictionsForAgencies {
 	@XmlElement(name = "agencies")
 	private List<ApiPredictions> predictionsForAgency;
 
+	// Agencies that are nearby but that didn't respond in time. Null if
+	// there are none so that it is not output.
+	@XmlElement(name = "unavailableAgencies")
+	private List<String> unavailableAgencyIds;
+
 	/**
 	 * Constructor. Method addPredictionsForAgency() called to actually add
 	 * data.
@@ -53,4 +58,15 @@ public class ApiNearbyPredictionsForAgencies {
 	public void addPredictionsForAgency(ApiPredictions apiPreds) {
 		predictionsForAgency.add(apiPreds);
 	}
+
+	/**
+	 * For indicating which nearby agencies are not included because they
+	 * could not be queried.
+	 * 
+	 * @param unavailableAgencyIds
+	 */
+	public void setUnavailableAgencies(List<String> unavailableAgencyIds) {
+		this.unavailableAgencyIds =
+				unavailableAgencyIds.isEmpty() ? null : unavailableAgencyIds;
+	}
 }
@@ -26,6 +26,8 @@ import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
 import org.transitime.ipc.rmi.RmiCallInvocationHandler;
+import org.transitime.ipc.rmi.RmiCallStats;
+import org.transitime.ipc.rmi.RmiCircuitBreaker;
 
 /**
  *
@@ -52,6 +54,12 @@ public class ApiRmiServerStatus {
 		@XmlAttribute
 		private long rmiTotalCalls;
 
+		@XmlAttribute
+		private String circuitBreaker;
+
+		@XmlElement(name = "method")
+		private List<ApiRmiMethodStats> methods;
+
 		@SuppressWarnings("unused")
 		protected ApiAgencyRmiServerStatus() {
 		}
@@ -61,6 +69,66 @@ public class ApiRmiServerStatus {
 			this.agencyId = agencyId;
 			this.rmiCallsInProcess = rmiCallsInProcess;
 			this.rmiTotalCalls = rmiTotalCalls;
+			this.circuitBreaker = RmiCircuitBreaker.get(agencyId).getState();
+
+			this.methods = new ArrayList<ApiRmiMethodStats>();
+			for (RmiCallStats stats : RmiCallStats.getForAgency(agencyId))
+				this.methods.add(new ApiRmiMethodStats(stats));
+		}
+	}
+
+	/**
+	 * Call counts and latency percentiles for a remote method
+	 */
+	private static class ApiRmiMethodStats {
+		@XmlAttribute
+		private String name;
+
+		@XmlAttribute
+		private long calls;
+
+		@XmlAttribute
+		private long errors;
+
+		@XmlAttribute
+		private long timeouts;
+
+		@XmlAttribute
+		private long hedges;
+
+		@XmlAttribute
+		private long rejected;
+
+		// Latencies are upper limits of histogram buckets. Null if no calls
+		// or if larger than the largest bucket.
+		@XmlAttribute
+		private Long p50Msec;
+
+		@XmlAttribute
+		private Long p95Msec;
+
+		@XmlAttribute
+		private Long p99Msec;
+
+		@SuppressWarnings("unused")
+		protected ApiRmiMethodStats() {
+		}
+
+		public ApiRmiMethodStats(RmiCallStats stats) {
+			this.name = stats.getMethodName();
+			this.calls = stats.getCalls();
+			this.errors = stats.getErrors();
+			this.timeouts = stats.getTimeouts();
+			this.hedges = stats.getHedges();
+			this.rejected = stats.getRejected();
+			this.p50Msec = percentile(stats, 50.0);
+			this.p95Msec = percentile(stats, 95.0);
+			this.p99Msec = percentile(stats, 99.0);
+		}
+
+		private static Long percentile(RmiCallStats stats, double percentile) {
+			long msec = stats.getPercentileMsec(percentile);
+			return msec < 0 || msec == Long.MAX_VALUE ? null : msec;
 		}
 	}
 
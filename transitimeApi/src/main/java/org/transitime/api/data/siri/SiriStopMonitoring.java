@@ -20,9 +20,9 @@ package org.transitime.api.data.siri;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
@@ -34,6 +34,7 @@ import org.transitime.api.utils.AgencyTimezoneCache;
 import org.transitime.ipc.data.IpcVehicleComplete;
 import org.transitime.ipc.data.IpcPrediction;
 import org.transitime.ipc.data.IpcPredictionsForRouteStopDest;
+import org.transitime.ipc.data.IpcPredictionsWithVehicles;
 import org.transitime.utils.Time;
 
 /**
@@ -84,12 +85,12 @@ public class SiriStopMonitoring {
 		}
 
 		public SiriServiceDelivery(List<IpcPredictionsForRouteStopDest> preds,
-				Collection<IpcVehicleComplete> vehicles, String agencyId,
+				Map<String, IpcVehicleComplete> vehiclesById, String agencyId,
 				DateFormat timeFormatter, DateFormat dateFormatter) {
 			responseTimestamp =
 					timeFormatter.format(new Date(System.currentTimeMillis()));
 			stopMonitoringDelivery =
-					new SiriStopMonitoringDelivery(preds, vehicles, agencyId,
+					new SiriStopMonitoringDelivery(preds, vehiclesById, agencyId,
 							timeFormatter, dateFormatter);
 		}
 	}
@@ -125,7 +126,7 @@ public class SiriStopMonitoring {
 
 		public SiriStopMonitoringDelivery(
 				List<IpcPredictionsForRouteStopDest> preds,
-				Collection<IpcVehicleComplete> vehicles, String agencyId,
+				Map<String, IpcVehicleComplete> vehiclesById, String agencyId,
 				DateFormat timeFormatter, DateFormat dateFormatter) {
 			long currentTime = System.currentTimeMillis();
 			responseTimestamp = timeFormatter.format(new Date(currentTime));
@@ -138,8 +139,13 @@ public class SiriStopMonitoring {
 			for (IpcPredictionsForRouteStopDest predForRouteStopDest : preds) {
 				for (IpcPrediction pred : predForRouteStopDest
 						.getPredictionsForRouteStop()) {
-					// Determine vehicle info associated with prediction
-					IpcVehicleComplete vehicle = getVehicle(pred, vehicles);
+					// Determine vehicle info associated with prediction. If
+					// vehicle no longer available then can't create the
+					// MonitoredVehicleJourney so skip the prediction.
+					IpcVehicleComplete vehicle =
+							vehiclesById.get(pred.getVehicleId());
+					if (vehicle == null)
+						continue;
 
 					// Created the MonitoredStopVisit for the prediction
 					monitoredStopVisitList.add(new SiriMonitoredStopVisit(
@@ -147,25 +153,6 @@ public class SiriStopMonitoring {
 				}
 			}
 		}
-
-		/**
-		 * Determines IpcExtVehicle object for the specified prediction
-		 * 
-		 * @param pred
-		 * @param vehicleId
-		 * @return
-		 */
-		private IpcVehicleComplete getVehicle(IpcPrediction pred,
-				Collection<IpcVehicleComplete> vehicles) {
-			String vehicleId = pred.getVehicleId();
-			for (IpcVehicleComplete vehicle : vehicles) {
-				if (vehicle.getId().equals(vehicleId))
-					return vehicle;
-			}
-
-			// Didn't find the vehicle so return null
-			return null;
-		}
 	}
 
 	/**
@@ -207,14 +194,21 @@ public class SiriStopMonitoring {
 	protected SiriStopMonitoring() {
 	}
 
-	public SiriStopMonitoring(List<IpcPredictionsForRouteStopDest> preds,
-			Collection<IpcVehicleComplete> vehicles, String agencyId) {
+	/**
+	 * @param predsWithVehicles
+	 *            The predictions for the stop along with the vehicles for
+	 *            the predictions, as obtained with a single RMI call
+	 * @param agencyId
+	 */
+	public SiriStopMonitoring(IpcPredictionsWithVehicles predsWithVehicles,
+			String agencyId) {
 		// Set the time zones for the date formatters
 		siriDateTimeFormat.setTimeZone(AgencyTimezoneCache.get(agencyId));
 		siriDateFormat.setTimeZone(AgencyTimezoneCache.get(agencyId));
 
 		delivery =
-				new SiriServiceDelivery(preds, vehicles, agencyId,
+				new SiriServiceDelivery(predsWithVehicles.getPredictions(),
+						predsWithVehicles.getVehiclesById(), agencyId,
 						siriDateTimeFormat, siriDateFormat);
 	}
 }
@@ -18,10 +18,12 @@ package org.transitime.api.predsByLoc;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.transitime.core.autoAssigner.BatchAutoAssigner.BlockExtentIndex;
 import org.transitime.db.structs.Agency;
 import org.transitime.db.structs.Extent;
 import org.transitime.db.structs.Location;
@@ -37,46 +39,126 @@ import org.transitime.utils.Time;
  */
 public class PredsByLoc {
 	
-	// The cache of extents. Keyed on agencyId. Should not be accessed directly.
-	// Should instead use getAgencyExtents().
-	private static Map<String, Extent> agencyExtentsCache =
-			new HashMap<String, Extent>();
-	private static long cacheUpdatedTime = 0;
+	// The index of agency extents. Should not be accessed directly. Should
+	// instead use getAgencyExtents(). Replaced as a whole when updated so
+	// that it can be read without synchronization.
+	private static volatile AgencyExtentIndex agencyExtentsCache = null;
+	
+	// So that only one thread at a time updates the index
+	private static final ReentrantLock updateLock = new ReentrantLock();
 	
 	// The maximum allowable maxDistance for getting predictions by location
 	public final static double MAX_MAX_DISTANCE = 2000.0;
 
 	private static long CACHE_VALID_MSEC = 4 * Time.MS_PER_HOUR;
 	
+	/**
+	 * Agency extents indexed by minimum latitude so that for a location only
+	 * the agencies whose minimum latitude is not too far north of the
+	 * location need to be checked.
+	 */
+	private static class AgencyExtentIndex {
+		private final BlockExtentIndex<String> index;
+		
+		// For when the extent of an agency can't be read when updating
+		private final Map<String, Extent> extentsByAgencyId;
+		
+		// When the index was created, for knowing when to update it
+		private final long createdTime = System.currentTimeMillis();
+		
+		private AgencyExtentIndex(Map<String, Extent> extentsByAgencyId) {
+			this.extentsByAgencyId = extentsByAgencyId;
+			this.index = new BlockExtentIndex<String>(
+					new ArrayList<String>(extentsByAgencyId.keySet()),
+					extentsByAgencyId.values().toArray(
+							new Extent[extentsByAgencyId.size()]));
+		}
+		
+		/**
+		 * @return the extent for the agency, or null if not in the index
+		 */
+		private Extent getExtent(String agencyId) {
+			return extentsByAgencyId.get(agencyId);
+		}
+		
+		/**
+		 * @return IDs of agencies whose extent is within distance of loc
+		 */
+		private List<String> getNearby(Location loc, double distance) {
+			return index.getNear(loc, distance);
+		}
+	}
+	
 	/************************ Methods *********************/
 	
 	/**
-	 * Returns the cache of agency extents. If haven't read in extents from the
-	 * servers in more than 4 hours then the cache is updated before it is
-	 * returned.
+	 * Returns the index of agency extents. If haven't read in extents from
+	 * the servers in more than 4 hours then the index is updated before it is
+	 * returned. Only the thread doing the update waits for it. Other threads
+	 * keep using the old index, unless there isn't one yet.
 	 * 
-	 * @return cache of extents
+	 * @return index of extents
 	 */
-	private static Map<String, Extent> getAgencyExtents() {
+	private static AgencyExtentIndex getAgencyExtents() {
 		// If updated cache recently then simply return it
-		if (System.currentTimeMillis() < cacheUpdatedTime + CACHE_VALID_MSEC)
-			return agencyExtentsCache;
+		AgencyExtentIndex cache = agencyExtentsCache;
+		if (isValid(cache))
+			return cache;
 		
-		// Haven't updated cache in a while so update it now
+		if (cache == null)
+			updateLock.lock();
+		else if (!updateLock.tryLock())
+			return cache;
+		try {
+			// Another thread might have just updated it
+			if (isValid(agencyExtentsCache))
+				return agencyExtentsCache;
+			
+			agencyExtentsCache = readAgencyExtents(agencyExtentsCache);
+			return agencyExtentsCache;
+		} finally {
+			updateLock.unlock();
+		}
+	}
+	
+	/**
+	 * @return true if the index exists and was created recently enough
+	 */
+	private static boolean isValid(AgencyExtentIndex cache) {
+		return cache != null && System.currentTimeMillis() 
+				< cache.createdTime + CACHE_VALID_MSEC;
+	}
+	
+	/**
+	 * Reads in the extents of the agencies from the servers.
+	 * 
+	 * @param previous
+	 *            The previous index, for when the extent of an agency can't
+	 *            be read. Can be null.
+	 * @return the new index of extents
+	 */
+	private static AgencyExtentIndex readAgencyExtents(
+			AgencyExtentIndex previous) {
 		Collection<WebAgency> webAgencies =
 				WebAgency.getCachedOrderedListOfWebAgencies();
 		
 		// For each agency get the extent
+		Map<String, Extent> extentsByAgencyId =
+				new LinkedHashMap<String, Extent>();
 		for (WebAgency webAgency : webAgencies) {
 			Agency agency = webAgency.getAgency();
-			if (agency != null) {
-				agencyExtentsCache.put(webAgency.getAgencyId(),
-						agency.getExtent());
-			}
+			Extent extent = agency != null ? agency.getExtent() : null;
+			
+			// If couldn't get extent from the agency, perhaps because it is
+			// temporarily down, then keep using the previous one
+			if (extent == null && previous != null)
+				extent = previous.getExtent(webAgency.getAgencyId());
+			
+			if (extent != null)
+				extentsByAgencyId.put(webAgency.getAgencyId(), extent);
 		}
 		
-		// Return the update cache
-		return agencyExtentsCache;
+		return new AgencyExtentIndex(extentsByAgencyId);
 	}
 	
 	/**
@@ -90,19 +172,8 @@ public class PredsByLoc {
 	 */
 	public static List<String> getNearbyAgencies(double latitude,
 			double longitude, double distance) {
-		// For results of method
-		List<String> nearbyAgencies = new ArrayList<String>();
-		
-		// Determine which agencies are nearby and add them to list
+		// Determine which agencies are nearby
 		Location loc = new Location(latitude, longitude);		
-		Map<String, Extent> agencyExtents = getAgencyExtents();
-		for (String agencyId : agencyExtents.keySet()) {
-			Extent agencyExtent = agencyExtents.get(agencyId);
-			if (agencyExtent.isWithinDistance(loc, distance))
-				nearbyAgencies.add(agencyId);
-		}
-		
-		// Return agencies that are nearby
-		return nearbyAgencies;
+		return getAgencyExtents().getNearby(loc, distance);
 	}
 }
@@ -20,6 +20,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -243,6 +244,49 @@ public class CommandsApi {
 		return stdParameters.createResponse(ack);
 	}
 
+	/**
+	 * For fully tracing how the AVL reports for a vehicle are processed for
+	 * a limited time. Specified by the query string parameters
+	 * v=vehicleId&secs=durationSecs(optional, default 3600). Use secs=0 to
+	 * stop tracing the vehicle.
+	 * 
+	 * @param stdParameters
+	 * @param vehicleId
+	 * @param durationSecs
+	 * @return ApiCommandAck response indicating whether successful
+	 * @throws WebApplicationException
+	 */
+	@Path("/command/traceVehicle")
+	@GET
+	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
+	public Response traceVehicle(
+			@BeanParam StandardParameters stdParameters,
+			@QueryParam(value = "v") String vehicleId,
+			@QueryParam(value = "secs") @DefaultValue("3600") int durationSecs)
+			throws WebApplicationException {
+		// Make sure request is valid
+		stdParameters.validate();
+
+		if (vehicleId == null || vehicleId.isEmpty())
+			throw WebUtils.badRequestException("Must specify vehicle ID using "
+					+ "\"v=vehicleId\"");
+
+		try {
+			// Get RMI interface and send the command
+			CommandsInterface inter = stdParameters.getCommandsInterface();
+			String errorMsg = inter.traceVehicle(vehicleId, durationSecs);
+			if (errorMsg != null)
+				throw WebUtils.badRequestException(errorMsg);
+
+			// Create the acknowledgment and return it as JSON or XML
+			ApiCommandAck ack = new ApiCommandAck(true, "Tracing vehicle");
+			return stdParameters.createResponse(ack);
+		} catch (RemoteException e) {
+			// If problem getting data then return a Bad Request
+			throw WebUtils.badRequestException(e);
+		}
+	}
+
 	/**
 	 * Reads in information from request and stores arrival information into db.
 	 * 
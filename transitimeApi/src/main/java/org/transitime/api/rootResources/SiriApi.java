@@ -17,7 +17,6 @@
 
 package org.transitime.api.rootResources;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -33,11 +32,11 @@ import javax.ws.rs.core.Response;
 
 import org.transitime.api.data.siri.SiriStopMonitoring;
 import org.transitime.api.data.siri.SiriVehiclesMonitoring;
+import org.transitime.api.utils.ResponseCache;
 import org.transitime.api.utils.StandardParameters;
 import org.transitime.api.utils.WebUtils;
+import org.transitime.ipc.data.IpcPredictionsWithVehicles;
 import org.transitime.ipc.data.IpcVehicleComplete;
-import org.transitime.ipc.data.IpcPrediction;
-import org.transitime.ipc.data.IpcPredictionsForRouteStopDest;
 import org.transitime.ipc.interfaces.PredictionsInterface;
 import org.transitime.ipc.interfaces.VehiclesInterface;
 
@@ -103,6 +102,10 @@ public class SiriApi {
 	 * Returns stopMonitoring vehicle information in SIRI format. Can specify
 	 * routeId or routeShortName. Need to also specify stopId. Can optionally
 	 * specify how many max number of predictions per stop to return.
+	 * <p>
+	 * The predictions and their vehicles are obtained with a single RMI call
+	 * and the serialized response is cached briefly since aggregators poll
+	 * many stops frequently.
 	 * 
 	 * @param stdParameters
 	 * @param routeIdOrShortName
@@ -117,47 +120,33 @@ public class SiriApi {
 	public
 			Response
 			getVehicles(
-					@BeanParam StandardParameters stdParameters,
-					@QueryParam(value = "r") String routeIdOrShortName,
-					@QueryParam(value = "s") String stopId,
-					@QueryParam(value = "numPreds") @DefaultValue("3") int numberPredictions)
+					@BeanParam final StandardParameters stdParameters,
+					@QueryParam(value = "r") final String routeIdOrShortName,
+					@QueryParam(value = "s") final String stopId,
+					@QueryParam(value = "numPreds") @DefaultValue("3") final int numberPredictions)
 					throws WebApplicationException {
 		// Make sure request is valid
 		stdParameters.validate();
 
-		try {
-			// Get prediction data from server
-			PredictionsInterface inter =
-					stdParameters.getPredictionsInterface();
-
-			List<IpcPredictionsForRouteStopDest> preds =
-					inter.get(routeIdOrShortName, stopId, numberPredictions);
-
-			// For each prediction also need corresponding vehicle so can create
-			// the absurdly large MonitoredVehicleJourney element.
-			List<String> vehicleIds = new ArrayList<String>();
-			for (IpcPredictionsForRouteStopDest predsForDest : preds) {
-				for (IpcPrediction individualPred : predsForDest
-						.getPredictionsForRouteStop()) {
-					vehicleIds.add(individualPred.getVehicleId());
-				}
+		return ResponseCache.getInstance().getRealTimeResponse(stdParameters,
+				new ResponseCache.Loader() {
+			@Override
+			public Object load() throws Exception {
+				// Get prediction data, along with the vehicles for the
+				// predictions, from server. For each prediction need the
+				// corresponding vehicle so can create the absurdly large
+				// MonitoredVehicleJourney element.
+				PredictionsInterface inter =
+						stdParameters.getPredictionsInterface();
+				IpcPredictionsWithVehicles predsWithVehicles =
+						inter.getWithVehicles(routeIdOrShortName, stopId,
+								numberPredictions);
+
+				// Determine and return SiriStopMonitoring response
+				return new SiriStopMonitoring(predsWithVehicles,
+						stdParameters.getAgencyId());
 			}
-			VehiclesInterface vehicleInter =
-					stdParameters.getVehiclesInterface();
-			Collection<IpcVehicleComplete> vehicles =
-					vehicleInter.getComplete(vehicleIds);
-
-			// Determine SiriStopMonitoring response
-			SiriStopMonitoring siriStopMonitoring =
-					new SiriStopMonitoring(preds, vehicles,
-							stdParameters.getAgencyId());
-
-			// Return SiriStopMonitoring response
-			return stdParameters.createResponse(siriStopMonitoring);
-		} catch (Exception e) {
-			// If problem getting data then return a Bad Request
-			throw WebUtils.badRequestException(e);
-		}
+		});
 	}
 
 }
@@ -17,6 +17,7 @@
 
 package org.transitime.api.rootResources;
 
+import java.io.IOException;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -50,6 +51,7 @@ import org.transitime.api.data.ApiDirections;
 import org.transitime.api.data.ApiHistoricalAverage;
 import org.transitime.api.data.ApiHistoricalAverageCacheKeys;
 import org.transitime.api.data.ApiIds;
+import org.transitime.api.data.ApiJsonStreams;
 import org.transitime.api.data.ApiKalmanErrorCacheKeys;
 import org.transitime.api.data.ApiPredictions;
 import org.transitime.api.data.ApiPredictionsForStopPath;
@@ -66,7 +68,10 @@ import org.transitime.api.data.ApiVehicleConfigs;
 import org.transitime.api.data.ApiVehicles;
 import org.transitime.api.data.ApiVehiclesDetails;
 import org.transitime.api.predsByLoc.PredsByLoc;
+import org.transitime.api.utils.ResponseCache;
+import org.transitime.api.utils.JsonStreamWriter;
 import org.transitime.api.utils.StandardParameters;
+import org.transitime.api.utils.StreamingJsonOutput;
 import org.transitime.api.utils.WebUtils;
 import org.transitime.core.TemporalDifference;
 import org.transitime.db.structs.Agency;
@@ -145,46 +150,47 @@ public class TransitimeApi {
 	@Path("/command/vehicles")
 	@GET
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public Response getVehicles(@BeanParam StandardParameters stdParameters,
-			@QueryParam(value = "v") List<String> vehicleIds,
-			@QueryParam(value = "r") List<String> routesIdOrShortNames, @QueryParam(value = "s") String stopId,
-			@QueryParam(value = "numPreds") @DefaultValue("2") int numberPredictions) throws WebApplicationException {
+	public Response getVehicles(@BeanParam final StandardParameters stdParameters,
+			@QueryParam(value = "v") final List<String> vehicleIds,
+			@QueryParam(value = "r") final List<String> routesIdOrShortNames, @QueryParam(value = "s") final String stopId,
+			@QueryParam(value = "numPreds") @DefaultValue("2") final int numberPredictions) throws WebApplicationException {
 		// Make sure request is valid
 		stdParameters.validate();
 
-		try {
-			// Get Vehicle data from server
-			VehiclesInterface inter = stdParameters.getVehiclesInterface();
-
-			Collection<IpcVehicle> vehicles;
-			if (!routesIdOrShortNames.isEmpty() && !routesIdOrShortNames.get(0).trim().isEmpty()) {
-				vehicles = inter.getForRoute(routesIdOrShortNames);
-			} else if (!vehicleIds.isEmpty() && !vehicleIds.get(0).trim().isEmpty()) {
-				vehicles = inter.get(vehicleIds);
-			} else {
-				vehicles = inter.get();
-			}
+		return ResponseCache.getInstance().getRealTimeResponse(stdParameters,
+				new ResponseCache.Loader() {
+			@Override
+			public Object load() throws Exception {
+				// Get Vehicle data from server
+				VehiclesInterface inter = stdParameters.getVehiclesInterface();
+
+				Collection<IpcVehicle> vehicles;
+				if (!routesIdOrShortNames.isEmpty() && !routesIdOrShortNames.get(0).trim().isEmpty()) {
+					vehicles = inter.getForRoute(routesIdOrShortNames);
+				} else if (!vehicleIds.isEmpty() && !vehicleIds.get(0).trim().isEmpty()) {
+					vehicles = inter.get(vehicleIds);
+				} else {
+					vehicles = inter.get();
+				}
 
-			// If the vehicles doesn't exist then throw exception such that
-			// Bad Request with an appropriate message is returned.
-			if (vehicles == null)
-				throw WebUtils.badRequestException("Invalid specifier for " + "vehicles");
+				// If the vehicles doesn't exist then throw exception such that
+				// Bad Request with an appropriate message is returned.
+				if (vehicles == null)
+					throw WebUtils.badRequestException("Invalid specifier for " + "vehicles");
 
-			// To determine how vehicles should be drawn in UI. If stop
-			// specified
-			// when getting vehicle info then only the vehicles being predicted
-			// for, should be highlighted. The others should be dimmed.
-			Map<String, UiMode> uiTypesForVehicles = determineUiModesForVehicles(vehicles, stdParameters,
-					routesIdOrShortNames, stopId, numberPredictions);
+				// To determine how vehicles should be drawn in UI. If stop
+				// specified
+				// when getting vehicle info then only the vehicles being predicted
+				// for, should be highlighted. The others should be dimmed.
+				Map<String, UiMode> uiTypesForVehicles = determineUiModesForVehicles(vehicles, stdParameters,
+						routesIdOrShortNames, stopId, numberPredictions);
 
-			ApiVehicles apiVehicles = new ApiVehicles(vehicles, uiTypesForVehicles);
+				ApiVehicles apiVehicles = new ApiVehicles(vehicles, uiTypesForVehicles);
 
-			// return ApiVehicles response
-			return stdParameters.createResponse(apiVehicles);
-		} catch (Exception e) {
-			// If problem getting data then return a Bad Request
-			throw WebUtils.badRequestException(e);
-		}
+				// return ApiVehicles response
+				return apiVehicles;
+			}
+		});
 	}
 
 	/**
@@ -472,58 +478,59 @@ public class TransitimeApi {
 	public
 			Response
 			getPredictions(
-					@BeanParam StandardParameters stdParameters,
-					@QueryParam(value = "rs") List<String> routeStopStrs,
-					@QueryParam(value = "s") List<String> stopStrs,
-					@QueryParam(value = "numPreds") @DefaultValue("3") int numberPredictions)
+					@BeanParam final StandardParameters stdParameters,
+					@QueryParam(value = "rs") final List<String> routeStopStrs,
+					@QueryParam(value = "s") final List<String> stopStrs,
+					@QueryParam(value = "numPreds") @DefaultValue("3") final int numberPredictions)
 					throws WebApplicationException {
 		// Make sure request is valid
 		stdParameters.validate();
 
-		try {
-			// Get Prediction data from server
-			PredictionsInterface inter = stdParameters.getPredictionsInterface();
-
-			// Create list of route/stops that should get predictions for
-			List<RouteStop> routeStopsList = new ArrayList<RouteStop>();
-			for (String routeStopStr : routeStopStrs) {
-				// Each route/stop is specified as a single string using "\"
-				// as a divider (e.g. "routeId|stopId")
-				String routeStopParams[] = routeStopStr.split("\\|");
-				String routeIdOrShortName;
-				String stopIdOrCode;
-				if (routeStopParams.length == 1) {
-					// Just stop specified
-					routeIdOrShortName = null;
-					stopIdOrCode = routeStopParams[0];
-				} else {
-					// Both route and stop specified
-					routeIdOrShortName = routeStopParams[0];
-					stopIdOrCode = routeStopParams[1];
+		return ResponseCache.getInstance().getRealTimeResponse(stdParameters,
+				new ResponseCache.Loader() {
+			@Override
+			public Object load() throws Exception {
+				// Get Prediction data from server
+				PredictionsInterface inter = stdParameters.getPredictionsInterface();
+
+				// Create list of route/stops that should get predictions for
+				List<RouteStop> routeStopsList = new ArrayList<RouteStop>();
+				for (String routeStopStr : routeStopStrs) {
+					// Each route/stop is specified as a single string using "\"
+					// as a divider (e.g. "routeId|stopId")
+					String routeStopParams[] = routeStopStr.split("\\|");
+					String routeIdOrShortName;
+					String stopIdOrCode;
+					if (routeStopParams.length == 1) {
+						// Just stop specified
+						routeIdOrShortName = null;
+						stopIdOrCode = routeStopParams[0];
+					} else {
+						// Both route and stop specified
+						routeIdOrShortName = routeStopParams[0];
+						stopIdOrCode = routeStopParams[1];
+					}
+					RouteStop routeStop =
+							new RouteStop(routeIdOrShortName, stopIdOrCode);
+					routeStopsList.add(routeStop);
 				}
-				RouteStop routeStop =
-						new RouteStop(routeIdOrShortName, stopIdOrCode);
-				routeStopsList.add(routeStop);
-			}
 			
-			// Add to list the stops that should get predictions for
-			for (String stopStr : stopStrs) {
-				// Use null for route identifier so get predictions for all 
-				// routes for the stop
-				RouteStop routeStop = new RouteStop(null, stopStr);
-				routeStopsList.add(routeStop);				
-			}
+				// Add to list the stops that should get predictions for
+				for (String stopStr : stopStrs) {
+					// Use null for route identifier so get predictions for all 
+					// routes for the stop
+					RouteStop routeStop = new RouteStop(null, stopStr);
+					routeStopsList.add(routeStop);				
+				}
 			
-			// Actually get the predictions via IPC
-			List<IpcPredictionsForRouteStopDest> predictions = inter.get(routeStopsList, numberPredictions);
+				// Actually get the predictions via IPC
+				List<IpcPredictionsForRouteStopDest> predictions = inter.get(routeStopsList, numberPredictions);
 
-			// return ApiPredictions response
-			ApiPredictions predictionsData = new ApiPredictions(predictions);
-			return stdParameters.createResponse(predictionsData);
-		} catch (Exception e) {
-			// If problem getting data then return a Bad Request
-			throw WebUtils.badRequestException(e);
-		}
+				// return ApiPredictions response
+				ApiPredictions predictionsData = new ApiPredictions(predictions);
+				return predictionsData;
+			}
+		});
 	}
 
 	/**
@@ -553,10 +560,10 @@ public class TransitimeApi {
 	@Path("/command/predictionsByLoc")
 	@GET
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public Response getPredictions(@BeanParam StandardParameters stdParameters, @QueryParam(value = "lat") Double lat,
-			@QueryParam(value = "lon") Double lon,
-			@QueryParam(value = "maxDistance") @DefaultValue("1500.0") double maxDistance,
-			@QueryParam(value = "numPreds") @DefaultValue("3") int numberPredictions) throws WebApplicationException {
+	public Response getPredictions(@BeanParam final StandardParameters stdParameters, @QueryParam(value = "lat") final Double lat,
+			@QueryParam(value = "lon") final Double lon,
+			@QueryParam(value = "maxDistance") @DefaultValue("1500.0") final double maxDistance,
+			@QueryParam(value = "numPreds") @DefaultValue("3") final int numberPredictions) throws WebApplicationException {
 		// Make sure request is valid
 		stdParameters.validate();
 
@@ -564,21 +571,22 @@ public class TransitimeApi {
 			throw WebUtils.badRequestException("Maximum maxDistance parameter is " + PredsByLoc.MAX_MAX_DISTANCE
 					+ "m but " + maxDistance + "m was specified in the request.");
 
-		try {
-			// Get Prediction data from server
-			PredictionsInterface inter = stdParameters.getPredictionsInterface();
+		return ResponseCache.getInstance().getRealTimeResponse(stdParameters,
+				new ResponseCache.Loader() {
+			@Override
+			public Object load() throws Exception {
+				// Get Prediction data from server
+				PredictionsInterface inter = stdParameters.getPredictionsInterface();
 
-			// Get predictions by location
-			List<IpcPredictionsForRouteStopDest> predictions = inter.get(new Location(lat, lon), maxDistance,
-					numberPredictions);
+				// Get predictions by location
+				List<IpcPredictionsForRouteStopDest> predictions = inter.get(new Location(lat, lon), maxDistance,
+						numberPredictions);
 
-			// return ApiPredictions response
-			ApiPredictions predictionsData = new ApiPredictions(predictions);
-			return stdParameters.createResponse(predictionsData);
-		} catch (Exception e) {
-			// If problem getting data then return a Bad Request
-			throw WebUtils.badRequestException(e);
-		}
+				// return ApiPredictions response
+				ApiPredictions predictionsData = new ApiPredictions(predictions);
+				return predictionsData;
+			}
+		});
 	}
 
 	/**
@@ -592,77 +600,78 @@ public class TransitimeApi {
 	@Path("/command/routes")
 	@GET
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public Response getRoutes(@BeanParam StandardParameters stdParameters,
-			@QueryParam(value = "r") List<String> routeIdsOrShortNames,
-			@QueryParam(value = "keepDuplicates") Boolean keepDuplicates)
+	public Response getRoutes(@BeanParam final StandardParameters stdParameters,
+			@QueryParam(value = "r") final List<String> routeIdsOrShortNames,
+			@QueryParam(value = "keepDuplicates") final Boolean keepDuplicates)
 			throws WebApplicationException {
 		// Make sure request is valid
 		stdParameters.validate();
 
-		try {
-			ConfigInterface inter = stdParameters.getConfigInterface();
+		return ResponseCache.getInstance().getConfigResponse(stdParameters,
+				new ResponseCache.Loader() {
+			@Override
+			public Object load() throws Exception {
+				ConfigInterface inter = stdParameters.getConfigInterface();
 			
-			// Get agency info so can also return agency name
-			List<Agency> agencies = inter.getAgencies();
+				// Get agency info so can also return agency name
+				List<Agency> agencies = inter.getAgencies();
 			
-			// Get route data from server
-			ApiRoutes routesData;
-			if (routeIdsOrShortNames == null || routeIdsOrShortNames.isEmpty()) {
-				// Get all routes
-				List<IpcRouteSummary> routes = 
-						new ArrayList<IpcRouteSummary>(inter.getRoutes());
+				// Get route data from server
+				ApiRoutes routesData;
+				if (routeIdsOrShortNames == null || routeIdsOrShortNames.isEmpty()) {
+					// Get all routes
+					List<IpcRouteSummary> routes = 
+							new ArrayList<IpcRouteSummary>(inter.getRoutes());
 				
-				// Handle duplicates. If should keep duplicates (where couple
-				// of routes have the same route_short_name) then modify 
-				// the route name to indicate the different IDs. If should
-				// ignore duplicates then don't include them in final list
-				Collection<IpcRouteSummary> processedRoutes = 
-						new ArrayList<IpcRouteSummary>();
-				for (int i = 0; i < routes.size()-1; ++i) {
-					IpcRouteSummary route = routes.get(i);
-					IpcRouteSummary nextRoute = routes.get(i+1);
+					// Handle duplicates. If should keep duplicates (where couple
+					// of routes have the same route_short_name) then modify 
+					// the route name to indicate the different IDs. If should
+					// ignore duplicates then don't include them in final list
+					Collection<IpcRouteSummary> processedRoutes = 
+							new ArrayList<IpcRouteSummary>();
+					for (int i = 0; i < routes.size()-1; ++i) {
+						IpcRouteSummary route = routes.get(i);
+						IpcRouteSummary nextRoute = routes.get(i+1);
 					
-					// If find a duplicate route_short_name...
-					if (route.getShortName().equals(nextRoute.getShortName())) {
-						// Only keep route if supposed to
-						if (keepDuplicates != null && keepDuplicates) {
-							// Keep duplicates but change route name
-							IpcRouteSummary routeWithModifiedName =
-									new IpcRouteSummary(route, route.getName()
-											+ " (ID=" + route.getId() + ")");
-							processedRoutes.add(routeWithModifiedName);
-
-							IpcRouteSummary nextRouteWithModifiedName =
-									new IpcRouteSummary(nextRoute,
-											nextRoute.getName() + " (ID="
-													+ nextRoute.getId() + ")");
-							processedRoutes.add(nextRouteWithModifiedName);
+						// If find a duplicate route_short_name...
+						if (route.getShortName().equals(nextRoute.getShortName())) {
+							// Only keep route if supposed to
+							if (keepDuplicates != null && keepDuplicates) {
+								// Keep duplicates but change route name
+								IpcRouteSummary routeWithModifiedName =
+										new IpcRouteSummary(route, route.getName()
+												+ " (ID=" + route.getId() + ")");
+								processedRoutes.add(routeWithModifiedName);
+
+								IpcRouteSummary nextRouteWithModifiedName =
+										new IpcRouteSummary(nextRoute,
+												nextRoute.getName() + " (ID="
+														+ nextRoute.getId() + ")");
+								processedRoutes.add(nextRouteWithModifiedName);
 							
-							// Since processed both this route and the next 
-							// route can skip to next one
-							++i;
+								// Since processed both this route and the next 
+								// route can skip to next one
+								++i;
+							}
+						} else {
+							// Not a duplicate so simply add it
+							processedRoutes.add(route);
 						}
-					} else {
-						// Not a duplicate so simply add it
-						processedRoutes.add(route);
 					}
-				}
-				// Add the last route
-				processedRoutes.add(routes.get(routes.size()-1));
+					// Add the last route
+					processedRoutes.add(routes.get(routes.size()-1));
 				
-				routesData = new ApiRoutes(processedRoutes, agencies.get(0));
-			} else {
-				// Get specified routes
-				List<IpcRoute> ipcRoutes = inter.getRoutes(routeIdsOrShortNames);
-				routesData = new ApiRoutes(ipcRoutes, agencies.get(0));
-			}
+					routesData = new ApiRoutes(processedRoutes, agencies.get(0));
+				} else {
+					// Get specified routes
+					List<IpcRoute> ipcRoutes = inter.getRoutes(routeIdsOrShortNames);
+					routesData = new ApiRoutes(ipcRoutes, agencies.get(0));
+				}
 			
-			// Create and return response
-			return stdParameters.createResponse(routesData);
-		} catch (Exception e) {
-			// If problem getting data then return a Bad Request
-			throw WebUtils.badRequestException(e);
-		}
+				// Create and return response
+				return routesData;
+			}
+		});
 	}
 
 	/**
@@ -696,48 +705,70 @@ public class TransitimeApi {
 	@Path("/command/routesDetails")
 	@GET
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public Response getRouteDetails(@BeanParam StandardParameters stdParameters,
-			@QueryParam(value = "r") List<String> routeIdsOrShortNames, @QueryParam(value = "d") String directionId,
-			@QueryParam(value = "s") String stopId, @QueryParam(value = "tripPattern") String tripPatternId)
+	public Response getRouteDetails(@BeanParam final StandardParameters stdParameters,
+			@QueryParam(value = "r") final List<String> routeIdsOrShortNames, @QueryParam(value = "d") final String directionId,
+			@QueryParam(value = "s") final String stopId, @QueryParam(value = "tripPattern") final String tripPatternId)
 			throws WebApplicationException {
 		// Make sure request is valid
 		stdParameters.validate();
 
-		try {
-			// Get Vehicle data from server
-			ConfigInterface inter = stdParameters.getConfigInterface();
+		ResponseCache.Loader loader = new ResponseCache.Loader() {
+			@Override
+			public Object load() throws Exception {
+				// Get Vehicle data from server
+				ConfigInterface inter = stdParameters.getConfigInterface();
 
-			// Get agency info so can also return agency name
-			List<Agency> agencies = inter.getAgencies();
+				// Get agency info so can also return agency name
+				final List<Agency> agencies = inter.getAgencies();
 			
-			List<IpcRoute> ipcRoutes;
+				final List<IpcRoute> ipcRoutes;
 
-			// If single route specified
-			if (routeIdsOrShortNames != null && routeIdsOrShortNames.size() == 1) {
-				String routeIdOrShortName = routeIdsOrShortNames.get(0);
-				IpcRoute route = inter.getRoute(routeIdOrShortName, directionId, stopId, tripPatternId);
+				// If single route specified
+				if (routeIdsOrShortNames != null && routeIdsOrShortNames.size() == 1) {
+					String routeIdOrShortName = routeIdsOrShortNames.get(0);
+					IpcRoute route = inter.getRoute(routeIdOrShortName, directionId, stopId, tripPatternId);
 
-				// If the route doesn't exist then throw exception such that
-				// Bad Request with an appropriate message is returned.
-				if (route == null)
-					throw WebUtils.badRequestException("Route for route=" + routeIdOrShortName + " does not exist.");
+					// If the route doesn't exist then throw exception such that
+					// Bad Request with an appropriate message is returned.
+					if (route == null)
+						throw WebUtils.badRequestException("Route for route=" + routeIdOrShortName + " does not exist.");
 
-				ipcRoutes = new ArrayList<IpcRoute>();
-				ipcRoutes.add(route);
-			} else {
-				// Multiple routes specified
-				ipcRoutes = inter.getRoutes(routeIdsOrShortNames);
-			}
+					ipcRoutes = new ArrayList<IpcRoute>();
+					ipcRoutes.add(route);
+				} else {
+					// Multiple routes specified
+					ipcRoutes = inter.getRoutes(routeIdsOrShortNames);
+				}
 
-			// Take the IpcRoute data array and create and return
-			// ApiRoutesDetails object
-			ApiRoutesDetails routeData = 
-					new ApiRoutesDetails(ipcRoutes, agencies.get(0));
-			return stdParameters.createResponse(routeData);
-		} catch (Exception e) {
-			// If problem getting data then return a Bad Request
-			throw WebUtils.badRequestException(e);
-		}
+				// For JSON write the data directly from the IpcRoutes
+				// instead of building up the large ApiRoutesDetails graph
+				if (stdParameters.isJson()) {
+					return new StreamingJsonOutput() {
+						@Override
+						protected void writeJson(JsonStreamWriter json)
+								throws IOException {
+							ApiJsonStreams.writeRoutesDetails(json, ipcRoutes,
+									agencies.get(0));
+						}
+					};
+				}
+
+				// Take the IpcRoute data array and create and return
+				// ApiRoutesDetails object
+				ApiRoutesDetails routeData = 
+						new ApiRoutesDetails(ipcRoutes, agencies.get(0));
+				return routeData;
+			}
+		};
+		
+		// When a stop is specified the route includes the location of the
+		// next vehicle predicted for the stop, which is real-time data and
+		// so can only be cached briefly
+		if (stopId != null)
+			return ResponseCache.getInstance().getRealTimeResponse(
+					stdParameters, loader);
+		return ResponseCache.getInstance().getConfigResponse(stdParameters,
+				loader);
 	}
 
 	/**
@@ -753,29 +784,30 @@ public class TransitimeApi {
 	@Path("/command/stops")
 	@GET
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public Response getStops(@BeanParam StandardParameters stdParameters,
-			@QueryParam(value = "r") String routesIdOrShortNames) throws WebApplicationException {
+	public Response getStops(@BeanParam final StandardParameters stdParameters,
+			@QueryParam(value = "r") final String routesIdOrShortNames) throws WebApplicationException {
 
 		// Make sure request is valid
 		stdParameters.validate();
 
-		try {
-			// Get stops data from server
-			ConfigInterface inter = stdParameters.getConfigInterface();
-			IpcDirectionsForRoute stopsForRoute = inter.getStops(routesIdOrShortNames);
+		return ResponseCache.getInstance().getConfigResponse(stdParameters,
+				new ResponseCache.Loader() {
+			@Override
+			public Object load() throws Exception {
+				// Get stops data from server
+				ConfigInterface inter = stdParameters.getConfigInterface();
+				IpcDirectionsForRoute stopsForRoute = inter.getStops(routesIdOrShortNames);
 
-			// If the route doesn't exist then throw exception such that
-			// Bad Request with an appropriate message is returned.
-			if (stopsForRoute == null)
-				throw WebUtils.badRequestException("route=" + routesIdOrShortNames + " does not exist.");
+				// If the route doesn't exist then throw exception such that
+				// Bad Request with an appropriate message is returned.
+				if (stopsForRoute == null)
+					throw WebUtils.badRequestException("route=" + routesIdOrShortNames + " does not exist.");
 
-			// Create and return ApiDirections response
-			ApiDirections directionsData = new ApiDirections(stopsForRoute);
-			return stdParameters.createResponse(directionsData);
-		} catch (Exception e) {
-			// If problem getting data then return a Bad Request
-			throw WebUtils.badRequestException(e);
-		}
+				// Create and return ApiDirections response
+				ApiDirections directionsData = new ApiDirections(stopsForRoute);
+				return directionsData;
+			}
+		});
 	}
 
 	/**
@@ -880,13 +912,24 @@ public class TransitimeApi {
 		try {
 			// Get block data from server
 			ConfigInterface inter = stdParameters.getConfigInterface();
-			Collection<IpcBlock> ipcBlocks = inter.getBlocks(blockId);
+			final Collection<IpcBlock> ipcBlocks = inter.getBlocks(blockId);
 
 			// If the block doesn't exist then throw exception such that
 			// Bad Request with an appropriate message is returned.
 			if (ipcBlocks.isEmpty())
 				throw WebUtils.badRequestException("The blockId=" + blockId + " does not exist.");
 
+			// Blocks include all trips and trip patterns so can be very
+			// large. For JSON stream them directly from the IpcBlocks.
+			if (stdParameters.isJson()) {
+				return stdParameters.createStreamingResponse(new StreamingJsonOutput() {
+					@Override
+					protected void writeJson(JsonStreamWriter json) throws IOException {
+						ApiJsonStreams.writeBlocks(json, ipcBlocks);
+					}
+				});
+			}
+
 			// Create and return ApiBlock response
 			ApiBlocks apiBlocks = new ApiBlocks(ipcBlocks);
 			return stdParameters.createResponse(apiBlocks);
@@ -1253,13 +1296,23 @@ public class TransitimeApi {
 		try {
 			// Get block data from server
 			ConfigInterface inter = stdParameters.getConfigInterface();
-			List<IpcTripPattern> ipcTripPatterns = inter.getTripPatterns(routesIdOrShortNames);
+			final List<IpcTripPattern> ipcTripPatterns = inter.getTripPatterns(routesIdOrShortNames);
 
 			// If the trip doesn't exist then throw exception such that
 			// Bad Request with an appropriate message is returned.
 			if (ipcTripPatterns == null)
 				throw WebUtils.badRequestException("route=" + routesIdOrShortNames + " does not exist.");
 
+			// For JSON stream the trip patterns directly
+			if (stdParameters.isJson()) {
+				return stdParameters.createStreamingResponse(new StreamingJsonOutput() {
+					@Override
+					protected void writeJson(JsonStreamWriter json) throws IOException {
+						ApiJsonStreams.writeTripPatterns(json, ipcTripPatterns);
+					}
+				});
+			}
+
 			// Create and return ApiTripPatterns response
 			ApiTripPatterns apiTripPatterns = new ApiTripPatterns(ipcTripPatterns);
 			return stdParameters.createResponse(apiTripPatterns);
@@ -1283,29 +1336,41 @@ public class TransitimeApi {
 	@Path("/command/scheduleVertStops")
 	@GET
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public Response getScheduleVertStops(@BeanParam StandardParameters stdParameters,
-			@QueryParam(value = "r") String routesIdOrShortNames) throws WebApplicationException {
+	public Response getScheduleVertStops(@BeanParam final StandardParameters stdParameters,
+			@QueryParam(value = "r") final String routesIdOrShortNames) throws WebApplicationException {
 
 		// Make sure request is valid
 		stdParameters.validate();
 
-		try {
-			// Get block data from server
-			ConfigInterface inter = stdParameters.getConfigInterface();
-			List<IpcSchedule> ipcSchedules = inter.getSchedules(routesIdOrShortNames);
+		return ResponseCache.getInstance().getConfigResponse(stdParameters,
+				new ResponseCache.Loader() {
+			@Override
+			public Object load() throws Exception {
+				// Get block data from server
+				ConfigInterface inter = stdParameters.getConfigInterface();
+				final List<IpcSchedule> ipcSchedules = inter.getSchedules(routesIdOrShortNames);
 
-			// If the trip doesn't exist then throw exception such that
-			// Bad Request with an appropriate message is returned.
-			if (ipcSchedules == null)
-				throw WebUtils.badRequestException("route=" + routesIdOrShortNames + " does not exist.");
+				// If the trip doesn't exist then throw exception such that
+				// Bad Request with an appropriate message is returned.
+				if (ipcSchedules == null)
+					throw WebUtils.badRequestException("route=" + routesIdOrShortNames + " does not exist.");
+
+				// For JSON write the schedules directly
+				if (stdParameters.isJson()) {
+					return new StreamingJsonOutput() {
+						@Override
+						protected void writeJson(JsonStreamWriter json)
+								throws IOException {
+							ApiJsonStreams.writeSchedulesVertStops(json, ipcSchedules);
+						}
+					};
+				}
 
-			// Create and return ApiSchedules response
-			ApiSchedulesVertStops apiSchedules = new ApiSchedulesVertStops(ipcSchedules);
-			return stdParameters.createResponse(apiSchedules);
-		} catch (Exception e) {
-			// If problem getting data then return a Bad Request
-			throw WebUtils.badRequestException(e);
-		}
+				// Create and return ApiSchedules response
+				ApiSchedulesVertStops apiSchedules = new ApiSchedulesVertStops(ipcSchedules);
+				return apiSchedules;
+			}
+		});
 	}
 
 	/**
@@ -1322,29 +1387,41 @@ public class TransitimeApi {
 	@Path("/command/scheduleHorizStops")
 	@GET
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
-	public Response getScheduleHorizStops(@BeanParam StandardParameters stdParameters,
-			@QueryParam(value = "r") String routesIdOrShortNames) throws WebApplicationException {
+	public Response getScheduleHorizStops(@BeanParam final StandardParameters stdParameters,
+			@QueryParam(value = "r") final String routesIdOrShortNames) throws WebApplicationException {
 
 		// Make sure request is valid
 		stdParameters.validate();
 
-		try {
-			// Get block data from server
-			ConfigInterface inter = stdParameters.getConfigInterface();
-			List<IpcSchedule> ipcSchedules = inter.getSchedules(routesIdOrShortNames);
+		return ResponseCache.getInstance().getConfigResponse(stdParameters,
+				new ResponseCache.Loader() {
+			@Override
+			public Object load() throws Exception {
+				// Get block data from server
+				ConfigInterface inter = stdParameters.getConfigInterface();
+				final List<IpcSchedule> ipcSchedules = inter.getSchedules(routesIdOrShortNames);
 
-			// If the trip doesn't exist then throw exception such that
-			// Bad Request with an appropriate message is returned.
-			if (ipcSchedules == null)
-				throw WebUtils.badRequestException("route=" + routesIdOrShortNames + " does not exist.");
+				// If the trip doesn't exist then throw exception such that
+				// Bad Request with an appropriate message is returned.
+				if (ipcSchedules == null)
+					throw WebUtils.badRequestException("route=" + routesIdOrShortNames + " does not exist.");
+
+				// For JSON write the schedules directly
+				if (stdParameters.isJson()) {
+					return new StreamingJsonOutput() {
+						@Override
+						protected void writeJson(JsonStreamWriter json)
+								throws IOException {
+							ApiJsonStreams.writeSchedulesHorizStops(json, ipcSchedules);
+						}
+					};
+				}
 
-			// Create and return ApiSchedules response
-			ApiSchedulesHorizStops apiSchedules = new ApiSchedulesHorizStops(ipcSchedules);
-			return stdParameters.createResponse(apiSchedules);
-		} catch (Exception e) {
-			// If problem getting data then return a Bad Request
-			throw WebUtils.badRequestException(e);
-		}
+				// Create and return ApiSchedules response
+				ApiSchedulesHorizStops apiSchedules = new ApiSchedulesHorizStops(ipcSchedules);
+				return apiSchedules;
+			}
+		});
 	}
 
 	/**
@@ -17,7 +17,6 @@
 
 package org.transitime.api.rootResources;
 
-import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -37,6 +36,7 @@ import org.transitime.api.data.ApiAgency;
 import org.transitime.api.data.ApiNearbyPredictionsForAgencies;
 import org.transitime.api.data.ApiPredictions;
 import org.transitime.api.predsByLoc.PredsByLoc;
+import org.transitime.api.utils.AgencyFanOut;
 import org.transitime.api.utils.StandardParameters;
 import org.transitime.api.utils.WebUtils;
 import org.transitime.db.structs.Agency;
@@ -82,37 +82,38 @@ public class TransitimeNonAgencyApi {
 		stdParameters.validate();
 
 		// For each agency handled by this server create an ApiAgencies
-		// and return the list.
-		try {
-			List<ApiAgency> apiAgencyList = new ArrayList<ApiAgency>();
-			Collection<WebAgency> webAgencies =
-					WebAgency.getCachedOrderedListOfWebAgencies();
-			for (WebAgency webAgency : webAgencies) {
-				String agencyId = webAgency.getAgencyId();
+		// and return the list. The agencies are queried in parallel.
+		List<String> agencyIds = new ArrayList<String>();
+		Collection<WebAgency> webAgencies =
+				WebAgency.getCachedOrderedListOfWebAgencies();
+		for (WebAgency webAgency : webAgencies)
+			agencyIds.add(webAgency.getAgencyId());
+		
+		AgencyFanOut.Results<List<Agency>> results = AgencyFanOut.callAll(
+				agencyIds, new AgencyFanOut.AgencyCall<List<Agency>>() {
+			@Override
+			public List<Agency> call(String agencyId) throws Exception {
 				ConfigInterface inter = ConfigInterfaceFactory.get(agencyId);
 
 				// If can't communicate with IPC with that agency then move on
 				// to the next one. This is important because some agencies
 				// might be declared in the web db but they might not actually
 				// be running.
-				if (inter == null) {
-					// Should really log something here to explain that skipping
-					// agency
+				if (inter == null)
+					return null;
 
-					continue;
-				}
+				return inter.getAgencies();
+			}
+		});
 
-				List<Agency> agencies = inter.getAgencies();
-				for (Agency agency : agencies) {
-					apiAgencyList.add(new ApiAgency(agencyId, agency));
-				}
+		List<ApiAgency> apiAgencyList = new ArrayList<ApiAgency>();
+		for (String agencyId : results.getResultsByAgency().keySet()) {
+			for (Agency agency : results.getResultsByAgency().get(agencyId)) {
+				apiAgencyList.add(new ApiAgency(agencyId, agency));
 			}
-			ApiAgencies apiAgencies = new ApiAgencies(apiAgencyList);
-			return stdParameters.createResponse(apiAgencies);
-		} catch (RemoteException e) {
-			// If problem getting data then return a Bad Request
-			throw WebUtils.badRequestException(e);
 		}
+		ApiAgencies apiAgencies = new ApiAgencies(apiAgencyList);
+		return stdParameters.createResponse(apiAgencies);
 	}
 
 	/**
@@ -137,10 +138,10 @@ public class TransitimeNonAgencyApi {
 	@Produces({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML })
 	public Response getPredictions(
 			@BeanParam StandardParameters stdParameters,
-			@QueryParam(value = "lat") Double lat,
-			@QueryParam(value = "lon") Double lon,
-			@QueryParam(value = "maxDistance") @DefaultValue("1500.0") double maxDistance,
-			@QueryParam(value = "numPreds") @DefaultValue("3") int numberPredictions)
+			@QueryParam(value = "lat") final Double lat,
+			@QueryParam(value = "lon") final Double lon,
+			@QueryParam(value = "maxDistance") @DefaultValue("1500.0") final double maxDistance,
+			@QueryParam(value = "numPreds") @DefaultValue("3") final int numberPredictions)
 			throws WebApplicationException {
 		// Make sure request is valid
 		stdParameters.validate();
@@ -154,19 +155,28 @@ public class TransitimeNonAgencyApi {
 			ApiNearbyPredictionsForAgencies predsForAgencies = 
 					new ApiNearbyPredictionsForAgencies();
 			
-			// For each nearby agency...
+			// Get predictions by location for each nearby agency. The 
+			// agencies are queried in parallel and ones that don't respond
+			// in time are left out.
 			List<String> nearbyAgencies =
-					PredsByLoc.getNearbyAgencies(lat, lon, maxDistance);			
-			for (String agencyId : nearbyAgencies) {
-				// Get predictions by location for the agency
-				PredictionsInterface predictionsInterface =
-						PredictionsInterfaceFactory.get(agencyId);
-				List<IpcPredictionsForRouteStopDest> predictions =
-						predictionsInterface.get(new Location(lat, lon),
-								maxDistance, numberPredictions);
-	
+					PredsByLoc.getNearbyAgencies(lat, lon, maxDistance);
+			AgencyFanOut.Results<List<IpcPredictionsForRouteStopDest>> results =
+					AgencyFanOut.callAll(nearbyAgencies,
+							new AgencyFanOut.AgencyCall<List<IpcPredictionsForRouteStopDest>>() {
+				@Override
+				public List<IpcPredictionsForRouteStopDest> call(String agencyId)
+						throws Exception {
+					PredictionsInterface predictionsInterface =
+							PredictionsInterfaceFactory.get(agencyId);
+					return predictionsInterface.get(new Location(lat, lon),
+							maxDistance, numberPredictions);
+				}
+			});
+			
+			for (String agencyId : results.getResultsByAgency().keySet()) {
 				// Convert predictions to API object
-				ApiPredictions predictionsData = new ApiPredictions(predictions);
+				ApiPredictions predictionsData = new ApiPredictions(
+						results.getResultsByAgency().get(agencyId));
 
 				// Add additional agency related info so can describe the 
 				// agency in the API.
@@ -178,6 +188,9 @@ public class TransitimeNonAgencyApi {
 				// be returned
 				predsForAgencies.addPredictionsForAgency(predictionsData);
 			}
+			predsForAgencies.setUnavailableAgencies(
+					results.getUnavailableAgencyIds());
+			
 			return stdParameters.createResponse(predsForAgencies);
 		} catch (Exception e) {
 			// If problem getting data then return a Bad Request
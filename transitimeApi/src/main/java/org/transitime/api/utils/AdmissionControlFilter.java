@@ -0,0 +1,81 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.api.utils;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits how many API requests are processed at once. When the limit from
+ * UsageValidator is reached additional requests are immediately rejected
+ * with a 429 Too Many Requests response instead of queuing up and making
+ * RMI calls to the core. This keeps the core responsive for legitimate
+ * clients during a traffic spike.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class AdmissionControlFilter implements Filter {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(AdmissionControlFilter.class);
+
+	/********************** Member Functions **************************/
+
+	@Override
+	public void init(FilterConfig filterConfig) {
+		logger.info("AdmissionControlFilter init");
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response,
+			FilterChain filterChain) throws IOException, ServletException {
+		UsageValidator usageValidator = UsageValidator.getInstance();
+		if (!usageValidator.tryStartRequest()) {
+			logger.warn("Too many concurrent API requests ({}) so rejecting "
+					+ "request.", usageValidator.getConcurrentRequests());
+			HttpServletResponse httpResponse = (HttpServletResponse) response;
+			httpResponse.setHeader("Access-Control-Allow-Origin", "*");
+			httpResponse.setHeader("Retry-After", "1");
+			httpResponse.sendError(WebUtils.TOO_MANY_REQUESTS,
+					"Server too busy. Try again later.");
+			return;
+		}
+
+		try {
+			filterChain.doFilter(request, response);
+		} finally {
+			usageValidator.requestFinished();
+		}
+	}
+
+	@Override
+	public void destroy() {
+		logger.info("AdmissionControlFilter destroy");
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.api.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.utils.IntervalTimer;
+import org.transitime.utils.threading.NamedThreadFactory;
+
+/**
+ * For API commands that need data from multiple agencies. Instead of calling
+ * each agency's core one after another the calls are done in parallel so
+ * that the latency is that of the slowest agency instead of the sum of all
+ * of them. Agencies that fail or that don't respond by the deadline are left
+ * out of the results and listed as unavailable so that one agency that is
+ * down doesn't prevent results for the others from being returned.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class AgencyFanOut {
+
+	private static IntegerConfigValue deadlineMsec = new IntegerConfigValue(
+			"transitime.api.agencyFanOutDeadlineMsec", 3000,
+			"For API commands that query multiple agencies, how long to "
+					+ "wait for the agencies to respond. Agencies that "
+					+ "haven't responded by then are left out of the "
+					+ "results.");
+
+	private static IntegerConfigValue maxThreads = new IntegerConfigValue(
+			"transitime.api.agencyFanOutThreads", 32,
+			"Maximum number of threads for querying multiple agencies in "
+					+ "parallel.");
+
+	private static IntegerConfigValue maxQueuedCalls = new IntegerConfigValue(
+			"transitime.api.agencyFanOutQueueSize", 500,
+			"Maximum number of agency calls that can be waiting for a "
+					+ "thread. If the queue is full, such as when cores are "
+					+ "slow to respond and many requests are coming in, "
+					+ "the agency is listed as unavailable instead of the "
+					+ "call being queued.");
+
+	private static final ThreadPoolExecutor executor;
+	static {
+		executor = new ThreadPoolExecutor(maxThreads.getValue(),
+				maxThreads.getValue(), 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(maxQueuedCalls.getValue()),
+				new NamedThreadFactory("agencyFanOut"));
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(AgencyFanOut.class);
+
+	/**
+	 * The call to make for each agency.
+	 *
+	 * @param <T>
+	 *            Type of the result
+	 */
+	public interface AgencyCall<T> {
+		/**
+		 * @param agencyId
+		 * @return The result for the agency, or null if there is no result
+		 * @throws Exception
+		 */
+		T call(String agencyId) throws Exception;
+	}
+
+	/**
+	 * The results for the agencies that responded in time, plus the IDs of
+	 * the agencies that did not.
+	 *
+	 * @param <T>
+	 *            Type of the result
+	 */
+	public static class Results<T> {
+		// Keyed by agencyId, in the same order as the agencies were specified
+		private final Map<String, T> resultsByAgency =
+				new LinkedHashMap<String, T>();
+		private final List<String> unavailableAgencyIds =
+				new ArrayList<String>();
+
+		/**
+		 * @return The results keyed by agencyId, in the order that the
+		 *         agencies were specified
+		 */
+		public Map<String, T> getResultsByAgency() {
+			return resultsByAgency;
+		}
+
+		/**
+		 * @return IDs of agencies that failed or didn't respond in time
+		 */
+		public List<String> getUnavailableAgencyIds() {
+			return unavailableAgencyIds;
+		}
+	}
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Makes the call for each of the agencies in parallel and waits for the
+	 * results until the deadline.
+	 *
+	 * @param agencyIds
+	 * @param agencyCall
+	 *            The call to make for each agency
+	 * @return The results
+	 */
+	public static <T> Results<T> callAll(Collection<String> agencyIds,
+			final AgencyCall<T> agencyCall) {
+		IntervalTimer timer = new IntervalTimer();
+		Results<T> results = new Results<T>();
+
+		// Start all the calls
+		Map<String, Future<T>> futures =
+				new LinkedHashMap<String, Future<T>>();
+		for (final String agencyId : agencyIds) {
+			try {
+				futures.put(agencyId, executor.submit(new Callable<T>() {
+					@Override
+					public T call() throws Exception {
+						return agencyCall.call(agencyId);
+					}
+				}));
+			} catch (RejectedExecutionException e) {
+				// Queue is full so don't make things worse by waiting
+				logger.error("Could not query agencyId={} because too many "
+						+ "agency calls are already queued. {}", agencyId,
+						e.getMessage());
+				results.unavailableAgencyIds.add(agencyId);
+			}
+		}
+
+		// Gather the results. Since the calls are done in parallel there is
+		// a single deadline for all of them.
+		long deadlineTime = System.currentTimeMillis() + deadlineMsec.getValue();
+		for (Map.Entry<String, Future<T>> entry : futures.entrySet()) {
+			String agencyId = entry.getKey();
+			Future<T> future = entry.getValue();
+			try {
+				long waitMsec =
+						Math.max(0, deadlineTime - System.currentTimeMillis());
+				T result = future.get(waitMsec, TimeUnit.MILLISECONDS);
+				if (result != null)
+					results.resultsByAgency.put(agencyId, result);
+			} catch (TimeoutException e) {
+				future.cancel(true);
+				logger.error("AgencyId={} did not respond within {} msec so "
+						+ "leaving it out of the results.", agencyId,
+						deadlineMsec.getValue());
+				results.unavailableAgencyIds.add(agencyId);
+			} catch (ExecutionException e) {
+				logger.error("Exception when querying agencyId={} so leaving "
+						+ "it out of the results. {}", agencyId,
+						e.getCause().getMessage());
+				results.unavailableAgencyIds.add(agencyId);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				future.cancel(true);
+				results.unavailableAgencyIds.add(agencyId);
+			}
+		}
+
+		logger.debug("Queried {} agencies in {} msec. Unavailable agencies: {}",
+				agencyIds.size(), timer.elapsedMsec(),
+				results.unavailableAgencyIds);
+		return results;
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.api.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes JSON directly to a stream, element by element, so that large
+ * responses don't first need to be built up in memory as an object graph.
+ * Null values are not written, which is the same as what MOXy does for the
+ * Api* classes.
+ * <p>
+ * Only does the minimum needed for the API. Not thread safe.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class JsonStreamWriter {
+
+	private final Writer writer;
+
+	// For each nesting level whether a value has already been written, so
+	// know whether a comma is needed
+	private boolean[] hasValue = new boolean[16];
+	private int depth = 0;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param out
+	 *            Where the UTF-8 JSON is written to
+	 */
+	public JsonStreamWriter(OutputStream out) {
+		this.writer = new BufferedWriter(
+				new OutputStreamWriter(out, StandardCharsets.UTF_8), 8192);
+	}
+
+	private void beforeValue() throws IOException {
+		if (hasValue[depth])
+			writer.write(',');
+		hasValue[depth] = true;
+	}
+
+	private void push() {
+		if (++depth == hasValue.length) {
+			boolean[] larger = new boolean[hasValue.length * 2];
+			System.arraycopy(hasValue, 0, larger, 0, hasValue.length);
+			hasValue = larger;
+		}
+		hasValue[depth] = false;
+	}
+
+	private void name(String name) throws IOException {
+		beforeValue();
+		string(name);
+		writer.write(':');
+	}
+
+	private void string(String s) throws IOException {
+		writer.write('"');
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				writer.write("\\\"");
+				break;
+			case '\\':
+				writer.write("\\\\");
+				break;
+			case '\n':
+				writer.write("\\n");
+				break;
+			case '\r':
+				writer.write("\\r");
+				break;
+			case '\t':
+				writer.write("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					writer.write(String.format("\\u%04x", (int) c));
+				} else {
+					writer.write(c);
+				}
+			}
+		}
+		writer.write('"');
+	}
+
+	/**
+	 * Starts an object that is an element of an array, or the root object
+	 */
+	public JsonStreamWriter beginObject() throws IOException {
+		beforeValue();
+		writer.write('{');
+		push();
+		return this;
+	}
+
+	/**
+	 * Starts an object that is a member of the current object
+	 */
+	public JsonStreamWriter beginObject(String name) throws IOException {
+		name(name);
+		writer.write('{');
+		push();
+		return this;
+	}
+
+	public JsonStreamWriter endObject() throws IOException {
+		writer.write('}');
+		--depth;
+		return this;
+	}
+
+	/**
+	 * Starts an array that is a member of the current object
+	 */
+	public JsonStreamWriter beginArray(String name) throws IOException {
+		name(name);
+		writer.write('[');
+		push();
+		return this;
+	}
+
+	public JsonStreamWriter endArray() throws IOException {
+		writer.write(']');
+		--depth;
+		return this;
+	}
+
+	/**
+	 * Writes a member of the current object. Nothing written if value null.
+	 */
+	public JsonStreamWriter value(String name, String value)
+			throws IOException {
+		if (value != null) {
+			name(name);
+			string(value);
+		}
+		return this;
+	}
+
+	public JsonStreamWriter value(String name, Integer value)
+			throws IOException {
+		if (value != null) {
+			name(name);
+			writer.write(Integer.toString(value));
+		}
+		return this;
+	}
+
+	/**
+	 * Writes a number member. Since JSON has no representation for NaN or
+	 * infinity such a value is written as null.
+	 */
+	public JsonStreamWriter value(String name, Double value)
+			throws IOException {
+		if (value != null) {
+			name(name);
+			if (Double.isNaN(value) || Double.isInfinite(value))
+				writer.write("null");
+			else
+				writer.write(Double.toString(value));
+		}
+		return this;
+	}
+
+	public JsonStreamWriter value(String name, Boolean value)
+			throws IOException {
+		if (value != null) {
+			name(name);
+			writer.write(value ? "true" : "false");
+		}
+		return this;
+	}
+
+	/**
+	 * Flushes buffered data to the underlying stream. Needs to be called
+	 * when done writing.
+	 */
+	public void flush() throws IOException {
+		writer.flush();
+	}
+}
@@ -0,0 +1,518 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.api.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.annotation.Annotation;
+import java.rmi.RemoteException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.config.IntegerConfigValue;
+import org.transitime.utils.Time;
+
+/**
+ * A shared cache of serialized API responses. Many clients, such as stop
+ * signs and apps, make the very same request over and over. Instead of each
+ * request doing the RMI calls to the core and serializing the result, the
+ * serialized bytes are cached for a short time, or for configuration data
+ * until the config rev of the core changes.
+ * <p>
+ * Responses are keyed on the agency, the command, the query string
+ * parameters and the media type, but not the API key, so different
+ * applications share the cached data. Each response has a strong ETag so that
+ * a client that already has the data gets a 304 Not Modified. Concurrent
+ * identical requests that miss the cache are coalesced so that only one of
+ * them actually gets the data from the core.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class ResponseCache {
+
+	/**
+	 * For getting the data for a response when it is not in the cache.
+	 */
+	public interface Loader {
+		/**
+		 * @return the object to be serialized as the response
+		 * @throws Exception
+		 */
+		public Object load() throws Exception;
+	}
+
+	/**
+	 * A serialized response
+	 */
+	private static class CachedResponse {
+		// The serialized data. If could not be serialized in advance, such
+		// as when there is no MessageBodyWriter for the media type, then
+		// bytes and etag are null and the entity is serialized each time.
+		private final byte[] bytes;
+		private final String etag;
+		private final Object entity;
+		private final String mediaType;
+		// Epoch time when no longer valid. Long.MAX_VALUE for config data.
+		private final long expiresTime;
+		// For config data. -1 for real-time data.
+		private final int configRev;
+
+		private CachedResponse(byte[] bytes, String etag, Object entity,
+				String mediaType, long expiresTime, int configRev) {
+			this.bytes = bytes;
+			this.etag = etag;
+			this.entity = entity;
+			this.mediaType = mediaType;
+			this.expiresTime = expiresTime;
+			this.configRev = configRev;
+		}
+
+		private boolean isValid(long now, int currentConfigRev) {
+			return now < expiresTime && configRev == currentConfigRev;
+		}
+	}
+
+	/**
+	 * The config rev of an agency and when it should next be checked
+	 */
+	private static class AgencyConfigRev {
+		private volatile int configRev = -1;
+		private final AtomicLong nextCheckTime = new AtomicLong(0);
+	}
+
+	/******************** Parameters ************************************/
+
+	private static IntegerConfigValue realTimeTtlMsec =
+			new IntegerConfigValue("transitime.api.responseCacheTtlMsec",
+					1000,
+					"How long in msec real-time API responses, such as for "
+					+ "predictions and vehicles, are cached so that identical "
+					+ "requests can share them. Set to 0 to not cache "
+					+ "real-time responses.");
+
+	private static IntegerConfigValue configRevCheckSecs =
+			new IntegerConfigValue("transitime.api.configRevCheckSecs",
+					60,
+					"Configuration API responses, such as for routes and "
+					+ "stops, are cached until the config rev of the core "
+					+ "changes. This is how often in seconds the config rev "
+					+ "is checked.");
+
+	private static IntegerConfigValue maxEntries =
+			new IntegerConfigValue("transitime.api.responseCacheMaxEntries",
+					10000,
+					"Maximum number of responses in the API response cache.");
+
+	/******************** Members ************************************/
+
+	// This is a singleton class
+	private static ResponseCache singleton = new ResponseCache();
+
+	private final ConcurrentHashMap<String, FutureTask<CachedResponse>> cache =
+			new ConcurrentHashMap<String, FutureTask<CachedResponse>>();
+
+	// Keyed on agency ID
+	private final ConcurrentHashMap<String, AgencyConfigRev> configRevs =
+			new ConcurrentHashMap<String, AgencyConfigRev>();
+
+	private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(ResponseCache.class);
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * Constructor private because singleton class
+	 */
+	private ResponseCache() {
+	}
+
+	/**
+	 * Get singleton instance.
+	 *
+	 * @return
+	 */
+	public static ResponseCache getInstance() {
+		return singleton;
+	}
+
+	/**
+	 * Returns the response for real-time data, such as predictions, using the
+	 * cached response if it is recent enough.
+	 *
+	 * @param stdParameters
+	 * @param loader
+	 *            For getting the data if not cached
+	 * @return the response
+	 * @throws WebApplicationException
+	 */
+	public Response getRealTimeResponse(StandardParameters stdParameters,
+			Loader loader) throws WebApplicationException {
+		int ttlMsec = realTimeTtlMsec.getValue();
+		if (ttlMsec <= 0)
+			return uncachedResponse(stdParameters, loader);
+
+		return getResponse(stdParameters, loader, ttlMsec, -1,
+				Math.max(1, ttlMsec / Time.MS_PER_SEC));
+	}
+
+	/**
+	 * Returns the response for configuration data, such as routes, using the
+	 * cached response if it is for the current config rev.
+	 *
+	 * @param stdParameters
+	 * @param loader
+	 *            For getting the data if not cached
+	 * @return the response
+	 * @throws WebApplicationException
+	 */
+	public Response getConfigResponse(StandardParameters stdParameters,
+			Loader loader) throws WebApplicationException {
+		int configRev = getConfigRev(stdParameters);
+		if (configRev < 0)
+			return uncachedResponse(stdParameters, loader);
+
+		return getResponse(stdParameters, loader, -1, configRev,
+				configRevCheckSecs.getValue());
+	}
+
+	/**
+	 * For when caching is not possible or is disabled
+	 */
+	private static Response uncachedResponse(StandardParameters stdParameters,
+			Loader loader) throws WebApplicationException {
+		try {
+			return stdParameters.createResponse(loader.load());
+		} catch (WebApplicationException e) {
+			throw e;
+		} catch (Exception e) {
+			throw WebUtils.badRequestException(e);
+		}
+	}
+
+	/**
+	 * Returns the config rev for the agency, only checking with the core
+	 * every configRevCheckSecs. Only one thread does the check while the
+	 * others continue to use the previous value.
+	 *
+	 * @return the config rev, or -1 if it could not be determined
+	 */
+	private int getConfigRev(StandardParameters stdParameters) {
+		String agencyId = stdParameters.getAgencyId();
+		AgencyConfigRev agencyConfigRev = configRevs.get(agencyId);
+		if (agencyConfigRev == null) {
+			agencyConfigRev = new AgencyConfigRev();
+			AgencyConfigRev existing =
+					configRevs.putIfAbsent(agencyId, agencyConfigRev);
+			if (existing != null)
+				agencyConfigRev = existing;
+		}
+
+		long now = System.currentTimeMillis();
+		long nextCheckTime = agencyConfigRev.nextCheckTime.get();
+		if (now >= nextCheckTime
+				&& agencyConfigRev.nextCheckTime.compareAndSet(nextCheckTime,
+						now + configRevCheckSecs.getValue() * Time.MS_PER_SEC)) {
+			try {
+				int configRev =
+						stdParameters.getConfigInterface().getConfigRev();
+				if (configRev != agencyConfigRev.configRev) {
+					logger.info("Config rev for agencyId={} is now {} so "
+							+ "cached configuration responses will be "
+							+ "reread.", agencyId, configRev);
+					agencyConfigRev.configRev = configRev;
+				}
+			} catch (RemoteException | RuntimeException e) {
+				logger.error("Could not get config rev for agencyId={}. {}",
+						agencyId, e.getMessage());
+				// Try again next time
+				agencyConfigRev.nextCheckTime.set(0);
+				return -1;
+			}
+		}
+		return agencyConfigRev.configRev;
+	}
+
+	/**
+	 * @return the key for the request: the agency, the command, the media
+	 *         type, and the sorted query string parameters except for format
+	 *         since it is already part of the media type
+	 */
+	private static String getCacheKey(StandardParameters stdParameters,
+			String mediaType) {
+		HttpServletRequest request = stdParameters.getRequest();
+		String path = request.getRequestURI();
+		int commandIndex = path.indexOf("/command/");
+		String command =
+				commandIndex >= 0 ? path.substring(commandIndex) : path;
+
+		StringBuilder sb = new StringBuilder(128);
+		sb.append(stdParameters.getAgencyId()).append('|').append(command)
+				.append('|').append(mediaType);
+
+		@SuppressWarnings("unchecked")
+		Map<String, String[]> params = request.getParameterMap();
+		String[] names = params.keySet().toArray(new String[params.size()]);
+		Arrays.sort(names);
+		for (String name : names) {
+			if (name.equals("format"))
+				continue;
+			// The order of the values can matter, such as for the order of
+			// route/stops, so they are not sorted
+			for (String value : params.get(name))
+				sb.append('|').append(name).append('=').append(value);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Gets the response from the cache, or if not there or no longer valid
+	 * gets the data and serializes it. If another thread is already getting
+	 * the data for the same request then waits for it instead.
+	 *
+	 * @param ttlMsec
+	 *            How long response is valid. -1 for config data.
+	 * @param configRev
+	 *            For config data. -1 for real-time data.
+	 * @param maxAgeSecs
+	 *            For the Cache-Control header
+	 */
+	private Response getResponse(final StandardParameters stdParameters,
+			final Loader loader, final int ttlMsec, final int configRev,
+			int maxAgeSecs) throws WebApplicationException {
+		final String mediaType = stdParameters.getMediaType();
+		String key = getCacheKey(stdParameters, mediaType);
+
+		while (true) {
+			FutureTask<CachedResponse> task = cache.get(key);
+			if (task != null && task.isDone()) {
+				CachedResponse cachedResponse = getQuietly(task);
+				if (cachedResponse != null && cachedResponse.isValid(
+						System.currentTimeMillis(), configRev))
+					return createResponse(stdParameters, cachedResponse,
+							maxAgeSecs);
+			} else if (task != null) {
+				// Another thread is getting the data so wait for it
+				return createResponse(stdParameters, waitFor(task),
+						maxAgeSecs);
+			}
+
+			// Need new data
+			FutureTask<CachedResponse> newTask = new FutureTask<CachedResponse>(
+					new Callable<CachedResponse>() {
+						@Override
+						public CachedResponse call() throws Exception {
+							return load(stdParameters, loader, mediaType,
+									ttlMsec, configRev);
+						}
+					});
+			boolean added = task == null ?
+					cache.putIfAbsent(key, newTask) == null
+					: cache.replace(key, task, newTask);
+			if (!added) {
+				// Another thread got there first so use its task
+				continue;
+			}
+
+			if (task == null)
+				trimIfNeeded();
+			newTask.run();
+			try {
+				return createResponse(stdParameters, waitFor(newTask),
+						maxAgeSecs);
+			} catch (WebApplicationException e) {
+				// Don't cache problems
+				cache.remove(key, newTask);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * @return result of the completed task, or null if it failed
+	 */
+	private static CachedResponse getQuietly(Future<CachedResponse> task) {
+		try {
+			return task.get();
+		} catch (InterruptedException | ExecutionException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Waits for the task and converts any problem into a
+	 * WebApplicationException, the same way the API commands do.
+	 */
+	private static CachedResponse waitFor(Future<CachedResponse> task)
+			throws WebApplicationException {
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof WebApplicationException)
+				throw (WebApplicationException) cause;
+			throw WebUtils.badRequestException(cause);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw WebUtils.badRequestException(e);
+		}
+	}
+
+	/**
+	 * Gets the data and serializes it using the same MessageBodyWriter that
+	 * JAX-RS would use.
+	 */
+	private static CachedResponse load(StandardParameters stdParameters,
+			Loader loader, String mediaType, int ttlMsec, int configRev)
+			throws Exception {
+		Object entity = loader.load();
+		long expiresTime = ttlMsec >= 0 ?
+				System.currentTimeMillis() + ttlMsec : Long.MAX_VALUE;
+
+		Providers providers = stdParameters.getProviders();
+		MediaType type = MediaType.valueOf(mediaType);
+		@SuppressWarnings("unchecked")
+		MessageBodyWriter<Object> writer = providers == null ? null :
+				(MessageBodyWriter<Object>) providers.getMessageBodyWriter(
+						entity.getClass(), entity.getClass(), NO_ANNOTATIONS,
+						type);
+		if (writer == null) {
+			return new CachedResponse(null, null, entity, mediaType,
+					expiresTime, configRev);
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+		writer.writeTo(entity, entity.getClass(), entity.getClass(),
+				NO_ANNOTATIONS, type, new MultivaluedHashMap<String, Object>(),
+				out);
+		byte[] bytes = out.toByteArray();
+		return new CachedResponse(bytes, etag(bytes), null, mediaType,
+				expiresTime, configRev);
+	}
+
+	/**
+	 * @return strong ETag value, without the quotes, for the data
+	 */
+	private static String etag(byte[] bytes) throws NoSuchAlgorithmException {
+		byte[] digest = MessageDigest.getInstance("MD5").digest(bytes);
+		char[] chars = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; ++i) {
+			chars[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xF];
+			chars[2 * i + 1] = HEX_DIGITS[digest[i] & 0xF];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * @return true if the If-None-Match header of the request matches the
+	 *         ETag
+	 */
+	private static boolean matchesIfNoneMatch(HttpServletRequest request,
+			String etag) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch == null)
+			return false;
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.equals("*"))
+				return true;
+			if (tag.startsWith("W/"))
+				tag = tag.substring(2);
+			if (tag.length() == etag.length() + 2 && tag.startsWith("\"")
+					&& tag.regionMatches(1, etag, 0, etag.length()))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Creates the response for the cached data. If client already has the
+	 * data, as indicated by the If-None-Match header, then a 304 Not Modified
+	 * is returned.
+	 */
+	private static Response createResponse(StandardParameters stdParameters,
+			CachedResponse cachedResponse, int maxAgeSecs) {
+		if (cachedResponse.bytes == null)
+			return stdParameters.createResponse(cachedResponse.entity);
+
+		EntityTag entityTag = new EntityTag(cachedResponse.etag);
+		ResponseBuilder responseBuilder;
+		if (matchesIfNoneMatch(stdParameters.getRequest(),
+				cachedResponse.etag))
+			responseBuilder = Response.notModified(entityTag);
+		else
+			responseBuilder = Response.ok(cachedResponse.bytes)
+					.type(cachedResponse.mediaType).tag(entityTag);
+
+		return responseBuilder
+				.header("Access-Control-Allow-Origin", "*")
+				.header("Cache-Control", "max-age=" + maxAgeSecs)
+				.build();
+	}
+
+	/**
+	 * Keeps the cache from growing without bound. First removes entries that
+	 * are no longer valid and if that isn't enough clears the cache.
+	 */
+	private void trimIfNeeded() {
+		if (cache.size() <= maxEntries.getValue())
+			return;
+
+		long now = System.currentTimeMillis();
+		Iterator<FutureTask<CachedResponse>> iterator =
+				cache.values().iterator();
+		while (iterator.hasNext()) {
+			FutureTask<CachedResponse> task = iterator.next();
+			if (!task.isDone())
+				continue;
+			CachedResponse cachedResponse = getQuietly(task);
+			if (cachedResponse == null || now >= cachedResponse.expiresTime)
+				iterator.remove();
+		}
+
+		if (cache.size() > maxEntries.getValue()) {
+			logger.warn("API response cache has more than {} entries so "
+					+ "clearing it.", maxEntries.getValue());
+			cache.clear();
+		}
+	}
+}
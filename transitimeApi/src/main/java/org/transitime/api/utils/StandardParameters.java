@@ -17,6 +17,10 @@
 
 package org.transitime.api.utils;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.HeaderParam;
@@ -28,7 +32,10 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.Providers;
 
+import org.transitime.config.BooleanConfigValue;
 import org.transitime.db.webstructs.ApiKeyManager;
 import org.transitime.ipc.clients.CacheQueryInterfaceFactory;
 import org.transitime.ipc.clients.CommandsInterfaceFactory;
@@ -74,6 +81,16 @@ public class StandardParameters {
 	@Context
 	HttpServletRequest request;
 
+	// For serializing responses in advance, so they can be cached
+	@Context
+	Providers providers;
+
+	private static BooleanConfigValue gzipStreamingResponses =
+			new BooleanConfigValue("transitime.api.gzipStreamingResponses",
+					true,
+					"Whether streamed JSON responses should be gzip "
+					+ "compressed when the client accepts gzip encoding.");
+
 	/********************** Member Functions **************************/
 
 	/**
@@ -132,6 +149,14 @@ public class StandardParameters {
 		return mediaType;
 	}
 
+	/**
+	 * @return True if the response is to be JSON, in which case large
+	 *         responses can be streamed via createStreamingResponse()
+	 */
+	public boolean isJson() throws WebApplicationException {
+		return MediaType.APPLICATION_JSON.equals(getMediaType());
+	}
+
 	/**
 	 * Makes sure not access feed too much and that the key is valid. If
 	 * there is a problem then throws a WebApplicationException.
@@ -175,6 +200,43 @@ public class StandardParameters {
 		return responseBuilder.build();
 	}
 
+	/**
+	 * For creating a JSON Response that is written directly to the output
+	 * stream instead of first being built up as an object graph. If the client
+	 * accepts gzip encoding then the stream is compressed as it is written.
+	 * 
+	 * @param output
+	 *            Writes the JSON
+	 * @return The created response
+	 */
+	public Response createStreamingResponse(final StreamingJsonOutput output) {
+		ResponseBuilder responseBuilder;
+		String acceptEncoding =
+				request != null ? request.getHeader("Accept-Encoding") : null;
+		if (gzipStreamingResponses.getValue() && acceptEncoding != null
+				&& acceptEncoding.contains("gzip")) {
+			responseBuilder = Response.ok(new StreamingOutput() {
+				@Override
+				public void write(OutputStream out) throws IOException,
+						WebApplicationException {
+					GZIPOutputStream gzipOut = new GZIPOutputStream(out, 8192);
+					output.write(gzipOut);
+					gzipOut.finish();
+				}
+			});
+			responseBuilder.header("Content-Encoding", "gzip");
+			responseBuilder.header("Vary", "Accept-Encoding");
+		} else {
+			responseBuilder = Response.ok(output);
+		}
+
+		// Allow cross-origin requests, same as createResponse()
+		responseBuilder.header("Access-Control-Allow-Origin", "*");
+		responseBuilder.type(MediaType.APPLICATION_JSON);
+
+		return responseBuilder.build();
+	}
+
 	/**
 	 * Gets the VehiclesInterface for the specified agencyId. If not valid then
 	 * throws WebApplicationException.
@@ -316,4 +378,14 @@ public class StandardParameters {
 		return request;
 	}
 
+	/**
+	 * Returns the JAX-RS Providers, for getting the MessageBodyWriter used
+	 * to serialize a response.
+	 * 
+	 * @return
+	 */
+	public Providers getProviders() {
+		return providers;
+	}
+
 }
@@ -0,0 +1,53 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.api.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * A response entity that writes its JSON directly to the output stream using
+ * a JsonStreamWriter, for large responses where building the Api* object
+ * graph first would use a lot of memory. Since it is a StreamingOutput
+ * JAX-RS writes it out without involving MOXy.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public abstract class StreamingJsonOutput implements StreamingOutput {
+
+	/**
+	 * Writes the JSON for the response
+	 *
+	 * @param json
+	 * @throws IOException
+	 */
+	protected abstract void writeJson(JsonStreamWriter json)
+			throws IOException;
+
+	@Override
+	public void write(OutputStream out) throws IOException,
+			WebApplicationException {
+		JsonStreamWriter json = new JsonStreamWriter(out);
+		writeJson(json);
+		json.flush();
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.transitime.api.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket for rate limiting. Instead of storing a token
+ * count and a refill time, which would need to be updated together, only
+ * the time at which the bucket will again be full is stored. Each request
+ * pushes that time forward by the interval of one token, and a request is
+ * rejected if that would put it more than the bucket capacity into the
+ * future. This is equivalent to a token bucket but the state is a single
+ * long so it can be updated with compare-and-set.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class TokenBucket {
+
+	// Time in nanoseconds that a single token represents
+	private final long nanosPerToken;
+
+	// How far into the future the full time can be pushed, which is the
+	// capacity of the bucket in nanoseconds
+	private final long burstNanos;
+
+	// The System.nanoTime() at which the bucket will be full again
+	private final AtomicLong fullTime;
+
+	/********************** Member Functions **************************/
+
+	/**
+	 * @param tokensPerSec
+	 *            Rate at which tokens are added to the bucket. Must be
+	 *            positive.
+	 * @param capacity
+	 *            Max number of tokens in the bucket, which is the number of
+	 *            requests that can be made in a burst
+	 */
+	public TokenBucket(double tokensPerSec, int capacity) {
+		this.nanosPerToken = Math.max(1, (long) (1.0E9 / tokensPerSec));
+		this.burstNanos = nanosPerToken * Math.max(1, capacity);
+		this.fullTime = new AtomicLong(System.nanoTime());
+	}
+
+	/**
+	 * Takes a token if one is available.
+	 *
+	 * @return true if a token was available and the request should be allowed
+	 */
+	public boolean tryAcquire() {
+		long now = System.nanoTime();
+		while (true) {
+			long current = fullTime.get();
+			long newFullTime = Math.max(current, now) + nanosPerToken;
+			if (newFullTime - now > burstNanos)
+				return false;
+			if (fullTime.compareAndSet(current, newFullTime))
+				return true;
+		}
+	}
+
+	/**
+	 * @return msec until a token will be available. 0 if one is available
+	 *         now.
+	 */
+	public long msecUntilAvailable() {
+		long waitNanos = fullTime.get() + nanosPerToken - System.nanoTime()
+				- burstNanos;
+		return waitNanos <= 0 ? 0 : (waitNanos + 999999) / 1000000;
+	}
+
+	/**
+	 * @return true if the bucket is full, meaning that it hasn't been used
+	 *         recently and so would behave the same as a new bucket
+	 */
+	public boolean isFull() {
+		return fullTime.get() - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * @return true if this bucket was created for the specified rate
+	 */
+	public boolean hasRate(double tokensPerSec) {
+		return nanosPerToken == Math.max(1, (long) (1.0E9 / tokensPerSec));
+	}
+}
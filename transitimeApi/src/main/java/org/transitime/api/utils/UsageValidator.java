@@ -1,6 +1,6 @@
 /*
  * This file is part of Transitime.org
- * 
+ *
  * Transitime.org is free software: you can redistribute it and/or modify
  * it under the terms of the GNU General Public License (GPL) as published by
  * the Free Software Foundation, either version 3 of the License, or
@@ -17,49 +17,101 @@
 
 package org.transitime.api.utils;
 
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.ws.rs.WebApplicationException;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.transitime.config.IntegerConfigValue;
+import org.transitime.db.webstructs.ApiKey;
+import org.transitime.db.webstructs.ApiKeyManager;
+import org.transitime.utils.Time;
 
 /**
  * For making sure that use of API doesn't exceed limits. Intended to deal with
  * bad applications that are requesting too much data or a denial of service
- * attack. Currently simply checks to make sure that for a given request IP
- * address that there aren't more than a certain number of requests per time
- * frame.
- * <p>
- * This check should probably be refined in the future.
+ * attack. There are three limits:
+ * <ul>
+ * <li>A token bucket per request IP address, allowing maxRequests requests
+ * per maxRequestsTimeMsec.</li>
+ * <li>A token bucket per API key. The rate is from the ApiKey
+ * maxRequestsPerSec column if set, otherwise maxRequestsPerSecPerKey.</li>
+ * <li>A limit on the number of requests being processed at once, enforced by
+ * AdmissionControlFilter, so that load is shed before it reaches the core
+ * via RMI.</li>
+ * </ul>
+ * Requests that exceed a limit get a 429 Too Many Requests response.
  * <p>
- * Note that a map is used to keep track of the last request times. Eventually
- * this map could take up quite a bit of memory if old requests are never
- * cleared out.
- * 
+ * The token buckets are lock-free so checking them doesn't serialize
+ * requests. Buckets that are full, meaning they haven't been used recently,
+ * are periodically removed so the maps don't grow without bound.
+ *
  * @author SkiBu Smith
- * 
+ *
  */
 public class UsageValidator {
 
 	// The limits of requests per IP address
-	
+
 	private static IntegerConfigValue maxRequests = new IntegerConfigValue(
 			"transitime.usage.maxRequests", 2000,
-			"Maximum number of requests to allow within the specified time frame");
-	
+			"Maximum number of requests to allow from an IP address within "
+			+ "the specified time frame. Also the max burst size.");
+
 	private static IntegerConfigValue maxRequestsTimeMsec = new IntegerConfigValue(
 			"transitime.usage.maxRequestsTimeMsec", 1000,
 			"Amount of time in msec before max requests count limit is reset");
-	
+
+	private static IntegerConfigValue maxRequestsPerSecPerKey =
+			new IntegerConfigValue("transitime.usage.maxRequestsPerSecPerKey",
+					500,
+					"Default maximum requests per second for an API key. Can "
+					+ "be overridden for a key with the maxRequestsPerSec "
+					+ "column of the ApiKeys table. Bursts of up to "
+					+ "transitime.usage.keyBurstSecs worth of requests are "
+					+ "allowed.");
+
+	private static IntegerConfigValue keyBurstSecs =
+			new IntegerConfigValue("transitime.usage.keyBurstSecs",
+					2,
+					"How many seconds worth of requests an API key can make "
+					+ "in a burst.");
+
+	private static IntegerConfigValue maxConcurrentRequests =
+			new IntegerConfigValue("transitime.usage.maxConcurrentRequests",
+					150,
+					"Maximum number of API requests processed at once. "
+					+ "Additional requests are rejected with a 429 response "
+					+ "so that the core is protected during traffic spikes. "
+					+ "Set to 0 for no limit.");
+
+	// How often full buckets are removed from the maps
+	private static final long CLEANUP_INTERVAL_MSEC = Time.MS_PER_MIN;
+
 	// This is a singleton class
 	private static UsageValidator singleton = new UsageValidator();
 
-	// Keyed on IP address. Contains list of times API last called for the 
-	// IP address.
-	private Map<String, LinkedList<Long>> requestTimesPerIp = 
-			new ConcurrentHashMap<String, LinkedList<Long>>();
+	// Keyed on IP address
+	private final ConcurrentMap<String, TokenBucket> bucketsPerIp =
+			new ConcurrentHashMap<String, TokenBucket>();
+
+	// Keyed on API key
+	private final ConcurrentMap<String, TokenBucket> bucketsPerKey =
+			new ConcurrentHashMap<String, TokenBucket>();
+
+	private final AtomicInteger concurrentRequests = new AtomicInteger();
+
+	private final AtomicLong lastCleanupTime =
+			new AtomicLong(System.currentTimeMillis());
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(UsageValidator.class);
 
 	/********************** Member Functions **************************/
 
@@ -71,7 +123,7 @@ public class UsageValidator {
 
 	/**
 	 * Get singleton instance.
-	 * 
+	 *
 	 * @return
 	 */
 	public static UsageValidator getInstance() {
@@ -79,14 +131,135 @@ public class UsageValidator {
 	}
 
 	/**
-	 * TODO: previous impl was not thread safe -- so now its just a placeholder
-	 * for future checks  
+	 * Returns the bucket for the id, creating it if necessary. If the
+	 * configured rate has changed then a new bucket is used. When threads
+	 * race to create a bucket they all end up using the one that made it
+	 * into the map so that no requests are lost from the count.
+	 */
+	private static TokenBucket getBucket(ConcurrentMap<String, TokenBucket> buckets,
+			String id, double tokensPerSec, int capacity) {
+		while (true) {
+			TokenBucket bucket = buckets.get(id);
+			if (bucket != null && bucket.hasRate(tokensPerSec))
+				return bucket;
+
+			TokenBucket newBucket = new TokenBucket(tokensPerSec, capacity);
+			if (bucket == null) {
+				TokenBucket existing = buckets.putIfAbsent(id, newBucket);
+				if (existing == null)
+					return newBucket;
+			} else if (buckets.replace(id, bucket, newBucket)) {
+				return newBucket;
+			}
+		}
+	}
+
+	/**
+	 * Removes the buckets that are full since they behave the same as new
+	 * ones. Only done every CLEANUP_INTERVAL_MSEC and only by one thread.
+	 */
+	private void cleanupIfNeeded() {
+		long last = lastCleanupTime.get();
+		long now = System.currentTimeMillis();
+		if (now < last + CLEANUP_INTERVAL_MSEC
+				|| !lastCleanupTime.compareAndSet(last, now))
+			return;
+
+		removeFullBuckets(bucketsPerIp);
+		removeFullBuckets(bucketsPerKey);
+	}
+
+	private static void removeFullBuckets(Map<String, TokenBucket> buckets) {
+		Iterator<TokenBucket> iterator = buckets.values().iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().isFull())
+				iterator.remove();
+		}
+	}
+
+	/**
+	 * Makes sure that neither the IP address nor the API key of the request
+	 * has exceeded its request rate.
+	 *
 	 * @param stdParameters
 	 * @throws WebApplicationException
+	 *             429 Too Many Requests if a limit was exceeded
 	 */
 	public void validateUsage(StandardParameters stdParameters)
 			throws WebApplicationException {
+		cleanupIfNeeded();
+
+		// Limit per IP address
+		String ip = stdParameters.getRequest() != null ?
+				stdParameters.getRequest().getRemoteAddr() : null;
+		if (ip != null) {
+			int max = maxRequests.getValue();
+			double perSec = max * (double) Time.MS_PER_SEC
+					/ Math.max(1, maxRequestsTimeMsec.getValue());
+			TokenBucket bucket = getBucket(bucketsPerIp, ip, perSec, max);
+			if (!bucket.tryAcquire()) {
+				logger.warn("Too many requests from IP address {}", ip);
+				throw WebUtils.tooManyRequestsException("Too many requests "
+						+ "from IP address " + ip + ".",
+						bucket.msecUntilAvailable() / Time.MS_PER_SEC);
+			}
+		}
+
+		// Limit per API key
+		String key = stdParameters.getKey();
+		if (key != null) {
+			ApiKey apiKey = ApiKeyManager.getInstance().getCachedApiKey(key);
+			int perSec = apiKey != null && apiKey.getMaxRequestsPerSec() != null ?
+					apiKey.getMaxRequestsPerSec() : maxRequestsPerSecPerKey.getValue();
+			if (perSec > 0) {
+				TokenBucket bucket = getBucket(bucketsPerKey, key, perSec,
+						perSec * Math.max(1, keyBurstSecs.getValue()));
+				if (!bucket.tryAcquire()) {
+					logger.warn("Too many requests for API key {}", key);
+					throw WebUtils.tooManyRequestsException("Too many "
+							+ "requests for application key \"" + key + "\".",
+							bucket.msecUntilAvailable() / Time.MS_PER_SEC);
+				}
+			}
+		}
+	}
+
+	/**
+	 * To be called when starting to process a request. If too many requests
+	 * are already being processed then returns false and the request should
+	 * be rejected. If true is returned then requestFinished() must be called
+	 * once the request has been processed.
+	 *
+	 * @return true if the request can be processed
+	 */
+	public boolean tryStartRequest() {
+		int max = maxConcurrentRequests.getValue();
+		if (max <= 0) {
+			concurrentRequests.incrementAndGet();
+			return true;
+		}
+
+		while (true) {
+			int current = concurrentRequests.get();
+			if (current >= max)
+				return false;
+			if (concurrentRequests.compareAndSet(current, current + 1))
+				return true;
+		}
+	}
+
+	/**
+	 * To be called when done processing a request for which tryStartRequest()
+	 * returned true.
+	 */
+	public void requestFinished() {
+		concurrentRequests.decrementAndGet();
+	}
 
-		return;
+	/**
+	 * @return number of API requests currently being processed
+	 */
+	public int getConcurrentRequests() {
+		return concurrentRequests.get();
 	}
 }
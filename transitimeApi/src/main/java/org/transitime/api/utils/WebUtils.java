@@ -36,6 +36,9 @@ public class WebUtils {
   private static final Logger logger = LoggerFactory
       .getLogger(WebUtils.class);
   
+	// HTTP status 429, which isn't in Response.Status for JAX-RS 2.0
+	public static final int TOO_MANY_REQUESTS = 429;
+  
 	/**
 	 * Provides the API key to be used to access the Transitime API by
 	 * Transitime web pages.
@@ -91,4 +94,26 @@ public class WebUtils {
 					.build());
 	}
 
+	/**
+	 * For when a client has exceeded its usage limits or the server is too
+	 * busy. Returns a 429 Too Many Requests response with a Retry-After
+	 * header so that well behaved clients know when to try again.
+	 * 
+	 * @param s
+	 *            Message to be provided as part of the response.
+	 * @param retryAfterSecs
+	 *            Seconds the client should wait before trying again
+	 * @return Exception to be thrown
+	 */
+	public static WebApplicationException tooManyRequestsException(String s,
+			long retryAfterSecs) {
+		return new WebApplicationException(
+				Response.status(TOO_MANY_REQUESTS)
+					.entity(s)
+					.type(MediaType.TEXT_PLAIN)
+					.header("Access-Control-Allow-Origin", "*")
+					.header("Retry-After", Math.max(1, retryAfterSecs))
+					.build());
+	}
+
 }
@@ -0,0 +1,208 @@
+package org.transitime.api.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
+
+import org.junit.Test;
+
+/**
+ * Tests for cache hits, expiry and coalescing of concurrent requests for the
+ * real-time responses of the ResponseCache. Uses fake requests and a
+ * MessageBodyWriter that simply writes the entity as a string.
+ */
+public class TestResponseCache {
+
+	/**
+	 * Loader that counts how often it is called and returns a different
+	 * value each time
+	 */
+	private static class CountingLoader implements ResponseCache.Loader {
+		private final AtomicInteger numLoads = new AtomicInteger();
+
+		@Override
+		public Object load() throws Exception {
+			return "value" + numLoads.incrementAndGet();
+		}
+	}
+
+	private static final MessageBodyWriter<Object> STRING_WRITER =
+			new MessageBodyWriter<Object>() {
+		@Override
+		public boolean isWriteable(Class<?> type, Type genericType,
+				Annotation[] annotations, MediaType mediaType) {
+			return true;
+		}
+
+		@Override
+		public long getSize(Object t, Class<?> type, Type genericType,
+				Annotation[] annotations, MediaType mediaType) {
+			return -1;
+		}
+
+		@Override
+		public void writeTo(Object t, Class<?> type, Type genericType,
+				Annotation[] annotations, MediaType mediaType,
+				MultivaluedMap<String, Object> httpHeaders,
+				OutputStream entityStream) throws IOException {
+			entityStream.write(t.toString().getBytes("UTF-8"));
+		}
+	};
+
+	private static Object proxy(Class<?> c, InvocationHandler handler) {
+		return Proxy.newProxyInstance(c.getClassLoader(), new Class<?>[] {c},
+				handler);
+	}
+
+	/**
+	 * @return parameters for a request for the command with the route query
+	 *         string parameter, and optionally an If-None-Match header
+	 */
+	private static StandardParameters parameters(final String command,
+			String routeId, final String ifNoneMatch) {
+		final Map<String, String[]> params = new HashMap<String, String[]>();
+		params.put("r", new String[] { routeId });
+
+		StandardParameters stdParameters = new StandardParameters();
+		stdParameters.request = (HttpServletRequest) proxy(
+				HttpServletRequest.class, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						String name = method.getName();
+						if (name.equals("getRequestURI"))
+							return "/api/v1/key/k/agency/a/command/" + command;
+						if (name.equals("getParameterMap"))
+							return params;
+						if (name.equals("getHeader")
+								&& args[0].equals("If-None-Match"))
+							return ifNoneMatch;
+						return null;
+					}
+				});
+		stdParameters.providers = (Providers) proxy(Providers.class,
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						if (method.getName().equals("getMessageBodyWriter"))
+							return STRING_WRITER;
+						return null;
+					}
+				});
+		return stdParameters;
+	}
+
+	private static String body(Response response) throws Exception {
+		return new String((byte[]) response.getEntity(), "UTF-8");
+	}
+
+	@Test
+	public void testCacheHit() throws Exception {
+		ResponseCache cache = ResponseCache.getInstance();
+		CountingLoader loader = new CountingLoader();
+
+		Response first = cache.getRealTimeResponse(
+				parameters("hit", "r1", null), loader);
+		Response second = cache.getRealTimeResponse(
+				parameters("hit", "r1", null), loader);
+		assertEquals(1, loader.numLoads.get());
+		assertEquals("value1", body(first));
+		assertEquals("value1", body(second));
+		assertEquals(first.getEntityTag(), second.getEntityTag());
+
+		// Client that already has the data gets a 304
+		Response notModified = cache.getRealTimeResponse(parameters("hit",
+				"r1", "\"" + first.getEntityTag().getValue() + "\""), loader);
+		assertEquals(304, notModified.getStatus());
+		assertEquals(1, loader.numLoads.get());
+
+		// Different query string parameters are a different response
+		assertEquals("value2", body(cache.getRealTimeResponse(
+				parameters("hit", "r2", null), loader)));
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		ResponseCache cache = ResponseCache.getInstance();
+		CountingLoader loader = new CountingLoader();
+
+		assertEquals("value1", body(cache.getRealTimeResponse(
+				parameters("expiry", "r1", null), loader)));
+
+		// Default time to live for real-time responses is 1 second
+		Thread.sleep(1100);
+		Response response = cache.getRealTimeResponse(
+				parameters("expiry", "r1", null), loader);
+		assertEquals("value2", body(response));
+		assertEquals(2, loader.numLoads.get());
+	}
+
+	@Test
+	public void testConcurrentRequestsCoalesced() throws Exception {
+		final ResponseCache cache = ResponseCache.getInstance();
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger numLoads = new AtomicInteger();
+		final ResponseCache.Loader loader = new ResponseCache.Loader() {
+			@Override
+			public Object load() throws Exception {
+				numLoads.incrementAndGet();
+				loading.countDown();
+				release.await(5, TimeUnit.SECONDS);
+				return "slowValue";
+			}
+		};
+
+		int numRequests = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(numRequests);
+		try {
+			List<Future<Response>> futures = new ArrayList<Future<Response>>();
+			for (int i = 0; i < numRequests; ++i) {
+				futures.add(executor.submit(new Callable<Response>() {
+					@Override
+					public Response call() throws Exception {
+						return cache.getRealTimeResponse(
+								parameters("coalesce", "r1", null), loader);
+					}
+				}));
+			}
+
+			// Give the other requests time to find the load in process
+			// before letting it finish
+			assertTrue(loading.await(5, TimeUnit.SECONDS));
+			Thread.sleep(200);
+			release.countDown();
+
+			for (Future<Response> future : futures)
+				assertEquals("slowValue", body(future.get(5, TimeUnit.SECONDS)));
+			assertEquals(1, numLoads.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -19,13 +19,12 @@ package org.transitime.reports;
 
 import java.sql.SQLException;
 import java.text.ParseException;
-import java.util.Collections;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.reports.ChartJsonBuilder.RowBuilder;
-import org.transitime.statistics.Statistics;
+import org.transitime.utils.BucketedHistogram;
 
 /**
  * For doing SQL query and generating JSON data for a prediction accuracy
@@ -73,55 +72,51 @@ public class PredAccuracyIntervalQuery extends PredictionAccuracyQuery {
 	}
 
 	/**
-	 * Goes through data array (must already be sorted!) and determines the
-	 * index of the array that corresponds to the minimum element. For example,
-	 * if the fraction is specified as 0.70 which means that want to know the
-	 * minimum value such that 70% of the predictions are between the min and
-	 * the max, then will return the index for the item whose index is at
-	 * (100%-70%)/2 = 15% in the array.
+	 * Determines the value that corresponds to the minimum element of the
+	 * interval. For example, if the fraction is specified as 0.70 which means
+	 * that want to know the minimum value such that 70% of the predictions are
+	 * between the min and the max, then will return the value at the
+	 * (100%-70%)/2 = 15% quantile of the data.
 	 * 
 	 * @param data
-	 *            Sorted list of data
+	 *            Histogram of the data
 	 * @param percentage
 	 *            The percentage (0.0 - 100.0%) of prediction accuracy data that
 	 *            should be between the min and the max
 	 * @return Value of the desired element or null if fraction not valid
 	 */
-	private Long getMin(List<Integer> data, double percentage) {
+	private Long getMin(BucketedHistogram data, double percentage) {
 		if (percentage == 0.0 || Double.isNaN(percentage))
 			return null;
 
 		double fraction = percentage / 100.0;
 
-		int index = (int) (data.size() * (1 - fraction) / 2);
-		return (long) data.get(index);
+		return Math.round(data.getQuantile((1 - fraction) / 2));
 	}
 
 	/**
-	 * Goes through data array (must already be sorted!) and determines the
-	 * index of the array that corresponds to the maximum element. For example,
-	 * if the fraction is specified as 0.70 which means that want to know the
-	 * minimum value such that 70% of the predictions are between the min and
-	 * the max, then will return the index for the item whose index is at 85% in
-	 * the array.
+	 * Determines the value that corresponds to the maximum element of the
+	 * interval. For example, if the fraction is specified as 0.70 which means
+	 * that want to know the minimum value such that 70% of the predictions are
+	 * between the min and the max, then will return the value at the 85%
+	 * quantile of the data.
 	 * 
 	 * @param data
-	 *            Sorted list of data
+	 *            Histogram of the data
 	 * @param percentage
 	 *            The percentage (0.0 - 100.0%) of prediction accuracy data that
 	 *            should be between the min and the max
 	 * @return Value of the desired element or null if fraction not valid
 	 */
-	private Long getMax(List<Integer> data, double percentage) {
+	private Long getMax(BucketedHistogram data, double percentage) {
 		if (percentage == 0.0 || Double.isNaN(percentage))
 			return null;
 		if (percentage == 100.0)
-			return (long) data.get(data.size() - 1);
+			return data.getMax();
 		
 		double fraction = percentage / 100.0;
 
-		int index = (int) (data.size() * (fraction + (1 - fraction) / 2));
-		return (long) data.get(index);
+		return Math.round(data.getQuantile(fraction + (1 - fraction) / 2));
 	}
 
 	/**
@@ -199,20 +194,15 @@ public class PredAccuracyIntervalQuery extends PredictionAccuracyQuery {
 			// Add prediction mean and intervals data for each source
 			for (String source : map.keySet()) {
 				// Determine mean and standard deviation for this source
-				List<List<Integer>> dataForSource = map.get(source);
-				List<Integer> listForPredBucket = null;
+				List<BucketedHistogram> dataForSource = map.get(source);
+				BucketedHistogram listForPredBucket = null;
 				if (dataForSource != null
 						&& dataForSource.size() > predBucketIdx)
 					listForPredBucket = dataForSource.get(predBucketIdx);
 
-				// Sort the prediction accuracy data so that can call
-				// getMin() and getMax() using necessary sort list.
-				if (listForPredBucket != null)
-					Collections.sort(listForPredBucket);
-
 				// Log some info for debugging
-				logger.info("For source {} for prediction bucket minute {} "
-						+ "sorted datapoints={}", source, predBucketSecs,
+				logger.debug("For source {} for prediction bucket minute {} "
+						+ "datapoints={}", source, predBucketSecs,
 						listForPredBucket);
 
 				// If there is enough data then handle stats for this prediction
@@ -223,17 +213,15 @@ public class PredAccuracyIntervalQuery extends PredictionAccuracyQuery {
 				// would cause an unsightly and inappropriate necking of data
 				// for this bucket.
 				if (listForPredBucket != null
-						&& listForPredBucket.size() >= MIN_DATA_POINTS_PER_PRED_BUCKET) {
+						&& listForPredBucket.getCount() >= MIN_DATA_POINTS_PER_PRED_BUCKET) {
 					// Determine the mean
-					double dataForPredBucket[] = Statistics
-							.toDoubleArray(listForPredBucket);
-					double mean = Statistics.mean(dataForPredBucket);
+					double mean = listForPredBucket.getMean();
 
 					// Determine the standard deviation and handle special case
 					// of when there is only a single data point such that the
 					// standard deviation is NaN.
-					double stdDev = Statistics.getSampleStandardDeviation(
-							dataForPredBucket, mean);
+					double stdDev =
+							listForPredBucket.getSampleStandardDeviation();
 					if (Double.isNaN(stdDev))
 						stdDev = 0.0;
 
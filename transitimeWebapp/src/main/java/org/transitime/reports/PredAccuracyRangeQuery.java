@@ -24,6 +24,7 @@ import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.reports.ChartJsonBuilder.RowBuilder;
+import org.transitime.utils.BucketedHistogram;
 import org.transitime.utils.StringUtils;
 import org.transitime.utils.Time;
 
@@ -111,7 +112,7 @@ public class PredAccuracyRangeQuery extends PredictionAccuracyQuery {
 		}
 
 		// Only dealing with a single source so get data for that source
-		List<List<Integer>> dataForSource = null;
+		List<BucketedHistogram> dataForSource = null;
 		for (String source : map.keySet()) {
 			dataForSource = map.get(source);
 		}
@@ -123,29 +124,25 @@ public class PredAccuracyRangeQuery extends PredictionAccuracyQuery {
 			double predBucketSecs = predBucketIdx
 					* PREDICTION_LENGTH_BUCKET_SIZE / 60.0;
 
-			List<Integer> listForPredBucket = null;
+			BucketedHistogram histogramForPredBucket = null;
 			if (dataForSource != null && dataForSource.size() > predBucketIdx) {
-				listForPredBucket = dataForSource.get(predBucketIdx);
-
-				// For this prediction bucket track whether prediction below
-				// min,
-				// between min and max, and above max.
-				int tooEarly = 0, ok = 0, tooLate = 0;
-				for (int accuracyInSecs : listForPredBucket) {
-					if (accuracyInSecs < -maxEarlySec)
-						++tooEarly;
-					else if (accuracyInSecs < maxLateSec)
-						++ok;
-					else
-						++tooLate;
-				}
+				histogramForPredBucket = dataForSource.get(predBucketIdx);
 
 				// If no data for this prediction bucket then continue to next
 				// one
-				int numPreds = listForPredBucket.size();
+				long numPreds = histogramForPredBucket.getCount();
 				if (numPreds == 0)
 					continue;
 
+				// For this prediction bucket determine how many predictions
+				// are below min, between min and max, and above max.
+				long tooEarly = Math.round(
+						histogramForPredBucket.getCountBelow(-maxEarlySec));
+				long tooEarlyOrOk = Math.round(
+						histogramForPredBucket.getCountBelow(maxLateSec));
+				long ok = tooEarlyOrOk - tooEarly;
+				long tooLate = numPreds - tooEarlyOrOk;
+
 				double tooEarlyPercentage = 100.0 * tooEarly / numPreds;
 				double okPercentage = 100.0 * ok / numPreds;
 				double tooLatePercentage = 100.0 * tooLate / numPreds;
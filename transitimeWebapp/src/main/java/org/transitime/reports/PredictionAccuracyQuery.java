@@ -24,6 +24,7 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -31,7 +32,10 @@ import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.db.GenericQuery;
+import org.transitime.db.structs.PredictionAccuracyAggregate;
 import org.transitime.db.webstructs.WebAgency;
+import org.transitime.utils.BucketedHistogram;
+import org.transitime.utils.IntervalTimer;
 import org.transitime.utils.Time;
 
 /**
@@ -55,11 +59,13 @@ abstract public class PredictionAccuracyQuery {
 
 	// Keyed on source (so can show data for multiple sources at
 	// once in order to compare prediction accuracy. Contains a array,
-	// with an element for each prediction bucket, containing an array
+	// with an element for each prediction bucket, containing a histogram
 	// of the prediction accuracy values in seconds for that bucket. Each bucket
 	// is for
 	// a certain prediction range, specified by predictionLengthBucketSize.
-	protected final Map<String, List<List<Integer>>> map = new HashMap<String, List<List<Integer>>>();
+	// Histograms are used instead of lists of values so that the rollups,
+	// which store histograms, can be combined with the raw data.
+	protected final Map<String, List<BucketedHistogram>> map = new HashMap<String, List<BucketedHistogram>>();
 
 	// Defines the output type for the intervals, whether should show
 	// standard deviation, percentage, or both.
@@ -157,29 +163,45 @@ abstract public class PredictionAccuracyQuery {
 	}
 
 	/**
-	 * Puts the data from the query into the map so it can be further processed
-	 * later.
+	 * Returns the histogram for the source and prediction length bucket,
+	 * creating it if necessary.
 	 * 
-	 * @param predLength
-	 * @param predAccuracy
 	 * @param source
+	 * @param predictionBucketIndex
+	 * @return the histogram, or null if the index is not valid
 	 */
-	private void addDataToMap(int predLength, int predAccuracy, String source) {
+	private BucketedHistogram getHistogram(String source,
+			int predictionBucketIndex) {
+		if (predictionBucketIndex < 0)
+			return null;
+
 		// Get the prediction buckets for the specified source
-		List<List<Integer>> predictionBuckets = map.get(source);
+		List<BucketedHistogram> predictionBuckets = map.get(source);
 		if (predictionBuckets == null) {
-			predictionBuckets = new ArrayList<List<Integer>>();
+			predictionBuckets = new ArrayList<BucketedHistogram>();
 			map.put(source, predictionBuckets);
 		}
 
+		while (predictionBuckets.size() < predictionBucketIndex + 1)
+			predictionBuckets.add(new BucketedHistogram(
+					PredictionAccuracyAggregate.ERROR_BOUNDARIES_SECS));
+		return predictionBuckets.get(predictionBucketIndex);
+	}
+
+	/**
+	 * Puts the data from the query into the map so it can be further processed
+	 * later.
+	 * 
+	 * @param predLength
+	 * @param predAccuracy
+	 * @param source
+	 */
+	private void addDataToMap(int predLength, int predAccuracy, String source) {
 		// Determine the index of the appropriate prediction bucket
 		int predictionBucketIndex = index(predLength);
-		while (predictionBuckets.size() < predictionBucketIndex + 1)
-			predictionBuckets.add(new ArrayList<Integer>());
-			
-		if (predictionBucketIndex < predictionBuckets.size() && predictionBucketIndex >= 0) {
-		  List<Integer> predictionAccuracies = predictionBuckets
-		      .get(predictionBucketIndex);
+		BucketedHistogram predictionAccuracies =
+				getHistogram(source, predictionBucketIndex);
+		if (predictionAccuracies != null) {
 	    	// Add the prediction accuracy to the bucket.
 	    	predictionAccuracies.add(predAccuracy);
 		} else {
@@ -191,7 +213,11 @@ abstract public class PredictionAccuracyQuery {
 	}
 
 	/**
-	 * Performs the SQL query and puts the resulting data into the map.
+	 * Performs the SQL query and puts the resulting data into the map. If
+	 * rollups are enabled then the route level PredictionAccuracyAggregate
+	 * rollups are used for as much of the date range as they cover and the
+	 * raw PredictionAccuracy table is only queried for the remainder, which
+	 * is typically just the current day.
 	 * 
 	 * @param beginDateStr
 	 *            Begin date for date range of data to use.
@@ -233,8 +259,6 @@ abstract public class PredictionAccuracyQuery {
 					+ " startDate=" + Time.parseDate(beginDateStr)
 					+ " Number of days of " + numDays + " spans more than a month", 0);
 		}
-		String timeSql = "";
-		String mySqlTimeSql = "";
 		if ((beginTimeStr != null && !beginTimeStr.isEmpty())
 				|| (endTimeStr != null && !endTimeStr.isEmpty())) {
 			// If only begin or only end time set then use default value
@@ -249,10 +273,6 @@ abstract public class PredictionAccuracyQuery {
 			}
 			if (endTimeStr == null || endTimeStr.isEmpty())
 				endTimeStr = "23:59:59";
-			// time param is jdbc param -- no need to check for injection attacks
-			timeSql = " AND arrivalDepartureTime::time BETWEEN ? AND ? ";
-      mySqlTimeSql = "AND CAST(arrivalDepartureTime AS TIME) BETWEEN CAST(? AS TIME) AND CAST(? AS TIME) ";
-
 		}
 
 		// Determine route portion of SQL
@@ -293,6 +313,206 @@ abstract public class PredictionAccuracyQuery {
 				predTypeSql = " AND affectedByWaitStop = false ";
 			}
 		}
+
+		// Determine the time range of the query
+		java.util.Date beginDate = Time.parse(beginDateStr);
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTime(beginDate);
+		calendar.add(Calendar.DAY_OF_MONTH, numDays);
+		java.util.Date endDate = calendar.getTime();
+
+		// Use the rollups for as much of the range as possible
+		java.util.Date rawBeginDate = beginDate;
+		if (ReportsConfig.isUseRollups()) {
+			rawBeginDate = doRollupQuery(beginDate, endDate, beginTimeStr,
+					endTimeStr, routeIds, routeSql, sourceSql, predTypeSql);
+		}
+
+		// Query the raw data for whatever is not covered by rollups
+		if (rawBeginDate.before(endDate)) {
+			doRawQuery(rawBeginDate, endDate, beginTimeStr, endTimeStr,
+					routeIds, routeSql, sourceSql, predTypeSql);
+		}
+	}
+
+	/**
+	 * Sets the route parameters of the query.
+	 * 
+	 * @param statement
+	 * @param i
+	 *            Index of the next parameter
+	 * @param routeIds
+	 * @return index of the next parameter
+	 * @throws SQLException
+	 */
+	private static int setRouteParams(PreparedStatement statement, int i,
+			String routeIds[]) throws SQLException {
+		if (routeIds != null) {
+			for (String routeId : routeIds)
+				if (!routeId.trim().isEmpty()) {
+					// Need to add the route ID twice since doing a
+					// routeId='stableId' OR routeShortName='stableId' in
+					// order to handle agencies where GTFS route_id is not
+					// stable but the GTFS route_short_name is.
+					statement.setString(i++, routeId);
+					statement.setString(i++, routeId);
+				}
+		}
+		return i;
+	}
+
+	/**
+	 * Reads in the route level prediction accuracy rollups, which have a null
+	 * stopId, and adds them to the map. Daily rollups are used when the
+	 * entire day is requested. When a time of day range is specified then
+	 * hourly rollups are used, but only if the range is on hour boundaries.
+	 * 
+	 * @param beginDate
+	 * @param endDate
+	 * @param beginTimeStr
+	 * @param endTimeStr
+	 * @param routeIds
+	 * @param routeSql
+	 * @param sourceSql
+	 * @param predTypeSql
+	 * @return the end of the range covered by the rollups. The raw data needs
+	 *         to be queried from this time to endDate.
+	 * @throws SQLException
+	 */
+	private java.util.Date doRollupQuery(java.util.Date beginDate,
+			java.util.Date endDate, String beginTimeStr, String endTimeStr,
+			String routeIds[], String routeSql, String sourceSql,
+			String predTypeSql) throws SQLException {
+		// Determine which rollups can be used
+		int periodMinutes = 24 * 60;
+		int beginSecsIntoDay = 0;
+		int endSecsIntoDay = Time.SEC_PER_DAY;
+		if (beginTimeStr != null) {
+			beginSecsIntoDay = Time.parseTimeOfDay(beginTimeStr);
+			endSecsIntoDay = Time.parseTimeOfDay(endTimeStr);
+			// Treat end of day as midnight
+			if (endSecsIntoDay == Time.SEC_PER_DAY - 1)
+				endSecsIntoDay = Time.SEC_PER_DAY;
+			if (beginSecsIntoDay % Time.SEC_PER_HOUR != 0
+					|| endSecsIntoDay % Time.SEC_PER_HOUR != 0) {
+				logger.debug("Time of day range {} to {} is not on hour "
+						+ "boundaries so rollups cannot be used.",
+						beginTimeStr, endTimeStr);
+				return beginDate;
+			}
+			periodMinutes = 60;
+		}
+		long periodMsec = periodMinutes * Time.MS_PER_MIN;
+
+		// Determine how much of the range is covered by the rollups
+		java.util.Date coveredEndDate;
+		PreparedStatement statement = null;
+		try {
+			statement = connection.prepareStatement("SELECT MAX(periodStart) "
+					+ "FROM PredictionAccuracyAggregates "
+					+ "WHERE periodMinutes = ? AND stopId IS NULL");
+			statement.setInt(1, periodMinutes);
+			ResultSet rs = statement.executeQuery();
+			Timestamp lastPeriodStart = rs.next() ? rs.getTimestamp(1) : null;
+			if (lastPeriodStart == null)
+				return beginDate;
+			coveredEndDate = new java.util.Date(Math.min(endDate.getTime(),
+					lastPeriodStart.getTime() + periodMsec));
+			if (!coveredEndDate.after(beginDate))
+				return beginDate;
+		} finally {
+			if (statement != null)
+				statement.close();
+		}
+
+		String sql = "SELECT periodStart, predLengthBucketSecs, "
+				+ "     predictionSource as source, errorHistogram, "
+				+ "     sumErrorSecs, sumSquaredErrorSecs, minErrorSecs, "
+				+ "     maxErrorSecs "
+				+ " FROM PredictionAccuracyAggregates "
+				+ "WHERE periodMinutes = ? AND stopId IS NULL "
+				+ "  AND periodStart >= ? AND periodStart < ? "
+				+ "  AND predLengthBucketSecs < " + MAX_PRED_LENGTH
+				+ "  AND predictionSource <> 'MBTA_seconds' "
+				+ routeSql
+				+ sourceSql
+				+ predTypeSql;
+
+		IntervalTimer timer = new IntervalTimer();
+		int numRows = 0;
+		Calendar calendar = Calendar.getInstance();
+		try {
+			logger.debug("SQL: {}", sql);
+			statement = connection.prepareStatement(sql);
+
+			int i = 1;
+			statement.setInt(i++, periodMinutes);
+			statement.setTimestamp(i++, new Timestamp(beginDate.getTime()));
+			statement.setTimestamp(i++, new Timestamp(coveredEndDate.getTime()));
+			setRouteParams(statement, i, routeIds);
+
+			ResultSet rs = statement.executeQuery();
+			while (rs.next()) {
+				// For hourly rollups only use the hours within the time of
+				// day range
+				if (periodMinutes == 60) {
+					calendar.setTime(rs.getTimestamp("periodStart"));
+					int secsIntoDay = calendar.get(Calendar.HOUR_OF_DAY)
+							* Time.SEC_PER_HOUR;
+					if (secsIntoDay < beginSecsIntoDay
+							|| secsIntoDay >= endSecsIntoDay)
+						continue;
+				}
+
+				int predLengthBucketSecs = rs.getInt("predLengthBucketSecs");
+				String sourceResult = rs.getString("source");
+				BucketedHistogram histogram =
+						getHistogram(sourceResult, index(predLengthBucketSecs));
+				if (histogram == null)
+					continue;
+				histogram.addSparse(rs.getString("errorHistogram"),
+						rs.getLong("sumErrorSecs"),
+						rs.getLong("sumSquaredErrorSecs"),
+						rs.getInt("minErrorSecs"), rs.getInt("maxErrorSecs"));
+				++numRows;
+			}
+		} finally {
+			if (statement != null)
+				statement.close();
+		}
+
+		logger.debug("Read {} prediction accuracy rollup rows for {} to {} "
+				+ "in {} msec", numRows, beginDate, coveredEndDate,
+				timer.elapsedMsec());
+		return coveredEndDate;
+	}
+
+	/**
+	 * Performs the SQL query on the raw PredictionAccuracy table and puts the
+	 * resulting data into the map.
+	 * 
+	 * @param beginDate
+	 * @param endDate
+	 * @param beginTimeStr
+	 * @param endTimeStr
+	 * @param routeIds
+	 * @param routeSql
+	 * @param sourceSql
+	 * @param predTypeSql
+	 * @throws SQLException
+	 */
+	private void doRawQuery(java.util.Date beginDate, java.util.Date endDate,
+			String beginTimeStr, String endTimeStr, String routeIds[],
+			String routeSql, String sourceSql, String predTypeSql)
+			throws SQLException {
+		String timeSql = "";
+		String mySqlTimeSql = "";
+		if (beginTimeStr != null) {
+			// time param is jdbc param -- no need to check for injection attacks
+			timeSql = " AND arrivalDepartureTime::time BETWEEN ? AND ? ";
+      mySqlTimeSql = "AND CAST(arrivalDepartureTime AS TIME) BETWEEN CAST(? AS TIME) AND CAST(? AS TIME) ";
+		}
+
 		// TODO generate database independent SQL if possible!
 		// Put the entire SQL query together
 		String postSql = "SELECT "
@@ -300,8 +520,8 @@ abstract public class PredictionAccuracyQuery {
 				+ "     predictionAccuracyMsecs/1000 as predAccuracy, "
 				+ "     predictionSource as source "
 				+ " FROM predictionAccuracy "
-				+ "WHERE arrivalDepartureTime BETWEEN ? "
-				+ "      AND TIMESTAMP '" + beginDateStr + "' + INTERVAL '" + numDays + " day' "
+				+ "WHERE arrivalDepartureTime >= ? "
+				+ "  AND arrivalDepartureTime < ? "
 				+ timeSql
 				+ "  AND predictedTime-predictionReadTime < '00:15:00' "
 				+ routeSql
@@ -315,9 +535,8 @@ abstract public class PredictionAccuracyQuery {
 				+ "     predictionSource as source "
 				+ " FROM PredictionAccuracy "
 				+ "WHERE "
-				+ "arrivalDepartureTime BETWEEN "
-				+ "CAST(? AS DATETIME) "
-				+ "AND DATE_ADD(CAST(? AS DATETIME), INTERVAL " + numDays + " day) " 
+				+ "arrivalDepartureTime >= CAST(? AS DATETIME) "
+				+ "AND arrivalDepartureTime < CAST(? AS DATETIME) " 
 				+ mySqlTimeSql
 				+ "  AND "
 				+ "abs(unix_timestamp(predictedTime)-unix_timestamp(predictionReadTime)) < 900 " //15 mins
@@ -340,40 +559,19 @@ abstract public class PredictionAccuracyQuery {
 		  logger.debug("SQL: {}", sql);
 			statement = connection.prepareStatement(sql);
 
-			// Determine the date parameters for the query
-			Timestamp beginDate = null;
-			java.util.Date date = Time.parse(beginDateStr);
-			beginDate = new Timestamp(date.getTime());
-	     
 			// Determine the time parameters for the query
-			// If begin time not set but end time is then use midnight as begin
-			// time
-			if ((beginTimeStr == null || beginTimeStr.isEmpty())
-					&& endTimeStr != null && !endTimeStr.isEmpty()) {
-				beginTimeStr = "00:00:00";
-			}
-			// If end time not set but begin time is then use midnight as end
-			// time
-			if ((endTimeStr == null || endTimeStr.isEmpty())
-					&& beginTimeStr != null && !beginTimeStr.isEmpty()) {
-				endTimeStr = "23:59:59";
-			}
-
 			java.sql.Time beginTime = null;
 			java.sql.Time endTime = null;
-			if (beginTimeStr != null && !beginTimeStr.isEmpty()) {
+			if (beginTimeStr != null) {
 				beginTime = new java.sql.Time(Time.parseTimeOfDay(beginTimeStr)
 						* Time.MS_PER_SEC);
-			}
-			if (endTimeStr != null && !endTimeStr.isEmpty()) {
 				endTime = new java.sql.Time(Time.parseTimeOfDay(endTimeStr)
 						* Time.MS_PER_SEC);
 			}
 
-			logger.debug("beginDate {} beginDateStr {} endDateStr {} beginTime {} beginTimeStr {} endTime {} endTimeStr {}",
+			logger.debug("beginDate {} endDate {} beginTime {} beginTimeStr {} endTime {} endTimeStr {}",
 			    beginDate,
-			    beginDateStr,
-			    numDays,
+			    endDate,
 			    beginTime,
 			    beginTimeStr,
 			    endTime,
@@ -381,35 +579,19 @@ abstract public class PredictionAccuracyQuery {
 			
 			// Set the parameters for the query
 			int i = 1;
-			statement.setTimestamp(i++, beginDate);
-			statement.setTimestamp(i++, beginDate);
+			statement.setTimestamp(i++, new Timestamp(beginDate.getTime()));
+			statement.setTimestamp(i++, new Timestamp(endDate.getTime()));
 			if (beginTime != null) {
 			  if ("mysql".equals(dbType)) {
 			    // for mysql use the time str as is to avoid TZ issues
 			    statement.setString(i++, beginTimeStr);
+			    statement.setString(i++, endTimeStr);
 			  } else {
 			    statement.setTime(i++, beginTime);
-			  }
-			}
-			if (endTime != null) {
-			  if ("mysql".equals(dbType)) {
-	         // for mysql use the time str as is to avoid TZ issues
-          statement.setString(i++, endTimeStr);
-			  } else {
 			    statement.setTime(i++, endTime);
 			  }
 			}
-			if (routeIds != null) {
-				for (String routeId : routeIds)
-					if (!routeId.trim().isEmpty()) {
-						// Need to add the route ID twice since doing a
-						// routeId='stableId' OR routeShortName='stableId' in
-						// order to handle agencies where GTFS route_id is not
-						// stable but the GTFS route_short_name is.
-						statement.setString(i++, routeId);
-						statement.setString(i++, routeId);
-					}
-			}
+			setRouteParams(statement, i, routeIds);
 
 			// Actually execute the query
 			ResultSet rs = statement.executeQuery();
@@ -18,6 +18,7 @@
 package org.transitime.reports;
 
 import org.transitime.config.BooleanConfigValue;
+import org.transitime.config.IntegerConfigValue;
 
 public class ReportsConfig {
 	
@@ -30,4 +31,29 @@ public class ReportsConfig {
 	public static boolean isShowPredictionSource() {
 		return showPredictionSource.getValue();
 	}
+	
+	private static BooleanConfigValue useRollups =
+			new BooleanConfigValue(
+					"transitime.reports.useRollups", 
+					true, 
+					"Whether reports should read the hourly and daily "
+					+ "rollups created by the RollupModule, where available, "
+					+ "instead of querying the raw tables.");
+	
+	public static boolean isUseRollups() {
+		return useRollups.getValue();
+	}
+	
+	private static IntegerConfigValue schAdhMaxAgeMinutes =
+			new IntegerConfigValue(
+					"transitime.reports.schAdhMaxAgeMinutes", 
+					60, 
+					"For the real-time schedule adherence report. Only "
+					+ "vehicles that have reported within this many minutes "
+					+ "are shown. Limits how much of the VehicleStates table "
+					+ "needs to be examined.");
+	
+	public static int getSchAdhMaxAgeMinutes() {
+		return schAdhMaxAgeMinutes.getValue();
+	}
 }
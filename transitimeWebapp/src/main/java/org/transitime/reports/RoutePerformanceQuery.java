@@ -16,9 +16,14 @@
  */
 package org.transitime.reports;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.Criteria;
@@ -35,6 +40,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.db.hibernate.HibernateUtils;
 import org.transitime.db.structs.PredictionAccuracy;
+import org.transitime.db.structs.PredictionAccuracyAggregate;
+import org.transitime.utils.BucketedHistogram;
+import org.transitime.utils.Time;
 
 /**
  * To find route performance information.
@@ -54,6 +62,8 @@ public class RoutePerformanceQuery {
   
   private static final String TRANSITIME_PREDICTION_SOURCE = "Transitime";
   
+  private static final int DAILY_MINUTES = 24 * 60;
+  
   public List<Object[]> query(String agencyId, Date startDate, int numDays, double allowableEarlyMin, double allowableLateMin, String predictionType, String predictionSource) {
     
     int msecLo = (int) (allowableEarlyMin * 60 * 1000 * -1);
@@ -62,6 +72,18 @@ public class RoutePerformanceQuery {
     c.setTime(startDate);
     c.add(Calendar.DAY_OF_YEAR,numDays);
     Date endDate = c.getTime();
+    
+    // If the daily rollups cover the whole date range then use them since
+    // that is far quicker than going through all of the raw data
+    if (ReportsConfig.isUseRollups()
+        && rollupsCoverRange(agencyId, startDate, endDate)) {
+      List<Object[]> results = queryRollups(agencyId, startDate, endDate,
+          allowableEarlyMin, allowableLateMin, predictionType,
+          predictionSource);
+      if (results != null)
+        return results;
+    }
+    
     // Project to: # of predictions in which route is on time / # of predictions
     // for route. This cannot be done with pure Criteria API. This could be
     // moved to a separate class or XML file.
@@ -111,4 +133,109 @@ public class RoutePerformanceQuery {
     }
   }
 
+  /**
+   * Returns true if the daily route level prediction accuracy rollups cover
+   * the entire range, which must start at midnight.
+   * 
+   * @param agencyId
+   * @param startDate
+   * @param endDate
+   * @return
+   */
+  private boolean rollupsCoverRange(String agencyId, Date startDate,
+      Date endDate) {
+    if (Time.getStartOfDay(startDate) != startDate.getTime())
+      return false;
+    
+    try {
+      session = HibernateUtils.getSession(agencyId);
+      Date lastPeriodStart = (Date) session
+          .createQuery("SELECT MAX(periodStart) "
+              + "FROM PredictionAccuracyAggregate "
+              + "WHERE periodMinutes = :periodMinutes AND stopId IS NULL")
+          .setInteger("periodMinutes", DAILY_MINUTES)
+          .uniqueResult();
+      return lastPeriodStart != null && lastPeriodStart.getTime()
+          + Time.MS_PER_DAY >= endDate.getTime();
+    }
+    catch(HibernateException e) {
+      logger.error(e.toString());
+      return false;
+    }
+    finally {
+      session.close();
+    }
+  }
+  
+  /**
+   * Determines route performance from the daily route level prediction
+   * accuracy rollups. Returns the same list of maps, with "routeId" and
+   * "performance" keys and ordered by performance, as the raw query does.
+   * 
+   * @return the route performance, or null if there was a problem
+   */
+  private List<Object[]> queryRollups(String agencyId, Date startDate,
+      Date endDate, double allowableEarlyMin, double allowableLateMin,
+      String predictionType, String predictionSource) {
+    String sqlClause = "AND stopId IS NULL";
+    if (predictionType == PREDICTION_TYPE_AFFECTED)
+      sqlClause += " AND affectedByWaitStop = true";
+    else if (predictionType == PREDICTION_TYPE_NOT_AFFECTED)
+      sqlClause += " AND affectedByWaitStop = false";
+    
+    if (predictionSource != null && !StringUtils.isEmpty(predictionSource)) {
+      if (predictionSource.equals(TRANSITIME_PREDICTION_SOURCE))
+        sqlClause += " AND predictionSource = '" + TRANSITIME_PREDICTION_SOURCE + "'";
+      else
+        sqlClause += " AND predictionSource <> '" + TRANSITIME_PREDICTION_SOURCE + "'";
+    }
+    
+    List<PredictionAccuracyAggregate> aggregates = PredictionAccuracyAggregate
+        .getAggregates(agencyId, startDate, endDate, DAILY_MINUTES, sqlClause);
+    if (aggregates == null)
+      return null;
+    
+    // Combine the aggregates for each route
+    Map<String, BucketedHistogram> histogramsByRoute =
+        new HashMap<String, BucketedHistogram>();
+    for (PredictionAccuracyAggregate aggregate : aggregates) {
+      BucketedHistogram histogram = histogramsByRoute.get(aggregate.getRouteId());
+      if (histogram == null) {
+        histogram = new BucketedHistogram(
+            PredictionAccuracyAggregate.ERROR_BOUNDARIES_SECS);
+        histogramsByRoute.put(aggregate.getRouteId(), histogram);
+      }
+      aggregate.addTo(histogram);
+    }
+    
+    long secsLo = Math.round(allowableEarlyMin * 60 * -1);
+    long secsHi = Math.round(allowableLateMin * 60);
+    List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+    for (Map.Entry<String, BucketedHistogram> entry : histogramsByRoute.entrySet()) {
+      BucketedHistogram histogram = entry.getValue();
+      if (histogram.getCount() == 0)
+        continue;
+      double performance = (histogram.getCountBelow(secsHi)
+          - histogram.getCountBelow(secsLo)) / histogram.getCount();
+      Map<String, Object> result = new HashMap<String, Object>();
+      result.put("routeId", entry.getKey());
+      result.put("performance", performance);
+      results.add(result);
+    }
+    
+    Collections.sort(results, new Comparator<Map<String, Object>>() {
+      @Override
+      public int compare(Map<String, Object> m1, Map<String, Object> m2) {
+        return Double.compare((Double) m2.get("performance"),
+            (Double) m1.get("performance"));
+      }
+    });
+    
+    // Same type as returned by the criteria query, which actually returns
+    // maps due to the ALIAS_TO_ENTITY_MAP result transformer
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    List<Object[]> list = (List) results;
+    return list;
+  }
+
 }
@@ -21,6 +21,7 @@ import org.transitime.applications.Core;
 import org.transitime.utils.Time;
 
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
@@ -48,12 +49,21 @@ public class SchAdhJsonQuery {
 	 */
 	public static String getJson(String agencyId, String vehicleId) {
 
+		// Only look at recent vehicle states so that the query uses the
+		// avlTime index instead of going through the entire table
+		Date earliestTime = new Date(System.currentTimeMillis()
+				- ReportsConfig.getSchAdhMaxAgeMinutes() * Time.MS_PER_MIN);
+		String earliestTimeStr = 
+				new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(earliestTime);
+
 		String sql = "SELECT v.vehicleId, v.avlTime, v.blockId, v.routeShortName, -(v.schedAdhMsec / 60000) as schedAdh, v.avlTime "
 				+ "FROM VehicleStates v "
 				+ "JOIN "
-				+ "(select vehicleId, max(avlTime) as avlTime from VehicleStates group by vehicleId) maxv "
+				+ "(select vehicleId, max(avlTime) as avlTime from VehicleStates "
+				+ "where avlTime > '" + earliestTimeStr + "' group by vehicleId) maxv "
 				+ "ON maxv.vehicleId = v.vehicleId and maxv.avlTime = v.avlTime "
-				+ "WHERE v.schedAdh is not null ";
+				+ "WHERE v.schedAdh is not null "
+				+ "AND v.avlTime > '" + earliestTimeStr + "' ";
 
 		if (vehicleId != null && !vehicleId.trim().isEmpty()) {
 			sql += " AND v.vehicleId = '" + vehicleId + "' ";
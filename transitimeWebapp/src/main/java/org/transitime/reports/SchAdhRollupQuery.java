@@ -0,0 +1,500 @@
+/*
+ * This file is part of Transitime.org
+ *
+ * Transitime.org is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License (GPL) as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * Transitime.org is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Transitime.org .  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.transitime.reports;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.transitime.db.hibernate.HibernateUtils;
+import org.transitime.db.structs.ActiveRevisions;
+import org.transitime.db.structs.ScheduleAdherenceRollup;
+import org.transitime.utils.BucketedHistogram;
+import org.transitime.utils.Time;
+
+/**
+ * Provides schedule adherence report data from the ScheduleAdherenceRollups
+ * created by the RollupModule instead of from the raw ArrivalsDepartures
+ * table, so that reports covering many days don't need to read every single
+ * arrival/departure.
+ * <p>
+ * The rollups are per route and direction, and per hour or per day, so they
+ * can only be used when the request fits that granularity: the rollups need
+ * to cover the whole date range, a time of day range needs to be on hour
+ * boundaries, and the early/late limits need to be boundaries of the
+ * deviation histograms. Otherwise null is returned and the caller queries
+ * the raw data as before. Reports by stop always use the raw data since the
+ * rollups are not by stop.
+ * <p>
+ * Deviations in the rollups are in whole seconds, so an arrival/departure
+ * that is exactly at a limit can be counted differently than by the raw
+ * queries.
+ *
+ * @author SkiBu Smith
+ *
+ */
+public class SchAdhRollupQuery {
+
+	private static final int HOURLY = 60;
+	private static final int DAILY = 24 * 60;
+
+	// The raw schedule adherence by time report ignores deviations of an
+	// hour or more and puts the rest into 30 second buckets
+	private static final long MAX_DEVIATION_SECS = Time.SEC_PER_HOUR;
+	private static final int TIME_BUCKET_SECS = 30;
+
+	// The reports are limited to this many days
+	private static final int MAX_NUM_DAYS = 7;
+
+	private final List<ScheduleAdherenceRollup> rollups;
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(SchAdhRollupQuery.class);
+
+	/********************** Member Functions **************************/
+
+	private SchAdhRollupQuery(List<ScheduleAdherenceRollup> rollups) {
+		this.rollups = rollups;
+	}
+
+	/**
+	 * Reads in the rollups for the time range. Daily rollups are used when
+	 * the entire day is requested. When a time of day range is specified
+	 * then hourly rollups are used, but only if the range is on hour
+	 * boundaries.
+	 *
+	 * @param agencyId
+	 * @param beginDate
+	 *            Start of the first day
+	 * @param endDate
+	 *            Start of the day after the last day
+	 * @param beginTimeStr
+	 *            Time of day such as "07:00". Null or empty for start of day.
+	 * @param endTimeStr
+	 *            Time of day such as "09:00". Null or empty for end of day.
+	 * @param sqlClause
+	 *            Optional. HQL clause to winnow down the rollups, such as
+	 *            "AND routeId IN ('71')".
+	 * @return the query, or null if the rollups cannot be used for the
+	 *         request and the raw data needs to be used instead
+	 */
+	public static SchAdhRollupQuery create(String agencyId, Date beginDate,
+			Date endDate, String beginTimeStr, String endTimeStr,
+			String sqlClause) {
+		if (!ReportsConfig.isUseRollups())
+			return null;
+
+		// Determine which rollups can be used
+		int periodMinutes = DAILY;
+		int beginSecsIntoDay = 0;
+		int endSecsIntoDay = Time.SEC_PER_DAY;
+		if (beginTimeStr != null && !beginTimeStr.isEmpty())
+			beginSecsIntoDay = Time.parseTimeOfDay(beginTimeStr);
+		if (endTimeStr != null && !endTimeStr.isEmpty())
+			endSecsIntoDay = Time.parseTimeOfDay(endTimeStr);
+		// Treat end of day as midnight
+		if (endSecsIntoDay == Time.SEC_PER_DAY - 1)
+			endSecsIntoDay = Time.SEC_PER_DAY;
+		if (beginSecsIntoDay != 0 || endSecsIntoDay != Time.SEC_PER_DAY) {
+			if (beginSecsIntoDay % Time.SEC_PER_HOUR != 0
+					|| endSecsIntoDay % Time.SEC_PER_HOUR != 0) {
+				logger.debug("Time of day range {} to {} is not on hour "
+						+ "boundaries so rollups cannot be used.",
+						beginTimeStr, endTimeStr);
+				return null;
+			}
+			periodMinutes = HOURLY;
+		}
+
+		// The rollups need to cover the whole range
+		Date lastPeriodStart;
+		try {
+			lastPeriodStart = ScheduleAdherenceRollup.getLastPeriodStart(
+					agencyId, periodMinutes);
+		} catch (HibernateException e) {
+			logger.error("Could not determine range of schedule adherence "
+					+ "rollups. {}", e.getMessage(), e);
+			return null;
+		}
+		if (lastPeriodStart == null
+				|| lastPeriodStart.getTime() + periodMinutes * Time.MS_PER_MIN
+						< endDate.getTime()) {
+			logger.debug("Schedule adherence rollups with periodMinutes={} "
+					+ "only go to {} so cannot be used for range ending {}",
+					periodMinutes, lastPeriodStart, endDate);
+			return null;
+		}
+
+		List<ScheduleAdherenceRollup> rollups =
+				ScheduleAdherenceRollup.getRollups(agencyId, beginDate,
+						endDate, periodMinutes, sqlClause);
+		if (rollups == null)
+			return null;
+
+		// For hourly rollups only use the hours within the time of day range
+		if (periodMinutes == HOURLY) {
+			List<ScheduleAdherenceRollup> rollupsInRange =
+					new ArrayList<ScheduleAdherenceRollup>(rollups.size());
+			Calendar calendar = Calendar.getInstance();
+			for (ScheduleAdherenceRollup rollup : rollups) {
+				calendar.setTime(rollup.getPeriodStart());
+				int secsIntoDay = calendar.get(Calendar.HOUR_OF_DAY)
+						* Time.SEC_PER_HOUR;
+				if (secsIntoDay >= beginSecsIntoDay
+						&& secsIntoDay < endSecsIntoDay)
+					rollupsInRange.add(rollup);
+			}
+			rollups = rollupsInRange;
+		}
+
+		logger.debug("Using {} schedule adherence rollups with "
+				+ "periodMinutes={} for {} to {}", rollups.size(),
+				periodMinutes, beginDate, endDate);
+		return new SchAdhRollupQuery(rollups);
+	}
+
+	/**
+	 * @return the deviations of all of the rollups combined
+	 */
+	public BucketedHistogram getHistogram() {
+		BucketedHistogram histogram = new BucketedHistogram(
+				ScheduleAdherenceRollup.DEVIATION_BOUNDARIES_SECS);
+		for (ScheduleAdherenceRollup rollup : rollups)
+			rollup.addTo(histogram);
+		return histogram;
+	}
+
+	/**
+	 * @param byRouteShortName
+	 *            If true the key is the route short name, which is what the
+	 *            SQL based reports use, otherwise the route ID
+	 * @return the deviations combined for each route
+	 */
+	public Map<String, BucketedHistogram> getHistogramsByRoute(
+			boolean byRouteShortName) {
+		Map<String, BucketedHistogram> histograms =
+				new HashMap<String, BucketedHistogram>();
+		for (ScheduleAdherenceRollup rollup : rollups) {
+			String key = byRouteShortName && rollup.getRouteShortName() != null
+					? rollup.getRouteShortName() : rollup.getRouteId();
+			BucketedHistogram histogram = histograms.get(key);
+			if (histogram == null) {
+				histogram = new BucketedHistogram(
+						ScheduleAdherenceRollup.DEVIATION_BOUNDARIES_SECS);
+				histograms.put(key, histogram);
+			}
+			rollup.addTo(histogram);
+		}
+		return histograms;
+	}
+
+	/**
+	 * @param limitSecs
+	 * @return true if the limit is a boundary of the deviation histograms
+	 *         such that counts above and below it are exact
+	 */
+	public static boolean isBoundary(double limitSecs) {
+		return limitSecs == Math.rint(limitSecs)
+				&& Arrays.binarySearch(
+						ScheduleAdherenceRollup.DEVIATION_BOUNDARIES_SECS,
+						(long) limitSecs) >= 0;
+	}
+
+	/**
+	 * @param histogram
+	 * @param limitSecs
+	 *            Needs to be a boundary, see isBoundary()
+	 * @return the number of deviations less than the limit
+	 */
+	public static long getCountBelow(BucketedHistogram histogram,
+			double limitSecs) {
+		return Math.round(histogram.getCountBelow((long) limitSecs));
+	}
+
+	/**
+	 * Determines the date range of a report request. Looks at the request
+	 * parameters "dateRange", or "beginDate" and "numDays", the same way that
+	 * SqlUtils.timeRangeClause() does.
+	 *
+	 * @param request
+	 * @return begin and end date, or null if the range could not be
+	 *         determined. The raw query then reports the problem.
+	 */
+	private static Date[] getDateRange(HttpServletRequest request) {
+		try {
+			Date beginDate;
+			int numDays;
+			String dateRange = request.getParameter("dateRange");
+			if (dateRange != null) {
+				String fromToDates[] = dateRange.split(" to ");
+				beginDate = parseDate(fromToDates[0]);
+				Date lastDate = parseDate(
+						fromToDates[fromToDates.length > 1 ? 1 : 0]);
+				numDays = (int) ((lastDate.getTime() - beginDate.getTime()
+						+ Time.MS_PER_HOUR) / Time.MS_PER_DAY) + 1;
+				if (numDays > MAX_NUM_DAYS)
+					return null;
+			} else {
+				beginDate = parseDate(request.getParameter("beginDate"));
+				numDays = Math.min(
+						Integer.parseInt(request.getParameter("numDays")),
+						MAX_NUM_DAYS);
+			}
+			Calendar calendar = Calendar.getInstance();
+			calendar.setTime(beginDate);
+			calendar.add(Calendar.DAY_OF_MONTH, numDays);
+			return new Date[] {beginDate, calendar.getTime()};
+		} catch (ParseException | RuntimeException e) {
+			logger.debug("Could not determine date range for rollups. {}",
+					e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Parses a date in either ISO format, as used by the date pickers, or
+	 * the formats handled by Time.parseDate().
+	 */
+	private static Date parseDate(String dateStr) throws ParseException {
+		if (dateStr.matches("\\d{4}-\\d{1,2}-\\d{1,2}")) {
+			SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+			format.setLenient(false);
+			return format.parse(dateStr);
+		}
+		return Time.parseDate(dateStr);
+	}
+
+	/**
+	 * Creates the query for a report request using the request parameters
+	 * "a", "r", "dateRange" or "beginDate" and "numDays", "beginTime", and
+	 * "endTime".
+	 *
+	 * @param request
+	 * @return the query, or null if the rollups cannot be used
+	 */
+	private static SchAdhRollupQuery create(HttpServletRequest request) {
+		Date[] dateRange = getDateRange(request);
+		if (dateRange == null)
+			return null;
+
+		String beginTime = request.getParameter("beginTime");
+		SqlUtils.throwOnSqlInjection(beginTime);
+		String endTime = request.getParameter("endTime");
+		SqlUtils.throwOnSqlInjection(endTime);
+
+		return create(request.getParameter("a"), dateRange[0], dateRange[1],
+				beginTime, endTime, SqlUtils.routeClause(request, null));
+	}
+
+	/**
+	 * @param request
+	 * @param name
+	 *            Name of the request parameter, in minutes
+	 * @param defaultMinutes
+	 * @return the limit in seconds, determined the same way as the SQL based
+	 *         reports do
+	 */
+	private static int getLimitSecs(HttpServletRequest request, String name,
+			String defaultMinutes) {
+		String minutes = request.getParameter(name);
+		if (minutes == null || minutes.isEmpty())
+			minutes = defaultMinutes;
+		return SqlUtils.convertMinutesToSecs(minutes);
+	}
+
+	/**
+	 * Provides the data for the schedule adherence by route report from the
+	 * rollups. Same JSON as the SQL query in schAdhByRouteData.jsp: the
+	 * number of early, ontime, late and total arrivals/departures and the
+	 * route name for each route, in route order.
+	 *
+	 * @param request
+	 * @return the JSON string, or null if the rollups cannot be used
+	 */
+	public static String getByRouteJson(HttpServletRequest request) {
+		int allowableEarlySecs = getLimitSecs(request, "allowableEarly", "1.0");
+		int allowableLateSecs = getLimitSecs(request, "allowableLate", "4.0");
+		if (!isBoundary(-allowableEarlySecs) || !isBoundary(allowableLateSecs))
+			return null;
+
+		SchAdhRollupQuery query = create(request);
+		if (query == null)
+			return null;
+		Map<String, BucketedHistogram> histograms =
+				query.getHistogramsByRoute(true);
+
+		// Order the routes the same way as the SQL query, by route order
+		// and then name
+		final Map<String, Object[]> routeInfo =
+				getRouteInfo(request.getParameter("a"));
+		List<String> routeShortNames =
+				new ArrayList<String>(histograms.keySet());
+		Collections.sort(routeShortNames, new Comparator<String>() {
+			@Override
+			public int compare(String r1, String r2) {
+				Object[] info1 = routeInfo.get(r1);
+				Object[] info2 = routeInfo.get(r2);
+				Integer order1 = info1 != null ? (Integer) info1[1] : null;
+				Integer order2 = info2 != null ? (Integer) info2[1] : null;
+				if (order1 != null && order2 != null && !order1.equals(order2))
+					return order1.compareTo(order2);
+				if (order1 != null && order2 == null)
+					return -1;
+				if (order1 == null && order2 != null)
+					return 1;
+				return routeName(routeInfo, r1).compareTo(
+						routeName(routeInfo, r2));
+			}
+		});
+
+		StringBuilder sb = new StringBuilder("{\"data\": [\n");
+		for (String routeShortName : routeShortNames) {
+			BucketedHistogram histogram = histograms.get(routeShortName);
+			long total = histogram.getCount();
+			long early = getCountBelow(histogram, -allowableEarlySecs);
+			long late = total - getCountBelow(histogram, allowableLateSecs);
+			if (sb.charAt(sb.length() - 1) == '}')
+				sb.append(",\n");
+			sb.append("{\"early\":").append(early)
+					.append(",\"ontime\":").append(total - early - late)
+					.append(",\"late\":").append(late)
+					.append(",\"total\":").append(total)
+					.append(",\"name\":\"")
+					.append(jsonEscape(routeName(routeInfo, routeShortName)))
+					.append("\"}");
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	/**
+	 * Provides the data for the schedule adherence by time report from the
+	 * rollups. Same JSON as the SQL query in schAdhByTimeData.jsp: the
+	 * count for each 30 second time_period, where time_period is the floor
+	 * of how early the vehicle was.
+	 *
+	 * @param request
+	 * @return the JSON string, or null if the rollups cannot be used
+	 */
+	public static String getByTimeJson(HttpServletRequest request) {
+		SchAdhRollupQuery query = create(request);
+		if (query == null)
+			return null;
+		BucketedHistogram histogram = query.getHistogram();
+
+		// Bucket i holds deviations from boundaries[i-1] to boundaries[i].
+		// Deviations are positive for late while time_period is positive for
+		// early, so a deviation in [30k, 30k+30) has time_period -30k-30.
+		long[] boundaries = histogram.getBoundaries();
+		Map<Long, Long> countsByTimePeriod = new TreeMap<Long, Long>();
+		for (int i = 1; i < boundaries.length; ++i) {
+			long lower = boundaries[i - 1];
+			long upper = boundaries[i];
+			if (lower < -MAX_DEVIATION_SECS || upper > MAX_DEVIATION_SECS)
+				continue;
+			long count = histogram.getBucketCount(i);
+			if (count == 0)
+				continue;
+			long timeBucket = floorDiv(lower, TIME_BUCKET_SECS);
+			if (floorDiv(upper - 1, TIME_BUCKET_SECS) != timeBucket) {
+				logger.error("Deviation bucket {} to {} is wider than the "
+						+ "time buckets so rollups cannot be used.", lower,
+						upper);
+				return null;
+			}
+			long timePeriod = -timeBucket * TIME_BUCKET_SECS - TIME_BUCKET_SECS;
+			Long previousCount = countsByTimePeriod.get(timePeriod);
+			countsByTimePeriod.put(timePeriod,
+					previousCount == null ? count : previousCount + count);
+		}
+
+		StringBuilder sb = new StringBuilder("{\"data\": [\n");
+		for (Map.Entry<Long, Long> entry : countsByTimePeriod.entrySet()) {
+			if (sb.charAt(sb.length() - 1) == '}')
+				sb.append(",\n");
+			sb.append("{\"counts_per_time_period\":").append(entry.getValue())
+					.append(",\"time_period\":").append(entry.getKey())
+					.append('}');
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	/**
+	 * Reads in the name and route order of the routes of the active config
+	 * rev, keyed by route short name.
+	 *
+	 * @param agencyId
+	 * @return map of route short name to name and route order
+	 */
+	private static Map<String, Object[]> getRouteInfo(String agencyId) {
+		Map<String, Object[]> routeInfo = new HashMap<String, Object[]>();
+		Session session = HibernateUtils.getSession(agencyId);
+		try {
+			int configRev = ActiveRevisions.get(session).getConfigRev();
+			@SuppressWarnings("unchecked")
+			List<Object[]> rows = session
+					.createQuery("SELECT shortName, name, routeOrder "
+							+ "FROM Route WHERE configRev = :configRev")
+					.setInteger("configRev", configRev).list();
+			for (Object[] row : rows)
+				routeInfo.put((String) row[0],
+						new Object[] {row[1], row[2]});
+		} catch (HibernateException e) {
+			logger.error("Could not read routes. {}", e.getMessage(), e);
+		} finally {
+			session.close();
+		}
+		return routeInfo;
+	}
+
+	private static String routeName(Map<String, Object[]> routeInfo,
+			String routeShortName) {
+		Object[] info = routeInfo.get(routeShortName);
+		return info != null && info[0] != null ?
+				(String) info[0] : routeShortName;
+	}
+
+	private static String jsonEscape(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	/**
+	 * Floor division, since Math.floorDiv() is not available in Java 7
+	 */
+	private static long floorDiv(long x, long y) {
+		long result = x / y;
+		if ((x % y != 0) && ((x < 0) != (y < 0)))
+			--result;
+		return result;
+	}
+}
@@ -22,6 +22,7 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.Session;
@@ -37,8 +38,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.transitime.config.BooleanConfigValue;
 import org.transitime.config.IntegerConfigValue;
+import org.transitime.configData.DbSetupConfig;
 import org.transitime.db.hibernate.HibernateUtils;
 import org.transitime.db.structs.ArrivalDeparture;
+import org.transitime.utils.BucketedHistogram;
 import org.transitime.utils.Time;
 
 public class ScheduleAdherenceController {
@@ -117,18 +120,41 @@ public class ScheduleAdherenceController {
 		int ontime = 0;
 		Double earlyLimit = (usePredictionLimits.getValue() ? earlyLimitParam : scheduleEarlySeconds.getValue());
 		Double lateLimit = (usePredictionLimits.getValue() ? lateLimitParam : scheduleLateSeconds.getValue());
-		List<Object> results = routeScheduleAdherence(startDate, numDays, startTime, endTime, routeIds, false, null);
-
-		for (Object o : results) {
-			count++;
-			HashMap hm = (HashMap) o;
-			Double d = (Double)hm.get("scheduleAdherence");
-			if (d > lateLimit) {
-				late++;
-			} else if (d < earlyLimit) {
-				early++;
-			} else {
-				ontime++;
+
+		// Use the rollups if the limits are boundaries of their histograms
+		// since that is far quicker than reading every arrival/departure
+		BucketedHistogram histogram = null;
+		if (earlyLimit != null && lateLimit != null
+				&& SchAdhRollupQuery.isBoundary(earlyLimit)
+				&& SchAdhRollupQuery.isBoundary(lateLimit)) {
+			SchAdhRollupQuery query = SchAdhRollupQuery.create(
+					DbSetupConfig.getDbName(), startDate,
+					getEndDate(startDate, numDays), startTime, endTime,
+					rollupClause(filterIds(routeIds), null));
+			if (query != null)
+				histogram = query.getHistogram();
+		}
+
+		if (histogram != null) {
+			count = (int) histogram.getCount();
+			early = (int) SchAdhRollupQuery.getCountBelow(histogram, earlyLimit);
+			late = count
+					- (int) SchAdhRollupQuery.getCountBelow(histogram, lateLimit);
+			ontime = count - early - late;
+		} else {
+			List<Object> results = routeScheduleAdherence(startDate, numDays, startTime, endTime, routeIds, false, null);
+
+			for (Object o : results) {
+				count++;
+				HashMap hm = (HashMap) o;
+				Double d = (Double)hm.get("scheduleAdherence");
+				if (d > lateLimit) {
+					late++;
+				} else if (d < earlyLimit) {
+					early++;
+				} else {
+					ontime++;
+				}
 			}
 		}
 		logger.info("query complete -- earlyLimit={}, lateLimit={}, early={}, ontime={}, late={}, count={}",
@@ -145,15 +171,17 @@ public class ScheduleAdherenceController {
 	private static List<Object> groupScheduleAdherence(Date startDate, int numDays, String startTime, String endTime,
 			String groupName, List<String> idsOrEmpty, boolean byGroup, String datatype) {
 
-		// filter ids which may be empty.
-		List<String> ids = new ArrayList<String>();
-		if (idsOrEmpty != null)
-			for (String id : idsOrEmpty)
-				if (!StringUtils.isBlank(id)) {
-					ids.add(id);
-				}
+		List<String> ids = filterIds(idsOrEmpty);
 		
-		Date endDate = new Date(startDate.getTime() + (numDays * Time.MS_PER_DAY));
+		Date endDate = getEndDate(startDate, numDays);
+
+		// The rollups are by route so use them for the average by route
+		if (byGroup && "routeId".equals(groupName)) {
+			List<Object> results = rollupScheduleAdherence(startDate, endDate,
+					startTime, endTime, ids, datatype);
+			if (results != null)
+				return results;
+		}
 
 		ProjectionList proj = Projections.projectionList();
 
@@ -187,6 +215,78 @@ public class ScheduleAdherenceController {
 
 	}
 
+	/**
+	 * Determines the average schedule adherence for each route from the
+	 * schedule adherence rollups.
+	 * 
+	 * @return list of maps with routeId, count, and scheduleAdherence in
+	 *         seconds, like the raw query, or null if the rollups cannot be
+	 *         used
+	 */
+	private static List<Object> rollupScheduleAdherence(Date startDate,
+			Date endDate, String startTime, String endTime, List<String> routeIds,
+			String datatype) {
+		SchAdhRollupQuery query = SchAdhRollupQuery.create(
+				DbSetupConfig.getDbName(), startDate, endDate, startTime,
+				endTime, rollupClause(routeIds, datatype));
+		if (query == null)
+			return null;
+
+		List<Object> results = new ArrayList<Object>();
+		for (Map.Entry<String, BucketedHistogram> entry : query
+				.getHistogramsByRoute(false).entrySet()) {
+			HashMap<String, Object> result = new HashMap<String, Object>();
+			result.put("routeId", entry.getKey());
+			result.put("count", entry.getValue().getCount());
+			result.put("scheduleAdherence", entry.getValue().getMean());
+			results.add(result);
+		}
+		return results;
+	}
+
+	/**
+	 * @return HQL clause for winnowing down the rollups to the routes and
+	 *         the arrivals or departures
+	 */
+	private static String rollupClause(List<String> routeIds, String datatype) {
+		StringBuilder sb = new StringBuilder();
+		if ("arrival".equals(datatype))
+			sb.append(" AND isArrival = true");
+		else if ("departure".equals(datatype))
+			sb.append(" AND isArrival = false");
+
+		if (!routeIds.isEmpty()) {
+			sb.append(" AND routeId IN (");
+			boolean needComma = false;
+			for (String routeId : routeIds) {
+				SqlUtils.throwOnSqlInjection(routeId);
+				if (needComma)
+					sb.append(',');
+				needComma = true;
+				sb.append('\'').append(routeId).append('\'');
+			}
+			sb.append(')');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the ids without any blank ones
+	 */
+	private static List<String> filterIds(List<String> idsOrEmpty) {
+		List<String> ids = new ArrayList<String>();
+		if (idsOrEmpty != null)
+			for (String id : idsOrEmpty)
+				if (!StringUtils.isBlank(id)) {
+					ids.add(id);
+				}
+		return ids;
+	}
+
+	private static Date getEndDate(Date startDate, int numDays) {
+		return new Date(startDate.getTime() + (numDays * Time.MS_PER_DAY));
+	}
+
 	 private static Date endOfDay(Date endDate) {
 		 Calendar c = Calendar.getInstance();
 		 c.setTime(endDate);
@@ -16,9 +16,20 @@
 <%@ page language="java" contentType="text/html; charset=ISO-8859-1"
     pageEncoding="ISO-8859-1"%>
 <%@ page import="org.transitime.reports.GenericJsonQuery" %>
+<%@ page import="org.transitime.reports.SchAdhRollupQuery" %>
 <%@ page import="org.transitime.reports.SqlUtils" %>
 <%
 try {		
+// Use the schedule adherence rollups if they can handle the request
+// since that is far quicker than going through the raw data
+String rollupJsonString = SchAdhRollupQuery.getByRouteJson(request);
+if (rollupJsonString != null) {
+	response.setContentType("application/json");
+	response.setHeader("Access-Control-Allow-Origin", "*");
+	response.getWriter().write(rollupJsonString);
+	return;
+}
+
 String allowableEarlyStr = request.getParameter("allowableEarly");
 if (allowableEarlyStr == null || allowableEarlyStr.isEmpty())
 	allowableEarlyStr = "1.0";
@@ -12,6 +12,8 @@
        endTime - for optionally specifying time of day for query for each day
        allowableEarlyMinutes - how early vehicle can be and still be OK.  Decimal format OK. 
        allowableLateMinutes - how early vehicle can be and still be OK. Decimal format OK.
+     Unlike the by route and by time reports this always uses the raw
+     ArrivalsDepartures since the schedule adherence rollups are not by stop.
 --%>
 <%@ page language="java" contentType="text/html; charset=ISO-8859-1"
     pageEncoding="ISO-8859-1"%>
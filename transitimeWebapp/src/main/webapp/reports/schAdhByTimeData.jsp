@@ -21,9 +21,20 @@
     pageEncoding="ISO-8859-1"%>
 <%@ page import="org.transitime.db.webstructs.WebAgency" %>
 <%@ page import="org.transitime.reports.GenericJsonQuery" %>
+<%@ page import="org.transitime.reports.SchAdhRollupQuery" %>
 <%@ page import="org.transitime.reports.SqlUtils" %>
 <%
 try {
+// Use the schedule adherence rollups if they can handle the request
+// since that is far quicker than going through the raw data
+String rollupJsonString = SchAdhRollupQuery.getByTimeJson(request);
+if (rollupJsonString != null) {
+	response.setContentType("application/json");
+	response.setHeader("Access-Control-Allow-Origin", "*");
+	response.getWriter().write(rollupJsonString);
+	return;
+}
+
  String agencyId = request.getParameter("a");
  WebAgency agency = WebAgency.getCachedWebAgency(agencyId);
  String dbtype = agency.getDbType();